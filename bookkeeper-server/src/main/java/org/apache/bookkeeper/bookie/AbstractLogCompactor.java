@@ -25,6 +25,7 @@ import com.google.common.util.concurrent.RateLimiter;
 import java.io.IOException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
 import org.apache.bookkeeper.conf.ServerConfiguration;
 
 /**
@@ -69,13 +70,19 @@ public abstract class AbstractLogCompactor {
         private final RateLimiter rateLimiter;
         private final boolean isThrottleByBytes;
         private final AtomicBoolean cancelled = new AtomicBoolean(false);
+        // Pauses the compaction while true
+        private volatile BooleanSupplier pauseCondition = () -> false;
 
         Throttler(ServerConfiguration conf) {
-            this.isThrottleByBytes  = conf.getIsThrottleByBytes();
-            this.rateLimiter = RateLimiter.create(this.isThrottleByBytes
+            this(conf.getIsThrottleByBytes(), conf.getIsThrottleByBytes()
                 ? conf.getCompactionRateByBytes() : conf.getCompactionRateByEntries());
         }
 
+        Throttler(boolean isThrottleByBytes, double rate) {
+            this.isThrottleByBytes = isThrottleByBytes;
+            this.rateLimiter = RateLimiter.create(rate);
+        }
+
         // acquire. if bybytes: bytes of this entry; if byentries: 1.
         boolean tryAcquire(int permits, long timeout, TimeUnit unit) {
             return rateLimiter.tryAcquire(this.isThrottleByBytes ? permits : 1, timeout, unit);
@@ -87,6 +94,18 @@ public abstract class AbstractLogCompactor {
         public void acquire(int permits) throws IOException {
             long timeout = 100;
             long start = System.currentTimeMillis();
+            while (pauseCondition.getAsBoolean()) {
+                if (cancelled.get()) {
+                    throw new IOException("Compaction paused for " + (System.currentTimeMillis() - start)
+                            + " ms while the compactor was shutting down");
+                }
+                try {
+                    TimeUnit.MILLISECONDS.sleep(timeout);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while the compaction was paused", e);
+                }
+            }
             while (!tryAcquire(permits, timeout, TimeUnit.MILLISECONDS)) {
                 if (cancelled.get()) {
                     throw new IOException("Failed to get permits takes "
@@ -104,6 +123,13 @@ public abstract class AbstractLogCompactor {
         public void cancelledAcquire() {
             cancelled.set(true);
         }
+
+        /**
+         * Set the condition checked before each acquire, that pauses the compaction while true.
+         */
+        void setPauseCondition(BooleanSupplier pauseCondition) {
+            this.pauseCondition = pauseCondition;
+        }
     }
 
 }
@@ -54,6 +54,10 @@ public interface BookKeeperServerStats {
     String READ_ENTRY = "READ_ENTRY";
     String READ_ENTRY_REJECTED = "READ_ENTRY_REJECTED";
     String READ_ENTRY_SCHEDULING_DELAY = "READ_ENTRY_SCHEDULING_DELAY";
+    String TAILING_READ_THREAD_QUEUED_LATENCY = "TAILING_READ_THREAD_QUEUED_LATENCY";
+    String CATCH_UP_READ_THREAD_QUEUED_LATENCY = "CATCH_UP_READ_THREAD_QUEUED_LATENCY";
+    String BATCH_READ_ENTRY_REQUEST = "BATCH_READ_ENTRY_REQUEST";
+    String BATCH_READ_ENTRY = "BATCH_READ_ENTRY";
     String READ_ENTRY_FENCE_REQUEST = "READ_ENTRY_FENCE_REQUEST";
     String READ_ENTRY_FENCE_WAIT = "READ_ENTRY_FENCE_WAIT";
     String READ_ENTRY_FENCE_READ = "READ_ENTRY_FENCE_READ";
@@ -89,6 +93,7 @@ public interface BookKeeperServerStats {
     String BOOKIE_ADD_ENTRY_BYTES = "BOOKIE_ADD_ENTRY_BYTES";
     String BOOKIE_READ_ENTRY_BYTES = "BOOKIE_READ_ENTRY_BYTES";
     String BOOKIE_GET_LIST_OF_ENTRIES_OF_LEDGER = "BOOKIE_GET_LIST_OF_ENTRIES_OF_LEDGER";
+    String BOOKIE_JOURNAL_REPLAY = "BOOKIE_JOURNAL_REPLAY";
 
     String ADD_ENTRY_IN_PROGRESS = "ADD_ENTRY_IN_PROGRESS";
     String ADD_ENTRY_BLOCKED = "ADD_ENTRY_BLOCKED";
@@ -96,6 +101,7 @@ public interface BookKeeperServerStats {
     String READ_ENTRY_IN_PROGRESS = "READ_ENTRY_IN_PROGRESS";
     String READ_ENTRY_BLOCKED = "READ_ENTRY_BLOCKED";
     String READ_ENTRY_BLOCKED_WAIT = "READ_ENTRY_BLOCKED_WAIT";
+    String FLOW_CONTROL_CREDITS = "FLOW_CONTROL_CREDITS";
 
     //
     // Journal Stats (scoped under SERVER_SCOPE)
@@ -116,6 +122,12 @@ public interface BookKeeperServerStats {
     String JOURNAL_CREATION_LATENCY = "JOURNAL_CREATION_LATENCY";
     String JOURNAL_MEMORY_MAX = "JOURNAL_MEMORY_MAX";
     String JOURNAL_MEMORY_USED = "JOURNAL_MEMORY_USED";
+    String JOURNAL_GROUP_COMMIT_WAIT = "JOURNAL_GROUP_COMMIT_WAIT_USEC";
+    String JOURNAL_GROUP_COMMIT_ENTRIES = "JOURNAL_GROUP_COMMIT_ENTRIES";
+    String JOURNAL_GROUP_COMMIT_LATENCY_P99 = "JOURNAL_GROUP_COMMIT_LATENCY_P99_USEC";
+    String JOURNAL_ARRIVAL_RATE = "JOURNAL_ARRIVAL_RATE";
+    String JOURNAL_COMMIT_LATENCY_AVG = "JOURNAL_COMMIT_LATENCY_AVG_USEC";
+    String JOURNAL_ROUTED_LEDGERS = "JOURNAL_ROUTED_LEDGERS";
 
     // Ledger Storage Stats
     String STORAGE_GET_OFFSET = "STORAGE_GET_OFFSET";
@@ -152,6 +164,10 @@ public interface BookKeeperServerStats {
     String MINOR_COMPACTION_COUNT = "MINOR_COMPACTION_TOTAL";
     String ACTIVE_LEDGER_COUNT = "ACTIVE_LEDGER_TOTAL";
     String DELETED_LEDGER_COUNT = "DELETED_LEDGER_TOTAL";
+    String GC_INCREMENTAL_TICK_ENTRY_LOGS = "GC_INCREMENTAL_TICK_ENTRY_LOGS";
+    String COMPACTION_PAUSED_TIME = "COMPACTION_PAUSED_TIME";
+    String COMPACTION_COPIED_BYTES_RATE = "COMPACTION_COPIED_BYTES_PER_SECOND";
+    String COMPACTION_RECLAIMED_BYTES_RATE = "COMPACTION_RECLAIMED_BYTES_PER_SECOND";
 
     // Index Related Counters
     String INDEX_INMEM_ILLEGAL_STATE_RESET = "INDEX_INMEM_ILLEGAL_STATE_RESET";
@@ -19,7 +19,10 @@
 package org.apache.bookkeeper.bookie;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.FileRegion;
+import io.netty.util.ReferenceCounted;
 import java.io.IOException;
+import java.util.List;
 import java.util.PrimitiveIterator;
 import java.util.concurrent.CompletableFuture;
 import org.apache.bookkeeper.common.util.Watcher;
@@ -45,6 +48,18 @@ public interface Bookie {
             throws IOException, BookieException, InterruptedException;
     void recoveryAddEntry(ByteBuf entry, WriteCallback cb, Object ctx, byte[] masterKey)
             throws IOException, BookieException, InterruptedException;
+
+    /**
+     * Add consecutive entries of a ledger at once, with their callbacks. The entries added are released, the ones
+     * left, starting at the first entry that couldn't be added, must be added by the caller with
+     * {@link #addEntry}. If interrupted, all the entries are released and none is acknowledged.
+     *
+     * @return the number of entries added
+     */
+    default int addEntries(List<ByteBuf> entries, boolean ackBeforeSync, List<? extends WriteCallback> cbs,
+                           Object ctx, byte[] masterKey) throws InterruptedException {
+        return 0;
+    }
     void forceLedger(long ledgerId, WriteCallback cb, Object ctx);
     void setExplicitLac(ByteBuf entry, WriteCallback writeCallback, Object ctx, byte[] masterKey)
             throws IOException, InterruptedException, BookieException;
@@ -57,7 +72,25 @@ public interface Bookie {
     // TODO: Shouldn't this be async?
     ByteBuf readEntry(long ledgerId, long entryId)
             throws IOException, NoLedgerException, BookieException;
+
+    /**
+     * Read an entry, or get the region of the entry log holding it when it is not cached
+     * and it is at least minRegionSize bytes.
+     *
+     * @return the entry, as {@link ByteBuf} or {@link FileRegion}
+     */
+    default ReferenceCounted readEntryOrRegion(long ledgerId, long entryId, int minRegionSize)
+            throws IOException, NoLedgerException, BookieException {
+        return readEntry(ledgerId, entryId);
+    }
     long readLastAddConfirmed(long ledgerId) throws IOException, BookieException;
+
+    /**
+     * @return the fill ratio of the fullest journal queue, between 0 and 1
+     */
+    default double getJournalQueueLoad() {
+        return 0;
+    }
     PrimitiveIterator.OfLong getListOfEntriesOfLedger(long ledgerId) throws IOException, NoLedgerException;
 
     /**
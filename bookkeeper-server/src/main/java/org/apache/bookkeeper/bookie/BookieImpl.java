@@ -32,7 +32,9 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.FileRegion;
 import io.netty.util.ReferenceCountUtil;
+import io.netty.util.ReferenceCounted;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
@@ -98,6 +100,7 @@ public class BookieImpl extends BookieCriticalThread implements Bookie {
     final LedgerStorage ledgerStorage;
     final RegistrationManager registrationManager;
     final List<Journal> journals;
+    private final JournalRouter journalRouter;
 
     final HandleFactory handles;
     final boolean entryLogPerLedgerEnabled;
@@ -107,6 +110,9 @@ public class BookieImpl extends BookieCriticalThread implements Bookie {
     public static final long METAENTRY_ID_FORCE_LEDGER  = -0x4000;
     static final long METAENTRY_ID_LEDGER_EXPLICITLAC  = -0x8000;
 
+    // Max size of the journal entries read and waiting to be replayed by the replay threads
+    private static final int JOURNAL_REPLAY_MAX_PENDING_BYTES = 64 * 1024 * 1024;
+
     private final LedgerDirsManager ledgerDirsManager;
     protected final Supplier<BookieServiceInfo> bookieServiceInfoProvider;
     private final LedgerDirsManager indexDirsManager;
@@ -436,6 +442,8 @@ public class BookieImpl extends BookieCriticalThread implements Bookie {
             journals.add(new Journal(i, journalDirectories.get(i),
                     conf, ledgerDirsManager, statsLogger.scope(JOURNAL_SCOPE), allocator, journalAliveListener));
         }
+        journalRouter = new JournalRouter(journals, conf.isJournalLoadAwareRoutingEnabled(),
+                TimeUnit.SECONDS.toMillis(conf.getJournalLoadAwareRoutingIdleLedgerSeconds()));
 
         this.entryLogPerLedgerEnabled = conf.isEntryLogPerLedgerEnabled();
         CheckpointSource checkpointSource = new CheckpointSourceList(journals);
@@ -483,6 +491,7 @@ public class BookieImpl extends BookieCriticalThread implements Bookie {
             @Override
             public void ledgerDeleted(long ledgerId) {
                 masterKeyCache.remove(ledgerId);
+                journalRouter.ledgerDeleted(ledgerId);
             }
         };
 
@@ -595,11 +604,22 @@ public class BookieImpl extends BookieCriticalThread implements Bookie {
             }
         };
 
-        for (Journal journal : journals) {
-            replay(journal, scanner);
+        int replayThreads = conf.getJournalReplayThreads();
+        try (ParallelJournalScanner parallelScanner = new ParallelJournalScanner(scanner, replayThreads,
+                JOURNAL_REPLAY_MAX_PENDING_BYTES)) {
+            for (Journal journal : journals) {
+                replay(journal, parallelScanner);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while replaying journals", e);
         }
+        // The entries persisted by the ledger storage instead of the journal
+        ledgerStorage.recoverPersistedEntries();
+
         long elapsedTs = System.currentTimeMillis() - startTs;
-        LOG.info("Finished replaying journal in {} ms.", elapsedTs);
+        bookieStats.getJournalReplayStats().registerSuccessfulEvent(elapsedTs, TimeUnit.MILLISECONDS);
+        LOG.info("Finished replaying journal in {} ms with {} threads.", elapsedTs, replayThreads);
     }
 
     /**
@@ -609,7 +629,7 @@ public class BookieImpl extends BookieCriticalThread implements Bookie {
      * @param scanner Scanner to process replayed entries.
      * @throws IOException
      */
-    private void replay(Journal journal, JournalScanner scanner) throws IOException {
+    private void replay(Journal journal, ParallelJournalScanner scanner) throws IOException {
         final LogMark markedLog = journal.getLastLogMark().getCurMark();
         List<Long> logs = Journal.listJournalIds(journal.getJournalDirectory(), journalId ->
             journalId >= markedLog.getLogFileId());
@@ -632,6 +652,8 @@ public class BookieImpl extends BookieCriticalThread implements Bookie {
             }
             LOG.info("Replaying journal {} from position {}", id, logPosition);
             long scanOffset = journal.scanJournal(id, logPosition, scanner);
+            // The mark can only move once all the entries of the journal are in the ledger storage
+            scanner.waitForCompletion();
             // Update LastLogMark after completely replaying journal
             // scanOffset will point to EOF position
             // After LedgerStorage flush, SyncThread should persist this to disk
@@ -906,7 +928,7 @@ public class BookieImpl extends BookieCriticalThread implements Bookie {
     }
 
     private Journal getJournal(long ledgerId) {
-        return journals.get(MathUtils.signSafeMod(ledgerId, journals.size()));
+        return journalRouter.getJournal(ledgerId);
     }
 
     @VisibleForTesting
@@ -948,6 +970,10 @@ public class BookieImpl extends BookieCriticalThread implements Bookie {
         }
 
         if (!writeDataToJournal) {
+            if (ledgerStorage.persistEntry(entry, cb, ctx)) {
+                // The storage acks the entry once persisted
+                return;
+            }
             cb.writeComplete(0, ledgerId, entryId, null, ctx);
             if (ctx instanceof BookieRequestHandler) {
                 ((BookieRequestHandler) ctx).flushPendingResponse();
@@ -1090,6 +1116,91 @@ public class BookieImpl extends BookieCriticalThread implements Bookie {
         }
     }
 
+    /**
+     * Add consecutive entries of a ledger at once: they are inserted in the ledger storage under a single lock of
+     * the ledger and logged to the journal in a single queue entry, acknowledged together.
+     */
+    @Override
+    public int addEntries(List<ByteBuf> entries, boolean ackBeforeSync, List<? extends WriteCallback> cbs,
+                          Object ctx, byte[] masterKey) throws InterruptedException {
+        if (!writeDataToJournal || entries.isEmpty()) {
+            // The storage acks each entry on its own
+            return 0;
+        }
+        long requestNanos = MathUtils.nowInNano();
+        int added = 0;
+        try {
+            LedgerDescriptor handle = getLedgerForEntry(entries.get(0), masterKey);
+            synchronized (handle) {
+                if (handle.isFenced()) {
+                    // Rejected by addEntry
+                    return 0;
+                }
+                long ledgerId = handle.getLedgerId();
+                try {
+                    for (; added < entries.size(); added++) {
+                        ByteBuf entry = entries.get(added);
+                        if (entry.getLong(entry.readerIndex()) != ledgerId) {
+                            break;
+                        }
+                        handle.addEntry(entry);
+                        bookieStats.getWriteBytes().addCount(entry.readableBytes());
+                    }
+                } catch (NoWritableLedgerDirException e) {
+                    stateManager.transitionToReadOnlyMode();
+                } catch (IOException | BookieException | RuntimeException e) {
+                    // The entry is added again by the caller, to fail with the right error
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Failed to add entry {} of batch of ledger {}", added, ledgerId, e);
+                    }
+                }
+                if (added == 0) {
+                    return 0;
+                }
+
+                if (masterKeyCache.get(ledgerId) == null) {
+                    // Force the load into masterKey cache
+                    byte[] oldValue = masterKeyCache.putIfAbsent(ledgerId, masterKey);
+                    if (oldValue == null) {
+                        ByteBuf masterKeyEntry = createMasterKeyEntry(ledgerId, masterKey);
+                        try {
+                            getJournal(ledgerId).logAddEntry(
+                                    masterKeyEntry, false /* ackBeforeSync */, new NopWriteCallback(), null);
+                        } finally {
+                            ReferenceCountUtil.release(masterKeyEntry);
+                        }
+                    }
+                }
+
+                if (LOG.isTraceEnabled()) {
+                    LOG.trace("Adding {} entries of ledger {}", added, ledgerId);
+                }
+                getJournal(ledgerId).logAddEntries(entries.subList(0, added), ackBeforeSync,
+                        cbs.subList(0, added), ctx);
+            }
+        } catch (IOException | BookieException e) {
+            // The entries are added one by one by the caller, to fail with the right error
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Failed to add batch of {} entries", entries.size(), e);
+            }
+            return 0;
+        } catch (InterruptedException e) {
+            for (int i = added; i < entries.size(); i++) {
+                ReferenceCountUtil.release(entries.get(i));
+            }
+            throw e;
+        } finally {
+            long elapsedNanos = MathUtils.elapsedNanos(requestNanos);
+            for (int i = 0; i < added; i++) {
+                ByteBuf entry = entries.get(i);
+                bookieStats.getAddEntryStats().registerSuccessfulEvent(elapsedNanos, TimeUnit.NANOSECONDS);
+                bookieStats.getAddBytesStats().registerSuccessfulValue(entry.readableBytes());
+                ReferenceCountUtil.release(entry);
+            }
+        }
+        return added;
+    }
+
     /**
      * Fences a ledger. From this point on, clients will be unable to
      * write to this ledger. Only recoveryAddEntry will be
@@ -1120,14 +1231,43 @@ public class BookieImpl extends BookieCriticalThread implements Bookie {
             success = true;
             return entry;
         } finally {
-            long elapsedNanos = MathUtils.elapsedNanos(requestNanos);
-            if (success) {
-                bookieStats.getReadEntryStats().registerSuccessfulEvent(elapsedNanos, TimeUnit.NANOSECONDS);
-                bookieStats.getReadBytesStats().registerSuccessfulValue(entrySize);
+            recordReadEntry(success, requestNanos, entrySize);
+        }
+    }
+
+    @Override
+    public ReferenceCounted readEntryOrRegion(long ledgerId, long entryId, int minRegionSize)
+            throws IOException, NoLedgerException, BookieException {
+        long requestNanos = MathUtils.nowInNano();
+        boolean success = false;
+        int entrySize = 0;
+        try {
+            LedgerDescriptor handle = handles.getReadOnlyHandle(ledgerId);
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("Reading {}@{}", entryId, ledgerId);
+            }
+            ReferenceCounted entry = handle.readEntryOrRegion(entryId, minRegionSize);
+            if (entry instanceof FileRegion) {
+                entrySize = (int) ((FileRegion) entry).count();
             } else {
-                bookieStats.getReadEntryStats().registerFailedEvent(elapsedNanos, TimeUnit.NANOSECONDS);
-                bookieStats.getReadBytesStats().registerFailedValue(entrySize);
+                entrySize = ((ByteBuf) entry).readableBytes();
             }
+            bookieStats.getReadBytes().addCount(entrySize);
+            success = true;
+            return entry;
+        } finally {
+            recordReadEntry(success, requestNanos, entrySize);
+        }
+    }
+
+    private void recordReadEntry(boolean success, long requestNanos, int entrySize) {
+        long elapsedNanos = MathUtils.elapsedNanos(requestNanos);
+        if (success) {
+            bookieStats.getReadEntryStats().registerSuccessfulEvent(elapsedNanos, TimeUnit.NANOSECONDS);
+            bookieStats.getReadBytesStats().registerSuccessfulValue(entrySize);
+        } else {
+            bookieStats.getReadEntryStats().registerFailedEvent(elapsedNanos, TimeUnit.NANOSECONDS);
+            bookieStats.getReadBytesStats().registerFailedValue(entrySize);
         }
     }
 
@@ -1136,6 +1276,15 @@ public class BookieImpl extends BookieCriticalThread implements Bookie {
         return handle.getLastAddConfirmed();
     }
 
+    @Override
+    public double getJournalQueueLoad() {
+        int maxLength = 0;
+        for (int i = 0; i < journals.size(); i++) {
+            maxLength = Math.max(maxLength, journals.get(i).getQueueLength());
+        }
+        return Math.min(1.0, (double) maxLength / conf.getJournalQueueSize());
+    }
+
     public boolean waitForLastAddConfirmedUpdate(long ledgerId,
                                                  long previousLAC,
                                                  Watcher<LastAddConfirmedUpdateNotification> watcher)
@@ -2076,6 +2076,8 @@ public class BookieShell implements Tool {
 
         public RebuildDbLedgerLocationsIndexCmd() {
             super(CMD_REBUILD_DB_LEDGER_LOCATIONS_INDEX);
+            opts.addOption("m", "migrate", false,
+                    "Copy the existing RocksDB locations index into the configured index type");
         }
 
         @Override
@@ -2095,8 +2097,11 @@ public class BookieShell implements Tool {
 
         @Override
         int runCmd(CommandLine cmdLine) throws Exception {
-            RebuildDBLedgerLocationsIndexCommand cmd = new RebuildDBLedgerLocationsIndexCommand();
-            cmd.apply(bkConf, new CliFlags());
+            RebuildDBLedgerLocationsIndexCommand.RebuildLocationsIndexFlags flags =
+                    new RebuildDBLedgerLocationsIndexCommand.RebuildLocationsIndexFlags();
+            flags.migrate(cmdLine.hasOption("m"));
+            RebuildDBLedgerLocationsIndexCommand cmd = new RebuildDBLedgerLocationsIndexCommand(flags);
+            cmd.apply(bkConf, flags);
             return 0;
         }
     }
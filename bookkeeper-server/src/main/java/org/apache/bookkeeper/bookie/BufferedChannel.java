@@ -45,7 +45,7 @@ public class BufferedChannel extends BufferedReadChannel implements Closeable {
     /**
      * The buffer used to write operations.
      */
-    protected final ByteBuf writeBuffer;
+    protected ByteBuf writeBuffer;
     /**
      * The absolute position of the next write operation.
      */
@@ -204,6 +204,15 @@ public class BufferedChannel extends BufferedReadChannel implements Closeable {
         writeBufferStartPosition.set(fileChannel.position());
     }
 
+    /**
+     * Wait until the data written to the file by {@link #flush()} reached the file channel. The flushes are
+     * synchronous, so there is nothing to wait for unless they are done in background.
+     *
+     * @throws IOException if the write of the flushed data failed
+     */
+    public void waitForPendingWrite() throws IOException {
+    }
+
     /**
      * force a sync operation so that data is persisted to the disk.
      * @param forceMetadata
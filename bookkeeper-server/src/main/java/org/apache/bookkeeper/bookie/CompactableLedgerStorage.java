@@ -51,4 +51,14 @@ public interface CompactableLedgerStorage extends LedgerStorage {
      * @throws IOException
      */
     void flushEntriesLocationsIndex() throws IOException;
+
+    /**
+     * Get the average latency of the adds and reads served by the storage since the previous call. The garbage
+     * collector uses it to back off while the storage is busy.
+     *
+     * @return the average latency in nanoseconds, 0 if it is not tracked
+     */
+    default long pollForegroundLatencyNanos() {
+        return 0;
+    }
 }
@@ -31,7 +31,11 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.IllegalReferenceCountException;
 import io.netty.util.ReferenceCountUtil;
+import io.netty.util.ReferenceCounted;
 import io.netty.util.concurrent.FastThreadLocal;
 import java.io.BufferedReader;
 import java.io.File;
@@ -58,6 +62,7 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.regex.Pattern;
 import org.apache.bookkeeper.bookie.storage.CompactionEntryLog;
+import org.apache.bookkeeper.bookie.storage.EntryLogMetadataSidecar;
 import org.apache.bookkeeper.bookie.storage.EntryLogScanner;
 import org.apache.bookkeeper.bookie.storage.EntryLogger;
 import org.apache.bookkeeper.conf.ServerConfiguration;
@@ -417,7 +422,66 @@ public class DefaultEntryLogger implements EntryLogger {
      * and don't cause a change in the channel's position. We use this map to store the file channels. Each
      * file channel is mapped to a log id which represents an open log file.
      */
-    private final ConcurrentMap<Long, FileChannel> logid2FileChannel = new ConcurrentHashMap<Long, FileChannel>();
+    private final ConcurrentMap<Long, LogReadChannel> logid2FileChannel =
+            new ConcurrentHashMap<Long, LogReadChannel>();
+
+    /**
+     * File channel of an entry log, shared by the read channels of all the threads and by the file regions
+     * returned by {@link #readEntryOrRegion}. The map holds one reference and each region another one, the file
+     * is closed once the log was removed from the map and the regions were released.
+     */
+    private static class LogReadChannel extends AbstractReferenceCounted {
+        private final long logId;
+        private final FileChannel fc;
+
+        LogReadChannel(long logId, FileChannel fc) {
+            this.logId = logId;
+            this.fc = fc;
+        }
+
+        /**
+         * @return false if the channel was already closed
+         */
+        boolean tryRetain() {
+            try {
+                retain();
+                return true;
+            } catch (IllegalReferenceCountException e) {
+                return false;
+            }
+        }
+
+        @Override
+        protected void deallocate() {
+            try {
+                fc.close();
+            } catch (IOException e) {
+                LOG.warn("Exception while closing channel for log file:" + logId);
+            }
+        }
+
+        @Override
+        public ReferenceCounted touch(Object hint) {
+            return this;
+        }
+    }
+
+    /**
+     * Region of an entry log, releasing its reference to the shared channel instead of closing it.
+     */
+    private static class LogFileRegion extends DefaultFileRegion {
+        private final LogReadChannel channel;
+
+        LogFileRegion(LogReadChannel channel, long position, long count) {
+            super(channel.fc, position, count);
+            this.channel = channel;
+        }
+
+        @Override
+        protected void deallocate() {
+            channel.release();
+        }
+    }
 
     /**
      * Put the logId, bc pair in the map responsible for the current thread.
@@ -434,13 +498,10 @@ public class DefaultEntryLogger implements EntryLogger {
      * @param logId
      */
     public void removeFromChannelsAndClose(long logId) {
-        FileChannel fileChannel = logid2FileChannel.remove(logId);
+        LogReadChannel fileChannel = logid2FileChannel.remove(logId);
         if (null != fileChannel) {
-            try {
-                fileChannel.close();
-            } catch (IOException e) {
-                LOG.warn("Exception while closing channel for log file:" + logId);
-            }
+            // The file stays open until the regions still transferring from it are released
+            fileChannel.release();
         }
     }
 
@@ -529,6 +590,9 @@ public class DefaultEntryLogger implements EntryLogger {
         if (!entryLogFile.delete()) {
             LOG.warn("Could not delete entry log file {}", entryLogFile);
         }
+        if (!EntryLogMetadataSidecar.delete(entryLogFile.getParentFile(), entryLogId)) {
+            LOG.warn("Could not delete the ledgers map sidecar of entry log {}", entryLogId);
+        }
         return true;
     }
 
@@ -819,6 +883,49 @@ public class DefaultEntryLogger implements EntryLogger {
         return internalReadEntry(location, -1L, -1L, false /* validateEntry */);
     }
 
+    /**
+     * Read an entry, returning a {@link DefaultFileRegion} over the entry log file instead of copying the entry
+     * when it is at least {@code minRegionSize} bytes and it is already persisted in the file.
+     *
+     * <p>The region shares the cached read channel of the entry log and holds a reference to it, so that it can
+     * still be transferred if the entry log is garbage collected in the meantime.
+     */
+    @Override
+    public ReferenceCounted readEntryOrRegion(long ledgerId, long entryId, long entryLocation, int minRegionSize)
+            throws IOException, Bookie.NoEntryException {
+        long entryLogId = logIdForOffset(entryLocation);
+        long pos = posForOffset(entryLocation);
+
+        int entrySize;
+        try {
+            BufferedReadChannel fc = getFCForEntryInternal(ledgerId, entryId, entryLogId, pos);
+            ByteBuf sizeBuff = readEntrySize(ledgerId, entryId, entryLogId, pos, fc);
+            entrySize = sizeBuff.getInt(0);
+            validateEntry(ledgerId, entryId, entryLogId, pos, sizeBuff);
+        } catch (EntryLookupException e) {
+            throw new IOException("Bad entry read from log file id: " + entryLogId, e);
+        }
+
+        if (entrySize >= minRegionSize) {
+            LogReadChannel channel = getLogReadChannel(entryLogId);
+            // Unless the entry log was just removed
+            if (channel.tryRetain()) {
+                try {
+                    // The entry could still be in the write buffer of the current entry log
+                    if (channel.fc.size() >= pos + entrySize) {
+                        return new LogFileRegion(channel, pos, entrySize);
+                    }
+                } catch (IOException e) {
+                    channel.release();
+                    throw e;
+                }
+                channel.release();
+            }
+        }
+
+        return internalReadEntry(ledgerId, entryId, entryLocation, false /* validateEntry */);
+    }
+
 
     private ByteBuf internalReadEntry(long ledgerId, long entryId, long location, boolean validateEntry)
             throws IOException, Bookie.NoEntryException {
@@ -886,22 +993,30 @@ public class DefaultEntryLogger implements EntryLogger {
         if (fc != null) {
             return fc;
         }
-        File file = findFile(entryLogId);
-        // get channel is used to open an existing entry log file
-        // it would be better to open using read mode
-        FileChannel newFc = new RandomAccessFile(file, "r").getChannel();
-        FileChannel oldFc = logid2FileChannel.putIfAbsent(entryLogId, newFc);
-        if (null != oldFc) {
-            newFc.close();
-            newFc = oldFc;
-        }
         // We set the position of the write buffer of this buffered channel to Long.MAX_VALUE
         // so that there are no overlaps with the write buffer while reading
-        fc = new BufferedReadChannel(newFc, conf.getReadBufferBytes());
+        fc = new BufferedReadChannel(getLogReadChannel(entryLogId).fc, conf.getReadBufferBytes());
         putInReadChannels(entryLogId, fc);
         return fc;
     }
 
+    private LogReadChannel getLogReadChannel(long entryLogId) throws IOException {
+        LogReadChannel channel = logid2FileChannel.get(entryLogId);
+        if (channel != null) {
+            return channel;
+        }
+        File file = findFile(entryLogId);
+        // get channel is used to open an existing entry log file
+        // it would be better to open using read mode
+        LogReadChannel newChannel = new LogReadChannel(entryLogId, new RandomAccessFile(file, "r").getChannel());
+        channel = logid2FileChannel.putIfAbsent(entryLogId, newChannel);
+        if (null != channel) {
+            newChannel.release();
+            return channel;
+        }
+        return newChannel;
+    }
+
     /**
      * Whether the log file exists or not.
      */
@@ -1035,15 +1150,62 @@ public class DefaultEntryLogger implements EntryLogger {
         // First try to extract the EntryLogMetadata from the index, if there's no index then fallback to scanning the
         // entry log
         try {
-            return extractEntryLogMetadataFromIndex(entryLogId);
+            return readEntryLogMetadata(entryLogId);
         } catch (Exception e) {
             LOG.info("Failed to get ledgers map index from: {}.log : {}", entryLogId, e.getMessage());
 
             // Fall-back to scanning
-            return extractEntryLogMetadataByScanning(entryLogId, throttler);
+            return extractEntryLogMetadataByScanningToSidecar(entryLogId, throttler);
+        }
+    }
+
+    @Override
+    public EntryLogMetadata readEntryLogMetadata(long entryLogId) throws IOException {
+        try {
+            return extractEntryLogMetadataFromIndex(entryLogId);
+        } catch (Exception e) {
+            File logFile = findFile(entryLogId);
+            try {
+                return EntryLogMetadataSidecar.read(logFile.getParentFile(), entryLogId, logFile.length());
+            } catch (IOException sidecarException) {
+                IOException ioe = e instanceof IOException ? (IOException) e : new IOException(e);
+                ioe.addSuppressed(sidecarException);
+                throw ioe;
+            }
         }
     }
 
+    @Override
+    public boolean indexEntryLogMetadata(long entryLogId, AbstractLogCompactor.Throttler throttler)
+            throws IOException {
+        try {
+            readEntryLogMetadata(entryLogId);
+            return false;
+        } catch (IOException e) {
+            LOG.info("Indexing the ledgers map of entry log {}: {}", entryLogId, e.getMessage());
+            extractEntryLogMetadataByScanningToSidecar(entryLogId, throttler);
+            return true;
+        }
+    }
+
+    private EntryLogMetadata extractEntryLogMetadataByScanningToSidecar(long entryLogId,
+                                                                       AbstractLogCompactor.Throttler throttler)
+        throws IOException {
+        File logFile = findFile(entryLogId);
+        long logSize = logFile.length();
+        EntryLogMetadata meta = extractEntryLogMetadataByScanning(entryLogId, throttler);
+        try {
+            EntryLogMetadataSidecar.write(logFile.getParentFile(), logSize, meta);
+            if (!logFile.exists()) {
+                // Removed while it was scanned, e.g. compacted, its sidecar may have been written after the removal
+                EntryLogMetadataSidecar.delete(logFile.getParentFile(), entryLogId);
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to write the ledgers map sidecar of entry log {}", entryLogId, e);
+        }
+        return meta;
+    }
+
     EntryLogMetadata extractEntryLogMetadataFromIndex(long entryLogId) throws IOException {
         Header header = getHeaderForLogId(entryLogId);
 
@@ -1166,11 +1328,10 @@ public class DefaultEntryLogger implements EntryLogger {
         LOG.info("Stopping EntryLogger");
         try {
             flush();
-            for (FileChannel fc : logid2FileChannel.values()) {
-                fc.close();
+            // empty the mapping, so we don't need to go through the channels again in finally block in normal case.
+            for (Long logId : logid2FileChannel.keySet()) {
+                removeFromChannelsAndClose(logId);
             }
-            // clear the mapping, so we don't need to go through the channels again in finally block in normal case.
-            logid2FileChannel.clear();
             entryLogManager.close();
             synchronized (compactionLogLock) {
                 if (compactionLogChannel != null) {
@@ -1182,8 +1343,8 @@ public class DefaultEntryLogger implements EntryLogger {
             // we have no idea how to avoid io exception during shutting down, so just ignore it
             LOG.error("Error flush entry log during shutting down, which may cause entry log corrupted.", ie);
         } finally {
-            for (FileChannel fc : logid2FileChannel.values()) {
-                IOUtils.close(LOG, fc);
+            for (Long logId : logid2FileChannel.keySet()) {
+                removeFromChannelsAndClose(logId);
             }
 
             entryLogManager.forceClose();
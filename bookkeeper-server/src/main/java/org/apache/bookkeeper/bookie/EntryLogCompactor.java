@@ -78,9 +78,14 @@ public class EntryLogCompactor extends AbstractLogCompactor {
 
     /**
      * A scanner wrapper to check whether a ledger is alive in an entry log file.
+     *
+     * <p>The scanners can compact several entry logs concurrently. The new locations of their entries are collected
+     * in a single batch, so that the index is updated once for all of them.
      */
     class CompactionScannerFactory {
-        List<EntryLocation> offsets = new ArrayList<EntryLocation>();
+        private List<EntryLocation> offsets = new ArrayList<EntryLocation>();
+        // Serializes the flushes, so that a flush returns once all the entries compacted before it are indexed
+        private final Object flushLock = new Object();
 
         EntryLogScanner newScanner(final EntryLogMetadata meta) {
 
@@ -94,34 +99,40 @@ public class EntryLogCompactor extends AbstractLogCompactor {
                 public void process(final long ledgerId, long offset, ByteBuf entry) throws IOException {
                     throttler.acquire(entry.readableBytes());
 
-                    if (offsets.size() > maxOutstandingRequests) {
-                        flush();
-                    }
                     long entryId = entry.getLong(entry.readerIndex() + 8);
 
                     long newoffset = entryLogger.addEntry(ledgerId, entry);
-                    offsets.add(new EntryLocation(ledgerId, entryId, newoffset));
-
+                    if (addOffset(new EntryLocation(ledgerId, entryId, newoffset)) > maxOutstandingRequests) {
+                        flush();
+                    }
                 }
             };
         }
 
+        private synchronized int addOffset(EntryLocation location) {
+            offsets.add(location);
+            return offsets.size();
+        }
+
         void flush() throws IOException {
-            if (offsets.isEmpty()) {
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug("Skipping entry log flushing, as there are no offset!");
+            synchronized (flushLock) {
+                List<EntryLocation> toFlush;
+                synchronized (this) {
+                    toFlush = offsets;
+                    offsets = new ArrayList<EntryLocation>();
+                }
+                if (toFlush.isEmpty()) {
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Skipping entry log flushing, as there are no offset!");
+                    }
+                    return;
                 }
-                return;
-            }
 
-            // Before updating the index, we want to wait until all the compacted entries are flushed into the
-            // entryLog
-            try {
+                // Before updating the index, we want to wait until all the compacted entries are flushed into the
+                // entryLog. The entries of the offsets taken above were all added before.
                 entryLogger.flush();
-                ledgerStorage.updateEntriesLocations(offsets);
+                ledgerStorage.updateEntriesLocations(toFlush);
                 ledgerStorage.flushEntriesLocationsIndex();
-            } finally {
-                offsets.clear();
             }
         }
     }
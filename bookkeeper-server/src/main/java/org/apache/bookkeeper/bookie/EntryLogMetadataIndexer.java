@@ -0,0 +1,178 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongPredicate;
+import org.apache.bookkeeper.bookie.storage.EntryLogMetadataSidecar;
+import org.apache.bookkeeper.bookie.storage.EntryLogger;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Background service that scans once the entry logs without usable ledgers map, e.g. written by an older bookie, and
+ * stores their metadata in ledgers map sidecars ({@link EntryLogMetadataSidecar}).
+ *
+ * <p>It goes through the entry logs flushed when it starts, skipping the ones whose metadata is already extracted
+ * by the garbage collector. The scans are spread over a pool of threads, throttled together by bytes. While it runs,
+ * the garbage collector only reads the metadata that doesn't need a scan, so that it isn't blocked for hours by the
+ * scans after an upgrade.
+ */
+class EntryLogMetadataIndexer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EntryLogMetadataIndexer.class);
+
+    private final EntryLogger entryLogger;
+    private final int numThreads;
+    private final AbstractLogCompactor.Throttler throttler;
+    // Entry logs whose metadata is already extracted
+    private final LongPredicate extracted;
+    private final Queue<Long> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger activeWorkers = new AtomicInteger();
+    private ExecutorService executor;
+
+    private volatile boolean running = false;
+    private volatile long startTime;
+    private volatile long endTime;
+    private volatile long totalEntryLogs;
+    private final AtomicLong processedEntryLogs = new AtomicLong();
+    private final AtomicLong scannedEntryLogs = new AtomicLong();
+    private final AtomicLong failedEntryLogs = new AtomicLong();
+
+    EntryLogMetadataIndexer(ServerConfiguration conf, EntryLogger entryLogger, LongPredicate extracted) {
+        this.entryLogger = entryLogger;
+        this.numThreads = Math.max(1, conf.getGcEntryLogMetadataIndexerThreads());
+        this.throttler = new AbstractLogCompactor.Throttler(true, conf.getGcEntryLogMetadataIndexerRateByBytes());
+        this.extracted = extracted;
+    }
+
+    synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        List<Long> logIds = new ArrayList<>(entryLogger.getFlushedLogIds());
+        logIds.sort(null);
+        pending.addAll(logIds);
+        totalEntryLogs = logIds.size();
+        startTime = System.currentTimeMillis();
+        running = true;
+        LOG.info("Indexing the metadata of {} entry logs with {} threads", logIds.size(), numThreads);
+
+        executor = Executors.newFixedThreadPool(numThreads, new DefaultThreadFactory("EntryLogMetadataIndexer"));
+        activeWorkers.set(numThreads);
+        for (int i = 0; i < numThreads; i++) {
+            executor.execute(this::indexEntryLogs);
+        }
+    }
+
+    private void indexEntryLogs() {
+        try {
+            Long logId;
+            while (running && (logId = pending.poll()) != null) {
+                indexEntryLog(logId);
+                processedEntryLogs.incrementAndGet();
+            }
+        } finally {
+            if (activeWorkers.decrementAndGet() == 0 && running) {
+                endTime = System.currentTimeMillis();
+                running = false;
+                LOG.info("Indexed the metadata of {} entry logs in {} ms: scanned {}, failed {}",
+                        processedEntryLogs.get(), endTime - startTime, scannedEntryLogs.get(),
+                        failedEntryLogs.get());
+            }
+        }
+    }
+
+    private void indexEntryLog(long logId) {
+        if (extracted.test(logId) || !entryLogger.logExists(logId)) {
+            return;
+        }
+        try {
+            if (entryLogger.indexEntryLogMetadata(logId, throttler)) {
+                scannedEntryLogs.incrementAndGet();
+            }
+        } catch (IOException e) {
+            if (!entryLogger.logExists(logId)) {
+                // Compacted or garbage collected meanwhile
+                return;
+            }
+            failedEntryLogs.incrementAndGet();
+            if (running) {
+                LOG.warn("Failed to index the metadata of entry log {}, it will be scanned by the garbage collector",
+                        logId, e);
+            }
+        }
+    }
+
+    /**
+     * @return whether the indexer still has entry logs to index
+     */
+    boolean isRunning() {
+        return running;
+    }
+
+    synchronized void shutdown() throws InterruptedException {
+        if (executor == null) {
+            return;
+        }
+        running = false;
+        throttler.cancelledAcquire();
+        executor.shutdown();
+        if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+            executor.shutdownNow();
+        }
+    }
+
+    long getStartTime() {
+        return startTime;
+    }
+
+    long getEndTime() {
+        return endTime;
+    }
+
+    long getTotalEntryLogs() {
+        return totalEntryLogs;
+    }
+
+    long getProcessedEntryLogs() {
+        return processedEntryLogs.get();
+    }
+
+    long getScannedEntryLogs() {
+        return scannedEntryLogs.get();
+    }
+
+    long getFailedEntryLogs() {
+        return failedEntryLogs.get();
+    }
+}
@@ -44,4 +44,14 @@ public class GarbageCollectionStatus {
     private long lastMinorCompactionTime;
     private long majorCompactionCounter;
     private long minorCompactionCounter;
+
+    // whether the metadata of the entry logs without ledgers map is being indexed.
+    private boolean metadataIndexing;
+    private long metadataIndexStartTime;
+    private long metadataIndexEndTime;
+    // entry logs to index, already processed, scanned to write their ledgers map sidecar and failed.
+    private long metadataIndexTotalEntryLogs;
+    private long metadataIndexProcessedEntryLogs;
+    private long metadataIndexScannedEntryLogs;
+    private long metadataIndexFailedEntryLogs;
 }
@@ -21,15 +21,24 @@
 
 package org.apache.bookkeeper.bookie;
 
+import static org.apache.bookkeeper.util.BookKeeperConstants.ENTRYLOG_METADATA_MAP;
 import static org.apache.bookkeeper.util.BookKeeperConstants.METADATA_CACHE;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
+import com.google.common.util.concurrent.Uninterruptibles;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import io.netty.util.concurrent.DefaultThreadFactory;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
@@ -38,6 +47,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import lombok.Getter;
 import org.apache.bookkeeper.bookie.BookieException.EntryLogMetadataMapException;
+import org.apache.bookkeeper.bookie.EntryLogMetadata.EntryLogMetadataRecyclable;
 import org.apache.bookkeeper.bookie.GarbageCollector.GarbageCleaner;
 import org.apache.bookkeeper.bookie.stats.GarbageCollectorStats;
 import org.apache.bookkeeper.bookie.storage.EntryLogger;
@@ -58,9 +68,12 @@ import org.slf4j.LoggerFactory;
 public class GarbageCollectorThread implements Runnable {
     private static final Logger LOG = LoggerFactory.getLogger(GarbageCollectorThread.class);
     private static final int SECOND = 1000;
+    private static final long FOREGROUND_LATENCY_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
 
     // Maps entry log files to the set of ledgers that comprise the file and the size usage per ledger
     private EntryLogMetadataMap entryLogMetaMap;
+    // Scans the entry logs without usable ledgers map in background, null if disabled
+    private final EntryLogMetadataIndexer metadataIndexer;
 
     private final ScheduledExecutorService gcExecutor;
     Future<?> scheduledFuture = null;
@@ -124,6 +137,27 @@ public class GarbageCollectorThread implements Runnable {
     private static final AtomicLong threadNum = new AtomicLong(0);
     final AbstractLogCompactor.Throttler throttler;
 
+    // Number of entry logs compacted concurrently, by the compaction executor if more than one
+    final int compactionThreads;
+    private final ExecutorService compactionExecutor;
+
+    // Incremental garbage collection parameters
+    final boolean incrementalGcEnabled;
+    final long incrementalGcTickMillis;
+    final int maxEntryLogsPerTick;
+    final long foregroundLatencyThresholdNanos;
+
+    // Incremental garbage collection state, only accessed by the gc thread
+    private IncrementalGcCycle incrementalGcCycle = null;
+    long lastIncrementalGcCycleStart;
+    private int entryLogsPerTick;
+
+    // Also checked by the compaction threads
+    private final Object foregroundLatencyLock = new Object();
+    private long lastForegroundLatencyPoll;
+    private long foregroundLatencyNanos;
+    private long compactionPausedSince;
+
     /**
      * Create a garbage collector thread.
      *
@@ -161,6 +195,9 @@ public class GarbageCollectorThread implements Runnable {
         this.ledgerDirsManager = ledgerDirsManager;
         this.entryLogger = entryLogger;
         this.entryLogMetaMap = createEntryLogMetadataMap();
+        this.metadataIndexer = conf.isGcEntryLogMetadataIndexerEnabled()
+                ? new EntryLogMetadataIndexer(conf, entryLogger, this::isEntryLogMetadataExtracted)
+                : null;
         this.ledgerStorage = ledgerStorage;
         this.gcWaitTime = conf.getGcWaitTime();
 
@@ -216,6 +253,18 @@ public class GarbageCollectorThread implements Runnable {
             this.compactor = new EntryLogCompactor(conf, entryLogger, ledgerStorage, remover);
         }
 
+        if (conf.getCompactionThreads() > 1 && conf.getUseTransactionalCompaction()) {
+            LOG.warn("The transactional compaction compacts one entry log at a time, ignoring compactionThreads={}",
+                    conf.getCompactionThreads());
+            this.compactionThreads = 1;
+        } else {
+            this.compactionThreads = Math.max(1, conf.getCompactionThreads());
+        }
+        this.compactionExecutor = compactionThreads > 1
+                ? Executors.newFixedThreadPool(compactionThreads,
+                        new DefaultThreadFactory("GarbageCollectorCompaction"))
+                : null;
+
         this.throttler = new AbstractLogCompactor.Throttler(conf);
         if (minorCompactionInterval > 0 && minorCompactionThreshold > 0) {
             if (minorCompactionThreshold > 1.0d) {
@@ -266,12 +315,36 @@ public class GarbageCollectorThread implements Runnable {
                + majorCompactionThreshold + ", interval=" + majorCompactionInterval);
 
         lastMinorCompactionTime = lastMajorCompactionTime = System.currentTimeMillis();
+
+        incrementalGcEnabled = conf.isGcIncrementalEnabled();
+        incrementalGcTickMillis = conf.getGcIncrementalTickMillis();
+        maxEntryLogsPerTick = Math.max(1, conf.getGcIncrementalMaxEntryLogsPerTick());
+        foregroundLatencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(conf.getGcForegroundLatencyThresholdMillis());
+        entryLogsPerTick = maxEntryLogsPerTick;
+        lastIncrementalGcCycleStart = System.currentTimeMillis() - gcWaitTime;
+        if (foregroundLatencyThresholdNanos > 0) {
+            throttler.setPauseCondition(this::pauseCompaction);
+            compactor.throttler.setPauseCondition(this::pauseCompaction);
+        }
+        if (incrementalGcEnabled) {
+            LOG.info("Incremental GC : tick={}, maxEntryLogsPerTick={}, foregroundLatencyThreshold={}ms",
+                    incrementalGcTickMillis, maxEntryLogsPerTick, conf.getGcForegroundLatencyThresholdMillis());
+        }
     }
 
     private EntryLogMetadataMap createEntryLogMetadataMap() throws IOException {
         if (conf.isGcEntryLogMetadataCacheEnabled()) {
             String baseDir = Strings.isNullOrEmpty(conf.getGcEntryLogMetadataCachePath())
                 ? this.ledgerDirsManager.getAllLedgerDirs().get(0).getPath() : conf.getGcEntryLogMetadataCachePath();
+            if ("Mapped".equalsIgnoreCase(conf.getGcEntryLogMetadataCacheType())) {
+                try {
+                    return new MappedEntryLogMetadataMap(baseDir);
+                } catch (IOException e) {
+                    LOG.error("Failed to initialize mapped-metadata-map , clean up {}",
+                        baseDir + "/" + ENTRYLOG_METADATA_MAP, e);
+                    throw e;
+                }
+            }
             try {
                 return new PersistentEntryLogMetadataMap(baseDir, conf);
             } catch (IOException e) {
@@ -369,7 +442,11 @@ public class GarbageCollectorThread implements Runnable {
             scheduledFuture.cancel(false);
         }
         long initialDelay = getModInitialDelay();
-        scheduledFuture = gcExecutor.scheduleAtFixedRate(this, initialDelay, gcWaitTime, TimeUnit.MILLISECONDS);
+        long period = incrementalGcEnabled ? incrementalGcTickMillis : gcWaitTime;
+        scheduledFuture = gcExecutor.scheduleAtFixedRate(this, initialDelay, period, TimeUnit.MILLISECONDS);
+        if (metadataIndexer != null) {
+            metadataIndexer.start();
+        }
     }
 
     /**
@@ -392,6 +469,11 @@ public class GarbageCollectorThread implements Runnable {
         boolean suspendMajor = suspendMajorCompaction.get();
         boolean suspendMinor = suspendMinorCompaction.get();
 
+        if (incrementalGcEnabled && !force) {
+            runIncrementalTick(suspendMajor, suspendMinor);
+            return;
+        }
+
         runWithFlags(force, suspendMajor, suspendMinor);
 
         if (force) {
@@ -474,6 +556,273 @@ public class GarbageCollectorThread implements Runnable {
 
     }
 
+    /**
+     * Run a slice of the incremental garbage collection.
+     *
+     * <p>A cycle does the same work as {@link #runWithFlags}, spread over the ticks: it gcs the ledgers, then
+     * extracts the meta of the new entry logs, then removes the deleted ledgers from every entry log while collecting
+     * those below the compaction threshold, and finally compacts them from the one that reclaims the most bytes per
+     * byte read and copied. A tick processes at most {@link #entryLogsPerTick} entry logs, which is halved while the
+     * ledger storage latency is above the threshold and grows back by one otherwise. A tick also stops as soon as the
+     * latency crosses the threshold. A new cycle starts gcWaitTime after the start of the previous one.
+     */
+    void runIncrementalTick(boolean suspendMajor, boolean suspendMinor) {
+        long tickStart = MathUtils.nowInNano();
+        if (incrementalGcCycle == null) {
+            if (System.currentTimeMillis() - lastIncrementalGcCycleStart < gcWaitTime) {
+                return;
+            }
+            startIncrementalGcCycle(suspendMajor, suspendMinor);
+        }
+        IncrementalGcCycle cycle = incrementalGcCycle;
+
+        if (foregroundLatencyThresholdNanos > 0) {
+            pollForegroundLatency(tickStart);
+            if (foregroundLatencyNanos > foregroundLatencyThresholdNanos) {
+                entryLogsPerTick = Math.max(1, entryLogsPerTick / 2);
+            } else {
+                entryLogsPerTick = Math.min(maxEntryLogsPerTick, entryLogsPerTick + 1);
+            }
+        }
+
+        int processed = 0;
+        try {
+            while (processed < entryLogsPerTick && running) {
+                if (processed > 0 && isForegroundLatencyHigh()) {
+                    break;
+                }
+                if (!cycle.toExtract.isEmpty()) {
+                    if (extractMetaFromEntryLog(cycle.toExtract.poll())) {
+                        processed++;
+                    }
+                } else if (cycle.toScan == null) {
+                    cycle.toScan = new ArrayDeque<>();
+                    entryLogMetaMap.forEach((entryLogId, meta) -> cycle.toScan.add(entryLogId));
+                } else if (!cycle.toScan.isEmpty()) {
+                    scanEntryLog(cycle, cycle.toScan.poll());
+                    processed++;
+                } else if (cycle.toCompact == null) {
+                    cycle.candidates.sort(Comparator.comparingDouble(CompactionCandidate::getScore).reversed());
+                    cycle.toCompact = new ArrayDeque<>(cycle.candidates);
+                    cycle.compactionStart = System.currentTimeMillis();
+                    cycle.compactionRun = new CompactionRun();
+                    this.totalEntryLogSize = cycle.totalEntryLogSize;
+                    this.numActiveEntryLogs = entryLogMetaMap.size();
+                } else if (!cycle.toCompact.isEmpty() && !isCompactionStopped(cycle)) {
+                    processed += compactCandidates(cycle, Math.min(compactionThreads, entryLogsPerTick - processed));
+                } else {
+                    finishIncrementalGcCycle(cycle);
+                    break;
+                }
+            }
+            gcStats.getIncrementalTickEntryLogs().registerSuccessfulValue(processed);
+        } catch (EntryLogMetadataMapException e) {
+            LOG.error("Error in entryLog-metadatamap, Failed to complete GC/Compaction due to entry-log {}",
+                    e.getMessage(), e);
+            abortIncrementalGcCycle();
+            gcStats.getGcThreadRuntime().registerFailedEvent(
+                    cycle.busyNanos + MathUtils.nowInNano() - tickStart, TimeUnit.NANOSECONDS);
+            return;
+        }
+        cycle.busyNanos += MathUtils.nowInNano() - tickStart;
+    }
+
+    @VisibleForTesting
+    boolean isIncrementalGcCycleRunning() {
+        return incrementalGcCycle != null;
+    }
+
+    private void startIncrementalGcCycle(boolean suspendMajor, boolean suspendMinor) {
+        lastIncrementalGcCycleStart = System.currentTimeMillis();
+        // Recover and clean up previous state if using transactional compaction
+        compactor.cleanUpAndRecover();
+
+        IncrementalGcCycle cycle = new IncrementalGcCycle(entryLogger.getFlushedLogIds());
+        long curTime = System.currentTimeMillis();
+        if (enableMajorCompaction && curTime - lastMajorCompactionTime > majorCompactionInterval && !suspendMajor) {
+            cycle.major = true;
+            cycle.threshold = majorCompactionThreshold;
+            cycle.maxTimeMillis = majorCompactionMaxTimeMillis;
+            majorCompacting.set(true);
+        } else if (enableMinorCompaction && curTime - lastMinorCompactionTime > minorCompactionInterval
+                && !suspendMinor) {
+            cycle.minor = true;
+            cycle.threshold = minorCompactionThreshold;
+            cycle.maxTimeMillis = minorCompactionMaxTimeMillis;
+            minorCompacting.set(true);
+        }
+        incrementalGcCycle = cycle;
+
+        // gc inactive/deleted ledgers, which is used to calculate the usage of the entry logs
+        doGcLedgers();
+    }
+
+    private void scanEntryLog(IncrementalGcCycle cycle, long logId) throws EntryLogMetadataMapException {
+        entryLogMetaMap.forKey(logId, (entryLogId, meta) -> {
+            if (meta == null) {
+                return;
+            }
+            gcEntryLog(entryLogId, meta);
+            if (meta.isEmpty()) {
+                return;
+            }
+            cycle.totalEntryLogSize += meta.getRemainingSize();
+            if (cycle.threshold > 0 && getCompactionUsage(meta) < cycle.threshold) {
+                cycle.candidates.add(new CompactionCandidate(entryLogId, meta));
+            }
+        });
+    }
+
+    private boolean isCompactionStopped(IncrementalGcCycle cycle) {
+        return (cycle.major && suspendMajorCompaction.get())
+                || (cycle.minor && suspendMinorCompaction.get())
+                || (cycle.maxTimeMillis > 0
+                    && System.currentTimeMillis() - cycle.compactionStart >= cycle.maxTimeMillis);
+    }
+
+    /**
+     * Compact the next candidates of the cycle, up to max.
+     *
+     * @return the number of candidates taken
+     */
+    private int compactCandidates(IncrementalGcCycle cycle, int max) throws EntryLogMetadataMapException {
+        List<EntryLogMetadata> batch = new ArrayList<>(max);
+        int taken = 0;
+        while (taken < max && !cycle.toCompact.isEmpty()) {
+            CompactionCandidate candidate = cycle.toCompact.poll();
+            taken++;
+            entryLogMetaMap.forKey(candidate.entryLogId, (entryLogId, meta) -> {
+                if (meta == null) {
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Metadata for entry log {} already deleted", entryLogId);
+                    }
+                    return;
+                }
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Compacting entry log {} with usage {} below threshold {}",
+                            entryLogId, meta.getUsage(), cycle.threshold);
+                }
+                batch.add(retain(meta));
+            });
+        }
+        compactEntryLogs(batch, cycle.compactionRun);
+        return taken;
+    }
+
+    private void finishIncrementalGcCycle(IncrementalGcCycle cycle) {
+        incrementalGcCycle = null;
+        if (cycle.major) {
+            lastMajorCompactionTime = System.currentTimeMillis();
+            // and also move minor compaction time
+            lastMinorCompactionTime = lastMajorCompactionTime;
+            gcStats.getMajorCompactionCounter().inc();
+            majorCompacting.set(false);
+        } else if (cycle.minor) {
+            lastMinorCompactionTime = System.currentTimeMillis();
+            gcStats.getMinorCompactionCounter().inc();
+            minorCompacting.set(false);
+        }
+        if (!cycle.candidates.isEmpty()) {
+            LOG.info("Incremental compaction below {}: compacted {} of {} entry logs", cycle.threshold,
+                    cycle.compactionRun == null ? 0 : cycle.compactionRun.compacted, cycle.candidates.size());
+        }
+        if (cycle.compactionRun != null) {
+            reportCompactionRun(cycle.compactionRun);
+        }
+        gcStats.getGcThreadRuntime().registerSuccessfulEvent(cycle.busyNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void abortIncrementalGcCycle() {
+        incrementalGcCycle = null;
+        majorCompacting.set(false);
+        minorCompacting.set(false);
+    }
+
+    private void pollForegroundLatency(long nowNanos) {
+        synchronized (foregroundLatencyLock) {
+            foregroundLatencyNanos = ledgerStorage.pollForegroundLatencyNanos();
+            lastForegroundLatencyPoll = nowNanos;
+        }
+    }
+
+    /**
+     * Check the latency of the ledger storage, polling it at most every {@link #FOREGROUND_LATENCY_POLL_NANOS}.
+     */
+    private boolean isForegroundLatencyHigh() {
+        if (foregroundLatencyThresholdNanos <= 0) {
+            return false;
+        }
+        synchronized (foregroundLatencyLock) {
+            long now = MathUtils.nowInNano();
+            if (now - lastForegroundLatencyPoll >= FOREGROUND_LATENCY_POLL_NANOS) {
+                pollForegroundLatency(now);
+            }
+            return foregroundLatencyNanos > foregroundLatencyThresholdNanos;
+        }
+    }
+
+    /**
+     * Pause condition of the throttlers, checked by the gc thread and the compaction threads while extracting or
+     * compacting.
+     */
+    private boolean pauseCompaction() {
+        synchronized (foregroundLatencyLock) {
+            boolean pause = isForegroundLatencyHigh();
+            if (pause && compactionPausedSince == 0) {
+                compactionPausedSince = MathUtils.nowInNano();
+            } else if (!pause && compactionPausedSince != 0) {
+                gcStats.getCompactionPausedTime().addCount(
+                        TimeUnit.NANOSECONDS.toMillis(MathUtils.nowInNano() - compactionPausedSince));
+                compactionPausedSince = 0;
+            }
+            return pause;
+        }
+    }
+
+    /**
+     * Progress of a cycle of the incremental garbage collection.
+     */
+    private static class IncrementalGcCycle {
+        final Deque<Long> toExtract;
+        Deque<Long> toScan = null;
+        final List<CompactionCandidate> candidates = new ArrayList<>();
+        Deque<CompactionCandidate> toCompact = null;
+
+        boolean major = false;
+        boolean minor = false;
+        // 0 if the cycle doesn't compact
+        double threshold = 0;
+        long maxTimeMillis = 0;
+        long compactionStart;
+        CompactionRun compactionRun = null;
+
+        long totalEntryLogSize = 0;
+        long busyNanos = 0;
+
+        IncrementalGcCycle(Collection<Long> flushedLogIds) {
+            this.toExtract = new ArrayDeque<>(flushedLogIds);
+        }
+    }
+
+    /**
+     * An entry log below the compaction threshold, scored by the bytes it reclaims per byte read and copied by the
+     * compaction.
+     */
+    private static class CompactionCandidate {
+        final long entryLogId;
+        final double score;
+
+        CompactionCandidate(long entryLogId, EntryLogMetadata meta) {
+            this.entryLogId = entryLogId;
+            long reclaimable = meta.getTotalSize() - meta.getRemainingSize();
+            this.score = (double) reclaimable / Math.max(1, meta.getTotalSize() + meta.getRemainingSize());
+        }
+
+        double getScore() {
+            return score;
+        }
+    }
+
     /**
      * Do garbage collection ledger index files.
      */
@@ -490,32 +839,39 @@ public class GarbageCollectorThread implements Runnable {
 
         // Loop through all of the entry logs and remove the non-active ledgers.
         entryLogMetaMap.forEach((entryLogId, meta) -> {
-            try {
-                boolean modified = removeIfLedgerNotExists(meta);
-                if (meta.isEmpty()) {
-                    // This means the entry log is not associated with any active
-                    // ledgers anymore.
-                    // We can remove this entry log file now.
-                    LOG.info("Deleting entryLogId {} as it has no active ledgers!", entryLogId);
-                    removeEntryLog(entryLogId);
-                    gcStats.getReclaimedSpaceViaDeletes().addCount(meta.getTotalSize());
-                } else if (modified) {
-                    // update entryLogMetaMap only when the meta modified.
-                    entryLogMetaMap.put(meta.getEntryLogId(), meta);
-                }
-            } catch (EntryLogMetadataMapException e) {
-                // Ignore and continue because ledger will not be cleaned up
-                // from entry-logger in this pass and will be taken care in next
-                // schedule task
-                LOG.warn("Failed to remove ledger from entry-log metadata {}", entryLogId, e);
-            }
-           totalEntryLogSizeAcc.getAndAdd(meta.getRemainingSize());
+            gcEntryLog(entryLogId, meta);
+            totalEntryLogSizeAcc.getAndAdd(meta.getRemainingSize());
         });
 
         this.totalEntryLogSize = totalEntryLogSizeAcc.get();
         this.numActiveEntryLogs = entryLogMetaMap.size();
     }
 
+    /**
+     * Remove the non-active ledgers from an entry log, and the entry log if none is left.
+     */
+    private void gcEntryLog(long entryLogId, EntryLogMetadata meta) {
+        try {
+            boolean modified = removeIfLedgerNotExists(meta);
+            if (meta.isEmpty()) {
+                // This means the entry log is not associated with any active
+                // ledgers anymore.
+                // We can remove this entry log file now.
+                LOG.info("Deleting entryLogId {} as it has no active ledgers!", entryLogId);
+                removeEntryLog(entryLogId);
+                gcStats.getReclaimedSpaceViaDeletes().addCount(meta.getTotalSize());
+            } else if (modified) {
+                // update entryLogMetaMap only when the meta modified.
+                entryLogMetaMap.put(meta.getEntryLogId(), meta);
+            }
+        } catch (EntryLogMetadataMapException e) {
+            // Ignore and continue because ledger will not be cleaned up
+            // from entry-logger in this pass and will be taken care in next
+            // schedule task
+            LOG.warn("Failed to remove ledger from entry-log metadata {}", entryLogId, e);
+        }
+    }
+
     private boolean removeIfLedgerNotExists(EntryLogMetadata meta) throws EntryLogMetadataMapException {
         MutableBoolean modified = new MutableBoolean(false);
         meta.removeLedgerIf((entryLogLedger) -> {
@@ -562,10 +918,7 @@ public class GarbageCollectorThread implements Runnable {
         MutableLong timeDiff = new MutableLong(0);
 
         entryLogMetaMap.forEach((entryLogId, meta) -> {
-            double usage = meta.getUsage();
-            if (conf.isUseTargetEntryLogSizeForGc() && usage < 1.0d) {
-                usage = (double) meta.getRemainingSize() / Math.max(meta.getTotalSize(), conf.getEntryLogSizeLimit());
-            }
+            double usage = getCompactionUsage(meta);
             int bucketIndex = calculateUsageIndex(numBuckets, usage);
             entryLogUsageBuckets[bucketIndex]++;
 
@@ -588,6 +941,7 @@ public class GarbageCollectorThread implements Runnable {
                 "Compaction: entry log usage buckets before compaction [10% 20% 30% 40% 50% 60% 70% 80% 90% 100%] = {}",
                 entryLogUsageBuckets);
 
+        CompactionRun run = new CompactionRun();
         final int maxBucket = calculateUsageIndex(numBuckets, threshold);
         stopCompaction:
         for (int currBucket = 0; currBucket <= maxBucket; currBucket++) {
@@ -604,28 +958,29 @@ public class GarbageCollectorThread implements Runnable {
                     break stopCompaction;
                 }
 
-                final int bucketIndex = currBucket;
-                final long logId = entryLogIds.remove();
+                List<EntryLogMetadata> batch = new ArrayList<>(compactionThreads);
+                while (!entryLogIds.isEmpty() && batch.size() < compactionThreads) {
+                    final long logId = entryLogIds.remove();
 
-                entryLogMetaMap.forKey(logId, (entryLogId, meta) -> {
-                    if (meta == null) {
+                    entryLogMetaMap.forKey(logId, (entryLogId, meta) -> {
+                        if (meta == null) {
+                            if (LOG.isDebugEnabled()) {
+                                LOG.debug("Metadata for entry log {} already deleted", logId);
+                            }
+                            return;
+                        }
                         if (LOG.isDebugEnabled()) {
-                            LOG.debug("Metadata for entry log {} already deleted", logId);
+                            LOG.debug("Compacting entry log {} with usage {} below threshold {}",
+                                    meta.getEntryLogId(), meta.getUsage(), threshold);
                         }
-                        return;
-                    }
-                    if (LOG.isDebugEnabled()) {
-                        LOG.debug("Compacting entry log {} with usage {} below threshold {}",
-                                meta.getEntryLogId(), meta.getUsage(), threshold);
-                    }
-
-                    long priorRemainingSize = meta.getRemainingSize();
-                    compactEntryLog(meta);
-                    gcStats.getReclaimedSpaceViaCompaction().addCount(meta.getTotalSize() - priorRemainingSize);
-                    compactedBuckets[bucketIndex]++;
-                });
+                        batch.add(retain(meta));
+                    });
+                }
+                compactEntryLogs(batch, run);
+                compactedBuckets[currBucket] += batch.size();
             }
         }
+        reportCompactionRun(run);
 
         if (LOG.isDebugEnabled()) {
             if (!running) {
@@ -640,6 +995,14 @@ public class GarbageCollectorThread implements Runnable {
                 entryLogUsageBuckets, compactedBuckets);
     }
 
+    private double getCompactionUsage(EntryLogMetadata meta) {
+        double usage = meta.getUsage();
+        if (conf.isUseTargetEntryLogSizeForGc() && usage < 1.0d) {
+            usage = (double) meta.getRemainingSize() / Math.max(meta.getTotalSize(), conf.getEntryLogSizeLimit());
+        }
+        return usage;
+    }
+
     /**
      * Calculate the index for the batch based on the usage between 0 and 1.
      *
@@ -673,8 +1036,14 @@ public class GarbageCollectorThread implements Runnable {
         }
 
         this.running = false;
+        if (metadataIndexer != null) {
+            metadataIndexer.shutdown();
+        }
         // Interrupt GC executor thread
         gcExecutor.shutdownNow();
+        if (compactionExecutor != null) {
+            compactionExecutor.shutdownNow();
+        }
         try {
             entryLogMetaMap.close();
         } catch (Exception e) {
@@ -682,6 +1051,102 @@ public class GarbageCollectorThread implements Runnable {
         }
     }
 
+    /**
+     * Keep the metadata of an entry log to compact it in a batch, after the action of
+     * {@link EntryLogMetadataMap#forKey} returned. The persistent maps pass a recyclable metadata, which is cleared
+     * once the action returns, so it's copied.
+     */
+    private static EntryLogMetadata retain(EntryLogMetadata meta) {
+        if (!(meta instanceof EntryLogMetadataRecyclable)) {
+            return meta;
+        }
+        EntryLogMetadata copy = new EntryLogMetadata(meta.getEntryLogId());
+        copy.totalSize = meta.getTotalSize();
+        copy.remainingSize = meta.getRemainingSize();
+        meta.getLedgersMap().forEach(copy.ledgersMap::put);
+        return copy;
+    }
+
+    /**
+     * Compact a batch of entry logs, concurrently if there are several compaction threads.
+     */
+    private void compactEntryLogs(List<EntryLogMetadata> metas, CompactionRun run) {
+        long[] priorRemainingSizes = new long[metas.size()];
+        for (int i = 0; i < metas.size(); i++) {
+            priorRemainingSizes[i] = metas.get(i).getRemainingSize();
+        }
+
+        if (compactionExecutor == null || metas.size() == 1) {
+            for (EntryLogMetadata meta : metas) {
+                compactEntryLog(meta);
+            }
+        } else {
+            compactEntryLogsConcurrently(metas);
+        }
+
+        for (int i = 0; i < metas.size(); i++) {
+            EntryLogMetadata meta = metas.get(i);
+            long reclaimed = meta.getTotalSize() - priorRemainingSizes[i];
+            gcStats.getReclaimedSpaceViaCompaction().addCount(reclaimed);
+            run.compacted++;
+            run.copiedBytes += priorRemainingSizes[i];
+            run.reclaimedBytes += reclaimed;
+        }
+    }
+
+    private void compactEntryLogsConcurrently(List<EntryLogMetadata> metas) {
+        // Same as compactEntryLog, the flag is held until all the compactions are done
+        if (!compacting.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            List<Future<?>> compactions = new ArrayList<>(metas.size());
+            for (EntryLogMetadata meta : metas) {
+                compactions.add(compactionExecutor.submit(() -> {
+                    try {
+                        compactor.compact(meta);
+                    } catch (Exception e) {
+                        LOG.error("Failed to compact entry log {} due to unexpected error", meta.getEntryLogId(), e);
+                    }
+                }));
+            }
+            for (Future<?> compaction : compactions) {
+                try {
+                    Uninterruptibles.getUninterruptibly(compaction);
+                } catch (ExecutionException e) {
+                    LOG.error("Failed to compact entry log due to unexpected error", e.getCause());
+                }
+            }
+        } finally {
+            // Mark compaction done
+            compacting.set(false);
+        }
+    }
+
+    private void reportCompactionRun(CompactionRun run) {
+        if (run.compacted == 0) {
+            return;
+        }
+        long elapsedNanos = Math.max(1, MathUtils.elapsedNanos(run.startNanos));
+        long copiedBytesRate = run.copiedBytes * TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+        long reclaimedBytesRate = run.reclaimedBytes * TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+        gcStats.getCompactionCopiedBytesRate().registerSuccessfulValue(copiedBytesRate);
+        gcStats.getCompactionReclaimedBytesRate().registerSuccessfulValue(reclaimedBytesRate);
+        LOG.info("Compaction: compacted {} entry logs in {} ms, copied {} bytes/s, reclaimed {} bytes/s",
+                run.compacted, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), copiedBytesRate, reclaimedBytesRate);
+    }
+
+    /**
+     * Progress of a compaction run.
+     */
+    private static class CompactionRun {
+        final long startNanos = MathUtils.nowInNano();
+        int compacted = 0;
+        long copiedBytes = 0;
+        long reclaimedBytes = 0;
+    }
+
     /**
      * Remove entry log.
      *
@@ -733,36 +1198,65 @@ public class GarbageCollectorThread implements Runnable {
      */
     protected void extractMetaFromEntryLogs() throws EntryLogMetadataMapException {
         for (long entryLogId : entryLogger.getFlushedLogIds()) {
-            // Comb the current entry log file if it has not already been extracted.
-            if (entryLogMetaMap.containsKey(entryLogId)) {
-                continue;
-            }
+            extractMetaFromEntryLog(entryLogId);
+        }
+    }
 
-            // check whether log file exists or not
-            // if it doesn't exist, this log file might have been garbage collected.
-            if (!entryLogger.logExists(entryLogId)) {
-                continue;
-            }
+    /**
+     * Extract the meta of an entry log, unless already done.
+     *
+     * @return whether the entry log was read
+     */
+    private boolean extractMetaFromEntryLog(long entryLogId) throws EntryLogMetadataMapException {
+        // Comb the current entry log file if it has not already been extracted.
+        if (entryLogMetaMap.containsKey(entryLogId)) {
+            return false;
+        }
 
-            LOG.info("Extracting entry log meta from entryLogId: {}", entryLogId);
+        // check whether log file exists or not
+        // if it doesn't exist, this log file might have been garbage collected.
+        if (!entryLogger.logExists(entryLogId)) {
+            return false;
+        }
 
-            try {
-                // Read through the entry log file and extract the entry log meta
-                EntryLogMetadata entryLogMeta = entryLogger.getEntryLogMetadata(entryLogId, throttler);
-                removeIfLedgerNotExists(entryLogMeta);
-                if (entryLogMeta.isEmpty()) {
-                    LOG.info("Entry log file {} is empty, delete it from disk.", Long.toHexString(entryLogId));
-                    entryLogger.removeEntryLog(entryLogId);
-                    // remove it from entrylogmetadata-map if it is present in
-                    // the map
-                    entryLogMetaMap.remove(entryLogId);
-                } else {
-                    entryLogMetaMap.put(entryLogId, entryLogMeta);
+        LOG.info("Extracting entry log meta from entryLogId: {}", entryLogId);
+
+        try {
+            EntryLogMetadata entryLogMeta;
+            if (metadataIndexer != null && metadataIndexer.isRunning()) {
+                try {
+                    entryLogMeta = entryLogger.readEntryLogMetadata(entryLogId);
+                } catch (IOException e) {
+                    // The entry log needs a scan, left to the indexer so that the gc isn't blocked meanwhile
+                    LOG.info("Skipping entry log {} until its metadata is indexed: {}", entryLogId, e.getMessage());
+                    return false;
                 }
-            } catch (IOException e) {
-                LOG.warn("Premature exception when processing " + entryLogId
-                         + " recovery will take care of the problem", e);
+            } else {
+                // Read through the entry log file and extract the entry log meta
+                entryLogMeta = entryLogger.getEntryLogMetadata(entryLogId, throttler);
+            }
+            removeIfLedgerNotExists(entryLogMeta);
+            if (entryLogMeta.isEmpty()) {
+                LOG.info("Entry log file {} is empty, delete it from disk.", Long.toHexString(entryLogId));
+                entryLogger.removeEntryLog(entryLogId);
+                // remove it from entrylogmetadata-map if it is present in
+                // the map
+                entryLogMetaMap.remove(entryLogId);
+            } else {
+                entryLogMetaMap.put(entryLogId, entryLogMeta);
             }
+        } catch (IOException e) {
+            LOG.warn("Premature exception when processing " + entryLogId
+                     + " recovery will take care of the problem", e);
+        }
+        return true;
+    }
+
+    private boolean isEntryLogMetadataExtracted(long entryLogId) {
+        try {
+            return entryLogMetaMap.containsKey(entryLogId);
+        } catch (EntryLogMetadataMapException e) {
+            return false;
         }
     }
 
@@ -776,14 +1270,23 @@ public class GarbageCollectorThread implements Runnable {
     }
 
     public GarbageCollectionStatus getGarbageCollectionStatus() {
-        return GarbageCollectionStatus.builder()
+        GarbageCollectionStatus.GarbageCollectionStatusBuilder status = GarbageCollectionStatus.builder()
             .forceCompacting(forceGarbageCollection.get())
             .majorCompacting(majorCompacting.get())
             .minorCompacting(minorCompacting.get())
             .lastMajorCompactionTime(lastMajorCompactionTime)
             .lastMinorCompactionTime(lastMinorCompactionTime)
             .majorCompactionCounter(gcStats.getMajorCompactionCounter().get())
-            .minorCompactionCounter(gcStats.getMinorCompactionCounter().get())
-            .build();
+            .minorCompactionCounter(gcStats.getMinorCompactionCounter().get());
+        if (metadataIndexer != null) {
+            status.metadataIndexing(metadataIndexer.isRunning())
+                .metadataIndexStartTime(metadataIndexer.getStartTime())
+                .metadataIndexEndTime(metadataIndexer.getEndTime())
+                .metadataIndexTotalEntryLogs(metadataIndexer.getTotalEntryLogs())
+                .metadataIndexProcessedEntryLogs(metadataIndexer.getProcessedEntryLogs())
+                .metadataIndexScannedEntryLogs(metadataIndexer.getScannedEntryLogs())
+                .metadataIndexFailedEntryLogs(metadataIndexer.getFailedEntryLogs());
+        }
+        return status.build();
     }
 }
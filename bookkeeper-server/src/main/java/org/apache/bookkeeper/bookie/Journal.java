@@ -32,6 +32,7 @@ import io.netty.buffer.UnpooledByteBufAllocator;
 import io.netty.util.Recycler;
 import io.netty.util.Recycler.Handle;
 import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -41,6 +42,8 @@ import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import org.apache.bookkeeper.bookie.LedgerDirsManager.NoWritableLedgerDirException;
@@ -302,6 +305,8 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
         Object ctx;
         long enqueueTime;
         boolean ackBeforeSync;
+        // Entries of a ledger coalesced by the bookie, written as consecutive records and acknowledged together
+        RecyclableArrayList<QueueEntry> batch;
 
         OpStatsLogger journalAddEntryStats;
         Counter callbackTime;
@@ -322,8 +327,22 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
             return qe;
         }
 
+        /**
+         * @return the number of entries logged by this queue entry
+         */
+        int size() {
+            return batch == null ? 1 : batch.size();
+        }
+
         @Override
         public void run() {
+            if (batch != null) {
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.get(i).run();
+                }
+                recycle();
+                return;
+            }
             long startTime = System.nanoTime();
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Acknowledge Ledger: {}, Entry: {}", ledgerId, entryId);
@@ -357,6 +376,10 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
             this.ctx = null;
             this.journalAddEntryStats = null;
             this.callbackTime = null;
+            if (this.batch != null) {
+                this.batch.recycle();
+                this.batch = null;
+            }
             recyclerHandle.recycle(this);
         }
     }
@@ -372,6 +395,27 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
         private long lastFlushedPosition;
         private long logId;
         private boolean flushed;
+        // Whether the journal must be synced before notifying the waiters, only false with pipelined writes
+        private boolean sync;
+
+        /**
+         * Notify the waiters that don't need to wait for the sync, once their entries are written to the file.
+         */
+        private void processWritten(ObjectHashSet<BookieRequestHandler> writeHandlers, boolean syncData)
+                throws IOException {
+            logFile.getBufferedChannel().waitForPendingWrite();
+            for (int i = 0; i < forceWriteWaiters.size(); i++) {
+                QueueEntry qe = forceWriteWaiters.get(i);
+                if (qe != null && (!syncData || qe.ackBeforeSync)) {
+                    forceWriteWaiters.set(i, null);
+                    if (qe.getCtx() instanceof BookieRequestHandler
+                            && qe.entryId != BookieImpl.METAENTRY_ID_FORCE_LEDGER) {
+                        writeHandlers.add((BookieRequestHandler) qe.getCtx());
+                    }
+                    qe.run();
+                }
+            }
+        }
 
         public int process(ObjectHashSet<BookieRequestHandler> writeHandlers) {
             closeFileIfNecessary();
@@ -434,13 +478,17 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
                           long logId,
                           long lastFlushedPosition,
                           RecyclableArrayList<QueueEntry> forceWriteWaiters,
-                          boolean shouldClose) {
+                          boolean shouldClose,
+                          boolean sync) {
         ForceWriteRequest req = forceWriteRequestsRecycler.get();
         req.forceWriteWaiters = forceWriteWaiters;
         req.logFile = logFile;
         req.logId = logId;
         req.lastFlushedPosition = lastFlushedPosition;
         req.shouldClose = shouldClose;
+        req.sync = sync;
+        // The request may be recycled from one that was synced
+        req.flushed = false;
         journalStats.getForceWriteQueueSize().inc();
         return req;
     }
@@ -501,7 +549,19 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
 
                     // Sync and mark the journal up to the position of the last entry in the batch
                     ForceWriteRequest lastRequest = localRequests[requestsCount - 1];
-                    syncJournal(lastRequest);
+                    if (pipelinedWrites) {
+                        // The groups are handed over before being written, and only some of them need a sync
+                        boolean sync = false;
+                        for (int i = 0; i < requestsCount; i++) {
+                            localRequests[i].processWritten(writeHandlers, syncData);
+                            sync |= localRequests[i].sync;
+                        }
+                        if (sync) {
+                            syncJournal(lastRequest);
+                        }
+                    } else {
+                        syncJournal(lastRequest);
+                    }
 
                     // All the requests in the batch are now fully-synced. We can trigger sending the
                     // responses
@@ -537,8 +597,11 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
             long fsyncStartTime = MathUtils.nowInNano();
             try {
                 lastRequest.flushFileToDisk();
-                journalStats.getJournalSyncStats().registerSuccessfulEvent(MathUtils.elapsedNanos(fsyncStartTime),
-                        TimeUnit.NANOSECONDS);
+                long fsyncNanos = MathUtils.elapsedNanos(fsyncStartTime);
+                journalStats.getJournalSyncStats().registerSuccessfulEvent(fsyncNanos, TimeUnit.NANOSECONDS);
+                if (syncData) {
+                    recordCommitLatency(fsyncNanos);
+                }
                 lastLogMark.setCurLogMark(lastRequest.logId, lastRequest.lastFlushedPosition);
             } catch (IOException ioe) {
                 journalStats.getJournalSyncStats()
@@ -617,6 +680,11 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
     private final long bufferedWritesThreshold;
     // should we flush if the queue is empty
     private final boolean flushWhenQueueEmpty;
+    // Adapts the group wait and size to the load, null when the static thresholds are used
+    private final JournalGroupCommitController groupCommitController;
+    // Moving average of the group commit latency, only updated by the thread committing the groups
+    private volatile double avgCommitLatencyNanos;
+    private static final double COMMIT_LATENCY_ALPHA = 0.2;
     // should we hint the filesystem to remove pages from cache after force write
     private final boolean removePagesFromCache;
     private final int journalFormatVersionToWrite;
@@ -628,6 +696,9 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
 
     // Should data be fsynced on disk before triggering the callback
     private final boolean syncData;
+    // Whether the journal files are written in background, while the journal thread fills the next buffer
+    private final boolean pipelinedWrites;
+    private final ExecutorService writeExecutor;
 
     private final LastLogMark lastLogMark = new LastLogMark(0, 0);
 
@@ -685,6 +756,10 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
         this.journalPreAllocSize = conf.getJournalPreAllocSizeMB() * MB;
         this.journalWriteBufferSize = conf.getJournalWriteBufferSizeKB() * KB;
         this.syncData = conf.getJournalSyncData();
+        this.pipelinedWrites = conf.isJournalPipelinedWritesEnabled();
+        this.writeExecutor = pipelinedWrites
+                ? Executors.newSingleThreadExecutor(new DefaultThreadFactory("BookieJournalWriter-" + journalIndex))
+                : null;
         this.maxBackupJournals = conf.getMaxBackupJournals();
         this.forceWriteThread = new ForceWriteThread(this, conf.getJournalAdaptiveGroupWrites(),
                 journalStatsLogger);
@@ -699,9 +774,20 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
 
         this.journalTime = journalStatsLogger.getThreadScopedCounter("journal-thread-time");
 
+        long groupCommitLatencyTargetNanos =
+                TimeUnit.MICROSECONDS.toNanos(conf.getJournalGroupCommitLatencyTargetMicros());
+        if (groupCommitLatencyTargetNanos > 0) {
+            this.groupCommitController = new JournalGroupCommitController(groupCommitLatencyTargetNanos,
+                    maxGroupWaitInNanos > 0 ? maxGroupWaitInNanos : groupCommitLatencyTargetNanos,
+                    bufferedEntriesThreshold);
+        } else {
+            this.groupCommitController = null;
+        }
+
         // Unless there is a cap on the max wait (which requires group force writes)
         // we cannot skip flushing for queue empty
-        this.flushWhenQueueEmpty = maxGroupWaitInNanos <= 0 || conf.getJournalFlushWhenQueueEmpty();
+        this.flushWhenQueueEmpty = (maxGroupWaitInNanos <= 0 && groupCommitController == null)
+                || conf.getJournalFlushWhenQueueEmpty();
 
         this.removePagesFromCache = conf.getJournalRemovePagesFromCache();
         // read last log mark
@@ -724,7 +810,8 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
 
         // Expose Stats
         this.journalStats = new JournalStats(journalStatsLogger, journalMaxMemory,
-                () -> memoryLimitController.currentUsage());
+                () -> memoryLimitController.currentUsage(),
+                () -> TimeUnit.NANOSECONDS.toMicros((long) avgCommitLatencyNanos), groupCommitController);
     }
 
     public Journal(int journalIndex, File journalDirectory, ServerConfiguration conf,
@@ -738,6 +825,29 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
         return this.journalStats;
     }
 
+    private void recordCommitLatency(long nanos) {
+        double avg = avgCommitLatencyNanos;
+        avgCommitLatencyNanos = avg == 0 ? nanos : avg + COMMIT_LATENCY_ALPHA * (nanos - avg);
+        if (groupCommitController != null) {
+            groupCommitController.recordCommitLatency(nanos);
+        }
+    }
+
+    /**
+     * @return the moving average of the latency of the group commits, synced or only written depending on
+     *         journalSyncData
+     */
+    double getAvgCommitLatencyNanos() {
+        return avgCommitLatencyNanos;
+    }
+
+    /**
+     * @return the number of entries waiting in the journal queue
+     */
+    int getQueueLength() {
+        return queue.size();
+    }
+
     public File getJournalDirectory() {
         return journalDirectory;
     }
@@ -906,6 +1016,53 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
                 callbackTime));
     }
 
+    /**
+     * Record the add entry operations of consecutive entries of a ledger in journal, queued at once. They are
+     * written as consecutive records, so that the journal format is unchanged, and acknowledged together.
+     */
+    public void logAddEntries(List<ByteBuf> entries, boolean ackBeforeSync, List<? extends WriteCallback> cbs,
+                              Object ctx) throws InterruptedException {
+        long enqueueTime = MathUtils.nowInNano();
+        RecyclableArrayList<QueueEntry> batch = entryListRecycler.newInstance();
+        long batchBytes = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            ByteBuf entry = entries.get(i);
+            // Retain entry until it gets written to journal
+            entry.retain();
+            batchBytes += entry.readableBytes();
+            batch.add(QueueEntry.create(
+                    entry, ackBeforeSync, entry.getLong(entry.readerIndex()), entry.getLong(entry.readerIndex() + 8),
+                    cbs.get(i), ctx, enqueueTime, journalStats.getJournalAddEntryStats(), callbackTime));
+        }
+        QueueEntry last = batch.get(batch.size() - 1);
+        QueueEntry qe = QueueEntry.create(
+                null, ackBeforeSync, last.ledgerId, last.entryId, null, ctx, enqueueTime,
+                journalStats.getJournalAddEntryStats(), callbackTime);
+        qe.batch = batch;
+
+        journalStats.getJournalQueueSize().inc();
+
+        boolean reserved = false;
+        try {
+            memoryLimitController.reserveMemory(batchBytes);
+            reserved = true;
+            queue.put(qe);
+        } catch (InterruptedException e) {
+            // The batch is rejected, nothing is left to write or acknowledge its entries
+            journalStats.getJournalQueueSize().dec();
+            if (reserved) {
+                memoryLimitController.releaseMemory(batchBytes);
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                QueueEntry entry = batch.get(i);
+                ReferenceCountUtil.release(entry.entry);
+                entry.recycle();
+            }
+            qe.recycle();
+            throw e;
+        }
+    }
+
     void forceLedger(long ledgerId, WriteCallback cb, Object ctx) {
         queue.add(QueueEntry.create(
                 null, false /* ackBeforeSync */, ledgerId,
@@ -983,6 +1140,14 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
             int localQueueEntriesLen = 0;
             QueueEntry qe = null;
             while (true) {
+                long groupWaitNanos = maxGroupWaitInNanos;
+                long groupEntriesThreshold = bufferedEntriesThreshold;
+                if (groupCommitController != null) {
+                    groupWaitNanos = groupCommitController.getGroupWaitNanos();
+                    groupEntriesThreshold = groupCommitController.getGroupEntries();
+                }
+                boolean flushWhenEmpty = flushWhenQueueEmpty || groupWaitNanos <= 0;
+
                 // new journal file to write
                 if (null == logFile) {
                     logId = logId + 1;
@@ -1022,9 +1187,9 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
                     } else {
                         // There are already some entries pending. We must adjust
                         // the waiting time to the remaining groupWait time
-                        long pollWaitTimeNanos = maxGroupWaitInNanos
+                        long pollWaitTimeNanos = groupWaitNanos
                                 - MathUtils.elapsedNanos(toFlush.get(0).enqueueTime);
-                        if (flushWhenQueueEmpty || pollWaitTimeNanos < 0) {
+                        if (flushWhenEmpty || pollWaitTimeNanos < 0) {
                             pollWaitTimeNanos = 0;
                         }
 
@@ -1033,6 +1198,9 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
                     }
 
                     dequeueStartTime = MathUtils.nowInNano();
+                    if (groupCommitController != null) {
+                        groupCommitController.recordArrivals(localQueueEntriesLen, dequeueStartTime);
+                    }
 
                     if (localQueueEntriesLen > 0) {
                         qe = localQueueEntries[localQueueEntriesIdx];
@@ -1050,12 +1218,12 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
                     boolean shouldFlush = false;
                     // We should issue a forceWrite if any of the three conditions below holds good
                     // 1. If the oldest pending entry has been pending for longer than the max wait time
-                    if (maxGroupWaitInNanos > 0 && !groupWhenTimeout && (MathUtils
-                            .elapsedNanos(toFlush.get(0).enqueueTime) > maxGroupWaitInNanos)) {
+                    if (groupWaitNanos > 0 && !groupWhenTimeout && (MathUtils
+                            .elapsedNanos(toFlush.get(0).enqueueTime) > groupWaitNanos)) {
                         groupWhenTimeout = true;
-                    } else if (maxGroupWaitInNanos > 0 && groupWhenTimeout
+                    } else if (groupWaitNanos > 0 && groupWhenTimeout
                         && (qe == null // no entry to group
-                            || MathUtils.elapsedNanos(qe.enqueueTime) < maxGroupWaitInNanos)) {
+                            || MathUtils.elapsedNanos(qe.enqueueTime) < groupWaitNanos)) {
                         // when group timeout, it would be better to look forward, as there might be lots of
                         // entries already timeout
                         // due to a previous slow write (writing to filesystem which impacted by force write).
@@ -1066,13 +1234,13 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
                         shouldFlush = true;
                         journalStats.getFlushMaxWaitCounter().inc();
                     } else if (qe != null
-                            && ((bufferedEntriesThreshold > 0 && toFlush.size() > bufferedEntriesThreshold)
+                            && ((groupEntriesThreshold > 0 && numEntriesToFlush > groupEntriesThreshold)
                             || (bc.position() > lastFlushPosition + bufferedWritesThreshold))) {
                         // 2. If we have buffered more than the buffWriteThreshold or bufferedEntriesThreshold
                         groupWhenTimeout = false;
                         shouldFlush = true;
                         journalStats.getFlushMaxOutstandingBytesCounter().inc();
-                    } else if (qe == null && flushWhenQueueEmpty) {
+                    } else if (qe == null && flushWhenEmpty) {
                         // We should get here only if we flushWhenQueueEmpty is true else we would wait
                         // for timeout that would put is past the maxWait threshold
                         // 3. If the queue is empty i.e. no benefit of grouping. This happens when we have one
@@ -1090,26 +1258,34 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
                         journalFlushWatcher.reset().start();
                         bc.flush();
 
-                        for (int i = 0; i < toFlush.size(); i++) {
-                            QueueEntry entry = toFlush.get(i);
-                            if (entry != null && (!syncData || entry.ackBeforeSync)) {
-                                toFlush.set(i, null);
-                                numEntriesToFlush--;
-                                if (entry.getCtx() instanceof BookieRequestHandler
-                                        && entry.entryId != BookieImpl.METAENTRY_ID_FORCE_LEDGER) {
-                                    writeHandlers.add((BookieRequestHandler) entry.getCtx());
+                        // With pipelined writes the entries are not written yet, the force write thread notifies
+                        // them instead
+                        if (!pipelinedWrites) {
+                            for (int i = 0; i < toFlush.size(); i++) {
+                                QueueEntry entry = toFlush.get(i);
+                                if (entry != null && (!syncData || entry.ackBeforeSync)) {
+                                    toFlush.set(i, null);
+                                    numEntriesToFlush -= entry.size();
+                                    if (entry.getCtx() instanceof BookieRequestHandler
+                                            && entry.entryId != BookieImpl.METAENTRY_ID_FORCE_LEDGER) {
+                                        writeHandlers.add((BookieRequestHandler) entry.getCtx());
+                                    }
+                                    entry.run();
                                 }
-                                entry.run();
                             }
+                            writeHandlers.forEach(
+                                    (ObjectProcedure<? super BookieRequestHandler>)
+                                            BookieRequestHandler::flushPendingResponse);
+                            writeHandlers.clear();
                         }
-                        writeHandlers.forEach(
-                                (ObjectProcedure<? super BookieRequestHandler>)
-                                        BookieRequestHandler::flushPendingResponse);
-                        writeHandlers.clear();
 
                         lastFlushPosition = bc.position();
-                        journalStats.getJournalFlushStats().registerSuccessfulEvent(
-                                journalFlushWatcher.stop().elapsed(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+                        long flushNanos = journalFlushWatcher.stop().elapsed(TimeUnit.NANOSECONDS);
+                        journalStats.getJournalFlushStats().registerSuccessfulEvent(flushNanos, TimeUnit.NANOSECONDS);
+                        if (!syncData) {
+                            // The entries are acknowledged once written, without waiting for the sync
+                            recordCommitLatency(flushNanos);
+                        }
 
                         // Trace the lifetime of entries through persistence
                         if (LOG.isDebugEnabled()) {
@@ -1135,12 +1311,15 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
                         //   synchronize frequently, which will increase disk io util.
                         //   when flush interval reaches journalPageCacheFlushIntervalMSec (default: 1s),
                         //   it will trigger data sync to disk
-                        if (syncData
+                        boolean shouldSync = syncData
                                 || shouldRolloverJournal
                                 || (System.currentTimeMillis() - lastFlushTimeMs
-                                >= journalPageCacheFlushIntervalMSec)) {
+                                >= journalPageCacheFlushIntervalMSec);
+                        if (shouldSync || pipelinedWrites) {
                             forceWriteRequests.put(createForceWriteRequest(logFile, logId, lastFlushPosition,
-                                    toFlush, shouldRolloverJournal));
+                                    toFlush, shouldRolloverJournal, shouldSync));
+                        }
+                        if (shouldSync) {
                             lastFlushTimeMs = System.currentTimeMillis();
                         }
                         toFlush = entryListRecycler.newInstance();
@@ -1165,7 +1344,11 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
                 if (qe == null) { // no more queue entry
                     continue;
                 }
-                if ((qe.entryId == BookieImpl.METAENTRY_ID_LEDGER_EXPLICITLAC)
+                if (qe.batch != null) {
+                    for (int i = 0; i < qe.batch.size(); i++) {
+                        batchSize += writeRecord(logFile, lenBuff, qe.batch.get(i).entry);
+                    }
+                } else if ((qe.entryId == BookieImpl.METAENTRY_ID_LEDGER_EXPLICITLAC)
                         && (journalFormatVersionToWrite < JournalChannel.V6)) {
                     /*
                      * this means we are using new code which supports
@@ -1177,25 +1360,12 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
                     memoryLimitController.releaseMemory(qe.entry.readableBytes());
                     ReferenceCountUtil.release(qe.entry);
                 } else if (qe.entryId != BookieImpl.METAENTRY_ID_FORCE_LEDGER) {
-                    int entrySize = qe.entry.readableBytes();
-                    journalStats.getJournalWriteBytes().addCount(entrySize);
-
-                    batchSize += (4 + entrySize);
-
-                    lenBuff.clear();
-                    lenBuff.writeInt(entrySize);
-
-                    // preAlloc based on size
-                    logFile.preAllocIfNeeded(4 + entrySize);
-
-                    bc.write(lenBuff);
-                    bc.write(qe.entry);
-                    memoryLimitController.releaseMemory(qe.entry.readableBytes());
-                    ReferenceCountUtil.release(qe.entry);
+                    batchSize += writeRecord(logFile, lenBuff, qe.entry);
                 }
 
                 toFlush.add(qe);
-                numEntriesToFlush++;
+                // The entries of a batch count against the buffered entries threshold
+                numEntriesToFlush += qe.size();
 
                 if (localQueueEntriesIdx < localQueueEntriesLen) {
                     qe = localQueueEntries[localQueueEntriesIdx];
@@ -1223,7 +1393,34 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
         LOG.info("Journal exited loop!");
     }
 
+    /**
+     * Write an entry as a journal record and release it.
+     *
+     * @return the size of the record
+     */
+    private long writeRecord(JournalChannel logFile, ByteBuf lenBuff, ByteBuf entry) throws IOException {
+        int entrySize = entry.readableBytes();
+        journalStats.getJournalWriteBytes().addCount(entrySize);
+
+        lenBuff.clear();
+        lenBuff.writeInt(entrySize);
+
+        // preAlloc based on size
+        logFile.preAllocIfNeeded(4 + entrySize);
+
+        BufferedChannel bc = logFile.getBufferedChannel();
+        bc.write(lenBuff);
+        bc.write(entry);
+        memoryLimitController.releaseMemory(entrySize);
+        ReferenceCountUtil.release(entry);
+        return 4 + entrySize;
+    }
+
     public BufferedChannelBuilder getBufferedChannelBuilder() {
+        if (pipelinedWrites) {
+            return (FileChannel fc, int capacity) -> new PipelinedBufferedChannel(allocator, fc, capacity,
+                    writeExecutor);
+        }
         return (FileChannel fc, int capacity) -> new BufferedChannel(allocator, fc, capacity);
     }
 
@@ -1245,6 +1442,9 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
             running = false;
             this.interrupt();
             this.join();
+            if (writeExecutor != null) {
+                writeExecutor.shutdown();
+            }
             LOG.info("Finished Shutting down Journal thread");
         } catch (IOException | InterruptedException ie) {
             Thread.currentThread().interrupt();
@@ -306,6 +306,7 @@ class JournalChannel implements Closeable {
         if (LOG.isDebugEnabled()) {
             LOG.debug("Journal ForceWrite");
         }
+        bc.waitForPendingWrite();
         long newForceWritePosition = bc.forceWrite(forceMetadata);
         //
         // For POSIX_FADV_DONTNEED, we want to drop from the beginning
@@ -0,0 +1,136 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chooses how long the journal thread groups the entries before flushing them, to keep the add latency under a
+ * target.
+ *
+ * <p>An entry added to a group waits for the group to close and then for the group to be committed (synced to the
+ * disk, or only written when the journal doesn't sync the data). The controller tracks the commit latency, and
+ * estimates its p99 from its moving average and mean deviation. The time left in the target after the commit is the
+ * budget for grouping, bounded by the max group wait. The journal only waits when the entries arrive fast enough to
+ * expect another entry in that wait, otherwise it flushes as soon as its queue is empty. The group also closes once
+ * it holds the number of entries expected in the wait.
+ *
+ * <p>The arrival rate is only updated by the journal thread, the commit latency by a single thread at a time.
+ */
+public class JournalGroupCommitController {
+
+    // Weight of the new samples in the moving averages
+    private static final double ALPHA = 0.2;
+    // Min period over which the arrival rate is measured
+    private static final long RATE_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    // Mean deviations above the average commit latency to estimate its p99
+    private static final double P99_DEVIATIONS = 3.0;
+
+    private final long targetLatencyNanos;
+    private final long maxGroupWaitNanos;
+    // 0 when the size of the groups is not bounded
+    private final long maxGroupEntries;
+
+    private volatile double avgCommitNanos;
+    private volatile double commitDeviationNanos;
+
+    private long windowStartNanos;
+    private long windowArrivals;
+    private volatile double arrivalsPerNano;
+
+    private volatile long groupWaitNanos;
+    private volatile long groupEntries;
+
+    JournalGroupCommitController(long targetLatencyNanos, long maxGroupWaitNanos, long maxGroupEntries) {
+        this.targetLatencyNanos = targetLatencyNanos;
+        this.maxGroupWaitNanos = maxGroupWaitNanos;
+        this.maxGroupEntries = Math.max(0, maxGroupEntries);
+        this.windowStartNanos = System.nanoTime();
+        this.groupEntries = this.maxGroupEntries;
+    }
+
+    /**
+     * Record the latency of a group commit.
+     */
+    void recordCommitLatency(long nanos) {
+        double avg = avgCommitNanos;
+        if (avg == 0) {
+            avgCommitNanos = nanos;
+        } else {
+            commitDeviationNanos += ALPHA * (Math.abs(nanos - avg) - commitDeviationNanos);
+            avgCommitNanos = avg + ALPHA * (nanos - avg);
+        }
+    }
+
+    /**
+     * Record the entries taken from the journal queue, and update the decisions once per rate window.
+     */
+    void recordArrivals(int entries, long nowNanos) {
+        windowArrivals += entries;
+        long elapsed = nowNanos - windowStartNanos;
+        if (elapsed < RATE_WINDOW_NANOS) {
+            return;
+        }
+
+        double rate = (double) windowArrivals / elapsed;
+        arrivalsPerNano = arrivalsPerNano == 0 ? rate : arrivalsPerNano + ALPHA * (rate - arrivalsPerNano);
+        windowArrivals = 0;
+        windowStartNanos = nowNanos;
+        update();
+    }
+
+    private void update() {
+        long wait = Math.min(targetLatencyNanos - getCommitLatencyP99Nanos(), maxGroupWaitNanos);
+        double rate = arrivalsPerNano;
+        if (wait <= 0 || rate * wait < 1) {
+            // Either the commits alone are over the target or no other entry is expected while waiting
+            groupWaitNanos = 0;
+            groupEntries = maxGroupEntries;
+            return;
+        }
+
+        long entries = Math.max(1, (long) Math.ceil(rate * wait));
+        groupWaitNanos = wait;
+        groupEntries = maxGroupEntries > 0 ? Math.min(entries, maxGroupEntries) : entries;
+    }
+
+    /**
+     * @return how long the oldest entry of a group can wait before the group is flushed
+     */
+    public long getGroupWaitNanos() {
+        return groupWaitNanos;
+    }
+
+    /**
+     * @return the number of entries after which a group is flushed, 0 if not bounded
+     */
+    public long getGroupEntries() {
+        return groupEntries;
+    }
+
+    public long getCommitLatencyP99Nanos() {
+        return (long) (avgCommitNanos + P99_DEVIATIONS * commitDeviationNanos);
+    }
+
+    public double getArrivalsPerSecond() {
+        return arrivalsPerNano * TimeUnit.SECONDS.toNanos(1);
+    }
+}
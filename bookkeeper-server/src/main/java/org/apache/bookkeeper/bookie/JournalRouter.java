@@ -0,0 +1,161 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.util.List;
+import java.util.function.LongSupplier;
+import org.apache.bookkeeper.common.util.MathUtils;
+import org.apache.bookkeeper.util.collections.ConcurrentLongLongHashMap;
+
+/**
+ * Routes the ledgers to the journals of the bookie.
+ *
+ * <p>By default, a ledger is routed to a journal by the modulo of its id. With the load aware routing, a ledger is
+ * routed to the least loaded journal when it's first written, and then sticks to that journal, so that all its
+ * entries and meta entries are in the same journal and a force ledger only needs to sync that journal. The load of
+ * a journal is estimated from the depth of its queue and its average commit latency, so the new ledgers avoid the
+ * slow or busy journal disks.
+ *
+ * <p>The assignments are only kept in memory. After a restart the ledgers can be routed to other journals, which is
+ * safe since the journals are replayed and flushed to the ledger storage before accepting new entries.
+ *
+ * <p>The assignments are kept in two generations, rotated every idle period: a ledger routed during a period is in
+ * the current generation, and is moved back to it from the previous one when it is routed again. The ledgers left in
+ * the previous generation at the rotation were not routed for a whole period and are forgotten, so the closed
+ * ledgers that are never deleted don't pile up. Their entries were synced by their journal long before, so such a
+ * ledger can be routed to another journal when it is written again, e.g. by the recovery.
+ */
+class JournalRouter {
+
+    private final List<Journal> journals;
+    private final boolean loadAwareRouting;
+    private final long idleLedgerMillis;
+    private final LongSupplier clock;
+    // Journal index of each ledger routed in the current and previous periods, null when routing by ledger id
+    private volatile ConcurrentLongLongHashMap assignments;
+    private volatile ConcurrentLongLongHashMap previousAssignments;
+    private volatile long lastRotation;
+
+    JournalRouter(List<Journal> journals, boolean loadAwareRouting, long idleLedgerMillis) {
+        this(journals, loadAwareRouting, idleLedgerMillis, System::currentTimeMillis);
+    }
+
+    @VisibleForTesting
+    JournalRouter(List<Journal> journals, boolean loadAwareRouting, long idleLedgerMillis, LongSupplier clock) {
+        this.journals = journals;
+        this.loadAwareRouting = loadAwareRouting && journals.size() > 1;
+        this.idleLedgerMillis = idleLedgerMillis;
+        this.clock = clock;
+        if (this.loadAwareRouting) {
+            this.assignments = newAssignments();
+            this.previousAssignments = newAssignments();
+            this.lastRotation = clock.getAsLong();
+        }
+    }
+
+    private static ConcurrentLongLongHashMap newAssignments() {
+        return ConcurrentLongLongHashMap.newBuilder().build();
+    }
+
+    Journal getJournal(long ledgerId) {
+        if (!loadAwareRouting) {
+            return journals.get(MathUtils.signSafeMod(ledgerId, journals.size()));
+        }
+        maybeRotate();
+
+        ConcurrentLongLongHashMap current = assignments;
+        long index = current.get(ledgerId);
+        if (index < 0) {
+            ConcurrentLongLongHashMap previousGeneration = previousAssignments;
+            long previous = previousGeneration.get(ledgerId);
+            index = current.computeIfAbsent(ledgerId, previous >= 0 ? l -> previous : this::assign);
+            if (previous >= 0) {
+                previousGeneration.remove(ledgerId, previous);
+            }
+        }
+        return journals.get((int) index);
+    }
+
+    /**
+     * Forget the ledgers that were not routed during the last idle period.
+     */
+    private void maybeRotate() {
+        long now = clock.getAsLong();
+        if (idleLedgerMillis <= 0 || now - lastRotation < idleLedgerMillis) {
+            return;
+        }
+        ConcurrentLongLongHashMap evicted;
+        synchronized (this) {
+            if (now - lastRotation < idleLedgerMillis) {
+                return;
+            }
+            evicted = previousAssignments;
+            previousAssignments = assignments;
+            assignments = newAssignments();
+            lastRotation = now;
+        }
+        evicted.forEach((ledgerId, index) -> journals.get((int) index).getJournalStats().getRoutedLedgers().dec());
+    }
+    private long assign(long ledgerId) {
+        // Start from the modulo journal, so that the ledgers are spread as before when the journals are idle
+        int first = MathUtils.signSafeMod(ledgerId, journals.size());
+        int best = first;
+        double bestLoad = Double.MAX_VALUE;
+        for (int i = 0; i < journals.size(); i++) {
+            int index = (first + i) % journals.size();
+            double load = load(journals.get(index));
+            if (load < bestLoad) {
+                best = index;
+                bestLoad = load;
+            }
+        }
+        journals.get(best).getJournalStats().getRoutedLedgers().inc();
+        return best;
+    }
+
+    /**
+     * Estimate the delay of an entry added to the journal: every entry in the queue ahead of it costs at most a
+     * commit, and the entry needs at least one.
+     */
+    private static double load(Journal journal) {
+        return (1 + journal.getQueueLength()) * Math.max(1.0, journal.getAvgCommitLatencyNanos());
+    }
+
+    void ledgerDeleted(long ledgerId) {
+        if (!loadAwareRouting) {
+            return;
+        }
+
+        long index = assignments.remove(ledgerId);
+        if (index < 0) {
+            index = previousAssignments.remove(ledgerId);
+        }
+        if (index >= 0) {
+            journals.get((int) index).getJournalStats().getRoutedLedgers().dec();
+        }
+    }
+
+    @VisibleForTesting
+    boolean isAssigned(long ledgerId) {
+        return loadAwareRouting && (assignments.containsKey(ledgerId) || previousAssignments.containsKey(ledgerId));
+    }
+}
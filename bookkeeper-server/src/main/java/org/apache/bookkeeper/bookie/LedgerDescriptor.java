@@ -25,6 +25,7 @@ import static org.apache.bookkeeper.bookie.BookieImpl.METAENTRY_ID_FENCE_KEY;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.util.ReferenceCounted;
 import java.io.IOException;
 import java.util.PrimitiveIterator.OfLong;
 import java.util.concurrent.CompletableFuture;
@@ -78,6 +79,10 @@ public abstract class LedgerDescriptor {
     abstract long addEntry(ByteBuf entry) throws IOException, BookieException;
     abstract ByteBuf readEntry(long entryId) throws IOException, BookieException;
 
+    ReferenceCounted readEntryOrRegion(long entryId, int minRegionSize) throws IOException, BookieException {
+        return readEntry(entryId);
+    }
+
     abstract long getLastAddConfirmed() throws IOException, BookieException;
     abstract boolean waitForLastAddConfirmedUpdate(long previousLAC,
                                                    Watcher<LastAddConfirmedUpdateNotification> watcher)
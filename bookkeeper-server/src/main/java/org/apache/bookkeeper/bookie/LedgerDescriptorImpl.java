@@ -22,6 +22,7 @@
 package org.apache.bookkeeper.bookie;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.util.ReferenceCounted;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.PrimitiveIterator.OfLong;
@@ -161,6 +162,11 @@ public class LedgerDescriptorImpl extends LedgerDescriptor {
         return ledgerStorage.getEntry(ledgerId, entryId);
     }
 
+    @Override
+    ReferenceCounted readEntryOrRegion(long entryId, int minRegionSize) throws IOException, BookieException {
+        return ledgerStorage.getEntryOrRegion(ledgerId, entryId, minRegionSize);
+    }
+
     @Override
     long getLastAddConfirmed() throws IOException, BookieException {
         return ledgerStorage.getLastAddConfirmed(ledgerId);
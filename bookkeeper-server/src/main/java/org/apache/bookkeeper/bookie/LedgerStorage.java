@@ -24,6 +24,8 @@ package org.apache.bookkeeper.bookie;
 import com.google.common.util.concurrent.RateLimiter;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.FileRegion;
+import io.netty.util.ReferenceCounted;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -36,6 +38,7 @@ import org.apache.bookkeeper.bookie.CheckpointSource.Checkpoint;
 import org.apache.bookkeeper.common.util.Watcher;
 import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteCallback;
 import org.apache.bookkeeper.stats.StatsLogger;
 
 /**
@@ -82,6 +85,16 @@ public interface LedgerStorage {
      */
     boolean entryExists(long ledgerId, long entryId) throws IOException, BookieException;
 
+    /**
+     * Whether a read of the entry comes from a catch-up reader, because the entry was already flushed out of the
+     * write caches. It is called on the I/O threads before scheduling each read, so it must be a lock-free hint.
+     *
+     * @return false when the entry is still in a write cache, or when the storage can't tell
+     */
+    default boolean isCatchUpRead(long ledgerId, long entryId) {
+        return false;
+    }
+
     /**
      * Fenced the ledger id in ledger storage.
      *
@@ -139,11 +152,40 @@ public interface LedgerStorage {
      */
     long addEntry(ByteBuf entry) throws IOException, BookieException;
 
+    /**
+     * Persist an entry that was added to the storage before it's flushed, so that it doesn't need to be written to
+     * the journal, and invoke the callback once it is persisted.
+     *
+     * @return false if the storage doesn't persist the entries before they are flushed
+     */
+    default boolean persistEntry(ByteBuf entry, WriteCallback cb, Object ctx) throws IOException {
+        return false;
+    }
+
+    /**
+     * Add back the entries persisted by {@link #persistEntry} that were not flushed when the bookie stopped. It is
+     * called after the journal replay, so that the ledgers are known.
+     */
+    default void recoverPersistedEntries() throws IOException {
+    }
+
     /**
      * Read an entry from storage.
      */
     ByteBuf getEntry(long ledgerId, long entryId) throws IOException, BookieException;
 
+    /**
+     * Read an entry from storage, or get the region of the entry log file holding it
+     * when the entry is not cached and it is at least minRegionSize bytes, so that it
+     * can be sent without being copied in memory.
+     *
+     * @return the entry, as {@link ByteBuf} or {@link FileRegion}
+     */
+    default ReferenceCounted getEntryOrRegion(long ledgerId, long entryId, int minRegionSize)
+            throws IOException, BookieException {
+        return getEntry(ledgerId, entryId);
+    }
+
     /**
      * Get last add confirmed.
      *
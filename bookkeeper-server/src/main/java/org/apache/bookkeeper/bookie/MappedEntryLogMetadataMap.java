@@ -0,0 +1,568 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.apache.bookkeeper.util.BookKeeperConstants.ENTRYLOG_METADATA_MAP;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.scurrilous.circe.checksum.Crc32cIntChecksum;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.bookie.BookieException.EntryLogMetadataMapException;
+import org.apache.bookkeeper.bookie.EntryLogMetadata.EntryLogMetadataRecyclable;
+import org.apache.bookkeeper.util.collections.ConcurrentLongLongHashMap;
+import org.apache.commons.lang3.mutable.MutableInt;
+
+/**
+ * Persistent entryLogMetadata-map that stores the entry-loggers metadata in memory-mapped segment files.
+ *
+ * <p>The metadata of an entry log is a record holding the (ledgerId, size) pairs of the entry log sorted by ledger
+ * id. Only the position of each record is kept on heap, and the records are only decoded while passed to an action.
+ * When loading the map, only the record headers are read: neither the entry logs nor the ledgers are scanned.
+ *
+ * <p>Segment layout (all values are big-endian):
+ *
+ * <pre>
+ * header:  magic(8) version(4) reserved(4)
+ * records: state(4) capacity(4) checksum(4) ledgerCount(4) entryLogId(8) totalSize(8) remainingSize(8)
+ *          capacity x [ledgerId(8) size(8)]
+ * </pre>
+ *
+ * <p>The ledgers are only removed from the metadata of an entry log, so an update usually fits in its record and is
+ * written in place. Otherwise the new record is appended to the last segment and the old one is marked dead. Once
+ * half of a segment is dead, its live records are moved to the last segment and the segment is deleted.
+ *
+ * <p>The checksum covers the record from the ledger count to the last ledger. A record that doesn't match it, e.g.
+ * torn by a crash, is dropped when read and its entry log is extracted again by the garbage collector.
+ *
+ * <p>Every update is forced to the segment files before returning. A record is forced before the old one is marked
+ * dead, and the records moved by a compaction before their segment is deleted, so that a crash loses at most the
+ * update in progress.
+ */
+@Slf4j
+public class MappedEntryLogMetadataMap implements EntryLogMetadataMap {
+
+    static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final long MAGIC = 0x424b454c4d455441L; // "BKELMETA"
+    private static final int VERSION = 1;
+    private static final int SEGMENT_HEADER_SIZE = 16;
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    // Record states, the zeros after the last record of a segment mark its end
+    private static final int END = 0;
+    private static final int LIVE = 1;
+    private static final int DEAD = 2;
+
+    // Offsets in a record
+    private static final int STATE = 0;
+    private static final int CAPACITY = 4;
+    private static final int CHECKSUM = 8;
+    private static final int LEDGER_COUNT = 12;
+    private static final int ENTRY_LOG_ID = 16;
+    private static final int TOTAL_SIZE = 24;
+    private static final int REMAINING_SIZE = 32;
+    private static final int RECORD_HEADER_SIZE = 40;
+    private static final int LEDGER_SIZE = 16;
+
+    private final File dir;
+    private final int segmentSize;
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    // Position of the record of each entry log: segment id in the high bits, offset in the segment in the low bits
+    private final ConcurrentLongLongHashMap positions = ConcurrentLongLongHashMap.newBuilder()
+            .concurrencyLevel(1)
+            .build();
+    private Segment current;
+    private volatile boolean closed = false;
+
+    public MappedEntryLogMetadataMap(String metadataPath) throws IOException {
+        this(metadataPath, DEFAULT_SEGMENT_SIZE);
+    }
+
+    @VisibleForTesting
+    MappedEntryLogMetadataMap(String metadataPath, int segmentSize) throws IOException {
+        this.dir = new File(metadataPath, ENTRYLOG_METADATA_MAP);
+        this.segmentSize = segmentSize;
+        if (!dir.mkdirs() && !dir.exists()) {
+            String err = "Unable to create directory " + dir;
+            log.error(err);
+            throw new IOException(err);
+        }
+
+        long start = System.nanoTime();
+        load();
+        log.info("Loaded the metadata of {} entry logs from {} segments in {} in {} ms", positions.size(),
+                segments.size(), dir, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private void load() throws IOException {
+        TreeMap<Integer, File> files = new TreeMap<>();
+        File[] listed = dir.listFiles((d, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (listed != null) {
+            for (File file : listed) {
+                String name = file.getName();
+                try {
+                    files.put(Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length())), file);
+                } catch (NumberFormatException e) {
+                    log.warn("Ignoring unexpected file {} in {}", name, dir);
+                }
+            }
+        }
+
+        for (Map.Entry<Integer, File> e : files.entrySet()) {
+            Segment segment = openSegment(e.getKey(), e.getValue());
+            if (segment != null) {
+                segments.put(segment.id, segment);
+                loadRecords(segment);
+            }
+        }
+
+        current = segments.isEmpty() ? createSegment(0, segmentSize) : segments.lastEntry().getValue();
+        for (Segment segment : segments.values().toArray(new Segment[0])) {
+            maybeCompactSegment(segment);
+        }
+    }
+
+    private Segment openSegment(int id, File file) throws IOException {
+        MappedByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long size = raf.length();
+            if (size < SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE || size > Integer.MAX_VALUE) {
+                log.warn("Deleting entry log metadata segment {} with invalid size {}", file, size);
+                deleteFile(file);
+                return null;
+            }
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        if (buffer.getLong(0) != MAGIC || buffer.getInt(8) != VERSION) {
+            log.warn("Deleting entry log metadata segment {} with invalid header", file);
+            deleteFile(file);
+            return null;
+        }
+        return new Segment(id, file, buffer);
+    }
+
+    private Segment createSegment(int id, int size) throws IOException {
+        File file = new File(dir, id + SEGMENT_SUFFIX);
+        MappedByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0);
+            raf.setLength(size);
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        buffer.putLong(0, MAGIC);
+        buffer.putInt(8, VERSION);
+        buffer.force();
+        Segment segment = new Segment(id, file, buffer);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    /**
+     * Index the live records of a segment, reading only their headers.
+     */
+    private void loadRecords(Segment segment) {
+        ByteBuffer buffer = segment.buffer;
+        int offset = SEGMENT_HEADER_SIZE;
+        while (offset + RECORD_HEADER_SIZE <= segment.size) {
+            int state = buffer.getInt(offset + STATE);
+            if (state == END) {
+                break;
+            }
+            int capacity = buffer.getInt(offset + CAPACITY);
+            if ((state != LIVE && state != DEAD) || capacity < 0
+                    || capacity > (segment.size - offset - RECORD_HEADER_SIZE) / LEDGER_SIZE) {
+                log.warn("Discarding the invalid entry log metadata records of {} from offset {}",
+                        segment.file, offset);
+                buffer.putInt(offset + STATE, END);
+                break;
+            }
+
+            if (state == LIVE) {
+                long previous = positions.put(buffer.getLong(offset + ENTRY_LOG_ID), position(segment, offset));
+                if (previous >= 0) {
+                    // The record was rewritten, but the old one wasn't marked dead before a restart
+                    markDead(previous);
+                }
+            } else {
+                segment.deadBytes += recordLength(capacity);
+            }
+            offset += recordLength(capacity);
+        }
+        segment.writePosition = offset;
+    }
+
+    @Override
+    public boolean containsKey(long entryLogId) throws EntryLogMetadataMapException {
+        throwIfClosed();
+        return positions.containsKey(entryLogId);
+    }
+
+    @Override
+    public void put(long entryLogId, EntryLogMetadata entryLogMeta) throws EntryLogMetadataMapException {
+        throwIfClosed();
+        ConcurrentLongLongHashMap ledgersMap = entryLogMeta.getLedgersMap();
+        long[] ledgerIds = new long[(int) ledgersMap.size()];
+        MutableInt count = new MutableInt();
+        ledgersMap.forEach((ledgerId, size) -> {
+            if (count.intValue() < ledgerIds.length) {
+                ledgerIds[count.getAndIncrement()] = ledgerId;
+            }
+        });
+        Arrays.sort(ledgerIds, 0, count.intValue());
+        long[] sizes = new long[count.intValue()];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = ledgersMap.get(ledgerIds[i]);
+        }
+
+        synchronized (this) {
+            throwIfClosed();
+            long position = positions.get(entryLogId);
+            if (position >= 0) {
+                Segment segment = segments.get(segmentId(position));
+                int offset = offset(position);
+                if (segment.buffer.getInt(offset + CAPACITY) >= sizes.length) {
+                    writeRecord(segment.buffer, offset, entryLogId, entryLogMeta.getTotalSize(),
+                            entryLogMeta.getRemainingSize(), ledgerIds, sizes);
+                    segment.buffer.force();
+                    return;
+                }
+            }
+
+            int length = recordLength(sizes.length);
+            try {
+                Segment segment = allocate(length);
+                int offset = segment.writePosition;
+                segment.buffer.putInt(offset + CAPACITY, sizes.length);
+                writeRecord(segment.buffer, offset, entryLogId, entryLogMeta.getTotalSize(),
+                        entryLogMeta.getRemainingSize(), ledgerIds, sizes);
+                segment.buffer.putInt(offset + STATE, LIVE);
+                segment.appended(length);
+                segment.buffer.force();
+                positions.put(entryLogId, position(segment, offset));
+            } catch (IOException e) {
+                log.error("Failed to store the metadata of entry log {} in {}", entryLogId, dir, e);
+                throw new EntryLogMetadataMapException(e);
+            }
+            if (position >= 0) {
+                Segment old = markDead(position);
+                old.buffer.force();
+                maybeCompactSegment(old);
+            }
+        }
+    }
+
+    /**
+     * Write the ledgers of a record, and its ledger count and checksum once they are in place.
+     */
+    private static void writeRecord(ByteBuffer buffer, int offset, long entryLogId, long totalSize,
+                                    long remainingSize, long[] ledgerIds, long[] sizes) {
+        buffer.putLong(offset + ENTRY_LOG_ID, entryLogId);
+        buffer.putLong(offset + TOTAL_SIZE, totalSize);
+        buffer.putLong(offset + REMAINING_SIZE, remainingSize);
+        int ledger = offset + RECORD_HEADER_SIZE;
+        for (int i = 0; i < sizes.length; i++, ledger += LEDGER_SIZE) {
+            buffer.putLong(ledger, ledgerIds[i]);
+            buffer.putLong(ledger + Long.BYTES, sizes[i]);
+        }
+        buffer.putInt(offset + LEDGER_COUNT, sizes.length);
+        buffer.putInt(offset + CHECKSUM, checksum(buffer, offset, sizes.length));
+    }
+
+    private static int checksum(ByteBuffer buffer, int offset, int ledgerCount) {
+        ByteBuffer record = buffer.duplicate();
+        record.limit(offset + RECORD_HEADER_SIZE + ledgerCount * LEDGER_SIZE);
+        record.position(offset + LEDGER_COUNT);
+        return Crc32cIntChecksum.computeChecksum(Unpooled.wrappedBuffer(record));
+    }
+
+    /**
+     * @return the segment where a record of the given length is appended
+     */
+    private Segment allocate(int length) throws IOException {
+        if (current.writePosition + length > current.size) {
+            current = createSegment(current.id + 1, Math.max(segmentSize, SEGMENT_HEADER_SIZE + length));
+        }
+        return current;
+    }
+
+    /**
+     * @return the segment of the record
+     */
+    private Segment markDead(long position) {
+        Segment segment = segments.get(segmentId(position));
+        int offset = offset(position);
+        segment.buffer.putInt(offset + STATE, DEAD);
+        segment.deadBytes += recordLength(segment.buffer.getInt(offset + CAPACITY));
+        return segment;
+    }
+
+    /**
+     * Move the live records of a segment that is at least half dead to the last segment, and delete it.
+     */
+    private void maybeCompactSegment(Segment segment) {
+        if (segment == current || segments.get(segment.id) != segment
+                || segment.deadBytes * 2 < segment.writePosition - SEGMENT_HEADER_SIZE) {
+            return;
+        }
+
+        ByteBuffer buffer = segment.buffer;
+        Set<Segment> targets = new HashSet<>();
+        int moved = 0;
+        try {
+            for (int offset = SEGMENT_HEADER_SIZE; offset < segment.writePosition;
+                 offset += recordLength(buffer.getInt(offset + CAPACITY))) {
+                long entryLogId = buffer.getLong(offset + ENTRY_LOG_ID);
+                if (buffer.getInt(offset + STATE) != LIVE || positions.get(entryLogId) != position(segment, offset)) {
+                    continue;
+                }
+
+                // The record is copied without its unused capacity
+                int ledgerCount = buffer.getInt(offset + LEDGER_COUNT);
+                int length = recordLength(ledgerCount);
+                Segment target = allocate(length);
+                int targetOffset = target.writePosition;
+                ByteBuffer src = buffer.duplicate();
+                src.limit(offset + length);
+                src.position(offset + CHECKSUM);
+                ByteBuffer dst = target.buffer.duplicate();
+                dst.position(targetOffset + CHECKSUM);
+                dst.put(src);
+                target.buffer.putInt(targetOffset + CAPACITY, ledgerCount);
+                target.buffer.putInt(targetOffset + STATE, LIVE);
+                target.appended(length);
+                targets.add(target);
+                positions.put(entryLogId, position(target, targetOffset));
+                moved++;
+            }
+        } catch (IOException e) {
+            // The records already moved are found in the last segment on reload, since it is more recent
+            log.warn("Failed to compact entry log metadata segment {}", segment.file, e);
+            return;
+        }
+
+        // The moved records are durable before their source is deleted
+        for (Segment target : targets) {
+            target.buffer.force();
+        }
+
+        segments.remove(segment.id);
+        deleteFile(segment.file);
+        if (log.isDebugEnabled()) {
+            log.debug("Compacted entry log metadata segment {}, moved {} records", segment.file, moved);
+        }
+    }
+
+    /**
+     * Decode the metadata of an entry log. Caller has to recycle returned {@link EntryLogMetadataRecyclable}.
+     *
+     * @return the metadata, or null if the entry log is not in the map
+     */
+    private synchronized EntryLogMetadataRecyclable read(long entryLogId) {
+        long position = positions.get(entryLogId);
+        if (closed || position < 0) {
+            return null;
+        }
+
+        Segment segment = segments.get(segmentId(position));
+        ByteBuffer buffer = segment.buffer;
+        int offset = offset(position);
+        int ledgerCount = buffer.getInt(offset + LEDGER_COUNT);
+        if (ledgerCount < 0 || ledgerCount > buffer.getInt(offset + CAPACITY)
+                || buffer.getInt(offset + CHECKSUM) != checksum(buffer, offset, ledgerCount)
+                || buffer.getLong(offset + ENTRY_LOG_ID) != entryLogId) {
+            log.warn("Dropping the corrupted metadata of entry log {} from {}", entryLogId, segment.file);
+            positions.remove(entryLogId);
+            maybeCompactSegment(markDead(position));
+            return null;
+        }
+
+        EntryLogMetadataRecyclable metadata = EntryLogMetadataRecyclable.get();
+        metadata.entryLogId = entryLogId;
+        metadata.totalSize = buffer.getLong(offset + TOTAL_SIZE);
+        metadata.remainingSize = buffer.getLong(offset + REMAINING_SIZE);
+        int ledger = offset + RECORD_HEADER_SIZE;
+        for (int i = 0; i < ledgerCount; i++, ledger += LEDGER_SIZE) {
+            metadata.ledgersMap.put(buffer.getLong(ledger), buffer.getLong(ledger + Long.BYTES));
+        }
+        return metadata;
+    }
+
+    /**
+     * {@link EntryLogMetadata} life-cycle in supplied action will be transient
+     * and it will be recycled as soon as supplied action is completed.
+     */
+    @Override
+    public void forEach(BiConsumer<Long, EntryLogMetadata> action) throws EntryLogMetadataMapException {
+        throwIfClosed();
+        long[] entryLogIds;
+        synchronized (this) {
+            entryLogIds = new long[(int) positions.size()];
+            MutableInt count = new MutableInt();
+            positions.forEach((entryLogId, position) -> entryLogIds[count.getAndIncrement()] = entryLogId);
+        }
+        // The action is run without the lock, since it can remove the entry logs from the map
+        Arrays.sort(entryLogIds);
+        for (long entryLogId : entryLogIds) {
+            if (closed) {
+                break;
+            }
+            EntryLogMetadataRecyclable metadata = read(entryLogId);
+            if (metadata == null) {
+                continue;
+            }
+            try {
+                action.accept(entryLogId, metadata);
+            } finally {
+                metadata.recycle();
+            }
+        }
+    }
+
+    /**
+     * {@link EntryLogMetadata} life-cycle in supplied action will be transient
+     * and it will be recycled as soon as supplied action is completed.
+     */
+    @Override
+    public void forKey(long entryLogId, BiConsumer<Long, EntryLogMetadata> action) throws EntryLogMetadataMapException {
+        throwIfClosed();
+        EntryLogMetadataRecyclable metadata = read(entryLogId);
+        try {
+            action.accept(entryLogId, metadata);
+        } finally {
+            if (metadata != null) {
+                metadata.recycle();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void remove(long entryLogId) throws EntryLogMetadataMapException {
+        throwIfClosed();
+        long position = positions.remove(entryLogId);
+        if (position >= 0) {
+            Segment segment = markDead(position);
+            segment.buffer.force();
+            maybeCompactSegment(segment);
+        }
+    }
+
+    @Override
+    public int size() throws EntryLogMetadataMapException {
+        throwIfClosed();
+        return (int) positions.size();
+    }
+
+    @Override
+    public synchronized void clear() throws EntryLogMetadataMapException {
+        throwIfClosed();
+        positions.clear();
+        for (Segment segment : segments.values()) {
+            deleteFile(segment.file);
+        }
+        segments.clear();
+        try {
+            current = createSegment(0, segmentSize);
+        } catch (IOException e) {
+            throw new EntryLogMetadataMapException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            log.warn("Attempted to close already closed MappedEntryLogMetadataMap");
+            return;
+        }
+        closed = true;
+        for (Segment segment : segments.values()) {
+            segment.buffer.force();
+        }
+        segments.clear();
+        positions.clear();
+    }
+
+    private void throwIfClosed() throws EntryLogMetadataMapException {
+        if (closed) {
+            final String msg = "Attempted to use MappedEntryLogMetadataMap after it was closed";
+            log.error(msg);
+            throw new EntryLogMetadataMapException(new IOException(msg));
+        }
+    }
+
+    private static void deleteFile(File file) {
+        if (!file.delete() && file.exists()) {
+            log.warn("Failed to delete entry log metadata segment {}", file);
+        }
+    }
+
+    private static int recordLength(int capacity) {
+        return RECORD_HEADER_SIZE + capacity * LEDGER_SIZE;
+    }
+
+    private static long position(Segment segment, int offset) {
+        return ((long) segment.id << 32) | offset;
+    }
+
+    private static int segmentId(long position) {
+        return (int) (position >>> 32);
+    }
+
+    private static int offset(long position) {
+        return (int) position;
+    }
+
+    private static class Segment {
+        final int id;
+        final File file;
+        final MappedByteBuffer buffer;
+        final int size;
+        int writePosition = SEGMENT_HEADER_SIZE;
+        long deadBytes;
+
+        Segment(int id, File file, MappedByteBuffer buffer) {
+            this.id = id;
+            this.file = file;
+            this.buffer = buffer;
+            this.size = buffer.capacity();
+        }
+
+        void appended(int length) {
+            writePosition += length;
+            // Mark the end of the records, the following bytes can be left from a discarded record
+            if (writePosition + RECORD_HEADER_SIZE <= size) {
+                buffer.putInt(writePosition + STATE, END);
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.bookkeeper.bookie.Journal.JournalScanner;
+import org.apache.bookkeeper.common.util.OrderedExecutor;
+
+/**
+ * A {@link JournalScanner} that dispatches the journal entries to a pool of threads, so that they are replayed in
+ * parallel while the journal files are read sequentially.
+ *
+ * <p>The entries are partitioned by ledger id, so the entries of a ledger are processed in the journal order. The
+ * delegate scanner must be safe to call concurrently for different ledgers.
+ *
+ * <p>With a single thread, the entries are processed by the thread reading the journal, as a plain scanner would.
+ */
+public class ParallelJournalScanner implements JournalScanner, AutoCloseable {
+
+    private final JournalScanner delegate;
+    private final OrderedExecutor executor;
+    // Bounds the memory used by the entries read from the journal and not replayed yet
+    private final Semaphore pendingBytes;
+    private final int maxPendingBytes;
+    private final AtomicReference<IOException> error = new AtomicReference<>();
+
+    public ParallelJournalScanner(JournalScanner delegate, int numThreads, int maxPendingBytes) {
+        this.delegate = delegate;
+        if (numThreads > 1) {
+            this.executor = OrderedExecutor.newBuilder()
+                    .numThreads(numThreads)
+                    .name("JournalReplay")
+                    .build();
+        } else {
+            this.executor = null;
+        }
+        this.maxPendingBytes = maxPendingBytes;
+        this.pendingBytes = new Semaphore(maxPendingBytes);
+    }
+
+    @Override
+    public void process(int journalVersion, long offset, ByteBuffer entry) throws IOException {
+        if (executor == null) {
+            delegate.process(journalVersion, offset, entry);
+            return;
+        }
+        checkError();
+
+        // The journal reuses the buffer for the next entry
+        int size = entry.remaining();
+        ByteBuffer copy = ByteBuffer.allocate(size);
+        copy.put(entry.duplicate());
+        copy.flip();
+        long ledgerId = copy.getLong(0);
+
+        int permits = Math.min(size, maxPendingBytes);
+        try {
+            pendingBytes.acquire(permits);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while replaying the journal", e);
+        }
+        executor.executeOrdered(ledgerId, () -> {
+            try {
+                if (error.get() == null) {
+                    delegate.process(journalVersion, offset, copy);
+                }
+            } catch (IOException e) {
+                error.compareAndSet(null, e);
+            } catch (Throwable t) {
+                error.compareAndSet(null, new IOException("Failed to replay an entry of ledger " + ledgerId, t));
+            } finally {
+                pendingBytes.release(permits);
+            }
+        });
+    }
+
+    /**
+     * Wait until all the entries dispatched so far are processed.
+     *
+     * @throws IOException if the processing of any entry failed
+     */
+    public void waitForCompletion() throws IOException {
+        if (executor == null) {
+            return;
+        }
+        try {
+            pendingBytes.acquire(maxPendingBytes);
+            pendingBytes.release(maxPendingBytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while replaying the journal", e);
+        }
+        checkError();
+    }
+
+    private void checkError() throws IOException {
+        IOException e = error.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        if (executor != null) {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+}
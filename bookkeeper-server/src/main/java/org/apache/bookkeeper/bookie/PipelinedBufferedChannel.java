@@ -0,0 +1,139 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.ReferenceCountUtil;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A {@link BufferedChannel} with two write buffers, that writes a full buffer to the file in background while the
+ * other one is filled.
+ *
+ * <p>{@link #flush()} only hands the write buffer over to the writer thread, and waits for the previous write if it
+ * is still in progress. The data is in the file once {@link #waitForPendingWrite()} returns. The force writes and the
+ * reads wait for the pending write first.
+ */
+public class PipelinedBufferedChannel extends BufferedChannel {
+
+    private final ExecutorService writeExecutor;
+    // The buffer being written by the writer thread, or the spare buffer once the write completed
+    private ByteBuf spareBuffer;
+    // Only replaced with the lock held, but read without it to wait for the write
+    private volatile Future<?> pendingWrite;
+
+    public PipelinedBufferedChannel(ByteBufAllocator allocator, FileChannel fc, int capacity,
+                                    ExecutorService writeExecutor) throws IOException {
+        super(allocator, fc, capacity);
+        this.writeExecutor = writeExecutor;
+        this.spareBuffer = allocator.directBuffer(capacity);
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (writeBuffer.readableBytes() == 0) {
+            return;
+        }
+        completePendingWrite();
+
+        ByteBuf toWrite = writeBuffer;
+        writeBuffer = spareBuffer;
+        spareBuffer = toWrite;
+        pendingWrite = writeExecutor.submit(() -> {
+            ByteBuffer nioBuffer = toWrite.internalNioBuffer(0, toWrite.writerIndex());
+            do {
+                fileChannel.write(nioBuffer);
+            } while (nioBuffer.hasRemaining());
+            return null;
+        });
+        writeBufferStartPosition.addAndGet(toWrite.writerIndex());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>It doesn't take the channel lock, so that the writes to the channel are not blocked meanwhile. The earlier
+     * writes are complete too, since a flush waits for the previous write.
+     */
+    @Override
+    public void waitForPendingWrite() throws IOException {
+        Future<?> write = pendingWrite;
+        if (write != null) {
+            await(write);
+        }
+    }
+
+    /**
+     * Wait for the pending write and take back its buffer as the spare buffer.
+     */
+    private synchronized void completePendingWrite() throws IOException {
+        if (pendingWrite == null) {
+            return;
+        }
+        await(pendingWrite);
+        pendingWrite = null;
+        spareBuffer.clear();
+    }
+
+    private static void await(Future<?> write) throws IOException {
+        try {
+            write.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the journal write", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    @Override
+    public long forceWrite(boolean forceMetadata) throws IOException {
+        waitForPendingWrite();
+        return super.forceWrite(forceMetadata);
+    }
+
+    @Override
+    public synchronized int read(ByteBuf dest, long pos, int length) throws IOException {
+        completePendingWrite();
+        return super.read(dest, pos, length);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            completePendingWrite();
+        } finally {
+            if (pendingWrite == null && spareBuffer != null) {
+                ReferenceCountUtil.release(spareBuffer);
+                spareBuffer = null;
+            }
+            super.close();
+        }
+    }
+}
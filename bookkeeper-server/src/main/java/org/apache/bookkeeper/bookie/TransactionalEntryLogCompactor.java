@@ -161,7 +161,14 @@ public class TransactionalEntryLogCompactor extends AbstractLogCompactor {
 
         @Override
         void start() throws IOException {
-            // scan entry log into compaction log and offset list
+            // copy the entries in the kernel when the compaction log supports it
+            synchronized (TransactionalEntryLogCompactor.this) {
+                if (compactionLog.copyEntries(metadata, throttler::acquire, offsets)) {
+                    return;
+                }
+            }
+
+            // otherwise scan entry log into compaction log and offset list
             entryLogger.scanEntryLog(metadata.getEntryLogId(), new EntryLogScanner() {
                 @Override
                 public boolean accept(long ledgerId) {
@@ -24,7 +24,11 @@ import static org.apache.bookkeeper.bookie.BookKeeperServerStats.ACTIVE_ENTRY_LO
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.ACTIVE_LEDGER_COUNT;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.BOOKIE_SCOPE;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.CATEGORY_SERVER;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.COMPACTION_COPIED_BYTES_RATE;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.COMPACTION_PAUSED_TIME;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.COMPACTION_RECLAIMED_BYTES_RATE;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.DELETED_LEDGER_COUNT;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.GC_INCREMENTAL_TICK_ENTRY_LOGS;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.MAJOR_COMPACTION_COUNT;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.MINOR_COMPACTION_COUNT;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.RECLAIMED_COMPACTION_SPACE_BYTES;
@@ -81,6 +85,26 @@ public class GarbageCollectorStats {
         help = "Operation stats of garbage collections"
     )
     private final OpStatsLogger gcThreadRuntime;
+    @StatsDoc(
+        name = GC_INCREMENTAL_TICK_ENTRY_LOGS,
+        help = "Number of entry logs processed by a slice of the incremental garbage collection"
+    )
+    private final OpStatsLogger incrementalTickEntryLogs;
+    @StatsDoc(
+        name = COMPACTION_PAUSED_TIME,
+        help = "Time the compaction was paused because of the ledger storage latency"
+    )
+    private final Counter compactionPausedTime;
+    @StatsDoc(
+        name = COMPACTION_COPIED_BYTES_RATE,
+        help = "Bytes per second copied by a compaction run"
+    )
+    private final OpStatsLogger compactionCopiedBytesRate;
+    @StatsDoc(
+        name = COMPACTION_RECLAIMED_BYTES_RATE,
+        help = "Bytes per second reclaimed by a compaction run"
+    )
+    private final OpStatsLogger compactionReclaimedBytesRate;
     @StatsDoc(
         name = ACTIVE_ENTRY_LOG_COUNT,
         help = "Current number of active entry log files"
@@ -109,6 +133,10 @@ public class GarbageCollectorStats {
         this.reclaimedSpaceViaDeletes = statsLogger.getCounter(RECLAIMED_DELETION_SPACE_BYTES);
         this.gcThreadRuntime = statsLogger.getOpStatsLogger(THREAD_RUNTIME);
         this.deletedLedgerCounter = statsLogger.getCounter(DELETED_LEDGER_COUNT);
+        this.incrementalTickEntryLogs = statsLogger.getOpStatsLogger(GC_INCREMENTAL_TICK_ENTRY_LOGS);
+        this.compactionPausedTime = statsLogger.getCounter(COMPACTION_PAUSED_TIME);
+        this.compactionCopiedBytesRate = statsLogger.getOpStatsLogger(COMPACTION_COPIED_BYTES_RATE);
+        this.compactionReclaimedBytesRate = statsLogger.getOpStatsLogger(COMPACTION_RECLAIMED_BYTES_RATE);
 
         this.activeEntryLogCountGauge = new Gauge<Integer>() {
             @Override
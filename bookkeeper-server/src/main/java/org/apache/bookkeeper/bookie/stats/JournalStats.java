@@ -23,6 +23,8 @@ import static org.apache.bookkeeper.bookie.BookKeeperServerStats.ADD_ENTRY;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.CATEGORY_SERVER;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.FORCE_LEDGER;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_ADD_ENTRY;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_ARRIVAL_RATE;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_COMMIT_LATENCY_AVG;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_CREATION_LATENCY;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_FLUSH_LATENCY;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_FORCE_LEDGER;
@@ -31,6 +33,9 @@ import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_FORCE_W
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_FORCE_WRITE_ENQUEUE;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_FORCE_WRITE_GROUPING_COUNT;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_FORCE_WRITE_QUEUE_SIZE;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_GROUP_COMMIT_ENTRIES;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_GROUP_COMMIT_LATENCY_P99;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_GROUP_COMMIT_WAIT;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_MEMORY_MAX;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_MEMORY_USED;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_NUM_FLUSH_EMPTY_QUEUE;
@@ -39,13 +44,16 @@ import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_NUM_FLU
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_PROCESS_TIME_LATENCY;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_QUEUE_LATENCY;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_QUEUE_SIZE;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_ROUTED_LEDGERS;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_SCOPE;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_SYNC;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_WRITE_BYTES;
 
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 import lombok.Getter;
 import org.apache.bookkeeper.bookie.BookKeeperServerStats;
+import org.apache.bookkeeper.bookie.JournalGroupCommitController;
 import org.apache.bookkeeper.stats.Counter;
 import org.apache.bookkeeper.stats.Gauge;
 import org.apache.bookkeeper.stats.OpStatsLogger;
@@ -171,9 +179,46 @@ public class JournalStats {
             help = "The actual amount of memory in bytes currently used by the bookie journal"
     )
     private final Gauge<Long> journalMemoryUsedStats;
+    @StatsDoc(
+            name = JOURNAL_GROUP_COMMIT_WAIT,
+            help = "The max time in micros the adaptive group commit lets an entry wait for its group to close"
+    )
+    private final Gauge<Long> groupCommitWaitStats;
+    @StatsDoc(
+            name = JOURNAL_GROUP_COMMIT_ENTRIES,
+            help = "The number of entries after which the adaptive group commit closes a group, 0 if not bounded"
+    )
+    private final Gauge<Long> groupCommitEntriesStats;
+    @StatsDoc(
+            name = JOURNAL_GROUP_COMMIT_LATENCY_P99,
+            help = "The p99 of the journal group commit latency in micros, as estimated by the adaptive group commit"
+    )
+    private final Gauge<Long> groupCommitLatencyP99Stats;
+    @StatsDoc(
+            name = JOURNAL_ARRIVAL_RATE,
+            help = "The rate of entries added to the journal per second, as measured by the adaptive group commit"
+    )
+    private final Gauge<Long> arrivalRateStats;
+    @StatsDoc(
+            name = JOURNAL_COMMIT_LATENCY_AVG,
+            help = "The moving average of the journal group commit latency in micros"
+    )
+    private final Gauge<Long> commitLatencyAvgStats;
+    @StatsDoc(
+            name = JOURNAL_ROUTED_LEDGERS,
+            help = "The number of ledgers routed to the journal by the load aware routing"
+    )
+    private final Counter routedLedgers;
 
     public JournalStats(StatsLogger statsLogger, final long maxJournalMemoryBytes,
                         Supplier<Long> currentJournalMemoryBytes) {
+        this(statsLogger, maxJournalMemoryBytes, currentJournalMemoryBytes, () -> 0L, null);
+    }
+
+    public JournalStats(StatsLogger statsLogger, final long maxJournalMemoryBytes,
+                        Supplier<Long> currentJournalMemoryBytes,
+                        Supplier<Long> avgCommitLatencyMicros,
+                        JournalGroupCommitController groupCommitController) {
         journalAddEntryStats = statsLogger.getOpStatsLogger(BookKeeperServerStats.JOURNAL_ADD_ENTRY);
         journalForceLedgerStats = statsLogger.getOpStatsLogger(BookKeeperServerStats.JOURNAL_FORCE_LEDGER);
         journalSyncStats = statsLogger.getOpStatsLogger(BookKeeperServerStats.JOURNAL_SYNC);
@@ -194,6 +239,7 @@ public class JournalStats {
                 statsLogger.getCounter(BookKeeperServerStats.JOURNAL_NUM_FLUSH_MAX_OUTSTANDING_BYTES);
         flushEmptyQueueCounter = statsLogger.getCounter(BookKeeperServerStats.JOURNAL_NUM_FLUSH_EMPTY_QUEUE);
         journalWriteBytes = statsLogger.getCounter(BookKeeperServerStats.JOURNAL_WRITE_BYTES);
+        routedLedgers = statsLogger.getCounter(JOURNAL_ROUTED_LEDGERS);
 
         journalMemoryMaxStats = new Gauge<Long>() {
             @Override
@@ -220,6 +266,39 @@ public class JournalStats {
             }
         };
         statsLogger.registerGauge(JOURNAL_MEMORY_USED, journalMemoryUsedStats);
+        commitLatencyAvgStats = registerGauge(statsLogger, JOURNAL_COMMIT_LATENCY_AVG, avgCommitLatencyMicros);
+
+        if (groupCommitController != null) {
+            groupCommitWaitStats = registerGauge(statsLogger, JOURNAL_GROUP_COMMIT_WAIT,
+                    () -> TimeUnit.NANOSECONDS.toMicros(groupCommitController.getGroupWaitNanos()));
+            groupCommitEntriesStats = registerGauge(statsLogger, JOURNAL_GROUP_COMMIT_ENTRIES,
+                    groupCommitController::getGroupEntries);
+            groupCommitLatencyP99Stats = registerGauge(statsLogger, JOURNAL_GROUP_COMMIT_LATENCY_P99,
+                    () -> TimeUnit.NANOSECONDS.toMicros(groupCommitController.getCommitLatencyP99Nanos()));
+            arrivalRateStats = registerGauge(statsLogger, JOURNAL_ARRIVAL_RATE,
+                    () -> (long) groupCommitController.getArrivalsPerSecond());
+        } else {
+            groupCommitWaitStats = null;
+            groupCommitEntriesStats = null;
+            groupCommitLatencyP99Stats = null;
+            arrivalRateStats = null;
+        }
+    }
+
+    private static Gauge<Long> registerGauge(StatsLogger statsLogger, String name, Supplier<Long> sample) {
+        Gauge<Long> gauge = new Gauge<Long>() {
+            @Override
+            public Long getDefaultValue() {
+                return 0L;
+            }
+
+            @Override
+            public Long getSample() {
+                return sample.get();
+            }
+        };
+        statsLogger.registerGauge(name, gauge);
+        return gauge;
     }
 
 }
@@ -22,6 +22,9 @@ package org.apache.bookkeeper.bookie.storage;
 
 import io.netty.buffer.ByteBuf;
 import java.io.IOException;
+import java.util.List;
+import org.apache.bookkeeper.bookie.EntryLocation;
+import org.apache.bookkeeper.bookie.EntryLogMetadata;
 
 /**
  * An entrylog to received compacted entries.
@@ -43,6 +46,20 @@ public interface CompactionEntryLog {
      */
     long addEntry(long ledgerId, ByteBuf entry) throws IOException;
 
+    /**
+     * Copy the entries of the ledgers of the source log that are in the metadata to the log, without reading them
+     * in memory, when the log supports it.
+     * @param metadata the metadata of the source log
+     * @param throttler acquires the bytes of each copy before it's done
+     * @param offsets the new locations of the copied entries are added to it
+     * @return false if the copy is not supported, in which case nothing was copied and the entries must be added
+     *         with {@link #addEntry(long, ByteBuf)}
+     */
+    default boolean copyEntries(EntryLogMetadata metadata, CopyThrottler throttler, List<EntryLocation> offsets)
+            throws IOException {
+        return false;
+    }
+
     /**
      * Scan the entry log, reading out all contained entries.
      */
@@ -59,6 +76,13 @@ public interface CompactionEntryLog {
      */
     void abort();
 
+    /**
+     * Throttles the copies of {@link #copyEntries}.
+     */
+    interface CopyThrottler {
+        void acquire(int bytes) throws IOException;
+    }
+
     /**
      * Mark the compaction log as compacted.
      * From this point, the heavy work of copying entries from one log
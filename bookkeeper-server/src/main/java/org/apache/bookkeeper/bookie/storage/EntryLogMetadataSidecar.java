@@ -0,0 +1,139 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage;
+
+import com.scurrilous.circe.checksum.Crc32cIntChecksum;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import org.apache.bookkeeper.bookie.EntryLogMetadata;
+
+/**
+ * Sidecar file holding the ledgers map of an entry log that doesn't have a usable one, e.g. written by an old
+ * bookie or not closed cleanly. It is written once the entry log is scanned, so that its metadata is then read
+ * without scanning it again.
+ *
+ * <p>File layout (all values are big-endian):
+ *
+ * <pre>
+ * magic(4) version(4) entryLogId(8) entryLogSize(8) ledgerCount(4)
+ * ledgerCount x [ledgerId(8) size(8)]
+ * checksum(4)
+ * </pre>
+ *
+ * <p>The size of the entry log is checked when reading the sidecar, to ignore a sidecar of another entry log with
+ * the same id.
+ */
+public class EntryLogMetadataSidecar {
+
+    public static final String SIDECAR_FILE_SUFFIX = ".ledgersmap";
+
+    private static final int MAGIC = 0x4c4d4150; // "LMAP"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4;
+    private static final int LEDGER_SIZE = 8 + 8;
+
+    private EntryLogMetadataSidecar() {}
+
+    public static File sidecarFile(File ledgerDir, long entryLogId) {
+        return new File(ledgerDir, Long.toHexString(entryLogId) + SIDECAR_FILE_SUFFIX);
+    }
+
+    /**
+     * Read the metadata of an entry log from its sidecar.
+     *
+     * @throws FileNotFoundException if the entry log has no sidecar
+     * @throws IOException if the sidecar is invalid or doesn't match the entry log
+     */
+    public static EntryLogMetadata read(File ledgerDir, long entryLogId, long entryLogSize) throws IOException {
+        File file = sidecarFile(ledgerDir, entryLogId);
+        if (!file.exists()) {
+            throw new FileNotFoundException("No ledgers map sidecar for entryLogId " + entryLogId);
+        }
+
+        ByteBuf buf = Unpooled.wrappedBuffer(Files.readAllBytes(file.toPath()));
+        if (buf.readableBytes() < HEADER_SIZE + Integer.BYTES
+                || buf.getInt(buf.writerIndex() - Integer.BYTES)
+                    != Crc32cIntChecksum.computeChecksum(buf.slice(0, buf.writerIndex() - Integer.BYTES))) {
+            throw new IOException("Invalid checksum in ledgers map sidecar " + file);
+        }
+        int magic = buf.readInt();
+        int version = buf.readInt();
+        if (magic != MAGIC || version != VERSION) {
+            throw new IOException("Invalid header in ledgers map sidecar " + file);
+        }
+        long sidecarLogId = buf.readLong();
+        long sidecarLogSize = buf.readLong();
+        if (sidecarLogId != entryLogId || sidecarLogSize != entryLogSize) {
+            throw new IOException("Ledgers map sidecar " + file + " is for entryLogId " + sidecarLogId + " of size "
+                    + sidecarLogSize + ", not for entryLogId " + entryLogId + " of size " + entryLogSize);
+        }
+        int ledgerCount = buf.readInt();
+        if (buf.readableBytes() != ledgerCount * LEDGER_SIZE + Integer.BYTES) {
+            throw new IOException("Invalid ledger count " + ledgerCount + " in ledgers map sidecar " + file);
+        }
+
+        EntryLogMetadata meta = new EntryLogMetadata(entryLogId);
+        for (int i = 0; i < ledgerCount; i++) {
+            meta.addLedgerSize(buf.readLong(), buf.readLong());
+        }
+        return meta;
+    }
+
+    /**
+     * Write the sidecar of an entry log, with the metadata just extracted by scanning it.
+     */
+    public static synchronized void write(File ledgerDir, long entryLogSize, EntryLogMetadata meta) throws IOException {
+        int ledgerCount = (int) meta.getLedgersMap().size();
+        ByteBuf buf = Unpooled.buffer(HEADER_SIZE + ledgerCount * LEDGER_SIZE + Integer.BYTES);
+        buf.writeInt(MAGIC);
+        buf.writeInt(VERSION);
+        buf.writeLong(meta.getEntryLogId());
+        buf.writeLong(entryLogSize);
+        buf.writeInt(ledgerCount);
+        meta.getLedgersMap().forEach((ledgerId, size) -> {
+            buf.writeLong(ledgerId);
+            buf.writeLong(size);
+        });
+        buf.writeInt(Crc32cIntChecksum.computeChecksum(buf));
+
+        File file = sidecarFile(ledgerDir, meta.getEntryLogId());
+        Path tmp = new File(ledgerDir, file.getName() + ".tmp").toPath();
+        Files.write(tmp, ByteBufUtil.getBytes(buf));
+        Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Delete the sidecar of an entry log, if any.
+     *
+     * @return false if the sidecar couldn't be deleted
+     */
+    public static boolean delete(File ledgerDir, long entryLogId) {
+        File file = sidecarFile(ledgerDir, entryLogId);
+        return file.delete() || !file.exists();
+    }
+}
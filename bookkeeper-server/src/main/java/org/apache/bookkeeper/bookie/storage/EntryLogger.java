@@ -21,6 +21,8 @@
 package org.apache.bookkeeper.bookie.storage;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.FileRegion;
+import io.netty.util.ReferenceCounted;
 import java.io.IOException;
 import java.util.Collection;
 import org.apache.bookkeeper.bookie.AbstractLogCompactor;
@@ -67,6 +69,24 @@ public interface EntryLogger extends AutoCloseable {
     ByteBuf readEntry(long ledgerId, long entryId, long entryLocation)
             throws IOException, NoEntryException;
 
+    /**
+     * Read an entry from an entrylog location, or get the region of the entrylog
+     * file holding it when the entry is at least minRegionSize bytes, so that it
+     * can be transferred without copying it in memory.
+     *
+     * <p>The default implementation always reads the entry.
+     *
+     * @param ledgerId the ledgerID to match
+     * @param entryId the entryID to match
+     * @param entryLocation the location from which to read the entry
+     * @param minRegionSize the min size of the entries to return as {@link FileRegion}
+     * @return the entry, as {@link ByteBuf} or {@link FileRegion}
+     */
+    default ReferenceCounted readEntryOrRegion(long ledgerId, long entryId, long entryLocation, int minRegionSize)
+            throws IOException, NoEntryException {
+        return readEntry(ledgerId, entryId, entryLocation);
+    }
+
     /**
      * Flush any outstanding writes to disk.
      */
@@ -119,6 +139,28 @@ public interface EntryLogger extends AutoCloseable {
      */
     EntryLogMetadata getEntryLogMetadata(long entryLogId, AbstractLogCompactor.Throttler throttler) throws IOException;
 
+    /**
+     * Read the metadata for the given entrylog ID from its ledgers map, or from its ledgers map sidecar
+     * ({@link EntryLogMetadataSidecar}), without scanning the entrylog.
+     *
+     * @throws IOException if the metadata can only be extracted by scanning the entrylog
+     */
+    default EntryLogMetadata readEntryLogMetadata(long entryLogId) throws IOException {
+        throw new IOException("Reading the metadata of entryLogId " + entryLogId
+                + " without scanning is not supported");
+    }
+
+    /**
+     * Make sure that the metadata for the given entrylog ID can be read without scanning the entrylog: if it has
+     * neither a usable ledgers map nor a sidecar, scan it and write its sidecar.
+     *
+     * @return whether the entrylog was scanned
+     */
+    default boolean indexEntryLogMetadata(long entryLogId, AbstractLogCompactor.Throttler throttler)
+            throws IOException {
+        return false;
+    }
+
     /**
      * Check whether an entrylog with the given ID exists.
      */
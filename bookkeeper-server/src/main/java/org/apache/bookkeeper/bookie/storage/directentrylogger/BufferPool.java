@@ -46,6 +46,13 @@ public class BufferPool implements AutoCloseable {
         }
     }
 
+    /**
+     * Acquire a buffer if one is available, without waiting.
+     */
+    Buffer tryAcquire() {
+        return pool.poll();
+    }
+
     void release(Buffer buffer) {
         buffer.reset();
         if (!pool.add(buffer)) {
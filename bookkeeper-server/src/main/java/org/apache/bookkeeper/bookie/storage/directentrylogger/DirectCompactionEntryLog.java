@@ -20,20 +20,27 @@
  */
 package org.apache.bookkeeper.bookie.storage.directentrylogger;
 
+import static com.google.common.base.Preconditions.checkState;
 import static org.apache.bookkeeper.bookie.TransactionalEntryLogCompactor.COMPACTED_SUFFIX;
 import static org.apache.bookkeeper.bookie.TransactionalEntryLogCompactor.COMPACTING_SUFFIX;
 import static org.apache.bookkeeper.common.util.ExceptionMessageHelper.exMsg;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.bookkeeper.bookie.EntryLocation;
 import org.apache.bookkeeper.bookie.EntryLogMetadata;
 import org.apache.bookkeeper.bookie.storage.CompactionEntryLog;
 import org.apache.bookkeeper.bookie.storage.EntryLogScanner;
 import org.apache.bookkeeper.common.util.nativeio.NativeIO;
+import org.apache.bookkeeper.common.util.nativeio.NativeIOException;
 import org.apache.bookkeeper.slogger.Slogger;
 import org.apache.bookkeeper.stats.OpStatsLogger;
 
@@ -55,12 +62,17 @@ public abstract class DirectCompactionEntryLog implements CompactionEntryLog {
                                      long maxFileSize,
                                      ExecutorService writeExecutor,
                                      BufferPool writeBuffers,
+                                     int readBufferSize,
+                                     int maxSaneEntrySize,
                                      NativeIO nativeIO,
+                                     AtomicBoolean useCopyFileRange,
                                      ByteBufAllocator allocator,
+                                     OpStatsLogger readBlockStats,
                                      Slogger slog) throws IOException {
         return new WritingDirectCompactionEntryLog(
                 srcLogId, dstLogId, ledgerDir, maxFileSize,
-                writeExecutor, writeBuffers, nativeIO, allocator, slog);
+                writeExecutor, writeBuffers, readBufferSize, maxSaneEntrySize,
+                nativeIO, useCopyFileRange, allocator, readBlockStats, slog);
     }
 
     static CompactionEntryLog recoverLog(int srcLogId,
@@ -213,7 +225,20 @@ public abstract class DirectCompactionEntryLog implements CompactionEntryLog {
     }
 
     private static class WritingDirectCompactionEntryLog extends DirectCompactionEntryLog {
+        private static final int POSIX_FADV_DONTNEED = 4; /* fadvise.h */
+
+        // Shared by the compaction logs of an entry logger, disabled on the first copy_file_range that fails
+        // because it's not supported by the filesystem of the logger
+        private final AtomicBoolean useCopyFileRange;
+
         private final WriterWithMetadata writer;
+        private final File srcFile;
+        private final BufferPool writeBuffers;
+        private final int readBufferSize;
+        private final int maxSaneEntrySize;
+        private final NativeIO nativeIO;
+        private final ByteBufAllocator allocator;
+        private final OpStatsLogger readBlockStats;
 
         WritingDirectCompactionEntryLog(int srcLogId,
                                         int dstLogId,
@@ -221,10 +246,22 @@ public abstract class DirectCompactionEntryLog implements CompactionEntryLog {
                                         long maxFileSize,
                                         ExecutorService writeExecutor,
                                         BufferPool writeBuffers,
+                                        int readBufferSize,
+                                        int maxSaneEntrySize,
                                         NativeIO nativeIO,
+                                        AtomicBoolean useCopyFileRange,
                                         ByteBufAllocator allocator,
+                                        OpStatsLogger readBlockStats,
                                         Slogger slog) throws IOException {
             super(srcLogId, dstLogId, ledgerDir, slog);
+            this.useCopyFileRange = useCopyFileRange;
+            this.srcFile = DirectEntryLogger.logFile(ledgerDir, srcLogId);
+            this.writeBuffers = writeBuffers;
+            this.readBufferSize = readBufferSize;
+            this.maxSaneEntrySize = maxSaneEntrySize;
+            this.nativeIO = nativeIO;
+            this.allocator = allocator;
+            this.readBlockStats = readBlockStats;
 
             this.writer = new WriterWithMetadata(
                     new DirectWriter(dstLogId, compactingFile.toString(), maxFileSize,
@@ -240,6 +277,223 @@ public abstract class DirectCompactionEntryLog implements CompactionEntryLog {
             return writer.addEntry(ledgerId, entry);
         }
 
+        /**
+         * Copy the runs of contiguous live entries of the source log with copy_file_range, so that the kernel copies
+         * them without going through the memory. Only the sizes and the ledger and entry ids of the entries are read.
+         *
+         * <p>The copies go through separate file descriptors without O_DIRECT, since copy_file_range isn't aligned.
+         * To not mix the page cache with the direct I/O of the writer, the writer is flushed before the copy, and the
+         * copied range is synced and dropped from the page cache after it.
+         *
+         * <p>The copied entries start at an aligned position of the log, and are followed by padding up to the next
+         * alignment, where the writer resumes. The entries keep their framing, but not the padding of the source
+         * log, which depends on the alignment.
+         */
+        @Override
+        public boolean copyEntries(EntryLogMetadata metadata, CopyThrottler throttler, List<EntryLocation> offsets)
+                throws IOException {
+            if (!useCopyFileRange.get()) {
+                return false;
+            }
+
+            long dstStart = writer.startCopy();
+            ExtentCopy copy = new ExtentCopy(dstStart, throttler, offsets);
+            try (LogReader reader = new DirectReader(srcLogId, srcFile.toString(), allocator, nativeIO,
+                                                     readBufferSize, maxSaneEntrySize, readBlockStats)) {
+                copy.srcFd = open(srcFile, NativeIO.O_RDONLY);
+                copy.dstFd = open(compactingFile, NativeIO.O_WRONLY);
+
+                int offset = Header.LOGFILE_LEGACY_HEADER_SIZE;
+                while (offset < reader.maxOffset()) {
+                    int entrySize = reader.readIntAt(offset);
+                    if (entrySize < 0) { // padding, skip it
+                        copy.copyRun();
+                        offset = Buffer.nextAlignment(offset);
+                        continue;
+                    } else if (entrySize == 0) { // preallocated space, we're done
+                        break;
+                    } else if (entrySize > maxSaneEntrySize) {
+                        throw new IOException(exMsg("Invalid entry size").kv("srcLogId", srcLogId)
+                                              .kv("offset", offset).kv("entrySize", entrySize).toString());
+                    }
+
+                    long ledgerId = reader.readLongAt(offset + Integer.BYTES);
+                    if (ledgerId >= 0 && metadata.containsLedger(ledgerId)) {
+                        long entryId = reader.readLongAt(offset + Integer.BYTES + Long.BYTES);
+                        if (entryId < -1) {
+                            throw new IOException(exMsg("Invalid entry found").kv("srcLogId", srcLogId)
+                                                  .kv("offset", offset).kv("ledgerId", ledgerId)
+                                                  .kv("entryId", entryId).toString());
+                        }
+                        copy.run.add(new CopiedEntry(ledgerId, entryId, offset, entrySize));
+                    } else {
+                        copy.copyRun();
+                    }
+                    offset += Integer.BYTES + entrySize;
+                }
+                copy.copyRun();
+                copy.pad();
+                copy.sync();
+            } catch (NativeIOException ne) {
+                if (copy.copiedBytes == 0 && isNotSupported(ne)) {
+                    useCopyFileRange.set(false);
+                    slog.kv("message", ne.getMessage()).kv("errno", ne.getErrno())
+                        .warn(Events.COPY_FILE_RANGE_NOT_AVAILABLE);
+                    return false;
+                }
+                throw new IOException(exMsg(ne.getMessage()).kv("srcFile", srcFile)
+                                      .kv("compactingFile", compactingFile)
+                                      .kv("errno", ne.getErrno()).toString(), ne);
+            } finally {
+                copy.close();
+            }
+
+            writer.endCopy(copy.dstOffset);
+            slog.kv("copiedBytes", copy.copiedBytes).kv("runs", copy.runs).info(Events.COMPACTION_ENTRIES_COPIED);
+            return true;
+        }
+
+        private int open(File file, int flags) throws IOException {
+            try {
+                return nativeIO.open(file.toString(), flags, 00644);
+            } catch (NativeIOException ne) {
+                throw new IOException(exMsg(ne.getMessage()).kv("file", file)
+                                      .kv("errno", ne.getErrno()).toString(), ne);
+            }
+        }
+
+        private static boolean isNotSupported(NativeIOException ne) {
+            switch (ne.getErrno()) {
+                case -1: // not a Linux host
+                case 18: // EXDEV
+                case 22: // EINVAL
+                case 38: // ENOSYS
+                case 95: // EOPNOTSUPP
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        /**
+         * State of a copy: the run of contiguous live entries not copied yet, and the position in the log.
+         */
+        private class ExtentCopy {
+            final CopyThrottler throttler;
+            final List<EntryLocation> offsets;
+            final List<CopiedEntry> run = new ArrayList<>();
+            final long dstStart;
+            int srcFd = -1;
+            int dstFd = -1;
+            long dstOffset;
+            long copiedBytes = 0;
+            int runs = 0;
+
+            ExtentCopy(long dstStart, CopyThrottler throttler, List<EntryLocation> offsets) {
+                this.dstStart = dstStart;
+                this.dstOffset = dstStart;
+                this.throttler = throttler;
+                this.offsets = offsets;
+            }
+
+            void copyRun() throws IOException {
+                if (run.isEmpty()) {
+                    return;
+                }
+                CopiedEntry first = run.get(0);
+                CopiedEntry last = run.get(run.size() - 1);
+                long runStart = first.offset;
+                long runLength = last.offset + Integer.BYTES + last.size - runStart;
+                if (dstOffset + runLength > Integer.MAX_VALUE) {
+                    throw new IOException(exMsg("Cannot write past max int")
+                                          .kv("compactingFile", compactingFile)
+                                          .kv("writeSize", runLength)
+                                          .kv("position", dstOffset).toString());
+                }
+
+                throttler.acquire((int) runLength);
+                long copied = 0;
+                while (copied < runLength) {
+                    long ret = nativeIO.copyFileRange(srcFd, runStart + copied, dstFd, dstOffset + copied,
+                                                      runLength - copied);
+                    if (ret <= 0) {
+                        throw new IOException(exMsg("Short copy").kv("srcFile", srcFile)
+                                              .kv("offset", runStart + copied)
+                                              .kv("size", runLength - copied).toString());
+                    }
+                    copied += ret;
+                    copiedBytes += ret;
+                }
+
+                for (CopiedEntry entry : run) {
+                    // The returned offsets are for the entries themselves, after their size
+                    long newOffset = dstOffset + entry.offset - runStart + Integer.BYTES;
+                    offsets.add(new EntryLocation(entry.ledgerId, entry.entryId, ((long) dstLogId) << 32 | newOffset));
+                    writer.addCopiedEntry(entry.ledgerId, entry.size);
+                }
+                dstOffset += runLength;
+                runs++;
+                run.clear();
+            }
+
+            /**
+             * Pad the log up to the next alignment, so that the scans skip to the entries written after.
+             */
+            void pad() throws IOException {
+                int padding = Buffer.nextAlignment((int) dstOffset) - (int) dstOffset;
+                if (padding == 0) {
+                    return;
+                }
+                Buffer buffer = writeBuffers.acquire();
+                try {
+                    buffer.reset();
+                    buffer.writeByteBuf(Unpooled.wrappedBuffer(Buffer.PADDING, 0, padding));
+                    int ret = nativeIO.pwrite(dstFd, buffer.pointer(), padding, dstOffset);
+                    if (ret != padding) {
+                        throw new IOException(exMsg("Incomplete write").kv("compactingFile", compactingFile)
+                                              .kv("offset", dstOffset).kv("writeSize", padding)
+                                              .kv("bytesWritten", ret).toString());
+                    }
+                } finally {
+                    writeBuffers.release(buffer);
+                }
+                dstOffset += padding;
+            }
+
+            /**
+             * Make the copied range durable and drop it from the page cache, so that only the direct I/O of the
+             * writers and readers accesses the log from now on.
+             */
+            void sync() throws IOException {
+                if (dstOffset == dstStart) {
+                    return;
+                }
+                int ret = nativeIO.fsync(dstFd);
+                checkState(ret == 0, "Fsync should throw exception on non-zero return (%d)", ret);
+                try {
+                    nativeIO.posix_fadvise(dstFd, dstStart, dstOffset - dstStart, POSIX_FADV_DONTNEED);
+                } catch (NativeIOException ne) {
+                    // Non-fatal, the direct reads still see the synced data
+                    slog.kv("message", ne.getMessage()).kv("errno", ne.getErrno())
+                        .warn(Events.COMPACTION_PAGE_CACHE_DROP_FAILED);
+                }
+            }
+
+            void close() {
+                for (int fd : new int[] { srcFd, dstFd }) {
+                    if (fd >= 0) {
+                        try {
+                            nativeIO.close(fd);
+                        } catch (NativeIOException ne) {
+                            // Non-fatal, the descriptor may leak as for the readers
+                            slog.kv("message", ne.getMessage()).kv("errno", ne.getErrno())
+                                .warn(Events.READER_CLOSE_ERROR);
+                        }
+                    }
+                }
+            }
+        }
+
         @Override
         public void flush() throws IOException {
             writer.flush();
@@ -272,6 +526,21 @@ public abstract class DirectCompactionEntryLog implements CompactionEntryLog {
         }
     }
 
+    private static class CopiedEntry {
+        final long ledgerId;
+        final long entryId;
+        // Offset of the size of the entry in the source log
+        final int offset;
+        final int size;
+
+        CopiedEntry(long ledgerId, long entryId, int offset, int size) {
+            this.ledgerId = ledgerId;
+            this.entryId = entryId;
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+
     public static File compactingFile(File directory, int logId) {
         return new File(directory, String.format("%x%s", logId, COMPACTING_SUFFIX));
     }
@@ -46,6 +46,7 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.stream.Collectors;
 import org.apache.bookkeeper.bookie.AbstractLogCompactor;
@@ -54,9 +55,12 @@ import org.apache.bookkeeper.bookie.EntryLogMetadata;
 import org.apache.bookkeeper.bookie.storage.CompactionEntryLog;
 import org.apache.bookkeeper.bookie.storage.EntryLogIds;
 import org.apache.bookkeeper.bookie.storage.EntryLogIdsImpl;
+import org.apache.bookkeeper.bookie.storage.EntryLogMetadataSidecar;
 import org.apache.bookkeeper.bookie.storage.EntryLogScanner;
 import org.apache.bookkeeper.bookie.storage.EntryLogger;
 import org.apache.bookkeeper.common.util.nativeio.NativeIO;
+import org.apache.bookkeeper.common.util.nativeio.NativeIOException;
+import org.apache.bookkeeper.common.util.nativeio.NativeIORing;
 import org.apache.bookkeeper.slogger.Slogger;
 import org.apache.bookkeeper.stats.StatsLogger;
 
@@ -76,6 +80,9 @@ public class DirectEntryLogger implements EntryLogger {
     private final int readBufferSize;
     private final int maxSaneEntrySize;
     private final Set<Integer> unflushedLogs;
+    private final boolean ioUringEnabled;
+    // Disabled once copy_file_range is found not to be supported by the filesystem of the log directory
+    private final AtomicBoolean useCopyFileRange = new AtomicBoolean(true);
 
     private WriterWithMetadata curWriter;
 
@@ -101,6 +108,27 @@ public class DirectEntryLogger implements EntryLogger {
                              int maxFdCacheTimeSeconds,
                              Slogger slogParent,
                              StatsLogger stats) throws IOException {
+        this(ledgerDir, ids, nativeIO, allocator, writeExecutor, flushExecutor, maxFileSize, maxSaneEntrySize,
+             totalWriteBufferSize, totalReadBufferSize, readBufferSize, numReadThreads, maxFdCacheTimeSeconds,
+             false, slogParent, stats);
+    }
+
+    public DirectEntryLogger(File ledgerDir,
+                             EntryLogIds ids,
+                             NativeIO nativeIO,
+                             ByteBufAllocator allocator,
+                             ExecutorService writeExecutor,
+                             ExecutorService flushExecutor,
+                             long maxFileSize,
+                             int maxSaneEntrySize,
+                             long totalWriteBufferSize,
+                             long totalReadBufferSize,
+                             int readBufferSize,
+                             int numReadThreads,
+                             int maxFdCacheTimeSeconds,
+                             boolean ioUringEnabled,
+                             Slogger slogParent,
+                             StatsLogger stats) throws IOException {
         this.ledgerDir = ledgerDir;
         this.flushExecutor = flushExecutor;
         this.writeExecutor = writeExecutor;
@@ -113,6 +141,7 @@ public class DirectEntryLogger implements EntryLogger {
         this.readBufferSize = Buffer.nextAlignment(readBufferSize);
         this.ids = ids;
         this.slog = slogParent.kv("directory", ledgerDir).ctx();
+        this.ioUringEnabled = ioUringEnabled && isIoUringAvailable(nativeIO, slog);
 
         this.stats = new DirectEntryLoggerStats(stats);
 
@@ -150,6 +179,7 @@ public class DirectEntryLogger implements EntryLogger {
             .kv("perThreadBufferSize", perThreadBufferSize)
             .kv("maxCachedReadersPerThread", maxCachedReadersPerThread)
             .kv("maxCachedReaders", maxCachedReaders)
+            .kv("ioUringEnabled", this.ioUringEnabled)
             .info(Events.ENTRYLOGGER_CREATED);
 
         this.caches = ThreadLocal.withInitial(() -> {
@@ -377,6 +407,9 @@ public class DirectEntryLogger implements EntryLogger {
         checkArgument(entryLogId < Integer.MAX_VALUE, "Entry log id must be an int [%d]", entryLogId);
         File file = logFile(ledgerDir, (int) entryLogId);
         boolean result = file.delete();
+        if (!EntryLogMetadataSidecar.delete(ledgerDir, entryLogId)) {
+            slog.kv("logId", entryLogId).warn(Events.LEDGERS_MAP_SIDECAR_DELETE_ERROR);
+        }
         slog.kv("file", file).kv("logId", entryLogId).kv("result", result).info(Events.LOG_DELETED);
         return result;
     }
@@ -398,15 +431,63 @@ public class DirectEntryLogger implements EntryLogger {
     @Override
     public EntryLogMetadata getEntryLogMetadata(long entryLogId, AbstractLogCompactor.Throttler throttler)
             throws IOException {
+        try {
+            return readEntryLogMetadata(entryLogId);
+        } catch (IOException e) {
+            slog.kv("entryLogId", entryLogId).kv("reason", e.getMessage())
+                .info(Events.READ_METADATA_FALLBACK);
+            return scanEntryLogMetadataToSidecar(entryLogId, throttler);
+        }
+    }
+
+    @Override
+    public EntryLogMetadata readEntryLogMetadata(long entryLogId) throws IOException {
         try {
             return readEntryLogIndex(entryLogId);
+        } catch (IOException e) {
+            try {
+                return EntryLogMetadataSidecar.read(ledgerDir, entryLogId,
+                        logFile(ledgerDir, (int) entryLogId).length());
+            } catch (IOException sidecarException) {
+                e.addSuppressed(sidecarException);
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public boolean indexEntryLogMetadata(long entryLogId, AbstractLogCompactor.Throttler throttler)
+            throws IOException {
+        try {
+            readEntryLogMetadata(entryLogId);
+            return false;
         } catch (IOException e) {
             slog.kv("entryLogId", entryLogId).kv("reason", e.getMessage())
                 .info(Events.READ_METADATA_FALLBACK);
-            return scanEntryLogMetadata(entryLogId, throttler);
+            scanEntryLogMetadataToSidecar(entryLogId, throttler);
+            return true;
         }
     }
 
+    private EntryLogMetadata scanEntryLogMetadataToSidecar(long entryLogId, AbstractLogCompactor.Throttler throttler)
+            throws IOException {
+        File logFile = logFile(ledgerDir, (int) entryLogId);
+        long logSize = logFile.length();
+        EntryLogMetadata meta = scanEntryLogMetadata(entryLogId, throttler);
+        try {
+            EntryLogMetadataSidecar.write(ledgerDir, logSize, meta);
+            if (!logFile.exists()) {
+                // Removed while it was scanned, e.g. compacted, its sidecar may have been written after the removal
+                EntryLogMetadataSidecar.delete(ledgerDir, entryLogId);
+            }
+            slog.kv("entryLogId", entryLogId).kv("ledgers", meta.getLedgersMap().size())
+                .info(Events.LEDGERS_MAP_SIDECAR_WRITTEN);
+        } catch (IOException e) {
+            slog.kv("entryLogId", entryLogId).warn(Events.LEDGERS_MAP_SIDECAR_WRITE_ERROR, e);
+        }
+        return meta;
+    }
+
     @VisibleForTesting
     EntryLogMetadata readEntryLogIndex(long logId) throws IOException {
         checkArgument(logId < Integer.MAX_VALUE, "Entry log id must be an int [%d]", logId);
@@ -443,13 +524,26 @@ public class DirectEntryLogger implements EntryLogger {
     LogReader newDirectReader(int logId) throws IOException {
         return new DirectReader(logId, logFilename(ledgerDir, logId),
                                 allocator, nativeIO, readBufferSize,
-                                maxSaneEntrySize, stats.getReadBlockStats());
+                                maxSaneEntrySize, ioUringEnabled, stats.getReadBlockStats());
+    }
+
+    private static boolean isIoUringAvailable(NativeIO nativeIO, Slogger slog) {
+        try {
+            NativeIORing ring = nativeIO.ringSetup(1);
+            ring.close();
+            return true;
+        } catch (NativeIOException ne) {
+            slog.kv("message", ne.getMessage())
+                .kv("errno", ne.getErrno())
+                .warn(Events.IO_URING_NOT_AVAILABLE);
+            return false;
+        }
     }
 
     private LogWriter newDirectWriter(int newId) throws IOException {
         unflushedLogs.add(newId);
         LogWriter writer = new DirectWriter(newId, logFilename(ledgerDir, newId), maxFileSize,
-                                            writeExecutor, writeBuffers, nativeIO, slog);
+                                            writeExecutor, writeBuffers, nativeIO, ioUringEnabled, slog);
         ByteBuf buf = allocator.buffer(Buffer.ALIGNMENT);
         try {
             Header.writeEmptyHeader(buf);
@@ -474,7 +568,9 @@ public class DirectEntryLogger implements EntryLogger {
         int dstLogId = ids.nextId();
         return DirectCompactionEntryLog.newLog((int) srcLogId, dstLogId, ledgerDir,
                                                maxFileSize, writeExecutor, writeBuffers,
-                                               nativeIO, allocator, slog);
+                                               readBufferSize, maxSaneEntrySize,
+                                               nativeIO, useCopyFileRange, allocator, stats.getReadBlockStats(),
+                                               slog);
     }
 
     @Override
@@ -31,6 +31,7 @@ import java.io.IOException;
 import java.util.concurrent.TimeUnit;
 import org.apache.bookkeeper.common.util.nativeio.NativeIO;
 import org.apache.bookkeeper.common.util.nativeio.NativeIOException;
+import org.apache.bookkeeper.common.util.nativeio.NativeIORing;
 import org.apache.bookkeeper.stats.OpStatsLogger;
 
 class DirectReader implements LogReader {
@@ -47,10 +48,29 @@ class DirectReader implements LogReader {
     private long maxOffset;
     private boolean closed;
 
+    // Number of reads a block is split into when reading it through the io_uring
+    static final int RING_READS_PER_BLOCK = 8;
+
+    private boolean ioUringEnabled;
+    // Created on the first block read, so that the readers only used for the header don't set up a ring
+    private NativeIORing ring;
+    private long[] completedUserData;
+    private int[] completedResults;
+    // Set when the reads in flight on the ring couldn't be waited for, the buffer may still be written to
+    private boolean ringDrainFailed;
+
     DirectReader(int logId, String filename, ByteBufAllocator allocator,
                  NativeIO nativeIO, int bufferSize,
                  int maxSaneEntrySize, OpStatsLogger readBlockStats) throws IOException {
+        this(logId, filename, allocator, nativeIO, bufferSize, maxSaneEntrySize, false, readBlockStats);
+    }
+
+    DirectReader(int logId, String filename, ByteBufAllocator allocator,
+                 NativeIO nativeIO, int bufferSize,
+                 int maxSaneEntrySize, boolean ioUringEnabled,
+                 OpStatsLogger readBlockStats) throws IOException {
         this.nativeIO = nativeIO;
+        this.ioUringEnabled = ioUringEnabled;
         this.allocator = allocator;
         this.logId = logId;
         this.filename = filename;
@@ -204,6 +224,13 @@ class DirectReader implements LogReader {
         final long bytesAvailable = maxOffset > blockStart ? maxOffset - blockStart : 0;
         final long startNs = System.nanoTime();
 
+        if (ringReadBlock(blockStart, blockSize, bytesAvailable)) {
+            readBlockStats.registerSuccessfulEvent(System.nanoTime() - startNs, TimeUnit.NANOSECONDS);
+            currentBlock = blockStart;
+            currentBlockEnd = blockStart + Math.min(blockSize, bytesAvailable);
+            return;
+        }
+
         long bufferOffset = 0;
         long bytesToRead = Math.min(blockSize, bytesAvailable);
         long bytesOutstanding = bytesToRead;
@@ -247,10 +274,92 @@ class DirectReader implements LogReader {
         currentBlockEnd = blockStart + Math.min(blockSize, bytesAvailable);
     }
 
+    /**
+     * Read the block through the io_uring, split in chunks that are read in parallel by the device.
+     *
+     * @return false if the block couldn't be fully read, in which case it must be read with the synchronous calls
+     */
+    private boolean ringReadBlock(long blockStart, int blockSize, long bytesAvailable) throws IOException {
+        if (ringDrainFailed) {
+            throw new IOException(exMsg("Reads still in flight on the io_uring")
+                                  .kv("file", filename)
+                                  .kv("fd", fd).toString());
+        }
+        if (!ioUringEnabled || bytesAvailable == 0) {
+            return false;
+        }
+        try {
+            if (ring == null) {
+                ring = nativeIO.ringSetup(RING_READS_PER_BLOCK);
+                completedUserData = new long[RING_READS_PER_BLOCK];
+                completedResults = new int[RING_READS_PER_BLOCK];
+            }
+
+            // The block size is a power of two, so are the chunks
+            int chunkSize = Math.max(Buffer.ALIGNMENT, blockSize / RING_READS_PER_BLOCK);
+            long bytesToRead = Math.min(blockSize, bytesAvailable);
+            int chunks = 0;
+            for (long chunkOffset = 0; chunkOffset < bytesToRead; chunkOffset += chunkSize) {
+                ring.prepareRead(fd, nativeBuffer.pointer(chunkOffset, chunkSize), chunkSize,
+                                 blockStart + chunkOffset, chunks++);
+            }
+
+            boolean complete = true;
+            int completed = 0;
+            while (completed < chunks) {
+                int n = ring.submitAndWait(chunks - completed, completedUserData, completedResults);
+                for (int i = 0; i < n; i++) {
+                    // Only the last chunk may be short, if the file ends in it
+                    long expected = Math.min(chunkSize, bytesToRead - completedUserData[i] * chunkSize);
+                    if (completedResults[i] < expected) {
+                        complete = false;
+                    }
+                }
+                completed += n;
+            }
+            return complete;
+        } catch (NativeIOException ne) {
+            if (ring == null) {
+                // io_uring is not available, don't try again
+                ioUringEnabled = false;
+                return false;
+            }
+            // The reads may still be in flight, close the ring to wait for them before reusing the buffer
+            if (!closeRing()) {
+                throw new IOException(exMsg("Failed to wait for the reads in flight on the io_uring")
+                                      .kv("file", filename)
+                                      .kv("fd", fd)
+                                      .kv("errno", ne.getErrno()).toString());
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Close the ring once the reads in flight completed.
+     *
+     * @return false if the reads couldn't be waited for, in which case the buffer must not be reused nor freed
+     */
+    private boolean closeRing() {
+        if (ring != null) {
+            try {
+                ring.close();
+            } catch (NativeIOException ne) {
+                ringDrainFailed = true;
+                return false;
+            }
+            ring = null;
+        }
+        return true;
+    }
+
     @Override
     public void close() throws IOException {
         synchronized (nativeBuffer) {
-            nativeBuffer.free();
+            // Leak the buffer rather than freeing it while the kernel may still write to it
+            if (closeRing()) {
+                nativeBuffer.free();
+            }
         }
 
         try {
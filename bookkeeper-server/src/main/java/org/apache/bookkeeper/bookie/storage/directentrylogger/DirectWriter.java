@@ -33,6 +33,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import org.apache.bookkeeper.common.util.nativeio.NativeIO;
 import org.apache.bookkeeper.common.util.nativeio.NativeIOException;
+import org.apache.bookkeeper.common.util.nativeio.NativeIORing;
 import org.apache.bookkeeper.slogger.Slogger;
 import org.apache.commons.lang3.SystemUtils;
 
@@ -41,6 +42,7 @@ class DirectWriter implements LogWriter {
     final int fd;
     final int id;
     final String filename;
+    final Slogger slog;
     final BufferPool bufferPool;
     final ExecutorService writeExecutor;
     final Object bufferLock = new Object();
@@ -49,17 +51,46 @@ class DirectWriter implements LogWriter {
     long offset;
     private static volatile boolean useFallocate = true;
 
+    // Max number of writes in flight on the io_uring, the fsync takes one more entry
+    static final int RING_MAX_WRITES = 16;
+    private static final long RING_FSYNC_USER_DATA = RING_MAX_WRITES;
+
+    // When set, the writes and the fsyncs are submitted to the io_uring instead of the write executor. The writes
+    // in flight are tracked by slot, the slot being the user data of the operation.
+    final NativeIORing ring;
+    final Object ringLock = new Object();
+    private final Buffer[] ringBuffers;
+    private final int[] ringWriteSizes;
+    private final long[] ringWriteOffsets;
+    private final long[] completedUserData;
+    private final int[] completedResults;
+    private int ringWritesInFlight;
+    private boolean ringFsyncInFlight;
+    private int ringFsyncResult;
+
     DirectWriter(int id,
                  String filename,
                  long maxFileSize,
                  ExecutorService writeExecutor,
                  BufferPool bufferPool,
                  NativeIO nativeIO, Slogger slog) throws IOException {
+        this(id, filename, maxFileSize, writeExecutor, bufferPool, nativeIO, false, slog);
+    }
+
+    DirectWriter(int id,
+                 String filename,
+                 long maxFileSize,
+                 ExecutorService writeExecutor,
+                 BufferPool bufferPool,
+                 NativeIO nativeIO,
+                 boolean ioUringEnabled,
+                 Slogger slog) throws IOException {
         checkArgument(maxFileSize > 0, "Max file size (%d) must be positive");
         this.id = id;
         this.filename = filename;
         this.writeExecutor = writeExecutor;
         this.nativeIO = nativeIO;
+        this.slog = slog;
 
         offset = 0;
 
@@ -93,6 +124,25 @@ class DirectWriter implements LogWriter {
             }
         }
 
+        NativeIORing ring = null;
+        if (ioUringEnabled) {
+            try {
+                ring = nativeIO.ringSetup(RING_MAX_WRITES + 1);
+            } catch (NativeIOException ex) {
+                // Fall back to the synchronous writes on the write executor
+                slog.kv("message", ex.getMessage())
+                    .kv("file", filename)
+                    .kv("errno", ex.getErrno())
+                    .warn(Events.IO_URING_NOT_AVAILABLE);
+            }
+        }
+        this.ring = ring;
+        this.ringBuffers = new Buffer[RING_MAX_WRITES];
+        this.ringWriteSizes = new int[RING_MAX_WRITES];
+        this.ringWriteOffsets = new long[RING_MAX_WRITES];
+        this.completedUserData = new long[RING_MAX_WRITES + 1];
+        this.completedResults = new int[RING_MAX_WRITES + 1];
+
         this.bufferPool = bufferPool;
         this.nativeBuffer = bufferPool.acquire();
     }
@@ -119,9 +169,13 @@ class DirectWriter implements LogWriter {
             return;
         }
 
-        Buffer tmpBuffer = bufferPool.acquire();
+        Buffer tmpBuffer = acquireBuffer();
         tmpBuffer.reset();
         tmpBuffer.writeByteBuf(buf);
+        if (ring != null) {
+            submitRingWrite(tmpBuffer, bytesToWrite, offset);
+            return;
+        }
         Future<?> f = writeExecutor.submit(() -> {
             writeByteBuf(tmpBuffer, bytesToWrite, offset);
             return null;
@@ -206,6 +260,11 @@ class DirectWriter implements LogWriter {
     public void flush() throws IOException {
         flushBuffer();
 
+        if (ring != null) {
+            ringFsync();
+            return;
+        }
+
         waitForOutstandingWrites();
 
         try {
@@ -226,6 +285,21 @@ class DirectWriter implements LogWriter {
             }
         }
 
+        if (ring != null) {
+            synchronized (ringLock) {
+                try {
+                    // The buffers of the writes in flight must be back in the pool before closing
+                    waitForRingCompletions();
+                } finally {
+                    try {
+                        ring.close();
+                    } catch (NativeIOException ne) {
+                        slog.kv("message", ne.getMessage()).kv("file", filename).warn(Events.IO_URING_CLOSE_ERROR);
+                    }
+                }
+            }
+        }
+
         try {
             int ret = nativeIO.close(fd);
             checkState(ret == 0, "Close should throw exception on non-zero return (%d)", ret);
@@ -297,6 +371,12 @@ class DirectWriter implements LogWriter {
                 long offsetToWrite = offset;
                 offset += bytesToWrite;
 
+                if (ring != null) {
+                    submitRingWrite(bufferToFlush, bytesToWrite, offsetToWrite);
+                    this.nativeBuffer = acquireBuffer();
+                    return;
+                }
+
                 Future<?> f = writeExecutor.submit(() -> {
                     writeByteBuf(bufferToFlush, bytesToWrite, offsetToWrite);
                     return null;
@@ -311,6 +391,152 @@ class DirectWriter implements LogWriter {
         }
     }
 
+    /**
+     * Acquire a buffer from the pool. With the io_uring, the buffers are only given back to the pool when the
+     * completions of the writes are reaped, so the writes in flight are waited for before blocking on the pool.
+     */
+    private Buffer acquireBuffer() throws IOException {
+        if (ring == null) {
+            return bufferPool.acquire();
+        }
+        while (true) {
+            Buffer buffer = bufferPool.tryAcquire();
+            if (buffer != null) {
+                return buffer;
+            }
+            synchronized (ringLock) {
+                if (ringWritesInFlight == 0) {
+                    // All the buffers are used by other writers
+                    break;
+                }
+                reapRingCompletions(1);
+            }
+        }
+        return bufferPool.acquire();
+    }
+
+    private void submitRingWrite(Buffer buffer, int bytesToWrite, long offsetToWrite) throws IOException {
+        synchronized (ringLock) {
+            while (ringWritesInFlight == RING_MAX_WRITES) {
+                reapRingCompletions(1);
+            }
+            int slot = 0;
+            while (ringBuffers[slot] != null) {
+                slot++;
+            }
+
+            try {
+                ring.prepareWrite(fd, buffer.pointer(), bytesToWrite, offsetToWrite, slot);
+            } catch (NativeIOException ne) {
+                bufferPool.release(buffer);
+                throw new IOException(exMsg("Write error")
+                    .kv("filename", filename)
+                    .kv("offset", offsetToWrite)
+                    .kv("writeSize", bytesToWrite)
+                    .kv("pointer", buffer.pointer())
+                    .kv("errno", ne.getErrno())
+                    .toString());
+            }
+            ringBuffers[slot] = buffer;
+            ringWriteSizes[slot] = bytesToWrite;
+            ringWriteOffsets[slot] = offsetToWrite;
+            ringWritesInFlight++;
+
+            // Only submit the write, the completion is reaped later
+            reapRingCompletions(0);
+        }
+    }
+
+    private void ringFsync() throws IOException {
+        synchronized (ringLock) {
+            try {
+                // The fsync is drained, so it only starts once all the writes in flight completed
+                ring.prepareFsync(fd, false, RING_FSYNC_USER_DATA);
+            } catch (NativeIOException ne) {
+                throw new IOException(exMsg(ne.getMessage())
+                                      .kv("file", filename)
+                                      .kv("errno", ne.getErrno()).toString());
+            }
+            ringFsyncInFlight = true;
+            waitForRingCompletions();
+
+            if (ringFsyncResult < 0) {
+                throw new IOException(exMsg("Fsync error")
+                                      .kv("file", filename)
+                                      .kv("errno", -ringFsyncResult).toString());
+            }
+        }
+    }
+
+    private void waitForRingCompletions() throws IOException {
+        IOException error = null;
+        while (ringWritesInFlight > 0 || ringFsyncInFlight) {
+            try {
+                reapRingCompletions(1);
+            } catch (IOException e) {
+                // Keep reaping, so that all the buffers go back to the pool
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Submit the prepared operations and process the available completions, waiting for at least
+     * {@code minCompletions} of them. Must be called while holding the ringLock.
+     */
+    private void reapRingCompletions(int minCompletions) throws IOException {
+        int completions;
+        try {
+            completions = ring.submitAndWait(minCompletions, completedUserData, completedResults);
+        } catch (NativeIOException ne) {
+            throw new IOException(exMsg(ne.getMessage())
+                                  .kv("file", filename)
+                                  .kv("errno", ne.getErrno()).toString());
+        }
+
+        IOException error = null;
+        for (int i = 0; i < completions; i++) {
+            int result = completedResults[i];
+            if (completedUserData[i] == RING_FSYNC_USER_DATA) {
+                ringFsyncInFlight = false;
+                ringFsyncResult = result;
+                continue;
+            }
+
+            int slot = (int) completedUserData[i];
+            Buffer buffer = ringBuffers[slot];
+            ringBuffers[slot] = null;
+            ringWritesInFlight--;
+
+            if (error == null && result < 0) {
+                error = new IOException(exMsg("Write error")
+                    .kv("filename", filename)
+                    .kv("offset", ringWriteOffsets[slot])
+                    .kv("writeSize", ringWriteSizes[slot])
+                    .kv("pointer", buffer.pointer())
+                    .kv("errno", -result)
+                    .toString());
+            } else if (error == null && result != ringWriteSizes[slot]) {
+                error = new IOException(exMsg("Incomplete write")
+                    .kv("filename", filename)
+                    .kv("pointer", buffer.pointer())
+                    .kv("offset", ringWriteOffsets[slot])
+                    .kv("writeSize", ringWriteSizes[slot])
+                    .kv("bytesWritten", result)
+                    .toString());
+            }
+            bufferPool.release(buffer);
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
     @Override
     public int serializedSize(ByteBuf buf) {
         return buf.readableBytes() + Integer.BYTES;
@@ -31,6 +31,25 @@ public enum Events {
      */
     FALLOCATE_NOT_AVAILABLE,
 
+    /**
+     * io_uring is not available on this host, either because the kernel is too old (io_uring needs 5.6+), it's
+     * not a Linux host or io_uring is disabled for the process. The entry logs are written and read with the
+     * synchronous native calls instead.
+     */
+    IO_URING_NOT_AVAILABLE,
+
+    /**
+     * An error occurred closing the io_uring instance of an entrylog writer or reader. This is non-fatal but it may
+     * leak the resources of the instance.
+     */
+    IO_URING_CLOSE_ERROR,
+
+    /**
+     * copy_file_range is not available on this host or for this filesystem, either because it's not a Linux host
+     * or the kernel is too old (4.5+ is needed). The compaction copies the entries through the memory instead.
+     */
+    COPY_FILE_RANGE_NOT_AVAILABLE,
+
     /**
      * EntryLog ID candidates selected. These are the set entry log ID that subsequent entry log files
      * will use. To find the candidates, the bookie lists all the log ids which have already been used,
@@ -79,6 +98,23 @@ public enum Events {
      */
     READ_METADATA_FALLBACK,
 
+    /**
+     * The metadata of an entrylog without usable ledgers map was extracted by scanning it, and written to its
+     * ledgers map sidecar, so that it can be read without scanning the entrylog again.
+     */
+    LEDGERS_MAP_SIDECAR_WRITTEN,
+
+    /**
+     * An error occurred writing the ledgers map sidecar of an entrylog. This is non-fatal, the entrylog will
+     * be scanned again next time its metadata is needed.
+     */
+    LEDGERS_MAP_SIDECAR_WRITE_ERROR,
+
+    /**
+     * The ledgers map sidecar of a deleted entrylog couldn't be deleted.
+     */
+    LEDGERS_MAP_SIDECAR_DELETE_ERROR,
+
     /**
      * A new entrylog has been created. The filename has the format [dstLogId].compacting, where dstLogId is
      * a new unique log ID. Entrylog compaction will copy live entries from an existing src log to this new
@@ -111,6 +147,19 @@ public enum Events {
      * See {@link #COMPACTION_LOG_CREATED} for more information on compaction.
      */
     COMPACTION_MARK_COMPACTED,
+    /**
+     * The live entries of the src log have been copied to the compaction log with copy_file_range, a run of
+     * contiguous live entries at a time, without being read in memory.
+     * <p/>
+     * See {@link #COMPACTION_LOG_CREATED} for more information on compaction.
+     */
+    COMPACTION_ENTRIES_COPIED,
+
+    /**
+     * The range of the compaction log written with copy_file_range couldn't be dropped from the page cache. This is
+     * non-fatal, the range was synced so the direct reads see it, but it keeps using the page cache.
+     */
+    COMPACTION_PAGE_CACHE_DROP_FAILED,
 
     /**
      * A compacted log has been made available for reads. A log is made available by creating a hardlink
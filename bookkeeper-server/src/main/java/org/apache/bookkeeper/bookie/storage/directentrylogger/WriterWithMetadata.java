@@ -71,6 +71,30 @@ class WriterWithMetadata {
         writer.flush();
     }
 
+    /**
+     * Write the buffered entries, before copying entries to the log out of the writer.
+     *
+     * @return the position at which the copied entries start, which is aligned
+     */
+    long startCopy() throws IOException {
+        // The copy goes through the page cache, no direct write must be in flight
+        writer.flush();
+        return writer.position();
+    }
+
+    void addCopiedEntry(long ledgerId, int size) {
+        metadata.addLedgerSize(ledgerId, size + Integer.BYTES);
+    }
+
+    /**
+     * Resume the writes after the copied entries.
+     *
+     * @param position the aligned position after the copied entries and their padding
+     */
+    void endCopy(long position) throws IOException {
+        writer.position(position);
+    }
+
     void finalizeAndClose() throws IOException {
         writer.flush();
         LogMetadata.write(writer, metadata, allocator);
@@ -29,6 +29,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.ReferenceCounted;
 import io.netty.util.concurrent.DefaultThreadFactory;
 import io.netty.util.internal.PlatformDependent;
 import java.io.File;
@@ -64,6 +65,7 @@ import org.apache.bookkeeper.common.util.Watcher;
 import org.apache.bookkeeper.common.util.nativeio.NativeIOImpl;
 import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteCallback;
 import org.apache.bookkeeper.slogger.slf4j.Slf4jSlogger;
 import org.apache.bookkeeper.stats.Gauge;
 import org.apache.bookkeeper.stats.NullStatsLogger;
@@ -92,7 +94,21 @@ public class DbLedgerStorage implements LedgerStorage {
     public static final String DIRECT_IO_ENTRYLOGGER_MAX_FD_CACHE_TIME_SECONDS =
         "dbStorage_directIOEntryLoggerMaxFdCacheTimeSeconds";
 
+    public static final String ENTRY_LOCATION_INDEX_TYPE = "dbStorage_entryLocationIndexType";
+    static final String ENTRY_LOCATION_WATERMARK_ENABLED = "dbStorage_entryLocationWatermarkEnabled";
+    static final String ENTRY_LOCATION_WATERMARK_MAX_LEDGERS = "dbStorage_entryLocationWatermarkMaxLedgers";
+    static final long DEFAULT_ENTRY_LOCATION_WATERMARK_MAX_LEDGERS = 100_000;
+    static final String ENTRY_LOCATION_BLOOM_FILTER_SIZE_MB = "dbStorage_entryLocationBloomFilterSizeMb";
+
     static final String MAX_THROTTLE_TIME_MILLIS = "dbStorage_maxThrottleTimeMs";
+    public static final String WRITE_CACHE_RING_SIZE = "dbStorage_writeCacheRingSize";
+    static final int DEFAULT_WRITE_CACHE_RING_SIZE = 2;
+    static final String WRITE_CACHE_LEDGER_BUCKETS_ENABLED = "dbStorage_writeCacheLedgerBucketsEnabled";
+    static final String FLUSH_THREADS = "dbStorage_flushThreads";
+    static final String WRITE_CACHE_SPILL_ENABLED = "dbStorage_writeCacheSpillEnabled";
+    static final String WRITE_CACHE_SPILL_FLUSH_INTERVAL_MICROS = "dbStorage_writeCacheSpillFlushIntervalMicros";
+    static final long DEFAULT_WRITE_CACHE_SPILL_FLUSH_INTERVAL_MICROS = 1000;
+    private static final int DEFAULT_FLUSH_THREADS = 1;
 
     private static final int MB = 1024 * 1024;
 
@@ -103,6 +119,13 @@ public class DbLedgerStorage implements LedgerStorage {
 
     static final String READ_AHEAD_CACHE_BATCH_SIZE = "dbStorage_readAheadCacheBatchSize";
     private static final int DEFAULT_READ_AHEAD_CACHE_BATCH_SIZE = 100;
+    static final String READ_AHEAD_CACHE_ADAPTIVE = "dbStorage_readAheadCacheAdaptive";
+    static final String READ_AHEAD_CACHE_MIN_BATCH_SIZE = "dbStorage_readAheadCacheMinBatchSize";
+    static final int DEFAULT_READ_AHEAD_CACHE_MIN_BATCH_SIZE = 4;
+    static final String READ_AHEAD_CACHE_MAX_BATCH_SIZE = "dbStorage_readAheadCacheMaxBatchSize";
+    static final int DEFAULT_READ_AHEAD_CACHE_MAX_BATCH_SIZE_FACTOR = 8;
+    public static final String READ_CACHE_EVICTION_POLICY = "dbStorage_readCacheEvictionPolicy";
+    static final String READ_CACHE_PROTECTED_RATIO = "dbStorage_readCacheProtectedRatio";
 
     private static final long DEFAULT_DIRECT_IO_TOTAL_WRITEBUFFER_SIZE_MB =
         (long) (0.125 * PlatformDependent.estimateMaxDirectMemory())
@@ -114,12 +137,22 @@ public class DbLedgerStorage implements LedgerStorage {
 
     private static final int DEFAULT_DIRECT_IO_MAX_FD_CACHE_TIME_SECONDS = 300;
 
+    /**
+     * Backends available for the entry location index.
+     */
+    public enum EntryLocationIndexType {
+        RocksDB,
+        SortedArray
+    }
+
     // use the storage assigned to ledger 0 for flags.
     // if the storage configuration changes, the flags may be lost
     // but in that case data integrity should kick off anyhow.
     private static final long STORAGE_FLAGS_KEY = 0L;
     private int numberOfDirs;
     private List<SingleDirectoryDbLedgerStorage> ledgerStorageList;
+    private DirectoryFlushScheduler flushScheduler;
+    private CheckpointSource checkpointSource = CheckpointSource.DEFAULT;
 
     private ExecutorService entryLoggerWriteExecutor = null;
     private ExecutorService entryLoggerFlushExecutor = null;
@@ -158,7 +191,7 @@ public class DbLedgerStorage implements LedgerStorage {
         log.info("Started Db Ledger Storage");
         log.info(" - Number of directories: {}", numberOfDirs);
         log.info(" - Write cache size: {} MB", writeCacheMaxSize / MB);
-        log.info(" - Read Cache: {} MB", readCacheMaxSize / MB);
+        log.info(" - Read Cache: {} MB ({})", readCacheMaxSize / MB, getReadCacheEvictionPolicy(conf));
 
         if (readCacheMaxSize + writeCacheMaxSize > PlatformDependent.estimateMaxDirectMemory()) {
             throw new IOException("Read and write cache sizes exceed the configured max direct memory size");
@@ -229,6 +262,7 @@ public class DbLedgerStorage implements LedgerStorage {
                     readBufferSize,
                     numReadThreads,
                     maxFdCacheTimeSeconds,
+                    conf.isIoUringEnabled(),
                     slog, statsLogger);
             } else {
                 entrylogger = new DefaultEntryLogger(conf, ldm, null, statsLogger, allocator);
@@ -244,6 +278,9 @@ public class DbLedgerStorage implements LedgerStorage {
             }
         }
 
+        flushScheduler = new DirectoryFlushScheduler(ledgerStorageList,
+                conf.getInt(FLUSH_THREADS, DEFAULT_FLUSH_THREADS));
+
         // parent DbLedgerStorage stats (not per directory)
         readaheadBatchSizeGauge = new Gauge<Integer>() {
             @Override
@@ -289,6 +326,7 @@ public class DbLedgerStorage implements LedgerStorage {
     }
     @Override
     public void setCheckpointSource(CheckpointSource checkpointSource) {
+        this.checkpointSource = checkpointSource;
         ledgerStorageList.forEach(s -> s.setCheckpointSource(checkpointSource));
     }
     @Override
@@ -303,6 +341,7 @@ public class DbLedgerStorage implements LedgerStorage {
 
     @Override
     public void shutdown() throws InterruptedException {
+        flushScheduler.shutdown();
         for (LedgerStorage ls : ledgerStorageList) {
             ls.shutdown();
         }
@@ -325,6 +364,11 @@ public class DbLedgerStorage implements LedgerStorage {
         return getLedgerStorage(ledgerId).entryExists(ledgerId, entryId);
     }
 
+    @Override
+    public boolean isCatchUpRead(long ledgerId, long entryId) {
+        return getLedgerStorage(ledgerId).isCatchUpRead(ledgerId, entryId);
+    }
+
     @Override
     public boolean setFenced(long ledgerId) throws IOException {
         return getLedgerStorage(ledgerId).setFenced(ledgerId);
@@ -351,11 +395,30 @@ public class DbLedgerStorage implements LedgerStorage {
         return getLedgerStorage(ledgerId).addEntry(entry);
     }
 
+    @Override
+    public boolean persistEntry(ByteBuf entry, WriteCallback cb, Object ctx) throws IOException {
+        long ledgerId = entry.getLong(entry.readerIndex());
+        return getLedgerStorage(ledgerId).persistEntry(entry, cb, ctx);
+    }
+
+    @Override
+    public void recoverPersistedEntries() throws IOException {
+        for (SingleDirectoryDbLedgerStorage ls : ledgerStorageList) {
+            ls.recoverPersistedEntries();
+        }
+    }
+
     @Override
     public ByteBuf getEntry(long ledgerId, long entryId) throws IOException, BookieException {
         return getLedgerStorage(ledgerId).getEntry(ledgerId, entryId);
     }
 
+    @Override
+    public ReferenceCounted getEntryOrRegion(long ledgerId, long entryId, int minRegionSize)
+            throws IOException, BookieException {
+        return getLedgerStorage(ledgerId).getEntryOrRegion(ledgerId, entryId, minRegionSize);
+    }
+
     @Override
     public long getLastAddConfirmed(long ledgerId) throws IOException, BookieException {
         return getLedgerStorage(ledgerId).getLastAddConfirmed(ledgerId);
@@ -376,16 +439,15 @@ public class DbLedgerStorage implements LedgerStorage {
 
     @Override
     public void flush() throws IOException {
-        for (LedgerStorage ls : ledgerStorageList) {
-            ls.flush();
-        }
+        // Flush all the directories up to the same checkpoint, and only mark it complete once all of them are done
+        Checkpoint cp = checkpointSource.newCheckpoint();
+        flushScheduler.checkpoint(cp);
+        checkpointSource.checkpointComplete(cp, true);
     }
 
     @Override
     public void checkpoint(Checkpoint checkpoint) throws IOException {
-        for (LedgerStorage ls : ledgerStorageList) {
-            ls.checkpoint(checkpoint);
-        }
+        flushScheduler.checkpoint(checkpoint);
     }
 
     @Override
@@ -480,9 +542,7 @@ public class DbLedgerStorage implements LedgerStorage {
         String indexBasePath = indexDirs.get(dirIndex).toString();
 
         EntryLocationIndex entryLocationIndex = new EntryLocationIndex(serverConf,
-                (basePath, subPath, dbConfigType, conf1) ->
-                        new KeyValueStorageRocksDB(basePath, subPath, DbConfigType.Default, conf1, true),
-                indexBasePath, NullStatsLogger.INSTANCE);
+                getEntryLocationIndexStorageFactory(serverConf, true), indexBasePath, NullStatsLogger.INSTANCE);
         try {
             long lastEntryId = entryLocationIndex.getLastEntryInLedger(ledgerId);
             for (long currentEntry = 0; currentEntry <= lastEntryId; currentEntry++) {
@@ -605,6 +665,44 @@ public class DbLedgerStorage implements LedgerStorage {
         }
     }
 
+    static EntryLocationIndexType getEntryLocationIndexType(ServerConfiguration conf) {
+        String type = conf.getString(ENTRY_LOCATION_INDEX_TYPE, EntryLocationIndexType.RocksDB.name());
+        for (EntryLocationIndexType t : EntryLocationIndexType.values()) {
+            if (t.name().equalsIgnoreCase(type.trim())) {
+                return t;
+            }
+        }
+        throw new IllegalArgumentException("Unknown entry location index type: " + type);
+    }
+
+    static ReadCache.EvictionPolicy getReadCacheEvictionPolicy(ServerConfiguration conf) {
+        String policy = conf.getString(READ_CACHE_EVICTION_POLICY, ReadCache.EvictionPolicy.FIFO.name());
+        for (ReadCache.EvictionPolicy p : ReadCache.EvictionPolicy.values()) {
+            if (p.name().equalsIgnoreCase(policy.trim())) {
+                return p;
+            }
+        }
+        throw new IllegalArgumentException("Unknown read cache eviction policy: " + policy);
+    }
+
+    static KeyValueStorageFactory getEntryLocationIndexStorageFactory(ServerConfiguration conf) {
+        return getEntryLocationIndexStorageFactory(conf, false);
+    }
+
+    /**
+     * @param readOnly whether a RocksDB index is opened read-only, to be inspected while the bookie runs
+     */
+    static KeyValueStorageFactory getEntryLocationIndexStorageFactory(ServerConfiguration conf, boolean readOnly) {
+        if (getEntryLocationIndexType(conf) == EntryLocationIndexType.SortedArray) {
+            return KeyValueStorageSortedArray.factory;
+        } else if (readOnly) {
+            return (basePath, subPath, dbConfigType, conf1) ->
+                    new KeyValueStorageRocksDB(basePath, subPath, DbConfigType.Default, conf1, true);
+        } else {
+            return KeyValueStorageRocksDB.factory;
+        }
+    }
+
     static boolean getBooleanVariableOrDefault(ServerConfiguration conf, String keyName, boolean defaultValue) {
         Object obj = conf.getProperty(keyName);
         if (obj instanceof Boolean) {
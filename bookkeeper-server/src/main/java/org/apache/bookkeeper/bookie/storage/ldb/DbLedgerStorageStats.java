@@ -24,7 +24,9 @@ import static org.apache.bookkeeper.bookie.BookKeeperServerStats.BOOKIE_READ_ENT
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.BOOKIE_SCOPE;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.CATEGORY_SERVER;
 
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Supplier;
+import lombok.AccessLevel;
 import lombok.Getter;
 import org.apache.bookkeeper.stats.Counter;
 import org.apache.bookkeeper.stats.Gauge;
@@ -55,21 +57,29 @@ class DbLedgerStorageStats {
     private static final String READAHEAD_BATCH_COUNT = "readahead-batch-count";
     private static final String READAHEAD_BATCH_SIZE = "readahead-batch-size";
     private static final String READAHEAD_TIME = "readahead-time";
+    private static final String READAHEAD_HITS = "readahead-hits";
+    private static final String READAHEAD_MISSES = "readahead-misses";
+    private static final String READAHEAD_WASTED_BYTES = "readahead-wasted-bytes";
     private static final String FLUSH = "flush";
     private static final String FLUSH_ENTRYLOG = "flush-entrylog";
     private static final String FLUSH_LOCATIONS_INDEX = "flush-locations-index";
     private static final String FLUSH_LEDGER_INDEX = "flush-ledger-index";
     private static final String FLUSH_SIZE = "flush-size";
+    private static final String FLUSH_SCHEDULE_DELAY = "flush-schedule-delay";
 
     @Deprecated
     private static final String THROTTLED_WRITE_REQUESTS = "throttled-write-requests";
     // throttled-write-requests is deprecated, use new metric: throttled-write
     private static final String THROTTLED_WRITE = "throttled-write";
     private static final String REJECTED_WRITE_REQUESTS = "rejected-write-requests";
+    private static final String WRITE_CACHE_ROTATION_BLOCKED_TIME = "write-cache-rotation-blocked-time";
+    private static final String WRITE_CACHE_PENDING_FLUSH_COUNT = "write-cache-pending-flush-count";
     private static final String WRITE_CACHE_SIZE = "write-cache-size";
     private static final String WRITE_CACHE_COUNT = "write-cache-count";
     private static final String READ_CACHE_SIZE = "read-cache-size";
     private static final String READ_CACHE_COUNT = "read-cache-count";
+    private static final String WRITE_CACHE_SPILL_SYNC = "write-cache-spill-sync";
+    private static final String WRITE_CACHE_SPILL_BYTES = "write-cache-spill-bytes";
 
     @StatsDoc(
         name = ADD_ENTRY,
@@ -134,6 +144,23 @@ class DbLedgerStorageStats {
             help = "Time spent on readahead operations"
     )
     private final Counter readAheadTime;
+    @StatsDoc(
+        name = READAHEAD_HITS,
+        help = "number of reads served by entries loaded in the read cache by the adaptive readahead",
+        parent = READ_ENTRY
+    )
+    private final Counter readAheadHitCounter;
+    @StatsDoc(
+        name = READAHEAD_MISSES,
+        help = "number of read cache misses of sequential readers, which the adaptive readahead did not load in time",
+        parent = READ_ENTRY
+    )
+    private final Counter readAheadMissCounter;
+    @StatsDoc(
+        name = READAHEAD_WASTED_BYTES,
+        help = "estimated num of bytes loaded by the adaptive readahead and never read"
+    )
+    private final Counter readAheadWastedBytesCounter;
     @StatsDoc(
         name = FLUSH,
         help = "operation stats of flushing write cache to entry log files"
@@ -159,6 +186,11 @@ class DbLedgerStorageStats {
         help = "the distribution of number of bytes flushed from write cache to entry log files"
     )
     private final OpStatsLogger flushSizeStats;
+    @StatsDoc(
+        name = FLUSH_SCHEDULE_DELAY,
+        help = "time a checkpoint of the directory waited for a flush thread, while the other directories were flushed"
+    )
+    private final OpStatsLogger flushScheduleDelayStats;
     @StatsDoc(
         name = THROTTLED_WRITE_REQUESTS,
         help = "The number of requests throttled due to write cache is full"
@@ -174,6 +206,22 @@ class DbLedgerStorageStats {
         help = "The number of requests rejected due to write cache is full"
     )
     private final Counter rejectedWriteRequests;
+    @StatsDoc(
+        name = WRITE_CACHE_ROTATION_BLOCKED_TIME,
+        help = "Time spent by add requests blocked on the write cache rotation, because the current write cache was"
+            + " full"
+    )
+    private final Counter writeCacheRotationBlockedTime;
+    @StatsDoc(
+        name = WRITE_CACHE_SPILL_SYNC,
+        help = "operation stats of syncing the entries persisted in the write cache spill log"
+    )
+    private final OpStatsLogger spillSyncStats;
+    @StatsDoc(
+        name = WRITE_CACHE_SPILL_BYTES,
+        help = "The number of bytes written to the write cache spill log"
+    )
+    private final Counter spillWrittenBytes;
 
     @StatsDoc(
         name = WRITE_CACHE_SIZE,
@@ -185,6 +233,11 @@ class DbLedgerStorageStats {
         help = "Current number of entries in write cache"
     )
     private final Gauge<Long> writeCacheCountGauge;
+    @StatsDoc(
+        name = WRITE_CACHE_PENDING_FLUSH_COUNT,
+        help = "Current number of full write caches waiting to be flushed"
+    )
+    private final Gauge<Integer> writeCachePendingFlushCountGauge;
     @StatsDoc(
         name = READ_CACHE_SIZE,
         help = "Current number of bytes in read cache"
@@ -196,9 +249,16 @@ class DbLedgerStorageStats {
     )
     private final Gauge<Long> readCacheCountGauge;
 
+    // Latencies of the adds and reads since the last poll by the garbage collector
+    @Getter(AccessLevel.NONE)
+    private final LongAdder foregroundLatencyNanos = new LongAdder();
+    @Getter(AccessLevel.NONE)
+    private final LongAdder foregroundOps = new LongAdder();
+
     DbLedgerStorageStats(StatsLogger stats,
                          Supplier<Long> writeCacheSizeSupplier,
                          Supplier<Long> writeCacheCountSupplier,
+                         Supplier<Integer> writeCachePendingFlushCountSupplier,
                          Supplier<Long> readCacheSizeSupplier,
                          Supplier<Long> readCacheCountSupplier) {
         addEntryStats = stats.getThreadScopedOpStatsLogger(ADD_ENTRY);
@@ -212,15 +272,22 @@ class DbLedgerStorageStats {
         readAheadBatchCountStats = stats.getOpStatsLogger(READAHEAD_BATCH_COUNT);
         readAheadBatchSizeStats = stats.getOpStatsLogger(READAHEAD_BATCH_SIZE);
         readAheadTime = stats.getThreadScopedCounter(READAHEAD_TIME);
+        readAheadHitCounter = stats.getCounter(READAHEAD_HITS);
+        readAheadMissCounter = stats.getCounter(READAHEAD_MISSES);
+        readAheadWastedBytesCounter = stats.getCounter(READAHEAD_WASTED_BYTES);
         flushStats = stats.getOpStatsLogger(FLUSH);
         flushEntryLogStats = stats.getOpStatsLogger(FLUSH_ENTRYLOG);
         flushLocationIndexStats = stats.getOpStatsLogger(FLUSH_LOCATIONS_INDEX);
         flushLedgerIndexStats = stats.getOpStatsLogger(FLUSH_LEDGER_INDEX);
         flushSizeStats = stats.getOpStatsLogger(FLUSH_SIZE);
+        flushScheduleDelayStats = stats.getOpStatsLogger(FLUSH_SCHEDULE_DELAY);
 
         throttledWriteRequests = stats.getThreadScopedCounter(THROTTLED_WRITE_REQUESTS);
         throttledWriteStats = stats.getOpStatsLogger(THROTTLED_WRITE);
         rejectedWriteRequests = stats.getThreadScopedCounter(REJECTED_WRITE_REQUESTS);
+        writeCacheRotationBlockedTime = stats.getThreadScopedCounter(WRITE_CACHE_ROTATION_BLOCKED_TIME);
+        spillSyncStats = stats.getOpStatsLogger(WRITE_CACHE_SPILL_SYNC);
+        spillWrittenBytes = stats.getCounter(WRITE_CACHE_SPILL_BYTES);
 
         writeCacheSizeGauge = new Gauge<Long>() {
             @Override
@@ -246,6 +313,18 @@ class DbLedgerStorageStats {
             }
         };
         stats.registerGauge(WRITE_CACHE_COUNT, writeCacheCountGauge);
+        writeCachePendingFlushCountGauge = new Gauge<Integer>() {
+            @Override
+            public Integer getDefaultValue() {
+                return 0;
+            }
+
+            @Override
+            public Integer getSample() {
+                return writeCachePendingFlushCountSupplier.get();
+            }
+        };
+        stats.registerGauge(WRITE_CACHE_PENDING_FLUSH_COUNT, writeCachePendingFlushCountGauge);
         readCacheSizeGauge = new Gauge<Long>() {
             @Override
             public Long getDefaultValue() {
@@ -273,4 +352,18 @@ class DbLedgerStorageStats {
         stats.registerGauge(READ_CACHE_COUNT, readCacheCountGauge);
     }
 
+    void recordForegroundLatency(long nanos) {
+        foregroundLatencyNanos.add(nanos);
+        foregroundOps.increment();
+    }
+
+    /**
+     * @return the average latency of the adds and reads since the previous call, 0 if there was none
+     */
+    long pollForegroundLatencyNanos() {
+        long ops = foregroundOps.sumThenReset();
+        long nanos = foregroundLatencyNanos.sumThenReset();
+        return ops == 0 ? 0 : nanos / ops;
+    }
+
 }
@@ -0,0 +1,148 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.bookie.CheckpointSource.Checkpoint;
+import org.apache.bookkeeper.common.util.MathUtils;
+
+/**
+ * Schedules the checkpoints of the ledger directories of a {@link DbLedgerStorage} on a shared pool of flush
+ * threads, so that the flushes of the different directories run concurrently and use the bandwidth of all the disks.
+ *
+ * <p>When there are more directories than flush threads, the directories whose write caches are the fullest are
+ * flushed first, since they are the closest to throttling the adds.
+ */
+class DirectoryFlushScheduler {
+
+    private final List<SingleDirectoryDbLedgerStorage> ledgerStorageList;
+    // Null when the directories are flushed one after the other, by the checkpointing thread
+    private final ExecutorService flushExecutor;
+
+    DirectoryFlushScheduler(List<SingleDirectoryDbLedgerStorage> ledgerStorageList, int numFlushThreads) {
+        this.ledgerStorageList = ledgerStorageList;
+        int numThreads = Math.min(numFlushThreads, ledgerStorageList.size());
+        this.flushExecutor = numThreads > 1
+                ? Executors.newFixedThreadPool(numThreads, new DefaultThreadFactory("db-storage-flush"))
+                : null;
+    }
+
+    /**
+     * Checkpoint all the directories and wait for all of them to complete.
+     *
+     * @throws IOException the first failure, with the failures of the other directories as suppressed exceptions
+     */
+    void checkpoint(Checkpoint checkpoint) throws IOException {
+        long startTime = MathUtils.nowInNano();
+        List<SingleDirectoryDbLedgerStorage> storages = prioritize();
+
+        if (flushExecutor == null) {
+            for (SingleDirectoryDbLedgerStorage storage : storages) {
+                recordScheduleDelay(storage, startTime);
+                storage.checkpoint(checkpoint);
+            }
+            return;
+        }
+
+        List<Future<?>> futures = new ArrayList<>(storages.size());
+        for (SingleDirectoryDbLedgerStorage storage : storages) {
+            futures.add(flushExecutor.submit(() -> {
+                recordScheduleDelay(storage, startTime);
+                storage.checkpoint(checkpoint);
+                return null;
+            }));
+        }
+
+        IOException error = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                IOException ioe = new IOException("Interrupted while waiting for the directories flush", e);
+                if (error == null) {
+                    error = ioe;
+                } else {
+                    error.addSuppressed(ioe);
+                }
+                // Don't wait for the other flushes, they still complete in background
+                break;
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                IOException ioe = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                if (error == null) {
+                    error = ioe;
+                } else {
+                    error.addSuppressed(ioe);
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Get the directories ordered by decreasing write cache usage.
+     */
+    private List<SingleDirectoryDbLedgerStorage> prioritize() {
+        List<SingleDirectoryDbLedgerStorage> storages = new ArrayList<>(ledgerStorageList);
+        if (storages.size() > 1) {
+            // Take a snapshot of the usages, since they change while sorting
+            List<Double> usages = new ArrayList<>(storages.size());
+            for (SingleDirectoryDbLedgerStorage storage : storages) {
+                usages.add(storage.getWriteCacheUsage());
+            }
+            List<Integer> order = new ArrayList<>(storages.size());
+            for (int i = 0; i < storages.size(); i++) {
+                order.add(i);
+            }
+            order.sort(Comparator.comparing(usages::get, Comparator.reverseOrder()));
+
+            List<SingleDirectoryDbLedgerStorage> sorted = new ArrayList<>(storages.size());
+            for (int i : order) {
+                sorted.add(storages.get(i));
+            }
+            storages = sorted;
+        }
+        return storages;
+    }
+
+    private static void recordScheduleDelay(SingleDirectoryDbLedgerStorage storage, long startTime) {
+        storage.getDbLedgerStorageStats().getFlushScheduleDelayStats()
+                .registerSuccessfulEvent(MathUtils.elapsedNanos(startTime), TimeUnit.NANOSECONDS);
+    }
+
+    void shutdown() {
+        if (flushExecutor != null) {
+            flushExecutor.shutdown();
+        }
+    }
+}
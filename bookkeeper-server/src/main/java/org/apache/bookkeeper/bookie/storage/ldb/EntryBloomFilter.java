@@ -0,0 +1,100 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A blocked Bloom filter of the (ledgerId, entryId) pairs, safe for concurrent use.
+ *
+ * <p>All the bits of a key are set in a single 512 bits block, so that checking a key only touches one cache line.
+ * Keys can't be removed, so the false positive rate grows as more keys are added. With 10 bits per key, it stays
+ * around 1%.
+ */
+class EntryBloomFilter {
+
+    private static final int WORDS_PER_BLOCK = 8;
+    private static final int BITS_PER_BLOCK_MASK = WORDS_PER_BLOCK * Long.SIZE - 1;
+    private static final int BITS_PER_KEY_INDEX = 9;
+    private static final int HASH_FUNCTIONS = 6;
+
+    private final AtomicLongArray words;
+    private final int numBlocks;
+
+    EntryBloomFilter(long sizeInBytes) {
+        long blocks = sizeInBytes / (WORDS_PER_BLOCK * Long.BYTES);
+        checkArgument(blocks > 0 && blocks * WORDS_PER_BLOCK <= Integer.MAX_VALUE,
+                "Invalid bloom filter size: %s bytes", sizeInBytes);
+        this.numBlocks = (int) blocks;
+        this.words = new AtomicLongArray(numBlocks * WORDS_PER_BLOCK);
+    }
+
+    void add(long ledgerId, long entryId) {
+        long hash = hash(ledgerId, entryId);
+        int blockOffset = blockOffset(hash);
+        long bitsHash = mix(hash);
+        for (int i = 0; i < HASH_FUNCTIONS; i++) {
+            int bit = (int) (bitsHash >>> (i * BITS_PER_KEY_INDEX)) & BITS_PER_BLOCK_MASK;
+            int index = blockOffset + (bit >>> 6);
+            long mask = 1L << bit;
+            long word = words.get(index);
+            while ((word & mask) == 0 && !words.compareAndSet(index, word, word | mask)) {
+                word = words.get(index);
+            }
+        }
+    }
+
+    /**
+     * @return false if the key was never added, true if it may have been added
+     */
+    boolean mightContain(long ledgerId, long entryId) {
+        long hash = hash(ledgerId, entryId);
+        int blockOffset = blockOffset(hash);
+        long bitsHash = mix(hash);
+        for (int i = 0; i < HASH_FUNCTIONS; i++) {
+            int bit = (int) (bitsHash >>> (i * BITS_PER_KEY_INDEX)) & BITS_PER_BLOCK_MASK;
+            if ((words.get(blockOffset + (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int blockOffset(long hash) {
+        return (int) ((hash >>> 1) % numBlocks) * WORDS_PER_BLOCK;
+    }
+
+    private static long hash(long ledgerId, long entryId) {
+        return mix(ledgerId * 0x9E3779B97F4A7C15L + entryId);
+    }
+
+    // Finalizer of MurmurHash3
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -20,19 +20,25 @@
  */
 package org.apache.bookkeeper.bookie.storage.ldb;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Iterables;
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import org.apache.bookkeeper.bookie.Bookie;
 import org.apache.bookkeeper.bookie.EntryLocation;
 import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.Batch;
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.CloseableIterator;
 import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorageFactory.DbConfigType;
 import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.bookkeeper.stats.StatsLogger;
 import org.apache.bookkeeper.util.MathUtils;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashMap;
 import org.apache.bookkeeper.util.collections.ConcurrentLongHashSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,6 +48,15 @@ import org.slf4j.LoggerFactory;
  *
  * <p>For each ledger multiple entries are stored in the same "record", represented
  * by the {@link LedgerIndexPage} class.
+ *
+ * <p>When enabled, the index keeps the last entry of each ledger it has seen, so that the lookups of the entries
+ * not written yet, e.g. by the long-poll readers, don't need to query the storage. For the ledgers that had no
+ * entries in the storage when first seen, a Bloom filter of their entries also short-circuits the lookups of the
+ * entries stored by the other bookies of the ensemble.
+ *
+ * <p>The watermarks not used since the previous cleanup of the deleted ledgers are dropped, and all of them once
+ * there are more than {@link DbLedgerStorage#ENTRY_LOCATION_WATERMARK_MAX_LEDGERS}. The Bloom filter is rebuilt
+ * from the storage once half of its entries belong to ledgers no longer tracked.
  */
 public class EntryLocationIndex implements Closeable {
 
@@ -50,10 +65,42 @@ public class EntryLocationIndex implements Closeable {
     private final EntryLocationIndexStats stats;
     private boolean isCompacting;
 
+    // Null when the last entries are not tracked
+    private final ConcurrentLongHashMap<LedgerWatermark> watermarks;
+    private final long maxWatermarks;
+    // Null when disabled
+    private volatile EntryBloomFilter bloomFilter;
+    private final long bloomFilterSize;
+    // Filter being rebuilt, which gets the entries added in the meantime as well
+    private volatile EntryBloomFilter rebuildingBloomFilter = null;
+    // Entries in the filter of the ledgers whose watermark was dropped
+    private final LongAdder staleBloomFilterEntries = new LongAdder();
+
+    // Batches not flushed or closed yet. A watermark loaded again from the storage, or a filter rebuilt from it,
+    // would miss their entries, so the watermarks are only dropped and the filter rebuilt when there's none
+    private final Object pendingBatchesLock = new Object();
+    private int pendingBatches = 0;
+
     public EntryLocationIndex(ServerConfiguration conf, KeyValueStorageFactory storageFactory, String basePath,
             StatsLogger stats) throws IOException {
         locationsDb = storageFactory.newKeyValueStorage(basePath, "locations", DbConfigType.EntryLocation, conf);
 
+        if (conf.getBoolean(DbLedgerStorage.ENTRY_LOCATION_WATERMARK_ENABLED, false)) {
+            watermarks = ConcurrentLongHashMap.<LedgerWatermark>newBuilder()
+                    .expectedItems(1024)
+                    .concurrencyLevel(Runtime.getRuntime().availableProcessors() * 2)
+                    .build();
+            maxWatermarks = conf.getLong(DbLedgerStorage.ENTRY_LOCATION_WATERMARK_MAX_LEDGERS,
+                    DbLedgerStorage.DEFAULT_ENTRY_LOCATION_WATERMARK_MAX_LEDGERS);
+            bloomFilterSize = conf.getLong(DbLedgerStorage.ENTRY_LOCATION_BLOOM_FILTER_SIZE_MB, 0) * 1024 * 1024;
+            bloomFilter = bloomFilterSize > 0 ? new EntryBloomFilter(bloomFilterSize) : null;
+        } else {
+            watermarks = null;
+            maxWatermarks = 0;
+            bloomFilterSize = 0;
+            bloomFilter = null;
+        }
+
         this.stats = new EntryLocationIndexStats(
             stats,
             () -> {
@@ -71,6 +118,18 @@ public class EntryLocationIndex implements Closeable {
     }
 
     public long getLocation(long ledgerId, long entryId) throws IOException {
+        LedgerWatermark watermark = getWatermark(ledgerId);
+        if (watermark != null && entryId >= 0) {
+            if (entryId > watermark.lastEntryId) {
+                stats.getWatermarkSkippedLookupsCounter().inc();
+                return 0;
+            }
+            if (watermark.complete && bloomFilter != null && !bloomFilter.mightContain(ledgerId, entryId)) {
+                stats.getBloomFilterSkippedLookupsCounter().inc();
+                return 0;
+            }
+        }
+
         LongPairWrapper key = LongPairWrapper.get(ledgerId, entryId);
         LongWrapper value = LongWrapper.get();
 
@@ -98,6 +157,52 @@ public class EntryLocationIndex implements Closeable {
         }
     }
 
+    /**
+     * Get the locations of all the entries in the range {@code [firstEntryId, lastEntryId]} of a ledger, with a
+     * single scan of the index.
+     *
+     * @return an array with the location of each entry of the range, or 0 for the entries not found in the index
+     */
+    public long[] getLocations(long ledgerId, long firstEntryId, long lastEntryId) throws IOException {
+        checkArgument(firstEntryId >= 0 && lastEntryId >= firstEntryId
+                && lastEntryId - firstEntryId < Integer.MAX_VALUE,
+                "Invalid entries range [%s, %s]", firstEntryId, lastEntryId);
+        long[] locations = new long[(int) (lastEntryId - firstEntryId + 1)];
+        LedgerWatermark watermark = getWatermark(ledgerId);
+        if (watermark != null) {
+            if (firstEntryId > watermark.lastEntryId) {
+                stats.getWatermarkSkippedLookupsCounter().inc();
+                return locations;
+            }
+            // No need to scan past the last entry
+            lastEntryId = Math.min(lastEntryId, watermark.lastEntryId);
+        }
+        LongPairWrapper firstKey = LongPairWrapper.get(ledgerId, firstEntryId);
+        LongPairWrapper lastKey = LongPairWrapper.get(ledgerId, lastEntryId + 1);
+
+        long startTimeNanos = MathUtils.nowInNano();
+        boolean operationSuccess = false;
+        try (CloseableIterator<Entry<byte[], byte[]>> iterator = locationsDb.iterator(firstKey.array, lastKey.array)) {
+            while (iterator.hasNext()) {
+                Entry<byte[], byte[]> entry = iterator.next();
+                long entryId = ArrayUtil.getLong(entry.getKey(), 8);
+                locations[(int) (entryId - firstEntryId)] = ArrayUtil.getLong(entry.getValue(), 0);
+            }
+            operationSuccess = true;
+            return locations;
+        } finally {
+            firstKey.recycle();
+            lastKey.recycle();
+            if (operationSuccess) {
+                stats.getLookupEntryLocationRangeStats()
+                        .registerSuccessfulEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+            } else {
+                stats.getLookupEntryLocationRangeStats()
+                        .registerFailedEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
     public long getLastEntryInLedger(long ledgerId) throws IOException {
         if (deletedLedgers.contains(ledgerId)) {
             // Ledger already deleted
@@ -139,17 +244,38 @@ public class EntryLocationIndex implements Closeable {
     }
 
     public void addLocation(long ledgerId, long entryId, long location) throws IOException {
-        Batch batch = locationsDb.newBatch();
+        Batch batch = newBatch();
         addLocation(batch, ledgerId, entryId, location);
         batch.flush();
         batch.close();
     }
 
     public Batch newBatch() {
-        return locationsDb.newBatch();
+        if (watermarks == null) {
+            return locationsDb.newBatch();
+        }
+        synchronized (pendingBatchesLock) {
+            pendingBatches++;
+        }
+        return new PendingBatch(locationsDb.newBatch());
     }
 
     public void addLocation(Batch batch, long ledgerId, long entryId, long location) throws IOException {
+        // The watermark must cover the entry before it can be read from the storage
+        LedgerWatermark watermark = getWatermark(ledgerId);
+        if (watermark != null) {
+            watermark.advance(entryId);
+            // Read before the current filter, which is replaced before the rebuilding one is cleared
+            EntryBloomFilter rebuilding = rebuildingBloomFilter;
+            EntryBloomFilter current = bloomFilter;
+            if (current != null) {
+                current.add(ledgerId, entryId);
+            }
+            if (rebuilding != null && rebuilding != current) {
+                rebuilding.add(ledgerId, entryId);
+            }
+        }
+
         LongPairWrapper key = LongPairWrapper.get(ledgerId, entryId);
         LongWrapper value = LongWrapper.get(location);
 
@@ -188,6 +314,9 @@ public class EntryLocationIndex implements Closeable {
         // We need to find all the LedgerIndexPage records belonging to one specific
         // ledgers
         deletedLedgers.add(ledgerId);
+        if (watermarks != null) {
+            dropped(watermarks.remove(ledgerId));
+        }
     }
 
     public String getEntryLocationDBPath() {
@@ -208,6 +337,10 @@ public class EntryLocationIndex implements Closeable {
     }
 
     public void removeOffsetFromDeletedLedgers() throws IOException {
+        if (watermarks != null) {
+            expireWatermarks();
+        }
+
         LongPairWrapper firstKeyWrapper = LongPairWrapper.get(-1, -1);
         LongPairWrapper lastKeyWrapper = LongPairWrapper.get(-1, -1);
 
@@ -235,6 +368,9 @@ public class EntryLocationIndex implements Closeable {
             batch.flush();
             for (long ledgerId : ledgersToDelete) {
                 deletedLedgers.remove(ledgerId);
+                if (watermarks != null) {
+                    dropped(watermarks.remove(ledgerId));
+                }
             }
         } finally {
             firstKeyWrapper.recycle();
@@ -245,5 +381,206 @@ public class EntryLocationIndex implements Closeable {
                 TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) / 1000.0);
     }
 
+    /**
+     * Get the watermark of a ledger, loading it from the storage when the ledger is first seen.
+     *
+     * @return null if the watermarks are disabled
+     */
+    private LedgerWatermark getWatermark(long ledgerId) throws IOException {
+        if (watermarks == null) {
+            return null;
+        }
+        LedgerWatermark watermark = watermarks.get(ledgerId);
+        if (watermark != null) {
+            if (!watermark.used) {
+                watermark.used = true;
+            }
+            return watermark;
+        }
+
+        // Every entry added from now on goes through the watermark returned by computeIfAbsent, so the entries
+        // missed by this lookup are accounted for, even if another thread creates the watermark first
+        LedgerWatermark loaded;
+        try {
+            loaded = new LedgerWatermark(getLastEntryInLedgerInternal(ledgerId), false);
+        } catch (Bookie.NoEntryException e) {
+            // All the entries of the ledger will go through the bloom filter
+            loaded = new LedgerWatermark(-1, true);
+        }
+        final LedgerWatermark newWatermark = loaded;
+        return watermarks.computeIfAbsent(ledgerId, l -> newWatermark);
+    }
+
+    /**
+     * Drop the watermarks not used since the previous call, or all of them if there are too many, then rebuild the
+     * bloom filter if half of it is stale.
+     */
+    @VisibleForTesting
+    void expireWatermarks() throws IOException {
+        synchronized (pendingBatchesLock) {
+            if (pendingBatches > 0) {
+                return;
+            }
+            boolean dropAll = watermarks.size() > maxWatermarks;
+            int dropped = watermarks.removeIf((ledgerId, watermark) -> {
+                if (dropAll || !watermark.used) {
+                    dropped(watermark);
+                    return true;
+                }
+                watermark.used = false;
+                return false;
+            });
+            if (dropped > 0) {
+                log.info("Dropped the watermarks of {} ledgers, {} left", dropped, watermarks.size());
+            }
+        }
+
+        if (bloomFilter != null) {
+            long liveEntries = 0;
+            for (long ledgerId : watermarks.keys()) {
+                LedgerWatermark watermark = watermarks.get(ledgerId);
+                if (watermark != null && watermark.complete) {
+                    liveEntries += watermark.lastEntryId + 1;
+                }
+            }
+            long staleEntries = staleBloomFilterEntries.sum();
+            if (staleEntries > 0 && staleEntries >= liveEntries) {
+                rebuildBloomFilter();
+            }
+        }
+    }
+
+    /**
+     * Replace the bloom filter with one holding only the entries of the ledgers still tracked, read from the storage.
+     */
+    @VisibleForTesting
+    void rebuildBloomFilter() throws IOException {
+        long startTime = System.nanoTime();
+        long staleEntries = staleBloomFilterEntries.sum();
+        EntryBloomFilter newFilter = new EntryBloomFilter(bloomFilterSize);
+        synchronized (pendingBatchesLock) {
+            if (pendingBatches > 0) {
+                return;
+            }
+            // All the entries added before are in the storage, the ones added from now on go to both filters
+            rebuildingBloomFilter = newFilter;
+        }
+
+        long entries = 0;
+        LongPairWrapper firstKey = LongPairWrapper.get(-1, -1);
+        LongPairWrapper lastKey = LongPairWrapper.get(-1, -1);
+        try {
+            for (long ledgerId : watermarks.keys()) {
+                LedgerWatermark watermark = watermarks.get(ledgerId);
+                if (watermark == null || !watermark.complete) {
+                    continue;
+                }
+                firstKey.set(ledgerId, 0);
+                lastKey.set(ledgerId, Long.MAX_VALUE);
+                try (CloseableIterator<byte[]> keys = locationsDb.keys(firstKey.array, lastKey.array)) {
+                    while (keys.hasNext()) {
+                        newFilter.add(ledgerId, ArrayUtil.getLong(keys.next(), 8));
+                        entries++;
+                    }
+                }
+            }
+            bloomFilter = newFilter;
+            staleBloomFilterEntries.add(-staleEntries);
+        } finally {
+            rebuildingBloomFilter = null;
+            firstKey.recycle();
+            lastKey.recycle();
+        }
+
+        log.info("Rebuilt the entry location bloom filter with {} entries in {} ms, dropping {} stale entries",
+                entries, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime), staleEntries);
+    }
+
+    @VisibleForTesting
+    EntryBloomFilter getBloomFilter() {
+        return bloomFilter;
+    }
+
+    @VisibleForTesting
+    long getWatermarksCount() {
+        return watermarks == null ? 0 : watermarks.size();
+    }
+
+    private void dropped(LedgerWatermark watermark) {
+        if (watermark != null && watermark.complete) {
+            staleBloomFilterEntries.add(watermark.lastEntryId + 1);
+        }
+    }
+
+    /**
+     * Batch counted as pending until closed.
+     */
+    private class PendingBatch implements Batch {
+        private final Batch batch;
+        private boolean closed = false;
+
+        PendingBatch(Batch batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public void put(byte[] key, byte[] value) throws IOException {
+            batch.put(key, value);
+        }
+
+        @Override
+        public void remove(byte[] key) throws IOException {
+            batch.remove(key);
+        }
+
+        @Override
+        public void deleteRange(byte[] beginKey, byte[] endKey) throws IOException {
+            batch.deleteRange(beginKey, endKey);
+        }
+
+        @Override
+        public void clear() {
+            batch.clear();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            batch.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            batch.close();
+            if (!closed) {
+                closed = true;
+                synchronized (pendingBatchesLock) {
+                    pendingBatches--;
+                }
+            }
+        }
+    }
+
+    /**
+     * An upper bound of the entry ids of a ledger stored in the index.
+     */
+    private static class LedgerWatermark {
+        volatile long lastEntryId;
+        // Whether all the entries of the ledger were added to the bloom filter
+        final boolean complete;
+        // Whether the watermark was used since the last expiration
+        volatile boolean used = true;
+
+        LedgerWatermark(long lastEntryId, boolean complete) {
+            this.lastEntryId = lastEntryId;
+            this.complete = complete;
+        }
+
+        synchronized void advance(long entryId) {
+            if (entryId > lastEntryId) {
+                lastEntryId = entryId;
+            }
+        }
+    }
+
     private static final Logger log = LoggerFactory.getLogger(EntryLocationIndex.class);
 }
@@ -24,6 +24,7 @@ import static org.apache.bookkeeper.bookie.BookKeeperServerStats.CATEGORY_SERVER
 
 import java.util.function.Supplier;
 import lombok.Getter;
+import org.apache.bookkeeper.stats.Counter;
 import org.apache.bookkeeper.stats.Gauge;
 import org.apache.bookkeeper.stats.OpStatsLogger;
 import org.apache.bookkeeper.stats.StatsLogger;
@@ -42,6 +43,9 @@ class EntryLocationIndexStats {
 
     private static final String ENTRIES_COUNT = "entries-count";
     private static final String LOOKUP_ENTRY_LOCATION = "lookup-entry-location";
+    private static final String LOOKUP_ENTRY_LOCATION_RANGE = "lookup-entry-location-range";
+    private static final String LOOKUP_SKIPPED_WATERMARK = "lookup-entry-location-skipped-watermark";
+    private static final String LOOKUP_SKIPPED_BLOOM_FILTER = "lookup-entry-location-skipped-bloom-filter";
 
     @StatsDoc(
         name = ENTRIES_COUNT,
@@ -55,6 +59,24 @@ class EntryLocationIndexStats {
     )
     private final OpStatsLogger lookupEntryLocationStats;
 
+    @StatsDoc(
+            name = LOOKUP_ENTRY_LOCATION_RANGE,
+            help = "operation stats of looking up the locations of a range of entries"
+    )
+    private final OpStatsLogger lookupEntryLocationRangeStats;
+
+    @StatsDoc(
+            name = LOOKUP_SKIPPED_WATERMARK,
+            help = "lookups of entries after the last entry of the ledger, answered without querying the index"
+    )
+    private final Counter watermarkSkippedLookupsCounter;
+
+    @StatsDoc(
+            name = LOOKUP_SKIPPED_BLOOM_FILTER,
+            help = "lookups of entries missing from the bloom filter, answered without querying the index"
+    )
+    private final Counter bloomFilterSkippedLookupsCounter;
+
     EntryLocationIndexStats(StatsLogger statsLogger,
                             Supplier<Long> entriesCountSupplier) {
         entriesCountGauge = new Gauge<Long>() {
@@ -70,6 +92,9 @@ class EntryLocationIndexStats {
         };
         statsLogger.registerGauge(ENTRIES_COUNT, entriesCountGauge);
         lookupEntryLocationStats = statsLogger.getOpStatsLogger(LOOKUP_ENTRY_LOCATION);
+        lookupEntryLocationRangeStats = statsLogger.getOpStatsLogger(LOOKUP_ENTRY_LOCATION_RANGE);
+        watermarkSkippedLookupsCounter = statsLogger.getCounter(LOOKUP_SKIPPED_WATERMARK);
+        bloomFilterSkippedLookupsCounter = statsLogger.getCounter(LOOKUP_SKIPPED_BLOOM_FILTER);
     }
 
 }
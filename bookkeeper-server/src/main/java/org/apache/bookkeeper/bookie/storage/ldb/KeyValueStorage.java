@@ -142,6 +142,19 @@ public interface KeyValueStorage extends Closeable {
      */
     CloseableIterator<Entry<byte[], byte[]>> iterator();
 
+    /**
+     * Return an iterator object that can be used to sequentially scan through all
+     * the entries within a specified range.
+     *
+     * <p>Implementations position on the first key only once instead of looking up each key.
+     *
+     * @param firstKey
+     *            the first key in the range (included)
+     * @param lastKey
+     *            the lastKey in the range (not included)
+     */
+    CloseableIterator<Entry<byte[], byte[]>> iterator(byte[] firstKey, byte[] lastKey);
+
     /**
      * Commit all pending write to durable storage.
      */
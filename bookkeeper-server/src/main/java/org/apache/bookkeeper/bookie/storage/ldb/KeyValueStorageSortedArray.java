@@ -0,0 +1,1093 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static com.google.common.base.Preconditions.checkState;
+import static org.apache.bookkeeper.bookie.storage.ldb.SortedArraySegment.DELETED;
+import static org.apache.bookkeeper.bookie.storage.ldb.SortedArraySegment.NONE;
+import static org.apache.bookkeeper.bookie.storage.ldb.SortedArraySegment.NOT_FOUND;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorageFactory.DbConfigType;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap;
+import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap.LongPair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * KeyValueStorage for the entry locations index that keeps per-ledger location arrays in immutable,
+ * memory-mapped segment files instead of a LSM tree.
+ *
+ * <p>Keys must be {@code (ledgerId, entryId)} pairs and values must be 8 bytes locations, as used by
+ * {@link EntryLocationIndex}. Each flushed batch becomes a new {@link SortedArraySegment}. Since entries of a
+ * ledger are nearly always dense, a segment stores a plain array of locations indexed by entry id for each ledger,
+ * falling back to a sorted sparse array only when the ledger has too many gaps.
+ *
+ * <p>Lookups go through the segments from the newest to the oldest one. When the number of segments exceeds
+ * {@link #MAX_SEGMENTS}, the oldest segments are merged in background, without blocking the writers.
+ *
+ * <p>Single puts and deletes are buffered in a memtable, and only written as a segment on {@link #sync()}, before
+ * a batch or a range read, or once the memtable is full. Like RocksDB writes without sync, they are not durable
+ * until then.
+ */
+public class KeyValueStorageSortedArray implements KeyValueStorage {
+
+    static KeyValueStorageFactory factory = (defaultBasePath, subPath, dbConfigType, conf) ->
+            new KeyValueStorageSortedArray(defaultBasePath, subPath, dbConfigType, conf);
+
+    static final String MAX_SEGMENTS = "dbStorage_sortedArrayIndexMaxSegments";
+    static final String MAX_SEGMENT_SIZE_MB = "dbStorage_sortedArrayIndexMaxSegmentSizeMB";
+    static final String MAX_DENSE_GAP_RATIO = "dbStorage_sortedArrayIndexMaxDenseGapRatio";
+
+    private static final int DEFAULT_MAX_SEGMENTS = 16;
+    private static final long DEFAULT_MAX_SEGMENT_SIZE_MB = 1024;
+    private static final int DEFAULT_MAX_DENSE_GAP_RATIO = 2;
+
+    static final int MAX_MEMTABLE_ENTRIES = 64 * 1024;
+
+    private static final String SEGMENT_SUFFIX = ".sidx";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final Pattern SEGMENT_NAME = Pattern.compile("([0-9a-f]{16})-([0-9a-f]{16})\\.sidx");
+
+    private final File dbDir;
+    private final int maxSegments;
+    private final long maxSegmentSize;
+    private final int maxDenseGapRatio;
+
+    // Oldest segment first. Readers only take a snapshot of the array
+    private volatile SortedArraySegment[] segments;
+    private long nextSeq;
+
+    // Serializes the segments being appended by flushes
+    private final ReentrantLock flushLock = new ReentrantLock();
+    // Serializes the merges, which replace the oldest segments
+    private final ReentrantLock mergeLock = new ReentrantLock();
+    private final AtomicBoolean isMergeScheduled = new AtomicBoolean(false);
+    private final ExecutorService mergeExecutor;
+
+    // Single puts and deletes not written yet, with (location, deleted) values. Replaced under the lock when
+    // written out, the one being written stays visible to the readers until its segment is added
+    private final Object memtableLock = new Object();
+    private volatile ConcurrentLongLongPairHashMap memtable = newMemtable();
+    private volatile ConcurrentLongLongPairHashMap flushingMemtable = null;
+
+    public KeyValueStorageSortedArray(String basePath, String subPath, DbConfigType dbConfigType,
+                                      ServerConfiguration conf) throws IOException {
+        this.dbDir = new File(basePath, subPath);
+        this.maxSegments = Math.max(2, conf.getInt(MAX_SEGMENTS, DEFAULT_MAX_SEGMENTS));
+        this.maxSegmentSize = Math.min(Integer.MAX_VALUE,
+                DbLedgerStorage.getLongVariableOrDefault(conf, MAX_SEGMENT_SIZE_MB, DEFAULT_MAX_SEGMENT_SIZE_MB)
+                        * 1024 * 1024);
+        this.maxDenseGapRatio = Math.max(1, conf.getInt(MAX_DENSE_GAP_RATIO, DEFAULT_MAX_DENSE_GAP_RATIO));
+
+        if (new File(dbDir, "CURRENT").exists()) {
+            throw new IOException("Directory " + dbDir + " contains a RocksDB locations index. It needs to be"
+                    + " migrated with `bookkeeper shell rebuild-db-ledger-locations-index --migrate`");
+        }
+        Files.createDirectories(dbDir.toPath());
+
+        this.segments = loadSegments();
+        this.nextSeq = segments.length == 0 ? 0 : segments[segments.length - 1].getLastSeq() + 1;
+        this.mergeExecutor = Executors.newSingleThreadExecutor(new DefaultThreadFactory("locations-index-merge"));
+
+        log.info("Opened sorted-array locations index at {} with {} segments", dbDir, segments.length);
+    }
+
+    private SortedArraySegment[] loadSegments() throws IOException {
+        List<long[]> ranges = new ArrayList<>();
+        File[] files = dbDir.listFiles();
+        if (files == null) {
+            throw new IOException("Failed to list locations index directory " + dbDir);
+        }
+
+        for (File file : files) {
+            if (file.getName().endsWith(TMP_SUFFIX)) {
+                // Leftover of an interrupted flush or merge
+                Files.deleteIfExists(file.toPath());
+                continue;
+            }
+            Matcher m = SEGMENT_NAME.matcher(file.getName());
+            if (m.matches()) {
+                ranges.add(new long[] {
+                        Long.parseUnsignedLong(m.group(1), 16), Long.parseUnsignedLong(m.group(2), 16) });
+            }
+        }
+
+        // A merged segment covers the sequence range of all the segments it replaced. If the merge was
+        // interrupted before the old segments were removed, they are obsolete and can be dropped now.
+        ranges.sort(Comparator.<long[]>comparingLong(r -> r[0]).thenComparingLong(r -> -r[1]));
+        List<SortedArraySegment> loaded = new ArrayList<>();
+        long lastSeq = -1;
+        for (long[] range : ranges) {
+            File file = segmentFile(range[0], range[1]);
+            if (range[1] <= lastSeq) {
+                log.info("Removing obsolete locations index segment {}", file);
+                Files.deleteIfExists(file.toPath());
+                continue;
+            }
+            loaded.add(new SortedArraySegment(file, range[0], range[1]));
+            lastSeq = range[1];
+        }
+        return loaded.toArray(new SortedArraySegment[0]);
+    }
+
+    private File segmentFile(long firstSeq, long lastSeq) {
+        return new File(dbDir, String.format("%016x-%016x%s", firstSeq, lastSeq, SEGMENT_SUFFIX));
+    }
+
+    @Override
+    public void close() throws IOException {
+        flushMemtable();
+        mergeExecutor.shutdown();
+        try {
+            if (!mergeExecutor.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("Timed out waiting for locations index merge to complete");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing locations index", e);
+        }
+    }
+
+    @Override
+    public void put(byte[] key, byte[] value) throws IOException {
+        checkKey(key);
+        checkValue(value);
+        addToMemtable(ArrayUtil.getLong(key, 0), ArrayUtil.getLong(key, 8), ArrayUtil.getLong(value, 0), false);
+    }
+
+    @Override
+    public byte[] get(byte[] key) throws IOException {
+        byte[] value = new byte[Long.BYTES];
+        return get(key, value) < 0 ? null : value;
+    }
+
+    @Override
+    public int get(byte[] key, byte[] value) throws IOException {
+        checkKey(key);
+        if (value.length < Long.BYTES) {
+            throw new IOException("Value array is too small to fit the result");
+        }
+
+        long ledgerId = ArrayUtil.getLong(key, 0);
+        long entryId = ArrayUtil.getLong(key, 8);
+        long location = lookupMemtable(ledgerId, entryId);
+        if (location == NONE) {
+            location = lookup(segments, ledgerId, entryId);
+        }
+        if (location == NOT_FOUND) {
+            return -1;
+        }
+        ArrayUtil.setLong(value, 0, location);
+        return Long.BYTES;
+    }
+
+    private static long lookup(SortedArraySegment[] snapshot, long ledgerId, long entryId) {
+        for (int i = snapshot.length - 1; i >= 0; i--) {
+            SortedArraySegment segment = snapshot[i];
+            long location = segment.get(ledgerId, entryId);
+            if (location == DELETED) {
+                return NOT_FOUND;
+            } else if (location != NOT_FOUND) {
+                return location;
+            } else if (segment.deletedRangeStart(ledgerId, entryId) != NONE) {
+                return NOT_FOUND;
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    @Override
+    public Entry<byte[], byte[]> getFloor(byte[] key) throws IOException {
+        checkKey(key);
+        flushMemtable();
+        SortedArraySegment[] snapshot = segments;
+        long ledgerId = ArrayUtil.getLong(key, 0);
+        long bound = ArrayUtil.getLong(key, 8);
+
+        while (true) {
+            long entryId = lastLiveEntry(snapshot, ledgerId, bound);
+            if (entryId != NONE) {
+                return newEntry(ledgerId, entryId, lookup(snapshot, ledgerId, entryId));
+            }
+
+            long lowerLedgerId = NONE;
+            for (SortedArraySegment segment : snapshot) {
+                lowerLedgerId = Math.max(lowerLedgerId, segment.lowerLedger(ledgerId));
+            }
+            if (lowerLedgerId == NONE) {
+                return null;
+            }
+            ledgerId = lowerLedgerId;
+            bound = Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Find the biggest entry id lower than {@code bound} that has a live location for the ledger.
+     */
+    private static long lastLiveEntry(SortedArraySegment[] snapshot, long ledgerId, long bound) {
+        // Each segment has its own upper bound, since a tombstone only hides the entries of older segments
+        int[] ledgerIdxs = new int[snapshot.length];
+        long[] bounds = new long[snapshot.length];
+        for (int i = 0; i < snapshot.length; i++) {
+            ledgerIdxs[i] = snapshot[i].findLedger(ledgerId);
+            bounds[i] = bound;
+        }
+
+        while (true) {
+            long candidate = NONE;
+            for (int i = 0; i < snapshot.length; i++) {
+                if (ledgerIdxs[i] >= 0) {
+                    candidate = Math.max(candidate, snapshot[i].floorEntry(ledgerIdxs[i], bounds[i]));
+                }
+            }
+            if (candidate == NONE) {
+                return NONE;
+            }
+
+            // Check that the candidate was not deleted by a newer segment
+            int tombstoneIdx = -1;
+            long deletedRangeStart = NONE;
+            for (int i = snapshot.length - 1; i >= 0; i--) {
+                long location = snapshot[i].get(ledgerId, candidate);
+                if (location == DELETED) {
+                    break;
+                } else if (location != NOT_FOUND) {
+                    return candidate;
+                }
+
+                deletedRangeStart = snapshot[i].deletedRangeStart(ledgerId, candidate);
+                if (deletedRangeStart != NONE) {
+                    tombstoneIdx = i;
+                    break;
+                }
+            }
+
+            for (int i = 0; i < snapshot.length; i++) {
+                // Skip the whole deleted range in the segments older than the tombstone
+                bounds[i] = Math.min(bounds[i], i < tombstoneIdx ? deletedRangeStart : candidate);
+            }
+        }
+    }
+
+    @Override
+    public Entry<byte[], byte[]> getCeil(byte[] key) throws IOException {
+        checkKey(key);
+        flushMemtable();
+        try (LiveEntriesIterator iterator = new LiveEntriesIterator(segments,
+                ArrayUtil.getLong(key, 0), ArrayUtil.getLong(key, 8), Long.MAX_VALUE, Long.MAX_VALUE)) {
+            if (!iterator.hasNext()) {
+                return null;
+            }
+            iterator.advance();
+            return newEntry(iterator.ledgerId, iterator.entryId, iterator.location);
+        }
+    }
+
+    @Override
+    public void delete(byte[] key) throws IOException {
+        checkKey(key);
+        addToMemtable(ArrayUtil.getLong(key, 0), ArrayUtil.getLong(key, 8), NOT_FOUND, true);
+    }
+
+    /**
+     * Merge all the segments into a single one, dropping deleted entries.
+     */
+    @Override
+    public void compact() throws IOException {
+        try {
+            mergeExecutor.submit(() -> {
+                merge(Integer.MAX_VALUE);
+                return null;
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compacting locations index", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to compact locations index", e.getCause());
+        }
+    }
+
+    @Override
+    public void compact(byte[] firstKey, byte[] lastKey) throws IOException {
+        compact();
+    }
+
+    @Override
+    public String getDBPath() {
+        return dbDir.toString();
+    }
+
+    @Override
+    public CloseableIterator<byte[]> keys() {
+        return keys(Long.MIN_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    @Override
+    public CloseableIterator<byte[]> keys(byte[] firstKey, byte[] lastKey) {
+        return keys(ArrayUtil.getLong(firstKey, 0), ArrayUtil.getLong(firstKey, 8),
+                ArrayUtil.getLong(lastKey, 0), ArrayUtil.getLong(lastKey, 8));
+    }
+
+    private CloseableIterator<byte[]> keys(long firstLedgerId, long firstEntryId, long lastLedgerId,
+                                           long lastEntryId) {
+        return new RangeIterator<byte[]>(firstLedgerId, firstEntryId, lastLedgerId, lastEntryId) {
+            @Override
+            byte[] next(LiveEntriesIterator iterator) {
+                byte[] key = new byte[16];
+                ArrayUtil.setLong(key, 0, iterator.ledgerId);
+                ArrayUtil.setLong(key, 8, iterator.entryId);
+                return key;
+            }
+        };
+    }
+
+    @Override
+    public CloseableIterator<Entry<byte[], byte[]>> iterator() {
+        return entries(Long.MIN_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    @Override
+    public CloseableIterator<Entry<byte[], byte[]>> iterator(byte[] firstKey, byte[] lastKey) {
+        return entries(ArrayUtil.getLong(firstKey, 0), ArrayUtil.getLong(firstKey, 8),
+                ArrayUtil.getLong(lastKey, 0), ArrayUtil.getLong(lastKey, 8));
+    }
+
+    private CloseableIterator<Entry<byte[], byte[]>> entries(long firstLedgerId, long firstEntryId,
+                                                             long lastLedgerId, long lastEntryId) {
+        return new RangeIterator<Entry<byte[], byte[]>>(firstLedgerId, firstEntryId, lastLedgerId, lastEntryId) {
+            @Override
+            Entry<byte[], byte[]> next(LiveEntriesIterator iterator) {
+                return newEntry(iterator.ledgerId, iterator.entryId, iterator.location);
+            }
+        };
+    }
+
+    /**
+     * Iterator over the live entries of a key range. The snapshot of the segments is taken on the first call, once
+     * the memtable was written out.
+     */
+    private abstract class RangeIterator<T> implements CloseableIterator<T> {
+        private final long firstLedgerId;
+        private final long firstEntryId;
+        private final long lastLedgerId;
+        private final long lastEntryId;
+        private LiveEntriesIterator iterator;
+
+        RangeIterator(long firstLedgerId, long firstEntryId, long lastLedgerId, long lastEntryId) {
+            this.firstLedgerId = firstLedgerId;
+            this.firstEntryId = firstEntryId;
+            this.lastLedgerId = lastLedgerId;
+            this.lastEntryId = lastEntryId;
+        }
+
+        abstract T next(LiveEntriesIterator iterator);
+
+        private LiveEntriesIterator iterator() throws IOException {
+            if (iterator == null) {
+                flushMemtable();
+                iterator = new LiveEntriesIterator(segments, firstLedgerId, firstEntryId, lastLedgerId, lastEntryId);
+            }
+            return iterator;
+        }
+
+        @Override
+        public boolean hasNext() throws IOException {
+            return iterator().hasNext();
+        }
+
+        @Override
+        public T next() throws IOException {
+            LiveEntriesIterator iterator = iterator();
+            iterator.advance();
+            return next(iterator);
+        }
+
+        @Override
+        public void close() {
+            if (iterator != null) {
+                iterator.close();
+            }
+        }
+    }
+
+    /**
+     * Write out the single puts and deletes buffered in the memtable. Segments are fsynced when written and the
+     * directory is fsynced once they are renamed in place, so a flushed batch is already durable.
+     */
+    @Override
+    public void sync() throws IOException {
+        flushMemtable();
+    }
+
+    /**
+     * @return the number of locations stored in all the segments. As with RocksDB, this is an estimation since
+     *         overwritten and deleted entries are counted until the segments get merged.
+     */
+    @Override
+    public long count() throws IOException {
+        long count = memtable.size();
+        for (SortedArraySegment segment : segments) {
+            count += segment.getEntriesCount();
+        }
+        return count;
+    }
+
+    @Override
+    public Batch newBatch() {
+        return new SortedArrayBatch();
+    }
+
+    int getSegmentsCount() {
+        return segments.length;
+    }
+
+    private static Entry<byte[], byte[]> newEntry(long ledgerId, long entryId, long location) {
+        byte[] key = new byte[16];
+        ArrayUtil.setLong(key, 0, ledgerId);
+        ArrayUtil.setLong(key, 8, entryId);
+        byte[] value = new byte[Long.BYTES];
+        ArrayUtil.setLong(value, 0, location);
+        return new SimpleImmutableEntry<>(key, value);
+    }
+
+    private static void checkKey(byte[] key) throws IOException {
+        if (key.length != 16) {
+            throw new IOException("Sorted-array index only supports (ledgerId, entryId) keys");
+        }
+    }
+
+    private static void checkValue(byte[] value) throws IOException {
+        if (value.length != Long.BYTES) {
+            throw new IOException("Sorted-array index only supports 8 bytes values");
+        }
+    }
+
+    private static ConcurrentLongLongPairHashMap newMemtable() {
+        return ConcurrentLongLongPairHashMap.newBuilder()
+                .expectedItems(1024)
+                .concurrencyLevel(1)
+                .build();
+    }
+
+    private void addToMemtable(long ledgerId, long entryId, long location, boolean deleted) throws IOException {
+        long size;
+        synchronized (memtableLock) {
+            memtable.put(ledgerId, entryId, location, deleted ? 1 : 0);
+            size = memtable.size();
+        }
+        if (size >= MAX_MEMTABLE_ENTRIES) {
+            flushMemtable();
+        }
+    }
+
+    /**
+     * @return the location of the entry in the memtable, {@link SortedArraySegment#NOT_FOUND} if it was deleted or
+     *         {@link SortedArraySegment#NONE} if the memtable doesn't have it
+     */
+    private long lookupMemtable(long ledgerId, long entryId) {
+        if (ledgerId < 0) {
+            return NONE;
+        }
+        LongPair value = memtable.get(ledgerId, entryId);
+        if (value == null) {
+            ConcurrentLongLongPairHashMap flushing = flushingMemtable;
+            if (flushing != null) {
+                value = flushing.get(ledgerId, entryId);
+            }
+        }
+        if (value == null) {
+            return NONE;
+        }
+        return value.second != 0 ? NOT_FOUND : value.first;
+    }
+
+    /**
+     * Write the memtable as a new segment.
+     */
+    private void flushMemtable() throws IOException {
+        flushLock.lock();
+        try {
+            writeMemtable();
+        } finally {
+            flushLock.unlock();
+        }
+        scheduleMergeIfNeeded();
+    }
+
+    private void writeMemtable() throws IOException {
+        ConcurrentLongLongPairHashMap flushing;
+        synchronized (memtableLock) {
+            if (memtable.isEmpty()) {
+                return;
+            }
+            flushing = memtable;
+            flushingMemtable = flushing;
+            memtable = newMemtable();
+        }
+
+        // (ledgerId, entryId, location, seq) tuples, there is a single update per entry
+        long[] puts = new long[4 * (int) flushing.size()];
+        int[] putsSize = new int[1];
+        flushing.forEach((ledgerId, entryId, location, deleted) -> {
+            puts[putsSize[0]] = ledgerId;
+            puts[putsSize[0] + 1] = entryId;
+            puts[putsSize[0] + 2] = deleted != 0 ? DELETED : location;
+            puts[putsSize[0] + 3] = 0;
+            putsSize[0] += 4;
+        });
+        try {
+            writeSegment(puts, putsSize[0], new long[0], 0);
+        } catch (IOException e) {
+            // Put back the updates, unless they were overwritten in the meantime
+            synchronized (memtableLock) {
+                flushing.forEach(memtable::putIfAbsent);
+                flushingMemtable = null;
+            }
+            throw e;
+        }
+        flushingMemtable = null;
+    }
+
+    private void appendSegment(long[] puts, int putsSize, long[] tombstones, int tombstonesSize) throws IOException {
+        flushLock.lock();
+        try {
+            // The single updates done before the batch must be in an older segment, to be hidden by it
+            writeMemtable();
+            writeSegment(puts, putsSize, tombstones, tombstonesSize);
+        } finally {
+            flushLock.unlock();
+        }
+        scheduleMergeIfNeeded();
+    }
+
+    private void writeSegment(long[] puts, int putsSize, long[] tombstones, int tombstonesSize) throws IOException {
+        checkState(flushLock.isHeldByCurrentThread());
+        long seq = nextSeq++;
+        File file = segmentFile(seq, seq);
+        File tmpFile = new File(dbDir, file.getName() + TMP_SUFFIX);
+
+        try (SortedArraySegment.Writer writer = new SortedArraySegment.Writer(tmpFile, maxDenseGapRatio)) {
+            if (tombstonesSize > 0) {
+                ArrayGroupSort.sort(tombstones, 0, tombstonesSize);
+                for (int i = 0; i < tombstonesSize; i += 4) {
+                    writer.addTombstone(tombstones[i], tombstones[i + 1], tombstones[i + 2]);
+                }
+            }
+
+            ArrayGroupSort.sort(puts, 0, putsSize);
+            writeLedgers(writer, puts, putsSize);
+            writer.finish();
+        }
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+
+        SortedArraySegment segment = new SortedArraySegment(file, seq, seq);
+        synchronized (this) {
+            SortedArraySegment[] current = segments;
+            SortedArraySegment[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = segment;
+            segments = updated;
+        }
+    }
+
+    private void scheduleMergeIfNeeded() {
+        if (segments.length > maxSegments && isMergeScheduled.compareAndSet(false, true)) {
+            mergeExecutor.execute(() -> {
+                isMergeScheduled.set(false);
+                try {
+                    merge(maxSegments / 2);
+                } catch (Throwable t) {
+                    log.warn("Failed to merge locations index segments in {}", dbDir, t);
+                }
+            });
+        }
+    }
+
+    /**
+     * Write the sorted {@code (ledgerId, entryId, location, seq)} tuples, keeping only the most recent location
+     * of each entry.
+     */
+    private static void writeLedgers(SortedArraySegment.Writer writer, long[] puts, int putsSize)
+            throws IOException {
+        long[] entryIds = new long[1024];
+        long[] locations = new long[1024];
+        int count = 0;
+        long currentLedgerId = NONE;
+        long lastSeq = NONE;
+
+        for (int i = 0; i < putsSize; i += 4) {
+            long ledgerId = puts[i];
+            long entryId = puts[i + 1];
+            if (ledgerId != currentLedgerId) {
+                writer.addLedger(currentLedgerId, entryIds, locations, count);
+                currentLedgerId = ledgerId;
+                count = 0;
+            } else if (count > 0 && entryIds[count - 1] == entryId) {
+                // Same entry added multiple times in the batch, last one wins
+                if (puts[i + 3] > lastSeq) {
+                    locations[count - 1] = puts[i + 2];
+                    lastSeq = puts[i + 3];
+                }
+                continue;
+            }
+
+            if (count == entryIds.length) {
+                entryIds = Arrays.copyOf(entryIds, count * 2);
+                locations = Arrays.copyOf(locations, count * 2);
+            }
+            entryIds[count] = entryId;
+            locations[count] = puts[i + 2];
+            lastSeq = puts[i + 3];
+            count++;
+        }
+        writer.addLedger(currentLedgerId, entryIds, locations, count);
+    }
+
+    /**
+     * Merge a run of consecutive segments into a single one.
+     *
+     * <p>A full compaction, with {@code maxSegmentsToMerge} set to {@link Integer#MAX_VALUE}, rewrites the oldest
+     * segments up to the maximum segment size. Otherwise, merges are size-tiered: segments that already reached the
+     * maximum size are left alone and only the oldest run of smaller segments is merged, so that the big segments
+     * are not rewritten over and over.
+     *
+     * <p>Tombstones and deletion markers can only be dropped when the merged segments include the oldest one, since
+     * they still have to hide the entries of the older segments otherwise.
+     */
+    void merge(int maxSegmentsToMerge) throws IOException {
+        if (maxSegmentsToMerge == Integer.MAX_VALUE) {
+            flushMemtable();
+        }
+        mergeLock.lock();
+        try {
+            SortedArraySegment[] snapshot = segments;
+            boolean fullCompaction = maxSegmentsToMerge == Integer.MAX_VALUE;
+            int start = 0;
+            int toMerge = 0;
+            long mergedSize = 0;
+            while (start < snapshot.length) {
+                toMerge = 0;
+                mergedSize = 0;
+                while (start + toMerge < snapshot.length && toMerge < maxSegmentsToMerge
+                        && (fullCompaction || snapshot[start + toMerge].getSize() < maxSegmentSize)
+                        && (toMerge < 2 || mergedSize + snapshot[start + toMerge].getSize() <= maxSegmentSize)) {
+                    mergedSize += snapshot[start + toMerge].getSize();
+                    toMerge++;
+                }
+                if (fullCompaction || toMerge >= 2) {
+                    break;
+                }
+                start += toMerge + 1;
+            }
+            if (toMerge < 2 && !(toMerge == 1 && fullCompaction)) {
+                return;
+            }
+
+            long startTime = System.nanoTime();
+            SortedArraySegment[] merging = Arrays.copyOfRange(snapshot, start, start + toMerge);
+            boolean keepDeletions = start > 0;
+            long firstSeq = merging[0].getFirstSeq();
+            long lastSeq = merging[toMerge - 1].getLastSeq();
+            File file = segmentFile(firstSeq, lastSeq);
+            File tmpFile = new File(dbDir, file.getName() + TMP_SUFFIX);
+
+            try (SortedArraySegment.Writer writer = new SortedArraySegment.Writer(tmpFile, maxDenseGapRatio);
+                 LiveEntriesIterator iterator = new LiveEntriesIterator(merging,
+                         Long.MIN_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, keepDeletions)) {
+                if (keepDeletions) {
+                    writeTombstones(writer, merging);
+                }
+                while (iterator.nextLedger()) {
+                    writer.addLedger(iterator.ledgerId, iterator.entryIds, iterator.locations, iterator.count);
+                }
+                writer.finish();
+            }
+            // When merging a single segment, this replaces it atomically
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            // The merged segment must be durable before its inputs can be removed
+            syncDirectory();
+
+            SortedArraySegment merged = new SortedArraySegment(file, firstSeq, lastSeq);
+            synchronized (this) {
+                // Flushes only append new segments, so the merged ones are still at the same position in the array
+                SortedArraySegment[] current = segments;
+                SortedArraySegment[] updated = new SortedArraySegment[current.length - toMerge + 1];
+                System.arraycopy(current, 0, updated, 0, start);
+                updated[start] = merged;
+                System.arraycopy(current, start + toMerge, updated, start + 1, current.length - start - toMerge);
+                segments = updated;
+            }
+
+            for (SortedArraySegment segment : merging) {
+                if (!segment.getFile().equals(file)) {
+                    Files.deleteIfExists(segment.getFile().toPath());
+                }
+            }
+
+            log.info("Merged {} locations index segments in {} into {} ({} bytes) in {} ms", toMerge, dbDir,
+                    file.getName(), merged.getSize(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+        } finally {
+            mergeLock.unlock();
+        }
+    }
+
+    /**
+     * Copy the tombstones of the merged segments, sorted by ledger id, since they still apply to the older segments.
+     */
+    private static void writeTombstones(SortedArraySegment.Writer writer, SortedArraySegment[] merging) {
+        int tombstonesCount = 0;
+        for (SortedArraySegment segment : merging) {
+            tombstonesCount += segment.getTombstoneCount();
+        }
+
+        long[] tombstones = new long[4 * tombstonesCount];
+        int tombstonesSize = 0;
+        for (SortedArraySegment segment : merging) {
+            tombstonesSize = segment.copyTombstones(tombstones, tombstonesSize);
+        }
+        ArrayGroupSort.sort(tombstones, 0, tombstonesSize);
+        for (int i = 0; i < tombstonesSize; i += 4) {
+            writer.addTombstone(tombstones[i], tombstones[i + 1], tombstones[i + 2]);
+        }
+    }
+
+    /**
+     * Fsync the index directory, to make the renames of the segments durable.
+     */
+    private void syncDirectory() throws IOException {
+        try (FileChannel channel = FileChannel.open(dbDir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Iterate over the live entries of a snapshot of segments, in key order.
+     *
+     * <p>Entries are resolved one ledger at a time: for each entry the location from the newest segment wins, and
+     * it is discarded if it's a deletion marker or if a newer segment has a tombstone covering it. Deletion markers
+     * are returned as well when {@code keepDeletions} is set, for merges that don't include the oldest segment.
+     */
+    private static class LiveEntriesIterator implements SortedArraySegment.EntryProcessor, AutoCloseable {
+        private final SortedArraySegment[] snapshot;
+        private final long firstLedgerId;
+        private final long firstEntryId;
+        private final long lastLedgerId;
+        private final long lastEntryId;
+        private final boolean keepDeletions;
+
+        private long nextLedgerId;
+
+        long ledgerId;
+        long[] entryIds = new long[1024];
+        long[] locations = new long[1024];
+        int count;
+        private int position;
+
+        long entryId;
+        long location;
+
+        // (entryId, segmentIdx, location, 0) tuples of the ledger being resolved
+        private long[] tuples = new long[4 * 1024];
+        private int tuplesSize;
+        private int currentSegmentIdx;
+
+        LiveEntriesIterator(SortedArraySegment[] snapshot, long firstLedgerId, long firstEntryId,
+                            long lastLedgerId, long lastEntryId) {
+            this(snapshot, firstLedgerId, firstEntryId, lastLedgerId, lastEntryId, false);
+        }
+
+        LiveEntriesIterator(SortedArraySegment[] snapshot, long firstLedgerId, long firstEntryId,
+                            long lastLedgerId, long lastEntryId, boolean keepDeletions) {
+            this.snapshot = snapshot;
+            this.firstLedgerId = firstLedgerId;
+            this.firstEntryId = firstEntryId;
+            this.lastLedgerId = lastLedgerId;
+            this.lastEntryId = lastEntryId;
+            this.keepDeletions = keepDeletions;
+
+            // Start from the first ledger in the range that exists in any segment
+            long startLedgerId = NONE;
+            for (SortedArraySegment segment : snapshot) {
+                long candidate = segment.findLedger(firstLedgerId) >= 0
+                        ? firstLedgerId : segment.higherLedger(firstLedgerId);
+                if (candidate != NONE && (startLedgerId == NONE || candidate < startLedgerId)) {
+                    startLedgerId = candidate;
+                }
+            }
+            this.nextLedgerId = startLedgerId;
+        }
+
+        boolean hasNext() {
+            while (position >= count) {
+                if (!nextLedger()) {
+                    return false;
+                }
+                position = 0;
+                if (ledgerId == firstLedgerId) {
+                    while (position < count && entryIds[position] < firstEntryId) {
+                        position++;
+                    }
+                }
+            }
+            return ledgerId < lastLedgerId || entryIds[position] < lastEntryId;
+        }
+
+        void advance() {
+            checkState(hasNext());
+            entryId = entryIds[position];
+            location = locations[position];
+            position++;
+        }
+
+        /**
+         * Resolve the live entries of the next ledger with at least one live entry.
+         */
+        boolean nextLedger() {
+            while (nextLedgerId != NONE && nextLedgerId <= lastLedgerId) {
+                ledgerId = nextLedgerId;
+                resolveLedger();
+
+                long higherLedgerId = NONE;
+                for (SortedArraySegment segment : snapshot) {
+                    long candidate = segment.higherLedger(ledgerId);
+                    if (candidate != NONE && (higherLedgerId == NONE || candidate < higherLedgerId)) {
+                        higherLedgerId = candidate;
+                    }
+                }
+                nextLedgerId = higherLedgerId;
+
+                if (count > 0) {
+                    return true;
+                }
+            }
+            count = 0;
+            return false;
+        }
+
+        private void resolveLedger() {
+            tuplesSize = 0;
+            for (int s = 0; s < snapshot.length; s++) {
+                int ledgerIdx = snapshot[s].findLedger(ledgerId);
+                if (ledgerIdx >= 0) {
+                    currentSegmentIdx = s;
+                    snapshot[s].forEachEntry(ledgerIdx,
+                            ledgerId == firstLedgerId ? firstEntryId : Long.MIN_VALUE,
+                            ledgerId == lastLedgerId ? lastEntryId : Long.MAX_VALUE,
+                            this);
+                }
+            }
+            ArrayGroupSort.sort(tuples, 0, tuplesSize);
+
+            count = 0;
+            for (int i = 0; i < tuplesSize; i += 4) {
+                if (i + 4 < tuplesSize && tuples[i + 4] == tuples[i]) {
+                    // A newer segment has the same entry
+                    continue;
+                }
+                long entryId = tuples[i];
+                long location = tuples[i + 2];
+                if ((location == DELETED && !keepDeletions) || isDeletedAfter(entryId, (int) tuples[i + 1])) {
+                    continue;
+                }
+
+                if (count == entryIds.length) {
+                    entryIds = Arrays.copyOf(entryIds, count * 2);
+                    locations = Arrays.copyOf(locations, count * 2);
+                }
+                entryIds[count] = entryId;
+                locations[count] = location;
+                count++;
+            }
+        }
+
+        @Override
+        public void process(long entryId, long location) {
+            if (tuples.length < tuplesSize + 4) {
+                tuples = Arrays.copyOf(tuples, tuples.length * 2);
+            }
+            tuples[tuplesSize] = entryId;
+            tuples[tuplesSize + 1] = currentSegmentIdx;
+            tuples[tuplesSize + 2] = location;
+            tuples[tuplesSize + 3] = 0;
+            tuplesSize += 4;
+        }
+
+        private boolean isDeletedAfter(long entryId, int segmentIdx) {
+            for (int s = segmentIdx + 1; s < snapshot.length; s++) {
+                if (snapshot[s].deletedRangeStart(ledgerId, entryId) != NONE) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Batch buffering the updates in primitive arrays, written as a new segment on flush.
+     */
+    private class SortedArrayBatch implements Batch {
+        // (ledgerId, entryId, location, seq) tuples
+        private long[] puts = new long[4 * 1024];
+        private int putsSize = 0;
+        // (ledgerId, fromEntryId, toEntryId, 0) tuples
+        private long[] tombstones = new long[4 * 16];
+        private int tombstonesSize = 0;
+        private long seq = 0;
+
+        @Override
+        public void put(byte[] key, byte[] value) throws IOException {
+            checkKey(key);
+            checkValue(value);
+            addPut(ArrayUtil.getLong(key, 0), ArrayUtil.getLong(key, 8), ArrayUtil.getLong(value, 0));
+        }
+
+        @Override
+        public void remove(byte[] key) throws IOException {
+            checkKey(key);
+            addPut(ArrayUtil.getLong(key, 0), ArrayUtil.getLong(key, 8), DELETED);
+        }
+
+        private void addPut(long ledgerId, long entryId, long location) {
+            if (puts.length < putsSize + 4) {
+                puts = Arrays.copyOf(puts, puts.length * 2);
+            }
+            puts[putsSize] = ledgerId;
+            puts[putsSize + 1] = entryId;
+            puts[putsSize + 2] = location;
+            puts[putsSize + 3] = seq++;
+            putsSize += 4;
+        }
+
+        @Override
+        public void deleteRange(byte[] beginKey, byte[] endKey) throws IOException {
+            checkKey(beginKey);
+            checkKey(endKey);
+            // The ledgers of the memtable need their tombstones too
+            flushMemtable();
+            long firstLedgerId = ArrayUtil.getLong(beginKey, 0);
+            long firstEntryId = ArrayUtil.getLong(beginKey, 8);
+            long lastLedgerId = ArrayUtil.getLong(endKey, 0);
+            long lastEntryId = ArrayUtil.getLong(endKey, 8);
+
+            // Drop the updates in the range that were added before to this batch
+            int newSize = 0;
+            for (int i = 0; i < putsSize; i += 4) {
+                boolean afterBegin = puts[i] > firstLedgerId
+                        || (puts[i] == firstLedgerId && puts[i + 1] >= firstEntryId);
+                boolean beforeEnd = puts[i] < lastLedgerId
+                        || (puts[i] == lastLedgerId && puts[i + 1] < lastEntryId);
+                if (!(afterBegin && beforeEnd)) {
+                    System.arraycopy(puts, i, puts, newSize, 4);
+                    newSize += 4;
+                }
+            }
+            putsSize = newSize;
+
+            if (firstLedgerId == lastLedgerId) {
+                addTombstone(firstLedgerId, firstEntryId, lastEntryId);
+                return;
+            }
+
+            addTombstone(firstLedgerId, firstEntryId, Long.MAX_VALUE);
+            // Ledgers fully included in the range only need a tombstone if they have entries stored
+            long ledgerId = firstLedgerId;
+            while (true) {
+                long nextLedgerId = NONE;
+                for (SortedArraySegment segment : segments) {
+                    long candidate = segment.higherLedger(ledgerId);
+                    if (candidate != NONE && (nextLedgerId == NONE || candidate < nextLedgerId)) {
+                        nextLedgerId = candidate;
+                    }
+                }
+                if (nextLedgerId == NONE || nextLedgerId >= lastLedgerId) {
+                    break;
+                }
+                addTombstone(nextLedgerId, Long.MIN_VALUE, Long.MAX_VALUE);
+                ledgerId = nextLedgerId;
+            }
+            addTombstone(lastLedgerId, Long.MIN_VALUE, lastEntryId);
+        }
+
+        private void addTombstone(long ledgerId, long fromEntryId, long toEntryId) {
+            if (tombstones.length < tombstonesSize + 4) {
+                tombstones = Arrays.copyOf(tombstones, tombstones.length * 2);
+            }
+            tombstones[tombstonesSize] = ledgerId;
+            tombstones[tombstonesSize + 1] = fromEntryId;
+            tombstones[tombstonesSize + 2] = toEntryId;
+            tombstones[tombstonesSize + 3] = 0;
+            tombstonesSize += 4;
+        }
+
+        @Override
+        public void clear() {
+            putsSize = 0;
+            tombstonesSize = 0;
+            seq = 0;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (putsSize == 0 && tombstonesSize == 0) {
+                return;
+            }
+            // Sorting happens on copies so that the batch can be flushed again, like a RocksDB WriteBatch
+            appendSegment(Arrays.copyOf(puts, putsSize), putsSize,
+                    Arrays.copyOf(tombstones, tombstonesSize), tombstonesSize);
+        }
+
+        @Override
+        public void close() {
+            puts = null;
+            tombstones = null;
+        }
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(KeyValueStorageSortedArray.class);
+}
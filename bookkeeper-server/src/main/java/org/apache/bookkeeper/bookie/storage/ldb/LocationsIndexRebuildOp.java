@@ -29,6 +29,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -37,6 +38,7 @@ import org.apache.bookkeeper.bookie.BookieImpl;
 import org.apache.bookkeeper.bookie.DefaultEntryLogger;
 import org.apache.bookkeeper.bookie.LedgerDirsManager;
 import org.apache.bookkeeper.bookie.storage.EntryLogScanner;
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.CloseableIterator;
 import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorageFactory.DbConfigType;
 import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.bookkeeper.stats.NullStatsLogger;
@@ -47,12 +49,21 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Scan all entries in the entry log and rebuild the locations index.
+ *
+ * <p>The new index is created with the backend configured in {@link DbLedgerStorage#ENTRY_LOCATION_INDEX_TYPE}.
+ * When migrating, the entries are copied from the existing RocksDB index instead of scanning the entry logs.
  */
 public class LocationsIndexRebuildOp {
     private final ServerConfiguration conf;
+    private final boolean migrate;
 
     public LocationsIndexRebuildOp(ServerConfiguration conf) {
+        this(conf, false);
+    }
+
+    public LocationsIndexRebuildOp(ServerConfiguration conf, boolean migrate) {
         this.conf = conf;
+        this.migrate = migrate;
     }
 
     private static final int BATCH_COMMIT_SIZE = 10_000;
@@ -79,6 +90,14 @@ public class LocationsIndexRebuildOp {
 
             LOG.info("Created locations index backup at {}", backupPath);
 
+            KeyValueStorage newIndex = DbLedgerStorage.getEntryLocationIndexStorageFactory(conf)
+                    .newKeyValueStorage(iBasePath, "locations", DbConfigType.Default, conf);
+
+            if (migrate) {
+                migrateIndex(iBasePath, backupPath.getFileName().toString(), newIndex);
+                continue;
+            }
+
             File[] lDirs = new File[1];
             lDirs[0] = ledgerDir;
             DefaultEntryLogger entryLogger = new DefaultEntryLogger(conf, new LedgerDirsManager(conf, lDirs,
@@ -88,9 +107,6 @@ public class LocationsIndexRebuildOp {
             Set<Long> activeLedgers = getActiveLedgers(conf, KeyValueStorageRocksDB.factory, iBasePath);
             LOG.info("Found {} active ledgers in ledger manager", activeLedgers.size());
 
-            KeyValueStorage newIndex = KeyValueStorageRocksDB.factory.newKeyValueStorage(iBasePath, "locations",
-                    DbConfigType.Default, conf);
-
             int totalEntryLogs = entryLogs.size();
             int completedEntryLogs = 0;
             LOG.info("Scanning {} entry logs", totalEntryLogs);
@@ -153,6 +169,33 @@ public class LocationsIndexRebuildOp {
                         TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)));
     }
 
+    private void migrateIndex(String basePath, String oldIndexPath, KeyValueStorage newIndex) throws IOException {
+        LOG.info("Migrating locations index from {}", oldIndexPath);
+        long count = 0;
+        try (KeyValueStorage oldIndex = new KeyValueStorageRocksDB(basePath, oldIndexPath, DbConfigType.Default,
+                conf, true);
+             CloseableIterator<Entry<byte[], byte[]>> iterator = oldIndex.iterator()) {
+            KeyValueStorage.Batch batch = newIndex.newBatch();
+            while (iterator.hasNext()) {
+                Entry<byte[], byte[]> entry = iterator.next();
+                batch.put(entry.getKey(), entry.getValue());
+
+                if (++count % BATCH_COMMIT_SIZE == 0) {
+                    batch.flush();
+                    batch.close();
+                    batch = newIndex.newBatch();
+                }
+            }
+
+            batch.flush();
+            batch.close();
+        } finally {
+            newIndex.sync();
+            newIndex.close();
+        }
+        LOG.info("Migrated {} entry locations", count);
+    }
+
     private Set<Long> getActiveLedgers(ServerConfiguration conf, KeyValueStorageFactory storageFactory, String basePath)
             throws IOException {
         LedgerMetadataIndex ledgers = new LedgerMetadataIndex(conf, storageFactory, basePath, NullStatsLogger.INSTANCE);
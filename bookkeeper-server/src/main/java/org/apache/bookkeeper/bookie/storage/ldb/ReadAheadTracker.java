@@ -0,0 +1,193 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashMap;
+
+/**
+ * Keeps track of the read-ahead window of each ledger, to size the read-ahead batches and to account for the
+ * read-ahead effectiveness.
+ *
+ * <p>Similarly to the Linux page cache read-ahead, a ledger starts with the configured batch size. When a cache
+ * miss falls right after the previous read-ahead window, the reader is consuming the ledger sequentially and the
+ * window is doubled, up to the max batch size. When the miss falls inside the previous window, the entries were
+ * evicted before being read and the window is halved. Any other miss is a random access and the window drops to
+ * the min batch size.
+ *
+ * <p>When the adaptive policy is disabled, nothing is tracked, so that the reads don't contend on the windows, and the
+ * batch size is always the configured one. The read-ahead hits, misses and wasted bytes are then not reported.
+ */
+class ReadAheadTracker {
+
+    private static final long WINDOW_CACHING_TIME_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private final boolean adaptive;
+    private final int batchSize;
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final DbLedgerStorageStats stats;
+
+    private final ConcurrentLongHashMap<Window> windows = ConcurrentLongHashMap.<Window>newBuilder()
+            .expectedItems(1024)
+            .concurrencyLevel(Runtime.getRuntime().availableProcessors() * 2)
+            .build();
+
+    ReadAheadTracker(boolean adaptive, int batchSize, int minBatchSize, int maxBatchSize,
+                     DbLedgerStorageStats stats) {
+        this.adaptive = adaptive;
+        this.batchSize = batchSize;
+        this.minBatchSize = Math.max(1, Math.min(minBatchSize, batchSize));
+        this.maxBatchSize = Math.max(maxBatchSize, batchSize);
+        this.stats = stats;
+    }
+
+    /**
+     * Record a read served by the read cache.
+     */
+    void recordHit(long ledgerId, long entryId) {
+        if (!adaptive) {
+            return;
+        }
+        Window window = windows.get(ledgerId);
+        if (window == null) {
+            return;
+        }
+
+        synchronized (window) {
+            if (entryId >= window.firstEntryId && entryId < window.endEntryId) {
+                window.consumedEndEntryId = Math.max(window.consumedEndEntryId, entryId + 1);
+                window.lastAccessed = System.currentTimeMillis();
+                stats.getReadAheadHitCounter().inc();
+            }
+        }
+    }
+
+    /**
+     * Record a read that missed the caches, of an entry that is stored, and get the number of entries to read ahead
+     * after it.
+     */
+    int recordMiss(long ledgerId, long entryId) {
+        if (!adaptive) {
+            return batchSize;
+        }
+        Window window = windows.computeIfAbsent(ledgerId, l -> new Window(batchSize));
+
+        synchronized (window) {
+            if (window.endEntryId != Window.NO_ENTRY) {
+                recordWasted(window);
+
+                if (entryId == window.endEntryId) {
+                    // Sequential access, the reader went past the whole window
+                    window.batchSize = Math.min(maxBatchSize, window.batchSize * 2);
+                    stats.getReadAheadMissCounter().inc();
+                } else if (entryId >= window.firstEntryId && entryId < window.endEntryId) {
+                    // Sequential access, but the entries were evicted before being read
+                    window.batchSize = Math.max(minBatchSize, window.batchSize / 2);
+                    stats.getReadAheadMissCounter().inc();
+                } else {
+                    window.batchSize = minBatchSize;
+                }
+            }
+
+            window.lastAccessed = System.currentTimeMillis();
+            return window.batchSize;
+        }
+    }
+
+    /**
+     * Record the entries read ahead after a cache miss.
+     */
+    void recordReadAhead(long ledgerId, long firstEntryId, int count, long size) {
+        if (!adaptive) {
+            return;
+        }
+        Window window = windows.get(ledgerId);
+        if (window == null) {
+            return;
+        }
+
+        synchronized (window) {
+            if (count == 0) {
+                // Nothing read ahead, e.g. the last entry of the ledger was read, the next miss doesn't tell whether
+                // the window was large enough
+                window.firstEntryId = Window.NO_ENTRY;
+                window.endEntryId = Window.NO_ENTRY;
+                window.consumedEndEntryId = Window.NO_ENTRY;
+                window.size = 0;
+                return;
+            }
+            window.firstEntryId = firstEntryId;
+            window.endEntryId = firstEntryId + count;
+            window.consumedEndEntryId = firstEntryId;
+            window.size = size;
+        }
+    }
+
+    void removeLedger(long ledgerId) {
+        windows.remove(ledgerId);
+    }
+
+    /**
+     * Evict the windows of the ledgers that were not read recently.
+     */
+    void cleanupStaleWindows() {
+        long now = System.currentTimeMillis();
+        windows.removeIf((ledgerId, window) -> {
+            synchronized (window) {
+                if (now - window.lastAccessed < WINDOW_CACHING_TIME_MILLIS) {
+                    return false;
+                }
+                recordWasted(window);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Account for the entries of the window that were never read, estimating their size with the window average.
+     */
+    private void recordWasted(Window window) {
+        long count = window.endEntryId - window.firstEntryId;
+        long unread = window.endEntryId - window.consumedEndEntryId;
+        if (count > 0 && unread > 0) {
+            stats.getReadAheadWastedBytesCounter().addCount(window.size * unread / count);
+        }
+        window.consumedEndEntryId = window.endEntryId;
+    }
+
+    private static class Window {
+        static final long NO_ENTRY = -1;
+
+        int batchSize;
+        // Range of the entries read ahead [firstEntryId, endEntryId)
+        long firstEntryId = NO_ENTRY;
+        long endEntryId = NO_ENTRY;
+        // The entries before this one were read from the cache, or accounted as wasted
+        long consumedEndEntryId = NO_ENTRY;
+        long size;
+        long lastAccessed = System.currentTimeMillis();
+
+        Window(int batchSize) {
+            this.batchSize = batchSize;
+        }
+    }
+}
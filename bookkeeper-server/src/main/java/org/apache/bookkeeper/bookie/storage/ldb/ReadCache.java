@@ -20,6 +20,7 @@
  */
 package org.apache.bookkeeper.bookie.storage.ldb;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static org.apache.bookkeeper.bookie.storage.ldb.WriteCache.align64;
 
 import io.netty.buffer.ByteBuf;
@@ -27,8 +28,6 @@ import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import io.netty.util.ReferenceCountUtil;
 import java.io.Closeable;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap;
@@ -45,21 +44,66 @@ import org.slf4j.LoggerFactory;
  * ring-buffer fashion. When the read cache is full, the oldest segment
  * is cleared and rotated to make space for new entries to be added to
  * the read cache.
+ *
+ * <p>With the {@link EvictionPolicy#SLRU} policy the segments are shared by two rings: a probationary ring, where
+ * all the new entries are inserted, and a protected ring. An entry is copied to the protected ring only when it is
+ * read a second time from the cache, so a reader scanning a large backlog once only churns the probationary ring and
+ * cannot evict the entries that several readers are sharing. The protected entries that are read while sitting in
+ * the oldest protected segment are copied again to the current one, so that the hot entries survive its rotation.
+ *
+ * <p>The protected ring grows up to the configured ratio of the segments by taking the oldest probationary ones,
+ * and gives its oldest segment back when it did not rotate during a whole cycle of the cache. When no entry is read
+ * twice, the probationary ring uses all the memory and the cache behaves as the FIFO one.
+ *
+ * <p>The access state of the probationary entries is kept in the high bits of the index value, so the policy does
+ * not require any additional memory.
  */
 public class ReadCache implements Closeable {
     private static final Logger log = LoggerFactory.getLogger(ReadCache.class);
 
     private static final int DEFAULT_MAX_SEGMENT_SIZE = 1 * 1024 * 1024 * 1024;
 
-    private final List<ByteBuf> cacheSegments;
-    private final List<ConcurrentLongLongPairHashMap> cacheIndexes;
+    /**
+     * Eviction policy of the read cache.
+     */
+    public enum EvictionPolicy {
+        /**
+         * Evict the oldest inserted entries first.
+         */
+        FIFO,
+
+        /**
+         * Segmented LRU, with a probationary and a protected ring.
+         */
+        SLRU
+    }
+
+    static final double DEFAULT_PROTECTED_RATIO = 0.5;
 
-    private int currentSegmentIdx;
-    private final AtomicInteger currentSegmentOffset = new AtomicInteger(0);
+    private static final int MIN_SEGMENTS = 2;
+    // The segments are moved between the two rings, so use finer segments to not drop too many entries at once
+    private static final int SLRU_MIN_SEGMENTS = 8;
+
+    // Flag set in the index value of the probationary entries that were already read once from the cache
+    private static final long ACCESSED_FLAG = 1L << 32;
+    private static final long ENTRY_SIZE_MASK = 0xFFFFFFFFL;
+
+    private final ByteBuf[] cacheSegments;
+    private final ConcurrentLongLongPairHashMap[] cacheIndexes;
+
+    // Segments that were never used
+    private final int[] freeSegments;
+    private int freeSegmentsCount;
+
+    private final SegmentRing probationRing;
+    // Null when the policy is FIFO
+    private final SegmentRing protectedRing;
+    private final int maxProtectedSegments;
+    private int probationRotationsSinceProtectedRotation;
 
     private final int segmentSize;
 
-    private ByteBufAllocator allocator;
+    private final ByteBufAllocator allocator;
     private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
 
     public ReadCache(ByteBufAllocator allocator, long maxCacheSize) {
@@ -67,29 +111,72 @@ public class ReadCache implements Closeable {
     }
 
     public ReadCache(ByteBufAllocator allocator, long maxCacheSize, int maxSegmentSize) {
+        this(allocator, maxCacheSize, maxSegmentSize, EvictionPolicy.FIFO, DEFAULT_PROTECTED_RATIO);
+    }
+
+    public ReadCache(ByteBufAllocator allocator, long maxCacheSize, EvictionPolicy policy, double protectedRatio) {
+        this(allocator, maxCacheSize, DEFAULT_MAX_SEGMENT_SIZE, policy, protectedRatio);
+    }
+
+    public ReadCache(ByteBufAllocator allocator, long maxCacheSize, int maxSegmentSize, EvictionPolicy policy,
+                     double protectedRatio) {
         this.allocator = allocator;
-        int segmentsCount = Math.max(2, (int) (maxCacheSize / maxSegmentSize));
+        boolean slru = policy == EvictionPolicy.SLRU;
+        if (slru) {
+            checkArgument(protectedRatio > 0 && protectedRatio < 1,
+                    "The protected ratio must be between 0 and 1: %s", protectedRatio);
+        }
+
+        int segmentsCount = Math.max(slru ? SLRU_MIN_SEGMENTS : MIN_SEGMENTS, (int) (maxCacheSize / maxSegmentSize));
         segmentSize = (int) (maxCacheSize / segmentsCount);
 
-        cacheSegments = new ArrayList<>();
-        cacheIndexes = new ArrayList<>();
+        cacheSegments = new ByteBuf[segmentsCount];
+        cacheIndexes = new ConcurrentLongLongPairHashMap[segmentsCount];
+        freeSegments = new int[segmentsCount];
 
         for (int i = 0; i < segmentsCount; i++) {
-            cacheSegments.add(Unpooled.directBuffer(segmentSize, segmentSize));
-            ConcurrentLongLongPairHashMap concurrentLongLongPairHashMap = ConcurrentLongLongPairHashMap.newBuilder()
+            cacheSegments[i] = Unpooled.directBuffer(segmentSize, segmentSize);
+            cacheIndexes[i] = ConcurrentLongLongPairHashMap.newBuilder()
                     .expectedItems(4096)
                     .concurrencyLevel(2 * Runtime.getRuntime().availableProcessors())
                     .build();
-            cacheIndexes.add(concurrentLongLongPairHashMap);
+            // The segments are taken in order
+            freeSegments[segmentsCount - 1 - i] = i;
+        }
+        freeSegmentsCount = segmentsCount;
+
+        probationRing = new SegmentRing(segmentsCount, freeSegments[--freeSegmentsCount]);
+        if (slru) {
+            protectedRing = new SegmentRing(segmentsCount, freeSegments[--freeSegmentsCount]);
+            // Always leave at least 2 segments to the probationary ring
+            maxProtectedSegments = Math.max(1, Math.min(segmentsCount - 2,
+                    (int) Math.round(segmentsCount * protectedRatio)));
+        } else {
+            protectedRing = null;
+            maxProtectedSegments = 0;
         }
     }
 
     @Override
     public void close() {
-        cacheSegments.forEach(ReferenceCountUtil::safeRelease);
+        for (ByteBuf segment : cacheSegments) {
+            ReferenceCountUtil.safeRelease(segment);
+        }
     }
 
     public void put(long ledgerId, long entryId, ByteBuf entry) {
+        put(probationRing, ledgerId, entryId, entry, 0L);
+    }
+
+    /**
+     * Insert an entry that was already read once, for instance after a cache miss. With the SLRU policy the entry
+     * will be protected the next time it is read from the cache.
+     */
+    public void putAccessed(long ledgerId, long entryId, ByteBuf entry) {
+        put(probationRing, ledgerId, entryId, entry, protectedRing != null ? ACCESSED_FLAG : 0L);
+    }
+
+    private void put(SegmentRing ring, long ledgerId, long entryId, ByteBuf entry, long flags) {
         int entrySize = entry.readableBytes();
         int alignedSize = align64(entrySize);
 
@@ -100,14 +187,14 @@ public class ReadCache implements Closeable {
                 log.warn("entrySize {} > segmentSize {}, skip update read cache!", entrySize, segmentSize);
                 return;
             }
-            int offset = currentSegmentOffset.getAndAdd(alignedSize);
+            int offset = ring.currentSegmentOffset.getAndAdd(alignedSize);
             if (offset + entrySize > segmentSize) {
                 // Roll-over the segment (outside the read-lock)
             } else {
                 // Copy entry into read cache segment
-                cacheSegments.get(currentSegmentIdx).setBytes(offset, entry, entry.readerIndex(),
+                cacheSegments[ring.currentSegmentIdx].setBytes(offset, entry, entry.readerIndex(),
                         entry.readableBytes());
-                cacheIndexes.get(currentSegmentIdx).put(ledgerId, entryId, offset, entrySize);
+                cacheIndexes[ring.currentSegmentIdx].put(ledgerId, entryId, offset, entrySize | flags);
                 return;
             }
         } finally {
@@ -119,71 +206,126 @@ public class ReadCache implements Closeable {
         lock.writeLock().lock();
 
         try {
-            int offset = currentSegmentOffset.getAndAdd(entrySize);
+            int offset = ring.currentSegmentOffset.getAndAdd(entrySize);
             if (offset + entrySize > segmentSize) {
                 // Rollover to next segment
-                currentSegmentIdx = (currentSegmentIdx + 1) % cacheSegments.size();
-                currentSegmentOffset.set(alignedSize);
-                cacheIndexes.get(currentSegmentIdx).clear();
+                ring.addSegment(takeSegment(ring));
+                ring.currentSegmentOffset.set(alignedSize);
                 offset = 0;
             }
 
             // Copy entry into read cache segment
-            cacheSegments.get(currentSegmentIdx).setBytes(offset, entry, entry.readerIndex(), entry.readableBytes());
-            cacheIndexes.get(currentSegmentIdx).put(ledgerId, entryId, offset, entrySize);
+            cacheSegments[ring.currentSegmentIdx].setBytes(offset, entry, entry.readerIndex(),
+                    entry.readableBytes());
+            cacheIndexes[ring.currentSegmentIdx].put(ledgerId, entryId, offset, entrySize | flags);
         } finally {
             lock.writeLock().unlock();
         }
     }
 
+    /**
+     * Get a cleared segment for the ring to rotate. Needs to be called with the write lock.
+     */
+    private int takeSegment(SegmentRing ring) {
+        if (freeSegmentsCount > 0) {
+            return freeSegments[--freeSegmentsCount];
+        }
+
+        SegmentRing victim = ring;
+        if (ring == protectedRing) {
+            probationRotationsSinceProtectedRotation = 0;
+            if (protectedRing.segmentsCount < maxProtectedSegments) {
+                victim = probationRing;
+            }
+        } else if (protectedRing != null && protectedRing.segmentsCount > 1
+                && ++probationRotationsSinceProtectedRotation > cacheSegments.length) {
+            // The protected entries are not read anymore, give the memory back to the probationary ring
+            probationRotationsSinceProtectedRotation = 0;
+            victim = protectedRing;
+        }
+
+        int segmentIdx = victim.removeOldestSegment();
+        cacheIndexes[segmentIdx].clear();
+        return segmentIdx;
+    }
+
     public ByteBuf get(long ledgerId, long entryId) {
+        ByteBuf entry = null;
+        boolean promote = false;
+
         lock.readLock().lock();
 
         try {
-            // We need to check all the segments, starting from the current one and looking
-            // backward to minimize the
-            // checks for recently inserted entries
-            int size = cacheSegments.size();
-            for (int i = 0; i < size; i++) {
-                int segmentIdx = (currentSegmentIdx + (size - i)) % size;
-
-                LongPair res = cacheIndexes.get(segmentIdx).get(ledgerId, entryId);
-                if (res != null) {
-                    int entryOffset = (int) res.first;
-                    int entryLen = (int) res.second;
+            if (protectedRing != null) {
+                for (int i = 0; i < protectedRing.segmentsCount; i++) {
+                    int segmentIdx = protectedRing.getSegment(i);
+
+                    LongPair res = cacheIndexes[segmentIdx].get(ledgerId, entryId);
+                    if (res != null) {
+                        entry = copyEntry(segmentIdx, res);
+                        // Keep the entry if its segment is the next one to be rotated
+                        promote = i > 0 && i == protectedRing.segmentsCount - 1;
+                        break;
+                    }
+                }
+            }
 
-                    ByteBuf entry = allocator.buffer(entryLen, entryLen);
-                    entry.writeBytes(cacheSegments.get(segmentIdx), entryOffset, entryLen);
-                    return entry;
+            if (entry == null) {
+                // We need to check all the segments, starting from the current one and looking
+                // backward to minimize the
+                // checks for recently inserted entries
+                for (int i = 0; i < probationRing.segmentsCount; i++) {
+                    int segmentIdx = probationRing.getSegment(i);
+
+                    ConcurrentLongLongPairHashMap index = cacheIndexes[segmentIdx];
+                    LongPair res = index.get(ledgerId, entryId);
+                    if (res != null) {
+                        entry = copyEntry(segmentIdx, res);
+
+                        if (protectedRing != null) {
+                            if ((res.second & ACCESSED_FLAG) != 0) {
+                                // Second read, move the entry to the protected ring
+                                index.remove(ledgerId, entryId);
+                                promote = true;
+                            } else {
+                                index.put(ledgerId, entryId, res.first, res.second | ACCESSED_FLAG);
+                            }
+                        }
+                        break;
+                    }
                 }
             }
         } finally {
             lock.readLock().unlock();
         }
 
-        // Entry not found in any segment
-        return null;
+        if (promote) {
+            // The insertion might need to roll-over the protected ring, which needs the write lock
+            put(protectedRing, ledgerId, entryId, entry, 0L);
+        }
+
+        // Entry is null if not found in any segment
+        return entry;
+    }
+
+    private ByteBuf copyEntry(int segmentIdx, LongPair res) {
+        int entryOffset = (int) res.first;
+        int entryLen = (int) (res.second & ENTRY_SIZE_MASK);
+
+        ByteBuf entry = allocator.buffer(entryLen, entryLen);
+        entry.writeBytes(cacheSegments[segmentIdx], entryOffset, entryLen);
+        return entry;
     }
 
     public boolean hasEntry(long ledgerId, long entryId) {
         lock.readLock().lock();
 
         try {
-            int size = cacheSegments.size();
-            for (int i = 0; i < size; i++) {
-                int segmentIdx = (currentSegmentIdx + (size - i)) % size;
-
-                LongPair res = cacheIndexes.get(segmentIdx).get(ledgerId, entryId);
-                if (res != null) {
-                    return true;
-                }
-            }
+            return probationRing.hasEntry(ledgerId, entryId)
+                    || (protectedRing != null && protectedRing.hasEntry(ledgerId, entryId));
         } finally {
             lock.readLock().unlock();
         }
-
-        // Entry not found in any segment
-        return false;
     }
 
     /**
@@ -193,18 +335,7 @@ public class ReadCache implements Closeable {
         lock.readLock().lock();
 
         try {
-            long size = 0;
-            for (int i = 0; i < cacheIndexes.size(); i++) {
-                if (i == currentSegmentIdx) {
-                    size += currentSegmentOffset.get();
-                } else if (!cacheIndexes.get(i).isEmpty()) {
-                    size += segmentSize;
-                } else {
-                    // the segment is empty
-                }
-            }
-
-            return size;
+            return probationRing.size() + (protectedRing != null ? protectedRing.size() : 0);
         } finally {
             lock.readLock().unlock();
         }
@@ -218,8 +349,8 @@ public class ReadCache implements Closeable {
 
         try {
             long count = 0;
-            for (int i = 0; i < cacheIndexes.size(); i++) {
-                count += cacheIndexes.get(i).size();
+            for (int i = 0; i < cacheIndexes.length; i++) {
+                count += cacheIndexes[i].size();
             }
 
             return count;
@@ -227,4 +358,84 @@ public class ReadCache implements Closeable {
             lock.readLock().unlock();
         }
     }
+
+    /**
+     * @return the total size of the entries in the protected segments
+     */
+    public long protectedSize() {
+        lock.readLock().lock();
+
+        try {
+            return protectedRing != null ? protectedRing.size() : 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The segments owned by a ring, from the oldest to the current one. The segments are only added and removed
+     * with the write lock.
+     */
+    private final class SegmentRing {
+        private final int[] segments;
+        private int oldestPosition;
+        private int segmentsCount;
+
+        private int currentSegmentIdx;
+        private final AtomicInteger currentSegmentOffset = new AtomicInteger(0);
+
+        SegmentRing(int maxSegments, int firstSegmentIdx) {
+            segments = new int[maxSegments];
+            addSegment(firstSegmentIdx);
+        }
+
+        void addSegment(int segmentIdx) {
+            segments[(oldestPosition + segmentsCount) % segments.length] = segmentIdx;
+            segmentsCount++;
+            currentSegmentIdx = segmentIdx;
+            currentSegmentOffset.set(0);
+        }
+
+        int removeOldestSegment() {
+            int segmentIdx = segments[oldestPosition];
+            oldestPosition = (oldestPosition + 1) % segments.length;
+            segmentsCount--;
+            return segmentIdx;
+        }
+
+        /**
+         * @return the i-th segment, starting from the current one
+         */
+        int getSegment(int i) {
+            return segments[(oldestPosition + segmentsCount - 1 - i) % segments.length];
+        }
+
+        boolean hasEntry(long ledgerId, long entryId) {
+            for (int i = 0; i < segmentsCount; i++) {
+                LongPair res = cacheIndexes[getSegment(i)].get(ledgerId, entryId);
+                if (res != null) {
+                    return true;
+                }
+            }
+
+            // Entry not found in any segment
+            return false;
+        }
+
+        long size() {
+            long size = 0;
+            for (int i = 0; i < segmentsCount; i++) {
+                int segmentIdx = getSegment(i);
+                if (segmentIdx == currentSegmentIdx) {
+                    size += currentSegmentOffset.get();
+                } else if (!cacheIndexes[segmentIdx].isEmpty()) {
+                    size += segmentSize;
+                } else {
+                    // the segment is empty
+                }
+            }
+
+            return size;
+        }
+    }
 }
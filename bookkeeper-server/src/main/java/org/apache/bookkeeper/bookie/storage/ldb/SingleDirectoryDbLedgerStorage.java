@@ -31,12 +31,16 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.FileRegion;
 import io.netty.util.ReferenceCountUtil;
+import io.netty.util.ReferenceCounted;
 import io.netty.util.concurrent.DefaultThreadFactory;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.Collections;
 import java.util.EnumSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.PrimitiveIterator.OfLong;
@@ -72,6 +76,7 @@ import org.apache.bookkeeper.common.util.Watcher;
 import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.bookkeeper.meta.LedgerManager;
 import org.apache.bookkeeper.proto.BookieProtocol;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteCallback;
 import org.apache.bookkeeper.stats.Counter;
 import org.apache.bookkeeper.stats.OpStatsLogger;
 import org.apache.bookkeeper.stats.StatsLogger;
@@ -102,8 +107,18 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
     // Write cache where all new entries are inserted into
     protected volatile WriteCache writeCache;
 
-    // Write cache that is used to swap with writeCache during flushes
-    protected volatile WriteCache writeCacheBeingFlushed;
+    // Ring of write caches: the current write cache is rotated with a free one when it's full, and it's then
+    // flushed in background, while new entries keep being inserted. Guarded by writeCacheRotationLock.
+    private final WriteCache[] writeCaches;
+    private final ArrayDeque<WriteCache> writeCachesToFlush;
+    private final ArrayDeque<WriteCache> freeWriteCaches;
+
+    // Write caches that can contain entries not flushed yet, from the most recent one
+    private volatile WriteCache[] writeCachesForRead;
+
+    // Log where the entries are persisted until their write cache is flushed, null when the journal is used
+    private final WriteCacheSpillLog spillLog;
+    private volatile StateManager stateManager;
 
     // Cache where we insert entries for speculative reading
     private final ReadCache readCache;
@@ -113,7 +128,6 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
     protected final ReentrantLock flushMutex = new ReentrantLock();
 
     protected final AtomicBoolean hasFlushBeenTriggered = new AtomicBoolean(false);
-    private final AtomicBoolean isFlushOngoing = new AtomicBoolean(false);
 
     private static String dbStoragerExecutorName = "db-storage";
     private final ExecutorService executor = Executors.newSingleThreadExecutor(
@@ -131,7 +145,7 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
 
     private final long writeCacheMaxSize;
     private final long readCacheMaxSize;
-    private final int readAheadCacheBatchSize;
+    private final ReadAheadTracker readAheadTracker;
 
     private final long maxThrottleTimeNanos;
 
@@ -139,6 +153,9 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
 
     private static final long DEFAULT_MAX_THROTTLE_TIME_MILLIS = TimeUnit.SECONDS.toMillis(10);
 
+    // Min region size passed to always copy the entries read from the entry logs
+    private static final int NO_FILE_REGION = Integer.MAX_VALUE;
+
     private final long maxReadAheadBytesSize;
 
     private final Counter flushExecutorTime;
@@ -168,11 +185,24 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
                 .scopeLabel("indexDir", indexBaseDir);
 
         this.writeCacheMaxSize = writeCacheSize;
-        this.writeCache = new WriteCache(allocator, writeCacheMaxSize / 2);
-        this.writeCacheBeingFlushed = new WriteCache(allocator, writeCacheMaxSize / 2);
+        int writeCacheRingSize = conf.getInt(DbLedgerStorage.WRITE_CACHE_RING_SIZE,
+                DbLedgerStorage.DEFAULT_WRITE_CACHE_RING_SIZE);
+        checkArgument(writeCacheRingSize >= 2, "%s must be at least 2", DbLedgerStorage.WRITE_CACHE_RING_SIZE);
+        boolean useWriteCacheLedgerBuckets = conf.getBoolean(DbLedgerStorage.WRITE_CACHE_LEDGER_BUCKETS_ENABLED, false);
+        this.writeCaches = new WriteCache[writeCacheRingSize];
+        this.writeCachesToFlush = new ArrayDeque<>(writeCacheRingSize);
+        this.freeWriteCaches = new ArrayDeque<>(writeCacheRingSize);
+        for (int i = 0; i < writeCacheRingSize; i++) {
+            writeCaches[i] = new WriteCache(allocator, writeCacheMaxSize / writeCacheRingSize,
+                    useWriteCacheLedgerBuckets);
+            if (i > 0) {
+                freeWriteCaches.add(writeCaches[i]);
+            }
+        }
+        this.writeCache = writeCaches[0];
+        this.writeCachesForRead = new WriteCache[] { writeCache };
 
         readCacheMaxSize = readCacheSize;
-        this.readAheadCacheBatchSize = readAheadCacheBatchSize;
 
         // Do not attempt to perform read-ahead more than half the total size of the cache
         maxReadAheadBytesSize = readCacheMaxSize / 2;
@@ -181,12 +211,13 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
                 DEFAULT_MAX_THROTTLE_TIME_MILLIS);
         maxThrottleTimeNanos = TimeUnit.MILLISECONDS.toNanos(maxThrottleTimeMillis);
 
-        readCache = new ReadCache(allocator, readCacheMaxSize);
+        readCache = new ReadCache(allocator, readCacheMaxSize, DbLedgerStorage.getReadCacheEvictionPolicy(conf),
+                conf.getDouble(DbLedgerStorage.READ_CACHE_PROTECTED_RATIO, ReadCache.DEFAULT_PROTECTED_RATIO));
 
         ledgerIndex = new LedgerMetadataIndex(conf,
                 KeyValueStorageRocksDB.factory, indexBaseDir, ledgerIndexDirStatsLogger);
         entryLocationIndex = new EntryLocationIndex(conf,
-                KeyValueStorageRocksDB.factory, indexBaseDir, ledgerIndexDirStatsLogger);
+                DbLedgerStorage.getEntryLocationIndexStorageFactory(conf), indexBaseDir, ledgerIndexDirStatsLogger);
 
         transientLedgerInfoCache = ConcurrentLongHashMap.<TransientLedgerInfo>newBuilder()
                 .expectedItems(16 * 1024)
@@ -202,12 +233,48 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
 
         dbLedgerStorageStats = new DbLedgerStorageStats(
             ledgerIndexDirStatsLogger,
-            () -> writeCache.size() + writeCacheBeingFlushed.size(),
-            () -> writeCache.count() + writeCacheBeingFlushed.count(),
+            () -> {
+                long size = 0;
+                for (WriteCache cache : writeCaches) {
+                    size += cache.size();
+                }
+                return size;
+            },
+            () -> {
+                long count = 0;
+                for (WriteCache cache : writeCaches) {
+                    count += cache.count();
+                }
+                return count;
+            },
+            () -> writeCachesForRead.length - 1,
             () -> readCache.size(),
             () -> readCache.count()
         );
 
+        if (conf.getBoolean(DbLedgerStorage.WRITE_CACHE_SPILL_ENABLED, false) && !conf.getJournalWriteData()) {
+            long flushIntervalMicros = conf.getLong(DbLedgerStorage.WRITE_CACHE_SPILL_FLUSH_INTERVAL_MICROS,
+                    DbLedgerStorage.DEFAULT_WRITE_CACHE_SPILL_FLUSH_INTERVAL_MICROS);
+            spillLog = new WriteCacheSpillLog(new File(ledgerBaseDir),
+                    TimeUnit.MICROSECONDS.toNanos(flushIntervalMicros), dbLedgerStorageStats, allocator,
+                    this::onSpillLogFailure);
+            log.info("Persisting the entries of the write cache in {}, instead of the journal", ledgerBaseDir);
+        } else {
+            spillLog = null;
+        }
+
+        readAheadTracker = new ReadAheadTracker(
+                conf.getBoolean(DbLedgerStorage.READ_AHEAD_CACHE_ADAPTIVE, false),
+                readAheadCacheBatchSize,
+                conf.getInt(DbLedgerStorage.READ_AHEAD_CACHE_MIN_BATCH_SIZE,
+                        DbLedgerStorage.DEFAULT_READ_AHEAD_CACHE_MIN_BATCH_SIZE),
+                conf.getInt(DbLedgerStorage.READ_AHEAD_CACHE_MAX_BATCH_SIZE,
+                        readAheadCacheBatchSize * DbLedgerStorage.DEFAULT_READ_AHEAD_CACHE_MAX_BATCH_SIZE_FACTOR),
+                dbLedgerStorageStats);
+        cleanupExecutor.scheduleAtFixedRate(readAheadTracker::cleanupStaleWindows,
+                TransientLedgerInfo.LEDGER_INFO_CACHING_TIME_MINUTES,
+                TransientLedgerInfo.LEDGER_INFO_CACHING_TIME_MINUTES, TimeUnit.MINUTES);
+
         flushExecutorTime = ledgerIndexDirStatsLogger.getThreadScopedCounter("db-storage-thread-time");
 
         executor.submit(() -> {
@@ -231,7 +298,9 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
     }
 
     @Override
-    public void setStateManager(StateManager stateManager) { }
+    public void setStateManager(StateManager stateManager) {
+        this.stateManager = stateManager;
+    }
 
     @Override
     public void setCheckpointSource(CheckpointSource checkpointSource) {
@@ -340,8 +409,13 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             ledgerIndex.close();
             entryLocationIndex.close();
 
-            writeCache.close();
-            writeCacheBeingFlushed.close();
+            if (spillLog != null) {
+                spillLog.close();
+            }
+
+            for (WriteCache cache : writeCaches) {
+                cache.close();
+            }
             readCache.close();
             executor.shutdown();
 
@@ -370,28 +444,16 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             return false;
         }
 
-        // We need to try to read from both write caches, since recent entries could be found in either of the two. The
-        // write caches are already thread safe on their own, here we just need to make sure we get references to both
-        // of them. Using an optimistic lock since the read lock is always free, unless we're swapping the caches.
-        long stamp = writeCacheRotationLock.tryOptimisticRead();
-        WriteCache localWriteCache = writeCache;
-        WriteCache localWriteCacheBeingFlushed = writeCacheBeingFlushed;
-        if (!writeCacheRotationLock.validate(stamp)) {
-            // Fallback to regular read lock approach
-            stamp = writeCacheRotationLock.readLock();
-            try {
-                localWriteCache = writeCache;
-                localWriteCacheBeingFlushed = writeCacheBeingFlushed;
-            } finally {
-                writeCacheRotationLock.unlockRead(stamp);
+        // We need to try to read from all the write caches that were not flushed yet, since recent entries could be
+        // found in any of them. A write cache is only removed from the list after its entries were added to the
+        // locations index.
+        for (WriteCache cache : writeCachesForRead) {
+            if (cache.hasEntry(ledgerId, entryId)) {
+                return true;
             }
         }
 
-        boolean inCache = localWriteCache.hasEntry(ledgerId, entryId)
-             || localWriteCacheBeingFlushed.hasEntry(ledgerId, entryId)
-             || readCache.hasEntry(ledgerId, entryId);
-
-        if (inCache) {
+        if (readCache.hasEntry(ledgerId, entryId)) {
             return true;
         }
 
@@ -407,6 +469,21 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         return false;
     }
 
+    @Override
+    public boolean isCatchUpRead(long ledgerId, long entryId) {
+        if (entryId == BookieProtocol.LAST_ADD_CONFIRMED) {
+            // Read by the tailing readers, usually from the write caches
+            return false;
+        }
+        // The read cache is left out, it's locked and its hits are entries of catch-up readers anyway
+        for (WriteCache cache : writeCachesForRead) {
+            if (cache.hasEntry(ledgerId, entryId)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Override
     public boolean isFenced(long ledgerId) throws IOException, BookieException {
         boolean isFenced = ledgerIndex.get(ledgerId).getFenced();
@@ -473,87 +550,175 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         long stamp = writeCacheRotationLock.tryOptimisticRead();
         boolean inserted = false;
 
-        inserted = writeCache.put(ledgerId, entryId, entry);
+        WriteCache localWriteCache = writeCache;
+        inserted = localWriteCache.put(ledgerId, entryId, entry);
         if (!writeCacheRotationLock.validate(stamp)) {
             // The write cache was rotated while we were inserting. We need to acquire the proper read lock and repeat
             // the operation because we might have inserted in a write cache that was already being flushed and cleared,
             // without being sure about this last entry being flushed or not.
             stamp = writeCacheRotationLock.readLock();
             try {
-                inserted = writeCache.put(ledgerId, entryId, entry);
+                localWriteCache = writeCache;
+                inserted = localWriteCache.put(ledgerId, entryId, entry);
             } finally {
                 writeCacheRotationLock.unlockRead(stamp);
             }
         }
 
         if (!inserted) {
-            triggerFlushAndAddEntry(ledgerId, entryId, entry);
+            rotateWriteCacheAndAddEntry(ledgerId, entryId, entry, localWriteCache);
         }
 
         // after successfully insert the entry, update LAC and notify the watchers
         updateCachedLacIfNeeded(ledgerId, lac);
 
-        recordSuccessfulEvent(dbLedgerStorageStats.getAddEntryStats(), startTime);
+        recordForegroundEvent(dbLedgerStorageStats.getAddEntryStats(), startTime);
         return entryId;
     }
 
-    private void triggerFlushAndAddEntry(long ledgerId, long entryId, ByteBuf entry)
+    @Override
+    public boolean persistEntry(ByteBuf entry, WriteCallback cb, Object ctx) throws IOException {
+        if (spillLog == null) {
+            return false;
+        }
+
+        // The entry is already in a write cache, so it's spilled in the segment of that write cache or a later one
+        spillLog.append(entry, entry.getLong(entry.readerIndex()), entry.getLong(entry.readerIndex() + 8), cb, ctx);
+        return true;
+    }
+
+    /**
+     * The entries can't be acknowledged without the spill log, nor be written to the journal since it skips the
+     * data, so the bookie turns read-only.
+     */
+    private void onSpillLogFailure() {
+        log.error("The write cache spill log failed, turning the bookie read-only");
+        StateManager stateManager = this.stateManager;
+        if (stateManager != null) {
+            stateManager.transitionToReadOnlyMode();
+        }
+    }
+
+    @Override
+    public void recoverPersistedEntries() throws IOException {
+        if (spillLog == null) {
+            return;
+        }
+
+        spillLog.recover((ledgerId, entryId, entry) -> {
+            if (!ledgerExists(ledgerId)) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Skip recovering entries of ledger {} since it was deleted.", ledgerId);
+                }
+                return;
+            }
+            try {
+                addEntry(entry);
+            } catch (BookieException e) {
+                throw new IOException(e);
+            }
+        });
+
+        // The recovered segments can only be deleted once their entries are flushed
+        checkpoint(checkpointSource.newCheckpoint());
+        spillLog.deleteRecoveredSegments();
+    }
+
+    private void rotateWriteCacheAndAddEntry(long ledgerId, long entryId, ByteBuf entry, WriteCache fullWriteCache)
             throws IOException, BookieException {
-        long throttledStartTime = MathUtils.nowInNano();
-        dbLedgerStorageStats.getThrottledWriteRequests().inc();
+        long blockedStartTime = MathUtils.nowInNano();
+        long throttledStartTime = -1;
         long absoluteTimeoutNanos = System.nanoTime() + maxThrottleTimeNanos;
 
-        while (System.nanoTime() < absoluteTimeoutNanos) {
-            // Write cache is full, we need to trigger a flush so that it gets rotated
-            // If the flush has already been triggered or flush has already switched the
-            // cache, we don't need to trigger another flush
-            if (!isFlushOngoing.get() && hasFlushBeenTriggered.compareAndSet(false, true)) {
-                // Trigger an early flush in background
-                log.info("Write cache is full, triggering flush");
-                executor.execute(() -> {
-                        long startTime = System.nanoTime();
-                        try {
-                            flush();
-                        } catch (IOException e) {
-                            log.error("Error during flush", e);
-                        } finally {
-                            flushExecutorTime.addLatency(MathUtils.elapsedNanos(startTime), TimeUnit.NANOSECONDS);
+        try {
+            while (System.nanoTime() < absoluteTimeoutNanos) {
+                // The write cache is full: replace it with a free one and flush it in background. If it was already
+                // rotated by a different thread, we just need to retry the insertion in the new write cache
+                if (rotateWriteCache(fullWriteCache)) {
+                    triggerFlush();
+                }
+
+                long stamp = writeCacheRotationLock.readLock();
+                try {
+                    if (writeCache.put(ledgerId, entryId, entry)) {
+                        if (throttledStartTime != -1) {
+                            recordSuccessfulEvent(dbLedgerStorageStats.getThrottledWriteStats(), throttledStartTime);
                         }
-                    });
-            }
+                        return;
+                    }
+                    fullWriteCache = writeCache;
+                } finally {
+                    writeCacheRotationLock.unlockRead(stamp);
+                }
 
-            long stamp = writeCacheRotationLock.readLock();
-            try {
-                if (writeCache.put(ledgerId, entryId, entry)) {
-                    // We succeeded in putting the entry in write cache in the
-                    recordSuccessfulEvent(dbLedgerStorageStats.getThrottledWriteStats(), throttledStartTime);
-                    return;
+                if (throttledStartTime == -1) {
+                    // All the write caches are full, we need to wait for the flush to release one of them
+                    throttledStartTime = MathUtils.nowInNano();
+                    dbLedgerStorageStats.getThrottledWriteRequests().inc();
                 }
-            } finally {
-                writeCacheRotationLock.unlockRead(stamp);
-            }
+                triggerFlush();
 
-            // Wait some time and try again
-            try {
-                Thread.sleep(1);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                throw new IOException("Interrupted when adding entry " + ledgerId + "@" + entryId);
+                // Wait some time and try again
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted when adding entry " + ledgerId + "@" + entryId);
+                }
             }
+        } finally {
+            dbLedgerStorageStats.getWriteCacheRotationBlockedTime().addLatency(
+                    MathUtils.elapsedNanos(blockedStartTime), TimeUnit.NANOSECONDS);
         }
 
         // Timeout expired and we weren't able to insert in write cache
         dbLedgerStorageStats.getRejectedWriteRequests().inc();
-        recordFailedEvent(dbLedgerStorageStats.getThrottledWriteStats(), throttledStartTime);
+        recordFailedEvent(dbLedgerStorageStats.getThrottledWriteStats(),
+                throttledStartTime != -1 ? throttledStartTime : blockedStartTime);
         throw new OperationRejectedException();
     }
 
+    /**
+     * Trigger a background flush of the write caches waiting to be flushed, if not already triggered.
+     */
+    private void triggerFlush() {
+        if (hasFlushBeenTriggered.compareAndSet(false, true)) {
+            log.info("Write cache is full, triggering flush");
+            executor.execute(() -> {
+                    long startTime = System.nanoTime();
+                    // Write caches rotated from now on need a new flush
+                    hasFlushBeenTriggered.set(false);
+                    try {
+                        flushRotatedWriteCaches();
+                    } catch (IOException e) {
+                        log.error("Error during flush", e);
+                    } finally {
+                        flushExecutorTime.addLatency(MathUtils.elapsedNanos(startTime), TimeUnit.NANOSECONDS);
+                    }
+                });
+        }
+    }
+
     @Override
     public ByteBuf getEntry(long ledgerId, long entryId) throws IOException, BookieException {
         long startTime = MathUtils.nowInNano();
         try {
-            ByteBuf entry = doGetEntry(ledgerId, entryId);
-            recordSuccessfulEvent(dbLedgerStorageStats.getReadEntryStats(), startTime);
+            ByteBuf entry = (ByteBuf) doGetEntry(ledgerId, entryId, NO_FILE_REGION);
+            recordForegroundEvent(dbLedgerStorageStats.getReadEntryStats(), startTime);
+            return entry;
+        } catch (IOException e) {
+            recordFailedEvent(dbLedgerStorageStats.getReadEntryStats(), startTime);
+            throw e;
+        }
+    }
+
+    @Override
+    public ReferenceCounted getEntryOrRegion(long ledgerId, long entryId, int minRegionSize)
+            throws IOException, BookieException {
+        long startTime = MathUtils.nowInNano();
+        try {
+            ReferenceCounted entry = doGetEntry(ledgerId, entryId, minRegionSize);
+            recordForegroundEvent(dbLedgerStorageStats.getReadEntryStats(), startTime);
             return entry;
         } catch (IOException e) {
             recordFailedEvent(dbLedgerStorageStats.getReadEntryStats(), startTime);
@@ -561,7 +726,13 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         }
     }
 
-    private ByteBuf doGetEntry(long ledgerId, long entryId) throws IOException, BookieException {
+    /**
+     * Get an entry from the caches or from the entry logs. The entries read from the entry logs that are at least
+     * {@code minRegionSize} bytes can be returned as a {@link FileRegion}, in which case they are not added to the
+     * read cache and no read-ahead is done.
+     */
+    private ReferenceCounted doGetEntry(long ledgerId, long entryId, int minRegionSize)
+            throws IOException, BookieException {
         if (log.isDebugEnabled()) {
             log.debug("Get Entry: {}@{}", ledgerId, entryId);
         }
@@ -570,43 +741,25 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             return getLastEntry(ledgerId);
         }
 
-        // We need to try to read from both write caches, since recent entries could be found in either of the two. The
-        // write caches are already thread safe on their own, here we just need to make sure we get references to both
-        // of them. Using an optimistic lock since the read lock is always free, unless we're swapping the caches.
-        long stamp = writeCacheRotationLock.tryOptimisticRead();
-        WriteCache localWriteCache = writeCache;
-        WriteCache localWriteCacheBeingFlushed = writeCacheBeingFlushed;
-        if (!writeCacheRotationLock.validate(stamp)) {
-            // Fallback to regular read lock approach
-            stamp = writeCacheRotationLock.readLock();
-            try {
-                localWriteCache = writeCache;
-                localWriteCacheBeingFlushed = writeCacheBeingFlushed;
-            } finally {
-                writeCacheRotationLock.unlockRead(stamp);
+        // First try to read from the write caches of recent entries, including the ones waiting to be flushed. The
+        // write caches are already thread safe on their own, and a write cache is only removed from the list after
+        // its entries were added to the locations index.
+        ByteBuf entry;
+        for (WriteCache cache : writeCachesForRead) {
+            entry = cache.get(ledgerId, entryId);
+            if (entry != null) {
+                dbLedgerStorageStats.getWriteCacheHitCounter().inc();
+                return entry;
             }
         }
 
-        // First try to read from the write cache of recent entries
-        ByteBuf entry = localWriteCache.get(ledgerId, entryId);
-        if (entry != null) {
-            dbLedgerStorageStats.getWriteCacheHitCounter().inc();
-            return entry;
-        }
-
-        // If there's a flush going on, the entry might be in the flush buffer
-        entry = localWriteCacheBeingFlushed.get(ledgerId, entryId);
-        if (entry != null) {
-            dbLedgerStorageStats.getWriteCacheHitCounter().inc();
-            return entry;
-        }
-
         dbLedgerStorageStats.getWriteCacheMissCounter().inc();
 
         // Try reading from read-ahead cache
         entry = readCache.get(ledgerId, entryId);
         if (entry != null) {
             dbLedgerStorageStats.getReadCacheHitCounter().inc();
+            readAheadTracker.recordHit(ledgerId, entryId);
             return entry;
         }
 
@@ -627,26 +780,39 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             dbLedgerStorageStats.getReadFromLocationIndexTime().addLatency(
                     MathUtils.elapsedNanos(locationIndexStartNano), TimeUnit.NANOSECONDS);
         }
+        // Only a read of a stored entry is a miss, not the polling of a reader for the next entry
+        int readAheadBatchSize = readAheadTracker.recordMiss(ledgerId, entryId);
 
         long readEntryStartNano = MathUtils.nowInNano();
         try {
-            entry = entryLogger.readEntry(ledgerId, entryId, entryLocation);
+            if (minRegionSize == NO_FILE_REGION) {
+                entry = entryLogger.readEntry(ledgerId, entryId, entryLocation);
+            } else {
+                ReferenceCounted entryOrRegion = entryLogger.readEntryOrRegion(ledgerId, entryId, entryLocation,
+                        minRegionSize);
+                if (entryOrRegion instanceof FileRegion) {
+                    return entryOrRegion;
+                }
+                entry = (ByteBuf) entryOrRegion;
+            }
         } finally {
             dbLedgerStorageStats.getReadFromEntryLogTime().addLatency(
                     MathUtils.elapsedNanos(readEntryStartNano), TimeUnit.NANOSECONDS);
         }
 
-        readCache.put(ledgerId, entryId, entry);
+        readCache.putAccessed(ledgerId, entryId, entry);
 
         // Try to read more entries
         long nextEntryLocation = entryLocation + 4 /* size header */ + entry.readableBytes();
-        fillReadAheadCache(ledgerId, entryId + 1, nextEntryLocation);
+        fillReadAheadCache(ledgerId, entryId + 1, nextEntryLocation, readAheadBatchSize);
 
         return entry;
     }
 
-    private void fillReadAheadCache(long orginalLedgerId, long firstEntryId, long firstEntryLocation) {
+    private void fillReadAheadCache(long orginalLedgerId, long firstEntryId, long firstEntryLocation,
+                                    int batchSize) {
         long readAheadStartNano = MathUtils.nowInNano();
+        long readAheadFirstEntryId = firstEntryId;
         int count = 0;
         long size = 0;
 
@@ -655,39 +821,75 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             long currentEntryLogId = firstEntryLogId;
             long currentEntryLocation = firstEntryLocation;
 
-            while (count < readAheadCacheBatchSize
-                    && size < maxReadAheadBytesSize
-                    && currentEntryLogId == firstEntryLogId) {
-                ByteBuf entry = entryLogger.readEntry(orginalLedgerId,
-                        firstEntryId, currentEntryLocation);
-
-                try {
-                    long currentEntryLedgerId = entry.getLong(0);
-                    long currentEntryId = entry.getLong(8);
+            try {
+                while (count < batchSize
+                        && size < maxReadAheadBytesSize
+                        && currentEntryLogId == firstEntryLogId) {
+                    ByteBuf entry = entryLogger.readEntry(orginalLedgerId,
+                            firstEntryId, currentEntryLocation);
+
+                    try {
+                        long currentEntryLedgerId = entry.getLong(0);
+                        long currentEntryId = entry.getLong(8);
+
+                        if (currentEntryLedgerId != orginalLedgerId) {
+                            // Found an entry belonging to a different ledger, stopping sequential read-ahead
+                            break;
+                        }
 
-                    if (currentEntryLedgerId != orginalLedgerId) {
-                        // Found an entry belonging to a different ledger, stopping read-ahead
-                        break;
-                    }
+                        // Insert entry in read cache
+                        readCache.put(orginalLedgerId, currentEntryId, entry);
 
-                    // Insert entry in read cache
-                    readCache.put(orginalLedgerId, currentEntryId, entry);
+                        count++;
+                        firstEntryId++;
+                        size += entry.readableBytes();
 
-                    count++;
-                    firstEntryId++;
-                    size += entry.readableBytes();
+                        currentEntryLocation += 4 + entry.readableBytes();
+                        currentEntryLogId = currentEntryLocation >> 32;
+                    } finally {
+                        ReferenceCountUtil.release(entry);
+                    }
+                }
+            } catch (IOException e) {
+                // The next entry is not stored right after the previous one. An actual read failure of the entry
+                // fails again below, when read from the location in the index
+                if (log.isDebugEnabled()) {
+                    log.debug("Stopped sequential read ahead for ledger {} at entry {}: {}",
+                            orginalLedgerId, firstEntryId, e.getMessage());
+                }
+            }
 
-                    currentEntryLocation += 4 + entry.readableBytes();
-                    currentEntryLogId = currentEntryLocation >> 32;
-                } finally {
-                    ReferenceCountUtil.release(entry);
+            if (count < batchSize && size < maxReadAheadBytesSize && currentEntryLogId == firstEntryLogId) {
+                // The remaining entries were flushed in a different batch, look up all their locations with a single
+                // scan of the index instead of giving up the read-ahead
+                long[] locations = entryLocationIndex.getLocations(orginalLedgerId, firstEntryId,
+                        firstEntryId + batchSize - count - 1);
+                for (int i = 0; i < locations.length && size < maxReadAheadBytesSize; i++) {
+                    if (locations[i] == 0 || (locations[i] >> 32) != firstEntryLogId) {
+                        // Do not read ahead from a different entry log
+                        break;
+                    }
+                    ByteBuf entry = entryLogger.readEntry(orginalLedgerId, firstEntryId, locations[i]);
+                    try {
+                        readCache.put(orginalLedgerId, firstEntryId, entry);
+
+                        count++;
+                        firstEntryId++;
+                        size += entry.readableBytes();
+                    } finally {
+                        ReferenceCountUtil.release(entry);
+                    }
                 }
             }
+        } catch (IOException e) {
+            // Either the index lookup failed or an entry could not be read from its location in the index
+            log.warn("Failed to read ahead ledger {} from entry {}", orginalLedgerId, firstEntryId, e);
         } catch (Exception e) {
             if (log.isDebugEnabled()) {
                 log.debug("Exception during read ahead for ledger: {}: e", orginalLedgerId, e);
             }
         } finally {
+            readAheadTracker.recordReadAhead(orginalLedgerId, readAheadFirstEntryId, count, size);
             dbLedgerStorageStats.getReadAheadBatchCountStats().registerSuccessfulValue(count);
             dbLedgerStorageStats.getReadAheadBatchSizeStats().registerSuccessfulValue(size);
             dbLedgerStorageStats.getReadAheadTime().addLatency(
@@ -698,10 +900,9 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
     public ByteBuf getLastEntry(long ledgerId) throws IOException, BookieException {
         throwIfLimbo(ledgerId);
 
-        long stamp = writeCacheRotationLock.readLock();
-        try {
-            // First try to read from the write cache of recent entries
-            ByteBuf entry = writeCache.getLastEntry(ledgerId);
+        // First try to read from the write caches of recent entries
+        for (WriteCache cache : writeCachesForRead) {
+            ByteBuf entry = cache.getLastEntry(ledgerId);
             if (entry != null) {
                 if (log.isDebugEnabled()) {
                     long foundLedgerId = entry.readLong(); // ledgedId
@@ -716,24 +917,6 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
                 dbLedgerStorageStats.getWriteCacheHitCounter().inc();
                 return entry;
             }
-
-            // If there's a flush going on, the entry might be in the flush buffer
-            entry = writeCacheBeingFlushed.getLastEntry(ledgerId);
-            if (entry != null) {
-                if (log.isDebugEnabled()) {
-                    entry.readLong(); // ledgedId
-                    long entryId = entry.readLong();
-                    entry.resetReaderIndex();
-                    if (log.isDebugEnabled()) {
-                        log.debug("Found last entry for ledger {} in write cache being flushed: {}", ledgerId, entryId);
-                    }
-                }
-
-                dbLedgerStorageStats.getWriteCacheHitCounter().inc();
-                return entry;
-            }
-        } finally {
-            writeCacheRotationLock.unlockRead(stamp);
         }
 
         dbLedgerStorageStats.getWriteCacheMissCounter().inc();
@@ -756,11 +939,26 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         return content;
     }
 
+    /**
+     * Get the fraction of the write cache memory used by the entries not flushed yet.
+     */
+    double getWriteCacheUsage() {
+        long size = 0;
+        for (WriteCache cache : writeCaches) {
+            size += cache.size();
+        }
+        return (double) size / writeCacheMaxSize;
+    }
+
+    DbLedgerStorageStats getDbLedgerStorageStats() {
+        return dbLedgerStorageStats;
+    }
+
     @VisibleForTesting
     boolean isFlushRequired() {
         long stamp = writeCacheRotationLock.readLock();
         try {
-            return !writeCache.isEmpty();
+            return !writeCache.isEmpty() || !writeCachesToFlush.isEmpty();
         } finally {
             writeCacheRotationLock.unlockRead(stamp);
         }
@@ -785,45 +983,24 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         }
 
         try {
-            if (writeCache.isEmpty()) {
+            if (!isFlushRequired()) {
                 return;
             }
-            // Swap the write cache so that writes can continue to happen while the flush is
-            // ongoing
-            swapWriteCache();
 
-            long sizeToFlush = writeCacheBeingFlushed.size();
-            if (log.isDebugEnabled()) {
-                log.debug("Flushing entries. count: {} -- size {} Mb", writeCacheBeingFlushed.count(),
-                        sizeToFlush / 1024.0 / 1024);
+            // Rotate the write cache so that writes can continue to happen while the flush is ongoing
+            long sizeToFlush = 0;
+            WriteCache currentWriteCache = writeCache;
+            while (!currentWriteCache.isEmpty() && !rotateWriteCache(currentWriteCache)) {
+                // All the other write caches are waiting to be flushed, make room for the rotation
+                sizeToFlush += flushOldestWriteCache();
+                currentWriteCache = writeCache;
             }
 
-            // Write all the pending entries into the entry logger and collect the offset
-            // position for each entry
-
-            Batch batch = entryLocationIndex.newBatch();
-            writeCacheBeingFlushed.forEach((ledgerId, entryId, entry) -> {
-                long location = entryLogger.addEntry(ledgerId, entry);
-                entryLocationIndex.addLocation(batch, ledgerId, entryId, location);
-            });
-
-            long entryLoggerStart = MathUtils.nowInNano();
-            entryLogger.flush();
-            recordSuccessfulEvent(dbLedgerStorageStats.getFlushEntryLogStats(), entryLoggerStart);
-
-            long batchFlushStartTime = MathUtils.nowInNano();
-            batch.flush();
-            batch.close();
-            recordSuccessfulEvent(dbLedgerStorageStats.getFlushLocationIndexStats(), batchFlushStartTime);
-            if (log.isDebugEnabled()) {
-                log.debug("DB batch flushed time : {} s",
-                        MathUtils.elapsedNanos(batchFlushStartTime) / (double) TimeUnit.SECONDS.toNanos(1));
+            // Flush all the entries added before the checkpoint, ignoring the write caches rotated from now on
+            for (int i = getWriteCachesToFlushCount(); i > 0; i--) {
+                sizeToFlush += flushOldestWriteCache();
             }
 
-            long ledgerIndexStartTime = MathUtils.nowInNano();
-            ledgerIndex.flush();
-            recordSuccessfulEvent(dbLedgerStorageStats.getFlushLedgerIndexStats(), ledgerIndexStartTime);
-
             cleanupExecutor.execute(() -> {
                 // There can only be one single cleanup task running because the cleanupExecutor
                 // is single-threaded
@@ -841,9 +1018,6 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
 
             lastCheckpoint = thisCheckpoint;
 
-            // Discard all the entry from the write cache, since they're now persisted
-            writeCacheBeingFlushed.clear();
-
             double flushTimeSeconds = MathUtils.elapsedNanos(startTime) / (double) TimeUnit.SECONDS.toNanos(1);
             double flushThroughput = sizeToFlush / 1024.0 / 1024.0 / flushTimeSeconds;
 
@@ -858,34 +1032,153 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             // Leave IOExecption as it is
             throw e;
         } finally {
-            try {
-                isFlushOngoing.set(false);
-            } finally {
-                flushMutex.unlock();
+            flushMutex.unlock();
+        }
+    }
+
+    /**
+     * Flush the write caches that were rotated because they were full, without waiting for a checkpoint.
+     */
+    private void flushRotatedWriteCaches() throws IOException {
+        flushMutex.lock();
+        try {
+            for (int i = getWriteCachesToFlushCount(); i > 0; i--) {
+                long startTime = MathUtils.nowInNano();
+                try {
+                    long flushedSize = flushOldestWriteCache();
+                    recordSuccessfulEvent(dbLedgerStorageStats.getFlushStats(), startTime);
+                    dbLedgerStorageStats.getFlushSizeStats().registerSuccessfulValue(flushedSize);
+                } catch (IOException e) {
+                    recordFailedEvent(dbLedgerStorageStats.getFlushStats(), startTime);
+                    throw e;
+                }
             }
+        } finally {
+            flushMutex.unlock();
         }
     }
 
     /**
-     * Swap the current write cache with the replacement cache.
+     * Write the entries of the oldest write cache waiting to be flushed into the entry logger and the indexes, then
+     * give back the write cache to the free ones.
+     *
+     * <p>Must be called while holding the flushMutex.
+     *
+     * @return the size of the flushed entries
      */
-    private void swapWriteCache() {
-        long stamp = writeCacheRotationLock.writeLock();
+    private long flushOldestWriteCache() throws IOException {
+        WriteCache writeCacheToFlush;
+        long stamp = writeCacheRotationLock.readLock();
         try {
-            // First, swap the current write-cache map with an empty one so that writes will
-            // go on unaffected. Only a single flush is happening at the same time
-            WriteCache tmp = writeCacheBeingFlushed;
-            writeCacheBeingFlushed = writeCache;
-            writeCache = tmp;
-
-            // since the cache is switched, we can allow flush to be triggered
-            hasFlushBeenTriggered.set(false);
+            writeCacheToFlush = writeCachesToFlush.peek();
         } finally {
-            try {
-                isFlushOngoing.set(true);
-            } finally {
-                writeCacheRotationLock.unlockWrite(stamp);
+            writeCacheRotationLock.unlockRead(stamp);
+        }
+
+        if (writeCacheToFlush == null) {
+            return 0;
+        }
+
+        long sizeToFlush = writeCacheToFlush.size();
+        if (log.isDebugEnabled()) {
+            log.debug("Flushing entries. count: {} -- size {} Mb", writeCacheToFlush.count(),
+                    sizeToFlush / 1024.0 / 1024);
+        }
+
+        // Write all the pending entries into the entry logger and collect the offset
+        // position for each entry
+
+        Batch batch = entryLocationIndex.newBatch();
+        writeCacheToFlush.forEach((ledgerId, entryId, entry) -> {
+            long location = entryLogger.addEntry(ledgerId, entry);
+            entryLocationIndex.addLocation(batch, ledgerId, entryId, location);
+        });
+
+        long entryLoggerStart = MathUtils.nowInNano();
+        entryLogger.flush();
+        recordSuccessfulEvent(dbLedgerStorageStats.getFlushEntryLogStats(), entryLoggerStart);
+
+        long batchFlushStartTime = MathUtils.nowInNano();
+        batch.flush();
+        batch.close();
+        recordSuccessfulEvent(dbLedgerStorageStats.getFlushLocationIndexStats(), batchFlushStartTime);
+        if (log.isDebugEnabled()) {
+            log.debug("DB batch flushed time : {} s",
+                    MathUtils.elapsedNanos(batchFlushStartTime) / (double) TimeUnit.SECONDS.toNanos(1));
+        }
+
+        long ledgerIndexStartTime = MathUtils.nowInNano();
+        ledgerIndex.flush();
+        recordSuccessfulEvent(dbLedgerStorageStats.getFlushLedgerIndexStats(), ledgerIndexStartTime);
+
+        stamp = writeCacheRotationLock.writeLock();
+        try {
+            // Discard all the entry from the write cache, since they're now persisted
+            writeCachesToFlush.poll();
+            updateWriteCachesForRead();
+            writeCacheToFlush.clear();
+            freeWriteCaches.add(writeCacheToFlush);
+        } finally {
+            writeCacheRotationLock.unlockWrite(stamp);
+        }
+
+        if (spillLog != null) {
+            spillLog.release();
+        }
+        return sizeToFlush;
+    }
+
+    /**
+     * Replace the current write cache with a free one, and queue it to be flushed.
+     *
+     * @param fullWriteCache the write cache that needs to be rotated
+     * @return true if the write cache was rotated, either by this call or a concurrent one, false if there was no
+     *         free write cache
+     */
+    private boolean rotateWriteCache(WriteCache fullWriteCache) {
+        long stamp = writeCacheRotationLock.writeLock();
+        try {
+            if (writeCache != fullWriteCache) {
+                return true;
+            }
+
+            WriteCache freeWriteCache = freeWriteCaches.poll();
+            if (freeWriteCache == null) {
+                return false;
             }
+
+            writeCachesToFlush.add(writeCache);
+            writeCache = freeWriteCache;
+            updateWriteCachesForRead();
+            if (spillLog != null) {
+                // The entries added from now on are in the new write cache
+                spillLog.roll();
+            }
+            return true;
+        } finally {
+            writeCacheRotationLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Must be called while holding the write lock of writeCacheRotationLock.
+     */
+    private void updateWriteCachesForRead() {
+        WriteCache[] caches = new WriteCache[1 + writeCachesToFlush.size()];
+        caches[0] = writeCache;
+        Iterator<WriteCache> iterator = writeCachesToFlush.descendingIterator();
+        for (int i = 1; i < caches.length; i++) {
+            caches[i] = iterator.next();
+        }
+        writeCachesForRead = caches;
+    }
+
+    private int getWriteCachesToFlushCount() {
+        long stamp = writeCacheRotationLock.readLock();
+        try {
+            return writeCachesToFlush.size();
+        } finally {
+            writeCacheRotationLock.unlockRead(stamp);
         }
     }
 
@@ -922,6 +1215,8 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         if (tli != null) {
             tli.close();
         }
+
+        readAheadTracker.removeLedger(ledgerId);
     }
 
     @Override
@@ -929,6 +1224,11 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         return ledgerIndex.getActiveLedgersInRange(firstLedgerId, lastLedgerId);
     }
 
+    @Override
+    public long pollForegroundLatencyNanos() {
+        return dbLedgerStorageStats.pollForegroundLatencyNanos();
+    }
+
     @Override
     public void updateEntriesLocations(Iterable<EntryLocation> locations) throws IOException {
         // Trigger a flush to have all the entries being compacted in the db storage
@@ -1079,6 +1379,12 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         logger.registerSuccessfulEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
     }
 
+    private void recordForegroundEvent(OpStatsLogger logger, long startTimeNanos) {
+        long elapsedNanos = MathUtils.elapsedNanos(startTimeNanos);
+        logger.registerSuccessfulEvent(elapsedNanos, TimeUnit.NANOSECONDS);
+        dbLedgerStorageStats.recordForegroundLatency(elapsedNanos);
+    }
+
     private void recordFailedEvent(OpStatsLogger logger, long startTimeNanos) {
         logger.registerFailedEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
     }
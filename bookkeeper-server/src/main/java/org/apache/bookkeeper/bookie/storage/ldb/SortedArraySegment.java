@@ -0,0 +1,509 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Immutable, memory-mapped segment file of the {@link KeyValueStorageSortedArray} locations index.
+ *
+ * <p>File layout (all values are big-endian):
+ *
+ * <pre>
+ * header:          magic(8) version(4) ledgerCount(4) tombstoneCount(4) reserved(4)
+ *                  entriesCount(8) ledgerTableOffset(8) tombstoneTableOffset(8)
+ * data:            per-ledger location arrays
+ * ledger table:    ledgerCount x [ledgerId(8) firstEntryId(8) dataOffset(8) count(4) kind(4)]
+ * tombstone table: tombstoneCount x [ledgerId(8) fromEntryId(8) toEntryId(8)]
+ * </pre>
+ *
+ * <p>A {@link #DENSE} ledger stores {@code count} locations for the contiguous entry ids starting at
+ * {@code firstEntryId}, using {@link #NOT_FOUND} for gaps. A {@link #SPARSE} ledger stores {@code count} sorted
+ * entry ids followed by their {@code count} locations. Tombstones delete the entries in the range
+ * {@code [fromEntryId, toEntryId)} that are stored in older segments.
+ */
+class SortedArraySegment {
+
+    static final long MAGIC = 0x424b4c4f43494458L; // "BKLOCIDX"
+    static final int VERSION = 1;
+
+    static final int DENSE = 1;
+    static final int SPARSE = 2;
+
+    /**
+     * Location value for entries that are not present in the segment.
+     */
+    static final long NOT_FOUND = 0L;
+
+    /**
+     * Location value for entries that were explicitly removed.
+     */
+    static final long DELETED = -1L;
+
+    /**
+     * Marker for missing entry or ledger ids.
+     */
+    static final long NONE = Long.MIN_VALUE;
+
+    private static final int HEADER_SIZE = 48;
+    private static final int LEDGER_RECORD_SIZE = 32;
+    private static final int TOMBSTONE_RECORD_SIZE = 24;
+
+    private final File file;
+    private final long firstSeq;
+    private final long lastSeq;
+    private final ByteBuffer buffer;
+    private final int ledgerCount;
+    private final int tombstoneCount;
+    private final long entriesCount;
+    private final int ledgerTableOffset;
+    private final int tombstoneTableOffset;
+
+    SortedArraySegment(File file, long firstSeq, long lastSeq) throws IOException {
+        this.file = file;
+        this.firstSeq = firstSeq;
+        this.lastSeq = lastSeq;
+
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Invalid locations index segment size " + size + " for " + file);
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        this.buffer = mapped;
+
+        if (buffer.getLong(0) != MAGIC) {
+            throw new IOException("Invalid locations index segment magic in " + file);
+        }
+        int version = buffer.getInt(8);
+        if (version != VERSION) {
+            throw new IOException("Unsupported locations index segment version " + version + " in " + file);
+        }
+        this.ledgerCount = buffer.getInt(12);
+        this.tombstoneCount = buffer.getInt(16);
+        this.entriesCount = buffer.getLong(24);
+        this.ledgerTableOffset = (int) buffer.getLong(32);
+        this.tombstoneTableOffset = (int) buffer.getLong(40);
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    long getFirstSeq() {
+        return firstSeq;
+    }
+
+    long getLastSeq() {
+        return lastSeq;
+    }
+
+    long getEntriesCount() {
+        return entriesCount;
+    }
+
+    long getSize() {
+        return buffer.capacity();
+    }
+
+    int getLedgerCount() {
+        return ledgerCount;
+    }
+
+    long getLedgerId(int ledgerIdx) {
+        return buffer.getLong(ledgerTableOffset + ledgerIdx * LEDGER_RECORD_SIZE);
+    }
+
+    /**
+     * Binary search a ledger in the ledger table.
+     *
+     * @return the index of the ledger or {@code -(insertionPoint + 1)} if the ledger is not in this segment
+     */
+    int findLedger(long ledgerId) {
+        int low = 0;
+        int high = ledgerCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midLedgerId = getLedgerId(mid);
+            if (midLedgerId < ledgerId) {
+                low = mid + 1;
+            } else if (midLedgerId > ledgerId) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * @return the biggest ledger id stored in this segment that is lower than the given one, or {@link #NONE}
+     */
+    long lowerLedger(long ledgerId) {
+        int idx = findLedger(ledgerId);
+        int lowerIdx = idx >= 0 ? idx - 1 : -(idx + 1) - 1;
+        return lowerIdx >= 0 ? getLedgerId(lowerIdx) : NONE;
+    }
+
+    /**
+     * @return the smallest ledger id stored in this segment that is bigger than the given one, or {@link #NONE}
+     */
+    long higherLedger(long ledgerId) {
+        int idx = findLedger(ledgerId);
+        int higherIdx = idx >= 0 ? idx + 1 : -(idx + 1);
+        return higherIdx < ledgerCount ? getLedgerId(higherIdx) : NONE;
+    }
+
+    /**
+     * @return the location stored for the entry, {@link #DELETED} or {@link #NOT_FOUND}
+     */
+    long get(long ledgerId, long entryId) {
+        int ledgerIdx = findLedger(ledgerId);
+        return ledgerIdx < 0 ? NOT_FOUND : get(ledgerIdx, entryId);
+    }
+
+    long get(int ledgerIdx, long entryId) {
+        int record = ledgerTableOffset + ledgerIdx * LEDGER_RECORD_SIZE;
+        long firstEntryId = buffer.getLong(record + 8);
+        int dataOffset = (int) buffer.getLong(record + 16);
+        int count = buffer.getInt(record + 24);
+
+        if (buffer.getInt(record + 28) == DENSE) {
+            if (entryId < firstEntryId || entryId - firstEntryId >= count) {
+                return NOT_FOUND;
+            }
+            return buffer.getLong(dataOffset + (int) (entryId - firstEntryId) * Long.BYTES);
+        }
+
+        int idx = searchSparse(dataOffset, count, entryId);
+        return idx >= 0 ? buffer.getLong(dataOffset + (count + idx) * Long.BYTES) : NOT_FOUND;
+    }
+
+    /**
+     * @return the biggest entry id lower than {@code bound} having a location or a deletion marker in this
+     *         segment, or {@link #NONE}
+     */
+    long floorEntry(int ledgerIdx, long bound) {
+        int record = ledgerTableOffset + ledgerIdx * LEDGER_RECORD_SIZE;
+        long firstEntryId = buffer.getLong(record + 8);
+        int dataOffset = (int) buffer.getLong(record + 16);
+        int count = buffer.getInt(record + 24);
+
+        if (buffer.getInt(record + 28) == DENSE) {
+            if (bound <= firstEntryId) {
+                return NONE;
+            }
+            int idx = (int) Math.min(count - 1, bound - 1 - firstEntryId);
+            while (idx >= 0 && buffer.getLong(dataOffset + idx * Long.BYTES) == NOT_FOUND) {
+                idx--;
+            }
+            return idx >= 0 ? firstEntryId + idx : NONE;
+        }
+
+        int idx = searchSparse(dataOffset, count, bound);
+        int floorIdx = idx >= 0 ? idx - 1 : -(idx + 1) - 1;
+        return floorIdx >= 0 ? buffer.getLong(dataOffset + floorIdx * Long.BYTES) : NONE;
+    }
+
+    /**
+     * Pass all the entries of a ledger, including deletion markers, to the processor in entry id order.
+     */
+    void forEachEntry(int ledgerIdx, EntryProcessor processor) {
+        forEachEntry(ledgerIdx, Long.MIN_VALUE, Long.MAX_VALUE, processor);
+    }
+
+    /**
+     * Process the entries of the ledger with id in the range {@code [fromEntryId, toEntryId)}, in order.
+     */
+    void forEachEntry(int ledgerIdx, long fromEntryId, long toEntryId, EntryProcessor processor) {
+        int record = ledgerTableOffset + ledgerIdx * LEDGER_RECORD_SIZE;
+        long firstEntryId = buffer.getLong(record + 8);
+        int dataOffset = (int) buffer.getLong(record + 16);
+        int count = buffer.getInt(record + 24);
+
+        if (buffer.getInt(record + 28) == DENSE) {
+            int start = denseIndex(firstEntryId, count, fromEntryId);
+            int end = denseIndex(firstEntryId, count, toEntryId);
+            for (int i = start; i < end; i++) {
+                long location = buffer.getLong(dataOffset + i * Long.BYTES);
+                if (location != NOT_FOUND) {
+                    processor.process(firstEntryId + i, location);
+                }
+            }
+        } else {
+            int idx = fromEntryId == Long.MIN_VALUE ? 0 : searchSparse(dataOffset, count, fromEntryId);
+            for (int i = idx >= 0 ? idx : -(idx + 1); i < count; i++) {
+                long entryId = buffer.getLong(dataOffset + i * Long.BYTES);
+                if (entryId >= toEntryId) {
+                    break;
+                }
+                processor.process(entryId, buffer.getLong(dataOffset + (count + i) * Long.BYTES));
+            }
+        }
+    }
+
+    /**
+     * @return the first entry id of the tombstone covering the entry, or {@link #NONE} if it is not deleted by
+     *         this segment
+     */
+    long deletedRangeStart(long ledgerId, long entryId) {
+        for (int i = firstTombstone(ledgerId); i < tombstoneCount; i++) {
+            int record = tombstoneTableOffset + i * TOMBSTONE_RECORD_SIZE;
+            if (buffer.getLong(record) != ledgerId) {
+                break;
+            }
+            long from = buffer.getLong(record + 8);
+            long to = buffer.getLong(record + 16);
+            if (entryId >= from && entryId < to) {
+                return from;
+            }
+        }
+        return NONE;
+    }
+
+    int getTombstoneCount() {
+        return tombstoneCount;
+    }
+
+    /**
+     * Copy the tombstones of the segment as {@code (ledgerId, fromEntryId, toEntryId, 0)} tuples.
+     *
+     * @return the offset following the last copied tuple
+     */
+    int copyTombstones(long[] tuples, int offset) {
+        for (int i = 0; i < tombstoneCount; i++) {
+            int record = tombstoneTableOffset + i * TOMBSTONE_RECORD_SIZE;
+            tuples[offset] = buffer.getLong(record);
+            tuples[offset + 1] = buffer.getLong(record + 8);
+            tuples[offset + 2] = buffer.getLong(record + 16);
+            tuples[offset + 3] = 0;
+            offset += 4;
+        }
+        return offset;
+    }
+
+    private int firstTombstone(long ledgerId) {
+        int low = 0;
+        int high = tombstoneCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (buffer.getLong(tombstoneTableOffset + mid * TOMBSTONE_RECORD_SIZE) < ledgerId) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the position of the entry in a dense array, clamped to {@code [0, count]}
+     */
+    private static int denseIndex(long firstEntryId, int count, long entryId) {
+        if (entryId <= firstEntryId) {
+            return 0;
+        }
+        // The difference can only overflow for a negative first entry id
+        long idx = entryId - firstEntryId;
+        return idx < 0 || idx > count ? count : (int) idx;
+    }
+
+    private int searchSparse(int dataOffset, int count, long entryId) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midEntryId = buffer.getLong(dataOffset + mid * Long.BYTES);
+            if (midEntryId < entryId) {
+                low = mid + 1;
+            } else if (midEntryId > entryId) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Callback for the entries stored in a segment.
+     */
+    interface EntryProcessor {
+        void process(long entryId, long location);
+    }
+
+    /**
+     * Sequentially write a new segment file. Ledgers and tombstones must be added in ledger id order.
+     */
+    static class Writer implements Closeable {
+        private final File file;
+        private final FileOutputStream fileOutputStream;
+        private final DataOutputStream out;
+        private final int maxDenseGapRatio;
+
+        private long position;
+        private long entriesCount;
+
+        private long[] ledgerTable = new long[4 * 1024];
+        private int ledgerCount;
+        private long[] tombstoneTable = new long[3 * 64];
+        private int tombstoneCount;
+
+        Writer(File file, int maxDenseGapRatio) throws IOException {
+            this.file = file;
+            this.maxDenseGapRatio = maxDenseGapRatio;
+            this.fileOutputStream = new FileOutputStream(file);
+            this.out = new DataOutputStream(new BufferedOutputStream(fileOutputStream, 1024 * 1024));
+
+            // Header is written once the tables offsets are known
+            out.write(new byte[HEADER_SIZE]);
+            position = HEADER_SIZE;
+        }
+
+        /**
+         * Add the locations of a ledger. {@code entryIds} must be sorted and free of duplicates.
+         */
+        void addLedger(long ledgerId, long[] entryIds, long[] locations, int count) throws IOException {
+            if (count == 0) {
+                return;
+            }
+
+            long firstEntryId = entryIds[0];
+            long span = entryIds[count - 1] - firstEntryId + 1;
+            boolean dense = span <= (long) count * maxDenseGapRatio && span <= Integer.MAX_VALUE / Long.BYTES;
+
+            if (ledgerTable.length < (ledgerCount + 1) * 4) {
+                long[] newTable = new long[ledgerTable.length * 2];
+                System.arraycopy(ledgerTable, 0, newTable, 0, ledgerCount * 4);
+                ledgerTable = newTable;
+            }
+            int idx = ledgerCount * 4;
+            ledgerTable[idx] = ledgerId;
+            ledgerTable[idx + 1] = dense ? firstEntryId : 0;
+            ledgerTable[idx + 2] = position;
+            ledgerTable[idx + 3] = dense ? (span << 32) | DENSE : ((long) count << 32) | SPARSE;
+            ledgerCount++;
+
+            if (dense) {
+                long nextEntryId = firstEntryId;
+                for (int i = 0; i < count; i++) {
+                    while (nextEntryId < entryIds[i]) {
+                        out.writeLong(NOT_FOUND);
+                        nextEntryId++;
+                    }
+                    out.writeLong(locations[i]);
+                    nextEntryId++;
+                }
+                position += span * Long.BYTES;
+            } else {
+                for (int i = 0; i < count; i++) {
+                    out.writeLong(entryIds[i]);
+                }
+                for (int i = 0; i < count; i++) {
+                    out.writeLong(locations[i]);
+                }
+                position += 2L * count * Long.BYTES;
+            }
+            entriesCount += count;
+            checkSize();
+        }
+
+        void addTombstone(long ledgerId, long fromEntryId, long toEntryId) {
+            if (tombstoneTable.length < (tombstoneCount + 1) * 3) {
+                long[] newTable = new long[tombstoneTable.length * 2];
+                System.arraycopy(tombstoneTable, 0, newTable, 0, tombstoneCount * 3);
+                tombstoneTable = newTable;
+            }
+            int idx = tombstoneCount * 3;
+            tombstoneTable[idx] = ledgerId;
+            tombstoneTable[idx + 1] = fromEntryId;
+            tombstoneTable[idx + 2] = toEntryId;
+            tombstoneCount++;
+        }
+
+        /**
+         * Write the ledger and tombstone tables and the header, then fsync the file.
+         */
+        void finish() throws IOException {
+            long ledgerTableOffset = position;
+            for (int i = 0; i < ledgerCount; i++) {
+                int idx = i * 4;
+                out.writeLong(ledgerTable[idx]);
+                out.writeLong(ledgerTable[idx + 1]);
+                out.writeLong(ledgerTable[idx + 2]);
+                out.writeInt((int) (ledgerTable[idx + 3] >>> 32));
+                out.writeInt((int) ledgerTable[idx + 3]);
+            }
+            position += (long) ledgerCount * LEDGER_RECORD_SIZE;
+
+            long tombstoneTableOffset = position;
+            for (int i = 0; i < tombstoneCount * 3; i++) {
+                out.writeLong(tombstoneTable[i]);
+            }
+            position += (long) tombstoneCount * TOMBSTONE_RECORD_SIZE;
+            checkSize();
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putLong(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(ledgerCount);
+            header.putInt(tombstoneCount);
+            header.putInt(0);
+            header.putLong(entriesCount);
+            header.putLong(ledgerTableOffset);
+            header.putLong(tombstoneTableOffset);
+            header.flip();
+
+            FileChannel channel = fileOutputStream.getChannel();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+        }
+
+        long getPosition() {
+            return position;
+        }
+
+        private void checkSize() throws IOException {
+            if (position > Integer.MAX_VALUE) {
+                throw new IOException("Locations index segment " + file + " exceeds the maximum segment size");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -27,10 +27,13 @@ import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
 import org.apache.bookkeeper.common.util.MathUtils;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashMap;
 import org.apache.bookkeeper.util.collections.ConcurrentLongHashSet;
 import org.apache.bookkeeper.util.collections.ConcurrentLongLongHashMap;
 import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap;
@@ -48,7 +51,9 @@ import org.slf4j.LoggerFactory;
  * until the cache is cleared.
  *
  * <p>There is the possibility to iterate through the stored entries in an ordered
- * way, by (ledgerId, entry).
+ * way, by (ledgerId, entry). By default all the entries are sorted when iterating. When the
+ * ledger buckets are enabled, the entries of each ledger are also appended to a per-ledger
+ * bucket on insertion, so that the iteration only needs to sort the ledger ids.
  */
 public class WriteCache implements Closeable {
 
@@ -83,14 +88,25 @@ public class WriteCache implements Closeable {
 
     private final ConcurrentLongHashSet deletedLedgers = ConcurrentLongHashSet.newBuilder().build();
 
+    // Entries of each ledger in insertion order, only used when the ledger buckets are enabled
+    private final ConcurrentLongHashMap<LedgerBucket> ledgerBuckets;
+
     private final ByteBufAllocator allocator;
 
     public WriteCache(ByteBufAllocator allocator, long maxCacheSize) {
+        this(allocator, maxCacheSize, false);
+    }
+
+    public WriteCache(ByteBufAllocator allocator, long maxCacheSize, boolean useLedgerBuckets) {
         // Default maxSegmentSize set to 1Gb
-        this(allocator, maxCacheSize, 1 * 1024 * 1024 * 1024);
+        this(allocator, maxCacheSize, 1 * 1024 * 1024 * 1024, useLedgerBuckets);
     }
 
     public WriteCache(ByteBufAllocator allocator, long maxCacheSize, int maxSegmentSize) {
+        this(allocator, maxCacheSize, maxSegmentSize, false);
+    }
+
+    public WriteCache(ByteBufAllocator allocator, long maxCacheSize, int maxSegmentSize, boolean useLedgerBuckets) {
         checkArgument(maxSegmentSize > 0);
 
         long alignedMaxSegmentSize = alignToPowerOfTwo(maxSegmentSize);
@@ -113,6 +129,13 @@ public class WriteCache implements Closeable {
 
         int lastSegmentSize = (int) (maxCacheSize % maxSegmentSize);
         cacheSegments[segmentsCount - 1] = Unpooled.directBuffer(lastSegmentSize, lastSegmentSize);
+
+        this.ledgerBuckets = useLedgerBuckets
+                ? ConcurrentLongHashMap.<LedgerBucket>newBuilder()
+                    .expectedItems(4096)
+                    .concurrencyLevel(2 * Runtime.getRuntime().availableProcessors())
+                    .build()
+                : null;
     }
 
     public void clear() {
@@ -122,6 +145,9 @@ public class WriteCache implements Closeable {
         index.clear();
         lastEntryMap.clear();
         deletedLedgers.clear();
+        if (ledgerBuckets != null) {
+            ledgerBuckets.clear();
+        }
     }
 
     @Override
@@ -177,7 +203,17 @@ public class WriteCache implements Closeable {
             }
         }
 
-        index.put(ledgerId, entryId, offset, size);
+        if (ledgerBuckets != null) {
+            LedgerBucket bucket = ledgerBuckets.computeIfAbsent(ledgerId, l -> new LedgerBucket());
+            // Indexed under the lock of the bucket, so that the last copy of an entry added concurrently by
+            // different threads is the same in both
+            synchronized (bucket) {
+                index.put(ledgerId, entryId, offset, size);
+                bucket.add(entryId, offset, size);
+            }
+        } else {
+            index.put(ledgerId, entryId, offset, size);
+        }
         cacheCount.increment();
         cacheSize.addAndGet(size);
         return true;
@@ -218,6 +254,11 @@ public class WriteCache implements Closeable {
     }
 
     public void forEach(EntryConsumer consumer) throws IOException {
+        if (ledgerBuckets != null) {
+            forEachInLedgerBuckets(consumer);
+            return;
+        }
+
         sortedEntriesLock.lock();
 
         try {
@@ -281,6 +322,119 @@ public class WriteCache implements Closeable {
         }
     }
 
+    private void forEachInLedgerBuckets(EntryConsumer consumer) throws IOException {
+        sortedEntriesLock.lock();
+
+        try {
+            long startTime = MathUtils.nowInNano();
+
+            // Only the ledgers need to be sorted, the entries of each bucket are already in order
+            List<Long> ledgers = ledgerBuckets.keys();
+            long[] ledgerIds = new long[ledgers.size()];
+            for (int l = 0; l < ledgerIds.length; l++) {
+                ledgerIds[l] = ledgers.get(l);
+            }
+            Arrays.sort(ledgerIds);
+            if (log.isDebugEnabled()) {
+                log.debug("sorting {} ledgers {} ms", ledgerIds.length, MathUtils.elapsedNanos(startTime) / 1e6);
+            }
+            startTime = MathUtils.nowInNano();
+
+            ByteBuf[] entrySegments = new ByteBuf[segmentsCount];
+            for (int i = 0; i < segmentsCount; i++) {
+                entrySegments[i] = cacheSegments[i].slice(0, cacheSegments[i].capacity());
+            }
+
+            for (int l = 0; l < ledgerIds.length; l++) {
+                long ledgerId = ledgerIds[l];
+                if (deletedLedgers.contains(ledgerId)) {
+                    // Ignore deleted ledgers
+                    continue;
+                }
+
+                LedgerBucket bucket = ledgerBuckets.get(ledgerId);
+                long[] bucketEntries;
+                int bucketSize;
+                synchronized (bucket) {
+                    bucketSize = bucket.sortEntries();
+                    // The sorted items are not modified by the entries added after, if any
+                    bucketEntries = bucket.entries;
+                }
+                for (int i = 0; i < bucketSize; i += 4) {
+                    long entryId = bucketEntries[i];
+                    long offset = bucketEntries[i + 2];
+                    long length = bucketEntries[i + 3];
+
+                    int localOffset = (int) (offset & segmentOffsetMask);
+                    int segmentIdx = (int) (offset >>> segmentOffsetBits);
+                    ByteBuf entry = entrySegments[segmentIdx];
+                    entry.setIndex(localOffset, localOffset + (int) length);
+                    consumer.accept(ledgerId, entryId, entry);
+                }
+            }
+
+            if (log.isDebugEnabled()) {
+                log.debug("entry log adding {} ms", MathUtils.elapsedNanos(startTime) / 1e6);
+            }
+        } finally {
+            sortedEntriesLock.unlock();
+        }
+    }
+
+    /**
+     * Entries of a ledger in insertion order, stored as (entryId, insertionIdx, offset, length) groups.
+     */
+    private static class LedgerBucket {
+        private long[] entries = new long[4 * 16];
+        private int size = 0;
+        private long insertions = 0;
+        private boolean sorted = true;
+
+        synchronized void add(long entryId, long offset, long length) {
+            if (size == entries.length) {
+                entries = Arrays.copyOf(entries, size * 2);
+            }
+
+            if (size > 0 && entries[size - 4] >= entryId) {
+                // Entries were added out of order, or the same entry was added again
+                sorted = false;
+            }
+
+            entries[size] = entryId;
+            entries[size + 1] = insertions++;
+            entries[size + 2] = offset;
+            entries[size + 3] = length;
+            size += 4;
+        }
+
+        /**
+         * Sort the entries by entryId if they were not added in order, keeping only the last insertion of the
+         * entries that were added multiple times.
+         *
+         * @return the number of items in the entries array
+         */
+        synchronized int sortEntries() {
+            if (sorted) {
+                return size;
+            }
+
+            ArrayGroupSort.sort(entries, 0, size);
+            int newSize = 0;
+            for (int i = 0; i < size; i += 4) {
+                if (i + 4 < size && entries[i + 4] == entries[i]) {
+                    // The same entry was added again later
+                    continue;
+                }
+                System.arraycopy(entries, i, entries, newSize, 4);
+                newSize += 4;
+            }
+
+            size = newSize;
+            sorted = true;
+            return size;
+        }
+    }
+
     public long size() {
         return cacheSize.get();
     }
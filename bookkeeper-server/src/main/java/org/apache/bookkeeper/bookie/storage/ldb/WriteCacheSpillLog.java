@@ -0,0 +1,447 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import com.carrotsearch.hppc.ObjectHashSet;
+import com.carrotsearch.hppc.procedures.ObjectProcedure;
+import com.google.common.annotations.VisibleForTesting;
+import com.scurrilous.circe.checksum.Crc32cIntChecksum;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.common.collections.BatchedArrayBlockingQueue;
+import org.apache.bookkeeper.proto.BookieProtocol;
+import org.apache.bookkeeper.proto.BookieRequestHandler;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteCallback;
+import org.apache.bookkeeper.util.MathUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only log where the entries added to the write caches are persisted before being acknowledged, so that
+ * they survive a crash without being written to the journal.
+ *
+ * <p>The log is split into segments following the write caches: a new segment is started whenever the write cache
+ * is rotated, and the oldest segment is deleted once the oldest write cache is flushed. An entry is always appended
+ * after being inserted in a write cache, so a segment only holds entries of its write cache or of the older ones.
+ *
+ * <p>A single thread writes the entries to the current segment, groups them for up to the flush interval, and acks
+ * them once the segment is synced. The roll and release requests are queued along with the entries, so they're
+ * applied in order.
+ *
+ * <p>Each record is made of its length, the CRC32C checksum of the entry, and the entry. On recovery, the segments
+ * are read in order and a record that is truncated or fails the checksum ends its segment.
+ *
+ * <p>After an I/O error the log is failed: new entries are rejected, rolls and releases are ignored, and the spill
+ * thread keeps failing the queued requests until the log is closed, so that no caller blocks on a full queue.
+ */
+class WriteCacheSpillLog implements Closeable {
+
+    private static final String SPILL_DIR = "writecache-spill";
+    private static final String SEGMENT_SUFFIX = ".spill";
+    private static final int RECORD_HEADER_SIZE = Integer.BYTES * 2;
+    private static final int MAX_BATCH = 10_000;
+    private static final int QUEUE_CAPACITY = 100_000;
+
+    /**
+     * Consumer of the entries recovered from the log.
+     */
+    interface EntryConsumer {
+        void accept(long ledgerId, long entryId, ByteBuf entry) throws IOException;
+    }
+
+    private static final class Request {
+        private final ByteBuf entry;
+        private final long ledgerId;
+        private final long entryId;
+        private final WriteCallback cb;
+        private final Object ctx;
+
+        private Request(ByteBuf entry, long ledgerId, long entryId, WriteCallback cb, Object ctx) {
+            this.entry = entry;
+            this.ledgerId = ledgerId;
+            this.entryId = entryId;
+            this.cb = cb;
+            this.ctx = ctx;
+        }
+    }
+
+    private static final Request ROLL = new Request(null, -1, -1, null, null);
+    private static final Request RELEASE = new Request(null, -1, -1, null, null);
+
+    private static final Logger log = LoggerFactory.getLogger(WriteCacheSpillLog.class);
+
+    private final File dir;
+    private final long flushIntervalNanos;
+    private final DbLedgerStorageStats stats;
+    private final ByteBufAllocator allocator;
+
+    // Segments written before the bookie started, deleted once their entries are recovered and flushed
+    private final List<File> recoveredSegments;
+    // Segments closed by a roll, from the oldest. Only accessed by the spill thread.
+    private final ArrayDeque<File> closedSegments = new ArrayDeque<>();
+    private long nextSegmentId;
+    private File currentSegment;
+    private FileChannel currentChannel;
+
+    private final BatchedArrayBlockingQueue<Request> queue = new BatchedArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final ExecutorService spillThread;
+    private volatile boolean running = true;
+    private volatile IOException failure;
+    // Notified once when the log fails
+    private final Runnable failureListener;
+
+    WriteCacheSpillLog(File ledgerDir, long flushIntervalNanos, DbLedgerStorageStats stats,
+                       ByteBufAllocator allocator, Runnable failureListener) throws IOException {
+        this.dir = new File(ledgerDir, SPILL_DIR);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create the write cache spill directory " + dir);
+        }
+        this.flushIntervalNanos = flushIntervalNanos;
+        this.stats = stats;
+        this.allocator = allocator;
+        this.failureListener = failureListener;
+
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SEGMENT_SUFFIX));
+        this.recoveredSegments = new ArrayList<>();
+        if (files != null) {
+            Arrays.sort(files, (f1, f2) -> Long.compare(segmentId(f1), segmentId(f2)));
+            for (File file : files) {
+                recoveredSegments.add(file);
+                nextSegmentId = Math.max(nextSegmentId, segmentId(file) + 1);
+            }
+        }
+        openSegment();
+
+        this.spillThread = Executors.newSingleThreadExecutor(new DefaultThreadFactory("db-storage-spill"));
+        spillThread.execute(this::run);
+    }
+
+    private static long segmentId(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()), 16);
+    }
+
+    private void openSegment() throws IOException {
+        currentSegment = new File(dir, String.format("%016x%s", nextSegmentId++, SEGMENT_SUFFIX));
+        currentChannel = openChannel(currentSegment);
+    }
+
+    @VisibleForTesting
+    FileChannel openChannel(File segment) throws IOException {
+        return FileChannel.open(segment.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Append an entry, and invoke the callback once it's persisted.
+     *
+     * @throws IOException if the log failed or is closed
+     */
+    void append(ByteBuf entry, long ledgerId, long entryId, WriteCallback cb, Object ctx) throws IOException {
+        IOException e = failure;
+        if (e != null) {
+            throw new IOException("The write cache spill log in " + dir + " failed", e);
+        } else if (!running) {
+            throw new IOException("The write cache spill log in " + dir + " is closed");
+        }
+        enqueue(new Request(entry.retainedDuplicate(), ledgerId, entryId, cb, ctx));
+    }
+
+    /**
+     * Start a new segment, for the entries of the new write cache. Must be called while the write caches can't be
+     * rotated concurrently. Ignored once the log failed.
+     */
+    void roll() {
+        if (failure == null) {
+            enqueue(ROLL);
+        }
+    }
+
+    /**
+     * Delete the oldest closed segment, once the write cache it was rolled with is flushed. Ignored once the log
+     * failed, the segments left are recovered again on the next start.
+     */
+    void release() {
+        if (failure == null) {
+            enqueue(RELEASE);
+        }
+    }
+
+    boolean isFailed() {
+        return failure != null;
+    }
+
+    private void enqueue(Request request) {
+        try {
+            queue.put(request);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(request);
+        }
+    }
+
+    private void run() {
+        Request[] requests = new Request[MAX_BATCH];
+        List<Request> toAck = new ArrayList<>();
+        ObjectHashSet<BookieRequestHandler> writeHandlers = new ObjectHashSet<>();
+        ByteBuf buffer = allocator.directBuffer(1024 * 1024);
+
+        try {
+            while (running || !queue.isEmpty()) {
+                int count = queue.pollAll(requests, 100, TimeUnit.MILLISECONDS);
+                if (count == 0) {
+                    continue;
+                }
+                long deadline = System.nanoTime() + flushIntervalNanos;
+
+                while (true) {
+                    for (int i = 0; i < count; i++) {
+                        Request request = requests[i];
+                        requests[i] = null;
+                        if (request == ROLL) {
+                            write(buffer);
+                            rollSegment();
+                        } else if (request == RELEASE) {
+                            File segment = closedSegments.poll();
+                            if (segment != null && !segment.delete()) {
+                                log.warn("Failed to delete the write cache spill segment {}", segment);
+                            }
+                        } else {
+                            appendRecord(buffer, request.entry);
+                            ReferenceCountUtil.release(request.entry);
+                            toAck.add(request);
+                        }
+                    }
+
+                    // Group the entries arriving in the flush interval into the same sync
+                    long waitNanos = deadline - System.nanoTime();
+                    if (waitNanos <= 0 || toAck.size() >= MAX_BATCH) {
+                        break;
+                    }
+                    count = queue.pollAll(requests, waitNanos, TimeUnit.NANOSECONDS);
+                    if (count == 0) {
+                        break;
+                    }
+                }
+
+                int rc = BookieProtocol.EOK;
+                if (!toAck.isEmpty()) {
+                    try {
+                        write(buffer);
+                        long syncStart = MathUtils.nowInNano();
+                        currentChannel.force(false);
+                        stats.getSpillSyncStats().registerSuccessfulEvent(MathUtils.elapsedNanos(syncStart),
+                                TimeUnit.NANOSECONDS);
+                    } catch (IOException e) {
+                        log.error("Failed to persist the entries in the write cache spill log {}", currentSegment, e);
+                        failure = e;
+                        rc = BookieProtocol.EIO;
+                    }
+                }
+
+                for (int i = 0; i < toAck.size(); i++) {
+                    Request request = toAck.get(i);
+                    if (request.ctx instanceof BookieRequestHandler) {
+                        writeHandlers.add((BookieRequestHandler) request.ctx);
+                    }
+                    request.cb.writeComplete(rc, request.ledgerId, request.entryId, null, request.ctx);
+                }
+                toAck.clear();
+                writeHandlers.forEach(
+                        (ObjectProcedure<? super BookieRequestHandler>) BookieRequestHandler::flushPendingResponse);
+                writeHandlers.clear();
+
+                if (failure != null) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.error("Failed to roll the write cache spill log", e);
+            failure = e;
+        } finally {
+            buffer.release();
+        }
+
+        // Fail the entries that were not persisted
+        for (Request request : toAck) {
+            request.cb.writeComplete(BookieProtocol.EIO, request.ledgerId, request.entryId, null, request.ctx);
+        }
+        for (int i = 0; i < requests.length; i++) {
+            if (requests[i] != null) {
+                fail(requests[i]);
+                requests[i] = null;
+            }
+        }
+        if (failure != null) {
+            failureListener.run();
+        }
+
+        // Requests may still be queued by the callers that checked the state before the failure
+        try {
+            while (running || !queue.isEmpty()) {
+                int count = queue.pollAll(requests, 100, TimeUnit.MILLISECONDS);
+                for (int i = 0; i < count; i++) {
+                    fail(requests[i]);
+                    requests[i] = null;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Request request;
+        while ((request = queue.poll()) != null) {
+            fail(request);
+        }
+    }
+
+    private static void fail(Request request) {
+        if (request.cb != null) {
+            ReferenceCountUtil.release(request.entry);
+            request.cb.writeComplete(BookieProtocol.EIO, request.ledgerId, request.entryId, null, request.ctx);
+        }
+    }
+
+    private void appendRecord(ByteBuf buffer, ByteBuf entry) throws IOException {
+        int size = entry.readableBytes();
+        if (buffer.writableBytes() < RECORD_HEADER_SIZE + size && buffer.readableBytes() > 0) {
+            write(buffer);
+        }
+        buffer.writeInt(size);
+        buffer.writeInt(Crc32cIntChecksum.computeChecksum(entry));
+        buffer.writeBytes(entry, entry.readerIndex(), size);
+    }
+
+    private void write(ByteBuf buffer) throws IOException {
+        int size = buffer.readableBytes();
+        if (size == 0) {
+            return;
+        }
+        ByteBuffer nioBuffer = buffer.nioBuffer();
+        while (nioBuffer.hasRemaining()) {
+            currentChannel.write(nioBuffer);
+        }
+        buffer.clear();
+        stats.getSpillWrittenBytes().addCount(size);
+    }
+
+    private void rollSegment() throws IOException {
+        currentChannel.force(false);
+        currentChannel.close();
+        closedSegments.add(currentSegment);
+        openSegment();
+    }
+
+    /**
+     * Read the entries of the segments written before the bookie started, in order.
+     */
+    void recover(EntryConsumer consumer) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        for (File segment : recoveredSegments) {
+            long entries = 0;
+            try (RandomAccessFile file = new RandomAccessFile(segment, "r")) {
+                FileChannel channel = file.getChannel();
+                long position = 0;
+                long length = channel.size();
+                while (position + RECORD_HEADER_SIZE <= length) {
+                    header.clear();
+                    readFully(channel, header, position);
+                    int size = header.getInt(0);
+                    int checksum = header.getInt(Integer.BYTES);
+                    if (size < 2 * Long.BYTES || position + RECORD_HEADER_SIZE + size > length) {
+                        break;
+                    }
+
+                    ByteBuffer data = ByteBuffer.allocate(size);
+                    readFully(channel, data, position + RECORD_HEADER_SIZE);
+                    data.flip();
+                    ByteBuf entry = Unpooled.wrappedBuffer(data);
+                    if (Crc32cIntChecksum.computeChecksum(entry) != checksum) {
+                        break;
+                    }
+
+                    consumer.accept(entry.getLong(0), entry.getLong(Long.BYTES), entry);
+                    position += RECORD_HEADER_SIZE + size;
+                    entries++;
+                }
+                if (position < length) {
+                    log.warn("Ignoring the last {} bytes of the write cache spill segment {}, partially written",
+                            length - position, segment);
+                }
+            }
+            log.info("Recovered {} entries from the write cache spill segment {}", entries, segment);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of the write cache spill segment");
+            }
+        }
+    }
+
+    /**
+     * Delete the segments written before the bookie started, once their entries are flushed.
+     */
+    void deleteRecoveredSegments() {
+        for (File segment : recoveredSegments) {
+            if (!segment.delete()) {
+                log.warn("Failed to delete the write cache spill segment {}", segment);
+            }
+        }
+        recoveredSegments.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        spillThread.shutdown();
+        try {
+            if (!spillThread.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("Timed out waiting for the write cache spill thread to terminate");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        currentChannel.close();
+        if (currentSegment.length() == 0 && !currentSegment.delete()) {
+            log.warn("Failed to delete the empty write cache spill segment {}", currentSegment);
+        }
+    }
+}
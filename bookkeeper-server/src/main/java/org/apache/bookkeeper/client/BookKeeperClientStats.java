@@ -89,6 +89,8 @@ public interface BookKeeperClientStats {
     String CLIENT_CONNECT_TIMER = "CLIENT_CONNECT_TIMER";
     String ADD_OP_OUTSTANDING = "ADD_OP_OUTSTANDING";
     String READ_OP_OUTSTANDING = "READ_OP_OUTSTANDING";
+    String FLOW_CONTROL_CREDITS_OUTSTANDING = "FLOW_CONTROL_CREDITS_OUTSTANDING";
+    String FLOW_CONTROL_WAIT = "FLOW_CONTROL_WAIT";
     String NETTY_OPS = "NETTY_OPS";
     String ACTIVE_NON_TLS_CHANNEL_COUNTER = "ACTIVE_NON_TLS_CHANNEL_COUNTER";
     String ACTIVE_TLS_CHANNEL_COUNTER = "ACTIVE_TLS_CHANNEL_COUNTER";
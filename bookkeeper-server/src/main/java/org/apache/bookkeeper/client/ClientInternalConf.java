@@ -40,6 +40,7 @@ class ClientInternalConf {
     final boolean enableParallelRecoveryRead;
     final boolean enableReorderReadSequence;
     final boolean enableStickyReads;
+    final boolean enableBatchRead;
     final int recoveryReadBatchSize;
     final int throttleValue;
     final int bookieFailureHistoryExpirationMSec;
@@ -81,6 +82,7 @@ class ClientInternalConf {
         this.enableBookieFailureTracking = conf.getEnableBookieFailureTracking();
         this.useV2WireProtocol = conf.getUseV2WireProtocol();
         this.enableStickyReads = conf.isStickyReadsEnabled();
+        this.enableBatchRead = conf.isBatchReadEnabled() && conf.getUseV2WireProtocol();
         this.enforceMinNumFaultDomainsForWrite = conf.getEnforceMinNumFaultDomainsForWrite();
 
         if (conf.getFirstSpeculativeReadTimeout() > 0) {
@@ -23,6 +23,7 @@ package org.apache.bookkeeper.client;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.ListenableFuture;
 import io.netty.buffer.ByteBuf;
+import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -40,9 +41,11 @@ import org.apache.bookkeeper.client.impl.LedgerEntriesImpl;
 import org.apache.bookkeeper.client.impl.LedgerEntryImpl;
 import org.apache.bookkeeper.net.BookieId;
 import org.apache.bookkeeper.proto.BookieProtocol;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.BatchedReadEntryCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.ReadEntryCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.ReadEntryCallbackCtx;
 import org.apache.bookkeeper.proto.checksum.DigestManager;
+import org.apache.bookkeeper.util.ByteBufList;
 import org.apache.bookkeeper.util.MathUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,7 +57,7 @@ import org.slf4j.LoggerFactory;
  * application as soon as it arrives rather than waiting for the whole thing.
  *
  */
-class PendingReadOp implements ReadEntryCallback, Runnable {
+class PendingReadOp implements ReadEntryCallback, BatchedReadEntryCallback, Runnable {
     private static final Logger LOG = LoggerFactory.getLogger(PendingReadOp.class);
 
     private ScheduledFuture<?> speculativeTask = null;
@@ -389,6 +392,16 @@ class PendingReadOp implements ReadEntryCallback, Runnable {
             sendNextRead();
         }
 
+        /**
+         * Record that the entry is read from its first replica by a batched read, so that the next reads of the
+         * entry go to the other replicas.
+         */
+        synchronized void batchedReadSent() {
+            nextReplicaIndexToReadFrom = 1;
+            sentReplicas.set(0);
+            sentToHosts.add(ensemble.get(writeSet.get(0)));
+        }
+
         synchronized BookieId sendNextRead() {
             if (nextReplicaIndexToReadFrom >= getLedgerMetadata().getWriteQuorumSize()) {
                 // we are done, the read has failed from all replicas, just fail the
@@ -529,12 +542,68 @@ class PendingReadOp implements ReadEntryCallback, Runnable {
             i++;
         } while (i <= endEntryId);
         // read the entries.
+        if (clientCtx.getConf().enableBatchRead && !parallelRead && !isRecoveryRead && seq.size() > 1) {
+            readInBatches();
+            return;
+        }
+        for (LedgerEntryRequest entry : seq) {
+            entry.read();
+            initiateSpeculativeRequest(entry);
+        }
+    }
+
+    private void initiateSpeculativeRequest(LedgerEntryRequest entry) {
+        if (!parallelRead && clientCtx.getConf().readSpeculativeRequestPolicy.isPresent()) {
+            speculativeTask = clientCtx.getConf().readSpeculativeRequestPolicy.get()
+                .initiateSpeculativeRequest(clientCtx.getScheduler(), entry);
+        }
+    }
+
+    /**
+     * Read the consecutive entries that are first read from the same bookie in their read sequence with a single
+     * batched read. With sticky reads, it's all the entries of an ensemble.
+     */
+    private void readInBatches() {
+        List<LedgerEntryRequest> batch = new ArrayList<>();
         for (LedgerEntryRequest entry : seq) {
+            if (!batch.isEmpty()) {
+                LedgerEntryRequest first = batch.get(0);
+                if (first.ensemble != entry.ensemble || first.writeSet.get(0) != entry.writeSet.get(0)) {
+                    readBatch(batch);
+                    batch = new ArrayList<>();
+                }
+            }
+            batch.add(entry);
+        }
+        readBatch(batch);
+    }
+
+    private void readBatch(List<LedgerEntryRequest> batch) {
+        if (batch.size() == 1) {
+            LedgerEntryRequest entry = batch.get(0);
             entry.read();
-            if (!parallelRead && clientCtx.getConf().readSpeculativeRequestPolicy.isPresent()) {
-                speculativeTask = clientCtx.getConf().readSpeculativeRequestPolicy.get()
-                    .initiateSpeculativeRequest(clientCtx.getScheduler(), entry);
+            initiateSpeculativeRequest(entry);
+            return;
+        }
+
+        LedgerEntryRequest first = batch.get(0);
+        int bookieIndex = first.writeSet.get(0);
+        BookieId to = first.ensemble.get(bookieIndex);
+        for (LedgerEntryRequest entry : batch) {
+            ((SequenceReadRequest) entry).batchedReadSent();
+        }
+        try {
+            sendBatchedReadTo(bookieIndex, to, batch);
+        } catch (InterruptedException ie) {
+            LOG.error("Interrupted reading entries {} - {} : ", first, batch.get(batch.size() - 1), ie);
+            Thread.currentThread().interrupt();
+            for (LedgerEntryRequest entry : batch) {
+                entry.fail(BKException.Code.InterruptedException);
             }
+            return;
+        }
+        for (LedgerEntryRequest entry : batch) {
+            initiateSpeculativeRequest(entry);
         }
     }
 
@@ -585,6 +654,81 @@ class PendingReadOp implements ReadEntryCallback, Runnable {
         }
     }
 
+    private static class BatchedReadContext {
+        final int bookieIndex;
+        final BookieId to;
+        // The consecutive entries requested
+        final List<LedgerEntryRequest> entries;
+
+        BatchedReadContext(int bookieIndex, BookieId to, List<LedgerEntryRequest> entries) {
+            this.bookieIndex = bookieIndex;
+            this.to = to;
+            this.entries = entries;
+        }
+    }
+
+    void sendBatchedReadTo(int bookieIndex, BookieId to, List<LedgerEntryRequest> entries)
+            throws InterruptedException {
+        if (lh.throttler != null) {
+            lh.throttler.acquire(entries.size());
+        }
+
+        // The size of the response is bounded by the frame size of the channel
+        clientCtx.getBookieClient().batchReadEntries(to, lh.ledgerId, entries.get(0).eId, entries.size(),
+                Long.MAX_VALUE, this, new BatchedReadContext(bookieIndex, to, entries), BookieProtocol.FLAG_NONE,
+                false);
+    }
+
+    @Override
+    public void readEntriesComplete(int rc, long ledgerId, long startEntryId, ByteBufList bufList, Object ctx) {
+        final BatchedReadContext rctx = (BatchedReadContext) ctx;
+        final List<LedgerEntryRequest> entries = rctx.entries;
+
+        int numRead = 0;
+        if (rc == BKException.Code.OK && bufList != null) {
+            heardFromHosts.add(rctx.to);
+            heardFromHostsBitSet.set(rctx.bookieIndex, true);
+
+            numRead = Math.min(bufList.size(), entries.size());
+            for (int i = 0; i < numRead; i++) {
+                ByteBuf buffer = bufList.getBuffer(i);
+                buffer.retain();
+                // if entry has completed don't handle twice
+                if (entries.get(i).complete(rctx.bookieIndex, rctx.to, buffer)) {
+                    submitCallback(BKException.Code.OK);
+                } else {
+                    buffer.release();
+                }
+            }
+        }
+
+        List<LedgerEntryRequest> remaining = entries.subList(numRead, entries.size());
+        if (remaining.stream().allMatch(LedgerEntryRequest::isComplete)) {
+            return;
+        }
+        if (numRead > 0) {
+            // The response was bounded by its size, read the next entries from the same bookie
+            try {
+                sendBatchedReadTo(rctx.bookieIndex, rctx.to, new ArrayList<>(remaining));
+                return;
+            } catch (InterruptedException ie) {
+                LOG.error("Interrupted reading entries from {} : ", remaining.get(0), ie);
+                Thread.currentThread().interrupt();
+                rc = BKException.Code.InterruptedException;
+            }
+        } else if (rc == BKException.Code.OK) {
+            rc = BKException.Code.ReadException;
+        }
+
+        // Read the entries from the next replicas
+        for (LedgerEntryRequest entry : remaining) {
+            if (!entry.isComplete()) {
+                entry.logErrorAndReattemptRead(rctx.bookieIndex, rctx.to, "Error: " + BKException.getMessage(rc),
+                        rc);
+            }
+        }
+    }
+
     @Override
     public void readEntryComplete(int rc, long ledgerId, final long entryId, final ByteBuf buffer, Object ctx) {
         final ReadContext rctx = (ReadContext) ctx;
@@ -115,6 +115,7 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
     protected static final String RECOVERY_READ_BATCH_SIZE = "recoveryReadBatchSize";
     protected static final String REORDER_READ_SEQUENCE_ENABLED = "reorderReadSequenceEnabled";
     protected static final String STICKY_READS_ENABLED = "stickyReadSEnabled";
+    protected static final String BATCH_READ_ENABLED = "batchReadEnabled";
     // Add Parameters
     protected static final String OPPORTUNISTIC_STRIPING = "opportunisticStriping";
     protected static final String DELAY_ENSEMBLE_CHANGE = "delayEnsembleChange";
@@ -132,6 +133,7 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
     protected static final String TIMEOUT_TIMER_NUM_TICKS = "timeoutTimerNumTicks";
     // backpressure configuration
     protected static final String WAIT_TIMEOUT_ON_BACKPRESSURE = "waitTimeoutOnBackpressureMs";
+    protected static final String FLOW_CONTROL_CREDITS = "flowControlCredits";
 
     // Bookie health check settings
     protected static final String BOOKIE_HEALTH_CHECK_ENABLED = "bookieHealthCheckEnabled";
@@ -858,6 +860,30 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
         return this;
     }
 
+    /**
+     * Max number of flow control credits asked for to each bookie, with the v3 protocol. A connection keeps at most
+     * as many adds and reads outstanding as the credits granted by the bookie, the others wait for a response
+     * before being sent. High priority and long poll requests are not limited.
+     *
+     * @return max number of credits, 0 if the flow control is disabled
+     */
+    public int getFlowControlCredits() {
+        return getInt(FLOW_CONTROL_CREDITS, 0);
+    }
+
+    /**
+     * Set the max number of flow control credits asked for to each bookie, with the v3 protocol. The bookies must
+     * enable the flow control with maxFlowControlCredits, otherwise the connections are not limited.
+     *
+     * @param credits
+     *          max number of credits, 0 disables the flow control
+     * @return client configuration.
+     */
+    public ClientConfiguration setFlowControlCredits(int credits) {
+        setProperty(FLOW_CONTROL_CREDITS, credits);
+        return this;
+    }
+
     /**
      * Get the number of worker threads. This is the number of
      * worker threads used by bookkeeper client to submit operations.
@@ -1169,6 +1195,32 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
         return this;
     }
 
+    /**
+     * If batched reads are enabled or not.
+     *
+     * @return true if batched reads are enabled, otherwise false.
+     */
+    public boolean isBatchReadEnabled() {
+        return getBoolean(BATCH_READ_ENABLED, false);
+    }
+
+    /**
+     * Enable/disable reading the consecutive entries that map to the same bookie in the read sequence with a single
+     * request.
+     *
+     * <p>It is only used with the v2 wire protocol ({@link #setUseV2WireProtocol(boolean)}), and the bookies must
+     * support the batched read requests. It mostly saves requests when the reads are sticky
+     * ({@link #setStickyReadsEnabled(boolean)}), since all the entries of a ledger are then read from the same
+     * bookie. The entries missing in a batched response are read from the other replicas as usual.
+     *
+     * @param enabled the flag to enable/disable batched reads.
+     * @return client configuration instance.
+     */
+    public ClientConfiguration setBatchReadEnabled(boolean enabled) {
+        setProperty(BATCH_READ_ENABLED, enabled);
+        return this;
+    }
+
     /**
      * If read operation should be sticky to a single bookie or not.
      *
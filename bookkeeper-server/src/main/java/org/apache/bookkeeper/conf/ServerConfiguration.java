@@ -105,6 +105,7 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String COMPACTION_RATE = "compactionRate";
     protected static final String COMPACTION_RATE_BY_ENTRIES = "compactionRateByEntries";
     protected static final String COMPACTION_RATE_BY_BYTES = "compactionRateByBytes";
+    protected static final String COMPACTION_THREADS = "compactionThreads";
 
     // Gc Parameters
     protected static final String GC_WAIT_TIME = "gcWaitTime";
@@ -116,7 +117,15 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String VERIFY_METADATA_ON_GC = "verifyMetadataOnGC";
     protected static final String GC_ENTRYLOGMETADATA_CACHE_ENABLED = "gcEntryLogMetadataCacheEnabled";
     protected static final String GC_ENTRYLOG_METADATA_CACHE_PATH = "gcEntryLogMetadataCachePath";
+    protected static final String GC_ENTRYLOG_METADATA_CACHE_TYPE = "gcEntryLogMetadataCacheType";
+    protected static final String GC_ENTRYLOG_METADATA_INDEXER_ENABLED = "gcEntryLogMetadataIndexerEnabled";
+    protected static final String GC_ENTRYLOG_METADATA_INDEXER_THREADS = "gcEntryLogMetadataIndexerThreads";
+    protected static final String GC_ENTRYLOG_METADATA_INDEXER_RATE_BY_BYTES = "gcEntryLogMetadataIndexerRateByBytes";
     protected static final String USE_TARGET_ENTRYLOG_SIZE_FOR_GC = "useTargetEntryLogSizeForGc";
+    protected static final String GC_INCREMENTAL_ENABLED = "gcIncrementalEnabled";
+    protected static final String GC_INCREMENTAL_TICK_MILLIS = "gcIncrementalTickMillis";
+    protected static final String GC_INCREMENTAL_MAX_ENTRY_LOGS_PER_TICK = "gcIncrementalMaxEntryLogsPerTick";
+    protected static final String GC_FOREGROUND_LATENCY_THRESHOLD_MILLIS = "gcForegroundLatencyThresholdMillis";
     // Scrub Parameters
     protected static final String LOCAL_SCRUB_PERIOD = "localScrubInterval";
     protected static final String LOCAL_SCRUB_RATE_LIMIT = "localScrubRateLimit";
@@ -142,6 +151,11 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String JOURNAL_BUFFERED_WRITES_THRESHOLD = "journalBufferedWritesThreshold";
     protected static final String JOURNAL_BUFFERED_ENTRIES_THRESHOLD = "journalBufferedEntriesThreshold";
     protected static final String JOURNAL_FLUSH_WHEN_QUEUE_EMPTY = "journalFlushWhenQueueEmpty";
+    protected static final String JOURNAL_GROUP_COMMIT_LATENCY_TARGET_MICROS = "journalGroupCommitLatencyTargetMicros";
+    protected static final String JOURNAL_LOAD_AWARE_ROUTING_ENABLED = "journalLoadAwareRoutingEnabled";
+    protected static final String JOURNAL_LOAD_AWARE_ROUTING_IDLE_LEDGER_SECONDS =
+            "journalLoadAwareRoutingIdleLedgerSeconds";
+    protected static final String JOURNAL_PIPELINED_WRITES_ENABLED = "journalPipelinedWritesEnabled";
     protected static final String JOURNAL_REMOVE_FROM_PAGE_CACHE = "journalRemoveFromPageCache";
     protected static final String JOURNAL_PRE_ALLOC_SIZE = "journalPreAllocSizeMB";
     protected static final String JOURNAL_WRITE_BUFFER_SIZE = "journalWriteBufferSizeKB";
@@ -149,6 +163,7 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String NUM_JOURNAL_CALLBACK_THREADS = "numJournalCallbackThreads";
     protected static final String JOURNAL_FORMAT_VERSION_TO_WRITE = "journalFormatVersionToWrite";
     protected static final String JOURNAL_QUEUE_SIZE = "journalQueueSize";
+    protected static final String JOURNAL_REPLAY_THREADS = "journalReplayThreads";
     protected static final String JOURNAL_MAX_MEMORY_SIZE_MB = "journalMaxMemorySizeMb";
     protected static final String JOURNAL_PAGECACHE_FLUSH_INTERVAL_MSEC = "journalPageCacheFlushIntervalMSec";
     protected static final String JOURNAL_CHANNEL_PROVIDER = "journalChannelProvider";
@@ -158,6 +173,8 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String MAX_READS_IN_PROGRESS_LIMIT = "maxReadsInProgressLimit";
     protected static final String CLOSE_CHANNEL_ON_RESPONSE_TIMEOUT = "closeChannelOnResponseTimeout";
     protected static final String WAIT_TIMEOUT_ON_RESPONSE_BACKPRESSURE = "waitTimeoutOnResponseBackpressureMs";
+    protected static final String MAX_COALESCED_ADDS = "maxCoalescedAdds";
+    protected static final String MAX_FLOW_CONTROL_CREDITS = "maxFlowControlCredits";
 
     // Bookie Parameters
     protected static final String BOOKIE_PORT = "bookiePort";
@@ -224,11 +241,15 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     // Worker Thread parameters.
     protected static final String NUM_ADD_WORKER_THREADS = "numAddWorkerThreads";
     protected static final String NUM_READ_WORKER_THREADS = "numReadWorkerThreads";
+    protected static final String NUM_CATCH_UP_READ_WORKER_THREADS = "numCatchUpReadWorkerThreads";
     protected static final String MAX_PENDING_READ_REQUESTS_PER_THREAD = "maxPendingReadRequestsPerThread";
     protected static final String MAX_PENDING_ADD_REQUESTS_PER_THREAD = "maxPendingAddRequestsPerThread";
     protected static final String NUM_LONG_POLL_WORKER_THREADS = "numLongPollWorkerThreads";
     protected static final String NUM_HIGH_PRIORITY_WORKER_THREADS = "numHighPriorityWorkerThreads";
     protected static final String READ_WORKER_THREADS_THROTTLING_ENABLED = "readWorkerThreadsThrottlingEnabled";
+    protected static final String ZERO_COPY_READ_ENABLED = "zeroCopyReadEnabled";
+    protected static final String ZERO_COPY_READ_MIN_ENTRY_SIZE = "zeroCopyReadMinEntrySize";
+    protected static final String IO_URING_ENABLED = "ioUringEnabled";
 
     // Long poll parameters
     protected static final String REQUEST_TIMER_TICK_DURATION_MILLISEC = "requestTimerTickDurationMs";
@@ -555,6 +576,93 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /**
+     * Get the store of the persistent entrylogMetadataMap, used if gcEntryLogMetadataCacheEnabled is true:
+     * <i>RocksDB</i> to store the metadata in RocksDB, or <i>Mapped</i> to store it in memory-mapped segment files
+     * that only keep the position of each entry log metadata on heap.
+     *
+     * @return entrylog metadata-map persistent store type (default: RocksDB)
+     */
+    public String getGcEntryLogMetadataCacheType() {
+        return getString(GC_ENTRYLOG_METADATA_CACHE_TYPE, "RocksDB");
+    }
+
+    /**
+     * Set the store of the persistent entrylogMetadataMap, used if gcEntryLogMetadataCacheEnabled is true.
+     *
+     * @param gcEntryLogMetadataCacheType RocksDB or Mapped
+     * @return server configuration.
+     */
+    public ServerConfiguration setGcEntryLogMetadataCacheType(String gcEntryLogMetadataCacheType) {
+        this.setProperty(GC_ENTRYLOG_METADATA_CACHE_TYPE, gcEntryLogMetadataCacheType);
+        return this;
+    }
+
+    /**
+     * Get whether the entry logs without usable ledgers map, e.g. written by an older bookie, are scanned in
+     * background when the bookie starts, to store their metadata in a ledgers map sidecar file next to them.
+     *
+     * <p>While it runs, the garbage collector only extracts the metadata that can be read without scanning the entry
+     * logs, and leaves the other entry logs for its next runs.
+     *
+     * @return whether the entry log metadata indexer is enabled
+     */
+    public boolean isGcEntryLogMetadataIndexerEnabled() {
+        return getBoolean(GC_ENTRYLOG_METADATA_INDEXER_ENABLED, false);
+    }
+
+    /**
+     * Set whether the entry logs without usable ledgers map are scanned in background when the bookie starts.
+     *
+     * @param enabled whether the entry log metadata indexer is enabled
+     * @return server configuration
+     */
+    public ServerConfiguration setGcEntryLogMetadataIndexerEnabled(boolean enabled) {
+        this.setProperty(GC_ENTRYLOG_METADATA_INDEXER_ENABLED, enabled);
+        return this;
+    }
+
+    /**
+     * Get the number of entry logs scanned concurrently by the entry log metadata indexer of each garbage collector.
+     *
+     * @return number of indexer threads
+     */
+    public int getGcEntryLogMetadataIndexerThreads() {
+        return getInt(GC_ENTRYLOG_METADATA_INDEXER_THREADS, 1);
+    }
+
+    /**
+     * Set the number of entry logs scanned concurrently by the entry log metadata indexer of each garbage collector.
+     *
+     * @param threads number of indexer threads
+     * @return server configuration
+     */
+    public ServerConfiguration setGcEntryLogMetadataIndexerThreads(int threads) {
+        this.setProperty(GC_ENTRYLOG_METADATA_INDEXER_THREADS, threads);
+        return this;
+    }
+
+    /**
+     * Get the rate at which the entry log metadata indexer reads the entry logs, shared by its threads.
+     * Default is the compaction rate by bytes.
+     *
+     * @return rate of the indexer (bytes per second)
+     */
+    public int getGcEntryLogMetadataIndexerRateByBytes() {
+        return getInt(GC_ENTRYLOG_METADATA_INDEXER_RATE_BY_BYTES, getCompactionRateByBytes());
+    }
+
+    /**
+     * Set the rate at which the entry log metadata indexer reads the entry logs, shared by its threads.
+     *
+     * @param rate rate of the indexer (bytes per second)
+     * @return server configuration
+     */
+    public ServerConfiguration setGcEntryLogMetadataIndexerRateByBytes(int rate) {
+        this.setProperty(GC_ENTRYLOG_METADATA_INDEXER_RATE_BY_BYTES, rate);
+        return this;
+    }
+
     public boolean isUseTargetEntryLogSizeForGc() {
         return getBoolean(USE_TARGET_ENTRYLOG_SIZE_FOR_GC, false);
     }
@@ -564,6 +672,95 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /**
+     * Whether the garbage collection processes a bounded slice of entry logs at every tick, instead of going
+     * through all the entry logs at once every gcWaitTime.
+     *
+     * @return true if the incremental garbage collection is enabled
+     */
+    public boolean isGcIncrementalEnabled() {
+        return getBoolean(GC_INCREMENTAL_ENABLED, false);
+    }
+
+    /**
+     * Enable or disable the incremental garbage collection.
+     *
+     * @param enabled
+     *          whether the incremental garbage collection is enabled
+     * @return server configuration
+     */
+    public ServerConfiguration setGcIncrementalEnabled(boolean enabled) {
+        this.setProperty(GC_INCREMENTAL_ENABLED, enabled);
+        return this;
+    }
+
+    /**
+     * Get the interval between two slices of the incremental garbage collection, in milliseconds.
+     *
+     * @return the tick interval
+     */
+    public long getGcIncrementalTickMillis() {
+        return getLong(GC_INCREMENTAL_TICK_MILLIS, 1000);
+    }
+
+    /**
+     * Set the interval between two slices of the incremental garbage collection, in milliseconds.
+     *
+     * @param tickMillis
+     *          the tick interval
+     * @return server configuration
+     */
+    public ServerConfiguration setGcIncrementalTickMillis(long tickMillis) {
+        this.setProperty(GC_INCREMENTAL_TICK_MILLIS, tickMillis);
+        return this;
+    }
+
+    /**
+     * Get the max number of entry logs extracted, checked or compacted by a slice of the incremental garbage
+     * collection.
+     *
+     * @return the max number of entry logs per tick
+     */
+    public int getGcIncrementalMaxEntryLogsPerTick() {
+        return getInt(GC_INCREMENTAL_MAX_ENTRY_LOGS_PER_TICK, 10);
+    }
+
+    /**
+     * Set the max number of entry logs extracted, checked or compacted by a slice of the incremental garbage
+     * collection.
+     *
+     * @param maxEntryLogs
+     *          the max number of entry logs per tick
+     * @return server configuration
+     */
+    public ServerConfiguration setGcIncrementalMaxEntryLogsPerTick(int maxEntryLogs) {
+        this.setProperty(GC_INCREMENTAL_MAX_ENTRY_LOGS_PER_TICK, maxEntryLogs);
+        return this;
+    }
+
+    /**
+     * Get the average latency of the adds and reads of the ledger storage above which the incremental garbage
+     * collection shrinks its slices and the compaction pauses, in milliseconds. 0 disables it.
+     *
+     * @return the foreground latency threshold
+     */
+    public long getGcForegroundLatencyThresholdMillis() {
+        return getLong(GC_FOREGROUND_LATENCY_THRESHOLD_MILLIS, 0);
+    }
+
+    /**
+     * Set the average latency of the adds and reads of the ledger storage above which the incremental garbage
+     * collection shrinks its slices and the compaction pauses, in milliseconds.
+     *
+     * @param thresholdMillis
+     *          the foreground latency threshold, 0 to disable it
+     * @return server configuration
+     */
+    public ServerConfiguration setGcForegroundLatencyThresholdMillis(long thresholdMillis) {
+        this.setProperty(GC_FOREGROUND_LATENCY_THRESHOLD_MILLIS, thresholdMillis);
+        return this;
+    }
+
     /**
      * Get whether local scrub is enabled.
      *
@@ -938,6 +1135,27 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this.getInt(JOURNAL_QUEUE_SIZE, 10_000);
     }
 
+    /**
+     * Set the number of threads replaying the journal entries into the ledger storage on startup. The journal files
+     * are still read sequentially, and the entries of a ledger are always replayed by the same thread.
+     *
+     * @param journalReplayThreads number of journal replay threads
+     * @return server configuration.
+     */
+    public ServerConfiguration setJournalReplayThreads(int journalReplayThreads) {
+        this.setProperty(JOURNAL_REPLAY_THREADS, journalReplayThreads);
+        return this;
+    }
+
+    /**
+     * Get the number of threads replaying the journal entries on startup.
+     *
+     * @return the number of journal replay threads.
+     */
+    public int getJournalReplayThreads() {
+        return this.getInt(JOURNAL_REPLAY_THREADS, 1);
+    }
+
     /**
      * Set the max amount of memory that can be used by the journal.
      *
@@ -1042,6 +1260,53 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /**
+     * Get the max number of adds of a ledger, received back-to-back on a channel with the v2 protocol, that are
+     * coalesced into a single journal queue entry and storage insertion. 0 or 1 disables the coalescing.
+     *
+     * @return max number of coalesced adds.
+     */
+    public int getMaxCoalescedAdds() {
+        return this.getInt(MAX_COALESCED_ADDS, 0);
+    }
+
+    /**
+     * Set the max number of adds of a ledger, received back-to-back on a channel with the v2 protocol, that are
+     * coalesced into a single journal queue entry and storage insertion. 0 or 1 disables the coalescing.
+     *
+     * @param value
+     *          max number of coalesced adds.
+     * @return server configuration.
+     */
+    public ServerConfiguration setMaxCoalescedAdds(int value) {
+        this.setProperty(MAX_COALESCED_ADDS, value);
+        return this;
+    }
+
+    /**
+     * Get the max number of flow control credits granted to a connection of a client that asks for them, with the
+     * v3 protocol. The credits granted shrink with the fill ratio of the journal queue and of the read and add
+     * in progress limits, down to 1. 0 disables the flow control.
+     *
+     * @return max number of flow control credits.
+     */
+    public int getMaxFlowControlCredits() {
+        return this.getInt(MAX_FLOW_CONTROL_CREDITS, 0);
+    }
+
+    /**
+     * Set the max number of flow control credits granted to a connection of a client that asks for them, with the
+     * v3 protocol. 0 disables the flow control.
+     *
+     * @param value
+     *          max number of flow control credits.
+     * @return server configuration.
+     */
+    public ServerConfiguration setMaxFlowControlCredits(int value) {
+        this.setProperty(MAX_FLOW_CONTROL_CREDITS, value);
+        return this;
+    }
+
     /**
      * Get max number of reads in progress. 0 == unlimited.
      *
@@ -2024,6 +2289,73 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return getBoolean(READ_WORKER_THREADS_THROTTLING_ENABLED, true);
     }
 
+    /**
+     * Enable sending the entries read from the entry logs straight from the files to the sockets, without copying
+     * them in memory. This only applies to the connections without TLS, and to the entries that are not served by
+     * the bookie caches.
+     *
+     * @param enabled
+     *          whether to enable the zero-copy reads
+     * @return server configuration
+     */
+    public ServerConfiguration setZeroCopyReadEnabled(boolean enabled) {
+        setProperty(ZERO_COPY_READ_ENABLED, enabled);
+        return this;
+    }
+
+    /**
+     * Whether the zero-copy reads are enabled.
+     *
+     * @return true if the zero-copy reads are enabled
+     */
+    public boolean isZeroCopyReadEnabled() {
+        return getBoolean(ZERO_COPY_READ_ENABLED, false);
+    }
+
+    /**
+     * Set the min size of the entries sent with zero-copy reads. Smaller entries are copied, since the cost of the
+     * file transfer would outweigh the copy.
+     *
+     * @param size
+     *          min entry size in bytes
+     * @return server configuration
+     */
+    public ServerConfiguration setZeroCopyReadMinEntrySize(int size) {
+        setProperty(ZERO_COPY_READ_MIN_ENTRY_SIZE, size);
+        return this;
+    }
+
+    /**
+     * Get the min size of the entries sent with zero-copy reads.
+     *
+     * @return min entry size in bytes
+     */
+    public int getZeroCopyReadMinEntrySize() {
+        return getInt(ZERO_COPY_READ_MIN_ENTRY_SIZE, 64 * 1024);
+    }
+
+    /**
+     * Enable submitting the disk I/O through io_uring, for the writes, reads and syncs of the direct I/O entry
+     * logger. When io_uring is not available on the host, the bookie falls back to the synchronous system calls.
+     *
+     * @param enabled
+     *          whether to use io_uring
+     * @return server configuration
+     */
+    public ServerConfiguration setIoUringEnabled(boolean enabled) {
+        setProperty(IO_URING_ENABLED, enabled);
+        return this;
+    }
+
+    /**
+     * Whether the disk I/O is submitted through io_uring, when available.
+     *
+     * @return true if io_uring is enabled
+     */
+    public boolean isIoUringEnabled() {
+        return getBoolean(IO_URING_ENABLED, false);
+    }
+
 
 
     /**
@@ -2045,6 +2377,29 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return getInt(NUM_READ_WORKER_THREADS, 8);
     }
 
+    /**
+     * Set the number of threads that would handle the catch-up reads, whose entries were already flushed out of the
+     * write caches of the ledger storage. The read worker threads then only handle the reads of the tailing readers,
+     * which don't wait behind the catch-up reads. A ledger only changes lane once it has no read pending, so its
+     * reads still execute in order. The share of the threads of each lane sets its weight. 0 disables the catch-up
+     * lane.
+     *
+     * @param numThreads
+     *          Number of threads to handle catch-up reads.
+     * @return server configuration
+     */
+    public ServerConfiguration setNumCatchUpReadWorkerThreads(int numThreads) {
+        setProperty(NUM_CATCH_UP_READ_WORKER_THREADS, numThreads);
+        return this;
+    }
+
+    /**
+     * Get the number of threads that should handle the catch-up reads.
+     */
+    public int getNumCatchUpReadWorkerThreads() {
+        return getInt(NUM_CATCH_UP_READ_WORKER_THREADS, 0);
+    }
+
     /**
      * Set the tick duration in milliseconds.
      *
@@ -2416,6 +2771,94 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return getBoolean(JOURNAL_FLUSH_WHEN_QUEUE_EMPTY, false);
     }
 
+    /**
+     * Set the p99 add latency targeted by the adaptive journal group commit. When set, the journal chooses how long
+     * to group the entries from the measured commit latency and arrival rate, instead of always waiting
+     * {@link #getJournalMaxGroupWaitMSec()}, which becomes the upper bound of the wait.
+     *
+     * @param targetMicros target latency in microseconds, 0 to disable the adaptive group commit
+     * @return server configuration.
+     */
+    public ServerConfiguration setJournalGroupCommitLatencyTargetMicros(long targetMicros) {
+        setProperty(JOURNAL_GROUP_COMMIT_LATENCY_TARGET_MICROS, targetMicros);
+        return this;
+    }
+
+    /**
+     * Get the p99 add latency targeted by the adaptive journal group commit. Default is 0, which disables it.
+     *
+     * @return target latency in microseconds
+     */
+    public long getJournalGroupCommitLatencyTargetMicros() {
+        return getLong(JOURNAL_GROUP_COMMIT_LATENCY_TARGET_MICROS, 0);
+    }
+
+    /**
+     * Enable/disable the load aware routing of the ledgers to the journals. When enabled, a ledger is routed to the
+     * least loaded journal, by queue depth and commit latency, when it's first written and then sticks to it.
+     * Otherwise the ledgers are routed by the modulo of their id.
+     *
+     * @param enabled flag to enable/disable the load aware journal routing
+     * @return server configuration.
+     */
+    public ServerConfiguration setJournalLoadAwareRoutingEnabled(boolean enabled) {
+        setProperty(JOURNAL_LOAD_AWARE_ROUTING_ENABLED, enabled);
+        return this;
+    }
+
+    /**
+     * Is the load aware routing of the ledgers to the journals enabled. Default is false.
+     *
+     * @return true if the ledgers are routed to the least loaded journal
+     */
+    public boolean isJournalLoadAwareRoutingEnabled() {
+        return getBoolean(JOURNAL_LOAD_AWARE_ROUTING_ENABLED, false);
+    }
+
+    /**
+     * Set how long a ledger can go without being written before the load aware routing forgets its journal. Its
+     * next entries can then be routed to another journal.
+     *
+     * @param seconds idle time in seconds, 0 to never forget the ledgers until they are deleted
+     * @return server configuration.
+     */
+    public ServerConfiguration setJournalLoadAwareRoutingIdleLedgerSeconds(long seconds) {
+        setProperty(JOURNAL_LOAD_AWARE_ROUTING_IDLE_LEDGER_SECONDS, seconds);
+        return this;
+    }
+
+    /**
+     * Get how long a ledger can go without being written before the load aware routing forgets its journal.
+     * Default is 600 seconds.
+     *
+     * @return idle time in seconds
+     */
+    public long getJournalLoadAwareRoutingIdleLedgerSeconds() {
+        return getLong(JOURNAL_LOAD_AWARE_ROUTING_IDLE_LEDGER_SECONDS, 600);
+    }
+
+    /**
+     * Enable/disable the pipelined journal writes. When enabled, the journal files are written by a background
+     * thread while the journal thread fills a second write buffer, and the force write thread acknowledges the
+     * entries once they are written or synced.
+     *
+     * @param enabled flag to enable/disable the pipelined journal writes
+     * @return server configuration.
+     */
+    public ServerConfiguration setJournalPipelinedWritesEnabled(boolean enabled) {
+        setProperty(JOURNAL_PIPELINED_WRITES_ENABLED, enabled);
+        return this;
+    }
+
+    /**
+     * Are the pipelined journal writes enabled. Default is false.
+     *
+     * @return true if the journal files are written in background
+     */
+    public boolean isJournalPipelinedWritesEnabled() {
+        return getBoolean(JOURNAL_PIPELINED_WRITES_ENABLED, false);
+    }
+
     /**
      * Set whether the bookie is able to go into read-only mode.
      * If this is set to false, the bookie will shutdown on encountering
@@ -2943,6 +3386,31 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /**
+     * Get the number of entry logs compacted concurrently by a garbage collector thread. Default is 1.
+     *
+     * @return the number of compaction threads
+     */
+    public int getCompactionThreads() {
+        return getInt(COMPACTION_THREADS, 1);
+    }
+
+    /**
+     * Set the number of entry logs compacted concurrently by a garbage collector thread.
+     *
+     * <p>The compacted entries of all the entry logs are added to the current entry log, and the index is updated
+     * with their new offsets in batches of compactionMaxOutstandingRequests. The compaction rate is shared by the
+     * threads. The transactional compaction always compacts one entry log at a time.
+     *
+     * @param threads number of entry logs compacted concurrently
+     *
+     * @return ServerConfiguration
+     */
+    public ServerConfiguration setCompactionThreads(int threads) {
+        setProperty(COMPACTION_THREADS, threads);
+        return this;
+    }
+
     /**
      * Get the rate of compaction adds. Default is 1,000,000.
      *
@@ -42,4 +42,14 @@ public interface RequestProcessor extends AutoCloseable {
      *          channel received the given request <i>r</i>
      */
     void processRequest(Object r, BookieRequestHandler channel);
+
+    /**
+     * Process the requests of a channel held back to be coalesced with the next ones,
+     * once the requests read from the channel are all processed.
+     *
+     * @param channel
+     *          channel holding the requests
+     */
+    default void flushPendingRequests(BookieRequestHandler channel) {
+    }
 }
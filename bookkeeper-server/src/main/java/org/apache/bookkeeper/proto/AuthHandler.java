@@ -135,6 +135,12 @@ class AuthHandler {
 
                     ctx.channel().writeAndFlush(builder.build());
                 }
+            } else if (msg instanceof BookieProtoCodecV3.ParsedRequest) { // add and read requests of a PB-client
+                BookieProtoCodecV3.ParsedRequest req = (BookieProtoCodecV3.ParsedRequest) msg;
+                ctx.channel().writeAndFlush(BookieProtoCodecV3.encodeResponse(ctx.alloc(), req,
+                        BookkeeperProtocol.StatusCode.EUA));
+                req.release();
+                req.recycle();
             } else {
                 // close the channel, junk coming over it
                 ctx.channel().close();
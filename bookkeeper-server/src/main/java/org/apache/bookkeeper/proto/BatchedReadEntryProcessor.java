@@ -0,0 +1,197 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.Recycler;
+import io.netty.util.ReferenceCountUtil;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.bookie.Bookie;
+import org.apache.bookkeeper.bookie.BookieException;
+import org.apache.bookkeeper.proto.BookieProtocol.BatchedReadRequest;
+import org.apache.bookkeeper.stats.OpStatsLogger;
+import org.apache.bookkeeper.util.ByteBufList;
+import org.apache.bookkeeper.util.MathUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Processor of the batched read requests, that reads the consecutive entries of a ledger from the start entry and
+ * sends them back in a single response.
+ */
+class BatchedReadEntryProcessor extends PacketProcessorBase<BatchedReadRequest> {
+    private static final Logger LOG = LoggerFactory.getLogger(BatchedReadEntryProcessor.class);
+
+    // Size of the frame size, headers and request id of the response
+    private static final int RESPONSE_HEADERS_SIZE = 4 + 4 + 4 + 8 + 8 + 8;
+    // Size of the length preceding each entry in the response
+    private static final int ENTRY_HEADER_SIZE = 4;
+
+    private boolean throttleReadResponses;
+    private long maxResponseSize;
+
+    public static BatchedReadEntryProcessor create(BatchedReadRequest request,
+                                                   BookieRequestHandler requestHandler,
+                                                   BookieRequestProcessor requestProcessor,
+                                                   boolean throttleReadResponses,
+                                                   long maxResponseSize) {
+        BatchedReadEntryProcessor rep = RECYCLER.get();
+        rep.init(request, requestHandler, requestProcessor);
+        rep.throttleReadResponses = throttleReadResponses;
+        rep.maxResponseSize = maxResponseSize;
+        requestProcessor.onReadRequestStart(requestHandler.ctx().channel());
+        return rep;
+    }
+
+    @Override
+    protected void processPacket() {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Received new batched read request: {}", request);
+        }
+        if (!requestHandler.ctx().channel().isOpen()) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Dropping batched read request for closed channel: {}", requestHandler.ctx().channel());
+            }
+            requestProcessor.onReadRequestFinish();
+            recycle();
+            return;
+        }
+        int errorCode = BookieProtocol.EOK;
+        long startTimeNanos = MathUtils.nowInNano();
+        ByteBufList entries = null;
+        try {
+            if (request.isFencing()) {
+                // The fencing reads are only sent one entry at a time
+                throw new IllegalArgumentException("Fencing is not supported by batched reads");
+            }
+            long maxSize = Math.min(request.getMaxSize(), maxResponseSize);
+            int maxCount = Math.max(1, request.getMaxCount());
+            long responseSize = RESPONSE_HEADERS_SIZE;
+            long entryId = request.getEntryId();
+            for (int i = 0; i < maxCount; i++, entryId++) {
+                ByteBuf entry;
+                try {
+                    entry = requestProcessor.getBookie().readEntry(request.getLedgerId(), entryId);
+                } catch (Bookie.NoEntryException | Bookie.NoLedgerException e) {
+                    if (entries == null) {
+                        throw e;
+                    }
+                    // The entries read so far are returned, the client reads the missing one on its own
+                    break;
+                } catch (IOException | BookieException e) {
+                    if (entries == null) {
+                        throw e;
+                    }
+                    LOG.warn("Error reading {}@{}, returning the {} entries read", request.getLedgerId(), entryId,
+                            entries.size(), e);
+                    break;
+                }
+
+                responseSize += ENTRY_HEADER_SIZE + entry.readableBytes();
+                if (entries == null) {
+                    // The first entry is always returned
+                    entries = ByteBufList.get(entry);
+                } else if (responseSize > maxSize) {
+                    ReferenceCountUtil.release(entry);
+                    break;
+                } else {
+                    entries.add(entry);
+                }
+            }
+        } catch (Bookie.NoLedgerException e) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Error reading {}", request, e);
+            }
+            errorCode = BookieProtocol.ENOLEDGER;
+        } catch (Bookie.NoEntryException e) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Error reading {}", request, e);
+            }
+            errorCode = BookieProtocol.ENOENTRY;
+        } catch (IOException e) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Error reading {}", request, e);
+            }
+            errorCode = BookieProtocol.EIO;
+        } catch (BookieException.DataUnknownException e) {
+            LOG.error("Ledger {} is in an unknown state", request.getLedgerId(), e);
+            errorCode = BookieProtocol.EUNKNOWNLEDGERSTATE;
+        } catch (BookieException e) {
+            LOG.error("Unauthorized access to ledger {}", request.getLedgerId(), e);
+            errorCode = BookieProtocol.EUA;
+        } catch (Throwable t) {
+            LOG.error("Unexpected exception reading at {}:{} : {}", request.getLedgerId(), request.getEntryId(),
+                      t.getMessage(), t);
+            errorCode = BookieProtocol.EBADREQ;
+        }
+
+        if (LOG.isTraceEnabled()) {
+            LOG.trace("Batched read rc = {} for {}", errorCode, request);
+        }
+        sendResponse(entries, errorCode, startTimeNanos);
+    }
+
+    private void sendResponse(ByteBufList entries, int errorCode, long startTimeNanos) {
+        final RequestStats stats = requestProcessor.getRequestStats();
+        final OpStatsLogger logger = stats.getBatchReadEntryStats();
+        BookieProtocol.Response response;
+        if (errorCode == BookieProtocol.EOK) {
+            logger.registerSuccessfulEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+            response = ResponseBuilder.buildBatchedReadResponse(entries, request);
+        } else {
+            if (entries != null) {
+                ReferenceCountUtil.release(entries);
+            }
+            logger.registerFailedEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+            response = ResponseBuilder.buildErrorResponse(errorCode, request);
+        }
+
+        sendReadReqResponse(errorCode, response, stats.getBatchReadRequestStats(), throttleReadResponses);
+        recycle();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BatchedReadEntry(%d, %d, %d)", request.getLedgerId(), request.getEntryId(),
+                request.getMaxCount());
+    }
+
+    private void recycle() {
+        request.recycle();
+        super.reset();
+        this.recyclerHandle.recycle(this);
+    }
+
+    private final Recycler.Handle<BatchedReadEntryProcessor> recyclerHandle;
+
+    private BatchedReadEntryProcessor(Recycler.Handle<BatchedReadEntryProcessor> recyclerHandle) {
+        this.recyclerHandle = recyclerHandle;
+    }
+
+    private static final Recycler<BatchedReadEntryProcessor> RECYCLER =
+            new Recycler<BatchedReadEntryProcessor>() {
+        @Override
+        protected BatchedReadEntryProcessor newObject(Recycler.Handle<BatchedReadEntryProcessor> handle) {
+            return new BatchedReadEntryProcessor(handle);
+        }
+    };
+}
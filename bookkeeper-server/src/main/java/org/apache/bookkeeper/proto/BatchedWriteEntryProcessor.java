@@ -0,0 +1,151 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.Recycler;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.bookie.Bookie;
+import org.apache.bookkeeper.proto.BookieProtocol.ParsedAddRequest;
+import org.apache.bookkeeper.util.MathUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Processor of the adds of a ledger received back-to-back on a channel, that adds their entries to the bookie at
+ * once, so that they are logged to the journal in a single queue entry and acknowledged together.
+ */
+class BatchedWriteEntryProcessor implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(BatchedWriteEntryProcessor.class);
+
+    private final List<WriteEntryProcessor> writes = new ArrayList<>();
+    private final List<ByteBuf> entries = new ArrayList<>();
+    private BookieRequestProcessor requestProcessor;
+    private BookieRequestHandler requestHandler;
+
+    public static BatchedWriteEntryProcessor create(BookieRequestHandler requestHandler,
+                                                    BookieRequestProcessor requestProcessor) {
+        BatchedWriteEntryProcessor bwep = RECYCLER.get();
+        bwep.requestHandler = requestHandler;
+        bwep.requestProcessor = requestProcessor;
+        return bwep;
+    }
+
+    /**
+     * @return whether the add can be coalesced with the adds of the batch
+     */
+    boolean canAdd(ParsedAddRequest request) {
+        ParsedAddRequest first = writes.get(0).request;
+        return first.getLedgerId() == request.getLedgerId()
+                && Arrays.equals(first.getMasterKey(), request.getMasterKey());
+    }
+
+    void add(WriteEntryProcessor write) {
+        writes.add(write);
+    }
+
+    int size() {
+        return writes.size();
+    }
+
+    long getLedgerId() {
+        return writes.get(0).request.getLedgerId();
+    }
+
+    List<WriteEntryProcessor> getWrites() {
+        return writes;
+    }
+
+    @Override
+    public void run() {
+        Bookie bookie = requestProcessor.getBookie();
+        boolean coalesce = !bookie.isReadOnly();
+        for (int i = 0; i < writes.size() && coalesce; i++) {
+            coalesce = writes.get(i).isVersionCompatible();
+        }
+        if (!coalesce) {
+            // The adds are rejected one by one
+            for (int i = 0; i < writes.size(); i++) {
+                writes.get(i).run();
+            }
+            recycle();
+            return;
+        }
+
+        long nowNanos = MathUtils.nowInNano();
+        for (int i = 0; i < writes.size(); i++) {
+            WriteEntryProcessor write = writes.get(i);
+            requestProcessor.getRequestStats().getWriteThreadQueuedLatency()
+                    .registerSuccessfulEvent(nowNanos - write.enqueueNanos, TimeUnit.NANOSECONDS);
+            write.startTimeNanos = nowNanos;
+            entries.add(write.request.getData());
+        }
+
+        int added;
+        try {
+            added = bookie.addEntries(entries, false, writes, requestHandler, writes.get(0).request.getMasterKey());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.error("Interrupted while writing {} entries of ledger {}", writes.size(), getLedgerId(), e);
+            for (int i = 0; i < writes.size(); i++) {
+                writes.get(i).sendErrorResponse(BookieProtocol.EBADREQ);
+            }
+            recycle();
+            return;
+        }
+
+        // The adds completed by the journal must not be accessed anymore, the others are added one by one
+        for (int i = added; i < writes.size(); i++) {
+            writes.get(i).processPacket();
+        }
+        recycle();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BatchedWriteEntry(%d, %d)", getLedgerId(), writes.size());
+    }
+
+    void recycle() {
+        writes.clear();
+        entries.clear();
+        requestHandler = null;
+        requestProcessor = null;
+        recyclerHandle.recycle(this);
+    }
+
+    private final Recycler.Handle<BatchedWriteEntryProcessor> recyclerHandle;
+
+    private BatchedWriteEntryProcessor(Recycler.Handle<BatchedWriteEntryProcessor> recyclerHandle) {
+        this.recyclerHandle = recyclerHandle;
+    }
+
+    private static final Recycler<BatchedWriteEntryProcessor> RECYCLER =
+            new Recycler<BatchedWriteEntryProcessor>() {
+        @Override
+        protected BatchedWriteEntryProcessor newObject(Recycler.Handle<BatchedWriteEntryProcessor> handle) {
+            return new BatchedWriteEntryProcessor(handle);
+        }
+    };
+}
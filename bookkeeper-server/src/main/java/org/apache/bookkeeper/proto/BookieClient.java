@@ -26,6 +26,7 @@ import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import org.apache.bookkeeper.client.api.WriteFlag;
 import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.BatchedReadEntryCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.ForceLedgerCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.GetBookieInfoCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.ReadEntryCallback;
@@ -180,6 +181,29 @@ public interface BookieClient {
                    ReadEntryCallback cb, Object ctx, int flags, byte[] masterKey,
                    boolean allowFastFail);
 
+    /**
+     * Read consecutive entries of a ledger from bookie at address {@code address} in a single request. It is only
+     * supported with the v2 wire protocol.
+     *
+     * <p>The bookie returns the entries from {@code startEntryId}, up to {@code maxCount} entries and
+     * {@code maxSize} bytes, and stops at the first entry it doesn't have. The first entry is always returned, or
+     * the request fails. The entries passed to the callback are released once it returns.
+     *
+     * @param address address of the bookie to read from
+     * @param ledgerId id of the ledger the entries belong to
+     * @param startEntryId id of the first entry to read
+     * @param maxCount maximum number of entries to read
+     * @param maxSize maximum size of the response, in bytes
+     * @param cb the callback notified when the request completes
+     * @param ctx a context object passed to the callback on completion
+     * @param flags a bit mask of flags from BookieProtocol.FLAG_*
+     *              {@link org.apache.bookkeeper.proto.BookieProtocol}, fencing is not supported
+     * @param allowFastFail fail the read immediately if the channel is non-writable
+     *                      {@link #isWritable(BookieId,long)}
+     */
+    void batchReadEntries(BookieId address, long ledgerId, long startEntryId, int maxCount, long maxSize,
+                          BatchedReadEntryCallback cb, Object ctx, int flags, boolean allowFastFail);
+
     /**
      * Send a long poll request to bookie, waiting for the last add confirmed
      * to be updated. The client can also request that the full entry is returned
@@ -54,6 +54,7 @@ import org.apache.bookkeeper.common.util.OrderedExecutor;
 import org.apache.bookkeeper.conf.ClientConfiguration;
 import org.apache.bookkeeper.net.BookieId;
 import org.apache.bookkeeper.net.BookieSocketAddress;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.BatchedReadEntryCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.ForceLedgerCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.FutureGetListOfEntriesOfLedger;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.GenericCallback;
@@ -489,6 +490,32 @@ public class BookieClientImpl implements BookieClient, PerChannelBookieClientFac
         }, ledgerId);
     }
 
+    @Override
+    public void batchReadEntries(final BookieId addr, final long ledgerId, final long startEntryId,
+                                 final int maxCount, final long maxSize, final BatchedReadEntryCallback cb,
+                                 final Object ctx, int flags, final boolean allowFastFail) {
+        final PerChannelBookieClientPool client = lookupClient(addr);
+        if (client == null) {
+            cb.readEntriesComplete(getRc(BKException.Code.BookieHandleNotAvailableException),
+                                   ledgerId, startEntryId, null, ctx);
+            return;
+        }
+
+        client.obtain((rc, pcbc) -> {
+            if (rc != BKException.Code.OK) {
+                try {
+                    executor.executeOrdered(ledgerId,
+                            () -> cb.readEntriesComplete(rc, ledgerId, startEntryId, null, ctx));
+                } catch (RejectedExecutionException ree) {
+                    cb.readEntriesComplete(getRc(BKException.Code.InterruptedException),
+                                           ledgerId, startEntryId, null, ctx);
+                }
+            } else {
+                pcbc.batchReadEntries(ledgerId, startEntryId, maxCount, maxSize, cb, ctx, flags, allowFastFail);
+            }
+        }, ledgerId);
+    }
+
 
     @Override
     public void readEntryWaitForLACUpdate(final BookieId addr,
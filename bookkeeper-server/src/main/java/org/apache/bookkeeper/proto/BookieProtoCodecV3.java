@@ -0,0 +1,656 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static org.apache.bookkeeper.proto.BookieProtoEncoding.SMALL_ENTRY_SIZE_THRESHOLD;
+
+import com.google.common.base.MoreObjects;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.FileRegion;
+import io.netty.util.Recycler;
+import io.netty.util.Recycler.Handle;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.ReferenceCounted;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.AddRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.AddResponse;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.BKPacketHeader;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.OperationType;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ProtocolVersion;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadLacRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadLacResponse;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadResponse;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.Request;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.Response;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.StatusCode;
+import org.apache.bookkeeper.util.ByteBufList;
+
+/**
+ * Hand-written codec of the hot messages of the protocol version 3: the add, read and read LAC requests and their
+ * responses. It reads and writes the protobuf wire format straight from and to the buffers, without materializing
+ * the generated protobuf messages and without copying the entries.
+ *
+ * <p>Only the plain requests are decoded, i.e. without request context, fencing or long polling. For the others,
+ * and for anything unexpected, the decoder gives up and the request is parsed as a protobuf message, so that the
+ * errors are reported as before. The responses hold the same fields as the ones built by the protobuf processors,
+ * except that the entry body is the last field of the read responses, so that it can be sent by reference.
+ */
+final class BookieProtoCodecV3 {
+
+    private static final int VARINT = WireFormat.WIRETYPE_VARINT;
+    private static final int LENGTH_DELIMITED = WireFormat.WIRETYPE_LENGTH_DELIMITED;
+
+    // Request and Response
+    private static final int HEADER_TAG = Request.HEADER_FIELD_NUMBER << 3 | LENGTH_DELIMITED;
+    private static final int READ_REQUEST_TAG = Request.READREQUEST_FIELD_NUMBER << 3 | LENGTH_DELIMITED;
+    private static final int ADD_REQUEST_TAG = Request.ADDREQUEST_FIELD_NUMBER << 3 | LENGTH_DELIMITED;
+    private static final int READ_LAC_REQUEST_TAG = Request.READLACREQUEST_FIELD_NUMBER << 3 | LENGTH_DELIMITED;
+    private static final int STATUS_TAG = Response.STATUS_FIELD_NUMBER << 3 | VARINT;
+    private static final int READ_RESPONSE_TAG = Response.READRESPONSE_FIELD_NUMBER << 3 | LENGTH_DELIMITED;
+    private static final int ADD_RESPONSE_TAG = Response.ADDRESPONSE_FIELD_NUMBER << 3 | LENGTH_DELIMITED;
+    private static final int READ_LAC_RESPONSE_TAG = Response.READLACRESPONSE_FIELD_NUMBER << 3 | LENGTH_DELIMITED;
+
+    // BKPacketHeader
+    private static final int VERSION_TAG = BKPacketHeader.VERSION_FIELD_NUMBER << 3 | VARINT;
+    private static final int OPERATION_TAG = BKPacketHeader.OPERATION_FIELD_NUMBER << 3 | VARINT;
+    private static final int TXN_ID_TAG = BKPacketHeader.TXNID_FIELD_NUMBER << 3 | VARINT;
+    private static final int PRIORITY_TAG = BKPacketHeader.PRIORITY_FIELD_NUMBER << 3 | VARINT;
+    private static final int CREDITS_TAG = BKPacketHeader.CREDITS_FIELD_NUMBER << 3 | VARINT;
+
+    // AddRequest and ReadRequest
+    private static final int FLAG_TAG = AddRequest.FLAG_FIELD_NUMBER << 3 | VARINT;
+    private static final int LEDGER_ID_TAG = AddRequest.LEDGERID_FIELD_NUMBER << 3 | VARINT;
+    private static final int ENTRY_ID_TAG = AddRequest.ENTRYID_FIELD_NUMBER << 3 | VARINT;
+    private static final int MASTER_KEY_TAG = AddRequest.MASTERKEY_FIELD_NUMBER << 3 | LENGTH_DELIMITED;
+    private static final int BODY_TAG = AddRequest.BODY_FIELD_NUMBER << 3 | LENGTH_DELIMITED;
+    private static final int WRITE_FLAGS_TAG = AddRequest.WRITEFLAGS_FIELD_NUMBER << 3 | VARINT;
+    private static final int PREVIOUS_LAC_TAG = ReadRequest.PREVIOUSLAC_FIELD_NUMBER << 3 | VARINT;
+    private static final int TIME_OUT_TAG = ReadRequest.TIMEOUT_FIELD_NUMBER << 3 | VARINT;
+
+    // ReadLacRequest
+    private static final int READ_LAC_LEDGER_ID_TAG = ReadLacRequest.LEDGERID_FIELD_NUMBER << 3 | VARINT;
+
+    // AddResponse, ReadResponse and ReadLacResponse
+    private static final int RESPONSE_STATUS_TAG = AddResponse.STATUS_FIELD_NUMBER << 3 | VARINT;
+    private static final int RESPONSE_LEDGER_ID_TAG = AddResponse.LEDGERID_FIELD_NUMBER << 3 | VARINT;
+    private static final int RESPONSE_ENTRY_ID_TAG = AddResponse.ENTRYID_FIELD_NUMBER << 3 | VARINT;
+    private static final int RESPONSE_BODY_TAG = ReadResponse.BODY_FIELD_NUMBER << 3 | LENGTH_DELIMITED;
+    private static final int RESPONSE_MAX_LAC_TAG = ReadResponse.MAXLAC_FIELD_NUMBER << 3 | VARINT;
+    private static final int LAC_BODY_TAG = ReadLacResponse.LACBODY_FIELD_NUMBER << 3 | LENGTH_DELIMITED;
+    private static final int LAST_ENTRY_BODY_TAG = ReadLacResponse.LASTENTRYBODY_FIELD_NUMBER << 3 | LENGTH_DELIMITED;
+
+    private BookieProtoCodecV3() {}
+
+    /**
+     * Decode a plain add, read or read LAC request.
+     *
+     * @return the request, or null if it must be parsed as a protobuf message, with the reader index unchanged
+     */
+    static ParsedRequest decodeRequest(ByteBuf packet) {
+        int readerIndex = packet.readerIndex();
+        // The v2 requests start with the protocol version instead
+        if (!packet.isReadable() || packet.getByte(readerIndex) != HEADER_TAG) {
+            return null;
+        }
+        ParsedRequest request = ParsedRequest.create();
+        try {
+            if (request.decode(packet)) {
+                return request;
+            }
+        } catch (IndexOutOfBoundsException | MalformedMessageException e) {
+            // Truncated or invalid message, reported by protobuf
+        }
+        request.release();
+        request.recycle();
+        packet.readerIndex(readerIndex);
+        return null;
+    }
+
+    /**
+     * Encode a response to a request with only its status.
+     */
+    static ByteBuf encodeResponse(ByteBufAllocator allocator, ParsedRequest request, StatusCode status) {
+        int size = responseSize(request, status, 0, 0);
+        ByteBuf buf = allocator.directBuffer(4 + size, 4 + size);
+        buf.writeInt(size);
+        writeResponse(buf, request, status, 0, 0);
+        return buf;
+    }
+
+    static ByteBuf encodeAddResponse(ByteBufAllocator allocator, ParsedRequest request, StatusCode status) {
+        int addResponseSize = 1 + varintSize(status.getNumber())
+                + 1 + varintSize(request.ledgerId)
+                + 1 + varintSize(request.entryId);
+        int size = responseSize(request, status, ADD_RESPONSE_TAG, addResponseSize);
+        ByteBuf buf = allocator.directBuffer(4 + size, 4 + size);
+        buf.writeInt(size);
+        writeResponse(buf, request, status, ADD_RESPONSE_TAG, addResponseSize);
+        writeVarint(buf, RESPONSE_STATUS_TAG);
+        writeVarint(buf, status.getNumber());
+        writeVarint(buf, RESPONSE_LEDGER_ID_TAG);
+        writeVarint(buf, request.ledgerId);
+        writeVarint(buf, RESPONSE_ENTRY_ID_TAG);
+        writeVarint(buf, request.entryId);
+        return buf;
+    }
+
+    /**
+     * Encode a read response, whose body is a {@link ByteBuf} or a {@link FileRegion} owned by the response.
+     *
+     * @return the encoded response, as {@link ByteBuf}, {@link ByteBufList} or
+     *         {@link BookieProtoEncoding.FileRegionResponse}
+     */
+    static Object encodeReadResponse(ByteBufAllocator allocator, ParsedRequest request, StatusCode status,
+                                     boolean hasMaxLac, long maxLac, ReferenceCounted body) {
+        int bodySize = 0;
+        if (body instanceof ByteBuf) {
+            bodySize = ((ByteBuf) body).readableBytes();
+        } else if (body instanceof FileRegion) {
+            bodySize = (int) ((FileRegion) body).count();
+        }
+        int readResponseSize = 1 + varintSize(status.getNumber())
+                + 1 + varintSize(request.ledgerId)
+                + 1 + varintSize(request.entryId)
+                + (hasMaxLac ? 1 + varintSize(maxLac) : 0)
+                + (body != null ? 1 + varintSize(bodySize) + bodySize : 0);
+        int size = responseSize(request, status, READ_RESPONSE_TAG, readResponseSize);
+        boolean copyBody = body instanceof ByteBuf && bodySize < SMALL_ENTRY_SIZE_THRESHOLD;
+        int bufferSize = 4 + size - (copyBody ? 0 : bodySize);
+        ByteBuf buf = allocator.directBuffer(bufferSize, bufferSize);
+        buf.writeInt(size);
+        writeResponse(buf, request, status, READ_RESPONSE_TAG, readResponseSize);
+        writeVarint(buf, RESPONSE_STATUS_TAG);
+        writeVarint(buf, status.getNumber());
+        writeVarint(buf, RESPONSE_LEDGER_ID_TAG);
+        writeVarint(buf, request.ledgerId);
+        writeVarint(buf, RESPONSE_ENTRY_ID_TAG);
+        writeVarint(buf, request.entryId);
+        if (hasMaxLac) {
+            writeVarint(buf, RESPONSE_MAX_LAC_TAG);
+            writeVarint(buf, maxLac);
+        }
+        if (body == null) {
+            return buf;
+        }
+        writeVarint(buf, RESPONSE_BODY_TAG);
+        writeVarint(buf, bodySize);
+        if (body instanceof FileRegion) {
+            return new BookieProtoEncoding.FileRegionResponse(buf, (FileRegion) body);
+        } else if (copyBody) {
+            buf.writeBytes((ByteBuf) body);
+            ReferenceCountUtil.release(body);
+            return buf;
+        } else {
+            return ByteBufList.get(buf, (ByteBuf) body);
+        }
+    }
+
+    /**
+     * Encode a read LAC response, whose bodies are owned by the response.
+     */
+    static Object encodeReadLacResponse(ByteBufAllocator allocator, ParsedRequest request, StatusCode status,
+                                        ByteBuf lacBody, ByteBuf lastEntryBody) {
+        int lacBodySize = lacBody != null ? lacBody.readableBytes() : 0;
+        int lastEntryBodySize = lastEntryBody != null ? lastEntryBody.readableBytes() : 0;
+        int readLacResponseSize = 1 + varintSize(status.getNumber())
+                + 1 + varintSize(request.ledgerId)
+                + (lacBody != null ? 1 + varintSize(lacBodySize) + lacBodySize : 0)
+                + (lastEntryBody != null ? 1 + varintSize(lastEntryBodySize) + lastEntryBodySize : 0);
+        int size = responseSize(request, status, READ_LAC_RESPONSE_TAG, readLacResponseSize);
+        // The LAC body is small, only the last entry is sent by reference
+        boolean copyLastEntry = lastEntryBodySize < SMALL_ENTRY_SIZE_THRESHOLD;
+        int bufferSize = 4 + size - (copyLastEntry ? 0 : lastEntryBodySize);
+        ByteBuf buf = allocator.directBuffer(bufferSize, bufferSize);
+        buf.writeInt(size);
+        writeResponse(buf, request, status, READ_LAC_RESPONSE_TAG, readLacResponseSize);
+        writeVarint(buf, RESPONSE_STATUS_TAG);
+        writeVarint(buf, status.getNumber());
+        writeVarint(buf, RESPONSE_LEDGER_ID_TAG);
+        writeVarint(buf, request.ledgerId);
+        if (lacBody != null) {
+            writeVarint(buf, LAC_BODY_TAG);
+            writeVarint(buf, lacBodySize);
+            buf.writeBytes(lacBody);
+            ReferenceCountUtil.release(lacBody);
+        }
+        if (lastEntryBody == null) {
+            return buf;
+        }
+        writeVarint(buf, LAST_ENTRY_BODY_TAG);
+        writeVarint(buf, lastEntryBodySize);
+        if (copyLastEntry) {
+            buf.writeBytes(lastEntryBody);
+            ReferenceCountUtil.release(lastEntryBody);
+            return buf;
+        } else {
+            return ByteBufList.get(buf, lastEntryBody);
+        }
+    }
+
+    private static int headerSize(ParsedRequest request) {
+        return 1 + varintSize(ProtocolVersion.VERSION_THREE_VALUE)
+                + 1 + varintSize(request.operation)
+                + 1 + varintSize(request.txnId)
+                + (request.grantedCredits > 0 ? 1 + varintSize(request.grantedCredits) : 0);
+    }
+
+    /**
+     * @return the size of a response whose operation specific response has the given tag and size
+     */
+    private static int responseSize(ParsedRequest request, StatusCode status, int responseTag, int responseSize) {
+        int headerSize = headerSize(request);
+        int size = 1 + varintSize(headerSize) + headerSize
+                + 1 + varintSize(status.getNumber());
+        if (responseTag != 0) {
+            size += varintSize(responseTag) + varintSize(responseSize) + responseSize;
+        }
+        return size;
+    }
+
+    /**
+     * Write the header and the status of a response, followed by the tag and size of the operation specific
+     * response, if any.
+     */
+    private static void writeResponse(ByteBuf buf, ParsedRequest request, StatusCode status, int responseTag,
+                                      int responseSize) {
+        writeVarint(buf, HEADER_TAG);
+        writeVarint(buf, headerSize(request));
+        writeVarint(buf, VERSION_TAG);
+        writeVarint(buf, ProtocolVersion.VERSION_THREE_VALUE);
+        writeVarint(buf, OPERATION_TAG);
+        writeVarint(buf, request.operation);
+        writeVarint(buf, TXN_ID_TAG);
+        writeVarint(buf, request.txnId);
+        if (request.grantedCredits > 0) {
+            writeVarint(buf, CREDITS_TAG);
+            writeVarint(buf, request.grantedCredits);
+        }
+        writeVarint(buf, STATUS_TAG);
+        writeVarint(buf, status.getNumber());
+        if (responseTag != 0) {
+            writeVarint(buf, responseTag);
+            writeVarint(buf, responseSize);
+        }
+    }
+
+    private static int varintSize(long value) {
+        return CodedOutputStream.computeUInt64SizeNoTag(value);
+    }
+
+    private static void writeVarint(ByteBuf buf, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buf.writeByte(((int) value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf.writeByte((int) value);
+    }
+
+    private static long readVarint(ByteBuf buf) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buf.readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw MalformedMessageException.INSTANCE;
+    }
+
+    /**
+     * Read the size of a length delimited field.
+     *
+     * @return the reader index at the end of the field
+     */
+    private static int readLimit(ByteBuf buf) {
+        long size = readVarint(buf);
+        if (size < 0 || size > buf.readableBytes()) {
+            throw MalformedMessageException.INSTANCE;
+        }
+        return buf.readerIndex() + (int) size;
+    }
+
+    private static void checkLimit(ByteBuf buf, int limit) {
+        if (buf.readerIndex() != limit) {
+            throw MalformedMessageException.INSTANCE;
+        }
+    }
+
+    /**
+     * Thrown when a message is not a valid protobuf message, which is then parsed by protobuf to report the error.
+     */
+    private static final class MalformedMessageException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        static final MalformedMessageException INSTANCE = new MalformedMessageException();
+
+        private MalformedMessageException() {
+            super("Malformed protobuf message", null, false, false);
+        }
+    }
+
+    /**
+     * An add, read or read LAC request decoded by the codec.
+     */
+    static final class ParsedRequest {
+        int version;
+        int operation;
+        long txnId;
+        int priority;
+        // Flow control credits asked for by the client, and granted in the response
+        int credits;
+        int grantedCredits;
+        long ledgerId;
+        long entryId;
+        byte[] masterKey;
+        ByteBuf body;
+        boolean recoveryAdd;
+        int writeFlags;
+
+        // Fields decoded, to check the required ones
+        private boolean hasVersion;
+        private boolean hasOperation;
+        private boolean hasTxnId;
+        private boolean hasLedgerId;
+        private boolean hasEntryId;
+        // Field number of the operation specific request
+        private int requestField;
+
+        static ParsedRequest create() {
+            return RECYCLER.get();
+        }
+
+        OperationType getOperation() {
+            return OperationType.forNumber(operation);
+        }
+
+        long getTxnId() {
+            return txnId;
+        }
+
+        boolean isVersionThree() {
+            return version == ProtocolVersion.VERSION_THREE_VALUE;
+        }
+
+        boolean isHighPriority() {
+            return priority > 0;
+        }
+
+        int getCredits() {
+            return credits;
+        }
+
+        long getLedgerId() {
+            return ledgerId;
+        }
+
+        long getEntryId() {
+            return entryId;
+        }
+
+        byte[] getMasterKey() {
+            return masterKey;
+        }
+
+        ByteBuf getBody() {
+            return body;
+        }
+
+        boolean isRecoveryAdd() {
+            return recoveryAdd;
+        }
+
+        int getWriteFlags() {
+            return writeFlags;
+        }
+
+        /**
+         * Release the body of an add request that is not added.
+         */
+        void release() {
+            ReferenceCountUtil.release(body);
+            body = null;
+        }
+
+        /**
+         * @return false if the request must be parsed as a protobuf message
+         */
+        private boolean decode(ByteBuf buf) {
+            while (buf.isReadable()) {
+                int tag = (int) readVarint(buf);
+                int limit = readLimit(buf);
+                switch (tag) {
+                case HEADER_TAG:
+                    if (!decodeHeader(buf, limit)) {
+                        return false;
+                    }
+                    break;
+                case ADD_REQUEST_TAG:
+                    if (requestField != 0 || !decodeAddRequest(buf, limit)) {
+                        return false;
+                    }
+                    requestField = Request.ADDREQUEST_FIELD_NUMBER;
+                    break;
+                case READ_REQUEST_TAG:
+                    if (requestField != 0 || !decodeReadRequest(buf, limit)) {
+                        return false;
+                    }
+                    requestField = Request.READREQUEST_FIELD_NUMBER;
+                    break;
+                case READ_LAC_REQUEST_TAG:
+                    if (requestField != 0 || !decodeReadLacRequest(buf, limit)) {
+                        return false;
+                    }
+                    requestField = Request.READLACREQUEST_FIELD_NUMBER;
+                    break;
+                default:
+                    // Request context, other requests or unknown fields
+                    return false;
+                }
+                checkLimit(buf, limit);
+            }
+
+            if (!hasVersion || !hasOperation || !hasTxnId || ProtocolVersion.forNumber(version) == null) {
+                return false;
+            }
+            switch (operation) {
+            case OperationType.ADD_ENTRY_VALUE:
+                return requestField == Request.ADDREQUEST_FIELD_NUMBER
+                        && hasLedgerId && hasEntryId && masterKey != null && body != null;
+            case OperationType.READ_ENTRY_VALUE:
+                return requestField == Request.READREQUEST_FIELD_NUMBER && hasLedgerId && hasEntryId;
+            case OperationType.READ_LAC_VALUE:
+                return requestField == Request.READLACREQUEST_FIELD_NUMBER && hasLedgerId;
+            default:
+                return false;
+            }
+        }
+
+        private boolean decodeHeader(ByteBuf buf, int limit) {
+            while (buf.readerIndex() < limit) {
+                switch ((int) readVarint(buf)) {
+                case VERSION_TAG:
+                    version = (int) readVarint(buf);
+                    hasVersion = true;
+                    break;
+                case OPERATION_TAG:
+                    operation = (int) readVarint(buf);
+                    hasOperation = true;
+                    break;
+                case TXN_ID_TAG:
+                    txnId = readVarint(buf);
+                    hasTxnId = true;
+                    break;
+                case PRIORITY_TAG:
+                    priority = (int) readVarint(buf);
+                    break;
+                case CREDITS_TAG:
+                    credits = (int) readVarint(buf);
+                    break;
+                default:
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean decodeAddRequest(ByteBuf buf, int limit) {
+            while (buf.readerIndex() < limit) {
+                switch ((int) readVarint(buf)) {
+                case FLAG_TAG:
+                    if (readVarint(buf) != AddRequest.Flag.RECOVERY_ADD_VALUE) {
+                        return false;
+                    }
+                    recoveryAdd = true;
+                    break;
+                case LEDGER_ID_TAG:
+                    ledgerId = readVarint(buf);
+                    hasLedgerId = true;
+                    break;
+                case ENTRY_ID_TAG:
+                    entryId = readVarint(buf);
+                    hasEntryId = true;
+                    break;
+                case MASTER_KEY_TAG: {
+                    int end = readLimit(buf);
+                    masterKey = new byte[end - buf.readerIndex()];
+                    buf.readBytes(masterKey);
+                    break;
+                }
+                case BODY_TAG: {
+                    int end = readLimit(buf);
+                    ReferenceCountUtil.release(body);
+                    body = buf.readRetainedSlice(end - buf.readerIndex());
+                    break;
+                }
+                case WRITE_FLAGS_TAG:
+                    writeFlags = (int) readVarint(buf);
+                    break;
+                default:
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean decodeReadRequest(ByteBuf buf, int limit) {
+            while (buf.readerIndex() < limit) {
+                switch ((int) readVarint(buf)) {
+                case LEDGER_ID_TAG:
+                    ledgerId = readVarint(buf);
+                    hasLedgerId = true;
+                    break;
+                case ENTRY_ID_TAG:
+                    entryId = readVarint(buf);
+                    hasEntryId = true;
+                    break;
+                case MASTER_KEY_TAG:
+                    // Only used by the fencing reads
+                    buf.readerIndex(readLimit(buf));
+                    break;
+                case FLAG_TAG:
+                case PREVIOUS_LAC_TAG:
+                case TIME_OUT_TAG:
+                    // Fencing, piggyback and long poll reads
+                default:
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean decodeReadLacRequest(ByteBuf buf, int limit) {
+            while (buf.readerIndex() < limit) {
+                if ((int) readVarint(buf) != READ_LAC_LEDGER_ID_TAG) {
+                    return false;
+                }
+                ledgerId = readVarint(buf);
+                hasLedgerId = true;
+            }
+            return true;
+        }
+
+        /**
+         * This toString method filters out body and masterKey from the output, as {@link RequestUtils#toSafeString}.
+         */
+        @Override
+        public String toString() {
+            MoreObjects.ToStringHelper stringHelper = MoreObjects.toStringHelper(this)
+                    .add("version", ProtocolVersion.forNumber(version))
+                    .add("operation", getOperation())
+                    .add("txnId", txnId);
+            if (priority > 0) {
+                stringHelper.add("priority", priority);
+            }
+            if (credits > 0) {
+                stringHelper.add("credits", credits);
+            }
+            stringHelper.add("ledgerId", ledgerId);
+            if (operation != OperationType.READ_LAC_VALUE) {
+                stringHelper.add("entryId", entryId);
+            }
+            if (recoveryAdd) {
+                stringHelper.add("flag", AddRequest.Flag.RECOVERY_ADD);
+            }
+            if (writeFlags != 0) {
+                stringHelper.add("writeFlags", writeFlags);
+            }
+            return stringHelper.toString();
+        }
+
+        private final Handle<ParsedRequest> recyclerHandle;
+
+        private ParsedRequest(Handle<ParsedRequest> recyclerHandle) {
+            this.recyclerHandle = recyclerHandle;
+        }
+
+        private static final Recycler<ParsedRequest> RECYCLER = new Recycler<ParsedRequest>() {
+            @Override
+            protected ParsedRequest newObject(Handle<ParsedRequest> handle) {
+                return new ParsedRequest(handle);
+            }
+        };
+
+        void recycle() {
+            version = 0;
+            operation = 0;
+            txnId = 0;
+            priority = 0;
+            credits = 0;
+            grantedCredits = 0;
+            ledgerId = 0;
+            entryId = 0;
+            masterKey = null;
+            body = null;
+            recoveryAdd = false;
+            writeFlags = 0;
+            hasVersion = false;
+            hasOperation = false;
+            hasTxnId = false;
+            hasLedgerId = false;
+            hasEntryId = false;
+            requestField = 0;
+            recyclerHandle.recycle(this);
+        }
+    }
+}
@@ -24,6 +24,7 @@ import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.ExtensionRegistry;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.MessageLite;
+import com.google.protobuf.WireFormat;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.ByteBufInputStream;
@@ -33,7 +34,9 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelOutboundHandlerAdapter;
 import io.netty.channel.ChannelPromise;
+import io.netty.channel.FileRegion;
 import io.netty.util.ReferenceCountUtil;
+import io.netty.util.ReferenceCounted;
 import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
 import org.apache.bookkeeper.proto.BookieProtocol.PacketHeader;
@@ -110,7 +113,26 @@ public class BookieProtoEncoding {
                 return msg;
             }
             BookieProtocol.Request r = (BookieProtocol.Request) msg;
-            if (r instanceof BookieProtocol.ReadRequest) {
+            if (r instanceof BookieProtocol.BatchedReadRequest) {
+                BookieProtocol.BatchedReadRequest br = (BookieProtocol.BatchedReadRequest) r;
+                int totalHeaderSize = 4 // for request type
+                    + 8 // for ledgerId
+                    + 8 // for start entryId
+                    + 4 // for maxCount
+                    + 8 // for maxSize
+                    + 8; // for requestId
+
+                ByteBuf buf = allocator.buffer(totalHeaderSize + 4 /* frame size */);
+                buf.writeInt(totalHeaderSize);
+                buf.writeInt(PacketHeader.toInt(br.getProtocolVersion(), br.getOpCode(), br.getFlags()));
+                buf.writeLong(br.getLedgerId());
+                buf.writeLong(br.getEntryId());
+                buf.writeInt(br.getMaxCount());
+                buf.writeLong(br.getMaxSize());
+                buf.writeLong(br.getRequestId());
+                br.recycle();
+                return buf;
+            } else if (r instanceof BookieProtocol.ReadRequest) {
                 int totalHeaderSize = 4 // for request type
                     + 8 // for ledgerId
                     + 8; // for entryId
@@ -181,6 +203,15 @@ public class BookieProtoEncoding {
                 } else {
                     return BookieProtocol.ReadRequest.create(version, ledgerId, entryId, flags, null);
                 }
+            case BookieProtocol.BATCH_READ_ENTRY: {
+                ledgerId = packet.readLong();
+                entryId = packet.readLong();
+                int maxCount = packet.readInt();
+                long maxSize = packet.readLong();
+                long requestId = packet.readLong();
+                return BookieProtocol.BatchedReadRequest.create(version, ledgerId, entryId, maxCount, maxSize,
+                        flags, requestId);
+            }
             case BookieProtocol.AUTH:
                 BookkeeperProtocol.AuthMessage.Builder builder = BookkeeperProtocol.AuthMessage.newBuilder();
                 builder.mergeFrom(new ByteBufInputStream(packet), extensionRegistry);
@@ -228,6 +259,8 @@ public class BookieProtoEncoding {
         }
 
         private static final int RESPONSE_HEADERS_SIZE = 24;
+        // The headers of a read response, followed by the request id
+        private static final int BATCHED_READ_RESPONSE_HEADERS_SIZE = RESPONSE_HEADERS_SIZE + 8;
 
         @Override
         public Object encode(Object msg, ByteBufAllocator allocator)
@@ -238,8 +271,20 @@ public class BookieProtoEncoding {
             BookieProtocol.Response r = (BookieProtocol.Response) msg;
 
             try {
-                if (msg instanceof BookieProtocol.ReadResponse) {
+                if (msg instanceof BookieProtocol.BatchedReadResponse) {
+                    return encodeBatchedReadResponse((BookieProtocol.BatchedReadResponse) r, allocator);
+                } else if (msg instanceof BookieProtocol.ReadResponse) {
                     BookieProtocol.ReadResponse rr = (BookieProtocol.ReadResponse) r;
+                    if (rr.hasDataRegion()) {
+                        // Only the headers are encoded, the entry is written from the file region
+                        ByteBuf buf = allocator.buffer(4 /* frame size */ + RESPONSE_HEADERS_SIZE);
+                        buf.writeInt(RESPONSE_HEADERS_SIZE + (int) rr.getDataRegion().count());
+                        buf.writeInt(PacketHeader.toInt(r.getProtocolVersion(), r.getOpCode(), (short) 0));
+                        buf.writeInt(r.getErrorCode());
+                        buf.writeLong(r.getLedgerId());
+                        buf.writeLong(r.getEntryId());
+                        return buf;
+                    }
                     int payloadSize = rr.getData().readableBytes();
                     int responseSize = RESPONSE_HEADERS_SIZE + payloadSize;
                     boolean isSmallEntry = payloadSize < SMALL_ENTRY_SIZE_THRESHOLD;
@@ -286,6 +331,63 @@ public class BookieProtoEncoding {
                 r.recycle();
             }
         }
+        /**
+         * Encode the entries of a batched read response, each one preceded by its length. As for the single reads,
+         * the small entries are copied in the headers buffer and the large ones are passed as references.
+         */
+        private static Object encodeBatchedReadResponse(BookieProtocol.BatchedReadResponse r,
+                                                        ByteBufAllocator allocator) {
+            ByteBufList entries = r.getData();
+            int entryCount = r.getEntryCount();
+            int payloadSize = 0;
+            int copiedSize = 0;
+            for (int i = 0; i < entryCount; i++) {
+                int entrySize = entries.getBuffer(i).readableBytes();
+                payloadSize += 4 + entrySize;
+                copiedSize += 4 + (entrySize < SMALL_ENTRY_SIZE_THRESHOLD ? entrySize : 0);
+            }
+
+            ByteBuf buf = allocator.buffer(4 /* frame size */ + BATCHED_READ_RESPONSE_HEADERS_SIZE + copiedSize);
+            buf.writeInt(BATCHED_READ_RESPONSE_HEADERS_SIZE + payloadSize);
+            buf.writeInt(PacketHeader.toInt(r.getProtocolVersion(), r.getOpCode(), (short) 0));
+            buf.writeInt(r.getErrorCode());
+            buf.writeLong(r.getLedgerId());
+            buf.writeLong(r.getEntryId());
+            buf.writeLong(r.getRequestId());
+
+            ByteBufList result = null;
+            try {
+                for (int i = 0; i < entryCount; i++) {
+                    ByteBuf entry = entries.getBuffer(i);
+                    int entrySize = entry.readableBytes();
+                    buf.writeInt(entrySize);
+                    copiedSize -= 4;
+                    if (entrySize < SMALL_ENTRY_SIZE_THRESHOLD) {
+                        buf.writeBytes(entry, entry.readerIndex(), entrySize);
+                        copiedSize -= entrySize;
+                    } else {
+                        if (result == null) {
+                            result = ByteBufList.get(buf);
+                        } else {
+                            result.add(buf);
+                        }
+                        result.add(entry.retain());
+                        buf = copiedSize > 0 ? allocator.buffer(copiedSize) : null;
+                    }
+                }
+            } finally {
+                r.release();
+            }
+
+            if (result == null) {
+                return buf;
+            }
+            if (buf != null) {
+                result.add(buf);
+            }
+            return result;
+        }
+
         @Override
         public Object decode(ByteBuf buffer)
                 throws Exception {
@@ -309,6 +411,25 @@ public class BookieProtoEncoding {
 
                 return new BookieProtocol.ReadResponse(
                         version, rc, ledgerId, entryId, buffer.retainedSlice());
+            case BookieProtocol.BATCH_READ_ENTRY: {
+                rc = buffer.readInt();
+                ledgerId = buffer.readLong();
+                entryId = buffer.readLong();
+                long requestId = buffer.readLong();
+
+                ByteBufList entries = null;
+                while (buffer.readableBytes() >= 4) {
+                    int entrySize = buffer.readInt();
+                    ByteBuf entry = buffer.retainedSlice(buffer.readerIndex(), entrySize);
+                    buffer.skipBytes(entrySize);
+                    if (entries == null) {
+                        entries = ByteBufList.get(entry);
+                    } else {
+                        entries.add(entry);
+                    }
+                }
+                return new BookieProtocol.BatchedReadResponse(version, rc, ledgerId, entryId, requestId, entries);
+            }
             case BookieProtocol.AUTH:
                 ByteBufInputStream bufStream = new ByteBufInputStream(buffer);
                 BookkeeperProtocol.AuthMessage.Builder builder = BookkeeperProtocol.AuthMessage.newBuilder();
@@ -370,13 +491,123 @@ public class BookieProtoEncoding {
 
         @Override
         public Object encode(Object msg, ByteBufAllocator allocator) throws Exception {
+            if (msg instanceof FileRegionResponse) {
+                FileRegionResponse r = (FileRegionResponse) msg;
+                if (r.headers != null) {
+                    return r.headers;
+                }
+                return serializeProtobufHeaders(r.response, (int) r.body.count(), allocator);
+            }
             BookkeeperProtocol.Response response = (BookkeeperProtocol.Response) msg;
             return serializeProtobuf(response, allocator);
         }
 
     }
 
-    private static ByteBuf serializeProtobuf(MessageLite msg, ByteBufAllocator allocator) {
+    /**
+     * A V3 read response whose entry body is sent from a file region.
+     *
+     * <p>The response is serialized without the body, followed by a second occurrence of the read response field
+     * that only holds the body, and the body itself is written from the region. Protobuf merges the repeated
+     * occurrences of an embedded message, so the client parses it as a single read response.
+     */
+    static final class FileRegionResponse implements ReferenceCounted {
+        final Response response;
+        // Response already serialized by BookieProtoCodecV3, up to the body
+        final ByteBuf headers;
+        final FileRegion body;
+
+        FileRegionResponse(Response response, FileRegion body) {
+            this.response = response;
+            this.headers = null;
+            this.body = body;
+        }
+
+        FileRegionResponse(ByteBuf headers, FileRegion body) {
+            this.response = null;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        @Override
+        public int refCnt() {
+            return body.refCnt();
+        }
+
+        @Override
+        public ReferenceCounted retain() {
+            body.retain();
+            return this;
+        }
+
+        @Override
+        public ReferenceCounted retain(int increment) {
+            body.retain(increment);
+            return this;
+        }
+
+        @Override
+        public ReferenceCounted touch() {
+            body.touch();
+            return this;
+        }
+
+        @Override
+        public ReferenceCounted touch(Object hint) {
+            body.touch(hint);
+            return this;
+        }
+
+        @Override
+        public boolean release() {
+            return release(1);
+        }
+
+        @Override
+        public boolean release(int decrement) {
+            // Only released when not sent, the encoder writes the headers and the body on their own
+            boolean released = body.release(decrement);
+            if (released && headers != null) {
+                headers.release();
+            }
+            return released;
+        }
+    }
+
+    /**
+     * Serialize a response whose read response body of {@code bodySize} bytes is written right after the returned
+     * buffer.
+     */
+    private static ByteBuf serializeProtobufHeaders(Response response, int bodySize, ByteBufAllocator allocator) {
+        int size = response.getSerializedSize();
+        int bodyFieldSize = CodedOutputStream.computeTagSize(BookkeeperProtocol.ReadResponse.BODY_FIELD_NUMBER)
+                + CodedOutputStream.computeUInt32SizeNoTag(bodySize);
+        int readResponseSize = bodyFieldSize + bodySize;
+        int readResponseFieldSize = CodedOutputStream.computeTagSize(Response.READRESPONSE_FIELD_NUMBER)
+                + CodedOutputStream.computeUInt32SizeNoTag(readResponseSize);
+        int headersSize = size + readResponseFieldSize + bodyFieldSize;
+
+        ByteBuf buf = allocator.directBuffer(4 + headersSize, 4 + headersSize);
+        buf.writeInt(headersSize + bodySize);
+
+        try {
+            CodedOutputStream out = CodedOutputStream.newInstance(buf.nioBuffer(buf.writerIndex(), headersSize));
+            response.writeTo(out);
+            out.writeTag(Response.READRESPONSE_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            out.writeUInt32NoTag(readResponseSize);
+            out.writeTag(BookkeeperProtocol.ReadResponse.BODY_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            out.writeUInt32NoTag(bodySize);
+            out.flush();
+        } catch (IOException e) {
+            // This is in-memory serialization, should not fail
+            throw new RuntimeException(e);
+        }
+
+        buf.writerIndex(4 + headersSize);
+        return buf;
+    }
+
+    static ByteBuf serializeProtobuf(MessageLite msg, ByteBufAllocator allocator) {
         int size = msg.getSerializedSize();
         int frameSize = size + 4;
 
@@ -465,7 +696,10 @@ public class BookieProtoEncoding {
                 Object result;
                 if (usingV3Protocol) {
                     try {
-                        result = reqV3.decode(buffer);
+                        result = BookieProtoCodecV3.decodeRequest(buffer);
+                        if (result == null) {
+                            result = reqV3.decode(buffer);
+                        }
                     } catch (InvalidProtocolBufferException e) {
                         usingV3Protocol = false;
                         buffer.resetReaderIndex();
@@ -500,10 +734,20 @@ public class BookieProtoEncoding {
                 LOG.trace("Encode response {} to channel {}.", msg, ctx.channel());
             }
 
-            if (msg instanceof ByteBuf) {
+            if (msg instanceof ByteBuf || msg instanceof ByteBufList) {
                 ctx.write(msg, promise);
+            } else if (msg instanceof FileRegionResponse) {
+                FileRegion body = ((FileRegionResponse) msg).body;
+                ctx.write(repV3.encode(msg, ctx.alloc()), ctx.voidPromise());
+                ctx.write(body, promise);
             } else if (msg instanceof BookkeeperProtocol.Response) {
                 ctx.write(repV3.encode(msg, ctx.alloc()), promise);
+            } else if (msg instanceof BookieProtocol.ReadResponse
+                    && ((BookieProtocol.ReadResponse) msg).hasDataRegion()) {
+                // The response is recycled once encoded
+                FileRegion data = ((BookieProtocol.ReadResponse) msg).getDataRegion();
+                ctx.write(repPreV3.encode(msg, ctx.alloc()), ctx.voidPromise());
+                ctx.write(data, promise);
             } else if (msg instanceof BookieProtocol.Response) {
                 ctx.write(repPreV3.encode(msg, ctx.alloc()), promise);
             } else {
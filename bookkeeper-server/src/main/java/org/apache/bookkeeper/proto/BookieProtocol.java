@@ -22,11 +22,13 @@ package org.apache.bookkeeper.proto;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.FileRegion;
 import io.netty.util.Recycler;
 import io.netty.util.Recycler.Handle;
 import io.netty.util.ReferenceCountUtil;
 import io.netty.util.ReferenceCounted;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.AuthMessage;
+import org.apache.bookkeeper.util.ByteBufList;
 
 /**
  * The packets of the Bookie protocol all have a 4-byte integer indicating the
@@ -133,6 +135,18 @@ public interface BookieProtocol {
     byte WRITE_LAC = 5;
     byte GET_BOOKIE_INFO = 6;
 
+    /**
+     * The Batch read entry request payload will be the ledger number, the entry
+     * number to start reading from, the maximum number of entries to read and the
+     * maximum size of the response. The response payload will be a 4-byte integer
+     * representing an error code, the ledger number, the first entry number, the
+     * id of the request and, if the error code is EOK, the consecutive entries read
+     * from the first one, each one preceded by its 4-byte length. The bookie stops
+     * at the first missing entry or when either maximum is reached, but always
+     * returns the first entry.
+     */
+    byte BATCH_READ_ENTRY = 7;
+
     /**
      * The error code that indicates success.
      */
@@ -332,6 +346,10 @@ public interface BookieProtocol {
             this.recyclerHandle = recyclerHandle;
         }
 
+        private ReadRequest() {
+            this.recyclerHandle = null;
+        }
+
         private static final Recycler<ReadRequest> RECYCLER = new Recycler<ReadRequest>() {
             @Override
             protected ReadRequest newObject(Handle<ReadRequest> handle) {
@@ -348,6 +366,72 @@ public interface BookieProtocol {
         }
     }
 
+    /**
+     * A request that reads consecutive entries of a ledger in a single response.
+     */
+    class BatchedReadRequest extends ReadRequest {
+        long requestId;
+        int maxCount;
+        long maxSize;
+
+        static BatchedReadRequest create(byte protocolVersion, long ledgerId, long startEntryId,
+                                         int maxCount, long maxSize, short flags, long requestId) {
+            BatchedReadRequest read = RECYCLER.get();
+            read.protocolVersion = protocolVersion;
+            read.opCode = BATCH_READ_ENTRY;
+            read.ledgerId = ledgerId;
+            read.entryId = startEntryId;
+            read.maxCount = maxCount;
+            read.maxSize = maxSize;
+            read.flags = flags;
+            read.masterKey = null;
+            read.requestId = requestId;
+            return read;
+        }
+
+        long getRequestId() {
+            return requestId;
+        }
+
+        int getMaxCount() {
+            return maxCount;
+        }
+
+        long getMaxSize() {
+            return maxSize;
+        }
+
+        private final Handle<BatchedReadRequest> recyclerHandle;
+
+        private BatchedReadRequest(Handle<BatchedReadRequest> recyclerHandle) {
+            this.recyclerHandle = recyclerHandle;
+        }
+
+        private static final Recycler<BatchedReadRequest> RECYCLER = new Recycler<BatchedReadRequest>() {
+            @Override
+            protected BatchedReadRequest newObject(Handle<BatchedReadRequest> handle) {
+                return new BatchedReadRequest(handle);
+            }
+        };
+
+        @Override
+        public String toString() {
+            return String.format("Op(%d)[Ledger:%d,StartEntry:%d,MaxCount:%d,MaxSize:%d,RequestId:%d]",
+                    opCode, ledgerId, entryId, maxCount, maxSize, requestId);
+        }
+
+        @Override
+        public void recycle() {
+            ledgerId = -1;
+            entryId = -1;
+            requestId = -1;
+            maxCount = 0;
+            maxSize = 0;
+            masterKey = null;
+            recyclerHandle.recycle(this);
+        }
+    }
+
     /**
      * An authentication request.
      */
@@ -422,6 +506,8 @@ public interface BookieProtocol {
      */
     class ReadResponse extends Response implements ReferenceCounted {
         final ByteBuf data;
+        // When set, the entry is sent straight from the entry log file instead of the data buffer
+        final FileRegion dataRegion;
 
         ReadResponse(byte protocolVersion, int errorCode, long ledgerId, long entryId) {
             this(protocolVersion, errorCode, ledgerId, entryId, Unpooled.EMPTY_BUFFER);
@@ -430,6 +516,13 @@ public interface BookieProtocol {
         ReadResponse(byte protocolVersion, int errorCode, long ledgerId, long entryId, ByteBuf data) {
             init(protocolVersion, READENTRY, errorCode, ledgerId, entryId);
             this.data = data;
+            this.dataRegion = null;
+        }
+
+        ReadResponse(byte protocolVersion, int errorCode, long ledgerId, long entryId, FileRegion dataRegion) {
+            init(protocolVersion, READENTRY, errorCode, ledgerId, entryId);
+            this.data = Unpooled.EMPTY_BUFFER;
+            this.dataRegion = dataRegion;
         }
 
         boolean hasData() {
@@ -440,42 +533,143 @@ public interface BookieProtocol {
             return data;
         }
 
+        boolean hasDataRegion() {
+            return dataRegion != null;
+        }
+
+        FileRegion getDataRegion() {
+            return dataRegion;
+        }
+
+        private ReferenceCounted content() {
+            return dataRegion != null ? dataRegion : data;
+        }
+
         @Override
         public int refCnt() {
-            return data.refCnt();
+            return content().refCnt();
         }
 
         @Override
         public ReferenceCounted retain() {
-            data.retain();
+            content().retain();
             return this;
         }
 
         @Override
         public ReferenceCounted retain(int increment) {
-            return data.retain(increment);
+            return content().retain(increment);
         }
 
         @Override
         public ReferenceCounted touch() {
-            data.touch();
+            content().touch();
             return this;
         }
 
         @Override
         public ReferenceCounted touch(Object hint) {
-            data.touch(hint);
+            content().touch(hint);
+            return this;
+        }
+
+        @Override
+        public boolean release() {
+            return content().release();
+        }
+
+        @Override
+        public boolean release(int decrement) {
+            return content().release(decrement);
+        }
+    }
+
+    /**
+     * A response holding the consecutive entries read by a batched read request.
+     */
+    class BatchedReadResponse extends Response implements ReferenceCounted {
+        final long requestId;
+        // The entries read, starting from the entry id of the response
+        final ByteBufList data;
+
+        BatchedReadResponse(byte protocolVersion, int errorCode, long ledgerId, long startEntryId,
+                            long requestId) {
+            this(protocolVersion, errorCode, ledgerId, startEntryId, requestId, null);
+        }
+
+        BatchedReadResponse(byte protocolVersion, int errorCode, long ledgerId, long startEntryId,
+                            long requestId, ByteBufList data) {
+            init(protocolVersion, BATCH_READ_ENTRY, errorCode, ledgerId, startEntryId);
+            this.requestId = requestId;
+            this.data = data;
+        }
+
+        long getRequestId() {
+            return requestId;
+        }
+
+        /**
+         * @return the entries read, or null if none were read
+         */
+        ByteBufList getData() {
+            return data;
+        }
+
+        int getEntryCount() {
+            return data == null ? 0 : data.size();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Op(%d)[Ledger:%d,StartEntry:%d,Entries:%d,RequestId:%d,errorCode=%d]",
+                    opCode, ledgerId, entryId, getEntryCount(), requestId, errorCode);
+        }
+
+        @Override
+        public int refCnt() {
+            return data == null ? 1 : data.refCnt();
+        }
+
+        @Override
+        public ReferenceCounted retain() {
+            if (data != null) {
+                data.retain();
+            }
+            return this;
+        }
+
+        @Override
+        public ReferenceCounted retain(int increment) {
+            if (data != null) {
+                data.retain(increment);
+            }
+            return this;
+        }
+
+        @Override
+        public ReferenceCounted touch() {
+            if (data != null) {
+                data.touch();
+            }
+            return this;
+        }
+
+        @Override
+        public ReferenceCounted touch(Object hint) {
+            if (data != null) {
+                data.touch(hint);
+            }
             return this;
         }
 
         @Override
         public boolean release() {
-            return data.release();
+            return data == null || data.release();
         }
 
         @Override
         public boolean release(int decrement) {
-            return data.release(decrement);
+            return data == null || data.release(decrement);
         }
     }
 
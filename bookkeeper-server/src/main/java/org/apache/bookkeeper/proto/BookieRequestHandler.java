@@ -45,6 +45,12 @@ public class BookieRequestHandler extends ChannelInboundHandlerAdapter {
     private ByteBuf pendingSendResponses = null;
     private int maxPendingResponsesSize = DEFAULT_PENDING_RESPONSE_SIZE;
 
+    // Adds of a ledger held back to be coalesced, only accessed from the event loop of the channel
+    private BatchedWriteEntryProcessor pendingAdds = null;
+
+    // Max flow control credits asked for by the client of the connection, 0 when it does not use the flow control
+    private volatile int requestedCredits = 0;
+
     BookieRequestHandler(ServerConfiguration conf, RequestProcessor processor, ChannelGroup allChannels) {
         this.requestProcessor = processor;
         this.allChannels = allChannels;
@@ -83,13 +89,43 @@ public class BookieRequestHandler extends ChannelInboundHandlerAdapter {
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
-        if (!(msg instanceof BookkeeperProtocol.Request || msg instanceof BookieProtocol.Request)) {
+        if (!(msg instanceof BookkeeperProtocol.Request || msg instanceof BookieProtocol.Request
+                || msg instanceof BookieProtoCodecV3.ParsedRequest)) {
             ctx.fireChannelRead(msg);
             return;
         }
+        if (msg instanceof BookkeeperProtocol.Request) {
+            BookkeeperProtocol.BKPacketHeader header = ((BookkeeperProtocol.Request) msg).getHeader();
+            if (header.hasCredits()) {
+                requestedCredits = header.getCredits();
+            }
+        } else if (msg instanceof BookieProtoCodecV3.ParsedRequest) {
+            int credits = ((BookieProtoCodecV3.ParsedRequest) msg).getCredits();
+            if (credits > 0) {
+                requestedCredits = credits;
+            }
+        }
         requestProcessor.processRequest(msg, this);
     }
 
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        requestProcessor.flushPendingRequests(this);
+        super.channelReadComplete(ctx);
+    }
+
+    BatchedWriteEntryProcessor getPendingAdds() {
+        return pendingAdds;
+    }
+
+    void setPendingAdds(BatchedWriteEntryProcessor pendingAdds) {
+        this.pendingAdds = pendingAdds;
+    }
+
+    int getRequestedCredits() {
+        return requestedCredits;
+    }
+
     public synchronized void prepareSendResponseV2(int rc, BookieProtocol.ParsedAddRequest req) {
         if (pendingSendResponses == null) {
             pendingSendResponses = ctx().alloc().directBuffer(maxPendingResponsesSize);
@@ -31,6 +31,7 @@ import com.google.protobuf.ByteString;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.ssl.SslHandler;
 import io.netty.util.HashedWheelTimer;
 import io.netty.util.concurrent.Future;
@@ -50,6 +51,7 @@ import org.apache.bookkeeper.common.util.MathUtils;
 import org.apache.bookkeeper.common.util.OrderedExecutor;
 import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.bookkeeper.processor.RequestProcessor;
+import org.apache.bookkeeper.stats.OpStatsLogger;
 import org.apache.bookkeeper.stats.StatsLogger;
 import org.apache.bookkeeper.tls.SecurityException;
 import org.apache.bookkeeper.tls.SecurityHandlerFactory;
@@ -84,6 +86,17 @@ public class BookieRequestProcessor implements RequestProcessor {
      */
     private final OrderedExecutor readThreadPool;
 
+    /**
+     * The threadpool used to execute the read entry requests of the catch-up readers, so that they don't delay the
+     * reads of the tailing readers in readThreadPool. Null when all the reads are executed in readThreadPool.
+     */
+    private final OrderedExecutor catchUpReadThreadPool;
+
+    /**
+     * Lanes of the reads scheduled on readThreadPool, null when the catch-up lane is disabled.
+     */
+    private final ReadLanes readLanes;
+
     /**
      * The threadpool used to execute all add entry requests issued to this server.
      */
@@ -129,6 +142,17 @@ public class BookieRequestProcessor implements RequestProcessor {
 
     private final boolean throttleReadResponses;
 
+    private final boolean zeroCopyReadEnabled;
+    private final int zeroCopyReadMinEntrySize;
+    // Batched read responses must fit in a frame
+    private final int maxBatchedReadResponseSize;
+    // Max number of adds of a ledger coalesced on a channel
+    private final int maxCoalescedAdds;
+    // Max flow control credits granted to a connection, and the capacity of the reads and adds in progress
+    private final int maxFlowControlCredits;
+    private final int readsCapacity;
+    private final int addsCapacity;
+
     public BookieRequestProcessor(ServerConfiguration serverCfg, Bookie bookie, StatsLogger statsLogger,
                                   SecurityHandlerFactory shFactory, ByteBufAllocator allocator,
                                   ChannelGroup allChannels) throws SecurityException {
@@ -139,11 +163,29 @@ public class BookieRequestProcessor implements RequestProcessor {
         this.preserveMdcForTaskExecution = serverCfg.getPreserveMdcForTaskExecution();
         this.bookie = bookie;
         this.throttleReadResponses = serverCfg.isReadWorkerThreadsThrottlingEnabled();
+        this.zeroCopyReadEnabled = serverCfg.isZeroCopyReadEnabled();
+        this.zeroCopyReadMinEntrySize = serverCfg.getZeroCopyReadMinEntrySize();
+        this.maxBatchedReadResponseSize = serverCfg.getNettyMaxFrameSizeBytes();
+        this.maxCoalescedAdds = serverCfg.getMaxCoalescedAdds();
+        this.maxFlowControlCredits = serverCfg.getMaxFlowControlCredits();
+        this.readsCapacity = capacity(serverCfg.getMaxReadsInProgressLimit(),
+                serverCfg.getNumReadWorkerThreads() > 0
+                        ? serverCfg.getNumReadWorkerThreads() + Math.max(0, serverCfg.getNumCatchUpReadWorkerThreads())
+                        : 0,
+                serverCfg.getMaxPendingReadRequestPerThread());
+        this.addsCapacity = capacity(serverCfg.getMaxAddsInProgressLimit(), serverCfg.getNumAddWorkerThreads(),
+                serverCfg.getMaxPendingAddRequestPerThread());
         this.readThreadPool = createExecutor(
                 this.serverCfg.getNumReadWorkerThreads(),
                 "BookieReadThreadPool",
                 serverCfg.getMaxPendingReadRequestPerThread(),
                 statsLogger);
+        this.catchUpReadThreadPool = readThreadPool == null ? null : createExecutor(
+                this.serverCfg.getNumCatchUpReadWorkerThreads(),
+                "BookieCatchUpReadThreadPool",
+                serverCfg.getMaxPendingReadRequestPerThread(),
+                statsLogger);
+        this.readLanes = catchUpReadThreadPool == null ? null : new ReadLanes(readThreadPool, catchUpReadThreadPool);
         this.writeThreadPool = createExecutor(
                 this.serverCfg.getNumAddWorkerThreads(),
                 "BookieWriteThreadPool",
@@ -205,6 +247,40 @@ public class BookieRequestProcessor implements RequestProcessor {
         readsSemaphore = maxReads > 0 ? new Semaphore(maxReads, true) : null;
     }
 
+    /**
+     * @return the number of requests in progress beyond which new ones are blocked or rejected, 0 if unbounded
+     */
+    private static int capacity(int inProgressLimit, int numThreads, int maxPendingRequestsPerThread) {
+        if (inProgressLimit > 0) {
+            return inProgressLimit;
+        }
+        return numThreads > 0 && maxPendingRequestsPerThread > 0 ? numThreads * maxPendingRequestsPerThread : 0;
+    }
+
+    private static double load(int inProgress, int capacity) {
+        return capacity > 0 ? Math.min(1.0, (double) inProgress / capacity) : 0;
+    }
+
+    /**
+     * Get the flow control credits granted to a connection: the max number of adds and reads its client may have
+     * outstanding. They shrink with the load of the journal and of the read and add requests in progress, from the
+     * max credits configured down to 1, and never exceed what the client asked for.
+     *
+     * @return the credits, 0 if the flow control is disabled or the client does not use it
+     */
+    int getFlowControlCredits(BookieRequestHandler requestHandler) {
+        int requestedCredits = requestHandler.getRequestedCredits();
+        if (maxFlowControlCredits <= 0 || requestedCredits <= 0) {
+            return 0;
+        }
+        double load = Math.max(bookie.getJournalQueueLoad(),
+                Math.max(load(requestStats.readsInProgress.get(), readsCapacity),
+                        load(requestStats.addsInProgress.get(), addsCapacity)));
+        int credits = Math.max(1, Math.min(requestedCredits, (int) (maxFlowControlCredits * (1 - load))));
+        requestStats.getFlowControlCreditsStats().registerSuccessfulValue(credits);
+        return credits;
+    }
+
     protected void onAddRequestStart(Channel channel) {
         if (addsSemaphore != null) {
             if (!addsSemaphore.tryAcquire()) {
@@ -268,6 +344,7 @@ public class BookieRequestProcessor implements RequestProcessor {
         LOG.info("Closing RequestProcessor");
         shutdownExecutor(writeThreadPool);
         shutdownExecutor(readThreadPool);
+        shutdownExecutor(catchUpReadThreadPool);
         if (serverCfg.getNumLongPollWorkerThreads() > 0 || readThreadPool == null) {
             shutdownExecutor(longPollThreadPool);
         }
@@ -296,6 +373,47 @@ public class BookieRequestProcessor implements RequestProcessor {
         }
     }
 
+    /**
+     * Whether a read entry request comes from a catch-up reader, because the entry was already flushed out of the
+     * write caches. This is only a lock-free hint from the ledger storage, since it is called on the event loop.
+     */
+    private boolean isCatchUpRead(long ledgerId, long entryId) {
+        return readLanes != null && bookie.getLedgerStorage().isCatchUpRead(ledgerId, entryId);
+    }
+
+    /**
+     * Execute a read entry request on its threadpool. When the catch-up lane is enabled, the reads scheduled on the
+     * read threadpool go through their read lane: the catch-up lane for the catch-up reads, the read threadpool for
+     * the tailing reads. All the pending reads of a ledger stay on the same lane, so they still execute in order.
+     */
+    private void executeRead(OrderedExecutor threadPool, PacketProcessorBase<?> read, long ledgerId,
+                             boolean catchUp) {
+        if (readLanes == null || threadPool != readThreadPool) {
+            threadPool.executeOrdered(ledgerId, read);
+            return;
+        }
+        ReadLanes.LedgerReads reads = readLanes.acquire(ledgerId, catchUp);
+        read.laneQueuedStats = readLaneQueuedStats(reads.isCatchUp());
+        reads.execute(read);
+    }
+
+    private void executeRead(OrderedExecutor threadPool, PacketProcessorBaseV3 read, long ledgerId,
+                             boolean catchUp) {
+        if (readLanes == null || threadPool != readThreadPool) {
+            threadPool.executeOrdered(ledgerId, read);
+            return;
+        }
+        ReadLanes.LedgerReads reads = readLanes.acquire(ledgerId, catchUp);
+        read.laneQueuedStats = readLaneQueuedStats(reads.isCatchUp());
+        reads.execute(read);
+    }
+
+    private OpStatsLogger readLaneQueuedStats(boolean catchUp) {
+        return catchUp
+                ? requestStats.getCatchUpReadThreadQueuedLatency()
+                : requestStats.getTailingReadThreadQueuedLatency();
+    }
+
     private void shutdownExecutor(OrderedExecutor service) {
         if (null != service) {
             service.shutdown();
@@ -365,8 +483,28 @@ public class BookieRequestProcessor implements RequestProcessor {
             } finally {
                 MDC.clear();
             }
+        } else if (msg instanceof BookieProtoCodecV3.ParsedRequest) {
+            // Requests decoded without protobuf, that have no request context
+            BookieProtoCodecV3.ParsedRequest r = (BookieProtoCodecV3.ParsedRequest) msg;
+            switch (r.getOperation()) {
+                case ADD_ENTRY:
+                    processParsedAddRequestV3(r, requestHandler);
+                    break;
+                case READ_ENTRY:
+                    processParsedReadRequestV3(r, requestHandler);
+                    break;
+                case READ_LAC:
+                    processParsedReadLacRequestV3(r, requestHandler);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unexpected operation " + r.getOperation());
+            }
         } else {
             BookieProtocol.Request r = (BookieProtocol.Request) msg;
+            if (r.getOpCode() != BookieProtocol.ADDENTRY) {
+                // The coalesced adds are processed before the requests received after them
+                flushPendingRequests(requestHandler);
+            }
             // process packet
             switch (r.getOpCode()) {
                 case BookieProtocol.ADDENTRY:
@@ -377,6 +515,10 @@ public class BookieRequestProcessor implements RequestProcessor {
                     checkArgument(r instanceof BookieProtocol.ReadRequest);
                     processReadRequest((BookieProtocol.ReadRequest) r, requestHandler);
                     break;
+                case BookieProtocol.BATCH_READ_ENTRY:
+                    checkArgument(r instanceof BookieProtocol.BatchedReadRequest);
+                    processBatchedReadRequest((BookieProtocol.BatchedReadRequest) r, requestHandler);
+                    break;
                 case BookieProtocol.AUTH:
                     LOG.info("Ignoring auth operation from client {}",
                             requestHandler.ctx().channel().remoteAddress());
@@ -425,7 +567,8 @@ public class BookieRequestProcessor implements RequestProcessor {
         if (null == readThreadPool) {
             readLac.run();
         } else {
-            readThreadPool.executeOrdered(r.getAddRequest().getLedgerId(), readLac);
+            // Read LAC requests come from tailing readers
+            executeRead(readThreadPool, readLac, r.getReadLacRequest().getLedgerId(), false);
         }
     }
 
@@ -508,6 +651,8 @@ public class BookieRequestProcessor implements RequestProcessor {
 
         final ReadEntryProcessorV3 read;
         final OrderedExecutor threadPool;
+        // Long poll reads come from tailing readers
+        boolean catchUp = false;
         if (RequestUtils.isLongPollReadRequest(r.getReadRequest())) {
             ExecutorService lpThread = longPollThreadPool.chooseThread(requestHandler.ctx());
 
@@ -526,6 +671,7 @@ public class BookieRequestProcessor implements RequestProcessor {
                 threadPool = highPriorityThreadPool;
             } else {
                 threadPool = readThreadPool;
+                catchUp = isCatchUpRead(r.getReadRequest().getLedgerId(), r.getReadRequest().getEntryId());
             }
         }
 
@@ -533,7 +679,7 @@ public class BookieRequestProcessor implements RequestProcessor {
             read.run();
         } else {
             try {
-                threadPool.executeOrdered(r.getReadRequest().getLedgerId(), read);
+                executeRead(threadPool, read, r.getReadRequest().getLedgerId(), catchUp);
             } catch (RejectedExecutionException e) {
                 if (LOG.isDebugEnabled()) {
                     LOG.debug("Failed to process request to read entry at {}:{}. Too many pending requests",
@@ -555,6 +701,74 @@ public class BookieRequestProcessor implements RequestProcessor {
         }
     }
 
+    private void processParsedAddRequestV3(final BookieProtoCodecV3.ParsedRequest r,
+                                           final BookieRequestHandler requestHandler) {
+        ParsedWriteEntryProcessorV3 write = new ParsedWriteEntryProcessorV3(r, requestHandler, this);
+
+        final OrderedExecutor threadPool;
+        if (r.isHighPriority()) {
+            threadPool = highPriorityThreadPool;
+        } else {
+            threadPool = writeThreadPool;
+        }
+
+        if (null == threadPool) {
+            write.run();
+        } else {
+            try {
+                threadPool.executeOrdered(r.getLedgerId(), write);
+            } catch (RejectedExecutionException e) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Failed to process request to add entry at {}:{}. Too many pending requests",
+                              r.getLedgerId(), r.getEntryId());
+                }
+                getRequestStats().getAddEntryRejectedCounter().inc();
+                r.release();
+                write.sendAddResponse(BookkeeperProtocol.StatusCode.ETOOMANYREQUESTS);
+            }
+        }
+    }
+
+    private void processParsedReadRequestV3(final BookieProtoCodecV3.ParsedRequest r,
+                                            final BookieRequestHandler requestHandler) {
+        ParsedReadEntryProcessorV3 read = new ParsedReadEntryProcessorV3(r, requestHandler, this);
+
+        final OrderedExecutor threadPool;
+        boolean catchUp = false;
+        if (r.isHighPriority()) {
+            threadPool = highPriorityThreadPool;
+        } else {
+            threadPool = readThreadPool;
+            catchUp = isCatchUpRead(r.getLedgerId(), r.getEntryId());
+        }
+
+        if (null == threadPool) {
+            read.run();
+        } else {
+            try {
+                executeRead(threadPool, read, r.getLedgerId(), catchUp);
+            } catch (RejectedExecutionException e) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Failed to process request to read entry at {}:{}. Too many pending requests",
+                              r.getLedgerId(), r.getEntryId());
+                }
+                getRequestStats().getReadEntryRejectedCounter().inc();
+                read.sendReadResponse(BookkeeperProtocol.StatusCode.ETOOMANYREQUESTS, false, 0, null);
+            }
+        }
+    }
+
+    private void processParsedReadLacRequestV3(final BookieProtoCodecV3.ParsedRequest r,
+                                               final BookieRequestHandler requestHandler) {
+        ParsedReadLacProcessorV3 readLac = new ParsedReadLacProcessorV3(r, requestHandler, this);
+        if (null == readThreadPool) {
+            readLac.run();
+        } else {
+            // Read LAC requests come from tailing readers
+            executeRead(readThreadPool, readLac, r.getLedgerId(), false);
+        }
+    }
+
     private void processStartTLSRequestV3(final BookkeeperProtocol.Request r,
                                           final BookieRequestHandler requestHandler) {
         BookkeeperProtocol.Response.Builder response = BookkeeperProtocol.Response.newBuilder();
@@ -631,8 +845,70 @@ public class BookieRequestProcessor implements RequestProcessor {
         }
     }
 
+    @Override
+    public void flushPendingRequests(BookieRequestHandler requestHandler) {
+        BatchedWriteEntryProcessor batch = requestHandler.getPendingAdds();
+        if (batch == null) {
+            return;
+        }
+        requestHandler.setPendingAdds(null);
+        if (batch.size() == 1) {
+            // Nothing to coalesce
+            WriteEntryProcessor write = batch.getWrites().get(0);
+            batch.recycle();
+            executeAddRequest(write, write.request);
+            return;
+        }
+        if (null == writeThreadPool) {
+            batch.run();
+            return;
+        }
+        try {
+            writeThreadPool.executeOrdered(batch.getLedgerId(), batch);
+        } catch (RejectedExecutionException e) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Failed to process request to add {} entries of ledger {}. Too many pending requests",
+                        batch.size(), batch.getLedgerId());
+            }
+            for (WriteEntryProcessor write : batch.getWrites()) {
+                getRequestStats().getAddEntryRejectedCounter().inc();
+                write.sendWriteReqResponse(
+                    BookieProtocol.ETOOMANYREQUESTS,
+                    ResponseBuilder.buildErrorResponse(BookieProtocol.ETOOMANYREQUESTS, write.request),
+                    requestStats.getAddRequestStats());
+            }
+        }
+    }
+
+    private void coalesceAddRequest(final BookieProtocol.ParsedAddRequest r,
+                                    final BookieRequestHandler requestHandler) {
+        BatchedWriteEntryProcessor batch = requestHandler.getPendingAdds();
+        if (batch != null && !batch.canAdd(r)) {
+            flushPendingRequests(requestHandler);
+            batch = null;
+        }
+        WriteEntryProcessor write = WriteEntryProcessor.create(r, requestHandler, this);
+        if (batch == null) {
+            batch = BatchedWriteEntryProcessor.create(requestHandler, this);
+            requestHandler.setPendingAdds(batch);
+        }
+        batch.add(write);
+        if (batch.size() >= maxCoalescedAdds) {
+            flushPendingRequests(requestHandler);
+        }
+    }
+
     private void processAddRequest(final BookieProtocol.ParsedAddRequest r, final BookieRequestHandler requestHandler) {
+        if (maxCoalescedAdds > 1 && !r.isHighPriority() && !r.isRecoveryAdd()) {
+            coalesceAddRequest(r, requestHandler);
+            return;
+        }
+        flushPendingRequests(requestHandler);
         WriteEntryProcessor write = WriteEntryProcessor.create(r, requestHandler, this);
+        executeAddRequest(write, r);
+    }
+
+    private void executeAddRequest(final WriteEntryProcessor write, final BookieProtocol.ParsedAddRequest r) {
 
         // If it's a high priority add (usually as part of recovery process), we want to make sure it gets
         // executed as fast as possible, so bypass the normal writeThreadPool and execute in highPriorityThreadPool
@@ -673,17 +949,19 @@ public class BookieRequestProcessor implements RequestProcessor {
         // gets executed as fast as possible, so bypass the normal readThreadPool
         // and execute in highPriorityThreadPool
         final OrderedExecutor threadPool;
+        boolean catchUp = false;
         if (r.isHighPriority() || r.isFencing()) {
             threadPool = highPriorityThreadPool;
         } else {
             threadPool = readThreadPool;
+            catchUp = isCatchUpRead(r.getLedgerId(), r.getEntryId());
         }
 
         if (null == threadPool) {
             read.run();
         } else {
             try {
-                threadPool.executeOrdered(r.getLedgerId(), read);
+                executeRead(threadPool, read, r.getLedgerId(), catchUp);
             } catch (RejectedExecutionException e) {
                 if (LOG.isDebugEnabled()) {
                     LOG.debug("Failed to process request to read entry at {}:{}. Too many pending requests", r.ledgerId,
@@ -699,10 +977,59 @@ public class BookieRequestProcessor implements RequestProcessor {
         }
     }
 
+    private void processBatchedReadRequest(final BookieProtocol.BatchedReadRequest r,
+                                           final BookieRequestHandler requestHandler) {
+        BatchedReadEntryProcessor read = BatchedReadEntryProcessor.create(r, requestHandler,
+                this, throttleReadResponses, maxBatchedReadResponseSize);
+
+        final OrderedExecutor threadPool;
+        boolean catchUp = false;
+        if (r.isHighPriority()) {
+            threadPool = highPriorityThreadPool;
+        } else {
+            // Classified by the first entry of the batch
+            threadPool = readThreadPool;
+            catchUp = isCatchUpRead(r.getLedgerId(), r.getEntryId());
+        }
+
+        if (null == threadPool) {
+            read.run();
+        } else {
+            try {
+                executeRead(threadPool, read, r.getLedgerId(), catchUp);
+            } catch (RejectedExecutionException e) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Failed to process request to batch read entries from {}:{}. Too many pending requests",
+                            r.ledgerId, r.entryId);
+                }
+                getRequestStats().getReadEntryRejectedCounter().inc();
+                read.sendResponse(
+                    BookieProtocol.ETOOMANYREQUESTS,
+                    ResponseBuilder.buildErrorResponse(BookieProtocol.ETOOMANYREQUESTS, r),
+                    requestStats.getBatchReadRequestStats());
+                onReadRequestFinish();
+            }
+        }
+    }
+
     public long getWaitTimeoutOnBackpressureMillis() {
         return waitTimeoutOnBackpressureMillis;
     }
 
+    /**
+     * Whether the entries can be sent straight from the entry log files on the channel. The file regions can only be
+     * written on the sockets without TLS, since the TLS and local channels need the data in memory.
+     */
+    boolean isZeroCopyReadAllowed(Channel channel) {
+        return zeroCopyReadEnabled
+                && channel instanceof SocketChannel
+                && channel.pipeline().get(SslHandler.class) == null;
+    }
+
+    int getZeroCopyReadMinEntrySize() {
+        return zeroCopyReadMinEntrySize;
+    }
+
     public void blacklistChannel(Channel channel) {
         blacklistedChannels
                 .ifPresent(x -> x.put(channel, true));
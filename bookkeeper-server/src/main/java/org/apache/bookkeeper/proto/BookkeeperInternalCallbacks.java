@@ -36,6 +36,7 @@ import org.apache.bookkeeper.client.api.LedgerMetadata;
 import org.apache.bookkeeper.net.BookieId;
 import org.apache.bookkeeper.stats.OpStatsLogger;
 import org.apache.bookkeeper.util.AvailabilityOfEntriesOfLedger;
+import org.apache.bookkeeper.util.ByteBufList;
 import org.apache.bookkeeper.util.MathUtils;
 import org.apache.bookkeeper.versioning.Versioned;
 import org.apache.zookeeper.AsyncCallback;
@@ -221,6 +222,18 @@ public class BookkeeperInternalCallbacks {
         void readEntryComplete(int rc, long ledgerId, long entryId, ByteBuf buffer, Object ctx);
     }
 
+    /**
+     * Declaration of a callback implementation for calls from BookieClient objects.
+     * Such calls are for replies of batched read operations (operations to read
+     * consecutive entries from a ledger in a single request).
+     */
+    public interface BatchedReadEntryCallback {
+        /**
+         * @param bufList the consecutive entries read from {@code startEntryId}, or null if none were read
+         */
+        void readEntriesComplete(int rc, long ledgerId, long startEntryId, ByteBufList bufList, Object ctx);
+    }
+
     /**
      * Listener on entries responded.
      */
@@ -38,6 +38,8 @@ abstract class PacketProcessorBase<T extends Request> implements Runnable {
     BookieRequestHandler requestHandler;
     BookieRequestProcessor requestProcessor;
     long enqueueNanos;
+    // Queue time of the read lane the request is scheduled on, if any
+    OpStatsLogger laneQueuedStats;
 
     protected void init(T request, BookieRequestHandler requestHandler, BookieRequestProcessor requestProcessor) {
         this.request = request;
@@ -51,6 +53,7 @@ abstract class PacketProcessorBase<T extends Request> implements Runnable {
         requestHandler = null;
         requestProcessor = null;
         enqueueNanos = -1;
+        laneQueuedStats = null;
     }
 
     protected boolean isVersionCompatible() {
@@ -177,6 +180,9 @@ abstract class PacketProcessorBase<T extends Request> implements Runnable {
         if (request instanceof BookieProtocol.ReadRequest) {
             requestProcessor.getRequestStats().getReadEntrySchedulingDelayStats()
                     .registerSuccessfulEvent(MathUtils.elapsedNanos(enqueueNanos), TimeUnit.NANOSECONDS);
+            if (laneQueuedStats != null) {
+                laneQueuedStats.registerSuccessfulEvent(MathUtils.elapsedNanos(enqueueNanos), TimeUnit.NANOSECONDS);
+            }
         }
         if (request instanceof BookieProtocol.ParsedAddRequest) {
             requestProcessor.getRequestStats().getWriteThreadQueuedLatency()
@@ -23,6 +23,7 @@ package org.apache.bookkeeper.proto;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
+import io.netty.util.ReferenceCountUtil;
 import java.util.concurrent.TimeUnit;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.BKPacketHeader;
@@ -43,6 +44,8 @@ public abstract class PacketProcessorBaseV3 implements Runnable {
     final BookieRequestHandler requestHandler;
     final BookieRequestProcessor requestProcessor;
     final long enqueueNanos;
+    // Queue time of the read lane the request is scheduled on, if any
+    OpStatsLogger laneQueuedStats;
 
     public PacketProcessorBaseV3(Request request, BookieRequestHandler requestHandler,
                                  BookieRequestProcessor requestProcessor) {
@@ -52,6 +55,13 @@ public abstract class PacketProcessorBaseV3 implements Runnable {
         this.enqueueNanos = MathUtils.nowInNano();
     }
 
+    /**
+     * Processor of a request decoded by {@link BookieProtoCodecV3}, without protobuf request.
+     */
+    PacketProcessorBaseV3(BookieRequestHandler requestHandler, BookieRequestProcessor requestProcessor) {
+        this(null, requestHandler, requestProcessor);
+    }
+
     protected void sendResponse(StatusCode code, Object response, OpStatsLogger statsLogger) {
         final long writeNanos = MathUtils.nowInNano();
 
@@ -79,10 +89,11 @@ public abstract class PacketProcessorBaseV3 implements Runnable {
 
             if (!channel.isWritable()) {
                 log.warn("cannot write response to non-writable channel {} for request {}", channel,
-                        StringUtils.requestToString(request));
+                        request != null ? StringUtils.requestToString(request) : this);
                 requestProcessor.getRequestStats().getChannelWriteStats()
                         .registerFailedEvent(MathUtils.elapsedNanos(writeNanos), TimeUnit.NANOSECONDS);
                 statsLogger.registerFailedEvent(MathUtils.elapsedNanos(enqueueNanos), TimeUnit.NANOSECONDS);
+                ReferenceCountUtil.release(response);
                 return;
             } else {
                 requestProcessor.invalidateBlacklist(channel);
@@ -108,6 +119,7 @@ public abstract class PacketProcessorBaseV3 implements Runnable {
                 }
             });
         } else {
+            ReferenceCountUtil.release(response);
             log.debug("Netty channel {} is inactive, "
                     + "hence bypassing netty channel writeAndFlush during sendResponse", channel);
         }
@@ -127,6 +139,10 @@ public abstract class PacketProcessorBaseV3 implements Runnable {
         header.setVersion(ProtocolVersion.VERSION_THREE);
         header.setOperation(request.getHeader().getOperation());
         header.setTxnId(request.getHeader().getTxnId());
+        int credits = requestProcessor.getFlowControlCredits(requestHandler);
+        if (credits > 0) {
+            header.setCredits(credits);
+        }
         return header.build();
     }
 
@@ -0,0 +1,159 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import io.netty.channel.Channel;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.ReferenceCounted;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.bookie.Bookie;
+import org.apache.bookkeeper.bookie.BookieException;
+import org.apache.bookkeeper.proto.BookieProtoCodecV3.ParsedRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.StatusCode;
+import org.apache.bookkeeper.stats.OpStatsLogger;
+import org.apache.bookkeeper.util.MathUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Processor of the v3 read requests decoded by {@link BookieProtoCodecV3}, the counterpart of
+ * {@link ReadEntryProcessorV3} for the reads without fencing nor long polling, whose response is encoded by the
+ * codec.
+ */
+class ParsedReadEntryProcessorV3 extends PacketProcessorBaseV3 {
+    private static final Logger LOG = LoggerFactory.getLogger(ParsedReadEntryProcessorV3.class);
+
+    private final ParsedRequest parsedRequest;
+    private final long ledgerId;
+    private final long entryId;
+
+    public ParsedReadEntryProcessorV3(ParsedRequest request, BookieRequestHandler requestHandler,
+                                      BookieRequestProcessor requestProcessor) {
+        super(requestHandler, requestProcessor);
+        requestProcessor.onReadRequestStart(requestHandler.ctx().channel());
+        this.parsedRequest = request;
+        this.ledgerId = request.getLedgerId();
+        this.entryId = request.getEntryId();
+    }
+
+    @Override
+    public void run() {
+        requestProcessor.getRequestStats().getReadEntrySchedulingDelayStats().registerSuccessfulEvent(
+            MathUtils.elapsedNanos(enqueueNanos), TimeUnit.NANOSECONDS);
+        if (laneQueuedStats != null) {
+            laneQueuedStats.registerSuccessfulEvent(MathUtils.elapsedNanos(enqueueNanos), TimeUnit.NANOSECONDS);
+        }
+        if (!requestHandler.ctx().channel().isOpen()) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Dropping read request for closed channel: {}", requestHandler.ctx().channel());
+            }
+            requestProcessor.onReadRequestFinish();
+            parsedRequest.recycle();
+            return;
+        }
+
+        if (!isVersionCompatible()) {
+            sendReadResponse(StatusCode.EBADVERSION, false, 0, null);
+            return;
+        }
+
+        final long startTimeNanos = MathUtils.nowInNano();
+        final Channel channel = requestHandler.ctx().channel();
+        ReferenceCounted entry = null;
+        try {
+            if (requestProcessor.isZeroCopyReadAllowed(channel)) {
+                entry = requestProcessor.getBookie().readEntryOrRegion(ledgerId, entryId,
+                        requestProcessor.getZeroCopyReadMinEntrySize());
+            } else {
+                entry = requestProcessor.getBookie().readEntry(ledgerId, entryId);
+            }
+            long knownLAC = requestProcessor.getBookie().readLastAddConfirmed(ledgerId);
+            registerEvent(StatusCode.EOK, startTimeNanos);
+            // The response takes over the entry
+            sendReadResponse(StatusCode.EOK, true, knownLAC, entry);
+            return;
+        } catch (Bookie.NoLedgerException e) {
+            if (entryId != BookieProtocol.LAST_ADD_CONFIRMED) {
+                LOG.info("No ledger found while reading entry: {} from ledger: {}", entryId, ledgerId);
+            } else if (LOG.isDebugEnabled()) {
+                // this is the case of a reader which is calling readLastAddConfirmed and the ledger is empty
+                LOG.debug("No ledger found while reading entry: {} from ledger: {}", entryId, ledgerId);
+            }
+            sendErrorResponse(StatusCode.ENOLEDGER, entry, startTimeNanos);
+        } catch (Bookie.NoEntryException e) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("No entry found while reading entry: {} from ledger: {}", entryId, ledgerId);
+            }
+            sendErrorResponse(StatusCode.ENOENTRY, entry, startTimeNanos);
+        } catch (IOException e) {
+            LOG.error("IOException while reading entry: {} from ledger {} ", entryId, ledgerId, e);
+            sendErrorResponse(StatusCode.EIO, entry, startTimeNanos);
+        } catch (BookieException.DataUnknownException e) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Ledger has unknown state for entry: {} from ledger {}", entryId, ledgerId);
+            }
+            sendErrorResponse(StatusCode.EUNKNOWNLEDGERSTATE, entry, startTimeNanos);
+        } catch (BookieException e) {
+            LOG.error(
+                "Unauthorized access to ledger:{} while reading entry:{} in request from address: {}",
+                    ledgerId, entryId, channel.remoteAddress());
+            sendErrorResponse(StatusCode.EUA, entry, startTimeNanos);
+        }
+    }
+
+    private void sendErrorResponse(StatusCode status, ReferenceCounted entry, long startTimeNanos) {
+        ReferenceCountUtil.release(entry);
+        registerEvent(status, startTimeNanos);
+        sendReadResponse(status, false, 0, null);
+    }
+
+    private void registerEvent(StatusCode status, long startTimeNanos) {
+        OpStatsLogger readStats = requestProcessor.getRequestStats().getReadEntryStats();
+        if (StatusCode.EOK == status) {
+            readStats.registerSuccessfulEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+        } else {
+            readStats.registerFailedEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Send the response to the request, which is then recycled.
+     */
+    void sendReadResponse(StatusCode status, boolean hasMaxLac, long maxLac, ReferenceCounted entry) {
+        parsedRequest.grantedCredits = requestProcessor.getFlowControlCredits(requestHandler);
+        Object response = BookieProtoCodecV3.encodeReadResponse(requestHandler.ctx().alloc(), parsedRequest, status,
+                hasMaxLac, maxLac, entry);
+        sendResponse(status, response, requestProcessor.getRequestStats().getReadRequestStats());
+        requestProcessor.onReadRequestFinish();
+        parsedRequest.recycle();
+    }
+
+    @Override
+    protected boolean isVersionCompatible() {
+        return parsedRequest.isVersionThree();
+    }
+
+    @Override
+    public String toString() {
+        return parsedRequest.toString();
+    }
+}
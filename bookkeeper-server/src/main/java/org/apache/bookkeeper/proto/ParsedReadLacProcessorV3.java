@@ -0,0 +1,124 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import io.netty.buffer.ByteBuf;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.bookie.Bookie;
+import org.apache.bookkeeper.bookie.BookieException;
+import org.apache.bookkeeper.proto.BookieProtoCodecV3.ParsedRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.StatusCode;
+import org.apache.bookkeeper.util.MathUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Processor of the v3 read LAC requests decoded by {@link BookieProtoCodecV3}, the counterpart of
+ * {@link ReadLacProcessorV3} whose response is encoded by the codec.
+ */
+class ParsedReadLacProcessorV3 extends PacketProcessorBaseV3 {
+    private static final Logger logger = LoggerFactory.getLogger(ParsedReadLacProcessorV3.class);
+
+    private final ParsedRequest parsedRequest;
+
+    public ParsedReadLacProcessorV3(ParsedRequest request, BookieRequestHandler requestHandler,
+                                    BookieRequestProcessor requestProcessor) {
+        super(requestHandler, requestProcessor);
+        this.parsedRequest = request;
+    }
+
+    @Override
+    public void run() {
+        final long startTimeNanos = MathUtils.nowInNano();
+        long ledgerId = parsedRequest.getLedgerId();
+
+        if (!isVersionCompatible()) {
+            sendReadLacResponse(StatusCode.EBADVERSION, null, null);
+            return;
+        }
+
+        logger.debug("Received ReadLac request: {}", parsedRequest);
+        StatusCode status = StatusCode.EOK;
+        ByteBuf lastEntry = null;
+        ByteBuf lac = null;
+        try {
+            lac = requestProcessor.bookie.getExplicitLac(ledgerId);
+        } catch (Bookie.NoLedgerException e) {
+            status = StatusCode.ENOLEDGER;
+            logger.debug("No ledger found while performing readLac from ledger: {}", ledgerId, e);
+        } catch (BookieException.DataUnknownException e) {
+            status = StatusCode.EUNKNOWNLEDGERSTATE;
+            logger.error("Ledger {} in unknown state and cannot serve reacLac requests", ledgerId, e);
+        } catch (BookieException | IOException e) {
+            status = StatusCode.EIO;
+            logger.error("IOException while performing readLac from ledger: {}", ledgerId, e);
+        }
+
+        try {
+            lastEntry = requestProcessor.bookie.readEntry(ledgerId, BookieProtocol.LAST_ADD_CONFIRMED);
+        } catch (Bookie.NoLedgerException e) {
+            status = StatusCode.ENOLEDGER;
+            logger.debug("No ledger found while trying to read last entry: {}", ledgerId, e);
+        } catch (BookieException.DataUnknownException e) {
+            status = StatusCode.EUNKNOWNLEDGERSTATE;
+            logger.error("Ledger in an unknown state while trying to read last entry: {}", ledgerId, e);
+        } catch (BookieException | IOException e) {
+            status = StatusCode.EIO;
+            logger.error("IOException while trying to read last entry: {}", ledgerId, e);
+        }
+
+        if ((lac == null) && (lastEntry == null)) {
+            status = StatusCode.ENOENTRY;
+        }
+
+        if (status == StatusCode.EOK) {
+            requestProcessor.getRequestStats().getReadLacStats()
+                .registerSuccessfulEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+        } else {
+            requestProcessor.getRequestStats().getReadLacStats()
+                .registerFailedEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+        }
+        // The response takes over the bodies
+        sendReadLacResponse(status, lac, lastEntry);
+    }
+
+    /**
+     * Send the response to the request, which is then recycled.
+     */
+    void sendReadLacResponse(StatusCode status, ByteBuf lac, ByteBuf lastEntry) {
+        parsedRequest.grantedCredits = requestProcessor.getFlowControlCredits(requestHandler);
+        Object response = BookieProtoCodecV3.encodeReadLacResponse(requestHandler.ctx().alloc(), parsedRequest,
+                status, lac, lastEntry);
+        sendResponse(status, response, requestProcessor.getRequestStats().getReadLacRequestStats());
+        parsedRequest.recycle();
+    }
+
+    @Override
+    protected boolean isVersionCompatible() {
+        return parsedRequest.isVersionThree();
+    }
+
+    @Override
+    public String toString() {
+        return parsedRequest.toString();
+    }
+}
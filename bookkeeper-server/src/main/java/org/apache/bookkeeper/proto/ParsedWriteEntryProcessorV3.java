@@ -0,0 +1,177 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.bookie.BookieException;
+import org.apache.bookkeeper.bookie.BookieException.OperationRejectedException;
+import org.apache.bookkeeper.client.api.WriteFlag;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.proto.BookieProtoCodecV3.ParsedRequest;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteCallback;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.StatusCode;
+import org.apache.bookkeeper.stats.OpStatsLogger;
+import org.apache.bookkeeper.util.MathUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Processor of the v3 add requests decoded by {@link BookieProtoCodecV3}, the counterpart of
+ * {@link WriteEntryProcessorV3} whose response is encoded by the codec.
+ */
+class ParsedWriteEntryProcessorV3 extends PacketProcessorBaseV3 implements WriteCallback {
+    private static final Logger logger = LoggerFactory.getLogger(ParsedWriteEntryProcessorV3.class);
+
+    private final ParsedRequest parsedRequest;
+    private long startTimeNanos;
+
+    public ParsedWriteEntryProcessorV3(ParsedRequest request, BookieRequestHandler requestHandler,
+                                       BookieRequestProcessor requestProcessor) {
+        super(requestHandler, requestProcessor);
+        this.parsedRequest = request;
+        requestProcessor.onAddRequestStart(requestHandler.ctx().channel());
+    }
+
+    // Returns null if the entry is added
+    private StatusCode addEntry() {
+        startTimeNanos = MathUtils.nowInNano();
+        if (!isVersionCompatible()) {
+            parsedRequest.release();
+            return StatusCode.EBADVERSION;
+        }
+
+        if (requestProcessor.getBookie().isReadOnly()
+            && !(parsedRequest.isHighPriority() && requestProcessor.getBookie().isAvailableForHighPriorityWrites())) {
+            logger.warn("BookieServer is running as readonly mode, so rejecting the request from the client!");
+            parsedRequest.release();
+            return StatusCode.EREADONLY;
+        }
+
+        boolean ackBeforeSync = WriteFlag.getWriteFlags(parsedRequest.getWriteFlags())
+                .contains(WriteFlag.DEFERRED_SYNC);
+        long ledgerId = parsedRequest.getLedgerId();
+        long entryId = parsedRequest.getEntryId();
+        try {
+            // The bookie takes over the body
+            if (parsedRequest.isRecoveryAdd()) {
+                requestProcessor.getBookie().recoveryAddEntry(parsedRequest.getBody(), this,
+                        requestHandler.ctx().channel(), parsedRequest.getMasterKey());
+            } else {
+                requestProcessor.getBookie().addEntry(parsedRequest.getBody(), ackBeforeSync, this,
+                        requestHandler.ctx().channel(), parsedRequest.getMasterKey());
+            }
+            return null;
+        } catch (OperationRejectedException e) {
+            requestProcessor.getRequestStats().getAddEntryRejectedCounter().inc();
+            // Avoid to log each occurence of this exception as this can happen when the ledger storage is
+            // unable to keep up with the write rate.
+            if (logger.isDebugEnabled()) {
+                logger.debug("Operation rejected while writing {}", parsedRequest, e);
+            }
+            return StatusCode.ETOOMANYREQUESTS;
+        } catch (IOException e) {
+            logger.error("Error writing entry:{} to ledger:{}",
+                    entryId, ledgerId, e);
+            return StatusCode.EIO;
+        } catch (BookieException.LedgerFencedException e) {
+            logger.error("Ledger fenced while writing entry:{} to ledger:{}",
+                    entryId, ledgerId, e);
+            return StatusCode.EFENCED;
+        } catch (BookieException e) {
+            logger.error("Unauthorized access to ledger:{} while writing entry:{}",
+                    ledgerId, entryId, e);
+            return StatusCode.EUA;
+        } catch (Throwable t) {
+            logger.error("Unexpected exception while writing {}@{} : ",
+                    entryId, ledgerId, t);
+            // some bad request which cause unexpected exception
+            return StatusCode.EBADREQ;
+        }
+    }
+
+    @Override
+    public void writeComplete(int rc, long ledgerId, long entryId, BookieId addr, Object ctx) {
+        if (BookieProtocol.EOK == rc) {
+            requestProcessor.getRequestStats().getAddEntryStats()
+                .registerSuccessfulEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+        } else {
+            requestProcessor.getRequestStats().getAddEntryStats()
+                .registerFailedEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+        }
+
+        StatusCode status;
+        switch (rc) {
+            case BookieProtocol.EOK:
+                status = StatusCode.EOK;
+                break;
+            case BookieProtocol.EIO:
+                status = StatusCode.EIO;
+                break;
+            default:
+                status = StatusCode.EUA;
+                break;
+        }
+        sendAddResponse(status);
+    }
+
+    @Override
+    public void run() {
+        requestProcessor.getRequestStats().getWriteThreadQueuedLatency()
+                .registerSuccessfulEvent(MathUtils.elapsedNanos(enqueueNanos), TimeUnit.NANOSECONDS);
+        StatusCode status = addEntry();
+        if (null != status) {
+            // This means there was an error and we should send this back.
+            sendAddResponse(status);
+        }
+    }
+
+    /**
+     * Send the response to the request, which is then recycled.
+     */
+    void sendAddResponse(StatusCode status) {
+        parsedRequest.grantedCredits = requestProcessor.getFlowControlCredits(requestHandler);
+        Object response = BookieProtoCodecV3.encodeAddResponse(requestHandler.ctx().alloc(), parsedRequest, status);
+        sendResponse(status, response, requestProcessor.getRequestStats().getAddRequestStats());
+        parsedRequest.recycle();
+    }
+
+    @Override
+    protected void sendResponse(StatusCode code, Object response, OpStatsLogger statsLogger) {
+        super.sendResponse(code, response, statsLogger);
+        requestProcessor.onAddRequestFinish();
+    }
+
+    @Override
+    protected boolean isVersionCompatible() {
+        return parsedRequest.isVersionThree();
+    }
+
+    /**
+     * this toString method filters out body and masterKey from the output.
+     * masterKey contains the password of the ledger and body is customer data,
+     * so it is not appropriate to have these in logs or system output.
+     */
+    @Override
+    public String toString() {
+        return parsedRequest.toString();
+    }
+}
@@ -102,6 +102,7 @@ import org.apache.bookkeeper.common.util.OrderedExecutor;
 import org.apache.bookkeeper.conf.ClientConfiguration;
 import org.apache.bookkeeper.net.BookieId;
 import org.apache.bookkeeper.net.BookieSocketAddress;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.BatchedReadEntryCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.ForceLedgerCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.GenericCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.GetBookieInfoCallback;
@@ -287,6 +288,16 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         help = "the number of outstanding add_entry requests"
     )
     private final Counter readEntryOutstanding;
+    @StatsDoc(
+        name = BookKeeperClientStats.FLOW_CONTROL_CREDITS_OUTSTANDING,
+        help = "the number of requests outstanding with a flow control credit"
+    )
+    private final Counter creditsOutstanding;
+    @StatsDoc(
+        name = BookKeeperClientStats.FLOW_CONTROL_WAIT,
+        help = "the time requests wait for a flow control credit"
+    )
+    private final OpStatsLogger flowControlWaitOpLogger;
     /* collect stats on all Ops that flows through netty pipeline */
     @StatsDoc(
         name = BookKeeperClientStats.NETTY_OPS,
@@ -317,6 +328,14 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
     private final boolean useV2WireProtocol;
     private final boolean preserveMdcForTaskExecution;
 
+    // Max flow control credits asked for to the bookie, 0 when the flow control is disabled
+    private final int maxCredits;
+    // Requests waiting for a credit, which also guards the credits granted by the bookie on the connection, 0 until
+    // it grants some, and the credits held by the requests sent
+    private final Queue<CreditWaiter> creditWaiters = new ArrayDeque<>();
+    private int grantedCredits = 0;
+    private int usedCredits = 0;
+
     /**
      * The following member variables do not need to be concurrent, or volatile
      * because they are always updated under a lock.
@@ -403,6 +422,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         this.startTLSTimeout = conf.getStartTLSTimeout();
         this.useV2WireProtocol = conf.getUseV2WireProtocol();
         this.preserveMdcForTaskExecution = conf.getPreserveMdcForTaskExecution();
+        this.maxCredits = useV2WireProtocol ? 0 : Math.max(0, conf.getFlowControlCredits());
 
         this.authProviderFactory = authProviderFactory;
         this.extRegistry = extRegistry;
@@ -436,6 +456,8 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         connectTimer = statsLogger.getOpStatsLogger(BookKeeperClientStats.CLIENT_CONNECT_TIMER);
         addEntryOutstanding = statsLogger.getCounter(BookKeeperClientStats.ADD_OP_OUTSTANDING);
         readEntryOutstanding = statsLogger.getCounter(BookKeeperClientStats.READ_OP_OUTSTANDING);
+        creditsOutstanding = statsLogger.getCounter(BookKeeperClientStats.FLOW_CONTROL_CREDITS_OUTSTANDING);
+        flowControlWaitOpLogger = statsLogger.getOpStatsLogger(BookKeeperClientStats.FLOW_CONTROL_WAIT);
         nettyOpLogger = statsLogger.getOpStatsLogger(BookKeeperClientStats.NETTY_OPS);
         activeNonTlsChannelCounter = statsLogger.getCounter(BookKeeperClientStats.ACTIVE_NON_TLS_CHANNEL_COUNTER);
         activeTlsChannelCounter = statsLogger.getCounter(BookKeeperClientStats.ACTIVE_TLS_CHANNEL_COUNTER);
@@ -776,6 +798,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
                   Object ctx, final int options, boolean allowFastFail, final EnumSet<WriteFlag> writeFlags) {
         Object request = null;
         CompletionKey completionKey = null;
+        boolean withCredit = false;
         if (useV2WireProtocol) {
             if (writeFlags.contains(WriteFlag.DEFERRED_SYNC)) {
                 LOG.error("invalid writeflags {} for v2 protocol", writeFlags);
@@ -800,6 +823,9 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
                     .setTxnId(txnId);
             if (((short) options & BookieProtocol.FLAG_HIGH_PRIORITY) == BookieProtocol.FLAG_HIGH_PRIORITY) {
                 headerBuilder.setPriority(DEFAULT_HIGH_PRIORITY_VALUE);
+            } else if (maxCredits > 0) {
+                headerBuilder.setCredits(maxCredits);
+                withCredit = true;
             }
 
             ByteString body = null;
@@ -846,6 +872,8 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
             errorOut(completionKey);
             ReferenceCountUtil.release(toSend);
             return;
+        } else if (withCredit) {
+            writeAndFlushWithCredit(c, completionKey, (Request) request, allowFastFail);
         } else {
             // addEntry times out on backpressure
             writeAndFlush(c, completionKey, request, allowFastFail);
@@ -939,6 +967,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
                                    boolean allowFastFail) {
         Object request = null;
         CompletionKey completionKey = null;
+        boolean withCredit = false;
         if (useV2WireProtocol) {
             request = BookieProtocol.ReadRequest.create(BookieProtocol.CURRENT_PROTOCOL_VERSION,
                     ledgerId, entryId, (short) flags, masterKey);
@@ -954,6 +983,10 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
                     .setTxnId(txnId);
             if (((short) flags & BookieProtocol.FLAG_HIGH_PRIORITY) == BookieProtocol.FLAG_HIGH_PRIORITY) {
                 headerBuilder.setPriority(DEFAULT_HIGH_PRIORITY_VALUE);
+            } else if (maxCredits > 0 && null == timeOutInMillis) {
+                // Long poll reads wait on the bookie, they don't hold a credit
+                headerBuilder.setCredits(maxCredits);
+                withCredit = true;
             }
 
             ReadRequest.Builder readBuilder = ReadRequest.newBuilder()
@@ -1004,6 +1037,40 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         ReadCompletion readCompletion = new ReadCompletion(completionKey, cb, ctx, ledgerId, entryId);
         putCompletionKeyValue(completionKey, readCompletion);
 
+        if (withCredit) {
+            writeAndFlushWithCredit(channel, completionKey, (Request) request, allowFastFail);
+        } else {
+            writeAndFlush(channel, completionKey, request, allowFastFail);
+        }
+    }
+
+    /**
+     * Batched Reads, only supported by the v2 protocol.
+     *
+     * <p>Read the consecutive entries of a ledger from {@code startEntryId} in a single request. The bookie returns
+     * at most {@code maxCount} entries in a response of at most {@code maxSize} bytes, and stops at the first missing
+     * entry, but always returns the first entry.
+     */
+    public void batchReadEntries(final long ledgerId,
+                                 final long startEntryId,
+                                 final int maxCount,
+                                 final long maxSize,
+                                 BatchedReadEntryCallback cb,
+                                 Object ctx,
+                                 int flags,
+                                 boolean allowFastFail) {
+        if (!useV2WireProtocol) {
+            cb.readEntriesComplete(BKException.Code.ProtocolVersionException, ledgerId, startEntryId, null, ctx);
+            return;
+        }
+        // The batched reads are matched by request id, since their responses don't hold all the entry ids
+        final long txnId = getTxnId();
+        final CompletionKey completionKey = new V3CompletionKey(txnId, OperationType.READ_ENTRY);
+        Object request = BookieProtocol.BatchedReadRequest.create(BookieProtocol.CURRENT_PROTOCOL_VERSION,
+                ledgerId, startEntryId, maxCount, Math.min(maxSize, maxFrameSize), (short) flags, txnId);
+        completionObjects.put(completionKey,
+                new BatchedReadCompletion(completionKey, cb, ctx, ledgerId, startEntryId));
+
         writeAndFlush(channel, completionKey, request, allowFastFail);
     }
 
@@ -1180,6 +1247,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         }
         CompletionValue completion = completionObjects.remove(key);
         if (completion != null) {
+            releaseCredit(completion);
             completion.errorOut();
         } else {
             // If there's no completion object here, try in the multimap
@@ -1193,6 +1261,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         }
         CompletionValue completion = completionObjects.remove(key);
         if (completion != null) {
+            releaseCredit(completion);
             completion.errorOut(rc);
         } else {
             // If there's no completion object here, try in the multimap
@@ -1200,6 +1269,152 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         }
     }
 
+    /**
+     * Write a request once a flow control credit is available for it. The request waits for a response to release
+     * a credit when the requests outstanding hold all the credits granted by the bookie, or other requests already
+     * wait. Until the bookie grants credits, requests are sent right away.
+     */
+    private void writeAndFlushWithCredit(final Channel channel,
+                                         final CompletionKey key,
+                                         final Request request,
+                                         final boolean allowFastFail) {
+        CompletionValue completion = completionObjects.get(key);
+        if (channel == null || completion == null || (allowFastFail && !channel.isWritable())) {
+            // Failed right away
+            writeAndFlush(channel, key, request, allowFastFail);
+            return;
+        }
+        synchronized (creditWaiters) {
+            if (grantedCredits > 0 && (usedCredits >= grantedCredits || !creditWaiters.isEmpty())) {
+                // Serialized now, as the body of an add may be released before a credit is available
+                ByteBuf serializedRequest = BookieProtoEncoding.serializeProtobuf(request, allocator);
+                CreditWaiter waiter = new CreditWaiter(key, serializedRequest);
+                completion.creditWaiter = waiter;
+                creditWaiters.add(waiter);
+                return;
+            }
+            acquireCredit(completion);
+        }
+        writeAndFlush(channel, key, request, allowFastFail);
+    }
+
+    private void acquireCredit(CompletionValue completion) {
+        completion.holdsCredit = true;
+        usedCredits++;
+        creditsOutstanding.inc();
+    }
+
+    /**
+     * Release the credit held by a request that is completed, and send the requests waiting for it. A request
+     * completed while still waiting for a credit, e.g. timed out, is removed from the waiters.
+     */
+    private void releaseCredit(CompletionValue completion) {
+        if (maxCredits <= 0) {
+            return;
+        }
+        CreditWaiter purged = null;
+        synchronized (creditWaiters) {
+            if (completion.holdsCredit) {
+                completion.holdsCredit = false;
+                usedCredits--;
+                creditsOutstanding.dec();
+            } else if (completion.creditWaiter != null) {
+                // Not already sent or errored out by a reset
+                if (creditWaiters.remove(completion.creditWaiter)) {
+                    purged = completion.creditWaiter;
+                }
+                completion.creditWaiter = null;
+            }
+        }
+        if (purged != null) {
+            flowControlWaitOpLogger.registerFailedEvent(MathUtils.elapsedNanos(purged.enqueueNanos),
+                    TimeUnit.NANOSECONDS);
+            purged.request.release();
+            return;
+        }
+        sendCreditWaiters();
+    }
+
+    private void updateCredits(int credits) {
+        synchronized (creditWaiters) {
+            grantedCredits = Math.max(1, Math.min(maxCredits, credits));
+        }
+        sendCreditWaiters();
+    }
+
+    private void sendCreditWaiters() {
+        List<CreditWaiter> toSend = null;
+        synchronized (creditWaiters) {
+            while (!creditWaiters.isEmpty() && usedCredits < grantedCredits) {
+                CreditWaiter waiter = creditWaiters.poll();
+                CompletionValue completion = completionObjects.get(waiter.key);
+                if (completion == null) {
+                    // Timed out or errored out while waiting
+                    flowControlWaitOpLogger.registerFailedEvent(MathUtils.elapsedNanos(waiter.enqueueNanos),
+                            TimeUnit.NANOSECONDS);
+                    waiter.request.release();
+                    continue;
+                }
+                completion.creditWaiter = null;
+                acquireCredit(completion);
+                if (toSend == null) {
+                    toSend = new ArrayList<>();
+                }
+                toSend.add(waiter);
+            }
+        }
+        if (toSend == null) {
+            return;
+        }
+        for (CreditWaiter waiter : toSend) {
+            flowControlWaitOpLogger.registerSuccessfulEvent(MathUtils.elapsedNanos(waiter.enqueueNanos),
+                    TimeUnit.NANOSECONDS);
+            Channel c = channel;
+            if (c == null) {
+                waiter.request.release();
+                errorOut(waiter.key);
+            } else {
+                writeAndFlush(c, waiter.key, waiter.request, false);
+            }
+        }
+    }
+
+    /**
+     * Forget the credits granted on a closed connection, the requests waiting for a credit are errored out.
+     */
+    private void resetCredits() {
+        if (maxCredits <= 0) {
+            return;
+        }
+        List<CreditWaiter> waiters;
+        synchronized (creditWaiters) {
+            grantedCredits = 0;
+            waiters = new ArrayList<>(creditWaiters);
+            creditWaiters.clear();
+        }
+        for (CreditWaiter waiter : waiters) {
+            flowControlWaitOpLogger.registerFailedEvent(MathUtils.elapsedNanos(waiter.enqueueNanos),
+                    TimeUnit.NANOSECONDS);
+            waiter.request.release();
+            errorOut(waiter.key, BKException.Code.BookieHandleNotAvailableException);
+        }
+    }
+
+    /**
+     * A serialized request waiting for a flow control credit.
+     */
+    private static final class CreditWaiter {
+        final CompletionKey key;
+        final ByteBuf request;
+        final long enqueueNanos;
+
+        CreditWaiter(CompletionKey key, ByteBuf request) {
+            this.key = key;
+            this.request = request;
+            this.enqueueNanos = MathUtils.nowInNano();
+        }
+    }
+
     /**
      * Errors out pending ops from per channel bookie client. As the channel
      * is being closed, all the operations waiting on the connection
@@ -1256,6 +1471,8 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
             }
         }
 
+        // Before the outstanding entries, whose credits released would send the waiters on the closed channel
+        resetCredits();
         errorOutOutstandingEntries(BKException.Code.BookieHandleNotAvailableException);
         errorOutPendingOps(BKException.Code.BookieHandleNotAvailableException);
 
@@ -1351,6 +1568,10 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
     }
 
     private void readV2Response(final BookieProtocol.Response response) {
+        if (response instanceof BookieProtocol.BatchedReadResponse) {
+            readBatchedReadResponse((BookieProtocol.BatchedReadResponse) response);
+            return;
+        }
         OperationType operationType = getOperationType(response.getOpCode());
         StatusCode status = getStatusCodeFromErrorCode(response.errorCode);
 
@@ -1373,6 +1594,25 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         }
     }
 
+    private void readBatchedReadResponse(final BookieProtocol.BatchedReadResponse response) {
+        StatusCode status = getStatusCodeFromErrorCode(response.errorCode);
+        CompletionValue completionValue =
+                completionObjects.remove(new V3CompletionKey(response.getRequestId(), OperationType.READ_ENTRY));
+
+        if (null == completionValue) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Unexpected batched read response received from bookie : " + bookieId
+                        + " for request id : " + response.getRequestId() + " and ledger:entry : "
+                        + response.ledgerId + ":" + response.entryId);
+            }
+            response.release();
+        } else {
+            executor.executeOrdered(completionValue.ledgerId,
+                    ReadV2ResponseCallback.create(completionValue, response.ledgerId, response.entryId,
+                                                  status, response));
+        }
+    }
+
     private static class ReadV2ResponseCallback implements Runnable {
         CompletionValue completionValue;
         long ledgerId;
@@ -1474,6 +1714,15 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         final CompletionKey key = newCompletionKey(header.getTxnId(), header.getOperation());
         final CompletionValue completionValue = completionObjects.get(key);
 
+        if (maxCredits > 0) {
+            if (header.hasCredits()) {
+                updateCredits(header.getCredits());
+            }
+            if (null != completionValue) {
+                releaseCredit(completionValue);
+            }
+        }
+
         if (null == completionValue) {
             // Unexpected response, so log it. The txnId should have been present.
             if (LOG.isDebugEnabled()) {
@@ -1602,6 +1851,9 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         protected long ledgerId;
         protected long entryId;
         protected long startTime;
+        // Whether the request was sent with a flow control credit, or is waiting for one, guarded by creditWaiters
+        boolean holdsCredit;
+        CreditWaiter creditWaiter;
 
         public CompletionValue(String operationName,
                                Object ctx,
@@ -1645,6 +1897,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         }
 
         void timeout() {
+            releaseCredit(this);
             errorOut(BKException.Code.TimeoutException);
             timeoutOpLogger.registerSuccessfulEvent(latency(),
                                                     TimeUnit.NANOSECONDS);
@@ -1967,6 +2220,63 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         }
     }
 
+    // visible for testing
+    class BatchedReadCompletion extends CompletionValue {
+        final BatchedReadEntryCallback cb;
+
+        public BatchedReadCompletion(final CompletionKey key,
+                                     final BatchedReadEntryCallback originalCallback,
+                                     final Object originalCtx,
+                                     long ledgerId, final long startEntryId) {
+            super("BatchedRead", originalCtx, ledgerId, startEntryId,
+                  readEntryOpLogger, readTimeoutOpLogger);
+            this.cb = (rc, ledgerId1, startEntryId1, bufList, ctx) -> {
+                logOpResult(rc);
+                originalCallback.readEntriesComplete(rc, ledgerId1, startEntryId1, bufList, originalCtx);
+            };
+        }
+
+        @Override
+        public void errorOut() {
+            errorOut(BKException.Code.BookieHandleNotAvailableException);
+        }
+
+        @Override
+        public void errorOut(final int rc) {
+            errorOutAndRunCallback(
+                    () -> cb.readEntriesComplete(rc, ledgerId, entryId, null, ctx));
+        }
+
+        @Override
+        public void setOutstanding() {
+            readEntryOutstanding.inc();
+        }
+
+        @Override
+        public void handleV2Response(long ledgerId, long entryId,
+                                     StatusCode status,
+                                     BookieProtocol.Response response) {
+            readEntryOutstanding.dec();
+            if (!(response instanceof BookieProtocol.BatchedReadResponse)) {
+                return;
+            }
+            BookieProtocol.BatchedReadResponse readResponse = (BookieProtocol.BatchedReadResponse) response;
+            if (LOG.isDebugEnabled()) {
+                logResponse(status, "ledger", ledgerId, "startEntry", entryId,
+                        "entries", readResponse.getEntryCount());
+            }
+            int rc = convertStatus(status, BKException.Code.ReadException);
+            // The entries are released once the callback returns
+            cb.readEntriesComplete(rc, ledgerId, entryId, readResponse.getData(), ctx);
+        }
+
+        @Override
+        public void handleV3Response(BookkeeperProtocol.Response response) {
+            // Batched reads are only sent with the v2 protocol
+            LOG.warn("Unexpected v3 response for batched read {}", response);
+        }
+    }
+
     class StartTLSCompletion extends CompletionValue {
         final StartTLSCallback cb;
 
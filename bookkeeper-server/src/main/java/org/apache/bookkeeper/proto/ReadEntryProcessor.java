@@ -18,8 +18,10 @@
 package org.apache.bookkeeper.proto;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.FileRegion;
 import io.netty.util.Recycler;
 import io.netty.util.ReferenceCountUtil;
+import io.netty.util.ReferenceCounted;
 import java.io.IOException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
@@ -84,7 +86,17 @@ class ReadEntryProcessor extends PacketProcessorBase<ReadRequest> {
                     throw BookieException.create(BookieException.Code.UnauthorizedAccessException);
                 }
             }
-            data = requestProcessor.getBookie().readEntry(request.getLedgerId(), request.getEntryId());
+            if (fenceResult == null && requestProcessor.isZeroCopyReadAllowed(requestHandler.ctx().channel())) {
+                ReferenceCounted entry = requestProcessor.getBookie().readEntryOrRegion(request.getLedgerId(),
+                        request.getEntryId(), requestProcessor.getZeroCopyReadMinEntrySize());
+                if (entry instanceof FileRegion) {
+                    sendRegionResponse((FileRegion) entry, startTimeNanos);
+                    return;
+                }
+                data = (ByteBuf) entry;
+            } else {
+                data = requestProcessor.getBookie().readEntry(request.getLedgerId(), request.getEntryId());
+            }
             if (LOG.isDebugEnabled()) {
                 LOG.debug("##### Read entry ##### {} -- ref-count: {}", data.readableBytes(), data.refCnt());
             }
@@ -144,6 +156,16 @@ class ReadEntryProcessor extends PacketProcessorBase<ReadRequest> {
         recycle();
     }
 
+    private void sendRegionResponse(FileRegion region, long startTimeNanos) {
+        final RequestStats stats = requestProcessor.getRequestStats();
+        stats.getReadEntryStats().registerSuccessfulEvent(MathUtils.elapsedNanos(startTimeNanos),
+                TimeUnit.NANOSECONDS);
+        BookieProtocol.Response response = ResponseBuilder.buildReadResponse(region, request);
+
+        sendReadReqResponse(BookieProtocol.EOK, response, stats.getReadRequestStats(), throttleReadResponses);
+        recycle();
+    }
+
     private void sendFenceResponse(Boolean result, ByteBuf data, long startTimeNanos) {
         final int retCode = result != null && result ? BookieProtocol.EOK : BookieProtocol.EIO;
         sendResponse(data, retCode, startTimeNanos);
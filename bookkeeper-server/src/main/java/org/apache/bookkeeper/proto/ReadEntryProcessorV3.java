@@ -21,7 +21,9 @@ import com.google.common.base.Stopwatch;
 import com.google.protobuf.ByteString;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
+import io.netty.channel.FileRegion;
 import io.netty.util.ReferenceCountUtil;
+import io.netty.util.ReferenceCounted;
 import java.io.IOException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
@@ -48,6 +50,9 @@ class ReadEntryProcessorV3 extends PacketProcessorBaseV3 {
 
     private CompletableFuture<Boolean> fenceResult = null;
 
+    // Entry body sent straight from the entry log file, after the serialized response
+    private FileRegion entryBodyRegion = null;
+
     protected final ReadRequest readRequest;
     protected final long ledgerId;
     protected final long entryId;
@@ -170,7 +175,18 @@ class ReadEntryProcessorV3 extends PacketProcessorBaseV3 {
                                      boolean readLACPiggyBack,
                                      Stopwatch startTimeSw)
         throws IOException, BookieException {
-        ByteBuf entryBody = requestProcessor.getBookie().readEntry(ledgerId, entryId);
+        ByteBuf entryBody;
+        if (null == fenceResult && requestProcessor.isZeroCopyReadAllowed(requestHandler.ctx().channel())) {
+            ReferenceCounted entry = requestProcessor.getBookie().readEntryOrRegion(ledgerId, entryId,
+                    requestProcessor.getZeroCopyReadMinEntrySize());
+            if (entry instanceof FileRegion) {
+                return readEntryRegion(readResponseBuilder, entryId, (FileRegion) entry, readLACPiggyBack,
+                        startTimeSw);
+            }
+            entryBody = (ByteBuf) entry;
+        } else {
+            entryBody = requestProcessor.getBookie().readEntry(ledgerId, entryId);
+        }
         if (null != fenceResult) {
             handleReadResultForFenceRead(entryBody, readResponseBuilder, entryId, startTimeSw);
             return null;
@@ -192,6 +208,33 @@ class ReadEntryProcessorV3 extends PacketProcessorBaseV3 {
         }
     }
 
+    private ReadResponse readEntryRegion(ReadResponse.Builder readResponseBuilder,
+                                         long entryId,
+                                         FileRegion entryRegion,
+                                         boolean readLACPiggyBack,
+                                         Stopwatch startTimeSw)
+        throws IOException, BookieException {
+        boolean success = false;
+        try {
+            if (readLACPiggyBack) {
+                readResponseBuilder.setEntryId(entryId);
+            } else {
+                long knownLAC = requestProcessor.getBookie().readLastAddConfirmed(ledgerId);
+                readResponseBuilder.setMaxLAC(knownLAC);
+            }
+            registerSuccessfulEvent(readStats, startTimeSw);
+            readResponseBuilder.setStatus(StatusCode.EOK);
+            ReadResponse readResponse = readResponseBuilder.build();
+            entryBodyRegion = entryRegion;
+            success = true;
+            return readResponse;
+        } finally {
+            if (!success) {
+                ReferenceCountUtil.release(entryRegion);
+            }
+        }
+    }
+
     protected ReadResponse getReadResponse() {
         final Stopwatch startTimeSw = Stopwatch.createStarted();
         final Channel channel = requestHandler.ctx().channel();
@@ -250,6 +293,9 @@ class ReadEntryProcessorV3 extends PacketProcessorBaseV3 {
     public void run() {
         requestProcessor.getRequestStats().getReadEntrySchedulingDelayStats().registerSuccessfulEvent(
             MathUtils.elapsedNanos(enqueueNanos), TimeUnit.NANOSECONDS);
+        if (laneQueuedStats != null) {
+            laneQueuedStats.registerSuccessfulEvent(MathUtils.elapsedNanos(enqueueNanos), TimeUnit.NANOSECONDS);
+        }
         if (!requestHandler.ctx().channel().isOpen()) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Dropping read request for closed channel: {}", requestHandler.ctx().channel());
@@ -324,9 +370,16 @@ class ReadEntryProcessorV3 extends PacketProcessorBaseV3 {
                 .setHeader(getHeader())
                 .setStatus(readResponse.getStatus())
                 .setReadResponse(readResponse);
-        sendResponse(response.getStatus(),
-                     response.build(),
-                     reqStats);
+        if (null != entryBodyRegion) {
+            sendResponse(response.getStatus(),
+                         new BookieProtoEncoding.FileRegionResponse(response.build(), entryBodyRegion),
+                         reqStats);
+            entryBodyRegion = null;
+        } else {
+            sendResponse(response.getStatus(),
+                         response.build(),
+                         reqStats);
+        }
         requestProcessor.onReadRequestFinish();
     }
 
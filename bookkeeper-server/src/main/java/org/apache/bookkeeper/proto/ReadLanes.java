@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.bookkeeper.proto;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.bookkeeper.common.util.OrderedExecutor;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashMap;
+
+/**
+ * Assign the reads of each ledger to the tailing or to the catch-up read lane.
+ *
+ * <p>Both lanes are ordered by ledger, but two reads of the same ledger on different lanes could execute out of
+ * order. So the lane requested for a read is only applied when the ledger has no read pending: all the reads of a
+ * ledger scheduled while others are pending follow them on the same lane, and they still execute in order, as
+ * with a single read threadpool. The state of a ledger is dropped once it has no read pending.
+ */
+class ReadLanes {
+
+    private final OrderedExecutor tailingLane;
+    private final OrderedExecutor catchUpLane;
+    private final ConcurrentLongHashMap<LedgerReads> ledgers;
+
+    ReadLanes(OrderedExecutor tailingLane, OrderedExecutor catchUpLane) {
+        this.tailingLane = tailingLane;
+        this.catchUpLane = catchUpLane;
+        this.ledgers = ConcurrentLongHashMap.<LedgerReads>newBuilder()
+                .expectedItems(1024)
+                .concurrencyLevel(Runtime.getRuntime().availableProcessors() * 2)
+                .build();
+    }
+
+    /**
+     * Add a pending read to the ledger.
+     *
+     * @param catchUp whether the read should go to the catch-up lane, only applied if no read of the ledger is
+     *                pending
+     * @return the pending reads of the ledger, the read must then be executed with {@link LedgerReads#execute}
+     */
+    LedgerReads acquire(long ledgerId, boolean catchUp) {
+        while (true) {
+            LedgerReads reads = ledgers.computeIfAbsent(ledgerId, LedgerReads::new);
+            if (reads.acquire(catchUp)) {
+                return reads;
+            }
+            // Dropped concurrently, a new state gets created for the ledger
+        }
+    }
+
+    int getPendingLedgersCount() {
+        return (int) ledgers.size();
+    }
+
+    /**
+     * Pending reads of a ledger.
+     */
+    class LedgerReads {
+        // Set once the ledger has no read pending anymore and the state is removed
+        private static final long DROPPED = -1L;
+
+        private final long ledgerId;
+        // Number of pending reads shifted by one, with the lowest bit set for the catch-up lane
+        private final AtomicLong state = new AtomicLong();
+
+        LedgerReads(long ledgerId) {
+            this.ledgerId = ledgerId;
+        }
+
+        private boolean acquire(boolean catchUp) {
+            while (true) {
+                long current = state.get();
+                if (current == DROPPED) {
+                    return false;
+                }
+                long updated = (current >>> 1) == 0 ? 2 | (catchUp ? 1 : 0) : current + 2;
+                if (state.compareAndSet(current, updated)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * @return the lane of the reads of the ledger, which can't change while this read is pending
+         */
+        boolean isCatchUp() {
+            return (state.get() & 1) != 0;
+        }
+
+        /**
+         * Execute the read on the lane of the ledger, the read is no longer pending once it has run.
+         */
+        void execute(Runnable read) {
+            OrderedExecutor lane = isCatchUp() ? catchUpLane : tailingLane;
+            try {
+                lane.executeOrdered(ledgerId, () -> {
+                    try {
+                        read.run();
+                    } finally {
+                        release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                release();
+                throw e;
+            }
+        }
+
+        private void release() {
+            long updated = state.addAndGet(-2);
+            if ((updated >>> 1) == 0 && state.compareAndSet(updated, DROPPED)) {
+                ledgers.remove(ledgerId, this);
+            }
+        }
+    }
+}
@@ -25,8 +25,12 @@ import static org.apache.bookkeeper.bookie.BookKeeperServerStats.ADD_ENTRY_BLOCK
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.ADD_ENTRY_IN_PROGRESS;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.ADD_ENTRY_REJECTED;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.ADD_ENTRY_REQUEST;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.BATCH_READ_ENTRY;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.BATCH_READ_ENTRY_REQUEST;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.CATCH_UP_READ_THREAD_QUEUED_LATENCY;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.CATEGORY_SERVER;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.CHANNEL_WRITE;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.FLOW_CONTROL_CREDITS;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.FORCE_LEDGER;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.FORCE_LEDGER_REQUEST;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.GET_BOOKIE_INFO;
@@ -51,6 +55,7 @@ import static org.apache.bookkeeper.bookie.BookKeeperServerStats.READ_LAC;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.READ_LAC_REQUEST;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.READ_LAST_ENTRY_NOENTRY_ERROR;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.SERVER_SCOPE;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.TAILING_READ_THREAD_QUEUED_LATENCY;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.WRITE_LAC;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.WRITE_LAC_REQUEST;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.WRITE_THREAD_QUEUED_LATENCY;
@@ -124,6 +129,17 @@ public class RequestStats {
             parent = READ_ENTRY_REQUEST
     )
     private final Counter readEntryRejectedCounter;
+    @StatsDoc(
+        name = BATCH_READ_ENTRY_REQUEST,
+        help = "request stats of BatchReadEntry on a bookie"
+    )
+    final OpStatsLogger batchReadRequestStats;
+    @StatsDoc(
+        name = BATCH_READ_ENTRY,
+        help = "operation stats of BatchReadEntry on a bookie",
+        parent = BATCH_READ_ENTRY_REQUEST
+    )
+    final OpStatsLogger batchReadEntryStats;
     @StatsDoc(
         name = FORCE_LEDGER,
         help = "operation stats of ForceLedger on a bookie",
@@ -158,6 +174,18 @@ public class RequestStats {
         help = "operation stats of ReadEntry scheduling delays on a bookie"
     )
     final OpStatsLogger readEntrySchedulingDelayStats;
+    @StatsDoc(
+        name = TAILING_READ_THREAD_QUEUED_LATENCY,
+        help = "operation stats of enqueuing reads of tailing readers to the tailing read lane",
+        parent = READ_ENTRY_REQUEST
+    )
+    private final OpStatsLogger tailingReadThreadQueuedLatency;
+    @StatsDoc(
+        name = CATCH_UP_READ_THREAD_QUEUED_LATENCY,
+        help = "operation stats of enqueuing reads of catch-up readers to the catch-up read lane",
+        parent = READ_ENTRY_REQUEST
+    )
+    private final OpStatsLogger catchUpReadThreadQueuedLatency;
     @StatsDoc(
         name = READ_ENTRY_LONG_POLL_PRE_WAIT,
         help = "operation stats of LongPoll Reads pre wait time on a bookie",
@@ -235,6 +263,11 @@ public class RequestStats {
         help = "operation stats of ReadEntry blocked on a bookie"
     )
     final OpStatsLogger readEntryBlockedStats;
+    @StatsDoc(
+        name = FLOW_CONTROL_CREDITS,
+        help = "flow control credits granted to the clients in the responses of a bookie"
+    )
+    private final OpStatsLogger flowControlCreditsStats;
     @StatsDoc(
             name = GET_LIST_OF_ENTRIES_OF_LEDGER_REQUEST,
             help = "request stats of GetListOfEntriesOfLedger on a bookie"
@@ -254,6 +287,8 @@ public class RequestStats {
         this.addEntryRejectedCounter = statsLogger.getCounter(ADD_ENTRY_REJECTED);
         this.readEntryStats = statsLogger.getThreadScopedOpStatsLogger(READ_ENTRY);
         this.readEntryRejectedCounter = statsLogger.getCounter(READ_ENTRY_REJECTED);
+        this.batchReadRequestStats = statsLogger.getOpStatsLogger(BATCH_READ_ENTRY_REQUEST);
+        this.batchReadEntryStats = statsLogger.getThreadScopedOpStatsLogger(BATCH_READ_ENTRY);
         this.forceLedgerStats = statsLogger.getOpStatsLogger(FORCE_LEDGER);
         this.forceLedgerRequestStats = statsLogger.getOpStatsLogger(FORCE_LEDGER_REQUEST);
         this.readRequestStats = statsLogger.getOpStatsLogger(READ_ENTRY_REQUEST);
@@ -261,6 +296,8 @@ public class RequestStats {
         this.fenceReadRequestStats = statsLogger.getOpStatsLogger(READ_ENTRY_FENCE_REQUEST);
         this.fenceReadWaitStats = statsLogger.getOpStatsLogger(READ_ENTRY_FENCE_WAIT);
         this.readEntrySchedulingDelayStats = statsLogger.getOpStatsLogger(READ_ENTRY_SCHEDULING_DELAY);
+        this.tailingReadThreadQueuedLatency = statsLogger.getOpStatsLogger(TAILING_READ_THREAD_QUEUED_LATENCY);
+        this.catchUpReadThreadQueuedLatency = statsLogger.getOpStatsLogger(CATCH_UP_READ_THREAD_QUEUED_LATENCY);
         this.longPollPreWaitStats = statsLogger.getOpStatsLogger(READ_ENTRY_LONG_POLL_PRE_WAIT);
         this.longPollWaitStats = statsLogger.getOpStatsLogger(READ_ENTRY_LONG_POLL_WAIT);
         this.longPollReadStats = statsLogger.getOpStatsLogger(READ_ENTRY_LONG_POLL_READ);
@@ -276,6 +313,7 @@ public class RequestStats {
 
         this.addEntryBlockedStats = statsLogger.getOpStatsLogger(ADD_ENTRY_BLOCKED_WAIT);
         this.readEntryBlockedStats = statsLogger.getOpStatsLogger(READ_ENTRY_BLOCKED_WAIT);
+        this.flowControlCreditsStats = statsLogger.getOpStatsLogger(FLOW_CONTROL_CREDITS);
 
         this.getListOfEntriesOfLedgerStats = statsLogger.getOpStatsLogger(GET_LIST_OF_ENTRIES_OF_LEDGER);
         this.getListOfEntriesOfLedgerRequestStats =
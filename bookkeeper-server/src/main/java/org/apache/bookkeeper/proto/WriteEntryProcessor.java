@@ -103,15 +103,19 @@ class WriteEntryProcessor extends PacketProcessorBase<ParsedAddRequest> implemen
         }
 
         if (rc != BookieProtocol.EOK) {
-            requestProcessor.getRequestStats().getAddEntryStats()
-                .registerFailedEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
-            sendWriteReqResponse(rc,
-                         ResponseBuilder.buildErrorResponse(rc, request),
-                         requestProcessor.getRequestStats().getAddRequestStats());
-            request.recycle();
+            sendErrorResponse(rc);
         }
     }
 
+    void sendErrorResponse(int rc) {
+        requestProcessor.getRequestStats().getAddEntryStats()
+            .registerFailedEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+        sendWriteReqResponse(rc,
+                     ResponseBuilder.buildErrorResponse(rc, request),
+                     requestProcessor.getRequestStats().getAddRequestStats());
+        request.recycle();
+    }
+
     @Override
     public void writeComplete(int rc, long ledgerId, long entryId,
                               BookieId addr, Object ctx) {
@@ -43,8 +43,18 @@ import org.slf4j.LoggerFactory;
  *           "lastMajorCompactionTime" : 1544578144944,
  *           "lastMinorCompactionTime" : 1544578144944,
  *           "majorCompactionCounter" : 1,
- *           "minorCompactionCounter" : 0
+ *           "minorCompactionCounter" : 0,
+ *           "metadataIndexing" : true,
+ *           "metadataIndexStartTime" : 1544578144944,
+ *           "metadataIndexEndTime" : 0,
+ *           "metadataIndexTotalEntryLogs" : 2048,
+ *           "metadataIndexProcessedEntryLogs" : 512,
+ *           "metadataIndexScannedEntryLogs" : 480,
+ *           "metadataIndexFailedEntryLogs" : 0
  *         } ]
+ *
+ * <p>The metadataIndex fields report the progress of the entry log metadata indexer, when enabled with
+ * gcEntryLogMetadataIndexerEnabled.
  */
 public class GCDetailsService implements HttpEndpointService {
 
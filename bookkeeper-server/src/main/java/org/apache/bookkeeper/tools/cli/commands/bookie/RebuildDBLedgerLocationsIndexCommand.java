@@ -18,7 +18,10 @@
  */
 package org.apache.bookkeeper.tools.cli.commands.bookie;
 
+import com.beust.jcommander.Parameter;
 import java.io.IOException;
+import lombok.Setter;
+import lombok.experimental.Accessors;
 import org.apache.bookkeeper.bookie.storage.ldb.LocationsIndexRebuildOp;
 import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.bookkeeper.tools.cli.helpers.BookieCommand;
@@ -30,7 +33,8 @@ import org.slf4j.LoggerFactory;
 /**
  * Command to rebuild DBLedgerStorage locations index.
  */
-public class RebuildDBLedgerLocationsIndexCommand extends BookieCommand<CliFlags> {
+public class RebuildDBLedgerLocationsIndexCommand
+        extends BookieCommand<RebuildDBLedgerLocationsIndexCommand.RebuildLocationsIndexFlags> {
 
     static final Logger LOG = LoggerFactory.getLogger(RebuildDBLedgerLocationsIndexCommand.class);
 
@@ -38,19 +42,36 @@ public class RebuildDBLedgerLocationsIndexCommand extends BookieCommand<CliFlags
     private static final String DESC = "Rbuild DBLedgerStorage locations index by scanning the entry logs";
 
     public RebuildDBLedgerLocationsIndexCommand() {
-        super(CliSpec.newBuilder().withName(NAME).withDescription(DESC).withFlags(new CliFlags()).build());
+        this(new RebuildLocationsIndexFlags());
+    }
+
+    public RebuildDBLedgerLocationsIndexCommand(RebuildLocationsIndexFlags flags) {
+        super(CliSpec.<RebuildLocationsIndexFlags>newBuilder().withName(NAME).withDescription(DESC)
+                .withFlags(flags).build());
     }
 
     @Override
-    public boolean apply(ServerConfiguration conf, CliFlags cmdFlags) {
+    public boolean apply(ServerConfiguration conf, RebuildLocationsIndexFlags cmdFlags) {
         LOG.info("=== Rebuilding DBStorage locations index ===");
         ServerConfiguration serverConfiguration = new ServerConfiguration(conf);
         try {
-            new LocationsIndexRebuildOp(serverConfiguration).initiate();
+            new LocationsIndexRebuildOp(serverConfiguration, cmdFlags.migrate).initiate();
         } catch (IOException e) {
             e.printStackTrace();
         }
         LOG.info("-- Done rebuilding DBStorage locations index --");
         return true;
     }
+
+    /**
+     * Flags for rebuild locations index command.
+     */
+    @Accessors(fluent = true)
+    @Setter
+    public static class RebuildLocationsIndexFlags extends CliFlags {
+        @Parameter(names = { "-m", "--migrate" },
+                description = "Copy the existing RocksDB locations index into the configured index type"
+                    + " instead of scanning the entry logs")
+        private boolean migrate;
+    }
 }
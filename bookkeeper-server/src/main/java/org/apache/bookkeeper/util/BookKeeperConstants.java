@@ -32,6 +32,7 @@ public class BookKeeperConstants {
     public static final String PASSWD = "passwd";
     public static final String CURRENT_DIR = "current";
     public static final String METADATA_CACHE = "metadata-cache";
+    public static final String ENTRYLOG_METADATA_MAP = "entrylog-metadata-map";
     public static final String READONLY = "readonly";
 
     // //////////////////////////
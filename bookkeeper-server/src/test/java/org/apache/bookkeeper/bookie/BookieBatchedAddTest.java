@@ -0,0 +1,220 @@
+package org.apache.bookkeeper.bookie;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.apache.bookkeeper.client.BookKeeper.DigestType;
+import org.apache.bookkeeper.client.LedgerEntry;
+import org.apache.bookkeeper.client.LedgerHandle;
+import org.apache.bookkeeper.client.conf.BookKeeperClusterTestCase;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteCallback;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+
+public class BookieBatchedAddTest extends BookKeeperClusterTestCase {
+
+	private static final byte[] MASTER_KEY = "master-key".getBytes();
+
+	private static final byte[] PASSWORD = "p@SSw0rd".getBytes();
+
+	private static final int ENTRY_SIZE = 256;
+
+
+	public BookieBatchedAddTest() {
+		super(1, 120);
+	}
+
+
+	@Before
+	@Override
+	public void setUp() throws Exception {
+		baseConf.setJournalRemovePagesFromCache(false);
+		baseClientConf.setUseV2WireProtocol(true);
+		super.setUp();
+	}
+
+
+	@Test
+	public void testCoalescedAdds() throws Exception {
+		// The adds sent back-to-back on the channel are coalesced by the bookie
+		int entries = 2000;
+		LedgerHandle lh = bkc.createLedger(1, 1, 1, DigestType.CRC32, PASSWORD);
+		CountDownLatch done = new CountDownLatch(entries);
+		AtomicInteger failures = new AtomicInteger();
+		List<Long> acked = Collections.synchronizedList(new ArrayList<>());
+		for (int i = 0; i < entries; i++) {
+			lh.asyncAddEntry(payload(i), (rc, handle, entryId, ctx) -> {
+				if (rc != 0) {
+					failures.incrementAndGet();
+				}
+				acked.add(entryId);
+				done.countDown();
+			}, null);
+		}
+		assertTrue(done.await(60, TimeUnit.SECONDS));
+		assertEquals(0, failures.get());
+		for (int i = 0; i < entries; i++) {
+			assertEquals(i, (long) acked.get(i));
+		}
+		lh.close();
+
+		LedgerHandle reader = bkc.openLedger(lh.getId(), DigestType.CRC32, PASSWORD);
+		Enumeration<LedgerEntry> read = reader.readEntries(0, entries - 1);
+		int entryId = 0;
+		while (read.hasMoreElements()) {
+			assertArrayEquals(payload(entryId++), read.nextElement().getEntry());
+		}
+		assertEquals(entries, entryId);
+		reader.close();
+	}
+
+
+	@Test
+	public void testBatchAcknowledgedPerEntry() throws Exception {
+		Bookie bookie = serverByIndex(0).getBookie();
+		List<ByteBuf> batch = entries(1, 0, 5);
+		List<CompletableFuture<Long>> completions = completions(5);
+
+		assertEquals(5, bookie.addEntries(batch, false, callbacks(completions), null, MASTER_KEY));
+		for (int i = 0; i < 5; i++) {
+			assertEquals(i, (long) completions.get(i).get(10, TimeUnit.SECONDS));
+			assertEquals(0, batch.get(i).refCnt());
+			assertEntry(bookie, 1, i);
+		}
+	}
+
+
+	@Test
+	public void testBatchStopsAtOtherLedger() throws Exception {
+		Bookie bookie = serverByIndex(0).getBookie();
+		List<ByteBuf> batch = entries(2, 0, 3);
+		batch.addAll(entries(3, 0, 2));
+		List<CompletableFuture<Long>> completions = completions(5);
+
+		// Only the entries of the first ledger are added, the others are left to the caller
+		assertEquals(3, bookie.addEntries(batch, false, callbacks(completions), null, MASTER_KEY));
+		for (int i = 0; i < 3; i++) {
+			assertEquals(i, (long) completions.get(i).get(10, TimeUnit.SECONDS));
+			assertEntry(bookie, 2, i);
+		}
+		for (int i = 3; i < 5; i++) {
+			assertFalse(completions.get(i).isDone());
+			assertEquals(1, batch.get(i).refCnt());
+		}
+		try {
+			bookie.readEntry(3, 0);
+			fail("The entries of the other ledger should not be added");
+		} catch (Bookie.NoLedgerException | Bookie.NoEntryException e) {
+			// Expected
+		}
+
+		// Then added one by one, which releases them
+		for (int i = 3; i < 5; i++) {
+			CompletableFuture<Long> completion = completions.get(i);
+			bookie.addEntry(batch.get(i), false, (rc, ledgerId, entryId, addr, ctx) -> completion.complete(entryId),
+					null, MASTER_KEY);
+			assertEquals(i - 3, (long) completion.get(10, TimeUnit.SECONDS));
+			assertEntry(bookie, 3, i - 3);
+		}
+	}
+
+
+	@Test
+	public void testBatchOfFencedLedgerRejected() throws Exception {
+		Bookie bookie = serverByIndex(0).getBookie();
+		List<ByteBuf> first = entries(4, 0, 2);
+		List<CompletableFuture<Long>> firstCompletions = completions(2);
+		assertEquals(2, bookie.addEntries(first, false, callbacks(firstCompletions), null, MASTER_KEY));
+		firstCompletions.get(1).get(10, TimeUnit.SECONDS);
+
+		assertTrue(bookie.fenceLedger(4, MASTER_KEY).get(10, TimeUnit.SECONDS));
+
+		// None of the entries is added, the caller adds them one by one to fail with the right error
+		List<ByteBuf> batch = entries(4, 2, 3);
+		List<CompletableFuture<Long>> completions = completions(3);
+		assertEquals(0, bookie.addEntries(batch, false, callbacks(completions), null, MASTER_KEY));
+		for (int i = 0; i < 3; i++) {
+			assertFalse(completions.get(i).isDone());
+			assertEquals(1, batch.get(i).refCnt());
+		}
+		for (int i = 0; i < 3; i++) {
+			try {
+				bookie.addEntry(batch.get(i), false, callbacks(completions).get(i), null, MASTER_KEY);
+				fail("The ledger is fenced");
+			} catch (BookieException.LedgerFencedException e) {
+				// Expected
+			}
+		}
+	}
+
+
+	private static void assertEntry(Bookie bookie, long ledgerId, long entryId) throws Exception {
+		ByteBuf entry = bookie.readEntry(ledgerId, entryId);
+		try {
+			assertEquals(ledgerId, entry.getLong(entry.readerIndex()));
+			assertEquals(entryId, entry.getLong(entry.readerIndex() + 8));
+			assertEquals(ENTRY_SIZE, entry.readableBytes());
+		} finally {
+			entry.release();
+		}
+	}
+
+
+	private static List<ByteBuf> entries(long ledgerId, long startEntryId, int count) {
+		List<ByteBuf> entries = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			ByteBuf entry = Unpooled.buffer(ENTRY_SIZE);
+			entry.writeLong(ledgerId);
+			entry.writeLong(startEntryId + i);
+			entry.writeZero(ENTRY_SIZE - 16);
+			entries.add(entry);
+		}
+		return entries;
+	}
+
+
+	private static List<CompletableFuture<Long>> completions(int count) {
+		List<CompletableFuture<Long>> completions = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			completions.add(new CompletableFuture<>());
+		}
+		return completions;
+	}
+
+
+	/**
+	 * @return the callbacks completing the futures with the id of the entry added, or failing them
+	 */
+	private static List<WriteCallback> callbacks(List<CompletableFuture<Long>> completions) {
+		List<WriteCallback> callbacks = new ArrayList<>();
+		for (CompletableFuture<Long> completion : completions) {
+			callbacks.add((rc, ledgerId, entryId, addr, ctx) -> {
+				if (rc == 0) {
+					completion.complete(entryId);
+				} else {
+					completion.completeExceptionally(new IllegalStateException("Add failed with " + rc));
+				}
+			});
+		}
+		return callbacks;
+	}
+
+
+	private static byte[] payload(int entryId) {
+		byte[] payload = new byte[ENTRY_SIZE];
+		Arrays.fill(payload, (byte) entryId);
+		return payload;
+	}
+}
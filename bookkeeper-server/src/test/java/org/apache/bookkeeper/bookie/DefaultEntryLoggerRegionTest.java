@@ -0,0 +1,182 @@
+package org.apache.bookkeeper.bookie;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.util.ReferenceCounted;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+
+public class DefaultEntryLoggerRegionTest {
+
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+
+	private static final int ENTRY_SIZE = 4096;
+
+	/** Entries smaller than this are copied */
+	private static final int MIN_REGION_SIZE = 1024;
+
+	private File currentDir;
+	private DefaultEntryLogger entryLogger;
+
+
+	@Before
+	public void setup() throws Exception {
+		File ledgerDir = tmpDir.newFolder();
+		currentDir = BookieImpl.getCurrentDirectory(ledgerDir);
+		BookieImpl.checkDirectoryStructure(currentDir);
+		ServerConfiguration conf = new ServerConfiguration();
+		conf.setLedgerDirNames(new String[] { ledgerDir.getPath() });
+		entryLogger = new DefaultEntryLogger(conf);
+	}
+
+
+	@After
+	public void shutdown() throws Exception {
+		entryLogger.close();
+	}
+
+
+	@Test
+	public void testRegionsShareReadChannel() throws Exception {
+		long[] locations = addEntries(1, 20);
+		entryLogger.flush();
+		long logId = locations[0] >> 32;
+		// Opened by the writer
+		int written = openFiles(logId);
+
+		List<ReferenceCounted> regions = new ArrayList<>();
+		for (int i = 0; i < locations.length; i++) {
+			ReferenceCounted region = entryLogger.readEntryOrRegion(1, i, locations[i], MIN_REGION_SIZE);
+			assertTrue(region instanceof DefaultFileRegion);
+			regions.add(region);
+		}
+		// All the regions and the read channels of the thread use the same file
+		assertEquals(written + 1, openFiles(logId));
+
+		// Releasing a region doesn't close the file of the others
+		regions.get(0).release();
+		for (int i = 1; i < locations.length; i++) {
+			assertArrayEquals(entry(1, i), transfer((DefaultFileRegion) regions.get(i)));
+			regions.get(i).release();
+		}
+		assertEquals(written + 1, openFiles(logId));
+
+		// Smaller entries are still copied
+		ByteBuf entry = (ByteBuf) entryLogger.readEntryOrRegion(1, 0, locations[0], ENTRY_SIZE + 1);
+		assertEquals(Unpooled.wrappedBuffer(entry(1, 0)), entry);
+		entry.release();
+	}
+
+
+	@Test
+	public void testRegionHeldAcrossRemoval() throws Exception {
+		long[] locations = addEntries(2, 2);
+		entryLogger.flush();
+		long logId = locations[0] >> 32;
+		int written = openFiles(logId);
+
+		DefaultFileRegion region = (DefaultFileRegion) entryLogger.readEntryOrRegion(2, 1, locations[1],
+				MIN_REGION_SIZE);
+		// The next entries go to another log, the one of the region is garbage collected
+		((EntryLogManagerBase) entryLogger.getEntryLogManager()).createNewLog(2);
+		assertTrue(entryLogger.removeEntryLog(logId));
+
+		// The file is only closed once the region was transferred and released
+		assertEquals(written + 1, openFiles(logId));
+		assertArrayEquals(entry(2, 1), transfer(region));
+		region.release();
+		assertEquals(written, openFiles(logId));
+	}
+
+
+	@Test
+	public void testBufferedEntriesCopied() throws Exception {
+		long[] locations = addEntries(3, 5);
+
+		// Not flushed, the entries are in the write buffer of the current log and can't be transferred from the file
+		for (int i = 0; i < locations.length; i++) {
+			ReferenceCounted entry = entryLogger.readEntryOrRegion(3, i, locations[i], MIN_REGION_SIZE);
+			assertTrue(entry instanceof ByteBuf);
+			assertEquals(Unpooled.wrappedBuffer(entry(3, i)), entry);
+			entry.release();
+		}
+
+		entryLogger.flush();
+		for (int i = 0; i < locations.length; i++) {
+			ReferenceCounted region = entryLogger.readEntryOrRegion(3, i, locations[i], MIN_REGION_SIZE);
+			assertArrayEquals(entry(3, i), transfer((DefaultFileRegion) region));
+			region.release();
+		}
+	}
+
+
+	private long[] addEntries(long ledgerId, int count) throws Exception {
+		long[] locations = new long[count];
+		for (int i = 0; i < count; i++) {
+			ByteBuf entry = Unpooled.wrappedBuffer(entry(ledgerId, i));
+			locations[i] = entryLogger.addEntry(ledgerId, entry);
+			entry.release();
+		}
+		return locations;
+	}
+
+
+	/**
+	 * @return the number of descriptors of the process opened on the entry log, deleted or not
+	 */
+	private int openFiles(long logId) throws Exception {
+		String logFile = new File(currentDir, Long.toHexString(logId) + ".log").getPath();
+		int open = 0;
+		for (File fd : new File("/proc/self/fd").listFiles()) {
+			try {
+				Path target = Files.readSymbolicLink(Paths.get(fd.getPath()));
+				if (target.toString().startsWith(logFile)) {
+					open++;
+				}
+			} catch (Exception e) {
+				// Closed while listing
+			}
+		}
+		return open;
+	}
+
+
+	private static byte[] transfer(DefaultFileRegion region) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		WritableByteChannel channel = Channels.newChannel(out);
+		while (region.transferred() < region.count()) {
+			region.transferTo(channel, region.transferred());
+		}
+		return out.toByteArray();
+	}
+
+
+	private static byte[] entry(long ledgerId, long entryId) {
+		ByteBuf entry = Unpooled.buffer(ENTRY_SIZE);
+		entry.writeLong(ledgerId);
+		entry.writeLong(entryId);
+		while (entry.isWritable()) {
+			entry.writeByte((int) (entryId * 31 + entry.writerIndex()));
+		}
+		return entry.array();
+	}
+}
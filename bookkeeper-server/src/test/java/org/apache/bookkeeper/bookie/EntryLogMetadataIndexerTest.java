@@ -0,0 +1,339 @@
+package org.apache.bookkeeper.bookie;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.apache.bookkeeper.bookie.storage.EntryLogMetadataSidecar;
+import org.apache.bookkeeper.bookie.storage.EntryLogScanner;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongPredicate;
+
+import static org.junit.Assert.*;
+
+
+public class EntryLogMetadataIndexerTest {
+
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+
+	private static final int LOGS = 4;
+
+	private static final int LEDGERS_PER_LOG = 3;
+
+	private static final int ENTRIES_PER_LEDGER = 10;
+
+	private ServerConfiguration conf;
+	private File currentDir;
+	private final List<Long> logIds = new ArrayList<>();
+	/** Ledger sizes of each log written, read from their ledgers maps */
+	private final Map<Long, Map<Long, Long>> expected = new HashMap<>();
+	private DefaultEntryLogger entryLogger;
+	/** Log removed by the compaction once scanned, before its sidecar is written */
+	private volatile long compactedOnceScanned = -1;
+	private EntryLogMetadataIndexer indexer;
+
+
+	@Before
+	public void setup() throws Exception {
+		File ledgerDir = tmpDir.newFolder();
+		currentDir = BookieImpl.getCurrentDirectory(ledgerDir);
+		BookieImpl.checkDirectoryStructure(currentDir);
+		conf = new ServerConfiguration();
+		conf.setLedgerDirNames(new String[] { ledgerDir.getPath() });
+		conf.setGcEntryLogMetadataIndexerThreads(2);
+		writeLogs();
+		entryLogger = newEntryLogger();
+		for (long logId : logIds) {
+			expected.put(logId, ledgerSizes(entryLogger.extractEntryLogMetadataFromIndex(logId)));
+		}
+		// The last log, not rolled, has no ledgers map
+		for (long logId : entryLogger.getFlushedLogIds()) {
+			if (!logIds.contains(logId)) {
+				entryLogger.indexEntryLogMetadata(logId, null);
+			}
+		}
+	}
+
+
+	@After
+	public void shutdown() throws Exception {
+		if (indexer != null) {
+			indexer.shutdown();
+		}
+		entryLogger.close();
+	}
+
+
+	@Test
+	public void testLogsWithoutLedgersMapIndexed() throws Exception {
+		dropLedgersMap(logIds.get(1));
+		dropLedgersMap(logIds.get(3));
+		try {
+			entryLogger.readEntryLogMetadata(logIds.get(1));
+			fail("No ledgers map nor sidecar");
+		} catch (IOException e) {
+			// Expected
+		}
+
+		runIndexer(logId -> false);
+		assertEquals(entryLogger.getFlushedLogIds().size(), indexer.getTotalEntryLogs());
+		assertEquals(indexer.getTotalEntryLogs(), indexer.getProcessedEntryLogs());
+		assertEquals(2, indexer.getScannedEntryLogs());
+		assertEquals(0, indexer.getFailedEntryLogs());
+		assertTrue(indexer.getEndTime() >= indexer.getStartTime());
+
+		// Only the logs without ledgers map have a sidecar
+		assertFalse(sidecar(logIds.get(0)).exists());
+		assertTrue(sidecar(logIds.get(1)).exists());
+		assertFalse(sidecar(logIds.get(2)).exists());
+		assertTrue(sidecar(logIds.get(3)).exists());
+		for (long logId : logIds) {
+			checkMetadata(logId);
+		}
+
+		// Nothing left to scan
+		runIndexer(logId -> false);
+		assertEquals(0, indexer.getScannedEntryLogs());
+	}
+
+
+	@Test
+	public void testExtractedLogsSkipped() throws Exception {
+		dropLedgersMap(logIds.get(1));
+		dropLedgersMap(logIds.get(2));
+
+		// Already extracted by the garbage collector
+		runIndexer(logId -> logId == logIds.get(2));
+		assertEquals(1, indexer.getScannedEntryLogs());
+		assertTrue(sidecar(logIds.get(1)).exists());
+		assertFalse(sidecar(logIds.get(2)).exists());
+	}
+
+
+	@Test
+	public void testMissingSidecarRescanned() throws Exception {
+		long logId = logIds.get(1);
+		dropLedgersMap(logId);
+		assertTrue(entryLogger.indexEntryLogMetadata(logId, null));
+		assertFalse(entryLogger.indexEntryLogMetadata(logId, null));
+
+		assertTrue(sidecar(logId).delete());
+		try {
+			entryLogger.readEntryLogMetadata(logId);
+			fail("The sidecar is missing");
+		} catch (IOException e) {
+			// Expected
+		}
+		// Still extracted by the garbage collector
+		assertEquals(expected.get(logId), ledgerSizes(entryLogger.getEntryLogMetadata(logId, null)));
+		assertTrue(sidecar(logId).exists());
+		checkMetadata(logId);
+	}
+
+
+	@Test
+	public void testCorruptSidecarRescanned() throws Exception {
+		long logId = logIds.get(1);
+		dropLedgersMap(logId);
+		runIndexer(id -> false);
+		assertEquals(1, indexer.getScannedEntryLogs());
+
+		// A ledger size flipped, the checksum doesn't match
+		try (RandomAccessFile file = new RandomAccessFile(sidecar(logId), "rw")) {
+			file.seek(file.length() - 8);
+			file.writeByte(file.readByte() ^ 0xff);
+		}
+		try {
+			entryLogger.readEntryLogMetadata(logId);
+			fail("The sidecar is corrupt");
+		} catch (IOException e) {
+			// Expected
+		}
+
+		runIndexer(id -> false);
+		assertEquals(1, indexer.getScannedEntryLogs());
+		assertEquals(0, indexer.getFailedEntryLogs());
+		checkMetadata(logId);
+	}
+
+
+	@Test
+	public void testTruncatedSidecarRescanned() throws Exception {
+		long logId = logIds.get(1);
+		dropLedgersMap(logId);
+		assertTrue(entryLogger.indexEntryLogMetadata(logId, null));
+
+		try (RandomAccessFile file = new RandomAccessFile(sidecar(logId), "rw")) {
+			file.setLength(10);
+		}
+		assertTrue(entryLogger.indexEntryLogMetadata(logId, null));
+		checkMetadata(logId);
+	}
+
+
+	@Test
+	public void testLogCompactedWhileScanned() throws Exception {
+		long logId = logIds.get(1);
+		dropLedgersMap(logId);
+
+		// The compaction removes the log in the middle of its scan
+		AtomicBoolean removed = new AtomicBoolean();
+		AbstractLogCompactor.Throttler compacting = new AbstractLogCompactor.Throttler(true, Integer.MAX_VALUE) {
+			@Override
+			public void acquire(int permits) throws IOException {
+				if (removed.compareAndSet(false, true)) {
+					assertTrue(entryLogger.removeEntryLog(logId));
+				}
+			}
+		};
+		try {
+			entryLogger.indexEntryLogMetadata(logId, compacting);
+			fail("The log was closed while scanned");
+		} catch (IOException e) {
+			// Expected
+		}
+		assertFalse(entryLogger.logExists(logId));
+		assertFalse(sidecar(logId).exists());
+	}
+
+
+	@Test
+	public void testLogCompactedOnceScanned() throws Exception {
+		dropLedgersMap(logIds.get(1));
+		dropLedgersMap(logIds.get(2));
+
+		// Removed with its sidecar, if any, before the sidecar is written
+		compactedOnceScanned = logIds.get(1);
+		runIndexer(logId -> false);
+		assertEquals(2, indexer.getScannedEntryLogs());
+		assertEquals(0, indexer.getFailedEntryLogs());
+		assertFalse(entryLogger.logExists(logIds.get(1)));
+		// No sidecar left behind
+		assertFalse(sidecar(logIds.get(1)).exists());
+		assertTrue(sidecar(logIds.get(2)).exists());
+	}
+
+
+	@Test
+	public void testLogCompactedBeforeIndexed() throws Exception {
+		dropLedgersMap(logIds.get(1));
+		dropLedgersMap(logIds.get(2));
+
+		// Removed by the compaction once the indexer listed it
+		runIndexer(logId -> {
+			if (logId == logIds.get(1)) {
+				entryLogger.removeEntryLog(logId);
+			}
+			return false;
+		});
+		assertEquals(1, indexer.getScannedEntryLogs());
+		assertEquals(0, indexer.getFailedEntryLogs());
+		assertFalse(sidecar(logIds.get(1)).exists());
+		assertTrue(sidecar(logIds.get(2)).exists());
+	}
+
+
+	/**
+	 * Write the entries of a few ledgers to each log, the logs are rolled and get a ledgers map.
+	 */
+	private void writeLogs() throws Exception {
+		DefaultEntryLogger writer = new DefaultEntryLogger(conf);
+		try {
+			long ledgerId = 1;
+			for (int log = 0; log < LOGS; log++) {
+				long location = 0;
+				for (int l = 0; l < LEDGERS_PER_LOG; l++, ledgerId++) {
+					for (int entryId = 0; entryId < ENTRIES_PER_LEDGER; entryId++) {
+						ByteBuf entry = Unpooled.buffer(128 + (int) (ledgerId * 16));
+						entry.writeLong(ledgerId);
+						entry.writeLong(entryId);
+						entry.writeZero(entry.writableBytes());
+						location = writer.addEntry(ledgerId, entry);
+						entry.release();
+					}
+				}
+				logIds.add(location >> 32);
+				((EntryLogManagerBase) writer.getEntryLogManager()).createNewLog(ledgerId);
+			}
+			writer.flush();
+		} finally {
+			writer.close();
+		}
+	}
+
+
+	/**
+	 * Reset the offset of the ledgers map in the header of the log, as in a log not closed cleanly.
+	 */
+	private void dropLedgersMap(long logId) throws Exception {
+		try (RandomAccessFile file = new RandomAccessFile(new File(currentDir, Long.toHexString(logId) + ".log"),
+				"rw")) {
+			file.seek(DefaultEntryLogger.LEDGERS_MAP_OFFSET_POSITION);
+			file.writeLong(0);
+		}
+		// Read again from the file
+		entryLogger.close();
+		entryLogger = newEntryLogger();
+	}
+
+
+	private DefaultEntryLogger newEntryLogger() throws Exception {
+		return new DefaultEntryLogger(conf) {
+			@Override
+			public void scanEntryLog(long entryLogId, EntryLogScanner scanner) throws IOException {
+				super.scanEntryLog(entryLogId, scanner);
+				if (entryLogId == compactedOnceScanned) {
+					assertTrue(removeEntryLog(entryLogId));
+				}
+			}
+		};
+	}
+
+
+	private void runIndexer(LongPredicate extracted) throws Exception {
+		if (indexer != null) {
+			indexer.shutdown();
+		}
+		indexer = new EntryLogMetadataIndexer(conf, entryLogger, extracted);
+		indexer.start();
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+		while (indexer.isRunning()) {
+			assertTrue("Indexer still running", System.nanoTime() < deadline);
+			Thread.sleep(10);
+		}
+	}
+
+
+	/**
+	 * Check that the metadata of the log is read without scanning it.
+	 */
+	private void checkMetadata(long logId) throws Exception {
+		assertEquals(expected.get(logId), ledgerSizes(entryLogger.readEntryLogMetadata(logId)));
+	}
+
+
+	private File sidecar(long logId) {
+		return EntryLogMetadataSidecar.sidecarFile(currentDir, logId);
+	}
+
+
+	private static Map<Long, Long> ledgerSizes(EntryLogMetadata metadata) {
+		Map<Long, Long> sizes = new HashMap<>();
+		metadata.getLedgersMap().forEach(sizes::put);
+		return sizes;
+	}
+}
@@ -0,0 +1,132 @@
+package org.apache.bookkeeper.bookie;
+
+import org.apache.bookkeeper.client.BookKeeper.DigestType;
+import org.apache.bookkeeper.client.LedgerEntry;
+import org.apache.bookkeeper.client.LedgerHandle;
+import org.apache.bookkeeper.client.conf.BookKeeperClusterTestCase;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+
+@RunWith(Parameterized.class)
+public class GarbageCollectorConcurrentCompactionTest extends BookKeeperClusterTestCase {
+
+	private static final byte[] PASSWORD = "p@SSw0rd".getBytes();
+
+	/** Entries added to each ledger, interleaved so that every entry log is half garbage once a ledger is deleted */
+	private static final int ENTRIES = 300;
+
+	private static final int ENTRY_SIZE = 1024;
+
+	/** Entry logs compacted concurrently */
+	private static final int COMPACTION_THREADS = 3;
+
+	/** Type of the persistent entry log metadata map */
+	private final String metadataMapType;
+
+	/** Compact through the incremental gc cycles instead of a forced gc */
+	private final boolean incremental;
+
+
+	public GarbageCollectorConcurrentCompactionTest(String metadataMapType, boolean incremental) {
+		super(1, 120);
+		this.metadataMapType = metadataMapType;
+		this.incremental = incremental;
+	}
+
+
+	@Parameterized.Parameters
+	public static Collection<Object[]> getParameters() {
+		return Arrays.asList(new Object[][]{
+				{"RocksDB", false},
+				{"RocksDB", true},
+				{"Mapped", false},
+				{"Mapped", true},
+		});
+	}
+
+
+	@Before
+	@Override
+	public void setUp() throws Exception {
+		baseConf.setJournalRemovePagesFromCache(false);
+		baseConf.setLedgerStorageClass(InterleavedLedgerStorage.class.getName());
+		baseConf.setEntryLogSizeLimit(64 * 1024);
+		// The metadata is passed by the persistent maps as recycled objects
+		baseConf.setGcEntryLogMetadataCacheEnabled(true);
+		baseConf.setGcEntryLogMetadataCacheType(metadataMapType);
+		baseConf.setCompactionThreads(COMPACTION_THREADS);
+		// The gc is only run by the test
+		baseConf.setGcWaitTime(3600 * 1000);
+		baseConf.setMajorCompactionInterval(7200);
+		baseConf.setMajorCompactionThreshold(0.8);
+		baseConf.setMinorCompactionThreshold(0);
+		super.setUp();
+	}
+
+
+	@Test
+	public void testConcurrentCompaction() throws Exception {
+		LedgerHandle kept = bkc.createLedger(1, 1, 1, DigestType.CRC32, PASSWORD);
+		LedgerHandle deleted = bkc.createLedger(1, 1, 1, DigestType.CRC32, PASSWORD);
+		for (int i = 0; i < ENTRIES; i++) {
+			kept.addEntry(entry(kept.getId(), i));
+			deleted.addEntry(entry(deleted.getId(), i));
+		}
+		kept.close();
+		deleted.close();
+		bkc.deleteLedger(deleted.getId());
+
+		InterleavedLedgerStorage storage = (InterleavedLedgerStorage) serverByIndex(0).getBookie().getLedgerStorage();
+		storage.flush();
+		Set<Long> entryLogs = new HashSet<>(storage.getEntryLogger().getFlushedLogIds());
+		assertTrue("Expected several entry logs, got " + entryLogs, entryLogs.size() > COMPACTION_THREADS);
+
+		GarbageCollectorThread gcThread = storage.gcThread;
+		if (incremental) {
+			gcThread.lastMajorCompactionTime = 0;
+			for (int tick = 0; tick < 100 && anyExists(storage, entryLogs); tick++) {
+				gcThread.runIncrementalTick(false, false);
+			}
+		} else {
+			gcThread.runWithFlags(true, false, false);
+		}
+
+		// All the entry logs were compacted and removed, which needs their actual metadata
+		for (long entryLogId : entryLogs) {
+			assertFalse("Entry log " + entryLogId + " was not compacted",
+					storage.getEntryLogger().logExists(entryLogId));
+		}
+
+		LedgerHandle reader = bkc.openLedger(kept.getId(), DigestType.CRC32, PASSWORD);
+		Enumeration<LedgerEntry> entries = reader.readEntries(0, ENTRIES - 1);
+		int entryId = 0;
+		while (entries.hasMoreElements()) {
+			assertArrayEquals(entry(kept.getId(), entryId++), entries.nextElement().getEntry());
+		}
+		assertEquals(ENTRIES, entryId);
+		reader.close();
+	}
+
+
+	private static boolean anyExists(InterleavedLedgerStorage storage, Set<Long> entryLogs) {
+		return entryLogs.stream().anyMatch(storage.getEntryLogger()::logExists);
+	}
+
+
+	private static byte[] entry(long ledgerId, int entryId) {
+		byte[] entry = new byte[ENTRY_SIZE];
+		Arrays.fill(entry, (byte) (ledgerId * 31 + entryId));
+		return entry;
+	}
+}
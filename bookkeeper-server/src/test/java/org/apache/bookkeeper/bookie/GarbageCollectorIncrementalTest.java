@@ -0,0 +1,239 @@
+package org.apache.bookkeeper.bookie;
+
+import org.apache.bookkeeper.bookie.AbstractLogCompactor.Throttler;
+import org.apache.bookkeeper.client.BookKeeper.DigestType;
+import org.apache.bookkeeper.client.LedgerEntry;
+import org.apache.bookkeeper.client.LedgerHandle;
+import org.apache.bookkeeper.client.conf.BookKeeperClusterTestCase;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+
+public class GarbageCollectorIncrementalTest extends BookKeeperClusterTestCase {
+
+	private static final byte[] PASSWORD = "p@SSw0rd".getBytes();
+
+	/** Entries added to each ledger, interleaved so that every entry log is half garbage once a ledger is deleted */
+	private static final int ENTRIES = 300;
+
+	private static final int ENTRY_SIZE = 1024;
+
+	/** Upper bound of the ticks of a cycle */
+	private static final int MAX_TICKS = 1000;
+
+	private InterleavedLedgerStorage storage;
+	private GarbageCollectorThread gcThread;
+	private LedgerHandle kept;
+	private Set<Long> entryLogs;
+
+
+	public GarbageCollectorIncrementalTest() {
+		super(1, 120);
+	}
+
+
+	@Before
+	@Override
+	public void setUp() throws Exception {
+		baseConf.setJournalRemovePagesFromCache(false);
+		baseConf.setLedgerStorageClass(InterleavedLedgerStorage.class.getName());
+		baseConf.setEntryLogSizeLimit(64 * 1024);
+		baseConf.setCompactionThreads(1);
+		baseConf.setGcIncrementalMaxEntryLogsPerTick(1);
+		// The gc is only run by the test
+		baseConf.setGcWaitTime(3600 * 1000);
+		baseConf.setMinorCompactionInterval(3600);
+		baseConf.setMinorCompactionThreshold(0.6);
+		baseConf.setMajorCompactionInterval(7200);
+		baseConf.setMajorCompactionThreshold(0.8);
+		super.setUp();
+
+		kept = bkc.createLedger(1, 1, 1, DigestType.CRC32, PASSWORD);
+		LedgerHandle deleted = bkc.createLedger(1, 1, 1, DigestType.CRC32, PASSWORD);
+		for (int i = 0; i < ENTRIES; i++) {
+			kept.addEntry(entry(kept.getId(), i));
+			deleted.addEntry(entry(deleted.getId(), i));
+		}
+		kept.close();
+		deleted.close();
+		bkc.deleteLedger(deleted.getId());
+
+		storage = (InterleavedLedgerStorage) serverByIndex(0).getBookie().getLedgerStorage();
+		storage.flush();
+		entryLogs = new HashSet<>(storage.getEntryLogger().getFlushedLogIds());
+		assertTrue("Expected several entry logs, got " + entryLogs, entryLogs.size() > 3);
+		gcThread = storage.gcThread;
+	}
+
+
+	@Test
+	public void testCycleResumedAcrossTicks() throws Exception {
+		gcThread.lastMajorCompactionTime = 0;
+		gcThread.runIncrementalTick(false, false);
+		// One entry log per tick
+		assertTrue(gcThread.isIncrementalGcCycleRunning());
+		assertEquals(0, gcThread.lastMajorCompactionTime);
+		assertEquals(entryLogs.size(), existing());
+
+		int ticks = 1;
+		int remaining = entryLogs.size();
+		while (gcThread.isIncrementalGcCycleRunning()) {
+			assertTrue(ticks++ < MAX_TICKS);
+			gcThread.runIncrementalTick(false, false);
+			int existing = existing();
+			assertTrue(remaining - existing <= 1);
+			remaining = existing;
+		}
+
+		// The entry logs were scanned then compacted, each in its own tick
+		assertTrue("Cycle completed in " + ticks + " ticks", ticks > 2 * entryLogs.size());
+		assertEquals(0, existing());
+		assertTrue(gcThread.lastMajorCompactionTime > 0);
+		checkKeptLedger();
+
+		// The next cycle waits for gcWaitTime
+		gcThread.runIncrementalTick(false, false);
+		assertFalse(gcThread.isIncrementalGcCycleRunning());
+	}
+
+
+	@Test
+	public void testSuspendMajorCompaction() throws Exception {
+		gcThread.lastMajorCompactionTime = 0;
+		runUntilCompacting(false, false);
+
+		// Suspended in the middle of the cycle, which then ends without compacting the other entry logs
+		gcThread.suspendMajorGC();
+		int remaining = existing();
+		gcThread.runIncrementalTick(true, false);
+		assertFalse(gcThread.isIncrementalGcCycleRunning());
+		assertTrue(remaining > 0);
+		assertEquals(remaining, existing());
+
+		// A new cycle doesn't compact while suspended
+		gcThread.lastMajorCompactionTime = 0;
+		gcThread.lastMinorCompactionTime = System.currentTimeMillis();
+		runCycle(true, false);
+		assertEquals(remaining, existing());
+		assertEquals(0, gcThread.lastMajorCompactionTime);
+
+		gcThread.resumeMajorGC();
+		runCycle(false, false);
+		assertEquals(0, existing());
+		assertTrue(gcThread.lastMajorCompactionTime > 0);
+		checkKeptLedger();
+	}
+
+
+	@Test
+	public void testSuspendMinorCompaction() throws Exception {
+		gcThread.lastMinorCompactionTime = 0;
+		runUntilCompacting(false, false);
+
+		gcThread.suspendMinorGC();
+		int remaining = existing();
+		gcThread.runIncrementalTick(false, true);
+		assertFalse(gcThread.isIncrementalGcCycleRunning());
+		assertTrue(remaining > 0);
+		assertEquals(remaining, existing());
+
+		gcThread.lastMinorCompactionTime = 0;
+		runCycle(false, true);
+		assertEquals(remaining, existing());
+		assertEquals(0, gcThread.lastMinorCompactionTime);
+
+		gcThread.resumeMinorGC();
+		runCycle(false, false);
+		assertEquals(0, existing());
+		assertTrue(gcThread.lastMinorCompactionTime > 0);
+		checkKeptLedger();
+	}
+
+
+	@Test
+	public void testCompactionTimeBudget() throws Exception {
+		gcThread.majorCompactionMaxTimeMillis = 1;
+		gcThread.lastMajorCompactionTime = 0;
+		runCycle(false, false);
+
+		// Only the first entry logs fit in the budget, the cycle still completed
+		assertTrue(existing() > 0);
+		assertTrue(gcThread.lastMajorCompactionTime > 0);
+
+		gcThread.majorCompactionMaxTimeMillis = 0;
+		gcThread.lastMajorCompactionTime = 0;
+		runCycle(false, false);
+		assertEquals(0, existing());
+		checkKeptLedger();
+	}
+
+
+	@Test
+	public void testPausedCompactionInterrupted() throws Exception {
+		Throttler throttler = new Throttler(false, 1000);
+		throttler.setPauseCondition(() -> true);
+		Thread.currentThread().interrupt();
+		try {
+			throttler.acquire(1);
+			fail("The paused compaction was interrupted");
+		} catch (IOException e) {
+			assertTrue(e.getCause() instanceof InterruptedException);
+		}
+		assertTrue(Thread.interrupted());
+	}
+
+
+	/**
+	 * Run the ticks of a new cycle until it compacted its first entry log.
+	 */
+	private void runUntilCompacting(boolean suspendMajor, boolean suspendMinor) {
+		int ticks = 0;
+		while (existing() == entryLogs.size()) {
+			assertTrue(ticks++ < MAX_TICKS);
+			gcThread.runIncrementalTick(suspendMajor, suspendMinor);
+		}
+		assertTrue(gcThread.isIncrementalGcCycleRunning());
+	}
+
+
+	private void runCycle(boolean suspendMajor, boolean suspendMinor) {
+		gcThread.lastIncrementalGcCycleStart = 0;
+		int ticks = 0;
+		do {
+			assertTrue(ticks++ < MAX_TICKS);
+			gcThread.runIncrementalTick(suspendMajor, suspendMinor);
+		} while (gcThread.isIncrementalGcCycleRunning());
+	}
+
+
+	private int existing() {
+		return (int) entryLogs.stream().filter(storage.getEntryLogger()::logExists).count();
+	}
+
+
+	private void checkKeptLedger() throws Exception {
+		LedgerHandle reader = bkc.openLedger(kept.getId(), DigestType.CRC32, PASSWORD);
+		Enumeration<LedgerEntry> entries = reader.readEntries(0, ENTRIES - 1);
+		int entryId = 0;
+		while (entries.hasMoreElements()) {
+			assertArrayEquals(entry(kept.getId(), entryId++), entries.nextElement().getEntry());
+		}
+		assertEquals(ENTRIES, entryId);
+		reader.close();
+	}
+
+
+	private static byte[] entry(long ledgerId, int entryId) {
+		byte[] entry = new byte[ENTRY_SIZE];
+		Arrays.fill(entry, (byte) (ledgerId * 31 + entryId));
+		return entry;
+	}
+}
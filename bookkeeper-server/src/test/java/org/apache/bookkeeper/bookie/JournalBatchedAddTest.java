@@ -0,0 +1,231 @@
+package org.apache.bookkeeper.bookie;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.apache.bookkeeper.client.conf.TestBKConfiguration;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteCallback;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+
+public class JournalBatchedAddTest {
+
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+
+	private static final long LEDGER_ID = 1234L;
+
+	private static final Object CTX = new Object();
+
+	private ServerConfiguration conf;
+	private File journalDir;
+	private LedgerDirsManager ledgerDirsManager;
+	private Journal journal;
+
+
+	@Before
+	public void configure() throws Exception {
+		File root = tmpDir.newFolder();
+		conf = TestBKConfiguration.newServerConfiguration();
+		conf.setJournalDirName(new File(root, "journal").getPath());
+		conf.setLedgerDirNames(new String[]{new File(root, "ledgers").getPath()});
+		conf.setJournalRemovePagesFromCache(false);
+		journalDir = BookieImpl.getCurrentDirectory(new File(root, "journal"));
+		BookieImpl.checkDirectoryStructure(journalDir);
+		File ledgerDir = BookieImpl.getCurrentDirectory(new File(root, "ledgers"));
+		BookieImpl.checkDirectoryStructure(ledgerDir);
+		ledgerDirsManager = new LedgerDirsManager(conf, conf.getLedgerDirs(),
+				new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()));
+	}
+
+
+	@After
+	public void shutdown() {
+		if (journal != null) {
+			journal.shutdown();
+		}
+	}
+
+
+	@Test
+	public void testBatchAcknowledgedPerEntry() throws Exception {
+		journal = newJournal();
+		journal.start();
+
+		List<Completion> completions = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch done = new CountDownLatch(5);
+		List<ByteBuf> entries = entries(0, 5);
+		List<WriteCallback> callbacks = new ArrayList<>();
+		for (int i = 0; i < entries.size(); i++) {
+			callbacks.add((rc, ledgerId, entryId, addr, ctx) -> {
+				completions.add(new Completion(rc, ledgerId, entryId, ctx));
+				done.countDown();
+			});
+		}
+		journal.logAddEntries(entries, false, callbacks, CTX);
+
+		// The journal holds its own references until the entries are written
+		entries.forEach(ByteBuf::release);
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+
+		// Each entry is acknowledged through its own callback, in order
+		assertEquals(5, completions.size());
+		for (int i = 0; i < completions.size(); i++) {
+			Completion completion = completions.get(i);
+			assertEquals(0, completion.rc);
+			assertEquals(LEDGER_ID, completion.ledgerId);
+			assertEquals(i, completion.entryId);
+			assertSame(CTX, completion.ctx);
+		}
+		for (ByteBuf entry : entries) {
+			assertEquals(0, entry.refCnt());
+		}
+		assertEquals(0, journal.getMemoryUsage());
+
+		// The entries are written as consecutive records
+		journal.shutdown();
+		journal = null;
+		List<Long> logged = new ArrayList<>();
+		for (long journalId : Journal.listJournalIds(journalDir, null)) {
+			newJournal().scanJournal(journalId, 0, (journalVersion, offset, entry) -> {
+				assertEquals(LEDGER_ID, entry.getLong());
+				logged.add(entry.getLong());
+			});
+		}
+		assertEquals(Arrays.asList(0L, 1L, 2L, 3L, 4L), logged);
+	}
+
+
+	@Test
+	public void testBatchCountsAgainstBufferedEntriesThreshold() throws Exception {
+		// The entries are only flushed once more than 3 are buffered, or after a long wait
+		conf.setJournalMaxGroupWaitMSec(60_000);
+		conf.setJournalBufferedEntriesThreshold(3);
+		conf.setJournalFlushWhenQueueEmpty(false);
+		journal = newJournal();
+		journal.start();
+
+		CountDownLatch done = new CountDownLatch(5);
+		List<ByteBuf> entries = entries(0, 5);
+		journal.logAddEntries(entries, false,
+				Collections.nCopies(5, (rc, ledgerId, entryId, addr, ctx) -> done.countDown()), CTX);
+		entries.forEach(ByteBuf::release);
+
+		// The entries of the batch went over the threshold when the next entry is queued
+		ByteBuf next = entries(5, 1).get(0);
+		journal.logAddEntry(next, false, (rc, ledgerId, entryId, addr, ctx) -> { }, CTX);
+		next.release();
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+	}
+
+
+	@Test
+	public void testRejectedBatchReleased() throws Exception {
+		// The journal is not started, so the memory reserved by the queued entries is never released
+		conf.setJournalMaxMemorySizeMb(1);
+		journal = newJournal();
+
+		List<ByteBuf> queued = entries(0, 2, 1024 * 1024);
+		journal.logAddEntries(queued, false, Collections.nCopies(2, (rc, ledgerId, entryId, addr, ctx) -> { }),
+				CTX);
+		long memoryUsage = journal.getMemoryUsage();
+		assertEquals(1, journal.getJournalQueueLength());
+
+		// The next batch waits for the memory and is rejected when interrupted
+		List<ByteBuf> rejected = entries(2, 3);
+		List<Integer> completions = Collections.synchronizedList(new ArrayList<>());
+		CompletableFuture<Void> result = new CompletableFuture<>();
+		Thread adder = new Thread(() -> {
+			try {
+				journal.logAddEntries(rejected, false,
+						Collections.nCopies(3, (rc, ledgerId, entryId, addr, ctx) -> completions.add(rc)), CTX);
+				result.complete(null);
+			} catch (Throwable t) {
+				result.completeExceptionally(t);
+			}
+		});
+		adder.start();
+		while (adder.getState() != Thread.State.WAITING && !result.isDone()) {
+			Thread.sleep(1);
+		}
+		adder.interrupt();
+		try {
+			result.get(10, TimeUnit.SECONDS);
+			fail("The batch should be rejected");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof InterruptedException);
+		}
+
+		// Only the references of the caller remain, and nothing of the batch is left queued
+		for (ByteBuf entry : rejected) {
+			assertEquals(1, entry.refCnt());
+			entry.release();
+		}
+		assertEquals(memoryUsage, journal.getMemoryUsage());
+		assertEquals(1, journal.getJournalQueueLength());
+		assertTrue(completions.isEmpty());
+
+		for (ByteBuf entry : queued) {
+			assertEquals(2, entry.refCnt());
+			entry.release();
+		}
+	}
+
+
+	private Journal newJournal() {
+		return new Journal(0, journalDir, conf, ledgerDirsManager);
+	}
+
+
+	private static List<ByteBuf> entries(long startEntryId, int count) {
+		return entries(startEntryId, count, 128);
+	}
+
+
+	private static List<ByteBuf> entries(long startEntryId, int count, int size) {
+		List<ByteBuf> entries = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			ByteBuf entry = Unpooled.buffer(size);
+			entry.writeLong(LEDGER_ID);
+			entry.writeLong(startEntryId + i);
+			entry.writeZero(size - 16);
+			entries.add(entry);
+		}
+		return entries;
+	}
+
+
+	/**
+	 * Arguments of a write callback.
+	 */
+	private static class Completion {
+		final int rc;
+		final long ledgerId;
+		final long entryId;
+		final Object ctx;
+
+		Completion(int rc, long ledgerId, long entryId, Object ctx) {
+			this.rc = rc;
+			this.ledgerId = ledgerId;
+			this.entryId = entryId;
+			this.ctx = ctx;
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package org.apache.bookkeeper.bookie;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+
+public class JournalGroupCommitControllerTest {
+
+	private static final long TARGET_LATENCY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	private static final long MAX_GROUP_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+	private static final long MAX_GROUP_ENTRIES = 1000;
+
+	/** Period over which the arrival rate is measured */
+	private static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	private long now;
+
+
+	@Test
+	public void testNoWaitAtLowRate() {
+		JournalGroupCommitController controller = newController(MAX_GROUP_ENTRIES);
+		controller.recordCommitLatency(TimeUnit.MILLISECONDS.toNanos(1));
+
+		// One entry every 10 ms, none expected in the 5 ms of wait
+		nextWindow(controller, 1);
+		assertEquals(0, controller.getGroupWaitNanos());
+		assertEquals(MAX_GROUP_ENTRIES, controller.getGroupEntries());
+	}
+
+
+	@Test
+	public void testWaitAtHighRate() {
+		JournalGroupCommitController controller = newController(MAX_GROUP_ENTRIES);
+		controller.recordCommitLatency(TimeUnit.MILLISECONDS.toNanos(1));
+
+		// 10 entries per ms, the wait is bounded by the max wait and the group by the entries expected meanwhile
+		nextWindow(controller, 100);
+		assertEquals(MAX_GROUP_WAIT_NANOS, controller.getGroupWaitNanos());
+		assertEquals(50, controller.getGroupEntries(), 1);
+		assertEquals(10_000, controller.getArrivalsPerSecond(), 100);
+	}
+
+
+	@Test
+	public void testGroupEntriesBounded() {
+		JournalGroupCommitController controller = newController(20);
+		controller.recordCommitLatency(TimeUnit.MILLISECONDS.toNanos(1));
+		nextWindow(controller, 100);
+		assertEquals(MAX_GROUP_WAIT_NANOS, controller.getGroupWaitNanos());
+		assertEquals(20, controller.getGroupEntries());
+	}
+
+
+	@Test
+	public void testWaitShrinksWithCommitLatency() {
+		JournalGroupCommitController controller = newController(MAX_GROUP_ENTRIES);
+		controller.recordCommitLatency(TimeUnit.MILLISECONDS.toNanos(8));
+
+		// Only 2 ms left in the target after the commit
+		nextWindow(controller, 100);
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(2), controller.getGroupWaitNanos());
+		assertEquals(20, controller.getGroupEntries(), 1);
+
+		// The commits alone are over the target
+		for (int i = 0; i < 50; i++) {
+			controller.recordCommitLatency(TimeUnit.MILLISECONDS.toNanos(12));
+		}
+		nextWindow(controller, 100);
+		assertEquals(0, controller.getGroupWaitNanos());
+		assertEquals(MAX_GROUP_ENTRIES, controller.getGroupEntries());
+	}
+
+
+	@Test
+	public void testCommitLatencyP99() {
+		JournalGroupCommitController controller = newController(MAX_GROUP_ENTRIES);
+		controller.recordCommitLatency(TimeUnit.MILLISECONDS.toNanos(2));
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(2), controller.getCommitLatencyP99Nanos());
+
+		// Jittery commits leave less time to wait than steady ones of the same average
+		for (int i = 0; i < 100; i++) {
+			controller.recordCommitLatency(TimeUnit.MILLISECONDS.toNanos(i % 2 == 0 ? 2 : 4));
+		}
+		long p99 = controller.getCommitLatencyP99Nanos();
+		assertTrue(p99 > TimeUnit.MILLISECONDS.toNanos(5));
+		assertTrue(p99 < TimeUnit.MILLISECONDS.toNanos(8));
+		nextWindow(controller, 1000);
+		assertEquals(TARGET_LATENCY_NANOS - p99, controller.getGroupWaitNanos());
+	}
+
+
+	@Test
+	public void testAdaptsToRateChanges() {
+		JournalGroupCommitController controller = newController(MAX_GROUP_ENTRIES);
+		controller.recordCommitLatency(TimeUnit.MILLISECONDS.toNanos(1));
+		nextWindow(controller, 100);
+		long highRateEntries = controller.getGroupEntries();
+
+		// The rate is a moving average, the wait stops once it dropped enough
+		nextWindow(controller, 10);
+		assertTrue(controller.getGroupEntries() < highRateEntries);
+		assertEquals(MAX_GROUP_WAIT_NANOS, controller.getGroupWaitNanos());
+		for (int i = 0; i < 30; i++) {
+			nextWindow(controller, 0);
+		}
+		assertEquals(0, controller.getGroupWaitNanos());
+
+		// And starts again when the rate picks up
+		for (int i = 0; i < 10; i++) {
+			nextWindow(controller, 100);
+		}
+		assertEquals(MAX_GROUP_WAIT_NANOS, controller.getGroupWaitNanos());
+	}
+
+
+	@Test
+	public void testUpdatedOncePerWindow() {
+		JournalGroupCommitController controller = newController(MAX_GROUP_ENTRIES);
+		controller.recordCommitLatency(TimeUnit.MILLISECONDS.toNanos(1));
+		controller.recordArrivals(1000, now + WINDOW_NANOS / 2);
+		assertEquals(0, controller.getGroupWaitNanos());
+		assertEquals(0, controller.getArrivalsPerSecond(), 0);
+
+		controller.recordArrivals(0, now + WINDOW_NANOS);
+		assertEquals(MAX_GROUP_WAIT_NANOS, controller.getGroupWaitNanos());
+	}
+
+
+	private JournalGroupCommitController newController(long maxGroupEntries) {
+		JournalGroupCommitController controller = new JournalGroupCommitController(TARGET_LATENCY_NANOS,
+				MAX_GROUP_WAIT_NANOS, maxGroupEntries);
+		now = System.nanoTime();
+		return controller;
+	}
+
+
+	private void nextWindow(JournalGroupCommitController controller, int arrivals) {
+		now += WINDOW_NANOS;
+		controller.recordArrivals(arrivals, now);
+	}
+}
@@ -0,0 +1,226 @@
+package org.apache.bookkeeper.bookie;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.apache.bookkeeper.client.conf.TestBKConfiguration;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteCallback;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+
+public class JournalPipelinedWritesTest {
+
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+
+	private static final long LEDGER_ID = 1234L;
+
+	/** How long an add is checked not to be acknowledged */
+	private static final long NOT_ACKED_MILLIS = 500;
+
+	private ServerConfiguration conf;
+	private File journalDir;
+	private LedgerDirsManager ledgerDirsManager;
+	private ExecutorService writeExecutor;
+	private volatile GatedChannel channel;
+	private Journal journal;
+
+
+	@Before
+	public void configure() throws Exception {
+		File root = tmpDir.newFolder();
+		conf = TestBKConfiguration.newServerConfiguration();
+		conf.setJournalDirName(new File(root, "journal").getPath());
+		conf.setLedgerDirNames(new String[]{new File(root, "ledgers").getPath()});
+		conf.setJournalRemovePagesFromCache(false);
+		conf.setJournalPipelinedWritesEnabled(true);
+		// Only synced when required
+		conf.setJournalPageCacheFlushIntervalMSec(3600 * 1000);
+		journalDir = BookieImpl.getCurrentDirectory(new File(root, "journal"));
+		BookieImpl.checkDirectoryStructure(journalDir);
+		File ledgerDir = BookieImpl.getCurrentDirectory(new File(root, "ledgers"));
+		BookieImpl.checkDirectoryStructure(ledgerDir);
+		ledgerDirsManager = new LedgerDirsManager(conf, conf.getLedgerDirs(),
+				new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()));
+		writeExecutor = Executors.newSingleThreadExecutor();
+	}
+
+
+	@After
+	public void shutdown() {
+		if (journal != null) {
+			journal.shutdown();
+		}
+		writeExecutor.shutdownNow();
+	}
+
+
+	@Test
+	public void testAckedOnceWrittenAndSynced() throws Exception {
+		conf.setJournalSyncData(true);
+		startJournal();
+
+		// The write is queued behind the gate
+		CountDownLatch writeGate = blockWrites();
+		int forces = channel.forces.get();
+		Ack ack = addEntry(1, false);
+		assertFalse(ack.done.await(NOT_ACKED_MILLIS, TimeUnit.MILLISECONDS));
+
+		ack.writeReleased = true;
+		writeGate.countDown();
+		assertTrue(ack.done.await(10, TimeUnit.SECONDS));
+		assertEquals(0, ack.rc);
+		assertTrue(ack.releasedWhenAcked);
+		assertTrue(ack.forcesWhenAcked > forces);
+	}
+
+
+	@Test
+	public void testUnsyncedAckWaitsForWrite() throws Exception {
+		conf.setJournalSyncData(false);
+		startJournal();
+
+		CountDownLatch writeGate = blockWrites();
+		int forces = channel.forces.get();
+		Ack ack = addEntry(1, false);
+		assertFalse(ack.done.await(NOT_ACKED_MILLIS, TimeUnit.MILLISECONDS));
+
+		ack.writeReleased = true;
+		writeGate.countDown();
+		assertTrue(ack.done.await(10, TimeUnit.SECONDS));
+		assertTrue(ack.releasedWhenAcked);
+		// Acked without a sync
+		assertEquals(forces, ack.forcesWhenAcked);
+		assertEquals(forces, channel.forces.get());
+	}
+
+
+	@Test
+	public void testAckBeforeSyncWaitsForWriteOnly() throws Exception {
+		conf.setJournalSyncData(true);
+		startJournal();
+
+		CountDownLatch writeGate = blockWrites();
+		CountDownLatch forceGate = new CountDownLatch(1);
+		channel.forceGate = forceGate;
+		Ack early = addEntry(1, true);
+		Ack synced = addEntry(2, false);
+		assertFalse(early.done.await(NOT_ACKED_MILLIS, TimeUnit.MILLISECONDS));
+
+		// Written but not synced: only the entry that doesn't wait for the sync is acked
+		early.writeReleased = true;
+		writeGate.countDown();
+		assertTrue(early.done.await(10, TimeUnit.SECONDS));
+		assertTrue(early.releasedWhenAcked);
+		assertFalse(synced.done.await(NOT_ACKED_MILLIS, TimeUnit.MILLISECONDS));
+
+		forceGate.countDown();
+		assertTrue(synced.done.await(10, TimeUnit.SECONDS));
+	}
+
+
+	/**
+	 * Start the journal and wait for its first entry, the journal file is then created.
+	 */
+	private void startJournal() throws Exception {
+		journal = new Journal(0, journalDir, conf, ledgerDirsManager) {
+			@Override
+			public BufferedChannelBuilder getBufferedChannelBuilder() {
+				return (FileChannel fc, int capacity) -> channel = new GatedChannel(fc, capacity, writeExecutor);
+			}
+		};
+		journal.start();
+		Ack first = addEntry(0, false);
+		assertTrue(first.done.await(10, TimeUnit.SECONDS));
+		assertNotNull(channel);
+	}
+
+
+	/**
+	 * @return the gate of the next journal writes
+	 */
+	private CountDownLatch blockWrites() {
+		CountDownLatch gate = new CountDownLatch(1);
+		writeExecutor.submit(() -> {
+			gate.await();
+			return null;
+		});
+		return gate;
+	}
+
+
+	private Ack addEntry(long entryId, boolean ackBeforeSync) throws Exception {
+		Ack ack = new Ack();
+		ByteBuf entry = Unpooled.buffer(128);
+		entry.writeLong(LEDGER_ID);
+		entry.writeLong(entryId);
+		entry.writeZero(112);
+		journal.logAddEntry(entry, ackBeforeSync, ack, null);
+		entry.release();
+		return ack;
+	}
+
+
+	/**
+	 * A pipelined journal channel whose syncs are counted, and can be held.
+	 */
+	private static class GatedChannel extends PipelinedBufferedChannel {
+		final AtomicInteger forces = new AtomicInteger();
+		volatile CountDownLatch forceGate = new CountDownLatch(0);
+
+		GatedChannel(FileChannel fc, int capacity, ExecutorService writeExecutor) throws IOException {
+			super(UnpooledByteBufAllocator.DEFAULT, fc, capacity, writeExecutor);
+		}
+
+		@Override
+		public long forceWrite(boolean forceMetadata) throws IOException {
+			try {
+				forceGate.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			}
+			long position = super.forceWrite(forceMetadata);
+			forces.incrementAndGet();
+			return position;
+		}
+	}
+
+
+	/**
+	 * Write callback recording the state of the test when the add is acknowledged.
+	 */
+	private class Ack implements WriteCallback {
+		final CountDownLatch done = new CountDownLatch(1);
+		volatile boolean writeReleased;
+		volatile int rc = -1;
+		volatile boolean releasedWhenAcked;
+		volatile int forcesWhenAcked;
+
+		@Override
+		public void writeComplete(int rc, long ledgerId, long entryId, BookieId addr, Object ctx) {
+			this.rc = rc;
+			this.releasedWhenAcked = writeReleased;
+			this.forcesWhenAcked = channel.forces.get();
+			done.countDown();
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package org.apache.bookkeeper.bookie;
+
+import org.apache.bookkeeper.bookie.stats.JournalStats;
+import org.apache.bookkeeper.client.util.TestStatsProvider;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+
+public class JournalRouterTest {
+
+	private static final int JOURNALS = 3;
+
+	private static final long IDLE_LEDGER_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+	private final TestStatsProvider statsProvider = new TestStatsProvider();
+	private final List<Journal> journals = new ArrayList<>();
+	private final List<JournalStats> stats = new ArrayList<>();
+	private long now;
+
+
+	@Before
+	public void setup() {
+		for (int i = 0; i < JOURNALS; i++) {
+			Journal journal = mock(Journal.class);
+			JournalStats journalStats = new JournalStats(statsProvider.getStatsLogger("journal-" + i), 0, () -> 0L);
+			when(journal.getJournalStats()).thenReturn(journalStats);
+			when(journal.getAvgCommitLatencyNanos()).thenReturn(1000.0);
+			journals.add(journal);
+			stats.add(journalStats);
+		}
+	}
+
+
+	@Test
+	public void testModuloRouting() {
+		JournalRouter router = new JournalRouter(journals, false, IDLE_LEDGER_MILLIS, () -> now);
+		setQueueLength(0, 1000);
+		for (long ledgerId = 0; ledgerId < 10; ledgerId++) {
+			assertSame(journals.get((int) (ledgerId % JOURNALS)), router.getJournal(ledgerId));
+			assertFalse(router.isAssigned(ledgerId));
+		}
+	}
+
+
+	@Test
+	public void testLeastLoadedJournal() {
+		JournalRouter router = new JournalRouter(journals, true, IDLE_LEDGER_MILLIS, () -> now);
+		// Idle journals, the ledgers are spread by their ids
+		for (long ledgerId = 0; ledgerId < JOURNALS; ledgerId++) {
+			assertSame(journals.get((int) ledgerId), router.getJournal(ledgerId));
+		}
+
+		// Slow commits count as much as a deep queue
+		setQueueLength(0, 10);
+		when(journals.get(1).getAvgCommitLatencyNanos()).thenReturn(100_000.0);
+		assertSame(journals.get(2), router.getJournal(3));
+		assertRouted(1, 1, 2);
+	}
+
+
+	@Test
+	public void testStickyAssignment() {
+		JournalRouter router = new JournalRouter(journals, true, IDLE_LEDGER_MILLIS, () -> now);
+		assertSame(journals.get(1), router.getJournal(1));
+
+		// The ledger stays on its journal once the journal is loaded
+		setQueueLength(1, 1000);
+		for (int i = 0; i < 10; i++) {
+			assertSame(journals.get(1), router.getJournal(1));
+		}
+		assertNotSame(journals.get(1), router.getJournal(4));
+		assertRouted(0, 1, 1);
+	}
+
+
+	@Test
+	public void testAssignmentRemovedOnDelete() {
+		JournalRouter router = new JournalRouter(journals, true, IDLE_LEDGER_MILLIS, () -> now);
+		router.getJournal(1);
+		router.getJournal(2);
+		assertRouted(0, 1, 1);
+
+		router.ledgerDeleted(1);
+		assertFalse(router.isAssigned(1));
+		assertRouted(0, 0, 1);
+		// Not assigned
+		router.ledgerDeleted(1);
+		router.ledgerDeleted(5);
+		assertRouted(0, 0, 1);
+
+		// Routed again from the load
+		setQueueLength(1, 1000);
+		setQueueLength(2, 1000);
+		assertSame(journals.get(0), router.getJournal(1));
+	}
+
+
+	@Test
+	public void testIdleLedgersEvicted() {
+		JournalRouter router = new JournalRouter(journals, true, IDLE_LEDGER_MILLIS, () -> now);
+		router.getJournal(1);
+		router.getJournal(2);
+		setQueueLength(1, 1000);
+
+		// Ledger 1 is still written, ledger 2 is idle
+		now += IDLE_LEDGER_MILLIS;
+		assertSame(journals.get(1), router.getJournal(1));
+		assertTrue(router.isAssigned(2));
+		now += IDLE_LEDGER_MILLIS;
+		assertSame(journals.get(1), router.getJournal(1));
+		assertTrue(router.isAssigned(1));
+		assertFalse(router.isAssigned(2));
+		assertRouted(0, 1, 0);
+
+		// A deleted ledger of the previous period is also forgotten
+		now += IDLE_LEDGER_MILLIS;
+		assertSame(journals.get(2), router.getJournal(4));
+		router.ledgerDeleted(1);
+		assertFalse(router.isAssigned(1));
+		assertRouted(0, 0, 1);
+
+		// An evicted ledger written again is routed from the load
+		setQueueLength(2, 1000);
+		assertSame(journals.get(0), router.getJournal(2));
+		assertRouted(1, 0, 1);
+	}
+
+
+	@Test
+	public void testIdleEvictionDisabled() {
+		JournalRouter router = new JournalRouter(journals, true, 0, () -> now);
+		router.getJournal(1);
+		now += 100 * IDLE_LEDGER_MILLIS;
+		router.getJournal(2);
+		assertTrue(router.isAssigned(1));
+		assertRouted(0, 1, 1);
+	}
+
+
+	private void setQueueLength(int journal, int length) {
+		when(journals.get(journal).getQueueLength()).thenReturn(length);
+	}
+
+
+	private void assertRouted(long... routed) {
+		for (int i = 0; i < JOURNALS; i++) {
+			assertEquals("Ledgers routed to journal " + i, routed[i], (long) stats.get(i).getRoutedLedgers().get());
+		}
+	}
+}
@@ -0,0 +1,217 @@
+package org.apache.bookkeeper.bookie;
+
+import org.apache.bookkeeper.util.BookKeeperConstants;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+
+public class MappedEntryLogMetadataMapTest {
+
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+
+	/** Holds 14 records of 2 ledgers */
+	private static final int SEGMENT_SIZE = 1024;
+
+	/** Size of the header of a segment */
+	private static final int SEGMENT_HEADER_SIZE = 16;
+
+	/** Size of a record of 2 ledgers */
+	private static final int RECORD_SIZE = 40 + 2 * 16;
+
+	private File segmentsDir;
+	private MappedEntryLogMetadataMap map;
+
+
+	@Before
+	public void setup() throws Exception {
+		segmentsDir = new File(tmpDir.getRoot(), BookKeeperConstants.ENTRYLOG_METADATA_MAP);
+		map = open();
+	}
+
+
+	@After
+	public void shutdown() throws Exception {
+		map.close();
+	}
+
+
+	@Test
+	public void testReopen() throws Exception {
+		for (long logId = 0; logId < 10; logId++) {
+			map.put(logId, metadata(logId, 2));
+		}
+		// Rewritten in place
+		EntryLogMetadata shrunk = metadata(1, 2);
+		shrunk.removeLedgerIf(ledgerId -> ledgerId == 100);
+		map.put(1, shrunk);
+		// Appended, the old record is dead
+		map.put(2, metadata(2, 5));
+		map.remove(3);
+
+		reopen();
+		assertEquals(9, map.size());
+		assertFalse(map.containsKey(3));
+		check(1, shrunk);
+		check(2, metadata(2, 5));
+		for (long logId = 4; logId < 10; logId++) {
+			check(logId, metadata(logId, 2));
+		}
+
+		List<Long> logIds = new ArrayList<>();
+		map.forEach((logId, metadata) -> logIds.add(logId));
+		assertEquals(9, logIds.size());
+	}
+
+
+	@Test
+	public void testTornRecordDropped() throws Exception {
+		for (long logId = 0; logId < 3; logId++) {
+			map.put(logId, metadata(logId, 2));
+		}
+		map.close();
+
+		// The size of the last ledger of the second record was half written
+		try (RandomAccessFile segment = new RandomAccessFile(new File(segmentsDir, "0.seg"), "rw")) {
+			segment.seek(SEGMENT_HEADER_SIZE + 2 * RECORD_SIZE - 4);
+			segment.writeInt(0xdead);
+		}
+
+		map = open();
+		// Only the headers are read when loading
+		assertTrue(map.containsKey(1));
+		map.forKey(1, (logId, metadata) -> assertNull(metadata));
+		assertFalse(map.containsKey(1));
+		check(0, metadata(0, 2));
+		check(2, metadata(2, 2));
+
+		// Extracted again
+		map.put(1, metadata(1, 2));
+		reopen();
+		check(1, metadata(1, 2));
+	}
+
+
+	@Test
+	public void testTornHeaderEndsSegment() throws Exception {
+		for (long logId = 0; logId < 3; logId++) {
+			map.put(logId, metadata(logId, 2));
+		}
+		map.close();
+
+		// The header of the second record is garbage, the following records can't be found
+		try (RandomAccessFile segment = new RandomAccessFile(new File(segmentsDir, "0.seg"), "rw")) {
+			segment.seek(SEGMENT_HEADER_SIZE + RECORD_SIZE);
+			segment.writeInt(7);
+		}
+
+		map = open();
+		assertEquals(1, map.size());
+		check(0, metadata(0, 2));
+
+		// Appended after the valid records
+		map.put(1, metadata(1, 2));
+		map.put(2, metadata(2, 2));
+		reopen();
+		assertEquals(3, map.size());
+		for (long logId = 0; logId < 3; logId++) {
+			check(logId, metadata(logId, 2));
+		}
+	}
+
+
+	@Test
+	public void testSegmentCompaction() throws Exception {
+		for (long logId = 0; logId < 40; logId++) {
+			map.put(logId, metadata(logId, 2));
+		}
+		assertTrue(new File(segmentsDir, "0.seg").exists());
+		assertTrue(new File(segmentsDir, "2.seg").exists());
+
+		// Half of the records of the first segment are dead, its other records are moved
+		for (long logId = 0; logId < 6; logId++) {
+			map.remove(logId);
+		}
+		assertTrue(new File(segmentsDir, "0.seg").exists());
+		map.remove(6);
+		assertFalse(new File(segmentsDir, "0.seg").exists());
+
+		for (long logId = 7; logId < 40; logId++) {
+			check(logId, metadata(logId, 2));
+		}
+		reopen();
+		assertEquals(33, map.size());
+		for (long logId = 7; logId < 40; logId++) {
+			check(logId, metadata(logId, 2));
+		}
+	}
+
+
+	@Test
+	public void testDuplicateRecordAfterCrash() throws Exception {
+		map.put(0, metadata(0, 2));
+		map.close();
+
+		// Moved to a larger record, the crash happened before the old one was marked dead
+		File segment = new File(segmentsDir, "0.seg");
+		byte[] record = new byte[RECORD_SIZE];
+		try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+			file.seek(SEGMENT_HEADER_SIZE);
+			file.readFully(record);
+		}
+		map = open();
+		map.put(0, metadata(0, 3));
+		map.close();
+		try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+			file.seek(SEGMENT_HEADER_SIZE);
+			file.write(record);
+		}
+
+		// The latest record wins
+		map = open();
+		assertEquals(1, map.size());
+		check(0, metadata(0, 3));
+	}
+
+
+	private MappedEntryLogMetadataMap open() throws Exception {
+		return new MappedEntryLogMetadataMap(tmpDir.getRoot().getPath(), SEGMENT_SIZE);
+	}
+
+
+	private void reopen() throws Exception {
+		map.close();
+		map = open();
+	}
+
+
+	private void check(long logId, EntryLogMetadata expected) throws Exception {
+		map.forKey(logId, (entryLogId, metadata) -> {
+			assertNotNull("Missing entry log " + logId, metadata);
+			assertEquals(expected.getTotalSize(), metadata.getTotalSize());
+			assertEquals(expected.getRemainingSize(), metadata.getRemainingSize());
+			assertEquals(expected.getLedgersMap().size(), metadata.getLedgersMap().size());
+			expected.getLedgersMap().forEach((ledgerId, size) ->
+					assertEquals(size, metadata.getLedgersMap().get(ledgerId)));
+		});
+	}
+
+
+	private static EntryLogMetadata metadata(long logId, int ledgers) {
+		EntryLogMetadata metadata = new EntryLogMetadata(logId);
+		for (int i = 0; i < ledgers; i++) {
+			metadata.addLedgerSize(100 + i, 1000 * (logId + 1) + i);
+		}
+		return metadata;
+	}
+}
@@ -0,0 +1,247 @@
+package org.apache.bookkeeper.bookie;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.apache.bookkeeper.bookie.Journal.JournalScanner;
+import org.apache.bookkeeper.client.conf.TestBKConfiguration;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+
+public class ParallelJournalScannerTest {
+
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+
+	private static final int LEDGERS = 20;
+
+	private static final int ENTRIES_PER_LEDGER = 50;
+
+	private static final int REPLAY_THREADS = 4;
+
+	/** Size of the entries of the memory bound tests */
+	private static final int ENTRY_SIZE = 1024;
+
+
+	@Test
+	public void testParallelReplayEqualsSequentialReplay() throws Exception {
+		File journalDir = writeJournal();
+		Journal journal = newJournal(journalDir);
+		List<Long> journalIds = Journal.listJournalIds(journalDir, null);
+		assertFalse(journalIds.isEmpty());
+
+		RecordingScanner sequential = new RecordingScanner();
+		List<Long> sequentialOffsets = new ArrayList<>();
+		for (long journalId : journalIds) {
+			sequentialOffsets.add(journal.scanJournal(journalId, 0, sequential));
+		}
+
+		// Few pending bytes, so that the reader is regularly held by the memory bound
+		RecordingScanner recording = new RecordingScanner();
+		List<Long> parallelOffsets = new ArrayList<>();
+		try (ParallelJournalScanner parallel = new ParallelJournalScanner(recording, REPLAY_THREADS, 4 * ENTRY_SIZE)) {
+			for (long journalId : journalIds) {
+				parallelOffsets.add(journal.scanJournal(journalId, 0, parallel));
+				parallel.waitForCompletion();
+			}
+		}
+
+		assertEquals(sequentialOffsets, parallelOffsets);
+		assertEquals(LEDGERS, sequential.entries.size());
+		assertEquals(sequential.entries.keySet(), recording.entries.keySet());
+		for (Map.Entry<Long, List<String>> e : sequential.entries.entrySet()) {
+			assertEquals(ENTRIES_PER_LEDGER, e.getValue().size());
+			// Same entries, in the same order for a ledger
+			assertEquals(e.getValue(), recording.entries.get(e.getKey()));
+		}
+		assertTrue(recording.threads.size() > 1);
+	}
+
+
+	@Test
+	public void testPendingBytesBounded() throws Exception {
+		CountDownLatch replayGate = new CountDownLatch(1);
+		AtomicInteger replayed = new AtomicInteger();
+		JournalScanner blocked = (journalVersion, offset, entry) -> {
+			try {
+				replayGate.await();
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			replayed.incrementAndGet();
+		};
+
+		try (ParallelJournalScanner parallel = new ParallelJournalScanner(blocked, REPLAY_THREADS, 4 * ENTRY_SIZE)) {
+			AtomicInteger dispatched = new AtomicInteger();
+			Thread reader = new Thread(() -> {
+				try {
+					for (int i = 0; i < 10; i++) {
+						parallel.process(JournalChannel.CURRENT_JOURNAL_FORMAT_VERSION, i, entry(i, i, ENTRY_SIZE));
+						dispatched.incrementAndGet();
+					}
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			});
+			reader.start();
+
+			// The reader is held once 4 entries are pending
+			while (reader.getState() != Thread.State.WAITING) {
+				Thread.sleep(1);
+			}
+			assertEquals(4, dispatched.get());
+			assertEquals(0, replayed.get());
+
+			replayGate.countDown();
+			reader.join(10_000);
+			assertEquals(10, dispatched.get());
+			parallel.waitForCompletion();
+			assertEquals(10, replayed.get());
+		}
+	}
+
+
+	@Test
+	public void testEntryLargerThanBound() throws Exception {
+		RecordingScanner recording = new RecordingScanner();
+		try (ParallelJournalScanner parallel = new ParallelJournalScanner(recording, REPLAY_THREADS, ENTRY_SIZE)) {
+			parallel.process(JournalChannel.CURRENT_JOURNAL_FORMAT_VERSION, 0, entry(1, 0, 4 * ENTRY_SIZE));
+			parallel.process(JournalChannel.CURRENT_JOURNAL_FORMAT_VERSION, 1, entry(1, 1, 4 * ENTRY_SIZE));
+			parallel.waitForCompletion();
+		}
+		assertEquals(2, recording.entries.get(1L).size());
+	}
+
+
+	@Test
+	public void testReplayErrorPropagated() throws Exception {
+		JournalScanner failing = (journalVersion, offset, entry) -> {
+			if (entry.getLong(0) == 3) {
+				throw new IOException("Failed to replay");
+			}
+		};
+		try (ParallelJournalScanner parallel = new ParallelJournalScanner(failing, REPLAY_THREADS, 4 * ENTRY_SIZE)) {
+			// Thrown by the next entry read, or once the replay is complete
+			try {
+				for (int i = 0; i < 10; i++) {
+					parallel.process(JournalChannel.CURRENT_JOURNAL_FORMAT_VERSION, i, entry(i, 0, ENTRY_SIZE));
+				}
+				parallel.waitForCompletion();
+				fail("The replay of ledger 3 failed");
+			} catch (IOException e) {
+				assertEquals("Failed to replay", e.getMessage());
+			}
+			try {
+				parallel.process(JournalChannel.CURRENT_JOURNAL_FORMAT_VERSION, 10, entry(10, 0, ENTRY_SIZE));
+				fail("The replay already failed");
+			} catch (IOException e) {
+				assertEquals("Failed to replay", e.getMessage());
+			}
+		}
+	}
+
+
+	@Test
+	public void testSingleThreadReplaysInline() throws Exception {
+		RecordingScanner recording = new RecordingScanner();
+		try (ParallelJournalScanner parallel = new ParallelJournalScanner(recording, 1, ENTRY_SIZE)) {
+			ByteBuffer entry = entry(1, 0, ENTRY_SIZE);
+			parallel.process(JournalChannel.CURRENT_JOURNAL_FORMAT_VERSION, 0, entry);
+			assertEquals(Collections.singleton(Thread.currentThread()), recording.threads);
+			assertEquals(1, recording.entries.get(1L).size());
+		}
+	}
+
+
+	/**
+	 * Write the entries of the ledgers interleaved, with various sizes.
+	 *
+	 * @return the journal directory
+	 */
+	private File writeJournal() throws Exception {
+		File journalDir = BookieImpl.getCurrentDirectory(tmpDir.newFolder("journal"));
+		BookieImpl.checkDirectoryStructure(journalDir);
+		Journal journal = newJournal(journalDir);
+		journal.start();
+		Random random = new Random(1);
+		CountDownLatch done = new CountDownLatch(LEDGERS * ENTRIES_PER_LEDGER);
+		try {
+			for (int entryId = 0; entryId < ENTRIES_PER_LEDGER; entryId++) {
+				for (long ledgerId = 1; ledgerId <= LEDGERS; ledgerId++) {
+					ByteBuf entry = Unpooled.wrappedBuffer(entry(ledgerId, entryId, 16 + random.nextInt(ENTRY_SIZE)));
+					journal.logAddEntry(entry, false, (rc, l, e, addr, ctx) -> done.countDown(), null);
+					entry.release();
+				}
+			}
+			assertTrue(done.await(10, TimeUnit.SECONDS));
+		} finally {
+			journal.shutdown();
+		}
+		return journalDir;
+	}
+
+
+	private Journal newJournal(File journalDir) throws Exception {
+		ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+		File ledgerDir = tmpDir.newFolder();
+		conf.setJournalDirName(journalDir.getParent());
+		conf.setLedgerDirNames(new String[]{ledgerDir.getPath()});
+		conf.setJournalRemovePagesFromCache(false);
+		BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(ledgerDir));
+		LedgerDirsManager ledgerDirsManager = new LedgerDirsManager(conf, conf.getLedgerDirs(),
+				new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()));
+		return new Journal(0, journalDir, conf, ledgerDirsManager);
+	}
+
+
+	private static ByteBuffer entry(long ledgerId, long entryId, int size) {
+		ByteBuffer entry = ByteBuffer.allocate(size);
+		entry.putLong(ledgerId);
+		entry.putLong(entryId);
+		while (entry.hasRemaining()) {
+			entry.put((byte) (ledgerId * 31 + entryId + entry.position()));
+		}
+		entry.flip();
+		return entry;
+	}
+
+
+	/**
+	 * Records the entries replayed for each ledger, and the threads replaying them.
+	 */
+	private static class RecordingScanner implements JournalScanner {
+		final Map<Long, List<String>> entries = new ConcurrentHashMap<>();
+		final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+
+		@Override
+		public void process(int journalVersion, long offset, ByteBuffer entry) {
+			byte[] content = new byte[entry.remaining()];
+			entry.duplicate().get(content);
+			long ledgerId = entry.getLong(entry.position());
+			// Only one thread replays a ledger
+			entries.computeIfAbsent(ledgerId, l -> Collections.synchronizedList(new ArrayList<>()))
+					.add(offset + ":" + Arrays.hashCode(content));
+			threads.add(Thread.currentThread());
+		}
+	}
+}
@@ -0,0 +1,310 @@
+package org.apache.bookkeeper.bookie.storage.directentrylogger;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import org.apache.bookkeeper.bookie.EntryLocation;
+import org.apache.bookkeeper.bookie.EntryLogMetadata;
+import org.apache.bookkeeper.bookie.storage.CompactionEntryLog;
+import org.apache.bookkeeper.common.util.nativeio.NativeIOException;
+import org.apache.bookkeeper.common.util.nativeio.NativeIOImpl;
+import org.apache.bookkeeper.slogger.Slogger;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+
+public class DirectCompactionEntryLogTest {
+
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+
+	private static final long MAX_FILE_SIZE = 4 * 1024 * 1024;
+
+	private static final int ENTRIES_PER_LEDGER = 100;
+
+	/** Ledgers of the source log, the even ones are kept by the compaction */
+	private static final int LEDGERS = 4;
+
+	/** Ledger of the entry added after the copied ones */
+	private static final long ADDED_LEDGER = 10;
+
+	private static final int POSIX_FADV_DONTNEED = 4;
+
+	/** Errno of copy_file_range across filesystems that don't support it */
+	private static final int EXDEV = 18;
+
+	private static final int EIO = 5;
+
+	private final List<DirectEntryLogger> loggers = new ArrayList<>();
+	private ExecutorService writeExecutor;
+	private ExecutorService flushExecutor;
+
+
+	@Before
+	public void setup() {
+		writeExecutor = Executors.newSingleThreadExecutor();
+		flushExecutor = Executors.newSingleThreadExecutor();
+	}
+
+
+	@After
+	public void shutdown() throws Exception {
+		for (DirectEntryLogger logger : loggers) {
+			logger.close();
+		}
+		writeExecutor.shutdownNow();
+		flushExecutor.shutdownNow();
+	}
+
+
+	@Test
+	public void testCopyEntries() throws Exception {
+		CopyNativeIO nativeIO = new CopyNativeIO();
+		DirectEntryLogger logger = newLogger(nativeIO);
+		int srcLogId = writeSourceLog(logger);
+
+		CompactionEntryLog compactionLog = logger.newCompactionLog(srcLogId);
+		List<EntryLocation> offsets = new ArrayList<>();
+		AtomicLong throttled = new AtomicLong();
+		assertTrue(compactionLog.copyEntries(keptLedgers(srcLogId), throttled::addAndGet, offsets));
+		assertTrue(nativeIO.copies.get() > 0);
+
+		// The live entries are copied in runs, each acquired from the throttler
+		assertEquals(LEDGERS / 2 * ENTRIES_PER_LEDGER, offsets.size());
+		assertEquals(LEDGERS / 2 * ENTRIES_PER_LEDGER * (Integer.BYTES + entrySize()), throttled.get());
+
+		// The copied range is synced and dropped from the page cache, before the writes resume
+		assertEquals(1, nativeIO.pageCacheDrops.get());
+		long added = addAfterCopy(compactionLog);
+		completeCompaction(compactionLog);
+
+		assertCopied(logger, (int) compactionLog.getDstLogId(), offsets);
+		assertEntry(ADDED_LEDGER, 0, logger.readEntry(ADDED_LEDGER, 0, added));
+		EntryLogMetadata metadata = logger.readEntryLogMetadata(compactionLog.getDstLogId());
+		for (long ledgerId = 0; ledgerId < LEDGERS; ledgerId++) {
+			assertEquals(ledgerId % 2 == 0, metadata.containsLedger(ledgerId));
+		}
+		assertTrue(metadata.containsLedger(ADDED_LEDGER));
+		assertEquals(ENTRIES_PER_LEDGER * (Integer.BYTES + entrySize()), metadata.getLedgersMap().get(0));
+	}
+
+
+	@Test
+	public void testPartialCopies() throws Exception {
+		// The kernel copies less than asked for
+		CopyNativeIO nativeIO = new CopyNativeIO();
+		nativeIO.maxCopySize = 1000;
+		DirectEntryLogger logger = newLogger(nativeIO);
+		int srcLogId = writeSourceLog(logger);
+
+		CompactionEntryLog compactionLog = logger.newCompactionLog(srcLogId);
+		List<EntryLocation> offsets = new ArrayList<>();
+		assertTrue(compactionLog.copyEntries(keptLedgers(srcLogId), bytes -> { }, offsets));
+		long copiedBytes = LEDGERS / 2 * ENTRIES_PER_LEDGER * (Integer.BYTES + entrySize());
+		assertTrue(nativeIO.copies.get() >= copiedBytes / 1000);
+
+		addAfterCopy(compactionLog);
+		completeCompaction(compactionLog);
+		assertCopied(logger, (int) compactionLog.getDstLogId(), offsets);
+	}
+
+
+	@Test
+	public void testFallbackWhenNotSupported() throws Exception {
+		CopyNativeIO nativeIO = new CopyNativeIO();
+		nativeIO.copyErrno = EXDEV;
+		DirectEntryLogger logger = newLogger(nativeIO);
+		int srcLogId = writeSourceLog(logger);
+
+		// Nothing is copied, the caller adds the entries instead
+		CompactionEntryLog compactionLog = logger.newCompactionLog(srcLogId);
+		List<EntryLocation> offsets = new ArrayList<>();
+		assertFalse(compactionLog.copyEntries(keptLedgers(srcLogId), bytes -> { }, offsets));
+		assertTrue(offsets.isEmpty());
+		assertEquals(1, nativeIO.copies.get());
+		long added = addAfterCopy(compactionLog);
+		completeCompaction(compactionLog);
+		assertEntry(ADDED_LEDGER, 0, logger.readEntry(ADDED_LEDGER, 0, added));
+
+		// The next compactions of the logger don't try again
+		CompactionEntryLog next = logger.newCompactionLog(srcLogId);
+		assertFalse(next.copyEntries(keptLedgers(srcLogId), bytes -> { }, offsets));
+		assertEquals(1, nativeIO.copies.get());
+		next.abort();
+
+		// The other loggers still copy
+		DirectEntryLogger other = newLogger(new CopyNativeIO());
+		int otherSrcLogId = writeSourceLog(other);
+		CompactionEntryLog otherLog = other.newCompactionLog(otherSrcLogId);
+		assertTrue(otherLog.copyEntries(keptLedgers(otherSrcLogId), bytes -> { }, offsets));
+		otherLog.abort();
+	}
+
+
+	@Test
+	public void testCopyError() throws Exception {
+		// The copy fails once some bytes were copied
+		CopyNativeIO nativeIO = new CopyNativeIO();
+		nativeIO.maxCopySize = 1000;
+		nativeIO.failAfterCopies = 3;
+		nativeIO.copyErrno = EIO;
+		DirectEntryLogger logger = newLogger(nativeIO);
+		int srcLogId = writeSourceLog(logger);
+
+		CompactionEntryLog compactionLog = logger.newCompactionLog(srcLogId);
+		try {
+			compactionLog.copyEntries(keptLedgers(srcLogId), bytes -> { }, new ArrayList<>());
+			fail("The copy should fail");
+		} catch (IOException e) {
+			// Expected
+		}
+		compactionLog.abort();
+
+		// The copies are still enabled
+		nativeIO.copyErrno = 0;
+		compactionLog = logger.newCompactionLog(srcLogId);
+		List<EntryLocation> offsets = new ArrayList<>();
+		assertTrue(compactionLog.copyEntries(keptLedgers(srcLogId), bytes -> { }, offsets));
+		completeCompaction(compactionLog);
+		assertCopied(logger, (int) compactionLog.getDstLogId(), offsets);
+	}
+
+
+	private DirectEntryLogger newLogger(CopyNativeIO nativeIO) throws Exception {
+		AtomicInteger ids = new AtomicInteger();
+		DirectEntryLogger logger = new DirectEntryLogger(tmpDir.newFolder(), ids::incrementAndGet, nativeIO,
+				ByteBufAllocator.DEFAULT, writeExecutor, flushExecutor, MAX_FILE_SIZE, 10 * 1024,
+				MAX_FILE_SIZE, 1024 * 1024, 64 * 1024, 1, 300, Slogger.NULL, NullStatsLogger.INSTANCE);
+		loggers.add(logger);
+		return logger;
+	}
+
+
+	/**
+	 * Write the entries of the ledgers interleaved, the entries of the kept ledgers forming runs of two entries.
+	 *
+	 * @return the id of the log
+	 */
+	private static int writeSourceLog(DirectEntryLogger logger) throws Exception {
+		long location = -1;
+		for (int entryId = 0; entryId < ENTRIES_PER_LEDGER; entryId++) {
+			for (long ledgerId : new long[]{0, 2, 1, 3}) {
+				ByteBuf entry = entry(ledgerId, entryId);
+				location = logger.addEntry(ledgerId, entry);
+				entry.release();
+			}
+		}
+		logger.flush();
+		return (int) (location >> 32);
+	}
+
+
+	private static EntryLogMetadata keptLedgers(int srcLogId) {
+		EntryLogMetadata metadata = new EntryLogMetadata(srcLogId);
+		for (long ledgerId = 0; ledgerId < LEDGERS; ledgerId += 2) {
+			metadata.addLedgerSize(ledgerId, ENTRIES_PER_LEDGER * (Integer.BYTES + entrySize()));
+		}
+		return metadata;
+	}
+
+
+	/**
+	 * Add an entry with the writer of the compaction log, which resumes after the copied entries.
+	 */
+	private static long addAfterCopy(CompactionEntryLog compactionLog) throws Exception {
+		ByteBuf entry = entry(ADDED_LEDGER, 0);
+		long location = compactionLog.addEntry(ADDED_LEDGER, entry);
+		entry.release();
+		return location;
+	}
+
+
+	private static void completeCompaction(CompactionEntryLog compactionLog) throws Exception {
+		compactionLog.flush();
+		compactionLog.markCompacted();
+		compactionLog.makeAvailable();
+		compactionLog.finalizeAndCleanup();
+	}
+
+
+	private static void assertCopied(DirectEntryLogger logger, int dstLogId, List<EntryLocation> offsets)
+			throws Exception {
+		assertEquals(LEDGERS / 2 * ENTRIES_PER_LEDGER, offsets.size());
+		int[] nextEntryIds = new int[LEDGERS];
+		for (EntryLocation offset : offsets) {
+			assertEquals(0, offset.ledger % 2);
+			assertEquals(dstLogId, offset.location >> 32);
+			// The entries of a ledger keep their order
+			assertEquals(nextEntryIds[(int) offset.ledger]++, offset.entry);
+			assertEntry(offset.ledger, offset.entry, logger.readEntry(offset.ledger, offset.entry, offset.location));
+		}
+	}
+
+
+	private static void assertEntry(long ledgerId, long entryId, ByteBuf entry) {
+		try {
+			assertEquals(entry(ledgerId, entryId), entry);
+		} finally {
+			entry.release();
+		}
+	}
+
+
+	private static int entrySize() {
+		return 300;
+	}
+
+
+	private static ByteBuf entry(long ledgerId, long entryId) {
+		ByteBuf entry = Unpooled.buffer(entrySize());
+		entry.writeLong(ledgerId);
+		entry.writeLong(entryId);
+		while (entry.isWritable()) {
+			entry.writeByte((int) (ledgerId * 7 + entryId * 31 + entry.writerIndex()));
+		}
+		return entry;
+	}
+
+
+	/**
+	 * Native calls whose copies can be short or fail.
+	 */
+	private static class CopyNativeIO extends NativeIOImpl {
+		private final AtomicInteger copies = new AtomicInteger();
+		private final AtomicInteger pageCacheDrops = new AtomicInteger();
+		private volatile long maxCopySize = Long.MAX_VALUE;
+		private volatile int failAfterCopies = 0;
+		private volatile int copyErrno = 0;
+
+		@Override
+		public long copyFileRange(int fdIn, long offsetIn, int fdOut, long offsetOut, long len)
+				throws NativeIOException {
+			if (copies.incrementAndGet() > failAfterCopies && copyErrno != 0) {
+				throw new NativeIOException("Injected failure", copyErrno);
+			}
+			return super.copyFileRange(fdIn, offsetIn, fdOut, offsetOut, Math.min(len, maxCopySize));
+		}
+
+		@Override
+		public int posix_fadvise(int fd, long offset, long len, int flag) throws NativeIOException {
+			if (flag == POSIX_FADV_DONTNEED) {
+				pageCacheDrops.incrementAndGet();
+			}
+			return super.posix_fadvise(fd, offset, len, flag);
+		}
+	}
+}
@@ -0,0 +1,313 @@
+package org.apache.bookkeeper.bookie.storage.directentrylogger;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import org.apache.bookkeeper.common.util.nativeio.NativeIOException;
+import org.apache.bookkeeper.common.util.nativeio.NativeIOImpl;
+import org.apache.bookkeeper.common.util.nativeio.NativeIORing;
+import org.apache.bookkeeper.slogger.Slogger;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+
+public class DirectIoUringTest {
+
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+
+	private static final long MAX_FILE_SIZE = 1024 * 1024;
+
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+	private static final int ENTRIES = 3000;
+
+	private static final int ENTRY_SIZE = 1000;
+
+	private final List<DirectEntryLogger> loggers = new ArrayList<>();
+	/** Directory of the last logger created */
+	private File ledgerDir;
+	private ExecutorService writeExecutor;
+	private ExecutorService flushExecutor;
+
+
+	@Before
+	public void setup() throws Exception {
+		try {
+			new NativeIOImpl().ringSetup(1).close();
+		} catch (NativeIOException e) {
+			Assume.assumeNoException("io_uring is not available", e);
+		}
+		writeExecutor = Executors.newSingleThreadExecutor();
+		flushExecutor = Executors.newSingleThreadExecutor();
+	}
+
+
+	@After
+	public void shutdown() throws Exception {
+		for (DirectEntryLogger logger : loggers) {
+			logger.close();
+		}
+		if (writeExecutor != null) {
+			writeExecutor.shutdownNow();
+			flushExecutor.shutdownNow();
+		}
+	}
+
+
+	@Test
+	public void testEntriesWrittenAndReadThroughRing() throws Exception {
+		RingNativeIO nativeIO = new RingNativeIO();
+		DirectEntryLogger logger = newLogger(nativeIO, true);
+
+		long[] locations = addEntries(logger);
+		// The entries span several logs
+		assertTrue((locations[ENTRIES - 1] >> 32) > (locations[0] >> 32));
+		assertEntries(logger, locations);
+
+		// Besides the probe, the writers and the readers have their own rings
+		assertTrue(nativeIO.rings.size() > 2);
+	}
+
+
+	@Test
+	public void testFallbackWhenNotAvailable() throws Exception {
+		RingNativeIO nativeIO = new RingNativeIO();
+		nativeIO.available = false;
+		DirectEntryLogger logger = newLogger(nativeIO, true);
+
+		assertEntries(logger, addEntries(logger));
+		assertEquals(1, nativeIO.setups.get());
+		assertTrue(nativeIO.rings.isEmpty());
+	}
+
+
+	@Test
+	public void testAvailabilityPerLogger() throws Exception {
+		RingNativeIO withoutRing = new RingNativeIO();
+		withoutRing.available = false;
+		DirectEntryLogger first = newLogger(withoutRing, true);
+
+		// io_uring not being available to a logger doesn't disable it for the others
+		RingNativeIO withRing = new RingNativeIO();
+		DirectEntryLogger second = newLogger(withRing, true);
+		assertEntries(second, addEntries(second));
+		assertTrue(withRing.rings.size() > 2);
+
+		assertEntries(first, addEntries(first));
+		assertTrue(withoutRing.rings.isEmpty());
+	}
+
+
+	@Test
+	public void testDisabled() throws Exception {
+		RingNativeIO nativeIO = new RingNativeIO();
+		DirectEntryLogger logger = newLogger(nativeIO, false);
+
+		assertEntries(logger, addEntries(logger));
+		assertEquals(0, nativeIO.setups.get());
+	}
+
+
+	@Test
+	public void testReadRetriedAfterRingError() throws Exception {
+		long[] locations = addEntries(newLogger(new RingNativeIO(), false));
+		RingNativeIO nativeIO = new RingNativeIO();
+		nativeIO.failSubmit = true;
+
+		// The reads are submitted before the failure, the ring is closed once they completed and the block is read
+		// with the synchronous calls
+		int logId = (int) (locations[0] >> 32);
+		DirectReader reader = newReader(nativeIO, logId);
+		for (int i = 0; i < ENTRIES && (locations[i] >> 32) == logId; i++) {
+			assertEntry(i, reader.readEntryAt((int) locations[i]));
+		}
+		assertFalse(nativeIO.rings.isEmpty());
+		for (FaultyRing ring : nativeIO.rings) {
+			assertTrue(ring.closed);
+		}
+		reader.close();
+	}
+
+
+	@Test
+	public void testReadFailsWhileRingReadsInFlight() throws Exception {
+		long[] locations = addEntries(newLogger(new RingNativeIO(), false));
+		RingNativeIO nativeIO = new RingNativeIO();
+		nativeIO.failSubmit = true;
+		nativeIO.failClose = true;
+
+		// The buffer can't be reused while the kernel may still write to it
+		DirectReader reader = newReader(nativeIO, (int) (locations[0] >> 32));
+		for (int i = 0; i < 2; i++) {
+			try {
+				reader.readEntryAt((int) locations[0]);
+				fail("The reads in flight were not waited for");
+			} catch (IOException e) {
+				// Expected
+			}
+		}
+		reader.close();
+		assertTrue(reader.isClosed());
+
+		for (FaultyRing ring : nativeIO.rings) {
+			assertFalse(ring.closed);
+			ring.ring.close();
+		}
+	}
+
+
+	private DirectEntryLogger newLogger(RingNativeIO nativeIO, boolean ioUringEnabled) throws Exception {
+		AtomicInteger ids = new AtomicInteger();
+		ledgerDir = tmpDir.newFolder();
+		DirectEntryLogger logger = new DirectEntryLogger(ledgerDir, ids::incrementAndGet, nativeIO,
+				ByteBufAllocator.DEFAULT, writeExecutor, flushExecutor, MAX_FILE_SIZE, 10 * ENTRY_SIZE,
+				MAX_FILE_SIZE, 4 * READ_BUFFER_SIZE, READ_BUFFER_SIZE, 1, 300, ioUringEnabled, Slogger.NULL,
+				NullStatsLogger.INSTANCE);
+		loggers.add(logger);
+		return logger;
+	}
+
+
+	private DirectReader newReader(RingNativeIO nativeIO, int logId) throws Exception {
+		String filename = DirectEntryLogger.logFilename(ledgerDir, logId);
+		return new DirectReader(logId, filename, ByteBufAllocator.DEFAULT, nativeIO, READ_BUFFER_SIZE,
+				10 * ENTRY_SIZE, true, NullStatsLogger.INSTANCE.getOpStatsLogger("read"));
+	}
+
+
+	private static long[] addEntries(DirectEntryLogger logger) throws Exception {
+		long[] locations = new long[ENTRIES];
+		for (int i = 0; i < ENTRIES; i++) {
+			ByteBuf entry = entry(i);
+			locations[i] = logger.addEntry(i % 10, entry);
+			entry.release();
+		}
+		logger.flush();
+		return locations;
+	}
+
+
+	private static void assertEntries(DirectEntryLogger logger, long[] locations) throws Exception {
+		for (int i = 0; i < ENTRIES; i++) {
+			assertEntry(i, logger.readEntry(i % 10, i, locations[i]));
+		}
+	}
+
+
+	private static void assertEntry(int i, ByteBuf entry) {
+		try {
+			assertEquals(entry(i), entry);
+		} finally {
+			entry.release();
+		}
+	}
+
+
+	private static ByteBuf entry(int i) {
+		ByteBuf entry = Unpooled.buffer(ENTRY_SIZE);
+		entry.writeLong(i % 10);
+		entry.writeLong(i);
+		while (entry.isWritable()) {
+			entry.writeByte(i * 31 + entry.writerIndex());
+		}
+		return entry;
+	}
+
+
+	/**
+	 * Native calls giving rings that can fail, or no ring at all.
+	 */
+	private static class RingNativeIO extends NativeIOImpl {
+		private final AtomicInteger setups = new AtomicInteger();
+		private final List<FaultyRing> rings = new CopyOnWriteArrayList<>();
+		private volatile boolean available = true;
+		private volatile boolean failSubmit = false;
+		private volatile boolean failClose = false;
+
+		@Override
+		public NativeIORing ringSetup(int entries) throws NativeIOException {
+			setups.incrementAndGet();
+			if (!available) {
+				throw new NativeIOException("io_uring is not available");
+			}
+			FaultyRing ring = new FaultyRing(super.ringSetup(entries), failSubmit, failClose);
+			rings.add(ring);
+			return ring;
+		}
+	}
+
+
+	/**
+	 * Ring failing after submitting the operations, and failing to close.
+	 */
+	private static class FaultyRing implements NativeIORing {
+		private final NativeIORing ring;
+		private final boolean failSubmit;
+		private final boolean failClose;
+		private volatile boolean closed = false;
+
+		FaultyRing(NativeIORing ring, boolean failSubmit, boolean failClose) {
+			this.ring = ring;
+			this.failSubmit = failSubmit;
+			this.failClose = failClose;
+		}
+
+		@Override
+		public int entries() {
+			return ring.entries();
+		}
+
+		@Override
+		public void prepareRead(int fd, long pointer, int count, long offset, long userData)
+				throws NativeIOException {
+			ring.prepareRead(fd, pointer, count, offset, userData);
+		}
+
+		@Override
+		public void prepareWrite(int fd, long pointer, int count, long offset, long userData)
+				throws NativeIOException {
+			ring.prepareWrite(fd, pointer, count, offset, userData);
+		}
+
+		@Override
+		public void prepareFsync(int fd, boolean dataOnly, long userData) throws NativeIOException {
+			ring.prepareFsync(fd, dataOnly, userData);
+		}
+
+		@Override
+		public int submitAndWait(int minCompletions, long[] userData, int[] results) throws NativeIOException {
+			if (failSubmit) {
+				// The operations are in flight, none of the completions is reaped
+				ring.submitAndWait(0, new long[0], new int[0]);
+				throw new NativeIOException("Injected failure");
+			}
+			return ring.submitAndWait(minCompletions, userData, results);
+		}
+
+		@Override
+		public void close() throws NativeIOException {
+			if (failClose) {
+				throw new NativeIOException("Injected failure");
+			}
+			ring.close();
+			closed = true;
+		}
+	}
+}
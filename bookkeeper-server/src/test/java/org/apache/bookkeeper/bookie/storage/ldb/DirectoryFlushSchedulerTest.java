@@ -0,0 +1,206 @@
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import org.apache.bookkeeper.bookie.CheckpointSource;
+import org.apache.bookkeeper.bookie.CheckpointSource.Checkpoint;
+import org.apache.bookkeeper.client.util.TestStatsProvider;
+import org.apache.bookkeeper.client.util.TestStatsProvider.TestOpStatsLogger;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+
+public class DirectoryFlushSchedulerTest {
+
+	private static final int DIRS = 3;
+
+	private final Checkpoint checkpoint = CheckpointSource.DEFAULT.newCheckpoint();
+
+	private final List<SingleDirectoryDbLedgerStorage> storages = new ArrayList<>();
+
+	private final List<DbLedgerStorageStats> stats = new ArrayList<>();
+
+	private DirectoryFlushScheduler scheduler;
+
+	private final ExecutorService checkpointer = Executors.newSingleThreadExecutor();
+
+
+	@After
+	public void shutdown() {
+		if (scheduler != null) {
+			scheduler.shutdown();
+		}
+		checkpointer.shutdownNow();
+	}
+
+
+	@Test
+	public void testDirectoriesFlushedConcurrently() throws Exception {
+		addStorages(0.5, 0.5, 0.5);
+		scheduler = new DirectoryFlushScheduler(storages, DIRS);
+
+		// Each flush only completes once all the directories are being flushed
+		CyclicBarrier allFlushing = new CyclicBarrier(DIRS);
+		Set<Thread> flushThreads = ConcurrentHashMap.newKeySet();
+		for (SingleDirectoryDbLedgerStorage storage : storages) {
+			doAnswer(invocation -> {
+				flushThreads.add(Thread.currentThread());
+				allFlushing.await(10, TimeUnit.SECONDS);
+				return null;
+			}).when(storage).checkpoint(checkpoint);
+		}
+
+		scheduler.checkpoint(checkpoint);
+		assertEquals(DIRS, flushThreads.size());
+		assertFalse(flushThreads.contains(Thread.currentThread()));
+		for (int i = 0; i < DIRS; i++) {
+			assertEquals(1, scheduleDelays(i).getSuccessCount());
+		}
+	}
+
+
+	@Test
+	public void testWaitsForAllDirectories() throws Exception {
+		addStorages(0.5, 0.5, 0.5);
+		scheduler = new DirectoryFlushScheduler(storages, DIRS);
+		CountDownLatch slowFlush = new CountDownLatch(1);
+		doAnswer(invocation -> {
+			slowFlush.await();
+			return null;
+		}).when(storages.get(1)).checkpoint(checkpoint);
+
+		Future<?> done = checkpointer.submit(() -> {
+			scheduler.checkpoint(checkpoint);
+			return null;
+		});
+		Thread.sleep(100);
+		assertFalse(done.isDone());
+		verify(storages.get(0)).checkpoint(checkpoint);
+		verify(storages.get(2)).checkpoint(checkpoint);
+
+		slowFlush.countDown();
+		done.get(10, TimeUnit.SECONDS);
+	}
+
+
+	@Test
+	public void testFullestWriteCachesFlushedFirst() throws Exception {
+		addStorages(0.1, 0.9, 0.5);
+		// A single thread, the directories are flushed one after the other
+		scheduler = new DirectoryFlushScheduler(storages, 1);
+		Set<Thread> flushThreads = ConcurrentHashMap.newKeySet();
+		for (SingleDirectoryDbLedgerStorage storage : storages) {
+			doAnswer(invocation -> {
+				flushThreads.add(Thread.currentThread());
+				return null;
+			}).when(storage).checkpoint(checkpoint);
+		}
+
+		scheduler.checkpoint(checkpoint);
+		assertEquals(Collections.singleton(Thread.currentThread()), flushThreads);
+		InOrder order = inOrder(storages.get(1), storages.get(2), storages.get(0));
+		order.verify(storages.get(1)).checkpoint(checkpoint);
+		order.verify(storages.get(2)).checkpoint(checkpoint);
+		order.verify(storages.get(0)).checkpoint(checkpoint);
+	}
+
+
+	@Test
+	public void testFailuresReported() throws Exception {
+		addStorages(0.9, 0.5, 0.1);
+		scheduler = new DirectoryFlushScheduler(storages, DIRS);
+		IOException first = new IOException("First directory failed");
+		IOException last = new IOException("Last directory failed");
+		doThrow(first).when(storages.get(0)).checkpoint(checkpoint);
+		doThrow(last).when(storages.get(2)).checkpoint(checkpoint);
+
+		try {
+			scheduler.checkpoint(checkpoint);
+			fail("Two directories failed to flush");
+		} catch (IOException e) {
+			assertSame(first, e);
+			assertEquals(1, e.getSuppressed().length);
+			assertSame(last, e.getSuppressed()[0]);
+		}
+		// The other directories are still flushed
+		verify(storages.get(1)).checkpoint(checkpoint);
+	}
+
+
+	@Test
+	public void testRuntimeFailureWrapped() throws Exception {
+		addStorages(0.5, 0.5);
+		scheduler = new DirectoryFlushScheduler(storages, DIRS);
+		IllegalStateException failure = new IllegalStateException("Unexpected");
+		doThrow(failure).when(storages.get(1)).checkpoint(any(Checkpoint.class));
+
+		try {
+			scheduler.checkpoint(checkpoint);
+			fail("A directory failed to flush");
+		} catch (IOException e) {
+			assertSame(failure, e.getCause());
+		}
+	}
+
+
+	@Test
+	public void testInterruptedWhileWaiting() throws Exception {
+		addStorages(0.5, 0.5);
+		scheduler = new DirectoryFlushScheduler(storages, DIRS);
+		CountDownLatch slowFlush = new CountDownLatch(1);
+		doAnswer(invocation -> {
+			slowFlush.await();
+			return null;
+		}).when(storages.get(0)).checkpoint(checkpoint);
+
+		Thread.currentThread().interrupt();
+		try {
+			scheduler.checkpoint(checkpoint);
+			fail("Interrupted");
+		} catch (IOException e) {
+			assertTrue(e.getCause() instanceof InterruptedException);
+		} finally {
+			assertTrue(Thread.interrupted());
+			slowFlush.countDown();
+		}
+	}
+
+
+	private void addStorages(double... writeCacheUsages) {
+		for (double usage : writeCacheUsages) {
+			SingleDirectoryDbLedgerStorage storage = mock(SingleDirectoryDbLedgerStorage.class);
+			DbLedgerStorageStats storageStats = new DbLedgerStorageStats(
+					new TestStatsProvider().getStatsLogger(""), () -> 0L, () -> 0L, () -> 0, () -> 0L, () -> 0L);
+			when(storage.getWriteCacheUsage()).thenReturn(usage);
+			when(storage.getDbLedgerStorageStats()).thenReturn(storageStats);
+			storages.add(storage);
+			stats.add(storageStats);
+		}
+	}
+
+
+	private TestOpStatsLogger scheduleDelays(int dir) {
+		return (TestOpStatsLogger) stats.get(dir).getFlushScheduleDelayStats();
+	}
+}
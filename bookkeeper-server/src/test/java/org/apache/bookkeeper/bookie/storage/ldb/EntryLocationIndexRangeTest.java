@@ -0,0 +1,187 @@
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.Batch;
+import org.apache.bookkeeper.client.util.TestStatsProvider;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+
+import static org.junit.Assert.*;
+
+
+@RunWith(Parameterized.class)
+public class EntryLocationIndexRangeTest {
+
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+
+	private static final int ENTRIES = 100;
+
+	private final KeyValueStorageFactory factory;
+
+	private final TestStatsProvider statsProvider = new TestStatsProvider();
+
+	private EntryLocationIndex index;
+
+
+	public EntryLocationIndexRangeTest(String name, KeyValueStorageFactory factory) {
+		this.factory = factory;
+	}
+
+
+	@Parameters(name = "{0}")
+	public static Collection<Object[]> getParameters() {
+		return Arrays.asList(new Object[][]{
+				{"rocksdb", KeyValueStorageRocksDB.factory},
+				{"sorted-array", KeyValueStorageSortedArray.factory}
+		});
+	}
+
+
+	@Before
+	public void setup() throws IOException {
+		ServerConfiguration conf = new ServerConfiguration();
+		conf.setProperty(DbLedgerStorage.ENTRY_LOCATION_WATERMARK_ENABLED, true);
+		index = new EntryLocationIndex(conf, factory, tmpDir.getRoot().getPath(), statsProvider.getStatsLogger(""));
+	}
+
+
+	@After
+	public void shutdown() throws IOException {
+		index.close();
+	}
+
+
+	@Test
+	public void testRangeMatchesPointLookups() throws IOException {
+		// The entries of the ledger around are not part of the range
+		addEntries(1, 0, ENTRIES);
+		addEntries(2, 0, ENTRIES / 2);
+		addEntries(2, ENTRIES / 2, ENTRIES);
+		addEntries(3, 0, ENTRIES);
+
+		long[] locations = index.getLocations(2, 10, 59);
+		assertEquals(50, locations.length);
+		for (int i = 0; i < locations.length; i++) {
+			assertEquals(index.getLocation(2, 10 + i), locations[i]);
+			assertEquals(location(2, 10 + i), locations[i]);
+		}
+		assertEquals(1, rangeLookups().getSuccessCount());
+		assertEquals(0, rangeLookups().getFailureCount());
+
+		// A single entry
+		assertArrayEquals(new long[] { location(1, 0) }, index.getLocations(1, 0, 0));
+	}
+
+
+	@Test
+	public void testMissingEntries() throws IOException {
+		Batch batch = index.newBatch();
+		for (long entryId = 0; entryId < ENTRIES; entryId += 2) {
+			index.addLocation(batch, 1, entryId, location(1, entryId));
+		}
+		batch.flush();
+		batch.close();
+
+		long[] locations = index.getLocations(1, 10, 19);
+		for (int i = 0; i < locations.length; i++) {
+			assertEquals((10 + i) % 2 == 0 ? location(1, 10 + i) : 0, locations[i]);
+		}
+		// Unknown ledger
+		assertArrayEquals(new long[3], index.getLocations(2, 0, 2));
+	}
+
+
+	@Test
+	public void testRangePastLastEntry() throws IOException {
+		addEntries(1, 0, ENTRIES);
+		addEntries(2, 0, ENTRIES);
+
+		// Only the tail of the range is missing
+		long[] locations = index.getLocations(1, ENTRIES - 5, ENTRIES + 4);
+		assertEquals(10, locations.length);
+		for (int i = 0; i < 5; i++) {
+			assertEquals(location(1, ENTRIES - 5 + i), locations[i]);
+			assertEquals(0, locations[5 + i]);
+		}
+		assertEquals(0, (long) watermarkSkipped().get());
+
+		// Not scanned past the last entry of the ledger
+		assertArrayEquals(new long[10], index.getLocations(1, ENTRIES, ENTRIES + 9));
+		assertEquals(1, (long) watermarkSkipped().get());
+		assertEquals(1, rangeLookups().getSuccessCount());
+	}
+
+
+	@Test
+	public void testDeletedLedger() throws IOException {
+		addEntries(1, 0, ENTRIES);
+		addEntries(2, 0, ENTRIES);
+		index.delete(1);
+		index.removeOffsetFromDeletedLedgers();
+
+		assertArrayEquals(new long[10], index.getLocations(1, 0, 9));
+		assertEquals(location(2, 0), index.getLocations(2, 0, 9)[0]);
+	}
+
+
+	@Test
+	public void testInvalidRange() throws IOException {
+		try {
+			index.getLocations(1, 10, 9);
+			fail("Last entry before the first one");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+		try {
+			index.getLocations(1, -1, 9);
+			fail("Negative entry id");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+		try {
+			index.getLocations(1, 0, Integer.MAX_VALUE);
+			fail("Too many entries");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+
+
+	/**
+	 * Add the locations of the entries in {@code [firstEntryId, lastEntryId)} in their own batch.
+	 */
+	private void addEntries(long ledgerId, long firstEntryId, long lastEntryId) throws IOException {
+		Batch batch = index.newBatch();
+		for (long entryId = firstEntryId; entryId < lastEntryId; entryId++) {
+			index.addLocation(batch, ledgerId, entryId, location(ledgerId, entryId));
+		}
+		batch.flush();
+		batch.close();
+	}
+
+
+	private TestStatsProvider.TestOpStatsLogger rangeLookups() {
+		return statsProvider.getOpStatsLogger("lookup-entry-location-range");
+	}
+
+
+	private TestStatsProvider.TestCounter watermarkSkipped() {
+		return statsProvider.getCounter("lookup-entry-location-skipped-watermark");
+	}
+
+
+	private static long location(long ledgerId, long entryId) {
+		return ledgerId << 32 | (entryId + 1) * 1024;
+	}
+}
@@ -0,0 +1,168 @@
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.Batch;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+
+public class EntryLocationIndexWatermarkTest {
+
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+
+	private static final int LEDGERS = 10;
+
+	private static final int ENTRIES = 100;
+
+	/** Max number of ledgers with a watermark */
+	private static final int MAX_LEDGERS = 20;
+
+	private EntryLocationIndex index;
+
+
+	@Before
+	public void setup() throws IOException {
+		ServerConfiguration conf = new ServerConfiguration();
+		conf.setProperty(DbLedgerStorage.ENTRY_LOCATION_WATERMARK_ENABLED, true);
+		conf.setProperty(DbLedgerStorage.ENTRY_LOCATION_WATERMARK_MAX_LEDGERS, MAX_LEDGERS);
+		conf.setProperty(DbLedgerStorage.ENTRY_LOCATION_BLOOM_FILTER_SIZE_MB, 1);
+		index = new EntryLocationIndex(conf, KeyValueStorageSortedArray.factory, tmpDir.getRoot().getPath(),
+				NullStatsLogger.INSTANCE);
+	}
+
+
+	@After
+	public void shutdown() throws IOException {
+		index.close();
+	}
+
+
+	@Test
+	public void testUnusedWatermarksExpire() throws IOException {
+		addEntries(1, LEDGERS);
+		assertEquals(LEDGERS, index.getWatermarksCount());
+
+		index.expireWatermarks();
+		assertEquals(LEDGERS, index.getWatermarksCount());
+		assertEquals(location(1, 0), index.getLocation(1, 0));
+		index.expireWatermarks();
+		assertEquals(1, index.getWatermarksCount());
+
+		// Loaded again from the storage
+		checkEntries(1, LEDGERS);
+		assertEquals(0, index.getLocation(2, ENTRIES));
+		assertEquals(LEDGERS, index.getWatermarksCount());
+	}
+
+
+	@Test
+	public void testWatermarksBounded() throws IOException {
+		addEntries(1, MAX_LEDGERS + 1);
+		index.removeOffsetFromDeletedLedgers();
+		assertEquals(0, index.getWatermarksCount());
+		checkEntries(1, MAX_LEDGERS + 1);
+	}
+
+
+	@Test
+	public void testWatermarksKeptWhileBatchPending() throws IOException {
+		addEntries(1, LEDGERS);
+		Batch batch = index.newBatch();
+		index.addLocation(batch, 1, ENTRIES, location(1, ENTRIES));
+
+		// The watermark loaded from the storage would miss the entry of the batch
+		index.expireWatermarks();
+		index.expireWatermarks();
+		assertEquals(LEDGERS, index.getWatermarksCount());
+
+		batch.flush();
+		batch.close();
+		index.expireWatermarks();
+		assertEquals(location(1, ENTRIES), index.getLocation(1, ENTRIES));
+		index.expireWatermarks();
+		assertEquals(1, index.getWatermarksCount());
+		assertEquals(location(1, ENTRIES), index.getLocation(1, ENTRIES));
+	}
+
+
+	@Test
+	public void testBloomFilterRebuiltOnceHalfStale() throws IOException {
+		addEntries(1, 2);
+		EntryBloomFilter filter = index.getBloomFilter();
+
+		// Half of the entries of the filter are stale once the first ledger is deleted
+		index.delete(1);
+		index.removeOffsetFromDeletedLedgers();
+		EntryBloomFilter rebuilt = index.getBloomFilter();
+		assertNotSame(filter, rebuilt);
+
+		int falsePositives = 0;
+		for (int i = 0; i < ENTRIES; i++) {
+			assertTrue(filter.mightContain(1, i));
+			if (rebuilt.mightContain(1, i)) {
+				falsePositives++;
+			}
+			assertTrue(rebuilt.mightContain(2, i));
+			assertEquals(location(2, i), index.getLocation(2, i));
+		}
+		assertTrue(falsePositives < ENTRIES / 10);
+
+		// Nothing stale left
+		index.removeOffsetFromDeletedLedgers();
+		assertSame(rebuilt, index.getBloomFilter());
+	}
+
+
+	@Test
+	public void testBloomFilterRebuildKeepsNewEntries() throws IOException {
+		addEntries(1, 2);
+		EntryBloomFilter filter = index.getBloomFilter();
+		Batch batch = index.newBatch();
+		index.addLocation(batch, 3, 0, location(3, 0));
+		// Not rebuilt while an entry is missing from the storage
+		index.rebuildBloomFilter();
+		assertSame(filter, index.getBloomFilter());
+		batch.flush();
+		batch.close();
+
+		index.rebuildBloomFilter();
+		assertNotSame(filter, index.getBloomFilter());
+		assertEquals(location(3, 0), index.getLocation(3, 0));
+		checkEntries(1, 2);
+	}
+
+
+	private void addEntries(long firstLedgerId, int ledgers) throws IOException {
+		Batch batch = index.newBatch();
+		for (long ledgerId = firstLedgerId; ledgerId < firstLedgerId + ledgers; ledgerId++) {
+			for (int i = 0; i < ENTRIES; i++) {
+				index.addLocation(batch, ledgerId, i, location(ledgerId, i));
+			}
+		}
+		batch.flush();
+		batch.close();
+	}
+
+
+	private void checkEntries(long firstLedgerId, int ledgers) throws IOException {
+		for (long ledgerId = firstLedgerId; ledgerId < firstLedgerId + ledgers; ledgerId++) {
+			for (int i = 0; i < ENTRIES; i++) {
+				assertEquals(location(ledgerId, i), index.getLocation(ledgerId, i));
+			}
+		}
+	}
+
+
+	private static long location(long ledgerId, long entryId) {
+		return ledgerId << 32 | (entryId + 1) * 1024;
+	}
+}
@@ -0,0 +1,183 @@
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.Batch;
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.CloseableIterator;
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorageFactory.DbConfigType;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Map.Entry;
+
+import static org.junit.Assert.*;
+
+
+public class KeyValueStorageSortedArrayMemtableTest {
+
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+
+	private static final int ENTRIES = 100;
+
+	private ServerConfiguration conf;
+
+	private KeyValueStorageSortedArray index;
+
+
+	@Before
+	public void configure() throws IOException {
+		this.conf = new ServerConfiguration();
+		this.conf.setProperty(KeyValueStorageSortedArray.MAX_SEGMENTS, 100);
+		this.index = open();
+	}
+
+
+	@After
+	public void closeIndex() throws IOException {
+		index.close();
+	}
+
+
+	@Test
+	public void testSingleWritesBufferedUntilSync() throws IOException {
+		for (int i = 0; i < ENTRIES; i++) {
+			index.put(key(1, i), value(location(i)));
+		}
+		index.delete(key(1, 0));
+		index.put(key(1, 1), value(location(1000)));
+
+		// Visible before being written
+		assertEquals(0, index.getSegmentsCount());
+		assertNull(index.get(key(1, 0)));
+		assertEquals(location(1000), toLong(index.get(key(1, 1))));
+		assertEquals(location(2), toLong(index.get(key(1, 2))));
+
+		index.sync();
+		assertEquals(1, index.getSegmentsCount());
+		index.sync();
+		assertEquals(1, index.getSegmentsCount());
+
+		reopen();
+		assertNull(index.get(key(1, 0)));
+		assertEquals(location(1000), toLong(index.get(key(1, 1))));
+		for (int i = 2; i < ENTRIES; i++) {
+			assertEquals(location(i), toLong(index.get(key(1, i))));
+		}
+	}
+
+
+	@Test
+	public void testSingleWritesWrittenOnClose() throws IOException {
+		index.put(key(1, 0), value(location(0)));
+		index.delete(key(1, 1));
+
+		reopen();
+		assertEquals(1, index.getSegmentsCount());
+		assertEquals(location(0), toLong(index.get(key(1, 0))));
+	}
+
+
+	@Test
+	public void testMemtableWrittenWhenFull() throws IOException {
+		for (int i = 0; i < KeyValueStorageSortedArray.MAX_MEMTABLE_ENTRIES; i++) {
+			index.put(key(1, i), value(location(i)));
+		}
+		assertEquals(1, index.getSegmentsCount());
+		index.sync();
+		assertEquals(1, index.getSegmentsCount());
+	}
+
+
+	@Test
+	public void testBatchHidesEarlierSingleWrites() throws IOException {
+		index.put(key(1, 0), value(location(0)));
+		index.put(key(2, 0), value(location(0)));
+		try (Batch batch = index.newBatch()) {
+			batch.put(key(1, 0), value(location(1)));
+			// Ledger 2 is only in the memtable
+			batch.deleteRange(key(2, 0), key(3, 0));
+			batch.flush();
+		}
+		assertEquals(location(1), toLong(index.get(key(1, 0))));
+		assertNull(index.get(key(2, 0)));
+
+		// And the later ones hide the batch
+		index.put(key(1, 0), value(location(2)));
+		assertEquals(location(2), toLong(index.get(key(1, 0))));
+		index.sync();
+		assertEquals(location(2), toLong(index.get(key(1, 0))));
+		assertNull(index.get(key(2, 0)));
+	}
+
+
+	@Test
+	public void testRangeReadsIncludeSingleWrites() throws IOException {
+		for (int i = 0; i < ENTRIES; i++) {
+			index.put(key(1, i), value(location(i)));
+		}
+		index.delete(key(1, ENTRIES - 1));
+
+		Entry<byte[], byte[]> floor = index.getFloor(key(1, Long.MAX_VALUE));
+		assertEquals(ENTRIES - 2, ArrayUtil.getLong(floor.getKey(), 8));
+
+		index.put(key(2, 5), value(location(5)));
+		Entry<byte[], byte[]> ceil = index.getCeil(key(2, 0));
+		assertEquals(5, ArrayUtil.getLong(ceil.getKey(), 8));
+		assertEquals(location(5), toLong(ceil.getValue()));
+
+		index.delete(key(1, 0));
+		int count = 0;
+		try (CloseableIterator<Entry<byte[], byte[]>> iterator = index.iterator(key(1, 0), key(1, ENTRIES))) {
+			while (iterator.hasNext()) {
+				Entry<byte[], byte[]> entry = iterator.next();
+				long entryId = ArrayUtil.getLong(entry.getKey(), 8);
+				assertEquals(count + 1, entryId);
+				assertEquals(location(entryId), toLong(entry.getValue()));
+				count++;
+			}
+		}
+		assertEquals(ENTRIES - 2, count);
+	}
+
+
+	private KeyValueStorageSortedArray open() throws IOException {
+		return new KeyValueStorageSortedArray(tmpDir.getRoot().toString(), "locations",
+				DbConfigType.EntryLocation, conf);
+	}
+
+
+	private void reopen() throws IOException {
+		index.close();
+		index = open();
+	}
+
+
+	private static long location(long entryId) {
+		return (entryId + 1) * 1024;
+	}
+
+
+	private static byte[] key(long ledgerId, long entryId) {
+		byte[] key = new byte[16];
+		ArrayUtil.setLong(key, 0, ledgerId);
+		ArrayUtil.setLong(key, 8, entryId);
+		return key;
+	}
+
+
+	private static byte[] value(long location) {
+		byte[] value = new byte[8];
+		ArrayUtil.setLong(value, 0, location);
+		return value;
+	}
+
+
+	private static long toLong(byte[] value) {
+		assertNotNull(value);
+		return ArrayUtil.getLong(value, 0);
+	}
+}
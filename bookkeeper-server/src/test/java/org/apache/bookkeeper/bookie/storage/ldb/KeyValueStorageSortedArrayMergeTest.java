@@ -0,0 +1,185 @@
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.Batch;
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorageFactory.DbConfigType;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+
+public class KeyValueStorageSortedArrayMergeTest {
+
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+
+	/** Entries of the big ledger, enough to fill a segment of 1 MB */
+	private static final int BIG_LEDGER_ENTRIES = 200 * 1024;
+
+	/** Entries added to the small ledger by each small batch */
+	private static final int SMALL_BATCH_ENTRIES = 100;
+
+	private ServerConfiguration conf;
+
+	private KeyValueStorageSortedArray index;
+
+
+	@Before
+	public void configure() throws IOException {
+		this.conf = new ServerConfiguration();
+		this.conf.setProperty(KeyValueStorageSortedArray.MAX_SEGMENTS, 100);
+		this.conf.setProperty(KeyValueStorageSortedArray.MAX_SEGMENT_SIZE_MB, 1);
+		this.index = open();
+
+		// Oldest segment, already above the maximum segment size
+		try (Batch batch = index.newBatch()) {
+			for (int i = 0; i < BIG_LEDGER_ENTRIES; i++) {
+				batch.put(key(1, i), value(location(i)));
+			}
+			batch.flush();
+		}
+	}
+
+
+	@After
+	public void closeIndex() throws IOException {
+		index.close();
+	}
+
+
+	@Test
+	public void testMergeSkipsFullSegments() throws IOException {
+		String[] bigSegment = segmentNames();
+		assertEquals(1, bigSegment.length);
+
+		flushSmallBatches(3);
+		assertEquals(4, index.getSegmentsCount());
+
+		index.merge(100);
+		assertEquals(2, index.getSegmentsCount());
+
+		// The big segment was not rewritten
+		assertTrue(Arrays.asList(segmentNames()).contains(bigSegment[0]));
+
+		// Nothing left to merge
+		index.merge(100);
+		assertEquals(2, index.getSegmentsCount());
+
+		index.close();
+		index = open();
+		assertEquals(2, index.getSegmentsCount());
+		checkBigLedger();
+		checkSmallLedger(3);
+	}
+
+
+	@Test
+	public void testMergeKeepsDeletionsOfOlderSegments() throws IOException {
+		flushSmallBatches(1);
+		try (Batch batch = index.newBatch()) {
+			batch.remove(key(1, 10));
+			batch.deleteRange(key(1, 100), key(1, 200));
+			batch.flush();
+		}
+		flushSmallBatches(1);
+
+		index.merge(100);
+		assertEquals(2, index.getSegmentsCount());
+
+		index.close();
+		index = open();
+		assertNull(index.get(key(1, 10)));
+		assertEquals(location(11), toLong(index.get(key(1, 11))));
+		assertEquals(location(99), toLong(index.get(key(1, 99))));
+		assertNull(index.get(key(1, 100)));
+		assertNull(index.get(key(1, 199)));
+		assertEquals(location(200), toLong(index.get(key(1, 200))));
+		checkSmallLedger(2);
+
+		// A full compaction includes the oldest segment and drops the deletions
+		index.compact();
+		assertEquals(1, index.getSegmentsCount());
+		assertNull(index.get(key(1, 10)));
+		assertNull(index.get(key(1, 150)));
+		assertEquals(BIG_LEDGER_ENTRIES - 101 + 2 * SMALL_BATCH_ENTRIES, index.count());
+	}
+
+
+	private KeyValueStorageSortedArray open() throws IOException {
+		return new KeyValueStorageSortedArray(tmpDir.getRoot().toString(), "locations",
+				DbConfigType.EntryLocation, conf);
+	}
+
+
+	private void flushSmallBatches(int batches) throws IOException {
+		long firstEntryId = 0;
+		while (index.get(key(2, firstEntryId)) != null) {
+			firstEntryId++;
+		}
+		for (int b = 0; b < batches; b++) {
+			try (Batch batch = index.newBatch()) {
+				for (int i = 0; i < SMALL_BATCH_ENTRIES; i++) {
+					long entryId = firstEntryId + (long) b * SMALL_BATCH_ENTRIES + i;
+					batch.put(key(2, entryId), value(location(entryId)));
+				}
+				batch.flush();
+			}
+		}
+	}
+
+
+	private void checkBigLedger() throws IOException {
+		for (long entryId = 0; entryId < BIG_LEDGER_ENTRIES; entryId += 997) {
+			assertEquals(location(entryId), toLong(index.get(key(1, entryId))));
+		}
+	}
+
+
+	private void checkSmallLedger(int batches) throws IOException {
+		for (long entryId = 0; entryId < batches * SMALL_BATCH_ENTRIES; entryId++) {
+			assertEquals(location(entryId), toLong(index.get(key(2, entryId))));
+		}
+		assertNull(index.get(key(2, batches * SMALL_BATCH_ENTRIES)));
+	}
+
+
+	private String[] segmentNames() {
+		File[] files = new File(index.getDBPath()).listFiles((dir, name) -> name.endsWith(".sidx"));
+		assertNotNull(files);
+		return Arrays.stream(files).map(File::getName).toArray(String[]::new);
+	}
+
+
+	private static long location(long entryId) {
+		return (entryId + 1) * 1024;
+	}
+
+
+	private static byte[] key(long ledgerId, long entryId) {
+		byte[] key = new byte[16];
+		ArrayUtil.setLong(key, 0, ledgerId);
+		ArrayUtil.setLong(key, 8, entryId);
+		return key;
+	}
+
+
+	private static byte[] value(long location) {
+		byte[] value = new byte[8];
+		ArrayUtil.setLong(value, 0, location);
+		return value;
+	}
+
+
+	private static long toLong(byte[] value) {
+		assertNotNull(value);
+		return ArrayUtil.getLong(value, 0);
+	}
+}
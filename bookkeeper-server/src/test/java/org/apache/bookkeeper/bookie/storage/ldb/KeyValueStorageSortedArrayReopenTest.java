@@ -0,0 +1,159 @@
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.Batch;
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorageFactory.DbConfigType;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+
+public class KeyValueStorageSortedArrayReopenTest {
+
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+
+	/** Number of flushed batches, each one becoming a segment */
+	private static final int BATCHES = 6;
+
+	/** Entries added to the ledger by each batch */
+	private static final int ENTRIES_PER_BATCH = 100;
+
+	private ServerConfiguration conf;
+
+	private KeyValueStorageSortedArray index;
+
+
+	@Before
+	public void configure() throws IOException {
+		this.conf = new ServerConfiguration();
+		// Keep the background merge out of the way, merges are triggered by the test
+		this.conf.setProperty(KeyValueStorageSortedArray.MAX_SEGMENTS, 100);
+		this.index = open();
+	}
+
+
+	@After
+	public void closeIndex() throws IOException {
+		index.close();
+	}
+
+
+	@Test
+	public void testReopenAfterFlush() throws IOException {
+		flushBatches();
+		assertEquals(BATCHES, index.getSegmentsCount());
+
+		reopen();
+		assertEquals(BATCHES, index.getSegmentsCount());
+		checkLocations();
+		assertNoTmpFiles();
+	}
+
+
+	@Test
+	public void testReopenAfterMerge() throws IOException {
+		flushBatches();
+		index.merge(BATCHES);
+		assertEquals(1, index.getSegmentsCount());
+
+		reopen();
+		assertEquals(1, index.getSegmentsCount());
+		checkLocations();
+		assertNoTmpFiles();
+		assertEquals(1, segmentFiles().length);
+	}
+
+
+	@Test
+	public void testReopenAfterMergeWithDeletes() throws IOException {
+		flushBatches();
+		try (Batch batch = index.newBatch()) {
+			batch.remove(key(1, 0));
+			batch.flush();
+		}
+		index.merge(BATCHES + 1);
+
+		reopen();
+		assertNull(index.get(key(1, 0)));
+		assertEquals(location(1), toLong(index.get(key(1, 1))));
+	}
+
+
+	private KeyValueStorageSortedArray open() throws IOException {
+		return new KeyValueStorageSortedArray(tmpDir.getRoot().toString(), "locations",
+				DbConfigType.EntryLocation, conf);
+	}
+
+
+	private void reopen() throws IOException {
+		index.close();
+		index = open();
+	}
+
+
+	private void flushBatches() throws IOException {
+		for (int b = 0; b < BATCHES; b++) {
+			try (Batch batch = index.newBatch()) {
+				for (int i = 0; i < ENTRIES_PER_BATCH; i++) {
+					long entryId = (long) b * ENTRIES_PER_BATCH + i;
+					batch.put(key(1, entryId), value(location(entryId)));
+				}
+				batch.flush();
+			}
+		}
+	}
+
+
+	private void checkLocations() throws IOException {
+		for (long entryId = 0; entryId < BATCHES * ENTRIES_PER_BATCH; entryId++) {
+			assertEquals(location(entryId), toLong(index.get(key(1, entryId))));
+		}
+		assertNull(index.get(key(1, BATCHES * ENTRIES_PER_BATCH)));
+	}
+
+
+	private void assertNoTmpFiles() {
+		File[] files = new File(index.getDBPath()).listFiles((dir, name) -> name.endsWith(".tmp"));
+		assertNotNull(files);
+		assertEquals(0, files.length);
+	}
+
+
+	private File[] segmentFiles() {
+		return new File(index.getDBPath()).listFiles((dir, name) -> name.endsWith(".sidx"));
+	}
+
+
+	private static long location(long entryId) {
+		return (entryId + 1) * 1024;
+	}
+
+
+	private static byte[] key(long ledgerId, long entryId) {
+		byte[] key = new byte[16];
+		ArrayUtil.setLong(key, 0, ledgerId);
+		ArrayUtil.setLong(key, 8, entryId);
+		return key;
+	}
+
+
+	private static byte[] value(long location) {
+		byte[] value = new byte[8];
+		ArrayUtil.setLong(value, 0, location);
+		return value;
+	}
+
+
+	private static long toLong(byte[] value) {
+		assertNotNull(value);
+		return ArrayUtil.getLong(value, 0);
+	}
+}
@@ -0,0 +1,128 @@
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import org.apache.bookkeeper.client.util.TestStatsProvider;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+public class ReadAheadTrackerTest {
+
+	private static final long LEDGER_ID = 1234L;
+
+	private static final int BATCH_SIZE = 10;
+
+	private static final int MIN_BATCH_SIZE = 2;
+
+	private static final int MAX_BATCH_SIZE = 40;
+
+	/** Size of the entries read ahead */
+	private static final long ENTRY_SIZE = 100;
+
+	private final DbLedgerStorageStats stats = new DbLedgerStorageStats(new TestStatsProvider().getStatsLogger(""),
+			() -> 0L, () -> 0L, () -> 0, () -> 0L, () -> 0L);
+
+
+	@Test
+	public void testSequentialReadsGrowWindow() {
+		ReadAheadTracker tracker = newTracker(true);
+		assertEquals(BATCH_SIZE, tracker.recordMiss(LEDGER_ID, 0));
+		readAhead(tracker, 1, BATCH_SIZE);
+		for (long entryId = 1; entryId <= BATCH_SIZE; entryId++) {
+			tracker.recordHit(LEDGER_ID, entryId);
+		}
+		assertEquals(BATCH_SIZE, (long) stats.getReadAheadHitCounter().get());
+
+		// The reader went past the whole window
+		assertEquals(2 * BATCH_SIZE, tracker.recordMiss(LEDGER_ID, 11));
+		assertEquals(1, (long) stats.getReadAheadMissCounter().get());
+		assertEquals(0, (long) stats.getReadAheadWastedBytesCounter().get());
+		readAhead(tracker, 12, 2 * BATCH_SIZE);
+		assertEquals(MAX_BATCH_SIZE, tracker.recordMiss(LEDGER_ID, 32));
+		readAhead(tracker, 33, MAX_BATCH_SIZE);
+		assertEquals(MAX_BATCH_SIZE, tracker.recordMiss(LEDGER_ID, 73));
+
+		// Starts over once the ledger is removed
+		tracker.removeLedger(LEDGER_ID);
+		assertEquals(BATCH_SIZE, tracker.recordMiss(LEDGER_ID, 0));
+	}
+
+
+	@Test
+	public void testEvictedEntriesShrinkWindow() {
+		ReadAheadTracker tracker = newTracker(true);
+		tracker.recordMiss(LEDGER_ID, 0);
+		readAhead(tracker, 1, BATCH_SIZE);
+		for (long entryId = 1; entryId <= 3; entryId++) {
+			tracker.recordHit(LEDGER_ID, entryId);
+		}
+
+		// The entries after 3 were evicted before being read
+		assertEquals(BATCH_SIZE / 2, tracker.recordMiss(LEDGER_ID, 4));
+		assertEquals(1, (long) stats.getReadAheadMissCounter().get());
+		assertEquals(7 * ENTRY_SIZE, (long) stats.getReadAheadWastedBytesCounter().get());
+
+		readAhead(tracker, 5, BATCH_SIZE / 2);
+		tracker.recordMiss(LEDGER_ID, 5);
+		readAhead(tracker, 6, 2);
+		assertEquals(MIN_BATCH_SIZE, tracker.recordMiss(LEDGER_ID, 6));
+	}
+
+
+	@Test
+	public void testRandomReadDropsToMin() {
+		ReadAheadTracker tracker = newTracker(true);
+		tracker.recordMiss(LEDGER_ID, 0);
+		readAhead(tracker, 1, BATCH_SIZE);
+		assertEquals(MIN_BATCH_SIZE, tracker.recordMiss(LEDGER_ID, 100));
+		assertEquals(0, (long) stats.getReadAheadMissCounter().get());
+		assertEquals(BATCH_SIZE * ENTRY_SIZE, (long) stats.getReadAheadWastedBytesCounter().get());
+
+		// Hits outside of the window are not from the read-ahead
+		readAhead(tracker, 101, MIN_BATCH_SIZE);
+		tracker.recordHit(LEDGER_ID, 5);
+		assertEquals(0, (long) stats.getReadAheadHitCounter().get());
+	}
+
+
+	@Test
+	public void testNothingReadAhead() {
+		ReadAheadTracker tracker = newTracker(true);
+		tracker.recordMiss(LEDGER_ID, 0);
+		// The last entry of the ledger was read
+		readAhead(tracker, 1, 0);
+
+		// The next entry added later is not a sign of a sequential reader outpacing the window
+		assertEquals(BATCH_SIZE, tracker.recordMiss(LEDGER_ID, 1));
+		assertEquals(0, (long) stats.getReadAheadMissCounter().get());
+		assertEquals(0, (long) stats.getReadAheadWastedBytesCounter().get());
+	}
+
+
+	@Test
+	public void testNotAdaptive() {
+		ReadAheadTracker tracker = newTracker(false);
+		for (int i = 0; i < 3; i++) {
+			assertEquals(BATCH_SIZE, tracker.recordMiss(LEDGER_ID, i * (BATCH_SIZE + 1)));
+			readAhead(tracker, i * (BATCH_SIZE + 1) + 1, BATCH_SIZE);
+			tracker.recordHit(LEDGER_ID, i * (BATCH_SIZE + 1) + 1);
+		}
+		assertEquals(BATCH_SIZE, tracker.recordMiss(LEDGER_ID, 1000));
+
+		// Nothing tracked
+		assertEquals(0, (long) stats.getReadAheadHitCounter().get());
+		assertEquals(0, (long) stats.getReadAheadMissCounter().get());
+		tracker.cleanupStaleWindows();
+		assertEquals(0, (long) stats.getReadAheadWastedBytesCounter().get());
+	}
+
+
+	private ReadAheadTracker newTracker(boolean adaptive) {
+		return new ReadAheadTracker(adaptive, BATCH_SIZE, MIN_BATCH_SIZE, MAX_BATCH_SIZE, stats);
+	}
+
+
+	private static void readAhead(ReadAheadTracker tracker, long firstEntryId, int count) {
+		tracker.recordReadAhead(LEDGER_ID, firstEntryId, count, count * ENTRY_SIZE);
+	}
+}
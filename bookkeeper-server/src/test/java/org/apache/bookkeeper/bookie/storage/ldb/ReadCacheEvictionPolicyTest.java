@@ -0,0 +1,124 @@
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import static org.junit.Assert.*;
+
+
+@RunWith(Parameterized.class)
+public class ReadCacheEvictionPolicyTest {
+
+	/** Init ReadCache */
+	private ReadCache cache;
+	private enum ConstantChecker {KEPT_AFTER_SCAN, EVICTED_AFTER_SCAN}
+	private ConstantChecker testType;
+
+	private static final ByteBufAllocator allocator = UnpooledByteBufAllocator.DEFAULT;
+
+
+	/** Entry dimension: 1024 byte*/
+	private static int ENTRY_SIZE = 1024;
+
+	/** Max entries inside Cache*/
+	private static int MAX_ENTRIES = 40;
+
+	/** Cache total dimension */
+	private static int CACHE_SIZE = ENTRY_SIZE*MAX_ENTRIES;
+
+	/** Entries read only once by the scan, more than the whole cache */
+	private static int SCAN_ENTRIES = MAX_ENTRIES*4;
+
+	/** Eviction policy */
+	private ReadCache.EvictionPolicy policy;
+
+	/** Whether the hot entry is inserted after a miss */
+	private boolean insertAccessed;
+
+	/** Number of reads of the hot entry before the scan */
+	private int reads;
+
+	/** Hot entry */
+	private ByteBuf entry;
+
+
+
+	@Before
+	public void configure() {
+		this.entry = allocator.buffer(ENTRY_SIZE);
+		this.entry.writeBytes("3ntry_t0_ch3ck".getBytes());
+		this.entry.writerIndex(ENTRY_SIZE);
+
+		cache = new ReadCache(allocator, CACHE_SIZE, ENTRY_SIZE*10, policy, 0.5);
+	}
+
+
+	@After
+	public void closeCache() {
+		cache.close();
+	}
+
+
+	@Parameters
+	public static Collection<Object[]> getParameters()  {
+		return Arrays.asList(new Object[][]{
+				{ReadCache.EvictionPolicy.FIFO, false, 0, ConstantChecker.EVICTED_AFTER_SCAN},
+				{ReadCache.EvictionPolicy.FIFO, false, 2, ConstantChecker.EVICTED_AFTER_SCAN},
+				{ReadCache.EvictionPolicy.FIFO, true, 1, ConstantChecker.EVICTED_AFTER_SCAN},
+				{ReadCache.EvictionPolicy.SLRU, false, 0, ConstantChecker.EVICTED_AFTER_SCAN},
+				{ReadCache.EvictionPolicy.SLRU, false, 1, ConstantChecker.EVICTED_AFTER_SCAN},
+				{ReadCache.EvictionPolicy.SLRU, false, 2, ConstantChecker.KEPT_AFTER_SCAN},
+				{ReadCache.EvictionPolicy.SLRU, true, 0, ConstantChecker.EVICTED_AFTER_SCAN},
+				{ReadCache.EvictionPolicy.SLRU, true, 1, ConstantChecker.KEPT_AFTER_SCAN}
+		});
+	}
+
+
+	public ReadCacheEvictionPolicyTest(ReadCache.EvictionPolicy policy, boolean insertAccessed, int reads,
+			ConstantChecker testType) {
+		this.policy = policy;
+		this.insertAccessed = insertAccessed;
+		this.reads = reads;
+		this.testType = testType;
+	}
+
+
+	@Test
+	public void scanTest() {
+		if(insertAccessed){
+			cache.putAccessed(1, 1, entry);
+		}else{
+			cache.put(1, 1, entry);
+		}
+
+		for(int i = 0; i < reads; i++){
+			ByteBuf res = cache.get(1, 1);
+			assertEquals(entry, res);
+			res.release();
+		}
+
+		/* Catch-up reader, every entry is inserted and then read once */
+		for(int i = 0; i < SCAN_ENTRIES; i++){
+			cache.put(2, i, entry);
+			cache.get(2, i).release();
+		}
+
+		ByteBuf res = cache.get(1, 1);
+		if(this.testType == ConstantChecker.KEPT_AFTER_SCAN){
+			assertEquals(entry, res);
+			res.release();
+		}
+		if(this.testType == ConstantChecker.EVICTED_AFTER_SCAN){assertNull(res);}
+		assertTrue(cache.size() <= CACHE_SIZE);
+	}
+}
@@ -0,0 +1,176 @@
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+
+import static org.junit.Assert.*;
+
+
+public class WriteCacheLedgerBucketsTest {
+
+	private static final int THREADS = 4;
+
+	private static final int LEDGERS = 10;
+
+	private static final int ENTRIES = 1000;
+
+	/** Rounds of concurrent puts of the same entries */
+	private static final int ROUNDS = 20;
+
+	private static final long CACHE_SIZE = 64 * 1024 * 1024;
+
+	private final List<WriteCache> caches = new ArrayList<>();
+
+
+	@After
+	public void shutdown() {
+		caches.forEach(WriteCache::close);
+	}
+
+
+	@Test
+	public void testConcurrentPutsFlushedInOrder() throws Exception {
+		WriteCache cache = newCache(true);
+		// Each thread adds every THREADS-th entry of all the ledgers, the entries of a ledger are interleaved
+		runThreads(t -> {
+			for (long entryId = t; entryId < ENTRIES; entryId += THREADS) {
+				for (long ledgerId = LEDGERS; ledgerId > 0; ledgerId--) {
+					put(cache, ledgerId, entryId, t);
+				}
+			}
+		});
+		assertEquals(LEDGERS * ENTRIES, cache.count());
+
+		List<long[]> flushed = flush(cache);
+		assertEquals(LEDGERS * ENTRIES, flushed.size());
+		for (int i = 0; i < flushed.size(); i++) {
+			long[] entry = flushed.get(i);
+			assertEquals(i / ENTRIES + 1, entry[0]);
+			assertEquals(i % ENTRIES, entry[1]);
+			assertEquals(entry[1] % THREADS, entry[2]);
+		}
+	}
+
+
+	@Test
+	public void testConcurrentDuplicatesFlushedAsIndexed() throws Exception {
+		WriteCache cache = newCache(true);
+		for (int round = 0; round < ROUNDS; round++) {
+			// All the threads add the same entries, the last copy of each entry in the index is flushed
+			runThreads(t -> {
+				for (long entryId = 0; entryId < ENTRIES; entryId++) {
+					put(cache, 1, entryId, t);
+				}
+			});
+
+			List<long[]> flushed = flush(cache);
+			assertEquals(ENTRIES, flushed.size());
+			for (int i = 0; i < flushed.size(); i++) {
+				long[] entry = flushed.get(i);
+				assertEquals(i, entry[1]);
+				ByteBuf indexed = cache.get(1, i);
+				assertEquals("Entry " + i, indexed.getLong(16), entry[2]);
+				indexed.release();
+			}
+			cache.clear();
+		}
+	}
+
+
+	@Test
+	public void testSameOrderAsGlobalSort() throws Exception {
+		WriteCache buckets = newCache(true);
+		WriteCache sorted = newCache(false);
+		for (WriteCache cache : caches) {
+			for (long ledgerId = LEDGERS; ledgerId > 0; ledgerId--) {
+				for (long entryId = ENTRIES - 1; entryId >= 0; entryId -= 3) {
+					put(cache, ledgerId, entryId, 0);
+				}
+				// Added again
+				put(cache, ledgerId, 1, 1);
+			}
+			cache.deleteLedger(2);
+		}
+
+		List<long[]> expected = flush(sorted);
+		List<long[]> flushed = flush(buckets);
+		assertEquals(expected.size(), flushed.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertArrayEquals(expected.get(i), flushed.get(i));
+			assertNotEquals(2, flushed.get(i)[0]);
+		}
+	}
+
+
+	private WriteCache newCache(boolean useLedgerBuckets) {
+		WriteCache cache = new WriteCache(UnpooledByteBufAllocator.DEFAULT, CACHE_SIZE, useLedgerBuckets);
+		caches.add(cache);
+		return cache;
+	}
+
+
+	/**
+	 * Add an entry holding the id of the thread that added it.
+	 */
+	private static void put(WriteCache cache, long ledgerId, long entryId, long threadId) {
+		ByteBuf entry = Unpooled.buffer(64);
+		entry.writeLong(ledgerId);
+		entry.writeLong(entryId);
+		entry.writeLong(threadId);
+		entry.writeZero(entry.writableBytes());
+		assertTrue(cache.put(ledgerId, entryId, entry));
+		entry.release();
+	}
+
+
+	/**
+	 * Flush the cache, returning the (ledgerId, entryId, threadId) of each entry in the order of the flush.
+	 */
+	private static List<long[]> flush(WriteCache cache) throws Exception {
+		List<long[]> flushed = new ArrayList<>();
+		cache.forEach((ledgerId, entryId, entry) -> {
+			assertEquals(ledgerId, entry.getLong(entry.readerIndex()));
+			assertEquals(entryId, entry.getLong(entry.readerIndex() + 8));
+			flushed.add(new long[] { ledgerId, entryId, entry.getLong(entry.readerIndex() + 16) });
+		});
+		return flushed;
+	}
+
+
+	private static void runThreads(ThreadTask task) throws Exception {
+		CyclicBarrier barrier = new CyclicBarrier(THREADS);
+		List<Thread> threads = new ArrayList<>();
+		List<Throwable> failures = new ArrayList<>();
+		for (int t = 0; t < THREADS; t++) {
+			final int threadId = t;
+			Thread thread = new Thread(() -> {
+				try {
+					barrier.await();
+					task.run(threadId);
+				} catch (Throwable e) {
+					synchronized (failures) {
+						failures.add(e);
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(new ArrayList<>(), failures);
+	}
+
+
+	private interface ThreadTask {
+		void run(int threadId) throws Exception;
+	}
+}
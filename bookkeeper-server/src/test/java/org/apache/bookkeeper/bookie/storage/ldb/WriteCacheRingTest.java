@@ -0,0 +1,281 @@
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.apache.bookkeeper.bookie.BookieException.OperationRejectedException;
+import org.apache.bookkeeper.bookie.BookieImpl;
+import org.apache.bookkeeper.bookie.CheckpointSource;
+import org.apache.bookkeeper.bookie.DefaultEntryLogger;
+import org.apache.bookkeeper.bookie.LedgerDirsManager;
+import org.apache.bookkeeper.client.conf.TestBKConfiguration;
+import org.apache.bookkeeper.client.util.TestStatsProvider;
+import org.apache.bookkeeper.client.util.TestStatsProvider.TestOpStatsLogger;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.proto.BookieProtocol;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+
+public class WriteCacheRingTest {
+
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+
+	private static final int RING_SIZE = 3;
+
+	/** Size of the entries added, including the ledger id, entry id and lac */
+	private static final int ENTRY_SIZE = 1024;
+
+	/** Entries held by each write cache of the ring */
+	private static final int ENTRIES_PER_CACHE = 16;
+
+	private static final long LEDGER_ID = 1;
+
+	/** Opened to let the entries be written to the entry log */
+	private final CountDownLatch flushGate = new CountDownLatch(1);
+
+	/** Entries written to the entry log */
+	private final AtomicInteger flushedEntries = new AtomicInteger();
+
+	private ServerConfiguration conf;
+	private LedgerDirsManager ledgerDirsManager;
+	private SingleDirectoryDbLedgerStorage storage;
+	private DbLedgerStorageStats stats;
+
+
+	@Before
+	public void setup() throws Exception {
+		File ledgerDir = tmpDir.newFolder();
+		BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(ledgerDir));
+		conf = TestBKConfiguration.newServerConfiguration();
+		conf.setLedgerDirNames(new String[] { ledgerDir.getPath() });
+		conf.setProperty(DbLedgerStorage.WRITE_CACHE_RING_SIZE, RING_SIZE);
+		ledgerDirsManager = new LedgerDirsManager(conf, conf.getLedgerDirs(),
+				new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()));
+	}
+
+
+	@After
+	public void shutdown() throws Exception {
+		flushGate.countDown();
+		if (storage != null) {
+			storage.shutdown();
+		}
+	}
+
+
+	@Test
+	public void testFullWriteCacheRotated() throws Exception {
+		startStorage(TimeUnit.SECONDS.toMillis(30));
+
+		// The full write caches are rotated with the free ones, while the first one is still being flushed
+		for (long entryId = 0; entryId < RING_SIZE * ENTRIES_PER_CACHE; entryId++) {
+			addEntry(entryId);
+		}
+		assertEquals(0, (long) stats.getThrottledWriteRequests().get());
+		assertEquals(RING_SIZE - 1, pendingFlushCount());
+		assertEquals(0, flushedEntries.get());
+		// Read from the write caches waiting to be flushed
+		checkEntries(RING_SIZE * ENTRIES_PER_CACHE);
+		assertEquals(0, (long) stats.getWriteCacheMissCounter().get());
+
+		// Once flushed, the write caches are free again
+		flushGate.countDown();
+		waitFor(() -> pendingFlushCount() == 0);
+		assertEquals((RING_SIZE - 1) * ENTRIES_PER_CACHE, flushedEntries.get());
+		int entries = (2 * RING_SIZE - 1) * ENTRIES_PER_CACHE;
+		for (long entryId = RING_SIZE * ENTRIES_PER_CACHE; entryId < entries; entryId++) {
+			addEntry(entryId);
+		}
+		assertEquals(0, (long) stats.getThrottledWriteRequests().get());
+
+		storage.flush();
+		assertFalse(storage.isFlushRequired());
+		assertEquals(entries, flushedEntries.get());
+		// Read from the entry log
+		checkEntries(entries);
+		assertEquals(entries, (long) stats.getWriteCacheMissCounter().get());
+	}
+
+
+	@Test
+	public void testThrottledWhenAllWriteCachesFull() throws Exception {
+		startStorage(TimeUnit.SECONDS.toMillis(30));
+		for (long entryId = 0; entryId < RING_SIZE * ENTRIES_PER_CACHE; entryId++) {
+			addEntry(entryId);
+		}
+
+		// No free write cache left until the flush of the oldest one
+		CompletableFuture<Void> throttled = CompletableFuture.runAsync(() -> {
+			try {
+				addEntry(RING_SIZE * ENTRIES_PER_CACHE);
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		});
+		waitFor(() -> stats.getThrottledWriteRequests().get() == 1);
+		Thread.sleep(100);
+		assertFalse(throttled.isDone());
+
+		flushGate.countDown();
+		throttled.get(10, TimeUnit.SECONDS);
+		TestOpStatsLogger throttledStats = (TestOpStatsLogger) stats.getThrottledWriteStats();
+		assertEquals(1, throttledStats.getSuccessCount());
+		assertEquals(0, throttledStats.getFailureCount());
+		assertEquals(0, (long) stats.getRejectedWriteRequests().get());
+
+		storage.flush();
+		checkEntries(RING_SIZE * ENTRIES_PER_CACHE + 1);
+	}
+
+
+	@Test
+	public void testRejectedAfterMaxThrottleTime() throws Exception {
+		startStorage(100);
+		for (long entryId = 0; entryId < RING_SIZE * ENTRIES_PER_CACHE; entryId++) {
+			addEntry(entryId);
+		}
+
+		try {
+			addEntry(RING_SIZE * ENTRIES_PER_CACHE);
+			fail("All the write caches are waiting to be flushed");
+		} catch (OperationRejectedException e) {
+			// Expected
+		}
+		assertEquals(1, (long) stats.getRejectedWriteRequests().get());
+		TestOpStatsLogger throttledStats = (TestOpStatsLogger) stats.getThrottledWriteStats();
+		assertEquals(0, throttledStats.getSuccessCount());
+		assertEquals(1, throttledStats.getFailureCount());
+
+		// Accepted again once a write cache is flushed
+		flushGate.countDown();
+		waitFor(() -> pendingFlushCount() == 0);
+		addEntry(RING_SIZE * ENTRIES_PER_CACHE);
+		assertEquals(1, (long) stats.getRejectedWriteRequests().get());
+	}
+
+
+	@Test
+	public void testCheckpointFlushesRotatedWriteCaches() throws Exception {
+		flushGate.countDown();
+		startStorage(TimeUnit.SECONDS.toMillis(30));
+		for (long entryId = 0; entryId < ENTRIES_PER_CACHE + ENTRIES_PER_CACHE / 2; entryId++) {
+			addEntry(entryId);
+		}
+		assertTrue(storage.isFlushRequired());
+
+		// Both the rotated write cache and the current one are flushed
+		storage.checkpoint(CheckpointSource.DEFAULT.newCheckpoint());
+		assertFalse(storage.isFlushRequired());
+		assertEquals(0, pendingFlushCount());
+		assertEquals(ENTRIES_PER_CACHE + ENTRIES_PER_CACHE / 2, flushedEntries.get());
+		assertEquals(0.0, storage.getWriteCacheUsage(), 0.0);
+		checkEntries(ENTRIES_PER_CACHE + ENTRIES_PER_CACHE / 2);
+	}
+
+
+	@Test
+	public void testCatchUpReads() throws Exception {
+		startStorage(TimeUnit.SECONDS.toMillis(30));
+		for (long entryId = 0; entryId < ENTRIES_PER_CACHE + 1; entryId++) {
+			addEntry(entryId);
+		}
+
+		// Still in the current write cache or in the one waiting to be flushed
+		assertEquals(1, pendingFlushCount());
+		for (long entryId = 0; entryId < ENTRIES_PER_CACHE + 1; entryId++) {
+			assertFalse(storage.isCatchUpRead(LEDGER_ID, entryId));
+		}
+		// Not in the write caches, taken for a catch-up read
+		assertTrue(storage.isCatchUpRead(LEDGER_ID, ENTRIES_PER_CACHE + 1));
+		assertFalse(storage.isCatchUpRead(LEDGER_ID, BookieProtocol.LAST_ADD_CONFIRMED));
+
+		flushGate.countDown();
+		storage.flush();
+		for (long entryId = 0; entryId < ENTRIES_PER_CACHE + 1; entryId++) {
+			assertTrue(storage.isCatchUpRead(LEDGER_ID, entryId));
+		}
+		assertFalse(storage.isCatchUpRead(LEDGER_ID, BookieProtocol.LAST_ADD_CONFIRMED));
+	}
+
+
+	private void startStorage(long maxThrottleTimeMillis) throws Exception {
+		conf.setProperty(DbLedgerStorage.MAX_THROTTLE_TIME_MILLIS, maxThrottleTimeMillis);
+		DefaultEntryLogger entryLogger = new DefaultEntryLogger(conf, ledgerDirsManager) {
+			@Override
+			public long addEntry(long ledgerId, ByteBuf entry) throws IOException {
+				try {
+					flushGate.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException(e);
+				}
+				flushedEntries.incrementAndGet();
+				return super.addEntry(ledgerId, entry);
+			}
+		};
+		storage = new SingleDirectoryDbLedgerStorage(conf, mock(LedgerManager.class), ledgerDirsManager,
+				ledgerDirsManager, entryLogger, new TestStatsProvider().getStatsLogger(""),
+				UnpooledByteBufAllocator.DEFAULT, RING_SIZE * ENTRIES_PER_CACHE * ENTRY_SIZE, 1024 * 1024, 10);
+		stats = storage.getDbLedgerStorageStats();
+	}
+
+
+	private void addEntry(long entryId) throws Exception {
+		ByteBuf entry = Unpooled.buffer(ENTRY_SIZE);
+		entry.writeLong(LEDGER_ID);
+		entry.writeLong(entryId);
+		entry.writeLong(entryId - 1);
+		entry.writeZero(entry.writableBytes());
+		try {
+			storage.addEntry(entry);
+		} finally {
+			entry.release();
+		}
+	}
+
+
+	private void checkEntries(long entries) throws Exception {
+		for (long entryId = 0; entryId < entries; entryId++) {
+			ByteBuf entry = storage.getEntry(LEDGER_ID, entryId);
+			assertEquals(ENTRY_SIZE, entry.readableBytes());
+			assertEquals(entryId, entry.getLong(8));
+			entry.release();
+		}
+	}
+
+
+	private int pendingFlushCount() {
+		return stats.getWriteCachePendingFlushCountGauge().getSample();
+	}
+
+
+	private static void waitFor(Condition condition) throws Exception {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (!condition.isMet()) {
+			assertTrue("Condition not met in time", System.nanoTime() < deadline);
+			Thread.sleep(10);
+		}
+	}
+
+
+	private interface Condition {
+		boolean isMet() throws Exception;
+	}
+}
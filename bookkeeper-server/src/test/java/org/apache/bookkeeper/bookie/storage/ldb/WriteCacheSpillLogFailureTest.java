@@ -0,0 +1,218 @@
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.apache.bookkeeper.proto.BookieProtocol;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+
+public class WriteCacheSpillLogFailureTest {
+
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+
+	/** More rolls and releases than the spill log queue can hold */
+	private static final int REQUESTS = 250_000;
+
+	/** Set to make the writes to the spill segments fail */
+	private final AtomicBoolean failWrites = new AtomicBoolean(false);
+
+	private final CountDownLatch failed = new CountDownLatch(1);
+
+	private WriteCacheSpillLog spillLog;
+
+
+	@Before
+	public void configure() throws IOException {
+		DbLedgerStorageStats stats = new DbLedgerStorageStats(NullStatsLogger.INSTANCE,
+				() -> 0L, () -> 0L, () -> 0, () -> 0L, () -> 0L);
+		spillLog = new WriteCacheSpillLog(tmpDir.getRoot(), TimeUnit.MILLISECONDS.toNanos(1), stats,
+				UnpooledByteBufAllocator.DEFAULT, failed::countDown) {
+			@Override
+			FileChannel openChannel(File segment) throws IOException {
+				return new FailingFileChannel(super.openChannel(segment));
+			}
+		};
+	}
+
+
+	@After
+	public void closeSpillLog() throws IOException {
+		spillLog.close();
+	}
+
+
+	@Test
+	public void testWriteFailure() throws Exception {
+		assertEquals(BookieProtocol.EOK, append(1, 0).get(10, TimeUnit.SECONDS).intValue());
+
+		failWrites.set(true);
+		assertEquals(BookieProtocol.EIO, append(1, 1).get(10, TimeUnit.SECONDS).intValue());
+		assertTrue(failed.await(10, TimeUnit.SECONDS));
+		assertTrue(spillLog.isFailed());
+
+		// New entries are rejected
+		try {
+			append(1, 2);
+			fail("The entry should be rejected once the spill log failed");
+		} catch (IOException e) {
+			// Expected
+		}
+
+		// Rotating and flushing the write caches must not block on the spill log
+		CompletableFuture<Void> rotations = CompletableFuture.runAsync(() -> {
+			for (int i = 0; i < REQUESTS; i++) {
+				spillLog.roll();
+				spillLog.release();
+			}
+		});
+		rotations.get(30, TimeUnit.SECONDS);
+	}
+
+
+	private CompletableFuture<Integer> append(long ledgerId, long entryId) throws IOException {
+		ByteBuf entry = Unpooled.buffer(64);
+		entry.writeLong(ledgerId);
+		entry.writeLong(entryId);
+		entry.writeBytes(new byte[48]);
+
+		CompletableFuture<Integer> result = new CompletableFuture<>();
+		try {
+			spillLog.append(entry, ledgerId, entryId, (rc, lid, eid, addr, ctx) -> result.complete(rc), null);
+		} finally {
+			entry.release();
+		}
+		return result;
+	}
+
+
+	/**
+	 * FileChannel failing the writes once failWrites is set.
+	 */
+	private class FailingFileChannel extends FileChannel {
+		private final FileChannel channel;
+
+		FailingFileChannel(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		private void checkWrite() throws IOException {
+			if (failWrites.get()) {
+				throw new IOException("Injected write failure");
+			}
+		}
+
+		@Override
+		public int read(ByteBuffer dst) throws IOException {
+			return channel.read(dst);
+		}
+
+		@Override
+		public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+			return channel.read(dsts, offset, length);
+		}
+
+		@Override
+		public int write(ByteBuffer src) throws IOException {
+			checkWrite();
+			return channel.write(src);
+		}
+
+		@Override
+		public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+			checkWrite();
+			return channel.write(srcs, offset, length);
+		}
+
+		@Override
+		public long position() throws IOException {
+			return channel.position();
+		}
+
+		@Override
+		public FileChannel position(long newPosition) throws IOException {
+			channel.position(newPosition);
+			return this;
+		}
+
+		@Override
+		public long size() throws IOException {
+			return channel.size();
+		}
+
+		@Override
+		public FileChannel truncate(long size) throws IOException {
+			channel.truncate(size);
+			return this;
+		}
+
+		@Override
+		public void force(boolean metaData) throws IOException {
+			checkWrite();
+			channel.force(metaData);
+		}
+
+		@Override
+		public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+			return channel.transferTo(position, count, target);
+		}
+
+		@Override
+		public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+			checkWrite();
+			return channel.transferFrom(src, position, count);
+		}
+
+		@Override
+		public int read(ByteBuffer dst, long position) throws IOException {
+			return channel.read(dst, position);
+		}
+
+		@Override
+		public int write(ByteBuffer src, long position) throws IOException {
+			checkWrite();
+			return channel.write(src, position);
+		}
+
+		@Override
+		public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+			return channel.map(mode, position, size);
+		}
+
+		@Override
+		public FileLock lock(long position, long size, boolean shared) throws IOException {
+			return channel.lock(position, size, shared);
+		}
+
+		@Override
+		public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+			return channel.tryLock(position, size, shared);
+		}
+
+		@Override
+		protected void implCloseChannel() throws IOException {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package org.apache.bookkeeper.common.util.nativeio;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+
+public class NativeIOImplTest {
+
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+
+	/** Errno of a bad file descriptor */
+	private static final int EBADF = 9;
+
+	private final NativeIO nativeIO = new NativeIOImpl();
+
+
+	@Test
+	public void testCopyFileRange() throws Exception {
+		byte[] content = content(100_000);
+		File src = tmpDir.newFile();
+		Files.write(src.toPath(), content);
+		File dst = tmpDir.newFile();
+		Files.write(dst.toPath(), new byte[10]);
+
+		int srcFd = nativeIO.open(src.getPath(), NativeIO.O_RDONLY, 00644);
+		int dstFd = nativeIO.open(dst.getPath(), NativeIO.O_WRONLY, 00644);
+		try {
+			// A range from the middle of the source, appended after the existing content
+			long copied = 0;
+			while (copied < 50_000) {
+				long ret = nativeIO.copyFileRange(srcFd, 1000 + copied, dstFd, 10 + copied, 50_000 - copied);
+				assertTrue(ret > 0);
+				copied += ret;
+			}
+			assertEquals(50_000, copied);
+		} finally {
+			nativeIO.close(srcFd);
+			nativeIO.close(dstFd);
+		}
+
+		byte[] written = Files.readAllBytes(dst.toPath());
+		assertEquals(50_010, written.length);
+		assertArrayEquals(new byte[10], Arrays.copyOfRange(written, 0, 10));
+		assertArrayEquals(Arrays.copyOfRange(content, 1000, 51_000), Arrays.copyOfRange(written, 10, 50_010));
+	}
+
+
+	@Test
+	public void testCopyFileRangePastEndOfFile() throws Exception {
+		File src = tmpDir.newFile();
+		Files.write(src.toPath(), content(1000));
+		File dst = tmpDir.newFile();
+
+		int srcFd = nativeIO.open(src.getPath(), NativeIO.O_RDONLY, 00644);
+		int dstFd = nativeIO.open(dst.getPath(), NativeIO.O_WRONLY, 00644);
+		try {
+			// The copy is short at the end of the source, and empty past it
+			assertEquals(200, nativeIO.copyFileRange(srcFd, 800, dstFd, 0, 1000));
+			assertEquals(0, nativeIO.copyFileRange(srcFd, 1000, dstFd, 200, 1000));
+		} finally {
+			nativeIO.close(srcFd);
+			nativeIO.close(dstFd);
+		}
+		assertEquals(200, dst.length());
+	}
+
+
+	@Test
+	public void testCopyFileRangeError() throws Exception {
+		File dst = tmpDir.newFile();
+		int dstFd = nativeIO.open(dst.getPath(), NativeIO.O_WRONLY, 00644);
+		try {
+			nativeIO.copyFileRange(-1, 0, dstFd, 0, 1000);
+			fail("The source descriptor is invalid");
+		} catch (NativeIOException e) {
+			assertEquals(EBADF, e.getErrno());
+		} finally {
+			nativeIO.close(dstFd);
+		}
+	}
+
+
+	private static byte[] content(int size) {
+		byte[] content = new byte[size];
+		for (int i = 0; i < size; i++) {
+			content[i] = (byte) (i * 31 + i / 256);
+		}
+		return content;
+	}
+}
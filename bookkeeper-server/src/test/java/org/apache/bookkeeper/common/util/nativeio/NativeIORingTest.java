@@ -0,0 +1,223 @@
+package org.apache.bookkeeper.common.util.nativeio;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+
+public class NativeIORingTest {
+
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+
+	private static final int CHUNK_SIZE = 4096;
+
+	private static final int CHUNKS = 4;
+
+	/** Errno of a bad file descriptor */
+	private static final int EBADF = 9;
+
+	private final NativeIO nativeIO = new NativeIOImpl();
+	private final List<ByteBuf> allocated = new ArrayList<>();
+	private NativeIORing ring;
+
+
+	@Before
+	public void setupRing() {
+		try {
+			ring = nativeIO.ringSetup(CHUNKS + 1);
+		} catch (NativeIOException e) {
+			Assume.assumeNoException("io_uring is not available", e);
+		}
+	}
+
+
+	@After
+	public void closeRing() throws Exception {
+		if (ring != null) {
+			ring.close();
+		}
+		allocated.forEach(ByteBuf::release);
+	}
+
+
+	@Test
+	public void testWriteSyncRead() throws Exception {
+		File file = tmpDir.newFile();
+		ByteBuf sourceBuffer = allocate(CHUNKS * CHUNK_SIZE);
+		for (int i = 0; i < CHUNKS * CHUNK_SIZE; i++) {
+			sourceBuffer.setByte(i, i * 31);
+		}
+		long source = sourceBuffer.memoryAddress();
+
+		// The chunks are written in parallel, the sync only starts once they completed
+		int fd = nativeIO.open(file.getPath(), NativeIO.O_WRONLY, 00644);
+		for (int i = 0; i < CHUNKS; i++) {
+			ring.prepareWrite(fd, source + i * CHUNK_SIZE, CHUNK_SIZE, (long) i * CHUNK_SIZE, i);
+		}
+		ring.prepareFsync(fd, true, CHUNKS);
+		int[] results = reap(CHUNKS + 1);
+		for (int i = 0; i < CHUNKS; i++) {
+			assertEquals(CHUNK_SIZE, results[i]);
+		}
+		assertEquals(0, results[CHUNKS]);
+		nativeIO.close(fd);
+		assertArrayEquals(bytes(sourceBuffer), Files.readAllBytes(file.toPath()));
+
+		// Read back in the reverse order
+		ByteBuf targetBuffer = allocate(CHUNKS * CHUNK_SIZE);
+		long target = targetBuffer.memoryAddress();
+		fd = nativeIO.open(file.getPath(), NativeIO.O_RDONLY, 00644);
+		for (int i = CHUNKS - 1; i >= 0; i--) {
+			ring.prepareRead(fd, target + i * CHUNK_SIZE, CHUNK_SIZE, (long) i * CHUNK_SIZE, i);
+		}
+		results = reap(CHUNKS);
+		for (int i = 0; i < CHUNKS; i++) {
+			assertEquals(CHUNK_SIZE, results[i]);
+		}
+		nativeIO.close(fd);
+		assertArrayEquals(bytes(sourceBuffer), bytes(targetBuffer));
+	}
+
+
+	@Test
+	public void testShortReadAtEndOfFile() throws Exception {
+		File file = tmpDir.newFile();
+		Files.write(file.toPath(), new byte[CHUNK_SIZE + 100]);
+		long target = allocate(2 * CHUNK_SIZE).memoryAddress();
+
+		int fd = nativeIO.open(file.getPath(), NativeIO.O_RDONLY, 00644);
+		ring.prepareRead(fd, target, CHUNK_SIZE, 0, 0);
+		ring.prepareRead(fd, target + CHUNK_SIZE, CHUNK_SIZE, CHUNK_SIZE, 1);
+		ring.prepareRead(fd, target, CHUNK_SIZE, 2 * CHUNK_SIZE, 2);
+		int[] results = reap(3);
+		nativeIO.close(fd);
+		assertEquals(CHUNK_SIZE, results[0]);
+		assertEquals(100, results[1]);
+		assertEquals(0, results[2]);
+	}
+
+
+	@Test
+	public void testErrorReturnedInCompletion() throws Exception {
+		long target = allocate(CHUNK_SIZE).memoryAddress();
+		ring.prepareRead(-1, target, CHUNK_SIZE, 0, 0);
+		assertEquals(-EBADF, reap(1)[0]);
+	}
+
+
+	@Test
+	public void testSubmissionQueueFull() throws Exception {
+		long target = allocate(CHUNK_SIZE).memoryAddress();
+		File file = tmpDir.newFile();
+		int fd = nativeIO.open(file.getPath(), NativeIO.O_RDONLY, 00644);
+		try {
+			// The kernel may round the size of the queue up, to the next power of two
+			int prepared = 0;
+			try {
+				while (prepared <= 2 * ring.entries()) {
+					ring.prepareRead(fd, target, CHUNK_SIZE, 0, prepared);
+					prepared++;
+				}
+				fail("The submission queue should be full");
+			} catch (NativeIOException e) {
+				assertTrue(prepared >= ring.entries());
+			}
+
+			// The prepared operations can be submitted, which frees the queue
+			int[] results = reap(prepared);
+			for (int result : results) {
+				assertEquals(0, result);
+			}
+			ring.prepareRead(fd, target, CHUNK_SIZE, 0, 0);
+			reap(1);
+		} finally {
+			nativeIO.close(fd);
+		}
+	}
+
+
+	@Test
+	public void testCloseWaitsForOperationsInFlight() throws Exception {
+		File file = tmpDir.newFile();
+		byte[] content = new byte[CHUNKS * CHUNK_SIZE];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) (i * 7);
+		}
+		Files.write(file.toPath(), content);
+		ByteBuf targetBuffer = allocate(CHUNKS * CHUNK_SIZE);
+		long target = targetBuffer.memoryAddress();
+
+		int fd = nativeIO.open(file.getPath(), NativeIO.O_RDONLY, 00644);
+		for (int i = 0; i < CHUNKS; i++) {
+			ring.prepareRead(fd, target + i * CHUNK_SIZE, CHUNK_SIZE, (long) i * CHUNK_SIZE, i);
+		}
+		// Some are submitted, the others only prepared
+		ring.submitAndWait(0, new long[CHUNKS], new int[CHUNKS]);
+		ring.prepareFsync(fd, false, CHUNKS);
+
+		// All the operations completed once the ring is closed, so the memory can be freed
+		ring.close();
+		nativeIO.close(fd);
+		assertArrayEquals(content, bytes(targetBuffer));
+
+		try {
+			ring.prepareRead(fd, target, CHUNK_SIZE, 0, 0);
+			fail("The ring is closed");
+		} catch (NativeIOException e) {
+			// Expected
+		}
+		ring.close();
+		ring = null;
+	}
+
+
+	/**
+	 * Submit the prepared operations and wait for their completions.
+	 *
+	 * @return the results of the operations, by user data
+	 */
+	private int[] reap(int operations) throws Exception {
+		long[] userData = new long[operations];
+		int[] completed = new int[operations];
+		int[] results = new int[operations];
+		int reaped = 0;
+		while (reaped < operations) {
+			int n = ring.submitAndWait(operations - reaped, userData, completed);
+			for (int i = 0; i < n; i++) {
+				results[(int) userData[i]] = completed[i];
+			}
+			reaped += n;
+		}
+		return results;
+	}
+
+
+	/**
+	 * @return a direct buffer, whose memory address is passed to the ring
+	 */
+	private ByteBuf allocate(int size) {
+		ByteBuf buffer = PooledByteBufAllocator.DEFAULT.directBuffer(size, size);
+		allocated.add(buffer);
+		return buffer;
+	}
+
+
+	private static byte[] bytes(ByteBuf buffer) {
+		byte[] bytes = new byte[buffer.capacity()];
+		buffer.getBytes(0, bytes);
+		return bytes;
+	}
+}
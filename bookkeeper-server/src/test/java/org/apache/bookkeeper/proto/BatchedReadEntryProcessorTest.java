@@ -0,0 +1,234 @@
+package org.apache.bookkeeper.proto;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.BookKeeper.DigestType;
+import org.apache.bookkeeper.client.LedgerHandle;
+import org.apache.bookkeeper.client.conf.BookKeeperClusterTestCase;
+import org.apache.bookkeeper.net.BookieId;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+
+public class BatchedReadEntryProcessorTest extends BookKeeperClusterTestCase {
+
+	private static final byte[] PASSWORD = "p@SSw0rd".getBytes();
+
+	/** Frame size of the bookies, that bounds the batched read responses */
+	private static final int BOOKIE_FRAME_SIZE = 64 * 1024;
+
+	/** Size of the frame size, headers and request id of a batched read response */
+	private static final int RESPONSE_HEADERS_SIZE = 4 + 4 + 4 + 8 + 8 + 8;
+
+	/** Size of the length preceding each entry in a batched read response */
+	private static final int ENTRY_HEADER_SIZE = 4;
+
+
+	public BatchedReadEntryProcessorTest() {
+		super(2, 120);
+	}
+
+
+	@Before
+	@Override
+	public void setUp() throws Exception {
+		baseConf.setJournalRemovePagesFromCache(false);
+		baseConf.setNettyMaxFrameSizeBytes(BOOKIE_FRAME_SIZE);
+		baseClientConf.setUseV2WireProtocol(true);
+		super.setUp();
+	}
+
+
+	@Test
+	public void testReadRange() throws Exception {
+		LedgerHandle lh = writeLedger(1, 10, 100);
+		BookieId bookie = firstBookie(lh);
+
+		BatchedRead read = batchRead(bookie, lh.getId(), 0, 10, Long.MAX_VALUE);
+		assertEquals(BKException.Code.OK, read.rc);
+		assertEntries(lh.getId(), 0, 10, read);
+
+		read = batchRead(bookie, lh.getId(), 3, 4, Long.MAX_VALUE);
+		assertEquals(BKException.Code.OK, read.rc);
+		assertEntries(lh.getId(), 3, 4, read);
+	}
+
+
+	@Test
+	public void testReadRangeEndingWithMissingEntries() throws Exception {
+		LedgerHandle lh = writeLedger(1, 10, 100);
+		BookieId bookie = firstBookie(lh);
+
+		// The entries up to the first missing one are returned
+		BatchedRead read = batchRead(bookie, lh.getId(), 5, 20, Long.MAX_VALUE);
+		assertEquals(BKException.Code.OK, read.rc);
+		assertEntries(lh.getId(), 5, 5, read);
+
+		// The read fails like a single read when the first entry is missing
+		read = batchRead(bookie, lh.getId(), 10, 20, Long.MAX_VALUE);
+		assertEquals(BKException.Code.NoSuchEntryException, read.rc);
+		assertTrue(read.entries.isEmpty());
+
+		read = batchRead(bookie, lh.getId() + 1000, 0, 20, Long.MAX_VALUE);
+		assertEquals(BKException.Code.NoSuchLedgerExistsException, read.rc);
+		assertTrue(read.entries.isEmpty());
+	}
+
+
+	@Test
+	public void testReadRangeWithHoles() throws Exception {
+		// Each bookie only stores every other entry
+		LedgerHandle lh = writeLedger(2, 10, 100);
+		BookieId bookie = firstBookie(lh);
+
+		BatchedRead read = batchRead(bookie, lh.getId(), 0, 10, Long.MAX_VALUE);
+		assertEquals(BKException.Code.OK, read.rc);
+		assertEntries(lh.getId(), 0, 1, read);
+
+		read = batchRead(bookie, lh.getId(), 1, 10, Long.MAX_VALUE);
+		assertEquals(BKException.Code.NoSuchEntryException, read.rc);
+	}
+
+
+	@Test
+	public void testMaxSize() throws Exception {
+		LedgerHandle lh = writeLedger(1, 10, 1000);
+		BookieId bookie = firstBookie(lh);
+
+		BatchedRead all = batchRead(bookie, lh.getId(), 0, 10, Long.MAX_VALUE);
+		assertEntries(lh.getId(), 0, 10, all);
+		int entrySize = all.entries.get(0).length;
+
+		// Only the entries fitting in the maximum size are returned
+		long maxSize = RESPONSE_HEADERS_SIZE + 3 * (ENTRY_HEADER_SIZE + entrySize);
+		BatchedRead read = batchRead(bookie, lh.getId(), 0, 10, maxSize);
+		assertEquals(BKException.Code.OK, read.rc);
+		assertEntries(lh.getId(), 0, 3, read);
+
+		read = batchRead(bookie, lh.getId(), 0, 10, maxSize - 1);
+		assertEquals(BKException.Code.OK, read.rc);
+		assertEntries(lh.getId(), 0, 2, read);
+
+		// The first entry is always returned
+		read = batchRead(bookie, lh.getId(), 4, 10, 1);
+		assertEquals(BKException.Code.OK, read.rc);
+		assertEntries(lh.getId(), 4, 1, read);
+	}
+
+
+	@Test
+	public void testMaxCount() throws Exception {
+		LedgerHandle lh = writeLedger(1, 10, 100);
+		BookieId bookie = firstBookie(lh);
+
+		BatchedRead read = batchRead(bookie, lh.getId(), 2, 3, Long.MAX_VALUE);
+		assertEquals(BKException.Code.OK, read.rc);
+		assertEntries(lh.getId(), 2, 3, read);
+
+		// At least one entry is read
+		read = batchRead(bookie, lh.getId(), 2, 0, Long.MAX_VALUE);
+		assertEquals(BKException.Code.OK, read.rc);
+		assertEntries(lh.getId(), 2, 1, read);
+	}
+
+
+	@Test
+	public void testResponseBoundedByFrameSize() throws Exception {
+		int entries = 20;
+		LedgerHandle lh = writeLedger(1, entries, 10 * 1024);
+		BookieId bookie = firstBookie(lh);
+
+		// The client asks for more than the frame size of the bookie
+		BatchedRead read = batchRead(bookie, lh.getId(), 0, entries, Long.MAX_VALUE);
+		assertEquals(BKException.Code.OK, read.rc);
+		int count = read.entries.size();
+		assertTrue("Expected a truncated response, got " + count + " entries", count > 1 && count < entries);
+		assertEntries(lh.getId(), 0, count, read);
+
+		long responseSize = RESPONSE_HEADERS_SIZE;
+		for (byte[] entry : read.entries) {
+			responseSize += ENTRY_HEADER_SIZE + entry.length;
+		}
+		assertTrue(responseSize <= BOOKIE_FRAME_SIZE);
+		// The next entry would not have fit
+		assertTrue(responseSize + ENTRY_HEADER_SIZE + read.entries.get(0).length > BOOKIE_FRAME_SIZE);
+
+		// The next entries are read from where the response stopped
+		BatchedRead next = batchRead(bookie, lh.getId(), count, entries, Long.MAX_VALUE);
+		assertEquals(BKException.Code.OK, next.rc);
+		assertEntries(lh.getId(), count, Math.min(count, entries - count), next);
+	}
+
+
+	private LedgerHandle writeLedger(int ensembleSize, int entries, int entrySize) throws Exception {
+		LedgerHandle lh = bkc.createLedger(ensembleSize, 1, 1, DigestType.CRC32, PASSWORD);
+		byte[] entry = new byte[entrySize];
+		for (int i = 0; i < entries; i++) {
+			Arrays.fill(entry, (byte) i);
+			lh.addEntry(entry);
+		}
+		lh.close();
+		return lh;
+	}
+
+
+	private static BookieId firstBookie(LedgerHandle lh) {
+		return lh.getLedgerMetadata().getAllEnsembles().get(0L).get(0);
+	}
+
+
+	private BatchedRead batchRead(BookieId bookie, long ledgerId, long startEntryId, int maxCount, long maxSize)
+			throws Exception {
+		CompletableFuture<BatchedRead> result = new CompletableFuture<>();
+		bkc.getBookieClient().batchReadEntries(bookie, ledgerId, startEntryId, maxCount, maxSize,
+				(rc, lid, eid, bufList, ctx) -> {
+					// The entries are released once the callback returns
+					List<byte[]> entries = new ArrayList<>();
+					for (int i = 0; bufList != null && i < bufList.size(); i++) {
+						ByteBuf buffer = bufList.getBuffer(i);
+						byte[] entry = new byte[buffer.readableBytes()];
+						buffer.getBytes(buffer.readerIndex(), entry);
+						entries.add(entry);
+					}
+					result.complete(new BatchedRead(rc, entries));
+				}, null, BookieProtocol.FLAG_NONE, false);
+		return result.get(10, TimeUnit.SECONDS);
+	}
+
+
+	/**
+	 * Check that the entries read are the consecutive entries of the ledger from the start entry.
+	 */
+	private static void assertEntries(long ledgerId, long startEntryId, int count, BatchedRead read) {
+		assertEquals(count, read.entries.size());
+		for (int i = 0; i < count; i++) {
+			// The stored entries start with their ledger and entry ids
+			ByteBuf entry = Unpooled.wrappedBuffer(read.entries.get(i));
+			assertEquals(ledgerId, entry.readLong());
+			assertEquals(startEntryId + i, entry.readLong());
+		}
+	}
+
+
+	/**
+	 * Result of a batched read.
+	 */
+	private static class BatchedRead {
+		final int rc;
+		final List<byte[]> entries;
+
+		BatchedRead(int rc, List<byte[]> entries) {
+			this.rc = rc;
+			this.entries = entries;
+		}
+	}
+}
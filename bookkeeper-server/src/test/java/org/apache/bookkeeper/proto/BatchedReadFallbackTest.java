@@ -0,0 +1,165 @@
+package org.apache.bookkeeper.proto;
+
+import org.apache.bookkeeper.client.BookKeeper.DigestType;
+import org.apache.bookkeeper.client.BookKeeperTestClient;
+import org.apache.bookkeeper.client.LedgerEntry;
+import org.apache.bookkeeper.client.LedgerHandle;
+import org.apache.bookkeeper.client.conf.BookKeeperClusterTestCase;
+import org.apache.bookkeeper.conf.ClientConfiguration;
+import org.apache.bookkeeper.processor.RequestProcessor;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+
+public class BatchedReadFallbackTest extends BookKeeperClusterTestCase {
+
+	private static final byte[] PASSWORD = "p@SSw0rd".getBytes();
+
+	private static final int ENTRIES = 50;
+
+	private static final int ENTRY_SIZE = 1024;
+
+	/** Request processors of the bookies, counting the reads they receive */
+	private final List<CountingRequestProcessor> processors = new ArrayList<>();
+
+
+	public BatchedReadFallbackTest() {
+		super(2, 120);
+	}
+
+
+	@Before
+	@Override
+	public void setUp() throws Exception {
+		baseConf.setJournalRemovePagesFromCache(false);
+		baseClientConf.setUseV2WireProtocol(true);
+		super.setUp();
+		for (int i = 0; i < numBookies; i++) {
+			BookieNettyServer nettyServer = serverByIndex(i).nettyServer;
+			// Used by the connections accepted from now on
+			CountingRequestProcessor processor = new CountingRequestProcessor(nettyServer.requestProcessor);
+			nettyServer.requestProcessor = processor;
+			processors.add(processor);
+		}
+	}
+
+
+	@Test
+	public void testBatchedReads() throws Exception {
+		long ledgerId = writeLedger();
+
+		readLedger(ledgerId);
+		assertTrue(batchedReads() > 0);
+		assertEquals(0, singleReads());
+	}
+
+
+	@Test
+	public void testFallbackWhenBatchedReadsNotSupported() throws Exception {
+		long ledgerId = writeLedger();
+		processors.forEach(processor -> processor.supportsBatchedReads = false);
+
+		// The entries are read one by one from the next replicas
+		readLedger(ledgerId);
+		assertTrue(batchedReads() > 0);
+		assertTrue(singleReads() >= ENTRIES);
+	}
+
+
+	private long writeLedger() throws Exception {
+		LedgerHandle lh = bkc.createLedger(2, 2, 2, DigestType.CRC32, PASSWORD);
+		for (int i = 0; i < ENTRIES; i++) {
+			lh.addEntry(entry(i));
+		}
+		lh.close();
+		return lh.getId();
+	}
+
+
+	private void readLedger(long ledgerId) throws Exception {
+		ClientConfiguration conf = new ClientConfiguration(baseClientConf)
+				.setBatchReadEnabled(true)
+				.setStickyReadsEnabled(true);
+		conf.setMetadataServiceUri(metadataServiceUri);
+		try (BookKeeperTestClient client = new BookKeeperTestClient(conf)) {
+			LedgerHandle lh = client.openLedger(ledgerId, DigestType.CRC32, PASSWORD);
+			Enumeration<LedgerEntry> entries = lh.readEntries(0, ENTRIES - 1);
+			int entryId = 0;
+			while (entries.hasMoreElements()) {
+				LedgerEntry entry = entries.nextElement();
+				assertEquals(entryId, entry.getEntryId());
+				assertArrayEquals(entry(entryId++), entry.getEntry());
+			}
+			assertEquals(ENTRIES, entryId);
+			lh.close();
+		}
+	}
+
+
+	private int batchedReads() {
+		return processors.stream().mapToInt(processor -> processor.batchedReads.get()).sum();
+	}
+
+
+	private int singleReads() {
+		return processors.stream().mapToInt(processor -> processor.singleReads.get()).sum();
+	}
+
+
+	private static byte[] entry(int entryId) {
+		byte[] entry = new byte[ENTRY_SIZE];
+		Arrays.fill(entry, (byte) entryId);
+		return entry;
+	}
+
+
+	/**
+	 * Request processor counting the reads, that can reject the batched reads like a bookie that doesn't know
+	 * their opcode.
+	 */
+	private static class CountingRequestProcessor implements RequestProcessor {
+		private final RequestProcessor processor;
+		private final AtomicInteger batchedReads = new AtomicInteger();
+		private final AtomicInteger singleReads = new AtomicInteger();
+		private volatile boolean supportsBatchedReads = true;
+
+		CountingRequestProcessor(RequestProcessor processor) {
+			this.processor = processor;
+		}
+
+		@Override
+		public void processRequest(Object r, BookieRequestHandler channel) {
+			if (r instanceof BookieProtocol.Request) {
+				byte opCode = ((BookieProtocol.Request) r).getOpCode();
+				if (opCode == BookieProtocol.BATCH_READ_ENTRY) {
+					batchedReads.incrementAndGet();
+					if (!supportsBatchedReads) {
+						// As the decoder of an older bookie, the connection gets closed
+						throw new IllegalStateException("Received unknown request op code = " + opCode);
+					}
+				} else if (opCode == BookieProtocol.READENTRY) {
+					singleReads.incrementAndGet();
+				}
+			}
+			processor.processRequest(r, channel);
+		}
+
+		@Override
+		public void flushPendingRequests(BookieRequestHandler channel) {
+			processor.flushPendingRequests(channel);
+		}
+
+		@Override
+		public void close() {
+			processor.close();
+		}
+	}
+}
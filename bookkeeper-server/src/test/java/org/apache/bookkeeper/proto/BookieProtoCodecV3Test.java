@@ -0,0 +1,722 @@
+package org.apache.bookkeeper.proto;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.util.ReferenceCounted;
+import org.apache.bookkeeper.proto.BookieProtoCodecV3.ParsedRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.AddRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.AddResponse;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.BKPacketHeader;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ContextPair;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.OperationType;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ProtocolVersion;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadLacRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadLacResponse;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadResponse;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.Request;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.Response;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.StatusCode;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.WriteLacRequest;
+import org.apache.bookkeeper.util.ByteBufList;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+
+public class BookieProtoCodecV3Test {
+
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+
+	private static final ByteBufAllocator allocator = UnpooledByteBufAllocator.DEFAULT;
+
+	private static final byte[] MASTER_KEY = "master-key".getBytes();
+
+	/** Entries from this size are sent by reference instead of being copied in the response */
+	private static final int LARGE_ENTRY_SIZE = BookieProtoEncoding.SMALL_ENTRY_SIZE_THRESHOLD + 1;
+
+
+	/* Request decoding, checked against the generated protobuf parser */
+
+	@Test
+	public void testDecodeAddRequest() throws Exception {
+		Request request = addRequest(1, 2, 3, entry(100)).build();
+
+		ParsedRequest parsed = decode(request.toByteArray());
+		assertParsedAs(request, parsed);
+		assertFalse(parsed.isRecoveryAdd());
+		assertFalse(parsed.isHighPriority());
+		assertEquals(0, parsed.getWriteFlags());
+		assertEquals(0, parsed.getCredits());
+		release(parsed);
+	}
+
+
+	@Test
+	public void testDecodeAddRequestWithOptionalFields() throws Exception {
+		Request.Builder builder = addRequest(1, 2, 3, entry(100));
+		builder.getHeaderBuilder().setPriority(1).setCredits(64);
+		builder.getAddRequestBuilder().setFlag(AddRequest.Flag.RECOVERY_ADD).setWriteFlags(1);
+		Request request = builder.build();
+
+		ParsedRequest parsed = decode(request.toByteArray());
+		assertParsedAs(request, parsed);
+		assertTrue(parsed.isRecoveryAdd());
+		assertTrue(parsed.isHighPriority());
+		assertEquals(1, parsed.getWriteFlags());
+		assertEquals(64, parsed.getCredits());
+		release(parsed);
+	}
+
+
+	@Test
+	public void testDecodeNegativeValues() throws Exception {
+		Request.Builder builder = addRequest(Long.MAX_VALUE, -1, -2, entry(10));
+		// A negative int32 is encoded as a 10 bytes varint, a negative uint32 as a 5 bytes varint
+		builder.getHeaderBuilder().setPriority(-1);
+		builder.getAddRequestBuilder().setWriteFlags(Integer.MIN_VALUE);
+		Request request = builder.build();
+		assertEquals(10, CodedOutputStream.computeInt32SizeNoTag(Integer.MIN_VALUE));
+
+		ParsedRequest parsed = decode(request.toByteArray());
+		assertParsedAs(request, parsed);
+		assertEquals(-1L, parsed.getLedgerId());
+		assertEquals(-2L, parsed.getEntryId());
+		assertEquals(Integer.MIN_VALUE, parsed.getWriteFlags());
+		// Same as RequestUtils.isHighPriority
+		assertEquals(RequestUtils.isHighPriority(request), parsed.isHighPriority());
+		release(parsed);
+	}
+
+
+	@Test
+	public void testDecodeReadRequest() throws Exception {
+		Request request = readRequest(1, 2, BookieProtocol.LAST_ADD_CONFIRMED).build();
+		ParsedRequest parsed = decode(request.toByteArray());
+		assertParsedAs(request, parsed);
+		assertNull(parsed.getBody());
+		parsed.recycle();
+
+		// The master key is only used by the fencing reads
+		Request.Builder builder = readRequest(1, 2, 3);
+		builder.getReadRequestBuilder().setMasterKey(ByteString.copyFrom(MASTER_KEY));
+		request = builder.build();
+		parsed = decode(request.toByteArray());
+		assertParsedAs(request, parsed);
+		parsed.recycle();
+	}
+
+
+	@Test
+	public void testDecodeReadLacRequest() throws Exception {
+		Request request = readLacRequest(1, -5).build();
+		ParsedRequest parsed = decode(request.toByteArray());
+		assertParsedAs(request, parsed);
+		parsed.recycle();
+	}
+
+
+	@Test
+	public void testDecodeOutOfOrderFields() throws Exception {
+		// Body first, entry id before ledger id, and the header fields in reverse order
+		byte[] add = concat(
+				bytesField(AddRequest.BODY_FIELD_NUMBER, entry(20)),
+				bytesField(AddRequest.MASTERKEY_FIELD_NUMBER, MASTER_KEY),
+				varintField(AddRequest.ENTRYID_FIELD_NUMBER, 7),
+				varintField(AddRequest.LEDGERID_FIELD_NUMBER, 5));
+		byte[] header = concat(
+				varintField(BKPacketHeader.TXNID_FIELD_NUMBER, 9),
+				varintField(BKPacketHeader.OPERATION_FIELD_NUMBER, OperationType.ADD_ENTRY_VALUE),
+				varintField(BKPacketHeader.VERSION_FIELD_NUMBER, ProtocolVersion.VERSION_THREE_VALUE));
+		byte[] message = concat(
+				bytesField(Request.HEADER_FIELD_NUMBER, header),
+				bytesField(Request.ADDREQUEST_FIELD_NUMBER, add));
+
+		ParsedRequest parsed = decode(message);
+		assertParsedAs(Request.parseFrom(message), parsed);
+		release(parsed);
+	}
+
+
+	@Test
+	public void testDecodeRepeatedFields() throws Exception {
+		// The last value of a field wins, as with protobuf
+		byte[] read = concat(
+				varintField(ReadRequest.LEDGERID_FIELD_NUMBER, 5),
+				varintField(ReadRequest.ENTRYID_FIELD_NUMBER, 7),
+				varintField(ReadRequest.LEDGERID_FIELD_NUMBER, 6));
+		byte[] message = concat(
+				bytesField(Request.HEADER_FIELD_NUMBER, header(OperationType.READ_ENTRY, 1).toByteArray()),
+				bytesField(Request.READREQUEST_FIELD_NUMBER, read));
+
+		ParsedRequest parsed = decode(message);
+		assertParsedAs(Request.parseFrom(message), parsed);
+		assertEquals(6, parsed.getLedgerId());
+		parsed.recycle();
+
+		byte[] add = concat(
+				addRequest(5, 7, 1, entry(10)).build().getAddRequest().toByteArray(),
+				bytesField(AddRequest.BODY_FIELD_NUMBER, entry(30)));
+		message = concat(
+				bytesField(Request.HEADER_FIELD_NUMBER, header(OperationType.ADD_ENTRY, 1).toByteArray()),
+				bytesField(Request.ADDREQUEST_FIELD_NUMBER, add));
+		parsed = decode(message);
+		assertParsedAs(Request.parseFrom(message), parsed);
+		release(parsed);
+	}
+
+
+	@Test
+	public void testUnknownFieldsFallBackToProtobuf() throws Exception {
+		Request request = addRequest(1, 2, 3, entry(10)).build();
+		byte[] unknown = varintField(1000, 1);
+
+		// In the request
+		assertFallsBack(concat(request.toByteArray(), unknown));
+
+		// In the header
+		byte[] header = concat(request.getHeader().toByteArray(), unknown);
+		assertFallsBack(concat(
+				bytesField(Request.HEADER_FIELD_NUMBER, header),
+				bytesField(Request.ADDREQUEST_FIELD_NUMBER, request.getAddRequest().toByteArray())));
+
+		// In the add request
+		byte[] add = concat(request.getAddRequest().toByteArray(), unknown);
+		assertFallsBack(concat(
+				bytesField(Request.HEADER_FIELD_NUMBER, request.getHeader().toByteArray()),
+				bytesField(Request.ADDREQUEST_FIELD_NUMBER, add)));
+
+		// Known field with an unexpected wire type
+		add = concat(request.getAddRequest().toByteArray(),
+				bytesField(AddRequest.WRITEFLAGS_FIELD_NUMBER, new byte[] {1}));
+		assertFallsBack(concat(
+				bytesField(Request.HEADER_FIELD_NUMBER, request.getHeader().toByteArray()),
+				bytesField(Request.ADDREQUEST_FIELD_NUMBER, add)));
+	}
+
+
+	@Test
+	public void testRequestBeforeHeaderFallsBackToProtobuf() throws Exception {
+		Request request = addRequest(1, 2, 3, entry(10)).build();
+		assertFallsBack(concat(
+				bytesField(Request.ADDREQUEST_FIELD_NUMBER, request.getAddRequest().toByteArray()),
+				bytesField(Request.HEADER_FIELD_NUMBER, request.getHeader().toByteArray())));
+	}
+
+
+	@Test
+	public void testFencingAndLongPollReadsFallBackToProtobuf() throws Exception {
+		Request.Builder fence = readRequest(1, 2, 3);
+		fence.getReadRequestBuilder().setFlag(ReadRequest.Flag.FENCE_LEDGER)
+				.setMasterKey(ByteString.copyFrom(MASTER_KEY));
+		assertFallsBack(fence.build().toByteArray());
+
+		Request.Builder piggyback = readRequest(1, 2, 3);
+		piggyback.getReadRequestBuilder().setFlag(ReadRequest.Flag.ENTRY_PIGGYBACK).setPreviousLAC(2);
+		assertFallsBack(piggyback.build().toByteArray());
+
+		Request.Builder longPoll = readRequest(1, 2, 3);
+		longPoll.getReadRequestBuilder().setPreviousLAC(2).setTimeOut(1000);
+		assertFallsBack(longPoll.build().toByteArray());
+	}
+
+
+	@Test
+	public void testRequestContextFallsBackToProtobuf() throws Exception {
+		ContextPair context = ContextPair.newBuilder().setKey("key").setValue("value").build();
+		assertFallsBack(addRequest(1, 2, 3, entry(10)).addRequestContext(context).build().toByteArray());
+		assertFallsBack(readRequest(1, 2, 3).addRequestContext(context).build().toByteArray());
+		assertFallsBack(readLacRequest(1, 2).addRequestContext(context).build().toByteArray());
+	}
+
+
+	@Test
+	public void testOtherOperationsFallBackToProtobuf() throws Exception {
+		Request writeLac = Request.newBuilder()
+				.setHeader(header(OperationType.WRITE_LAC, 1))
+				.setWriteLacRequest(WriteLacRequest.newBuilder().setLedgerId(1).setLac(2)
+						.setMasterKey(ByteString.copyFrom(MASTER_KEY)).setBody(ByteString.copyFrom(entry(10))))
+				.build();
+		assertFallsBack(writeLac.toByteArray());
+
+		// Operation not matching the request
+		Request.Builder builder = readRequest(1, 2, 3);
+		builder.setHeader(header(OperationType.ADD_ENTRY, 1));
+		assertFallsBack(builder.build().toByteArray());
+
+		// Add and read requests in the same message
+		builder = readRequest(1, 2, 3);
+		builder.setAddRequest(addRequest(1, 2, 3, entry(10)).getAddRequest());
+		assertFallsBack(builder.build().toByteArray());
+	}
+
+
+	@Test
+	public void testMissingRequiredFieldsFallBackToProtobuf() throws Exception {
+		AddRequest add = addRequest(1, 2, 3, entry(10)).getAddRequest();
+
+		// No master key
+		byte[] message = concat(
+				bytesField(Request.HEADER_FIELD_NUMBER, header(OperationType.ADD_ENTRY, 1).toByteArray()),
+				bytesField(Request.ADDREQUEST_FIELD_NUMBER, concat(
+						varintField(AddRequest.LEDGERID_FIELD_NUMBER, add.getLedgerId()),
+						varintField(AddRequest.ENTRYID_FIELD_NUMBER, add.getEntryId()),
+						bytesField(AddRequest.BODY_FIELD_NUMBER, add.getBody().toByteArray()))));
+		assertFallsBackWithError(message);
+
+		// No transaction id
+		message = concat(
+				bytesField(Request.HEADER_FIELD_NUMBER, concat(
+						varintField(BKPacketHeader.VERSION_FIELD_NUMBER, ProtocolVersion.VERSION_THREE_VALUE),
+						varintField(BKPacketHeader.OPERATION_FIELD_NUMBER, OperationType.ADD_ENTRY_VALUE))),
+				bytesField(Request.ADDREQUEST_FIELD_NUMBER, add.toByteArray()));
+		assertFallsBackWithError(message);
+
+		// No operation specific request
+		assertFallsBack(Request.newBuilder().setHeader(header(OperationType.READ_ENTRY, 1)).build().toByteArray());
+	}
+
+
+	@Test
+	public void testTruncatedRequestsFallBackToProtobuf() throws Exception {
+		for (byte[] message : Arrays.asList(
+				addRequest(1, 2, 3, entry(300)).build().toByteArray(),
+				readRequest(1, 2, 3).build().toByteArray(),
+				readLacRequest(1, 2).build().toByteArray())) {
+			for (int length = 1; length < message.length; length++) {
+				assertFallsBack(Arrays.copyOf(message, length));
+			}
+		}
+	}
+
+
+	@Test
+	public void testMalformedRequestsFallBackToProtobuf() throws Exception {
+		byte[] header = header(OperationType.READ_LAC, 1).toByteArray();
+		byte[] headerField = bytesField(Request.HEADER_FIELD_NUMBER, header);
+
+		// Varint longer than 10 bytes
+		byte[] badVarint = new byte[12];
+		Arrays.fill(badVarint, (byte) 0xFF);
+		badVarint[11] = 0x01;
+		assertFallsBackWithError(concat(headerField, badVarint));
+
+		// Length past the end of the message
+		byte[] tooLong = concat(new byte[] {(byte) tag(Request.READLACREQUEST_FIELD_NUMBER,
+				WireFormat.WIRETYPE_LENGTH_DELIMITED)}, varint(100), varintField(ReadLacRequest.LEDGERID_FIELD_NUMBER, 1));
+		assertFallsBackWithError(concat(headerField, tooLong));
+
+		// Negative length
+		byte[] negative = concat(new byte[] {(byte) tag(Request.READLACREQUEST_FIELD_NUMBER,
+				WireFormat.WIRETYPE_LENGTH_DELIMITED)}, varint(-1));
+		assertFallsBackWithError(concat(headerField, negative));
+
+		// Nested field crossing the end of the enclosing message
+		byte[] crossing = concat(
+				bytesField(Request.HEADER_FIELD_NUMBER, Arrays.copyOf(header, header.length - 1)),
+				new byte[] {header[header.length - 1]},
+				bytesField(Request.READLACREQUEST_FIELD_NUMBER,
+						varintField(ReadLacRequest.LEDGERID_FIELD_NUMBER, 1)));
+		assertFallsBackWithError(crossing);
+
+		// Empty and v2 messages
+		assertFallsBack(new byte[0]);
+		ByteBuf v2 = Unpooled.buffer();
+		v2.writeInt(BookieProtocol.PacketHeader.toInt(BookieProtocol.CURRENT_PROTOCOL_VERSION,
+				BookieProtocol.READENTRY, (short) 0));
+		v2.writeLong(1);
+		v2.writeLong(2);
+		assertNull(BookieProtoCodecV3.decodeRequest(v2));
+		assertEquals(0, v2.readerIndex());
+	}
+
+
+	/* Response encoding, checked against the generated protobuf builders */
+
+	@Test
+	public void testEncodeStatusResponse() throws Exception {
+		for (Request request : Arrays.asList(
+				addRequest(1, 2, 3, entry(10)).build(),
+				readRequest(1, 2, 3).build(),
+				readLacRequest(1, 2).build())) {
+			ParsedRequest parsed = decode(request.toByteArray());
+			ByteBuf encoded = BookieProtoCodecV3.encodeResponse(allocator, parsed, StatusCode.EUA);
+
+			Response expected = response(request, 0, StatusCode.EUA).build();
+			// The same bytes as protobuf
+			assertArrayEquals(frame(expected), toBytes(encoded));
+			release(parsed);
+		}
+	}
+
+
+	@Test
+	public void testEncodeAddResponse() throws Exception {
+		for (StatusCode status : Arrays.asList(StatusCode.EOK, StatusCode.EFENCED, StatusCode.EIO)) {
+			for (int credits : new int[] {0, 1, 1000}) {
+				Request request = addRequest(-1, Long.MAX_VALUE, Long.MAX_VALUE, entry(10)).build();
+				ParsedRequest parsed = decode(request.toByteArray());
+				parsed.grantedCredits = credits;
+
+				Response expected = response(request, credits, status)
+						.setAddResponse(AddResponse.newBuilder().setStatus(status)
+								.setLedgerId(request.getAddRequest().getLedgerId())
+								.setEntryId(request.getAddRequest().getEntryId()))
+						.build();
+				assertArrayEquals(frame(expected),
+						toBytes(BookieProtoCodecV3.encodeAddResponse(allocator, parsed, status)));
+				release(parsed);
+			}
+		}
+	}
+
+
+	@Test
+	public void testEncodeReadResponse() throws Exception {
+		for (int size : new int[] {0, 100, LARGE_ENTRY_SIZE}) {
+			Request request = readRequest(-1, -2, 3).build();
+			ParsedRequest parsed = decode(request.toByteArray());
+			parsed.grantedCredits = 10;
+			byte[] entry = entry(size);
+			ByteBuf body = buffer(entry);
+
+			Object encoded = BookieProtoCodecV3.encodeReadResponse(allocator, parsed, StatusCode.EOK, true, -1, body);
+			assertEquals(size >= BookieProtoEncoding.SMALL_ENTRY_SIZE_THRESHOLD, encoded instanceof ByteBufList);
+
+			Response expected = response(request, 10, StatusCode.EOK)
+					.setReadResponse(ReadResponse.newBuilder().setStatus(StatusCode.EOK)
+							.setLedgerId(-2).setEntryId(3).setMaxLAC(-1).setBody(ByteString.copyFrom(entry)))
+					.build();
+			assertEquals(expected, parseResponse(toBytes(encoded)));
+			assertEquals(0, body.refCnt());
+			parsed.recycle();
+		}
+	}
+
+
+	@Test
+	public void testEncodeReadErrorResponse() throws Exception {
+		Request request = readRequest(1, 2, 3).build();
+		ParsedRequest parsed = decode(request.toByteArray());
+
+		Object encoded = BookieProtoCodecV3.encodeReadResponse(allocator, parsed, StatusCode.ENOENTRY, false, 0, null);
+
+		// Only the status, no body nor max LAC
+		Response expected = response(request, 0, StatusCode.ENOENTRY)
+				.setReadResponse(ReadResponse.newBuilder().setStatus(StatusCode.ENOENTRY).setLedgerId(2).setEntryId(3))
+				.build();
+		assertArrayEquals(frame(expected), toBytes(encoded));
+		parsed.recycle();
+	}
+
+
+	@Test
+	public void testEncodeReadResponseWithFileRegion() throws Exception {
+		byte[] entry = entry(LARGE_ENTRY_SIZE);
+		File file = tmpDir.newFile();
+		Files.write(file.toPath(), concat(new byte[7], entry, new byte[5]));
+		DefaultFileRegion region = new DefaultFileRegion(file, 7, entry.length);
+
+		Request request = readRequest(1, 2, 3).build();
+		ParsedRequest parsed = decode(request.toByteArray());
+		Object encoded = BookieProtoCodecV3.encodeReadResponse(allocator, parsed, StatusCode.EOK, true, 2, region);
+		assertTrue(encoded instanceof BookieProtoEncoding.FileRegionResponse);
+
+		Response expected = response(request, 0, StatusCode.EOK)
+				.setReadResponse(ReadResponse.newBuilder().setStatus(StatusCode.EOK)
+						.setLedgerId(2).setEntryId(3).setMaxLAC(2).setBody(ByteString.copyFrom(entry)))
+				.build();
+		assertEquals(expected, parseResponse(toBytes(encoded)));
+		parsed.recycle();
+	}
+
+
+	@Test
+	public void testEncodeReadLacResponse() throws Exception {
+		byte[] lac = entry(8);
+		for (int size : new int[] {-1, 0, 100, LARGE_ENTRY_SIZE}) {
+			for (boolean hasLac : new boolean[] {false, true}) {
+				Request request = readLacRequest(-1, 2).build();
+				ParsedRequest parsed = decode(request.toByteArray());
+				ByteBuf lacBody = hasLac ? buffer(lac) : null;
+				byte[] entry = size >= 0 ? entry(size) : null;
+				ByteBuf lastEntryBody = entry != null ? buffer(entry) : null;
+
+				Object encoded = BookieProtoCodecV3.encodeReadLacResponse(allocator, parsed, StatusCode.EOK,
+						lacBody, lastEntryBody);
+
+				ReadLacResponse.Builder readLacResponse = ReadLacResponse.newBuilder().setStatus(StatusCode.EOK)
+						.setLedgerId(2);
+				if (hasLac) {
+					readLacResponse.setLacBody(ByteString.copyFrom(lac));
+				}
+				if (entry != null) {
+					readLacResponse.setLastEntryBody(ByteString.copyFrom(entry));
+				}
+				Response expected = response(request, 0, StatusCode.EOK).setReadLacResponse(readLacResponse).build();
+				assertArrayEquals(frame(expected), toBytes(encoded));
+				if (lacBody != null) {
+					assertEquals(0, lacBody.refCnt());
+				}
+				if (lastEntryBody != null) {
+					assertEquals(0, lastEntryBody.refCnt());
+				}
+				parsed.recycle();
+			}
+		}
+	}
+
+
+	@Test
+	public void testEncodeReadLacErrorResponse() throws Exception {
+		Request request = readLacRequest(2, 1).build();
+		ParsedRequest parsed = decode(request.toByteArray());
+
+		Object encoded = BookieProtoCodecV3.encodeReadLacResponse(allocator, parsed, StatusCode.ENOLEDGER, null, null);
+
+		Response expected = response(request, 0, StatusCode.ENOLEDGER)
+				.setReadLacResponse(ReadLacResponse.newBuilder().setStatus(StatusCode.ENOLEDGER).setLedgerId(1))
+				.build();
+		assertArrayEquals(frame(expected), toBytes(encoded));
+		parsed.recycle();
+	}
+
+
+	/* Requests */
+
+	private static BKPacketHeader header(OperationType operation, long txnId) {
+		return BKPacketHeader.newBuilder().setVersion(ProtocolVersion.VERSION_THREE)
+				.setOperation(operation).setTxnId(txnId).build();
+	}
+
+
+	private static Request.Builder addRequest(long txnId, long ledgerId, long entryId, byte[] body) {
+		return Request.newBuilder()
+				.setHeader(header(OperationType.ADD_ENTRY, txnId))
+				.setAddRequest(AddRequest.newBuilder().setLedgerId(ledgerId).setEntryId(entryId)
+						.setMasterKey(ByteString.copyFrom(MASTER_KEY)).setBody(ByteString.copyFrom(body)));
+	}
+
+
+	private static Request.Builder readRequest(long txnId, long ledgerId, long entryId) {
+		return Request.newBuilder()
+				.setHeader(header(OperationType.READ_ENTRY, txnId))
+				.setReadRequest(ReadRequest.newBuilder().setLedgerId(ledgerId).setEntryId(entryId));
+	}
+
+
+	private static Request.Builder readLacRequest(long txnId, long ledgerId) {
+		return Request.newBuilder()
+				.setHeader(header(OperationType.READ_LAC, txnId))
+				.setReadLacRequest(ReadLacRequest.newBuilder().setLedgerId(ledgerId));
+	}
+
+
+	private static ParsedRequest decode(byte[] message) {
+		ByteBuf packet = Unpooled.wrappedBuffer(message);
+		ParsedRequest parsed = BookieProtoCodecV3.decodeRequest(packet);
+		assertNotNull("The request should be decoded by the codec", parsed);
+		assertFalse(packet.isReadable());
+		return parsed;
+	}
+
+
+	private static void assertParsedAs(Request request, ParsedRequest parsed) {
+		BKPacketHeader header = request.getHeader();
+		assertEquals(header.getOperation(), parsed.getOperation());
+		assertEquals(header.getTxnId(), parsed.getTxnId());
+		assertTrue(parsed.isVersionThree());
+		assertEquals(header.getPriority() > 0, parsed.isHighPriority());
+		assertEquals(header.getCredits(), parsed.getCredits());
+		switch (header.getOperation()) {
+		case ADD_ENTRY:
+			AddRequest add = request.getAddRequest();
+			assertEquals(add.getLedgerId(), parsed.getLedgerId());
+			assertEquals(add.getEntryId(), parsed.getEntryId());
+			assertArrayEquals(add.getMasterKey().toByteArray(), parsed.getMasterKey());
+			assertArrayEquals(add.getBody().toByteArray(), toBytes(parsed.getBody().retain()));
+			assertEquals(add.hasFlag(), parsed.isRecoveryAdd());
+			assertEquals(add.getWriteFlags(), parsed.getWriteFlags());
+			break;
+		case READ_ENTRY:
+			assertEquals(request.getReadRequest().getLedgerId(), parsed.getLedgerId());
+			assertEquals(request.getReadRequest().getEntryId(), parsed.getEntryId());
+			break;
+		case READ_LAC:
+			assertEquals(request.getReadLacRequest().getLedgerId(), parsed.getLedgerId());
+			break;
+		default:
+			fail("Unexpected operation " + header.getOperation());
+		}
+	}
+
+
+	/**
+	 * Check that the message is not decoded by the codec, and that it is left unchanged for protobuf.
+	 */
+	private static void assertFallsBack(byte[] message) {
+		ByteBuf packet = Unpooled.wrappedBuffer(message);
+		assertNull(BookieProtoCodecV3.decodeRequest(packet));
+		assertEquals(0, packet.readerIndex());
+		assertEquals(1, packet.refCnt());
+	}
+
+
+	/**
+	 * Check that the message is not decoded by the codec, and that protobuf reports the error.
+	 */
+	private static void assertFallsBackWithError(byte[] message) {
+		assertFallsBack(message);
+		try {
+			Request.parseFrom(message);
+			fail("The request should be rejected by protobuf");
+		} catch (InvalidProtocolBufferException e) {
+			// Expected
+		}
+	}
+
+
+	private static void release(ParsedRequest parsed) {
+		// The body is a retained slice of the packet
+		ByteBuf body = parsed.getBody();
+		int refCnt = body != null ? body.refCnt() : 0;
+		parsed.release();
+		if (body != null) {
+			assertEquals(refCnt - 1, body.refCnt());
+		}
+		parsed.recycle();
+	}
+
+
+	/* Responses */
+
+	private static Response.Builder response(Request request, int credits, StatusCode status) {
+		BKPacketHeader.Builder header = BKPacketHeader.newBuilder().setVersion(ProtocolVersion.VERSION_THREE)
+				.setOperation(request.getHeader().getOperation()).setTxnId(request.getHeader().getTxnId());
+		if (credits > 0) {
+			header.setCredits(credits);
+		}
+		return Response.newBuilder().setHeader(header).setStatus(status);
+	}
+
+
+	/**
+	 * @return the response serialized by protobuf, as sent on the wire by ResponseEnDecoderV3
+	 */
+	private static byte[] frame(Response response) {
+		return toBytes(BookieProtoEncoding.serializeProtobuf(response, allocator));
+	}
+
+
+	private static Response parseResponse(byte[] frame) throws IOException {
+		ByteBuf buf = Unpooled.wrappedBuffer(frame);
+		assertEquals(frame.length - 4, buf.readInt());
+		return Response.parseFrom(Arrays.copyOfRange(frame, 4, frame.length));
+	}
+
+
+	/**
+	 * Read and release an encoded response or a buffer.
+	 */
+	private static byte[] toBytes(Object encoded) {
+		try {
+			if (encoded instanceof ByteBuf) {
+				ByteBuf buf = (ByteBuf) encoded;
+				byte[] bytes = new byte[buf.readableBytes()];
+				buf.readBytes(bytes);
+				return bytes;
+			} else if (encoded instanceof ByteBufList) {
+				return ((ByteBufList) encoded).toArray();
+			} else if (encoded instanceof BookieProtoEncoding.FileRegionResponse) {
+				BookieProtoEncoding.FileRegionResponse response = (BookieProtoEncoding.FileRegionResponse) encoded;
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				out.write(toBytes(response.headers.retain()));
+				long transferred = 0;
+				while (transferred < response.body.count()) {
+					transferred += response.body.transferTo(Channels.newChannel(out), transferred);
+				}
+				return out.toByteArray();
+			}
+			throw new IllegalArgumentException("Unexpected response " + encoded);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			if (encoded instanceof ReferenceCounted) {
+				((ReferenceCounted) encoded).release();
+			}
+		}
+	}
+
+
+	/* Wire format */
+
+	private static byte[] entry(int size) {
+		byte[] entry = new byte[size];
+		for (int i = 0; i < size; i++) {
+			entry[i] = (byte) i;
+		}
+		return entry;
+	}
+
+
+	/**
+	 * @return a buffer with the bytes, which is actually released even when empty, unlike Unpooled.EMPTY_BUFFER
+	 */
+	private static ByteBuf buffer(byte[] bytes) {
+		return Unpooled.buffer(bytes.length).writeBytes(bytes);
+	}
+
+
+	private static int tag(int field, int wireType) {
+		return field << 3 | wireType;
+	}
+
+
+	private static byte[] varint(long value) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+			out.writeUInt64NoTag(value);
+			out.flush();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+
+	private static byte[] varintField(int field, long value) {
+		return concat(varint(tag(field, WireFormat.WIRETYPE_VARINT)), varint(value));
+	}
+
+
+	private static byte[] bytesField(int field, byte[] value) {
+		return concat(varint(tag(field, WireFormat.WIRETYPE_LENGTH_DELIMITED)), varint(value.length), value);
+	}
+
+
+	private static byte[] concat(byte[]... parts) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		for (byte[] part : parts) {
+			bytes.write(part, 0, part.length);
+		}
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,160 @@
+package org.apache.bookkeeper.proto;
+
+import com.google.protobuf.ExtensionRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.apache.bookkeeper.proto.BookieProtocol.BatchedReadRequest;
+import org.apache.bookkeeper.proto.BookieProtocol.BatchedReadResponse;
+import org.apache.bookkeeper.util.ByteBufList;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+
+public class BookieProtoEncodingBatchedReadTest {
+
+	private static final ByteBufAllocator allocator = UnpooledByteBufAllocator.DEFAULT;
+
+	private static final int LARGE_ENTRY_SIZE = BookieProtoEncoding.SMALL_ENTRY_SIZE_THRESHOLD + 1;
+
+	private final BookieProtoEncoding.RequestEnDeCoderPreV3 requestCodec =
+			new BookieProtoEncoding.RequestEnDeCoderPreV3(ExtensionRegistry.getEmptyRegistry());
+
+	private final BookieProtoEncoding.ResponseEnDeCoderPreV3 responseCodec =
+			new BookieProtoEncoding.ResponseEnDeCoderPreV3(ExtensionRegistry.getEmptyRegistry());
+
+
+	@Test
+	public void testRequestRoundTrip() throws Exception {
+		BatchedReadRequest request = BatchedReadRequest.create(BookieProtocol.CURRENT_PROTOCOL_VERSION,
+				1234L, 56L, 100, 5 * 1024 * 1024L, BookieProtocol.FLAG_HIGH_PRIORITY, 789L);
+
+		ByteBuf encoded = (ByteBuf) requestCodec.encode(request, allocator);
+		try {
+			assertEquals(encoded.readableBytes() - 4, encoded.readInt());
+			BatchedReadRequest decoded = (BatchedReadRequest) requestCodec.decode(encoded);
+			assertEquals(0, encoded.readableBytes());
+
+			assertEquals(BookieProtocol.CURRENT_PROTOCOL_VERSION, decoded.getProtocolVersion());
+			assertEquals(BookieProtocol.BATCH_READ_ENTRY, decoded.getOpCode());
+			assertEquals(1234L, decoded.getLedgerId());
+			assertEquals(56L, decoded.getEntryId());
+			assertEquals(100, decoded.getMaxCount());
+			assertEquals(5 * 1024 * 1024L, decoded.getMaxSize());
+			assertEquals(789L, decoded.getRequestId());
+			assertTrue(decoded.isHighPriority());
+			assertFalse(decoded.isFencing());
+			decoded.recycle();
+		} finally {
+			encoded.release();
+		}
+	}
+
+
+	@Test
+	public void testResponseRoundTrip() throws Exception {
+		assertResponseRoundTrip(10);
+	}
+
+
+	@Test
+	public void testResponseRoundTripWithEmptyEntry() throws Exception {
+		assertResponseRoundTrip(0, 10, 0);
+	}
+
+
+	@Test
+	public void testResponseRoundTripWithLargeEntries() throws Exception {
+		// The large entries are passed as references, between the copied small ones
+		assertResponseRoundTrip(LARGE_ENTRY_SIZE);
+		assertResponseRoundTrip(LARGE_ENTRY_SIZE, LARGE_ENTRY_SIZE);
+		assertResponseRoundTrip(10, LARGE_ENTRY_SIZE, 20, 30, LARGE_ENTRY_SIZE, 40);
+		assertResponseRoundTrip(LARGE_ENTRY_SIZE, 10, LARGE_ENTRY_SIZE);
+	}
+
+
+	@Test
+	public void testErrorResponseRoundTrip() throws Exception {
+		BatchedReadResponse response = new BatchedReadResponse(BookieProtocol.CURRENT_PROTOCOL_VERSION,
+				BookieProtocol.ENOENTRY, 1234L, 56L, 789L);
+
+		BatchedReadResponse decoded = roundTrip(response);
+		assertEquals(BookieProtocol.ENOENTRY, decoded.getErrorCode());
+		assertEquals(1234L, decoded.getLedgerId());
+		assertEquals(56L, decoded.getEntryId());
+		assertEquals(789L, decoded.getRequestId());
+		assertEquals(0, decoded.getEntryCount());
+		assertNull(decoded.getData());
+	}
+
+
+	private void assertResponseRoundTrip(int... entrySizes) throws Exception {
+		List<ByteBuf> entries = new ArrayList<>();
+		ByteBufList data = null;
+		for (int i = 0; i < entrySizes.length; i++) {
+			ByteBuf entry = entry(i, entrySizes[i]);
+			entries.add(entry.retain());
+			if (data == null) {
+				data = ByteBufList.get(entry);
+			} else {
+				data.add(entry);
+			}
+		}
+		BatchedReadResponse response = new BatchedReadResponse(BookieProtocol.CURRENT_PROTOCOL_VERSION,
+				BookieProtocol.EOK, 1234L, 56L, 789L, data);
+
+		BatchedReadResponse decoded = roundTrip(response);
+		try {
+			assertEquals(BookieProtocol.EOK, decoded.getErrorCode());
+			assertEquals(BookieProtocol.BATCH_READ_ENTRY, decoded.getOpCode());
+			assertEquals(1234L, decoded.getLedgerId());
+			assertEquals(56L, decoded.getEntryId());
+			assertEquals(789L, decoded.getRequestId());
+			assertEquals(Arrays.toString(entrySizes), entrySizes.length, decoded.getEntryCount());
+			for (int i = 0; i < entrySizes.length; i++) {
+				assertEquals(entries.get(i), decoded.getData().getBuffer(i));
+			}
+		} finally {
+			decoded.release();
+		}
+
+		// The encoder released its references to the entries
+		for (ByteBuf entry : entries) {
+			assertEquals(1, entry.refCnt());
+			entry.release();
+		}
+	}
+
+
+	private BatchedReadResponse roundTrip(BatchedReadResponse response) throws Exception {
+		Object encoded = responseCodec.encode(response, allocator);
+		ByteBuf frame;
+		if (encoded instanceof ByteBufList) {
+			frame = ByteBufList.coalesce((ByteBufList) encoded);
+			((ByteBufList) encoded).release();
+		} else {
+			frame = (ByteBuf) encoded;
+		}
+		try {
+			assertEquals(frame.readableBytes() - 4, frame.readInt());
+			return (BatchedReadResponse) responseCodec.decode(frame);
+		} finally {
+			frame.release();
+		}
+	}
+
+
+	private static ByteBuf entry(int index, int size) {
+		ByteBuf entry = Unpooled.buffer(size);
+		for (int i = 0; i < size; i++) {
+			entry.writeByte(index * 31 + i);
+		}
+		return entry;
+	}
+}
@@ -0,0 +1,123 @@
+package org.apache.bookkeeper.proto;
+
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.apache.bookkeeper.bookie.Bookie;
+import org.apache.bookkeeper.client.conf.TestBKConfiguration;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+
+public class BookieRequestProcessorFlowControlTest {
+
+	/** Max credits granted by the bookie */
+	private static final int MAX_CREDITS = 100;
+
+	private static final int MAX_ADDS_IN_PROGRESS = 50;
+
+	private static final int MAX_READS_IN_PROGRESS = 20;
+
+	private final Bookie bookie = mock(Bookie.class);
+	private final BookieRequestHandler requestHandler = mock(BookieRequestHandler.class);
+	private BookieRequestProcessor processor;
+
+
+	@After
+	public void shutdown() {
+		if (processor != null) {
+			processor.close();
+		}
+	}
+
+
+	@Test
+	public void testFlowControlDisabled() throws Exception {
+		processor = newProcessor(0);
+		requestCredits(10);
+		assertEquals(0, processor.getFlowControlCredits(requestHandler));
+	}
+
+
+	@Test
+	public void testClientWithoutFlowControl() throws Exception {
+		processor = newProcessor(MAX_CREDITS);
+		requestCredits(0);
+		assertEquals(0, processor.getFlowControlCredits(requestHandler));
+	}
+
+
+	@Test
+	public void testIdleBookie() throws Exception {
+		processor = newProcessor(MAX_CREDITS);
+		requestCredits(1000);
+		assertEquals(MAX_CREDITS, processor.getFlowControlCredits(requestHandler));
+		// Never more than requested
+		requestCredits(10);
+		assertEquals(10, processor.getFlowControlCredits(requestHandler));
+	}
+
+
+	@Test
+	public void testCreditsShrinkWithJournalLoad() throws Exception {
+		processor = newProcessor(MAX_CREDITS);
+		requestCredits(1000);
+		when(bookie.getJournalQueueLoad()).thenReturn(0.25);
+		assertEquals(75, processor.getFlowControlCredits(requestHandler));
+	}
+
+
+	@Test
+	public void testCreditsShrinkWithRequestsInProgress() throws Exception {
+		processor = newProcessor(MAX_CREDITS);
+		requestCredits(1000);
+		RequestStats stats = processor.getRequestStats();
+		for (int i = 0; i < MAX_ADDS_IN_PROGRESS / 2; i++) {
+			stats.trackAddRequest();
+		}
+		assertEquals(50, processor.getFlowControlCredits(requestHandler));
+
+		// The most loaded resource counts
+		for (int i = 0; i < 3 * MAX_READS_IN_PROGRESS / 4; i++) {
+			stats.trackReadRequest();
+		}
+		when(bookie.getJournalQueueLoad()).thenReturn(0.1);
+		assertEquals(25, processor.getFlowControlCredits(requestHandler));
+	}
+
+
+	@Test
+	public void testAtLeastOneCredit() throws Exception {
+		processor = newProcessor(MAX_CREDITS);
+		requestCredits(1000);
+		when(bookie.getJournalQueueLoad()).thenReturn(1.0);
+		assertEquals(1, processor.getFlowControlCredits(requestHandler));
+
+		// The loads are capped
+		when(bookie.getJournalQueueLoad()).thenReturn(0.0);
+		RequestStats stats = processor.getRequestStats();
+		for (int i = 0; i < 2 * MAX_ADDS_IN_PROGRESS; i++) {
+			stats.trackAddRequest();
+		}
+		assertEquals(1, processor.getFlowControlCredits(requestHandler));
+	}
+
+
+	private BookieRequestProcessor newProcessor(int maxCredits) throws Exception {
+		ServerConfiguration conf = TestBKConfiguration.newServerConfiguration()
+				.setMaxFlowControlCredits(maxCredits)
+				.setMaxAddsInProgressLimit(MAX_ADDS_IN_PROGRESS)
+				.setMaxReadsInProgressLimit(MAX_READS_IN_PROGRESS);
+		return new BookieRequestProcessor(conf, bookie, NullStatsLogger.INSTANCE, null,
+				UnpooledByteBufAllocator.DEFAULT, null);
+	}
+
+
+	private void requestCredits(int credits) {
+		when(requestHandler.getRequestedCredits()).thenReturn(credits);
+	}
+}
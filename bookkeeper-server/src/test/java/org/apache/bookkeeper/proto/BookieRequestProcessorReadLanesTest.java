@@ -0,0 +1,129 @@
+package org.apache.bookkeeper.proto;
+
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.apache.bookkeeper.bookie.Bookie;
+import org.apache.bookkeeper.bookie.LedgerStorage;
+import org.apache.bookkeeper.client.conf.TestBKConfiguration;
+import org.apache.bookkeeper.client.util.TestStatsProvider;
+import org.apache.bookkeeper.client.util.TestStatsProvider.TestOpStatsLogger;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+
+public class BookieRequestProcessorReadLanesTest {
+
+	private static final String TAILING_LANE = "BookieReadThreadPool";
+	private static final String CATCH_UP_LANE = "BookieCatchUpReadThreadPool";
+	private static final String HIGH_PRIORITY = "BookieHighPriorityThread";
+
+	private static final long LEDGER_ID = 1;
+
+	/** Entries flushed out of the write caches */
+	private static final long FIRST_CACHED_ENTRY = 100;
+
+	private final Bookie bookie = mock(Bookie.class);
+	private final LedgerStorage ledgerStorage = mock(LedgerStorage.class);
+	private final BookieRequestHandler requestHandler = mock(BookieRequestHandler.class);
+	private final EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+	private final TestStatsProvider statsProvider = new TestStatsProvider();
+
+	/** Threads the entries were read on */
+	private final BlockingQueue<String> readThreads = new LinkedBlockingQueue<>();
+
+	private BookieRequestProcessor processor;
+
+
+	@Before
+	public void setup() throws Exception {
+		when(bookie.getLedgerStorage()).thenReturn(ledgerStorage);
+		when(ledgerStorage.isCatchUpRead(anyLong(), anyLong()))
+				.thenAnswer(invocation -> (long) invocation.getArgument(1) < FIRST_CACHED_ENTRY);
+		when(bookie.readEntry(anyLong(), anyLong())).thenAnswer(invocation -> {
+			readThreads.add(Thread.currentThread().getName());
+			throw new Bookie.NoEntryException(invocation.getArgument(0), invocation.getArgument(1));
+		});
+		when(requestHandler.ctx()).thenReturn(channel.pipeline().firstContext());
+	}
+
+
+	@After
+	public void shutdown() {
+		if (processor != null) {
+			processor.close();
+		}
+		channel.close();
+	}
+
+
+	@Test
+	public void testFlushedEntriesReadOnCatchUpLane() throws Exception {
+		processor = newProcessor(2);
+		assertTrue(read(0, BookieProtocol.FLAG_NONE).startsWith(CATCH_UP_LANE));
+		assertTrue(read(FIRST_CACHED_ENTRY, BookieProtocol.FLAG_NONE).startsWith(TAILING_LANE));
+		assertTrue(read(FIRST_CACHED_ENTRY - 1, BookieProtocol.FLAG_NONE).startsWith(CATCH_UP_LANE));
+
+		RequestStats stats = processor.getRequestStats();
+		assertEquals(2, ((TestOpStatsLogger) stats.getCatchUpReadThreadQueuedLatency()).getSuccessCount());
+		assertEquals(1, ((TestOpStatsLogger) stats.getTailingReadThreadQueuedLatency()).getSuccessCount());
+	}
+
+
+	@Test
+	public void testHighPriorityReadsBypassLanes() throws Exception {
+		processor = newProcessor(2);
+		assertTrue(read(0, BookieProtocol.FLAG_HIGH_PRIORITY).startsWith(HIGH_PRIORITY));
+		verify(ledgerStorage, never()).isCatchUpRead(anyLong(), anyLong());
+	}
+
+
+	@Test
+	public void testCatchUpLaneDisabled() throws Exception {
+		processor = newProcessor(0);
+		assertTrue(read(0, BookieProtocol.FLAG_NONE).startsWith(TAILING_LANE));
+		assertTrue(read(FIRST_CACHED_ENTRY, BookieProtocol.FLAG_NONE).startsWith(TAILING_LANE));
+		// Not even classified
+		verify(ledgerStorage, never()).isCatchUpRead(anyLong(), anyLong());
+		RequestStats stats = processor.getRequestStats();
+		assertEquals(0, ((TestOpStatsLogger) stats.getCatchUpReadThreadQueuedLatency()).getSuccessCount());
+		assertEquals(0, ((TestOpStatsLogger) stats.getTailingReadThreadQueuedLatency()).getSuccessCount());
+	}
+
+
+	private BookieRequestProcessor newProcessor(int catchUpReadThreads) throws Exception {
+		ServerConfiguration conf = TestBKConfiguration.newServerConfiguration()
+				.setNumReadWorkerThreads(2)
+				.setNumHighPriorityWorkerThreads(1)
+				.setNumCatchUpReadWorkerThreads(catchUpReadThreads);
+		return new BookieRequestProcessor(conf, bookie, statsProvider.getStatsLogger(""), null,
+				UnpooledByteBufAllocator.DEFAULT, null);
+	}
+
+
+	/**
+	 * Read an entry and wait for the read to execute.
+	 *
+	 * @return the name of the thread the entry was read on
+	 */
+	private String read(long entryId, short flags) throws Exception {
+		processor.processRequest(BookieProtocol.ReadRequest.create(BookieProtocol.CURRENT_PROTOCOL_VERSION,
+				LEDGER_ID, entryId, flags, null), requestHandler);
+		String thread = readThreads.poll(10, TimeUnit.SECONDS);
+		assertNotNull("Entry " + entryId + " not read", thread);
+		return thread;
+	}
+}
@@ -0,0 +1,238 @@
+package org.apache.bookkeeper.proto;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.common.util.OrderedExecutor;
+import org.apache.bookkeeper.conf.ClientConfiguration;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.net.BookieSocketAddress;
+import org.apache.bookkeeper.proto.BookieProtocol.BatchedReadRequest;
+import org.apache.bookkeeper.proto.BookieProtocol.BatchedReadResponse;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.util.ByteBufList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+
+public class PerChannelBookieClientBatchedReadTest {
+
+	private static final long LEDGER_ID = 1234L;
+
+	private OrderedExecutor executor;
+	private EventLoopGroup eventLoopGroup;
+	private EmbeddedChannel channel;
+	private PerChannelBookieClient client;
+
+
+	@Before
+	public void configure() throws Exception {
+		executor = OrderedExecutor.newBuilder().name("test-batched-read").numThreads(1).build();
+		eventLoopGroup = new DefaultEventLoopGroup(1);
+		client = newClient(true);
+	}
+
+
+	@After
+	public void shutdown() throws Exception {
+		channel.finishAndReleaseAll();
+		executor.shutdownNow();
+		eventLoopGroup.shutdownGracefully();
+	}
+
+
+	@Test
+	public void testResponsesMatchedByRequestId() throws Exception {
+		// Two batched reads of the same range, that only differ by their request id
+		CompletableFuture<BatchedRead> first = batchRead(0, 5);
+		CompletableFuture<BatchedRead> second = batchRead(0, 2);
+		BatchedReadRequest firstRequest = channel.readOutbound();
+		BatchedReadRequest secondRequest = channel.readOutbound();
+		assertNotEquals(firstRequest.getRequestId(), secondRequest.getRequestId());
+		assertEquals(5, firstRequest.getMaxCount());
+		assertEquals(2, secondRequest.getMaxCount());
+
+		// The responses come back in another order
+		List<ByteBuf> secondEntries = entries(0, 2, 100);
+		List<ByteBuf> firstEntries = entries(0, 5, 200);
+		channel.writeInbound(response(secondRequest, BookieProtocol.EOK, secondEntries));
+		channel.writeInbound(response(firstRequest, BookieProtocol.EOK, firstEntries));
+
+		BatchedRead firstRead = first.get(10, TimeUnit.SECONDS);
+		assertEquals(BKException.Code.OK, firstRead.rc);
+		assertEquals(0, firstRead.startEntryId);
+		assertEntries(0, 5, 200, firstRead);
+
+		BatchedRead secondRead = second.get(10, TimeUnit.SECONDS);
+		assertEquals(BKException.Code.OK, secondRead.rc);
+		assertEntries(0, 2, 100, secondRead);
+
+		// The entries are released once the callbacks returned
+		for (ByteBuf entry : firstEntries) {
+			assertEquals(0, entry.refCnt());
+		}
+		for (ByteBuf entry : secondEntries) {
+			assertEquals(0, entry.refCnt());
+		}
+		firstRequest.recycle();
+		secondRequest.recycle();
+	}
+
+
+	@Test
+	public void testErrorResponse() throws Exception {
+		CompletableFuture<BatchedRead> read = batchRead(7, 5);
+		BatchedReadRequest request = channel.readOutbound();
+		assertEquals(7, request.getEntryId());
+
+		channel.writeInbound(response(request, BookieProtocol.ENOENTRY, null));
+		BatchedRead result = read.get(10, TimeUnit.SECONDS);
+		assertEquals(BKException.Code.NoSuchEntryException, result.rc);
+		assertEquals(7, result.startEntryId);
+		assertTrue(result.entries.isEmpty());
+		request.recycle();
+	}
+
+
+	@Test
+	public void testUnexpectedResponse() throws Exception {
+		CompletableFuture<BatchedRead> read = batchRead(0, 5);
+		BatchedReadRequest request = channel.readOutbound();
+
+		// A response to another request is dropped
+		List<ByteBuf> entries = entries(0, 5, 100);
+		channel.writeInbound(new BatchedReadResponse(BookieProtocol.CURRENT_PROTOCOL_VERSION, BookieProtocol.EOK,
+				LEDGER_ID, 0, request.getRequestId() + 1, ByteBufList.get(entries.get(0))));
+		for (int i = 1; i < entries.size(); i++) {
+			entries.get(i).release();
+		}
+		assertEquals(0, entries.get(0).refCnt());
+		assertFalse(read.isDone());
+
+		// A single read response of the same entry doesn't complete the batched read either
+		channel.writeInbound(new BookieProtocol.ReadResponse(BookieProtocol.CURRENT_PROTOCOL_VERSION,
+				BookieProtocol.EOK, LEDGER_ID, 0, Unpooled.buffer(10).writeZero(10)));
+		assertFalse(read.isDone());
+
+		channel.writeInbound(response(request, BookieProtocol.EOK, entries(0, 5, 100)));
+		assertEntries(0, 5, 100, read.get(10, TimeUnit.SECONDS));
+		request.recycle();
+	}
+
+
+	@Test
+	public void testDisconnect() throws Exception {
+		CompletableFuture<BatchedRead> read = batchRead(0, 5);
+		BatchedReadRequest request = channel.readOutbound();
+
+		// A bookie not knowing the batched reads closes the connection
+		channel.close();
+		BatchedRead result = read.get(10, TimeUnit.SECONDS);
+		assertEquals(BKException.Code.BookieHandleNotAvailableException, result.rc);
+		assertTrue(result.entries.isEmpty());
+		request.recycle();
+	}
+
+
+	@Test
+	public void testV3ProtocolNotSupported() throws Exception {
+		client = newClient(false);
+		BatchedRead result = batchRead(0, 5).get(10, TimeUnit.SECONDS);
+		assertEquals(BKException.Code.ProtocolVersionException, result.rc);
+		assertNull(channel.readOutbound());
+	}
+
+
+	private PerChannelBookieClient newClient(boolean useV2WireProtocol) throws Exception {
+		if (channel != null) {
+			channel.finishAndReleaseAll();
+		}
+		ClientConfiguration conf = new ClientConfiguration().setUseV2WireProtocol(useV2WireProtocol);
+		PerChannelBookieClient client = new PerChannelBookieClient(conf, executor, eventLoopGroup,
+				BookieId.parse("127.0.0.1:3181"), NullStatsLogger.INSTANCE, null, null, null,
+				BookieSocketAddress.LEGACY_BOOKIEID_RESOLVER);
+		// The requests are kept as they are sent, and the responses are passed to the client
+		channel = new EmbeddedChannel(client);
+		client.channel = channel;
+		return client;
+	}
+
+
+	private CompletableFuture<BatchedRead> batchRead(long startEntryId, int maxCount) {
+		CompletableFuture<BatchedRead> result = new CompletableFuture<>();
+		client.batchReadEntries(LEDGER_ID, startEntryId, maxCount, Long.MAX_VALUE,
+				(rc, ledgerId, eid, bufList, ctx) -> {
+					assertEquals(LEDGER_ID, ledgerId);
+					List<byte[]> entries = new ArrayList<>();
+					for (int i = 0; bufList != null && i < bufList.size(); i++) {
+						ByteBuf buffer = bufList.getBuffer(i);
+						byte[] entry = new byte[buffer.readableBytes()];
+						buffer.getBytes(buffer.readerIndex(), entry);
+						entries.add(entry);
+					}
+					result.complete(new BatchedRead(rc, eid, entries));
+				}, null, BookieProtocol.FLAG_NONE, false);
+		return result;
+	}
+
+
+	private static BatchedReadResponse response(BatchedReadRequest request, int errorCode, List<ByteBuf> entries) {
+		ByteBufList data = null;
+		if (entries != null) {
+			data = ByteBufList.get(entries.get(0));
+			for (int i = 1; i < entries.size(); i++) {
+				data.add(entries.get(i));
+			}
+		}
+		return new BatchedReadResponse(BookieProtocol.CURRENT_PROTOCOL_VERSION, errorCode, request.getLedgerId(),
+				request.getEntryId(), request.getRequestId(), data);
+	}
+
+
+	private static List<ByteBuf> entries(long startEntryId, int count, int size) {
+		List<ByteBuf> entries = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			ByteBuf entry = Unpooled.buffer(size);
+			entry.writeLong(startEntryId + i);
+			entry.writeZero(size - 8);
+			entries.add(entry);
+		}
+		return entries;
+	}
+
+
+	private static void assertEntries(long startEntryId, int count, int size, BatchedRead read) {
+		assertEquals(count, read.entries.size());
+		for (int i = 0; i < count; i++) {
+			assertEquals(size, read.entries.get(i).length);
+			assertEquals(startEntryId + i, Unpooled.wrappedBuffer(read.entries.get(i)).readLong());
+		}
+	}
+
+
+	/**
+	 * Result of a batched read.
+	 */
+	private static class BatchedRead {
+		final int rc;
+		final long startEntryId;
+		final List<byte[]> entries;
+
+		BatchedRead(int rc, long startEntryId, List<byte[]> entries) {
+			this.rc = rc;
+			this.startEntryId = startEntryId;
+			this.entries = entries;
+		}
+	}
+}
@@ -0,0 +1,318 @@
+package org.apache.bookkeeper.proto;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.BookKeeperClientStats;
+import org.apache.bookkeeper.client.api.WriteFlag;
+import org.apache.bookkeeper.client.util.TestStatsProvider;
+import org.apache.bookkeeper.common.util.OrderedExecutor;
+import org.apache.bookkeeper.conf.ClientConfiguration;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.net.BookieSocketAddress;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.AddResponse;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.BKPacketHeader;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ProtocolVersion;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadResponse;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.Request;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.Response;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.StatusCode;
+import org.apache.bookkeeper.stats.StatsLogger;
+import org.apache.bookkeeper.util.ByteBufList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.EnumSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+
+public class PerChannelBookieClientFlowControlTest {
+
+	private static final BookieId BOOKIE_ID = BookieId.parse("127.0.0.1:3181");
+
+	private static final long LEDGER_ID = 1234L;
+
+	/** Max credits asked for by the client */
+	private static final int MAX_CREDITS = 4;
+
+	private TestStatsProvider statsProvider;
+	private OrderedExecutor executor;
+	private EventLoopGroup eventLoopGroup;
+	private EmbeddedChannel channel;
+	private PerChannelBookieClient client;
+
+
+	@Before
+	public void configure() throws Exception {
+		statsProvider = new TestStatsProvider();
+		executor = OrderedExecutor.newBuilder().name("test-flow-control").numThreads(1).build();
+		eventLoopGroup = new DefaultEventLoopGroup(1);
+		ClientConfiguration conf = new ClientConfiguration()
+				.setUseV2WireProtocol(false)
+				.setFlowControlCredits(MAX_CREDITS)
+				.setAddEntryTimeout(1)
+				.setReadEntryTimeout(60);
+		client = new PerChannelBookieClient(conf, executor, eventLoopGroup, UnpooledByteBufAllocator.DEFAULT, BOOKIE_ID,
+				statsProvider.getStatsLogger(""), null, null, null, null, BookieSocketAddress.LEGACY_BOOKIEID_RESOLVER);
+		connect();
+	}
+
+
+	@After
+	public void shutdown() throws Exception {
+		channel.finishAndReleaseAll();
+		executor.shutdownNow();
+		eventLoopGroup.shutdownGracefully();
+	}
+
+
+	@Test
+	public void testCreditsRequested() throws Exception {
+		addEntry(0, BookieProtocol.FLAG_NONE);
+		readEntry(0);
+		addEntry(1, BookieProtocol.FLAG_HIGH_PRIORITY);
+
+		Request add = sent();
+		assertEquals(MAX_CREDITS, add.getHeader().getCredits());
+		Request read = sent();
+		assertEquals(MAX_CREDITS, read.getHeader().getCredits());
+		// High priority requests are never held, they don't ask for credits
+		Request highPriority = sent();
+		assertFalse(highPriority.getHeader().hasCredits());
+		assertTrue(highPriority.getHeader().hasPriority());
+		assertEquals(2, creditsOutstanding());
+	}
+
+
+	@Test
+	public void testRequestsWaitForCredits() throws Exception {
+		// Sent right away until the bookie grants credits
+		CompletableFuture<Integer> first = addEntry(0, BookieProtocol.FLAG_NONE);
+		CompletableFuture<Integer> second = addEntry(1, BookieProtocol.FLAG_NONE);
+		Request firstRequest = sent();
+		Request secondRequest = sent();
+		respond(firstRequest, StatusCode.EOK, 2);
+		assertEquals(BKException.Code.OK, (int) first.get(10, TimeUnit.SECONDS));
+		assertEquals(1, creditsOutstanding());
+
+		// Only 2 requests outstanding
+		CompletableFuture<Integer> third = addEntry(2, BookieProtocol.FLAG_NONE);
+		Request thirdRequest = sent();
+		CompletableFuture<Integer> fourth = addEntry(3, BookieProtocol.FLAG_NONE);
+		CompletableFuture<Integer> fifth = addEntry(4, BookieProtocol.FLAG_NONE);
+		assertNull(channel.readOutbound());
+		assertEquals(2, creditsOutstanding());
+
+		// Each response sends a waiting request, in order
+		respond(secondRequest, StatusCode.EOK, 2);
+		Request fourthRequest = sent();
+		assertEquals(3, fourthRequest.getAddRequest().getEntryId());
+		assertNull(channel.readOutbound());
+		respond(thirdRequest, StatusCode.EOK, 2);
+		Request fifthRequest = sent();
+		assertEquals(4, fifthRequest.getAddRequest().getEntryId());
+		assertEquals(2, creditsOutstanding());
+		assertEquals(2, flowControlWait().getSuccessCount());
+
+		respond(fourthRequest, StatusCode.EOK, 2);
+		respond(fifthRequest, StatusCode.EOK, 2);
+		for (CompletableFuture<Integer> add : new CompletableFuture[]{second, third, fourth, fifth}) {
+			assertEquals(BKException.Code.OK, (int) add.get(10, TimeUnit.SECONDS));
+		}
+		assertEquals(0, creditsOutstanding());
+	}
+
+
+	@Test
+	public void testGrantedCreditsClamped() throws Exception {
+		addEntry(0, BookieProtocol.FLAG_NONE);
+		// At least 1 credit
+		respond(sent(), StatusCode.EOK, 0);
+		Request request = sent(addEntry(1, BookieProtocol.FLAG_NONE));
+		addEntry(2, BookieProtocol.FLAG_NONE);
+		assertNull(channel.readOutbound());
+
+		// At most the credits asked for
+		respond(request, StatusCode.EOK, 100);
+		for (long entryId = 3; entryId < 10; entryId++) {
+			addEntry(entryId, BookieProtocol.FLAG_NONE);
+		}
+		for (long entryId = 2; entryId < 2 + MAX_CREDITS; entryId++) {
+			assertEquals(entryId, sent().getAddRequest().getEntryId());
+		}
+		assertNull(channel.readOutbound());
+		assertEquals(MAX_CREDITS, creditsOutstanding());
+	}
+
+
+	@Test
+	public void testErrorResponseReleasesCredit() throws Exception {
+		CompletableFuture<Integer> first = addEntry(0, BookieProtocol.FLAG_NONE);
+		Request firstRequest = sent();
+		addEntry(1, BookieProtocol.FLAG_NONE);
+		respond(sent(), StatusCode.EOK, 1);
+		addEntry(2, BookieProtocol.FLAG_NONE);
+		assertNull(channel.readOutbound());
+
+		respond(firstRequest, StatusCode.EIO, 1);
+		assertEquals(BKException.Code.WriteException, (int) first.get(10, TimeUnit.SECONDS));
+		assertEquals(2, sent().getAddRequest().getEntryId());
+		assertEquals(1, creditsOutstanding());
+	}
+
+
+	@Test
+	public void testTimedOutWaiterPurged() throws Exception {
+		// The reads hold the credit, they don't time out
+		readEntry(0);
+		readEntry(1);
+		respond(sent(), StatusCode.EOK, 1);
+		Request read = sent();
+		CompletableFuture<Integer> add = addEntry(2, BookieProtocol.FLAG_NONE);
+		assertNull(channel.readOutbound());
+
+		Thread.sleep(1100);
+		client.checkTimeoutOnPendingOperations();
+		assertEquals(BKException.Code.TimeoutException, (int) add.get(10, TimeUnit.SECONDS));
+		// Removed from the waiters right away, not when a credit is released
+		assertEquals(1, flowControlWait().getFailureCount());
+		assertEquals(1, creditsOutstanding());
+
+		// The credit released isn't used by the timed out request
+		respond(read, StatusCode.EOK, 1);
+		assertNull(channel.readOutbound());
+		assertEquals(0, creditsOutstanding());
+		assertEquals(3, sent(addEntry(3, BookieProtocol.FLAG_NONE)).getAddRequest().getEntryId());
+	}
+
+
+	@Test
+	public void testCreditsResetOnDisconnect() throws Exception {
+		CompletableFuture<Integer> first = addEntry(0, BookieProtocol.FLAG_NONE);
+		respond(sent(), StatusCode.EOK, 1);
+		CompletableFuture<Integer> second = addEntry(1, BookieProtocol.FLAG_NONE);
+		sent();
+		CompletableFuture<Integer> third = addEntry(2, BookieProtocol.FLAG_NONE);
+		assertNull(channel.readOutbound());
+
+		channel.close();
+		assertEquals(BKException.Code.OK, (int) first.get(10, TimeUnit.SECONDS));
+		assertEquals(BKException.Code.BookieHandleNotAvailableException, (int) second.get(10, TimeUnit.SECONDS));
+		assertEquals(BKException.Code.BookieHandleNotAvailableException, (int) third.get(10, TimeUnit.SECONDS));
+		assertEquals(0, creditsOutstanding());
+		assertEquals(1, flowControlWait().getFailureCount());
+
+		// The credits granted by the previous connection are forgotten
+		connect();
+		for (long entryId = 3; entryId < 6; entryId++) {
+			assertEquals(entryId, sent(addEntry(entryId, BookieProtocol.FLAG_NONE)).getAddRequest().getEntryId());
+		}
+		assertEquals(3, creditsOutstanding());
+	}
+
+
+	private void connect() {
+		if (channel != null) {
+			channel.finishAndReleaseAll();
+		}
+		// The requests are kept as they are sent, and the responses are passed to the client
+		channel = new EmbeddedChannel(client);
+		client.channel = channel;
+	}
+
+
+	private CompletableFuture<Integer> addEntry(long entryId, int options) {
+		CompletableFuture<Integer> result = new CompletableFuture<>();
+		ByteBuf entry = Unpooled.buffer(64);
+		entry.writeLong(entryId);
+		entry.writeZero(56);
+		client.addEntry(LEDGER_ID, new byte[0], entryId, ByteBufList.get(entry),
+				(rc, ledgerId, eid, addr, ctx) -> result.complete(rc), null, options, false,
+				EnumSet.noneOf(WriteFlag.class));
+		return result;
+	}
+
+
+	private CompletableFuture<Integer> readEntry(long entryId) {
+		CompletableFuture<Integer> result = new CompletableFuture<>();
+		client.readEntry(LEDGER_ID, entryId, (rc, ledgerId, eid, buffer, ctx) -> result.complete(rc), null,
+				BookieProtocol.FLAG_NONE, null, false);
+		return result;
+	}
+
+
+	/**
+	 * @return the next request sent, either right away or once it got a credit, serialized while waiting
+	 */
+	private Request sent() throws Exception {
+		Object msg = channel.readOutbound();
+		assertNotNull("No request sent", msg);
+		if (msg instanceof Request) {
+			return (Request) msg;
+		}
+		ByteBuf frame = (ByteBuf) msg;
+		try {
+			int size = frame.readInt();
+			return Request.parseFrom(frame.nioBuffer(frame.readerIndex(), size));
+		} finally {
+			frame.release();
+		}
+	}
+
+
+	private Request sent(CompletableFuture<Integer> request) throws Exception {
+		assertFalse(request.isDone());
+		return sent();
+	}
+
+
+	private void respond(Request request, StatusCode status, int credits) {
+		BKPacketHeader header = BKPacketHeader.newBuilder()
+				.setVersion(ProtocolVersion.VERSION_THREE)
+				.setOperation(request.getHeader().getOperation())
+				.setTxnId(request.getHeader().getTxnId())
+				.setCredits(credits)
+				.build();
+		Response.Builder response = Response.newBuilder().setHeader(header).setStatus(status);
+		if (request.hasAddRequest()) {
+			response.setAddResponse(AddResponse.newBuilder()
+					.setStatus(status)
+					.setLedgerId(request.getAddRequest().getLedgerId())
+					.setEntryId(request.getAddRequest().getEntryId()));
+		} else {
+			response.setReadResponse(ReadResponse.newBuilder()
+					.setStatus(status)
+					.setLedgerId(request.getReadRequest().getLedgerId())
+					.setEntryId(request.getReadRequest().getEntryId()));
+		}
+		channel.writeInbound(response.build());
+	}
+
+
+	private long creditsOutstanding() {
+		return channelStats().getCounter(BookKeeperClientStats.FLOW_CONTROL_CREDITS_OUTSTANDING).get();
+	}
+
+
+	private TestStatsProvider.TestOpStatsLogger flowControlWait() {
+		return (TestStatsProvider.TestOpStatsLogger) channelStats()
+				.getOpStatsLogger(BookKeeperClientStats.FLOW_CONTROL_WAIT);
+	}
+
+
+	/**
+	 * @return the stats of the client, the same ones are returned for the same names
+	 */
+	private StatsLogger channelStats() {
+		return statsProvider.getStatsLogger("").scope(BookKeeperClientStats.CHANNEL_SCOPE)
+				.scopeLabel(BookKeeperClientStats.BOOKIE_LABEL, BOOKIE_ID.toString());
+	}
+}
@@ -0,0 +1,156 @@
+package org.apache.bookkeeper.proto;
+
+import org.apache.bookkeeper.common.util.OrderedExecutor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+
+public class ReadLanesTest {
+
+	private static final String TAILING_LANE = "test-tailing-lane";
+	private static final String CATCH_UP_LANE = "test-catch-up-lane";
+
+	private OrderedExecutor tailingLane;
+	private OrderedExecutor catchUpLane;
+	private ReadLanes readLanes;
+
+
+	@Before
+	public void configure() {
+		tailingLane = OrderedExecutor.newBuilder().name(TAILING_LANE).numThreads(4).build();
+		catchUpLane = OrderedExecutor.newBuilder().name(CATCH_UP_LANE).numThreads(4).build();
+		readLanes = new ReadLanes(tailingLane, catchUpLane);
+	}
+
+
+	@After
+	public void shutdown() {
+		tailingLane.shutdownNow();
+		catchUpLane.shutdownNow();
+	}
+
+
+	@Test
+	public void testLaneOfIdleLedger() throws Exception {
+		assertTrue(runRead(1, true).startsWith(CATCH_UP_LANE));
+		awaitNoPendingLedgers();
+		assertTrue(runRead(1, false).startsWith(TAILING_LANE));
+		awaitNoPendingLedgers();
+		assertTrue(runRead(1, true).startsWith(CATCH_UP_LANE));
+		awaitNoPendingLedgers();
+	}
+
+
+	@Test
+	public void testPendingReadsKeepTheirLane() throws Exception {
+		CountDownLatch blocked = new CountDownLatch(1);
+		List<Integer> executed = Collections.synchronizedList(new ArrayList<>());
+		String[] threads = new String[2];
+
+		ReadLanes.LedgerReads first = readLanes.acquire(1, false);
+		first.execute(() -> {
+			awaitQuietly(blocked);
+			threads[0] = Thread.currentThread().getName();
+			executed.add(0);
+		});
+
+		// Requested on the catch-up lane while a read of the ledger is pending on the tailing lane
+		ReadLanes.LedgerReads second = readLanes.acquire(1, true);
+		assertFalse(second.isCatchUp());
+		CountDownLatch done = new CountDownLatch(1);
+		second.execute(() -> {
+			threads[1] = Thread.currentThread().getName();
+			executed.add(1);
+			done.countDown();
+		});
+
+		// Reads of other ledgers are not affected
+		assertTrue(runRead(2, true).startsWith(CATCH_UP_LANE));
+
+		blocked.countDown();
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList(0, 1), executed);
+		assertEquals(threads[0], threads[1]);
+		awaitNoPendingLedgers();
+	}
+
+
+	@Test
+	public void testReadsOfLedgerExecuteInOrder() throws Exception {
+		int ledgers = 8;
+		int readsPerLedger = 5000;
+		List<List<Integer>> executed = new ArrayList<>();
+		CountDownLatch done = new CountDownLatch(ledgers * readsPerLedger);
+		List<Thread> submitters = new ArrayList<>();
+
+		for (int l = 0; l < ledgers; l++) {
+			long ledgerId = l;
+			List<Integer> ledgerExecuted = Collections.synchronizedList(new ArrayList<>());
+			executed.add(ledgerExecuted);
+			submitters.add(new Thread(() -> {
+				for (int i = 0; i < readsPerLedger; i++) {
+					int seq = i;
+					readLanes.acquire(ledgerId, ThreadLocalRandom.current().nextBoolean()).execute(() -> {
+						ledgerExecuted.add(seq);
+						done.countDown();
+					});
+				}
+			}));
+		}
+		submitters.forEach(Thread::start);
+		for (Thread submitter : submitters) {
+			submitter.join();
+		}
+
+		assertTrue(done.await(30, TimeUnit.SECONDS));
+		for (List<Integer> ledgerExecuted : executed) {
+			assertEquals(readsPerLedger, ledgerExecuted.size());
+			for (int i = 0; i < readsPerLedger; i++) {
+				assertEquals(i, (int) ledgerExecuted.get(i));
+			}
+		}
+		awaitNoPendingLedgers();
+	}
+
+
+	private String runRead(long ledgerId, boolean catchUp) throws InterruptedException {
+		String[] thread = new String[1];
+		CountDownLatch done = new CountDownLatch(1);
+		readLanes.acquire(ledgerId, catchUp).execute(() -> {
+			thread[0] = Thread.currentThread().getName();
+			done.countDown();
+		});
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		return thread[0];
+	}
+
+
+	private void awaitNoPendingLedgers() throws InterruptedException {
+		// The state of a ledger is dropped right after its last read ran
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (readLanes.getPendingLedgersCount() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(1);
+		}
+		assertEquals(0, readLanes.getPendingLedgersCount());
+	}
+
+
+	private static void awaitQuietly(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import com.google.common.util.concurrent.RateLimiter;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.bookkeeper.bookie.storage.ldb.DbLedgerStorage;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measure the latency of {@link DbLedgerStorage#addEntry} under a sustained ingest rate, to reproduce the write
+ * throttling when the write cache flush can't keep up with the adds.
+ *
+ * <p>The adds that are blocked waiting for a free write cache show up in the high percentiles.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+@Fork(value = 1, jvmArgsAppend = "-XX:MaxDirectMemorySize=4g")
+@Warmup(iterations = 1, time = 10)
+@Measurement(iterations = 3, time = 10)
+public class DbLedgerStorageWriteBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class TestState {
+        @Param({"2", "8"})
+        private int writeCacheRingSize;
+
+        @Param({"256"})
+        private int writeCacheMaxSizeMb;
+
+        @Param({"1024"})
+        private int ingestRateMbPerSec;
+
+        @Param({"65536"})
+        private int entrySize;
+
+        @Param({"100"})
+        private int ledgers;
+
+        private File dir;
+        private DbLedgerStorage storage;
+        private RateLimiter rateLimiter;
+        private ScheduledExecutorService syncExecutor;
+        private final AtomicLong nextEntryId = new AtomicLong();
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            dir = Files.createTempDirectory("db-ledger-storage-bench").toFile();
+            BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(dir));
+
+            ServerConfiguration conf = new ServerConfiguration();
+            conf.setLedgerDirNames(new String[] { dir.getAbsolutePath() });
+            conf.setAdvertisedAddress("127.0.0.1");
+            conf.setProperty(DbLedgerStorage.WRITE_CACHE_MAX_SIZE_MB, writeCacheMaxSizeMb);
+            conf.setProperty(DbLedgerStorage.READ_AHEAD_CACHE_MAX_SIZE_MB, 16);
+            conf.setProperty(DbLedgerStorage.WRITE_CACHE_RING_SIZE, writeCacheRingSize);
+
+            LedgerDirsManager ledgerDirsManager = new LedgerDirsManager(conf, conf.getLedgerDirs(),
+                    new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()));
+            storage = new DbLedgerStorage();
+            storage.initialize(conf, null, ledgerDirsManager, ledgerDirsManager, NullStatsLogger.INSTANCE,
+                    PooledByteBufAllocator.DEFAULT);
+            storage.setCheckpointSource(CheckpointSource.DEFAULT);
+            for (long ledgerId = 0; ledgerId < ledgers; ledgerId++) {
+                storage.setMasterKey(ledgerId, new byte[0]);
+            }
+
+            rateLimiter = RateLimiter.create(ingestRateMbPerSec * 1024.0 * 1024.0);
+
+            // Periodic checkpoints, as done by the SyncThread
+            syncExecutor = Executors.newSingleThreadScheduledExecutor();
+            syncExecutor.scheduleWithFixedDelay(() -> {
+                try {
+                    storage.flush();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }, 1, 1, TimeUnit.SECONDS);
+        }
+
+        @TearDown(Level.Trial)
+        public void teardown() throws Exception {
+            syncExecutor.shutdownNow();
+            syncExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            storage.shutdown();
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Benchmark
+    public long addEntry(TestState s) throws Exception {
+        s.rateLimiter.acquire(s.entrySize);
+
+        long id = s.nextEntryId.getAndIncrement();
+        ByteBuf entry = PooledByteBufAllocator.DEFAULT.buffer(s.entrySize, s.entrySize);
+        entry.writeLong(id % s.ledgers);
+        entry.writeLong(id / s.ledgers);
+        entry.writeLong(-1);
+        entry.writerIndex(s.entrySize);
+        try {
+            return s.storage.addEntry(entry);
+        } finally {
+            entry.release();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.bookie.storage.ldb.EntryLocationIndex;
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage;
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorageFactory;
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorageRocksDB;
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorageSortedArray;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compare the {@link EntryLocationIndex} lookup latency of the RocksDB and SortedArray index backends.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(4)
+@Fork(1)
+@Warmup(iterations = 1, time = 10)
+@Measurement(iterations = 3, time = 10)
+public class EntryLocationIndexBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class TestState {
+        @Param({"RocksDB", "SortedArray"})
+        private String indexType;
+
+        @Param({"1000"})
+        private int ledgers;
+
+        @Param({"10000"})
+        private int entriesPerLedger;
+
+        // Number of flushed batches, each one adding a slice of the entries of every ledger
+        @Param({"10"})
+        private int batches;
+
+        private File dir;
+        private EntryLocationIndex index;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            dir = Files.createTempDirectory("entry-location-index-bench").toFile();
+            ServerConfiguration conf = new ServerConfiguration();
+            KeyValueStorageFactory factory = "RocksDB".equals(indexType)
+                    ? (basePath, subPath, dbConfigType, c) ->
+                            new KeyValueStorageRocksDB(basePath, subPath, dbConfigType, c)
+                    : (basePath, subPath, dbConfigType, c) ->
+                            new KeyValueStorageSortedArray(basePath, subPath, dbConfigType, c);
+            index = new EntryLocationIndex(conf, factory, dir.getAbsolutePath(), NullStatsLogger.INSTANCE);
+
+            int entriesPerBatch = entriesPerLedger / batches;
+            for (int b = 0; b < batches; b++) {
+                KeyValueStorage.Batch batch = index.newBatch();
+                for (long ledgerId = 0; ledgerId < ledgers; ledgerId++) {
+                    for (long entryId = (long) b * entriesPerBatch; entryId < (b + 1L) * entriesPerBatch; entryId++) {
+                        index.addLocation(batch, ledgerId, entryId, location(ledgerId, entryId));
+                    }
+                }
+                batch.flush();
+                batch.close();
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void teardown() throws Exception {
+            index.close();
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    private static final int READ_AHEAD_BATCH_SIZE = 100;
+
+    private static long location(long ledgerId, long entryId) {
+        return ((ledgerId + 1) << 32) | (entryId * 100 + 4);
+    }
+
+    @Benchmark
+    public long getLocation(TestState s) throws Exception {
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        return s.index.getLocation(r.nextInt(s.ledgers), r.nextInt(s.entriesPerLedger));
+    }
+
+    @Benchmark
+    public long getLocationMissing(TestState s) throws Exception {
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        return s.index.getLocation(r.nextInt(s.ledgers), s.entriesPerLedger + r.nextInt(s.entriesPerLedger));
+    }
+
+    @Benchmark
+    public long[] getLocations(TestState s) throws Exception {
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        long firstEntryId = r.nextInt(s.entriesPerLedger - READ_AHEAD_BATCH_SIZE);
+        return s.index.getLocations(r.nextInt(s.ledgers), firstEntryId, firstEntryId + READ_AHEAD_BATCH_SIZE - 1);
+    }
+
+    @Benchmark
+    public long getLastEntryInLedger(TestState s) throws Exception {
+        return s.index.getLastEntryInLedger(ThreadLocalRandom.current().nextInt(s.ledgers));
+    }
+}
@@ -21,19 +21,25 @@
 
 package org.apache.bookkeeper.bookie;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
 import java.util.Arrays;
 import java.util.Random;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import org.apache.bookkeeper.bookie.storage.ldb.ArrayGroupSort;
+import org.apache.bookkeeper.bookie.storage.ldb.WriteCache;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.Fork;
 import org.openjdk.jmh.annotations.Level;
 import org.openjdk.jmh.annotations.Measurement;
 import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
 import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
 import org.openjdk.jmh.annotations.Warmup;
 
 @OutputTimeUnit(TimeUnit.SECONDS)
@@ -116,4 +122,51 @@ public class GroupSortBenchmark {
     public void reverseSortedArraySort(GroupSortBenchmark.TestState s) {
         Arrays.sort(s.reverseSortedItems);
     }
+
+    /**
+     * Write cache filled with interleaved entries of multiple ledgers, to compare the flush iteration with a
+     * global sort and with the per-ledger buckets.
+     */
+    @State(Scope.Benchmark)
+    public static class WriteCacheState {
+        @Param({"false", "true"})
+        private boolean useLedgerBuckets;
+
+        @Param({"1000"})
+        private int ledgers;
+
+        @Param({"1000000"})
+        private int entries;
+
+        private WriteCache writeCache;
+        private ByteBuf entry;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            entry = Unpooled.directBuffer(64, 64);
+            entry.writerIndex(64);
+            writeCache = new WriteCache(ByteBufAllocator.DEFAULT, (long) entries * 64, useLedgerBuckets);
+        }
+
+        @Setup(Level.Invocation)
+        public void setupInvocation() {
+            writeCache.clear();
+            for (int i = 0; i < entries; i++) {
+                writeCache.put(i % ledgers, i / ledgers, entry);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void teardown() {
+            writeCache.close();
+            entry.release();
+        }
+    }
+
+    @Benchmark
+    public long writeCacheForEach(GroupSortBenchmark.WriteCacheState s) throws Exception {
+        long[] sum = new long[1];
+        s.writeCache.forEach((ledgerId, entryId, entry) -> sum[0] += entryId);
+        return sum[0];
+    }
 }
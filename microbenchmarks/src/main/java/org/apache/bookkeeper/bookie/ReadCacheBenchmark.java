@@ -0,0 +1,219 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.bookie.storage.ldb.ReadCache;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Simulate a mixed tailing and catch-up read workload on the {@link ReadCache} and report the hit ratio of each
+ * eviction policy.
+ *
+ * <p>The tailing readers are several subscribers reading sequentially a set of hot ledgers while the ledgers keep
+ * growing, each subscriber with its own lag from the last entry, so that each entry is read once by every subscriber.
+ * The catch-up readers scan a large backlog sequentially, reading each entry only once. Every miss inserts the entry in the cache, followed by the read-ahead entries, as done by
+ * {@code SingleDirectoryDbLedgerStorage}.
+ *
+ * <p>The hits and misses of each workload are reported as secondary results, the hit ratios are printed at the end
+ * of the trial.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(1)
+@Fork(1)
+@Warmup(iterations = 1, time = 10)
+@Measurement(iterations = 3, time = 10)
+public class ReadCacheBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class TestState {
+        @Param({"FIFO", "SLRU"})
+        private ReadCache.EvictionPolicy policy;
+
+        @Param({"64"})
+        private int cacheSizeMb;
+
+        @Param({"1024"})
+        private int entrySize;
+
+        // Fraction of the reads coming from the catch-up readers
+        @Param({"0.5"})
+        private double catchUpRatio;
+
+        @Param({"0.5"})
+        private double protectedRatio;
+
+        @Param({"16"})
+        private int tailingLedgers;
+
+        @Param({"4"})
+        private int subscribersPerLedger;
+
+        // Max distance of the subscribers from the last entry of the ledger
+        @Param({"2048"})
+        private int tailingMaxLag;
+
+        @Param({"4"})
+        private int catchUpReaders;
+
+        @Param({"10", "100"})
+        private int readAheadBatchSize;
+
+        private ReadCache cache;
+        private ByteBuf entry;
+        private SplittableRandom random;
+
+        private long[] tailingLastEntry;
+        private long[] subscriberNextEntry;
+        private int nextSubscriber;
+        private long[] catchUpNextEntry;
+
+        private long tailingHits;
+        private long tailingMisses;
+        private long catchUpHits;
+        private long catchUpMisses;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            cache = new ReadCache(PooledByteBufAllocator.DEFAULT, cacheSizeMb * 1024L * 1024L, policy, protectedRatio);
+            entry = Unpooled.directBuffer(entrySize, entrySize);
+            entry.writerIndex(entrySize);
+            random = new SplittableRandom(1);
+
+            // The subscribers lags are evenly spread up to tailingMaxLag, the last entries are served by the write cache
+            tailingLastEntry = new long[tailingLedgers];
+            subscriberNextEntry = new long[tailingLedgers * subscribersPerLedger];
+            for (int i = 0; i < tailingLedgers; i++) {
+                tailingLastEntry[i] = tailingMaxLag;
+                for (int j = 0; j < subscribersPerLedger; j++) {
+                    subscriberNextEntry[i * subscribersPerLedger + j] =
+                            tailingMaxLag - (long) tailingMaxLag * (j + 1) / subscribersPerLedger;
+                }
+            }
+            catchUpNextEntry = new long[catchUpReaders];
+        }
+
+        @TearDown(Level.Trial)
+        public void teardown() {
+            System.out.printf("%n%s: tailing hit ratio %.3f, catch-up hit ratio %.3f, overall hit ratio %.3f%n",
+                    policy, ratio(tailingHits, tailingMisses), ratio(catchUpHits, catchUpMisses),
+                    ratio(tailingHits + catchUpHits, tailingMisses + catchUpMisses));
+            cache.close();
+            entry.release();
+        }
+
+        private static double ratio(long hits, long misses) {
+            return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+        }
+
+        /**
+         * Read an entry and, on a miss, fill the cache as the storage would do.
+         */
+        boolean read(long ledgerId, long entryId, long lastEntryId) {
+            ByteBuf res = cache.get(ledgerId, entryId);
+            if (res != null) {
+                res.release();
+                return true;
+            }
+
+            cache.putAccessed(ledgerId, entryId, entry);
+            long readAheadEnd = Math.min(lastEntryId, entryId + readAheadBatchSize);
+            for (long e = entryId + 1; e <= readAheadEnd; e++) {
+                cache.put(ledgerId, e, entry);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Hits and misses of each workload.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class HitCounters {
+        public long tailingHits;
+        public long tailingMisses;
+        public long catchUpHits;
+        public long catchUpMisses;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            tailingHits = 0;
+            tailingMisses = 0;
+            catchUpHits = 0;
+            catchUpMisses = 0;
+        }
+    }
+
+    @Benchmark
+    public void mixedReads(TestState s, HitCounters counters) {
+        SplittableRandom random = s.random;
+        if (random.nextDouble() < s.catchUpRatio) {
+            // The catch-up ledgers ids are after the tailing ones
+            int reader = random.nextInt(s.catchUpReaders);
+            long entryId = s.catchUpNextEntry[reader]++;
+            if (s.read(s.tailingLedgers + reader, entryId, Long.MAX_VALUE)) {
+                counters.catchUpHits++;
+                s.catchUpHits++;
+            } else {
+                counters.catchUpMisses++;
+                s.catchUpMisses++;
+            }
+        } else {
+            // The subscribers are served in turn, and the ledger grows by one entry once all its subscribers read
+            // one, so that the lags stay constant
+            int subscriber = s.nextSubscriber;
+            s.nextSubscriber = (subscriber + 1) % s.subscriberNextEntry.length;
+            int ledger = subscriber / s.subscribersPerLedger;
+            if (subscriber % s.subscribersPerLedger == 0) {
+                s.tailingLastEntry[ledger]++;
+            }
+            long entryId = s.subscriberNextEntry[subscriber]++;
+            if (s.read(ledger, entryId, s.tailingLastEntry[ledger])) {
+                counters.tailingHits++;
+                s.tailingHits++;
+            } else {
+                counters.tailingMisses++;
+                s.tailingMisses++;
+            }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.bookkeeper.bookie.storage.ldb.DbLedgerStorage;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteCallback;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compare the adds acknowledged after being written to the journal, with the adds acknowledged after being persisted
+ * in the write cache spill log of {@link DbLedgerStorage}.
+ *
+ * <p>Besides the throughput, it prints the bytes written to the files by the bookie (the wchar of /proc/self/io, so
+ * only on Linux) per acknowledged byte, including the journal or spill log, the entry logs and the indexes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(16)
+@Fork(value = 1, jvmArgsAppend = "-XX:MaxDirectMemorySize=4g")
+@Warmup(iterations = 1, time = 10)
+@Measurement(iterations = 3, time = 10)
+public class WriteCacheSpillBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class TestState {
+        @Param({"journal", "spill"})
+        private String mode;
+
+        @Param({"1024", "65536"})
+        private int entrySize;
+
+        @Param({"100"})
+        private int ledgers;
+
+        private File dir;
+        private DbLedgerStorage storage;
+        private Journal journal;
+        private ScheduledExecutorService syncExecutor;
+        private final AtomicLong nextEntryId = new AtomicLong();
+        private final AtomicLong ackedBytes = new AtomicLong();
+        private long writtenBytesAtStart;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            dir = Files.createTempDirectory("write-cache-spill-bench").toFile();
+            File ledgerDir = new File(dir, "ledgers");
+            File journalDir = new File(dir, "journal");
+            BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(ledgerDir));
+            BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(journalDir));
+
+            boolean spill = "spill".equals(mode);
+            ServerConfiguration conf = new ServerConfiguration();
+            conf.setLedgerDirNames(new String[] { ledgerDir.getAbsolutePath() });
+            conf.setJournalDirName(journalDir.getAbsolutePath());
+            conf.setAdvertisedAddress("127.0.0.1");
+            conf.setJournalWriteData(!spill);
+            conf.setProperty("dbStorage_writeCacheSpillEnabled", spill);
+            conf.setProperty(DbLedgerStorage.WRITE_CACHE_MAX_SIZE_MB, 256);
+            conf.setProperty(DbLedgerStorage.READ_AHEAD_CACHE_MAX_SIZE_MB, 16);
+
+            LedgerDirsManager ledgerDirsManager = new LedgerDirsManager(conf, conf.getLedgerDirs(),
+                    new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()));
+            storage = new DbLedgerStorage();
+            storage.initialize(conf, null, ledgerDirsManager, ledgerDirsManager, NullStatsLogger.INSTANCE,
+                    PooledByteBufAllocator.DEFAULT);
+            storage.setCheckpointSource(CheckpointSource.DEFAULT);
+            for (long ledgerId = 0; ledgerId < ledgers; ledgerId++) {
+                storage.setMasterKey(ledgerId, new byte[0]);
+            }
+
+            if (!spill) {
+                journal = new Journal(0, BookieImpl.getCurrentDirectory(journalDir), conf, ledgerDirsManager);
+                journal.start();
+            }
+
+            // Periodic checkpoints, as done by the SyncThread
+            syncExecutor = Executors.newSingleThreadScheduledExecutor();
+            syncExecutor.scheduleWithFixedDelay(() -> {
+                try {
+                    storage.flush();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }, 1, 1, TimeUnit.SECONDS);
+        }
+
+        @Setup(Level.Iteration)
+        public void startIteration() throws IOException {
+            ackedBytes.set(0);
+            writtenBytesAtStart = writtenBytes();
+        }
+
+        @TearDown(Level.Iteration)
+        public void endIteration() throws IOException {
+            long written = writtenBytes() - writtenBytesAtStart;
+            System.out.printf("%n%s: %.2f bytes written per acked byte%n", mode,
+                    ackedBytes.get() == 0 ? 0 : (double) written / ackedBytes.get());
+        }
+
+        @TearDown(Level.Trial)
+        public void teardown() throws Exception {
+            syncExecutor.shutdownNow();
+            syncExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            if (journal != null) {
+                journal.shutdown();
+            }
+            storage.shutdown();
+            FileUtils.deleteDirectory(dir);
+        }
+
+        private static long writtenBytes() throws IOException {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/io"), StandardCharsets.US_ASCII)) {
+                if (line.startsWith("wchar:")) {
+                    return Long.parseLong(line.substring("wchar:".length()).trim());
+                }
+            }
+            return 0;
+        }
+    }
+
+    @Benchmark
+    public void addEntry(TestState s) throws Exception {
+        long id = s.nextEntryId.getAndIncrement();
+        ByteBuf entry = PooledByteBufAllocator.DEFAULT.buffer(s.entrySize, s.entrySize);
+        entry.writeLong(id % s.ledgers);
+        entry.writeLong(id / s.ledgers);
+        entry.writeLong(-1);
+        entry.writerIndex(s.entrySize);
+
+        CompletableFuture<Void> acked = new CompletableFuture<>();
+        WriteCallback cb = (rc, ledgerId, entryId, addr, ctx) -> {
+            if (rc == 0) {
+                acked.complete(null);
+            } else {
+                acked.completeExceptionally(new IOException("Failed to add entry " + ledgerId + "@" + entryId));
+            }
+        };
+        try {
+            s.storage.addEntry(entry);
+            if (s.journal != null) {
+                s.journal.logAddEntry(entry, false, cb, null);
+            } else {
+                s.storage.persistEntry(entry, cb, null);
+            }
+        } finally {
+            entry.release();
+        }
+        acked.get();
+        s.ackedBytes.addAndGet(s.entrySize);
+    }
+}
@@ -20,6 +20,7 @@ package org.apache.bookkeeper.proto;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.protobuf.ByteString;
+import com.google.protobuf.ExtensionRegistry;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
@@ -29,11 +30,19 @@ import java.util.concurrent.TimeUnit;
 import org.apache.bookkeeper.proto.BookieProtoEncoding.EnDecoder;
 import org.apache.bookkeeper.proto.BookieProtoEncoding.RequestEnDeCoderPreV3;
 import org.apache.bookkeeper.proto.BookieProtoEncoding.RequestEnDecoderV3;
+import org.apache.bookkeeper.proto.BookieProtoEncoding.ResponseEnDecoderV3;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.AddRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.AddResponse;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.BKPacketHeader;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.OperationType;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.ProtocolVersion;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadLacRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadLacResponse;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadResponse;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.Request;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.Response;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.StatusCode;
 import org.apache.bookkeeper.util.ByteBufList;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
@@ -47,6 +56,9 @@ import org.slf4j.MDC;
 
 /**
  * Benchmarking serialization and deserialization.
+ *
+ * <p>The protocol v3 requests and responses handled by the bookie are benchmarked both with protobuf and with
+ * {@link BookieProtoCodecV3}, run with {@code -prof gc} to compare their allocation rates as well.
  */
 @BenchmarkMode({Mode.Throughput})
 @OutputTimeUnit(TimeUnit.MILLISECONDS)
@@ -63,6 +75,15 @@ public class ProtocolBenchmark {
     short flags;
     EnDecoder reqEnDeV2;
     EnDecoder reqEnDeV3;
+    EnDecoder respEnDeV3;
+
+    // Serialized v3 requests, as received by the bookie
+    ByteBuf addRequestV3;
+    ByteBuf readRequestV3;
+    ByteBuf readLacRequestV3;
+    // Decoded requests, to encode the responses
+    Request readRequest;
+    BookieProtoCodecV3.ParsedRequest parsedReadRequest;
 
     @Setup
     public void prepare() {
@@ -76,7 +97,44 @@ public class ProtocolBenchmark {
 
         // prepare the encoder
         this.reqEnDeV2 = new RequestEnDeCoderPreV3(null);
-        this.reqEnDeV3 = new RequestEnDecoderV3(null);
+        this.reqEnDeV3 = new RequestEnDecoderV3(ExtensionRegistry.newInstance());
+        this.respEnDeV3 = new ResponseEnDecoderV3(null);
+
+        // prepare the serialized requests
+        this.addRequestV3 = Unpooled.wrappedBuffer(Request.newBuilder()
+                .setHeader(newHeader(OperationType.ADD_ENTRY))
+                .setAddRequest(AddRequest.newBuilder()
+                        .setLedgerId(ledgerId)
+                        .setEntryId(entryId)
+                        .setMasterKey(ByteString.copyFrom(masterKey))
+                        .setBody(ByteString.copyFrom(data)))
+                .build().toByteArray());
+        this.readRequestV3 = Unpooled.wrappedBuffer(Request.newBuilder()
+                .setHeader(newHeader(OperationType.READ_ENTRY))
+                .setReadRequest(ReadRequest.newBuilder()
+                        .setLedgerId(ledgerId)
+                        .setEntryId(entryId))
+                .build().toByteArray());
+        this.readLacRequestV3 = Unpooled.wrappedBuffer(Request.newBuilder()
+                .setHeader(newHeader(OperationType.READ_LAC))
+                .setReadLacRequest(ReadLacRequest.newBuilder()
+                        .setLedgerId(ledgerId))
+                .build().toByteArray());
+        this.readRequest = Request.newBuilder()
+                .setHeader(newHeader(OperationType.READ_ENTRY))
+                .setReadRequest(ReadRequest.newBuilder()
+                        .setLedgerId(ledgerId)
+                        .setEntryId(entryId))
+                .build();
+        this.parsedReadRequest = BookieProtoCodecV3.decodeRequest(readRequestV3.duplicate());
+    }
+
+    private static BKPacketHeader newHeader(OperationType operation) {
+        return BKPacketHeader.newBuilder()
+                .setVersion(ProtocolVersion.VERSION_THREE)
+                .setOperation(operation)
+                .setTxnId(ThreadLocalRandom.current().nextLong(Long.MAX_VALUE))
+                .build();
     }
 
     @Benchmark
@@ -178,4 +236,109 @@ public class ProtocolBenchmark {
         Object res = this.reqEnDeV3.encode(request, ByteBufAllocator.DEFAULT);
         ReferenceCountUtil.release(res);
     }
+
+    @Benchmark
+    public Object testDecodeAddRequestV3() throws Exception {
+        Request request = (Request) reqEnDeV3.decode(addRequestV3.duplicate());
+        // The processor wraps the body of the add request
+        return Unpooled.wrappedBuffer(request.getAddRequest().getBody().asReadOnlyByteBuffer());
+    }
+
+    @Benchmark
+    public Object testDecodeAddRequestCodecV3() throws Exception {
+        BookieProtoCodecV3.ParsedRequest request = BookieProtoCodecV3.decodeRequest(addRequestV3.duplicate());
+        ByteBuf body = request.getBody();
+        request.release();
+        request.recycle();
+        return body;
+    }
+
+    @Benchmark
+    public Object testDecodeReadRequestV3() throws Exception {
+        return reqEnDeV3.decode(readRequestV3.duplicate());
+    }
+
+    @Benchmark
+    public long testDecodeReadRequestCodecV3() throws Exception {
+        BookieProtoCodecV3.ParsedRequest request = BookieProtoCodecV3.decodeRequest(readRequestV3.duplicate());
+        long id = request.getEntryId();
+        request.recycle();
+        return id;
+    }
+
+    @Benchmark
+    public Object testDecodeReadLacRequestV3() throws Exception {
+        return reqEnDeV3.decode(readLacRequestV3.duplicate());
+    }
+
+    @Benchmark
+    public long testDecodeReadLacRequestCodecV3() throws Exception {
+        BookieProtoCodecV3.ParsedRequest request = BookieProtoCodecV3.decodeRequest(readLacRequestV3.duplicate());
+        long id = request.getLedgerId();
+        request.recycle();
+        return id;
+    }
+
+    @Benchmark
+    public void testEncodeAddResponseV3() throws Exception {
+        AddResponse.Builder addResponse = AddResponse.newBuilder()
+                .setLedgerId(ledgerId)
+                .setEntryId(entryId)
+                .setStatus(StatusCode.EOK);
+        Response response = Response.newBuilder()
+                .setHeader(readRequest.getHeader())
+                .setStatus(addResponse.getStatus())
+                .setAddResponse(addResponse)
+                .build();
+        ReferenceCountUtil.release(respEnDeV3.encode(response, ByteBufAllocator.DEFAULT));
+    }
+
+    @Benchmark
+    public void testEncodeAddResponseCodecV3() throws Exception {
+        ReferenceCountUtil.release(
+                BookieProtoCodecV3.encodeAddResponse(ByteBufAllocator.DEFAULT, parsedReadRequest, StatusCode.EOK));
+    }
+
+    @Benchmark
+    public void testEncodeReadResponseV3() throws Exception {
+        // The processor copies the entry into the response
+        ReadResponse.Builder readResponse = ReadResponse.newBuilder()
+                .setLedgerId(ledgerId)
+                .setEntryId(entryId)
+                .setBody(ByteString.copyFrom(entry.nioBuffer()))
+                .setMaxLAC(entryId)
+                .setStatus(StatusCode.EOK);
+        Response response = Response.newBuilder()
+                .setHeader(readRequest.getHeader())
+                .setStatus(readResponse.getStatus())
+                .setReadResponse(readResponse)
+                .build();
+        ReferenceCountUtil.release(respEnDeV3.encode(response, ByteBufAllocator.DEFAULT));
+    }
+
+    @Benchmark
+    public void testEncodeReadResponseCodecV3() throws Exception {
+        ReferenceCountUtil.release(BookieProtoCodecV3.encodeReadResponse(ByteBufAllocator.DEFAULT,
+                parsedReadRequest, StatusCode.EOK, true, entryId, entry.retainedSlice()));
+    }
+
+    @Benchmark
+    public void testEncodeReadLacResponseV3() throws Exception {
+        ReadLacResponse.Builder readLacResponse = ReadLacResponse.newBuilder()
+                .setLedgerId(ledgerId)
+                .setLastEntryBody(ByteString.copyFrom(entry.nioBuffer()))
+                .setStatus(StatusCode.EOK);
+        Response response = Response.newBuilder()
+                .setHeader(readRequest.getHeader())
+                .setStatus(readLacResponse.getStatus())
+                .setReadLacResponse(readLacResponse)
+                .build();
+        ReferenceCountUtil.release(respEnDeV3.encode(response, ByteBufAllocator.DEFAULT));
+    }
+
+    @Benchmark
+    public void testEncodeReadLacResponseCodecV3() throws Exception {
+        ReferenceCountUtil.release(BookieProtoCodecV3.encodeReadLacResponse(ByteBufAllocator.DEFAULT,
+                parsedReadRequest, StatusCode.EOK, null, entry.retainedSlice()));
+    }
 }
@@ -64,4 +64,28 @@ public interface NativeIO {
     long pread(int fd, long pointer, long size, long offset) throws NativeIOException;
 
     int close(int fd) throws NativeIOException;
+
+    /**
+     * Copy a range of a file to another file in the kernel, with copy_file_range.
+     *
+     * <p>copy_file_range is a linux-only syscall (4.5+, and across filesystems only since 5.3), so callers must
+     * handle the possibility that it does not exist. The copy can be shorter than requested.
+     *
+     * @return the number of bytes copied, 0 at the end of the source file
+     */
+    default long copyFileRange(int fdIn, long offsetIn, int fdOut, long offsetOut, long len)
+            throws NativeIOException {
+        throw new NativeIOException("copy_file_range is not available");
+    }
+
+    /**
+     * Setup an io_uring instance with at least {@code entries} entries in its submission queue.
+     *
+     * <p>io_uring is a linux-only facility, that also needs a recent kernel (5.6+) and can be disabled by the
+     * container runtimes, so callers must handle the possibility that it does not exist and fall back to the
+     * synchronous calls.
+     */
+    default NativeIORing ringSetup(int entries) throws NativeIOException {
+        throw new NativeIOException("io_uring is not available");
+    }
 }
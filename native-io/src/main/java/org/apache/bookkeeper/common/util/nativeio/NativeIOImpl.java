@@ -74,4 +74,15 @@ public class NativeIOImpl implements NativeIO {
     public long pread(int fd, long pointer, long size, long offset) throws NativeIOException {
         return NativeIOJni.pread(fd, pointer, size, offset);
     }
+
+    @Override
+    public long copyFileRange(int fdIn, long offsetIn, int fdOut, long offsetOut, long len)
+            throws NativeIOException {
+        return NativeIOJni.copyFileRange(fdIn, offsetIn, fdOut, offsetOut, len);
+    }
+
+    @Override
+    public NativeIORing ringSetup(int entries) throws NativeIOException {
+        return new NativeIORingImpl(NativeIOJni.ringSetup(entries), entries);
+    }
 }
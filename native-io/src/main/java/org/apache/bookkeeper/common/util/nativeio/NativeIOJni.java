@@ -48,6 +48,19 @@ class NativeIOJni {
 
     static native int close(int fd) throws NativeIOException;
 
+    static native long copyFileRange(int fdIn, long offsetIn, int fdOut, long offsetOut, long len)
+            throws NativeIOException;
+
+    static native long ringSetup(int entries) throws NativeIOException;
+
+    static native void ringPrepare(long ring, int op, int fd, long pointer, int count, long offset,
+                                   boolean drain, long userData) throws NativeIOException;
+
+    static native int ringSubmitAndWait(long ring, int minCompletions, long[] userData, int[] results)
+            throws NativeIOException;
+
+    static native void ringClose(long ring) throws NativeIOException;
+
     static {
         try {
             if (SystemUtils.IS_OS_MAC_OSX) {
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.common.util.nativeio;
+
+/**
+ * An io_uring instance, to submit batches of reads, writes and fsyncs to the kernel and reap their completions
+ * without blocking a thread on each operation.
+ *
+ * <p>The operations are only queued by the {@code prepare} methods, until {@link #submitAndWait} is called. Each
+ * operation is identified by the user data passed when preparing it, and returned with its completion.
+ *
+ * <p>The ring is not thread-safe. At most {@link #entries()} operations can be prepared or in flight at the same
+ * time, the caller has to reap the completions before preparing more.
+ */
+public interface NativeIORing {
+
+    /**
+     * Max number of operations prepared or in flight.
+     */
+    int entries();
+
+    void prepareRead(int fd, long pointer, int count, long offset, long userData) throws NativeIOException;
+
+    void prepareWrite(int fd, long pointer, int count, long offset, long userData) throws NativeIOException;
+
+    /**
+     * Prepare a fsync of the file, which is only started once all the operations submitted before it completed.
+     *
+     * @param dataOnly whether to only sync the data and the metadata needed to read it back, as fdatasync(2)
+     */
+    void prepareFsync(int fd, boolean dataOnly, long userData) throws NativeIOException;
+
+    /**
+     * Submit the prepared operations, wait until at least {@code minCompletions} completions are available and reap
+     * the available completions.
+     *
+     * <p>The wait can be interrupted by a signal, in which case less completions are returned.
+     *
+     * @param userData filled with the user data of the completed operations
+     * @param results filled with the result of the completed operations, the number of bytes transferred or the
+     *                negated errno in case of failure
+     * @return the number of completions reaped, at most the length of the arrays
+     */
+    int submitAndWait(int minCompletions, long[] userData, int[] results) throws NativeIOException;
+
+    /**
+     * Wait for the operations prepared or in flight to complete, discarding their completions, and release the ring.
+     *
+     * <p>If the wait fails, the ring is left open since the operations in flight may still access the memory passed
+     * to them.
+     */
+    void close() throws NativeIOException;
+}
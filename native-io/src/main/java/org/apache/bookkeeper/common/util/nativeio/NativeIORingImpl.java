@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.common.util.nativeio;
+
+class NativeIORingImpl implements NativeIORing {
+    // These constants must match the ones used in JNI code
+    private static final int OP_READ = 0;
+    private static final int OP_WRITE = 1;
+    private static final int OP_FSYNC = 2;
+    private static final int OP_FDATASYNC = 3;
+
+    private final long ring;
+    private final int entries;
+    // Operations prepared or in flight whose completion wasn't reaped yet
+    private int pending = 0;
+    private boolean closed = false;
+
+    NativeIORingImpl(long ring, int entries) {
+        this.ring = ring;
+        this.entries = entries;
+    }
+
+    @Override
+    public int entries() {
+        return entries;
+    }
+
+    @Override
+    public void prepareRead(int fd, long pointer, int count, long offset, long userData) throws NativeIOException {
+        checkOpen();
+        NativeIOJni.ringPrepare(ring, OP_READ, fd, pointer, count, offset, false, userData);
+        pending++;
+    }
+
+    @Override
+    public void prepareWrite(int fd, long pointer, int count, long offset, long userData) throws NativeIOException {
+        checkOpen();
+        NativeIOJni.ringPrepare(ring, OP_WRITE, fd, pointer, count, offset, false, userData);
+        pending++;
+    }
+
+    @Override
+    public void prepareFsync(int fd, boolean dataOnly, long userData) throws NativeIOException {
+        checkOpen();
+        NativeIOJni.ringPrepare(ring, dataOnly ? OP_FDATASYNC : OP_FSYNC, fd, 0, 0, 0, true, userData);
+        pending++;
+    }
+
+    @Override
+    public int submitAndWait(int minCompletions, long[] userData, int[] results) throws NativeIOException {
+        checkOpen();
+        int completed = NativeIOJni.ringSubmitAndWait(ring, minCompletions, userData, results);
+        pending -= completed;
+        return completed;
+    }
+
+    @Override
+    public void close() throws NativeIOException {
+        if (closed) {
+            return;
+        }
+        // Tearing down the ring doesn't wait for the operations in flight, which could still write to the memory
+        // of the caller once it's freed
+        long[] userData = new long[entries];
+        int[] results = new int[entries];
+        while (pending > 0) {
+            submitAndWait(pending, userData, results);
+        }
+        closed = true;
+        NativeIOJni.ringClose(ring);
+    }
+
+    private void checkOpen() throws NativeIOException {
+        if (closed) {
+            throw new NativeIOException("io_uring instance is closed");
+        }
+    }
+}
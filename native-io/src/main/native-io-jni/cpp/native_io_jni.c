@@ -26,6 +26,22 @@
 #include <string.h>
 #include <unistd.h>
 
+#ifdef __linux__
+#include <sys/syscall.h>
+#endif
+
+#if defined(__linux__) && defined(__has_include)
+#if __has_include(<linux/io_uring.h>)
+#include <linux/io_uring.h>
+#include <sys/mman.h>
+#include <sys/syscall.h>
+// The probe of the supported operations was added with IORING_OP_READ and IORING_OP_WRITE, in 5.6
+#if defined(__NR_io_uring_setup) && defined(IO_URING_OP_SUPPORTED)
+#define HAVE_IO_URING 1
+#endif
+#endif
+#endif
+
 #include <org_apache_bookkeeper_common_util_nativeio_NativeIOJni.h>
 
 #ifdef _WIN32
@@ -251,6 +267,30 @@ Java_org_apache_bookkeeper_common_util_nativeio_NativeIOJni_close(JNIEnv* env, j
     return res;
 }
 
+/*
+ * Class:     org_apache_bookkeeper_common_util_nativeio_NativeIOJni
+ * Method:    copyFileRange
+ * Signature: (IJIJJ)J
+ */
+JNIEXPORT jlong JNICALL Java_org_apache_bookkeeper_common_util_nativeio_NativeIOJni_copyFileRange
+    (JNIEnv* env, jclass clazz, jint fdIn, jlong offsetIn, jint fdOut, jlong offsetOut, jlong len) {
+#if defined(__linux__) && defined(__NR_copy_file_range)
+    // Through the raw syscall, since the glibc wrapper needs glibc 2.27
+    loff_t in = offsetIn;
+    loff_t out = offsetOut;
+    long res = syscall(__NR_copy_file_range, fdIn, &in, fdOut, &out, (size_t) len, 0);
+
+    if (res == -1) {
+      throwExceptionWithErrno(env, "Failed to copy_file_range");
+    }
+
+    return res;
+#else
+    throwException(env, "copy_file_range is not available");
+    return -1;
+#endif
+}
+
 /*
  * Class:     org_apache_bookkeeper_common_util_nativeio_NativeIOJni
  * Method:    pwrite
@@ -311,3 +351,290 @@ JNIEXPORT void JNICALL Java_org_apache_bookkeeper_common_util_nativeio_NativeIOJ
      free((const void*) pointer);
 }
 
+
+#ifdef HAVE_IO_URING
+
+/*
+ * Minimal io_uring ring, driven through the raw syscalls so that there is no dependency on liburing.
+ * The ring is not thread-safe, the Java side serializes the access.
+ */
+typedef struct {
+    int fd;
+    unsigned *sqHead;
+    unsigned *sqTail;
+    unsigned sqMask;
+    unsigned sqEntries;
+    unsigned *sqArray;
+    struct io_uring_sqe *sqes;
+    unsigned *cqHead;
+    unsigned *cqTail;
+    unsigned cqMask;
+    struct io_uring_cqe *cqes;
+    void *sqRing;
+    size_t sqRingSize;
+    void *cqRing;
+    size_t cqRingSize;
+    size_t sqesSize;
+    unsigned toSubmit;
+} bk_ring;
+
+static void ringUnmap(bk_ring *ring) {
+    if (ring->sqes != NULL && ring->sqes != MAP_FAILED) {
+        munmap(ring->sqes, ring->sqesSize);
+    }
+    if (ring->cqRing != NULL && ring->cqRing != MAP_FAILED && ring->cqRing != ring->sqRing) {
+        munmap(ring->cqRing, ring->cqRingSize);
+    }
+    if (ring->sqRing != NULL && ring->sqRing != MAP_FAILED) {
+        munmap(ring->sqRing, ring->sqRingSize);
+    }
+    close(ring->fd);
+    free(ring);
+}
+
+/*
+ * Check that the kernel supports all the operations used by the ring, IORING_OP_READ and IORING_OP_WRITE
+ * were only added in 5.6.
+ */
+static int ringProbe(int ringFd) {
+    size_t size = sizeof(struct io_uring_probe) + 256 * sizeof(struct io_uring_probe_op);
+    struct io_uring_probe *probe = calloc(1, size);
+    if (probe == NULL) {
+        errno = ENOMEM;
+        return -1;
+    }
+    int res = syscall(__NR_io_uring_register, ringFd, IORING_REGISTER_PROBE, probe, 256);
+    if (res == 0) {
+        int ops[] = { IORING_OP_READ, IORING_OP_WRITE, IORING_OP_FSYNC };
+        for (int i = 0; i < 3; i++) {
+            if (ops[i] > probe->last_op || !(probe->ops[ops[i]].flags & IO_URING_OP_SUPPORTED)) {
+                errno = EOPNOTSUPP;
+                res = -1;
+                break;
+            }
+        }
+    }
+    free(probe);
+    return res;
+}
+
+#endif
+
+/*
+ * Class:     org_apache_bookkeeper_common_util_nativeio_NativeIOJni
+ * Method:    ringSetup
+ * Signature: (I)J
+ */
+JNIEXPORT jlong JNICALL Java_org_apache_bookkeeper_common_util_nativeio_NativeIOJni_ringSetup
+    (JNIEnv *env, jclass clazz, jint entries) {
+#ifdef HAVE_IO_URING
+    struct io_uring_params params;
+    memset(&params, 0, sizeof(params));
+
+    int ringFd = syscall(__NR_io_uring_setup, entries, &params);
+    if (ringFd < 0) {
+        throwExceptionWithErrno(env, "Failed to setup io_uring");
+        return 0;
+    }
+
+    bk_ring *ring = calloc(1, sizeof(bk_ring));
+    if (ring == NULL) {
+        close(ringFd);
+        errno = ENOMEM;
+        throwExceptionWithErrno(env, "Failed to setup io_uring");
+        return 0;
+    }
+    ring->fd = ringFd;
+
+    if (ringProbe(ringFd) != 0) {
+        int err = errno;
+        ringUnmap(ring);
+        errno = err;
+        throwExceptionWithErrno(env, "io_uring operations not supported");
+        return 0;
+    }
+
+    ring->sqRingSize = params.sq_off.array + params.sq_entries * sizeof(unsigned);
+    ring->cqRingSize = params.cq_off.cqes + params.cq_entries * sizeof(struct io_uring_cqe);
+    if (params.features & IORING_FEAT_SINGLE_MMAP) {
+        if (ring->cqRingSize > ring->sqRingSize) {
+            ring->sqRingSize = ring->cqRingSize;
+        }
+        ring->cqRingSize = ring->sqRingSize;
+    }
+
+    ring->sqRing = mmap(NULL, ring->sqRingSize, PROT_READ | PROT_WRITE, MAP_SHARED | MAP_POPULATE,
+                        ringFd, IORING_OFF_SQ_RING);
+    if (ring->sqRing == MAP_FAILED) {
+        int err = errno;
+        ringUnmap(ring);
+        errno = err;
+        throwExceptionWithErrno(env, "Failed to map io_uring submission queue");
+        return 0;
+    }
+
+    if (params.features & IORING_FEAT_SINGLE_MMAP) {
+        ring->cqRing = ring->sqRing;
+    } else {
+        ring->cqRing = mmap(NULL, ring->cqRingSize, PROT_READ | PROT_WRITE, MAP_SHARED | MAP_POPULATE,
+                            ringFd, IORING_OFF_CQ_RING);
+        if (ring->cqRing == MAP_FAILED) {
+            int err = errno;
+            ringUnmap(ring);
+            errno = err;
+            throwExceptionWithErrno(env, "Failed to map io_uring completion queue");
+            return 0;
+        }
+    }
+
+    ring->sqesSize = params.sq_entries * sizeof(struct io_uring_sqe);
+    ring->sqes = mmap(NULL, ring->sqesSize, PROT_READ | PROT_WRITE, MAP_SHARED | MAP_POPULATE,
+                      ringFd, IORING_OFF_SQES);
+    if (ring->sqes == MAP_FAILED) {
+        int err = errno;
+        ringUnmap(ring);
+        errno = err;
+        throwExceptionWithErrno(env, "Failed to map io_uring submission entries");
+        return 0;
+    }
+
+    char *sq = (char *) ring->sqRing;
+    ring->sqHead = (unsigned *) (sq + params.sq_off.head);
+    ring->sqTail = (unsigned *) (sq + params.sq_off.tail);
+    ring->sqMask = *(unsigned *) (sq + params.sq_off.ring_mask);
+    ring->sqEntries = *(unsigned *) (sq + params.sq_off.ring_entries);
+    ring->sqArray = (unsigned *) (sq + params.sq_off.array);
+
+    char *cq = (char *) ring->cqRing;
+    ring->cqHead = (unsigned *) (cq + params.cq_off.head);
+    ring->cqTail = (unsigned *) (cq + params.cq_off.tail);
+    ring->cqMask = *(unsigned *) (cq + params.cq_off.ring_mask);
+    ring->cqes = (struct io_uring_cqe *) (cq + params.cq_off.cqes);
+
+    return (jlong) ring;
+#else
+    throwException(env, "io_uring is not available");
+    return 0;
+#endif
+}
+
+/*
+ * Class:     org_apache_bookkeeper_common_util_nativeio_NativeIOJni
+ * Method:    ringPrepare
+ * Signature: (JIIJIJZJ)V
+ */
+JNIEXPORT void JNICALL Java_org_apache_bookkeeper_common_util_nativeio_NativeIOJni_ringPrepare
+    (JNIEnv *env, jclass clazz, jlong ringPointer, jint op, jint fd, jlong pointer, jint count, jlong offset,
+     jboolean drain, jlong userData) {
+#ifdef HAVE_IO_URING
+    bk_ring *ring = (bk_ring *) ringPointer;
+
+    unsigned tail = *ring->sqTail;
+    unsigned head = __atomic_load_n(ring->sqHead, __ATOMIC_ACQUIRE);
+    if (tail - head >= ring->sqEntries) {
+        throwException(env, "io_uring submission queue is full");
+        return;
+    }
+
+    unsigned index = tail & ring->sqMask;
+    struct io_uring_sqe *sqe = &ring->sqes[index];
+    memset(sqe, 0, sizeof(*sqe));
+    sqe->fd = fd;
+    sqe->user_data = (unsigned long long) userData;
+    if (drain) {
+        sqe->flags |= IOSQE_IO_DRAIN;
+    }
+
+    // The op codes are defined in NativeIORingImpl
+    switch (op) {
+    case 0:
+        sqe->opcode = IORING_OP_READ;
+        sqe->addr = (unsigned long long) pointer;
+        sqe->len = count;
+        sqe->off = offset;
+        break;
+    case 1:
+        sqe->opcode = IORING_OP_WRITE;
+        sqe->addr = (unsigned long long) pointer;
+        sqe->len = count;
+        sqe->off = offset;
+        break;
+    case 2:
+        sqe->opcode = IORING_OP_FSYNC;
+        break;
+    case 3:
+        sqe->opcode = IORING_OP_FSYNC;
+        sqe->fsync_flags = IORING_FSYNC_DATASYNC;
+        break;
+    default:
+        throwException(env, "Unknown io_uring operation");
+        return;
+    }
+
+    ring->sqArray[index] = index;
+    __atomic_store_n(ring->sqTail, tail + 1, __ATOMIC_RELEASE);
+    ring->toSubmit++;
+#else
+    throwException(env, "io_uring is not available");
+#endif
+}
+
+/*
+ * Class:     org_apache_bookkeeper_common_util_nativeio_NativeIOJni
+ * Method:    ringSubmitAndWait
+ * Signature: (JI[J[I)I
+ */
+JNIEXPORT jint JNICALL Java_org_apache_bookkeeper_common_util_nativeio_NativeIOJni_ringSubmitAndWait
+    (JNIEnv *env, jclass clazz, jlong ringPointer, jint minCompletions, jlongArray userDataArray,
+     jintArray resultsArray) {
+#ifdef HAVE_IO_URING
+    bk_ring *ring = (bk_ring *) ringPointer;
+
+    if (ring->toSubmit > 0 || minCompletions > 0) {
+        unsigned flags = minCompletions > 0 ? IORING_ENTER_GETEVENTS : 0;
+        int res = syscall(__NR_io_uring_enter, ring->fd, ring->toSubmit, minCompletions, flags, NULL, 0);
+        if (res < 0) {
+            // Interrupted waits are retried by the caller, since they only get the available completions
+            if (errno != EINTR && errno != EAGAIN && errno != EBUSY) {
+                throwExceptionWithErrno(env, "Failed to submit to io_uring");
+                return -1;
+            }
+        } else {
+            ring->toSubmit -= res;
+        }
+    }
+
+    jsize maxCompletions = (*env)->GetArrayLength(env, userDataArray);
+    unsigned head = *ring->cqHead;
+    unsigned tail = __atomic_load_n(ring->cqTail, __ATOMIC_ACQUIRE);
+    jint count = 0;
+    while (head != tail && count < maxCompletions) {
+        struct io_uring_cqe *cqe = &ring->cqes[head & ring->cqMask];
+        jlong userData = (jlong) cqe->user_data;
+        jint result = cqe->res;
+        (*env)->SetLongArrayRegion(env, userDataArray, count, 1, &userData);
+        (*env)->SetIntArrayRegion(env, resultsArray, count, 1, &result);
+        head++;
+        count++;
+    }
+    __atomic_store_n(ring->cqHead, head, __ATOMIC_RELEASE);
+    return count;
+#else
+    throwException(env, "io_uring is not available");
+    return -1;
+#endif
+}
+
+/*
+ * Class:     org_apache_bookkeeper_common_util_nativeio_NativeIOJni
+ * Method:    ringClose
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_org_apache_bookkeeper_common_util_nativeio_NativeIOJni_ringClose
+    (JNIEnv *env, jclass clazz, jlong ringPointer) {
+#ifdef HAVE_IO_URING
+    ringUnmap((bk_ring *) ringPointer);
+#else
+    throwException(env, "io_uring is not available");
+#endif
+}
@@ -0,0 +1,195 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.bookkeeper.tools.perf.journal;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.beust.jcommander.Parameter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.bookie.BookieException;
+import org.apache.bookkeeper.bookie.BookieImpl;
+import org.apache.bookkeeper.bookie.CheckpointSource;
+import org.apache.bookkeeper.bookie.Journal;
+import org.apache.bookkeeper.bookie.Journal.JournalScanner;
+import org.apache.bookkeeper.bookie.LedgerDirsManager;
+import org.apache.bookkeeper.bookie.ParallelJournalScanner;
+import org.apache.bookkeeper.bookie.storage.ldb.DbLedgerStorage;
+import org.apache.bookkeeper.common.allocator.ByteBufAllocatorBuilder;
+import org.apache.bookkeeper.common.allocator.PoolingPolicy;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.tools.framework.CliFlags;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashSet;
+import org.apache.commons.configuration.CompositeConfiguration;
+
+/**
+ * A perf replayer to evaluate how fast the journals are replayed on the bookie startup.
+ */
+@Slf4j
+public class JournalReplayer implements Runnable {
+
+    /**
+     * Flags for the replay command.
+     */
+    public static class Flags extends CliFlags {
+
+        @Parameter(
+            names = {
+                "-j", "--journal-dirs"
+            },
+            description = "The list of journal directories to replay, separated by comma",
+            required = true)
+        public List<String> journalDirs;
+
+        @Parameter(
+            names = {
+                "-l", "--ledger-dirs"
+            },
+            description = "The list of ledger directories to replay the entries into, separated by comma",
+            required = true)
+        public List<String> ledgerDirs;
+
+        @Parameter(
+            names = {
+                "-t", "--num-replay-threads"
+            },
+            description = "Num of threads replaying the journal entries"
+        )
+        public int numReplayThreads = 1;
+
+        @Parameter(
+            names = {
+                "-mpb", "--max-pending-megabytes"
+            },
+            description = "Max size of the journal entries read and not replayed yet"
+        )
+        public int maxPendingMB = 64;
+
+    }
+
+    private final LongAdder entriesReplayed = new LongAdder();
+    private final LongAdder bytesReplayed = new LongAdder();
+
+    private final ServerConfiguration conf;
+    private final Flags flags;
+
+    JournalReplayer(CompositeConfiguration conf, Flags flags) {
+        this.conf = new ServerConfiguration();
+        this.conf.addConfiguration(conf);
+        this.flags = flags;
+    }
+
+    @Override
+    public void run() {
+        try {
+            execute();
+        } catch (Exception e) {
+            log.error("Encountered exception at running journal perf replayer", e);
+        }
+    }
+
+    void execute() throws Exception {
+        ObjectMapper m = new ObjectMapper();
+        ObjectWriter w = m.writerWithDefaultPrettyPrinter();
+        log.info("Starting journal perf replayer with config : {}", w.writeValueAsString(flags));
+
+        checkArgument(flags.journalDirs.size() > 0, "No journal dirs is provided");
+        checkArgument(flags.ledgerDirs.size() > 0, "No ledger dirs is provided");
+
+        conf.setLedgerDirNames(flags.ledgerDirs.toArray(new String[0]));
+        conf.setJournalReplayThreads(flags.numReplayThreads);
+        for (File dir : BookieImpl.getCurrentDirectories(conf.getLedgerDirs())) {
+            if (dir.mkdirs()) {
+                log.info("Successfully created dir {}", dir);
+            }
+        }
+
+        ByteBufAllocator allocator = ByteBufAllocatorBuilder.create()
+                .poolingPolicy(PoolingPolicy.PooledDirect)
+                .build();
+        DiskChecker checker = new DiskChecker(
+            conf.getDiskUsageThreshold(),
+            conf.getDiskUsageWarnThreshold()
+        );
+        LedgerDirsManager manager = new LedgerDirsManager(
+            conf,
+            conf.getLedgerDirs(),
+            checker,
+            NullStatsLogger.INSTANCE
+        );
+        DbLedgerStorage storage = new DbLedgerStorage();
+        storage.initialize(conf, null, manager, manager, NullStatsLogger.INSTANCE, allocator);
+        storage.setCheckpointSource(CheckpointSource.DEFAULT);
+
+        try {
+            execute(storage, manager);
+        } finally {
+            storage.shutdown();
+        }
+    }
+
+    void execute(DbLedgerStorage storage, LedgerDirsManager manager) throws Exception {
+        ConcurrentLongHashSet ledgers = ConcurrentLongHashSet.newBuilder().build();
+        JournalScanner scanner = (journalVersion, offset, entry) -> {
+            long ledgerId = entry.getLong(entry.position());
+            long entryId = entry.getLong(entry.position() + 8);
+            if (entryId < 0) {
+                // Skip the meta entries
+                return;
+            }
+            try {
+                if (ledgers.add(ledgerId)) {
+                    storage.setMasterKey(ledgerId, new byte[0]);
+                }
+                bytesReplayed.add(entry.remaining());
+                storage.addEntry(Unpooled.wrappedBuffer(entry));
+                entriesReplayed.increment();
+            } catch (BookieException e) {
+                throw new IOException(e);
+            }
+        };
+
+        long startTime = System.nanoTime();
+        try (ParallelJournalScanner parallelScanner = new ParallelJournalScanner(scanner,
+                flags.numReplayThreads, flags.maxPendingMB * 1024 * 1024)) {
+            for (int i = 0; i < flags.journalDirs.size(); i++) {
+                File journalDir = new File(flags.journalDirs.get(i));
+                Journal journal = new Journal(i, journalDir, conf, manager);
+                for (long journalId : Journal.listJournalIds(journalDir, null)) {
+                    log.info("Replaying journal {} of {}", journalId, journalDir);
+                    journal.scanJournal(journalId, 0L, parallelScanner);
+                    parallelScanner.waitForCompletion();
+                }
+            }
+        }
+        storage.flush();
+        double elapsed = (System.nanoTime() - startTime) / 1e9;
+
+        log.info("Replayed {} entries ({} MB) with {} threads in {} s --- {} entries/s --- {} MB/s",
+                entriesReplayed.sum(), bytesReplayed.sum() / 1024 / 1024, flags.numReplayThreads,
+                String.format("%.3f", elapsed), String.format("%.1f", entriesReplayed.sum() / elapsed),
+                String.format("%.1f", bytesReplayed.sum() / elapsed / 1024 / 1024));
+    }
+
+}
@@ -145,6 +145,14 @@ public class JournalWriter implements Runnable {
         )
         public boolean journalSyncEnabled = false;
 
+        @Parameter(
+            names = {
+                "--pipelined-writes"
+            },
+            description = "Write the journal files in background, while the journal thread fills the next buffer"
+        )
+        public boolean journalPipelinedWrites = false;
+
         @Parameter(
             names = {
                 "-gci", "--group-commit-interval-ms"
@@ -363,7 +371,10 @@ public class JournalWriter implements Runnable {
                 int ledgerIdx = ThreadLocalRandom.current().nextInt(numLedgersForThisThread);
                 long lid = threadIdx * numLedgersForThisThread + ledgerIdx;
                 long eid = entryIds[ledgerIdx]++;
-                ByteBuf buf = payloadBuf.retainedDuplicate();
+                // Prefix the payload with the entry header, so that the journal can be replayed
+                ByteBuf header = Unpooled.buffer(2 * Long.BYTES);
+                header.writeLong(lid).writeLong(eid);
+                ByteBuf buf = Unpooled.wrappedBuffer(header, payloadBuf.retainedDuplicate());
                 int len = buf.readableBytes();
 
                 if (numRecordsForThisThread > 0
@@ -476,6 +487,7 @@ public class JournalWriter implements Runnable {
         conf.setNumJournalCallbackThreads(flags.numJournalCallbackThreads);
         conf.setJournalQueueSize(flags.journalQueueSize);
         conf.setJournalSyncData(flags.journalSyncEnabled);
+        conf.setJournalPipelinedWritesEnabled(flags.journalPipelinedWrites);
         conf.setLedgerDirNames(flags.journalDirs.toArray(new String[0]));
         conf.setStatsProviderClass(PrometheusMetricsProvider.class);
         File[] currentDirs = BookieImpl.getCurrentDirectories(conf.getLedgerDirs());